@@ -27,6 +27,8 @@ import com.opengamma.core.security.SecuritySource;
 import com.opengamma.engine.marketdata.InMemoryNamedMarketDataSpecificationRepository;
 import com.opengamma.engine.marketdata.MarketDataProviderFactory;
 import com.opengamma.engine.marketdata.NamedMarketDataSpecificationRepository;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProvider;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProviderMBean;
 import com.opengamma.engine.marketdata.availability.MarketDataAvailabilityProvider;
 import com.opengamma.engine.marketdata.live.LiveDataFactory;
 import com.opengamma.engine.marketdata.live.LiveMarketDataProviderFactory;
@@ -83,7 +85,8 @@ public class ExampleMarketDataClientComponentFactory extends AbstractComponentFa
   private MarketDataProviderFactory initLiveMarketDataProviderFactory(ComponentRepository repo) {
     LiveDataClient bbgLiveDataClient = createLiveDataClient(getBbgSubscriptionTopic(), getBbgEntitlementTopic(), getBbgHeartbeatTopic());
     MarketDataAvailabilityProvider bbgAvailabilityProvider = BloombergDataUtils.createAvailabilityProvider(getSecuritySource());
-    LiveDataFactory factory = new LiveDataFactory(bbgLiveDataClient, bbgAvailabilityProvider, getSecuritySource());
+    LiveDataFactory factory = new LiveDataFactory(bbgLiveDataClient, bbgAvailabilityProvider, getSecuritySource(), true);
+    repo.registerMBean(new CachingMarketDataAvailabilityProviderMBean((CachingMarketDataAvailabilityProvider) factory.getAvailabilityProvider()));
     Map<String, LiveDataFactory> factories = ImmutableMap.of(BLOOMBERG_LIVE_SOURCE_NAME, factory);
     LiveMarketDataProviderFactory liveMarketDataProviderFactory = new LiveMarketDataProviderFactory(factory, factories);
     ComponentInfo info = new ComponentInfo(MarketDataProviderFactory.class, getClassifier());
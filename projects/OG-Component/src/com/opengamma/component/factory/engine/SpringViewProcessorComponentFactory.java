@@ -46,6 +46,8 @@ import com.opengamma.financial.view.rest.DataViewProcessorResource;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 import com.opengamma.util.jms.JmsConnector;
+import com.opengamma.util.monitor.LatencyTracer;
+import com.opengamma.util.monitor.LatencyTracerMBean;
 
 /**
  * Component definition for the view processor defined in Spring extended to produce RESTful artifacts.
@@ -106,6 +108,7 @@ public class SpringViewProcessorComponentFactory extends AbstractSpringComponent
     initUserPrincipal(repo, appContext);
     initFunctions(repo, appContext);
     initForDebugging(repo, appContext);
+    initLatencyTracing(repo);
     registerSpringLifecycleStop(repo, appContext);
   }
 
@@ -222,6 +225,18 @@ public class SpringViewProcessorComponentFactory extends AbstractSpringComponent
     registerInfrastructureByType(repo, MultipleNodeExecutorTuner.class, appContext);
   }
 
+  /**
+   * Registers the tracer of latency from sampled market data ticks to view cycle results, which
+   * reports periodically to the log and over JMX.
+   * 
+   * @param repo  the repository to register with, not null
+   */
+  protected void initLatencyTracing(ComponentRepository repo) {
+    LatencyTracer tracer = LatencyTracer.getInstance();
+    repo.registerLifecycle(tracer);
+    repo.registerMBean(new LatencyTracerMBean(tracer));
+  }
+
   //------------------------- AUTOGENERATED START -------------------------
   ///CLOVER:OFF
   /**
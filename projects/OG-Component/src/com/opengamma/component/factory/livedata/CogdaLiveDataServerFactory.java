@@ -27,6 +27,8 @@ import com.opengamma.livedata.cogda.server.CogdaLiveDataServer;
 import com.opengamma.livedata.cogda.server.CogdaLiveDataServerMBean;
 import com.opengamma.livedata.cogda.server.CogdaLiveDataServerUpdateListener;
 import com.opengamma.livedata.server.LastKnownValueStoreProvider;
+import com.opengamma.livedata.server.RedisLastKnownValueStoreProvider;
+import com.opengamma.livedata.server.RedisLastKnownValueStoreProviderMBean;
 import com.opengamma.transport.ByteArrayFudgeMessageReceiver;
 import com.opengamma.transport.jms.JmsByteArrayMessageDispatcher;
 import com.opengamma.util.jms.JmsConnector;
@@ -86,6 +88,11 @@ public class CogdaLiveDataServerFactory extends AbstractComponentFactory {
     repo.registerLifecycle(liveDataServer);
     repo.registerLifecycle(container);
     repo.registerMBean(mbean);
+    if (lkvStoreProvider instanceof RedisLastKnownValueStoreProvider) {
+      final RedisLastKnownValueStoreProvider redisProvider = (RedisLastKnownValueStoreProvider) lkvStoreProvider;
+      repo.registerLifecycle(redisProvider);
+      repo.registerMBean(new RedisLastKnownValueStoreProviderMBean(redisProvider));
+    }
   }
 
   //------------------------- AUTOGENERATED START -------------------------
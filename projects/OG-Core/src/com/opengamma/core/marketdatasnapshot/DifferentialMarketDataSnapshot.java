@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.core.marketdatasnapshot;
+
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.PublicSPI;
+
+/**
+ * A structured snapshot that may hold only the values that differ from a parent snapshot.
+ * <p>
+ * A differential snapshot holds only the values that differ from its parent. The values it does hold take
+ * precedence over the parent's, and a value with neither a market nor an override value removes the parent's.
+ * A snapshot that does not implement this interface is always a full snapshot.
+ */
+@PublicSPI
+public interface DifferentialMarketDataSnapshot extends StructuredMarketDataSnapshot {
+
+  /**
+   * Gets the unique identifier of the snapshot this is a differential of.
+   * 
+   * @return the parent snapshot identifier, null if this is a full snapshot
+   */
+  UniqueId getParentSnapshotId();
+
+}
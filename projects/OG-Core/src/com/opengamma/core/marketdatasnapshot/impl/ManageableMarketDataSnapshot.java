@@ -20,6 +20,7 @@ import org.joda.beans.impl.direct.DirectMetaBean;
 import org.joda.beans.impl.direct.DirectMetaProperty;
 import org.joda.beans.impl.direct.DirectMetaPropertyMap;
 
+import com.opengamma.core.marketdatasnapshot.DifferentialMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.StructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.UnstructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.VolatilityCubeKey;
@@ -36,7 +37,7 @@ import com.opengamma.util.PublicSPI;
  */
 @BeanDefinition
 @PublicSPI
-public class ManageableMarketDataSnapshot extends DirectBean implements StructuredMarketDataSnapshot {
+public class ManageableMarketDataSnapshot extends DirectBean implements DifferentialMarketDataSnapshot {
 
   /**
    * The unique identifier of the snapshot.
@@ -57,6 +58,14 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
    */
   @PropertyDefinition
   private String _basisViewName;
+
+  /**
+   * The unique identifier of the snapshot this snapshot is a differential of.
+   * When set, this snapshot holds only the values that differ from the parent, see {@link MarketDataSnapshotChain}.
+   * This is null for a full snapshot.
+   */
+  @PropertyDefinition
+  private UniqueId _parentSnapshotId;
   
   @PropertyDefinition
   private UnstructuredMarketDataSnapshot _globalValues;
@@ -103,6 +112,9 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
   public ManageableMarketDataSnapshot(final StructuredMarketDataSnapshot copyFrom) {
     this(copyFrom.getName(), copyFrom.getGlobalValues(), copyFrom.getYieldCurves());
     _basisViewName = copyFrom.getBasisViewName();
+    if (copyFrom instanceof DifferentialMarketDataSnapshot) {
+      _parentSnapshotId = ((DifferentialMarketDataSnapshot) copyFrom).getParentSnapshotId();
+    }
   }
 
 
@@ -133,6 +145,8 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
         return getName();
       case 858810670:  // basisViewName
         return getBasisViewName();
+      case 1691227721:  // parentSnapshotId
+        return getParentSnapshotId();
       case -591591771:  // globalValues
         return getGlobalValues();
       case 119589713:  // yieldCurves
@@ -158,6 +172,9 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
       case 858810670:  // basisViewName
         setBasisViewName((String) newValue);
         return;
+      case 1691227721:  // parentSnapshotId
+        setParentSnapshotId((UniqueId) newValue);
+        return;
       case -591591771:  // globalValues
         setGlobalValues((UnstructuredMarketDataSnapshot) newValue);
         return;
@@ -184,6 +201,7 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
       return JodaBeanUtils.equal(getUniqueId(), other.getUniqueId()) &&
           JodaBeanUtils.equal(getName(), other.getName()) &&
           JodaBeanUtils.equal(getBasisViewName(), other.getBasisViewName()) &&
+          JodaBeanUtils.equal(getParentSnapshotId(), other.getParentSnapshotId()) &&
           JodaBeanUtils.equal(getGlobalValues(), other.getGlobalValues()) &&
           JodaBeanUtils.equal(getYieldCurves(), other.getYieldCurves()) &&
           JodaBeanUtils.equal(getVolatilityCubes(), other.getVolatilityCubes()) &&
@@ -198,6 +216,7 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
     hash += hash * 31 + JodaBeanUtils.hashCode(getUniqueId());
     hash += hash * 31 + JodaBeanUtils.hashCode(getName());
     hash += hash * 31 + JodaBeanUtils.hashCode(getBasisViewName());
+    hash += hash * 31 + JodaBeanUtils.hashCode(getParentSnapshotId());
     hash += hash * 31 + JodaBeanUtils.hashCode(getGlobalValues());
     hash += hash * 31 + JodaBeanUtils.hashCode(getYieldCurves());
     hash += hash * 31 + JodaBeanUtils.hashCode(getVolatilityCubes());
@@ -286,6 +305,37 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
     return metaBean().basisViewName().createProperty(this);
   }
 
+  //-----------------------------------------------------------------------
+  /**
+   * Gets the unique identifier of the snapshot this snapshot is a differential of.
+   * When set, this snapshot holds only the values that differ from the parent, see {@link MarketDataSnapshotChain}.
+   * This is null for a full snapshot.
+   * @return the value of the property
+   */
+  public UniqueId getParentSnapshotId() {
+    return _parentSnapshotId;
+  }
+
+  /**
+   * Sets the unique identifier of the snapshot this snapshot is a differential of.
+   * When set, this snapshot holds only the values that differ from the parent, see {@link MarketDataSnapshotChain}.
+   * This is null for a full snapshot.
+   * @param parentSnapshotId  the new value of the property
+   */
+  public void setParentSnapshotId(UniqueId parentSnapshotId) {
+    this._parentSnapshotId = parentSnapshotId;
+  }
+
+  /**
+   * Gets the the {@code parentSnapshotId} property.
+   * When set, this snapshot holds only the values that differ from the parent, see {@link MarketDataSnapshotChain}.
+   * This is null for a full snapshot.
+   * @return the property, not null
+   */
+  public final Property<UniqueId> parentSnapshotId() {
+    return metaBean().parentSnapshotId().createProperty(this);
+  }
+
   //-----------------------------------------------------------------------
   /**
    * Gets the globalValues.
@@ -411,6 +461,11 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
      */
     private final MetaProperty<String> _basisViewName = DirectMetaProperty.ofReadWrite(
         this, "basisViewName", ManageableMarketDataSnapshot.class, String.class);
+    /**
+     * The meta-property for the {@code parentSnapshotId} property.
+     */
+    private final MetaProperty<UniqueId> _parentSnapshotId = DirectMetaProperty.ofReadWrite(
+        this, "parentSnapshotId", ManageableMarketDataSnapshot.class, UniqueId.class);
     /**
      * The meta-property for the {@code globalValues} property.
      */
@@ -442,6 +497,7 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
         "uniqueId",
         "name",
         "basisViewName",
+        "parentSnapshotId",
         "globalValues",
         "yieldCurves",
         "volatilityCubes",
@@ -462,6 +518,8 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
           return _name;
         case 858810670:  // basisViewName
           return _basisViewName;
+        case 1691227721:  // parentSnapshotId
+          return _parentSnapshotId;
         case -591591771:  // globalValues
           return _globalValues;
         case 119589713:  // yieldCurves
@@ -514,6 +572,14 @@ public class ManageableMarketDataSnapshot extends DirectBean implements Structur
       return _basisViewName;
     }
 
+    /**
+     * The meta-property for the {@code parentSnapshotId} property.
+     * @return the meta-property, not null
+     */
+    public final MetaProperty<UniqueId> parentSnapshotId() {
+      return _parentSnapshotId;
+    }
+
     /**
      * The meta-property for the {@code globalValues} property.
      * @return the meta-property, not null
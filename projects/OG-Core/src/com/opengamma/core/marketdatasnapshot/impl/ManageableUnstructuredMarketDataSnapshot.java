@@ -7,6 +7,7 @@ package com.opengamma.core.marketdatasnapshot.impl;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.Set;
 
 import com.opengamma.core.marketdatasnapshot.MarketDataValueSpecification;
 import com.opengamma.core.marketdatasnapshot.UnstructuredMarketDataSnapshot;
@@ -14,6 +15,9 @@ import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
 
 /**
  * Mutable snapshot of market data.
+ * <p>
+ * A snapshot that differs from a parent, see {@link MarketDataSnapshotChain}, may also hold the names of values
+ * it removes from the parent.
  */
 public class ManageableUnstructuredMarketDataSnapshot implements UnstructuredMarketDataSnapshot, Serializable {
 
@@ -24,6 +28,10 @@ public class ManageableUnstructuredMarketDataSnapshot implements UnstructuredMar
    * The values.
    */
   private Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> _values;
+  /**
+   * The names of the values removed from the parent snapshot, null for none.
+   */
+  private Map<MarketDataValueSpecification, Set<String>> _removedValues;
 
   /**
    * Gets the values.
@@ -43,4 +51,22 @@ public class ManageableUnstructuredMarketDataSnapshot implements UnstructuredMar
     _values = values;
   }
 
+  /**
+   * Gets the names of the values removed from the parent snapshot.
+   * 
+   * @return the names of the removed values, keyed by their targets, null for none
+   */
+  public Map<MarketDataValueSpecification, Set<String>> getRemovedValues() {
+    return _removedValues;
+  }
+
+  /**
+   * Sets the names of the values removed from the parent snapshot.
+   * 
+   * @param removedValues  the names of the removed values, keyed by their targets, null for none
+   */
+  public void setRemovedValues(Map<MarketDataValueSpecification, Set<String>> removedValues) {
+    _removedValues = removedValues;
+  }
+
 }
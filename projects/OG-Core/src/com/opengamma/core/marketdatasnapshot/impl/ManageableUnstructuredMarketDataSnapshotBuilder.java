@@ -6,7 +6,9 @@
 package com.opengamma.core.marketdatasnapshot.impl;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.fudgemsg.FudgeField;
 import org.fudgemsg.FudgeMsg;
@@ -28,6 +30,10 @@ import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
  *       string valueName;
  *       ValueSnapshot value;
  *     } value = 1;
+ *     repeated message { // set
+ *       MarketDataValueSpecification valueSpec;
+ *       string valueName;
+ *     } removedValue = 2;
  *   }
  * </pre>
  */
@@ -61,6 +67,16 @@ public class ManageableUnstructuredMarketDataSnapshotBuilder implements FudgeBui
         ret.add(1, msg);
       }
     }
+    if (object.getRemovedValues() != null) {
+      for (Map.Entry<MarketDataValueSpecification, Set<String>> removed : object.getRemovedValues().entrySet()) {
+        for (String valueName : removed.getValue()) {
+          MutableFudgeMsg msg = serializer.newMessage();
+          serializer.addToMessage(msg, VALUE_SPEC_FIELD_NAME, null, removed.getKey());
+          serializer.addToMessage(msg, VALUE_NAME_FIELD_NAME, null, valueName);
+          ret.add(2, msg);
+        }
+      }
+    }
     return ret;
   }
 
@@ -81,6 +97,19 @@ public class ManageableUnstructuredMarketDataSnapshotBuilder implements FudgeBui
     
     ManageableUnstructuredMarketDataSnapshot ret = new ManageableUnstructuredMarketDataSnapshot();
     ret.setValues(values);
+    if (message.hasField(2)) {
+      Map<MarketDataValueSpecification, Set<String>> removedValues = new HashMap<MarketDataValueSpecification, Set<String>>();
+      for (FudgeField fudgeField : message.getAllByOrdinal(2)) {
+        FudgeMsg innerValue = (FudgeMsg) fudgeField.getValue();
+        MarketDataValueSpecification spec = deserializer.fieldValueToObject(MarketDataValueSpecification.class, innerValue.getByName(VALUE_SPEC_FIELD_NAME));
+        String valueName = innerValue.getFieldValue(String.class, innerValue.getByName(VALUE_NAME_FIELD_NAME));
+        if (!removedValues.containsKey(spec)) {
+          removedValues.put(spec, new HashSet<String>());
+        }
+        removedValues.get(spec).add(valueName);
+      }
+      ret.setRemovedValues(removedValues);
+    }
     return ret;
   }
 
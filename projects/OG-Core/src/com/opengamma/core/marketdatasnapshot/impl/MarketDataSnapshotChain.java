@@ -0,0 +1,501 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.core.marketdatasnapshot.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.core.marketdatasnapshot.DifferentialMarketDataSnapshot;
+import com.opengamma.core.marketdatasnapshot.MarketDataSnapshotSource;
+import com.opengamma.core.marketdatasnapshot.MarketDataValueSpecification;
+import com.opengamma.core.marketdatasnapshot.StructuredMarketDataSnapshot;
+import com.opengamma.core.marketdatasnapshot.UnstructuredMarketDataSnapshot;
+import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
+import com.opengamma.core.marketdatasnapshot.VolatilityCubeKey;
+import com.opengamma.core.marketdatasnapshot.VolatilityCubeSnapshot;
+import com.opengamma.core.marketdatasnapshot.VolatilitySurfaceKey;
+import com.opengamma.core.marketdatasnapshot.VolatilitySurfaceSnapshot;
+import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
+import com.opengamma.core.marketdatasnapshot.YieldCurveSnapshot;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * A differential snapshot together with the snapshots it is based on.
+ * <p>
+ * A snapshot with a {@link DifferentialMarketDataSnapshot#getParentSnapshotId() parent} holds only the values that
+ * differ from the parent, so a sequence of snapshots that differ in a few values shares everything else. Values are
+ * resolved by walking the chain from the child towards the full snapshot at its root without flattening it:
+ * <ul>
+ * <li>global values and yield curve points are resolved individually, the first snapshot holding the value wins and a
+ * differential snapshot removes a value by naming it in the {@link ManageableUnstructuredMarketDataSnapshot#getRemovedValues()
+ * removed values} of its global values or curve;
+ * <li>volatility surfaces and cubes are resolved whole, the first snapshot holding the surface or cube wins.
+ * </ul>
+ * A differential snapshot cannot remove a whole curve, surface or cube from its parent.
+ * <p>
+ * This class is immutable and thread-safe if the snapshots are not modified.
+ */
+public final class MarketDataSnapshotChain {
+
+  /**
+   * The snapshots, the child first and the full snapshot last.
+   */
+  private final List<StructuredMarketDataSnapshot> _snapshots;
+
+  /**
+   * Creates a chain.
+   *
+   * @param snapshots  the snapshots, the child first, each the parent of the one before and the last a full snapshot, not null or empty
+   */
+  public MarketDataSnapshotChain(final List<? extends StructuredMarketDataSnapshot> snapshots) {
+    ArgumentChecker.notEmpty(snapshots, "snapshots");
+    ArgumentChecker.noNulls(snapshots, "snapshots");
+    _snapshots = Collections.unmodifiableList(new ArrayList<StructuredMarketDataSnapshot>(snapshots));
+  }
+
+  /**
+   * Loads a snapshot and each of its parents.
+   *
+   * @param source  the source of snapshots, not null
+   * @param snapshotId  the identifier of the child snapshot, not null
+   * @return the chain, not null
+   * @throws com.opengamma.DataNotFoundException if a snapshot in the chain is not found
+   */
+  public static MarketDataSnapshotChain load(final MarketDataSnapshotSource source, final UniqueId snapshotId) {
+    ArgumentChecker.notNull(source, "source");
+    ArgumentChecker.notNull(snapshotId, "snapshotId");
+    final List<StructuredMarketDataSnapshot> snapshots = new ArrayList<StructuredMarketDataSnapshot>();
+    final Set<UniqueId> visited = new HashSet<UniqueId>();
+    UniqueId id = snapshotId;
+    do {
+      if (!visited.add(id)) {
+        throw new OpenGammaRuntimeException("Snapshot " + snapshotId + " has a cyclic parent chain through " + id);
+      }
+      final StructuredMarketDataSnapshot snapshot = source.getSnapshot(id);
+      snapshots.add(snapshot);
+      id = (snapshot instanceof DifferentialMarketDataSnapshot) ? ((DifferentialMarketDataSnapshot) snapshot).getParentSnapshotId() : null;
+    } while (id != null);
+    return new MarketDataSnapshotChain(snapshots);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the child snapshot.
+   *
+   * @return the snapshot the chain resolves, not null
+   */
+  public StructuredMarketDataSnapshot getSnapshot() {
+    return _snapshots.get(0);
+  }
+
+  /**
+   * Gets the snapshots in the chain.
+   *
+   * @return the snapshots, the child first and the full snapshot last, not null
+   */
+  public List<StructuredMarketDataSnapshot> getSnapshots() {
+    return _snapshots;
+  }
+
+  private boolean isRoot(final int index) {
+    return index == _snapshots.size() - 1;
+  }
+
+  private static Map<MarketDataValueSpecification, Set<String>> getRemovedValues(final UnstructuredMarketDataSnapshot values) {
+    if (values instanceof ManageableUnstructuredMarketDataSnapshot) {
+      return ((ManageableUnstructuredMarketDataSnapshot) values).getRemovedValues();
+    }
+    return null;
+  }
+
+  private boolean isRemoved(final int index, final UnstructuredMarketDataSnapshot values, final MarketDataValueSpecification specification, final String valueName) {
+    final Map<MarketDataValueSpecification, Set<String>> removedValues = getRemovedValues(values);
+    if (isRoot(index) || (removedValues == null)) {
+      return false;
+    }
+    final Set<String> removed = removedValues.get(specification);
+    return (removed != null) && removed.contains(valueName);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets a global value.
+   *
+   * @param specification  the target of the value, not null
+   * @param valueName  the name of the value, not null
+   * @return the value, null if there is none
+   */
+  public ValueSnapshot getGlobalValue(final MarketDataValueSpecification specification, final String valueName) {
+    for (int i = 0; i < _snapshots.size(); i++) {
+      final UnstructuredMarketDataSnapshot globalValues = _snapshots.get(i).getGlobalValues();
+      if (globalValues == null) {
+        continue;
+      }
+      if (globalValues.getValues() != null) {
+        final Map<String, ValueSnapshot> values = globalValues.getValues().get(specification);
+        if ((values != null) && values.containsKey(valueName)) {
+          return values.get(valueName);
+        }
+      }
+      if (isRemoved(i, globalValues, specification, valueName)) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets all of the global values.
+   *
+   * @return the global values, null if no snapshot in the chain has any
+   */
+  public UnstructuredMarketDataSnapshot getGlobalValues() {
+    final List<UnstructuredMarketDataSnapshot> layers = new ArrayList<UnstructuredMarketDataSnapshot>(_snapshots.size());
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      layers.add(snapshot.getGlobalValues());
+    }
+    return merge(layers);
+  }
+
+  /**
+   * Gets the keys of the yield curves.
+   *
+   * @return the keys, those in the child first, not null
+   */
+  public Set<YieldCurveKey> getYieldCurveKeys() {
+    final Set<YieldCurveKey> keys = new LinkedHashSet<YieldCurveKey>();
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      if (snapshot.getYieldCurves() != null) {
+        keys.addAll(snapshot.getYieldCurves().keySet());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Gets a yield curve, merging its points from each snapshot in the chain that holds it.
+   *
+   * @param key  the key of the curve, not null
+   * @return the curve, null if there is none
+   */
+  public YieldCurveSnapshot getYieldCurve(final YieldCurveKey key) {
+    YieldCurveSnapshot first = null;
+    final List<UnstructuredMarketDataSnapshot> layers = new ArrayList<UnstructuredMarketDataSnapshot>(_snapshots.size());
+    int count = 0;
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      final YieldCurveSnapshot curve = (snapshot.getYieldCurves() != null) ? snapshot.getYieldCurves().get(key) : null;
+      if (curve != null) {
+        if (first == null) {
+          first = curve;
+        }
+        layers.add(curve.getValues());
+        count++;
+      } else {
+        layers.add(null);
+      }
+    }
+    if (count <= 1) {
+      // The usual case, a curve only in the full snapshot or replaced whole, needs no copying
+      return first;
+    }
+    final ManageableYieldCurveSnapshot curve = new ManageableYieldCurveSnapshot();
+    curve.setValuationTime(first.getValuationTime());
+    curve.setValues(merge(layers));
+    return curve;
+  }
+
+  /**
+   * Gets the keys of the volatility surfaces.
+   *
+   * @return the keys, those in the child first, not null
+   */
+  public Set<VolatilitySurfaceKey> getVolatilitySurfaceKeys() {
+    final Set<VolatilitySurfaceKey> keys = new LinkedHashSet<VolatilitySurfaceKey>();
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      if (snapshot.getVolatilitySurfaces() != null) {
+        keys.addAll(snapshot.getVolatilitySurfaces().keySet());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Gets a volatility surface.
+   *
+   * @param key  the key of the surface, not null
+   * @return the surface, null if there is none
+   */
+  public VolatilitySurfaceSnapshot getVolatilitySurface(final VolatilitySurfaceKey key) {
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      if (snapshot.getVolatilitySurfaces() != null) {
+        final VolatilitySurfaceSnapshot surface = snapshot.getVolatilitySurfaces().get(key);
+        if (surface != null) {
+          return surface;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the keys of the volatility cubes.
+   *
+   * @return the keys, those in the child first, not null
+   */
+  public Set<VolatilityCubeKey> getVolatilityCubeKeys() {
+    final Set<VolatilityCubeKey> keys = new LinkedHashSet<VolatilityCubeKey>();
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      if (snapshot.getVolatilityCubes() != null) {
+        keys.addAll(snapshot.getVolatilityCubes().keySet());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Gets a volatility cube.
+   *
+   * @param key  the key of the cube, not null
+   * @return the cube, null if there is none
+   */
+  public VolatilityCubeSnapshot getVolatilityCube(final VolatilityCubeKey key) {
+    for (StructuredMarketDataSnapshot snapshot : _snapshots) {
+      if (snapshot.getVolatilityCubes() != null) {
+        final VolatilityCubeSnapshot cube = snapshot.getVolatilityCubes().get(key);
+        if (cube != null) {
+          return cube;
+        }
+      }
+    }
+    return null;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates a full snapshot holding the values the chain resolves to.
+   * <p>
+   * The name and basis view are those of the child. The result has no unique identifier or parent, and shares the
+   * surfaces, cubes and unchanged curves of the snapshots in the chain.
+   *
+   * @return the full snapshot, not null
+   */
+  public ManageableMarketDataSnapshot materialize() {
+    final StructuredMarketDataSnapshot child = getSnapshot();
+    final ManageableMarketDataSnapshot result = new ManageableMarketDataSnapshot();
+    result.setName(child.getName());
+    result.setBasisViewName(child.getBasisViewName());
+    result.setGlobalValues(getGlobalValues());
+    final Map<YieldCurveKey, YieldCurveSnapshot> yieldCurves = new HashMap<YieldCurveKey, YieldCurveSnapshot>();
+    for (YieldCurveKey key : getYieldCurveKeys()) {
+      yieldCurves.put(key, getYieldCurve(key));
+    }
+    result.setYieldCurves(yieldCurves);
+    final Map<VolatilitySurfaceKey, VolatilitySurfaceSnapshot> surfaces = new HashMap<VolatilitySurfaceKey, VolatilitySurfaceSnapshot>();
+    for (VolatilitySurfaceKey key : getVolatilitySurfaceKeys()) {
+      surfaces.put(key, getVolatilitySurface(key));
+    }
+    result.setVolatilitySurfaces(surfaces);
+    final Map<VolatilityCubeKey, VolatilityCubeSnapshot> cubes = new HashMap<VolatilityCubeKey, VolatilityCubeSnapshot>();
+    for (VolatilityCubeKey key : getVolatilityCubeKeys()) {
+      cubes.put(key, getVolatilityCube(key));
+    }
+    result.setVolatilityCubes(cubes);
+    return result;
+  }
+
+  /**
+   * Merges values from the snapshots in the chain.
+   *
+   * @param layers  the values from each snapshot, the child first, null for none
+   * @return the merged values, null if there are none
+   */
+  private UnstructuredMarketDataSnapshot merge(final List<UnstructuredMarketDataSnapshot> layers) {
+    Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> merged = null;
+    // Apply from the full snapshot towards the child so that later layers overwrite and remove
+    for (int i = layers.size() - 1; i >= 0; i--) {
+      final UnstructuredMarketDataSnapshot layer = layers.get(i);
+      if (layer == null) {
+        continue;
+      }
+      final Map<MarketDataValueSpecification, Set<String>> removedValues = getRemovedValues(layer);
+      if ((layer.getValues() == null) && (removedValues == null)) {
+        continue;
+      }
+      if (merged == null) {
+        merged = new HashMap<MarketDataValueSpecification, Map<String, ValueSnapshot>>();
+      }
+      if ((removedValues != null) && !isRoot(i)) {
+        for (Map.Entry<MarketDataValueSpecification, Set<String>> removed : removedValues.entrySet()) {
+          final Map<String, ValueSnapshot> values = merged.get(removed.getKey());
+          if (values != null) {
+            values.keySet().removeAll(removed.getValue());
+            if (values.isEmpty()) {
+              merged.remove(removed.getKey());
+            }
+          }
+        }
+      }
+      if (layer.getValues() != null) {
+        for (Map.Entry<MarketDataValueSpecification, Map<String, ValueSnapshot>> target : layer.getValues().entrySet()) {
+          if (target.getValue().isEmpty()) {
+            continue;
+          }
+          Map<String, ValueSnapshot> values = merged.get(target.getKey());
+          if (values == null) {
+            values = new HashMap<String, ValueSnapshot>();
+            merged.put(target.getKey(), values);
+          }
+          values.putAll(target.getValue());
+        }
+      }
+    }
+    if (merged == null) {
+      return null;
+    }
+    final ManageableUnstructuredMarketDataSnapshot result = new ManageableUnstructuredMarketDataSnapshot();
+    result.setValues(merged);
+    return result;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Creates a differential snapshot holding only the values of a full snapshot that differ from a parent.
+   * <p>
+   * Global values and yield curve points are compared individually, and those missing from the full snapshot are
+   * named in the removed values. A surface or cube is held whole if any of its values differ. Curves, surfaces and cubes missing from the
+   * full snapshot are not removed.
+   *
+   * @param snapshot  the full snapshot, not null
+   * @param parent  the parent chain, the child of which must have a unique identifier, not null
+   * @return the differential snapshot, not null
+   */
+  public static ManageableMarketDataSnapshot diff(final StructuredMarketDataSnapshot snapshot, final MarketDataSnapshotChain parent) {
+    ArgumentChecker.notNull(snapshot, "snapshot");
+    ArgumentChecker.notNull(parent, "parent");
+    ArgumentChecker.notNull(parent.getSnapshot().getUniqueId(), "parent.uniqueId");
+    final ManageableMarketDataSnapshot base = parent.materialize();
+    final ManageableMarketDataSnapshot result = new ManageableMarketDataSnapshot();
+    result.setName(snapshot.getName());
+    result.setBasisViewName(snapshot.getBasisViewName());
+    result.setParentSnapshotId(parent.getSnapshot().getUniqueId());
+    result.setGlobalValues(diff(snapshot.getGlobalValues(), base.getGlobalValues()));
+    final Map<YieldCurveKey, YieldCurveSnapshot> yieldCurves = new HashMap<YieldCurveKey, YieldCurveSnapshot>();
+    if (snapshot.getYieldCurves() != null) {
+      for (Map.Entry<YieldCurveKey, YieldCurveSnapshot> entry : snapshot.getYieldCurves().entrySet()) {
+        final YieldCurveSnapshot curve = entry.getValue();
+        final YieldCurveSnapshot baseCurve = base.getYieldCurves().get(entry.getKey());
+        if (baseCurve == null) {
+          yieldCurves.put(entry.getKey(), curve);
+          continue;
+        }
+        final UnstructuredMarketDataSnapshot values = diff(curve.getValues(), baseCurve.getValues());
+        if ((values != null) || !ObjectUtils.equals(curve.getValuationTime(), baseCurve.getValuationTime())) {
+          final ManageableYieldCurveSnapshot delta = new ManageableYieldCurveSnapshot();
+          delta.setValuationTime(curve.getValuationTime());
+          delta.setValues((values != null) ? values : emptyValues());
+          yieldCurves.put(entry.getKey(), delta);
+        }
+      }
+    }
+    result.setYieldCurves(yieldCurves);
+    final Map<VolatilitySurfaceKey, VolatilitySurfaceSnapshot> surfaces = new HashMap<VolatilitySurfaceKey, VolatilitySurfaceSnapshot>();
+    if (snapshot.getVolatilitySurfaces() != null) {
+      for (Map.Entry<VolatilitySurfaceKey, VolatilitySurfaceSnapshot> entry : snapshot.getVolatilitySurfaces().entrySet()) {
+        final VolatilitySurfaceSnapshot baseSurface = base.getVolatilitySurfaces().get(entry.getKey());
+        if ((baseSurface == null) || !ObjectUtils.equals(entry.getValue().getValues(), baseSurface.getValues())) {
+          surfaces.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    result.setVolatilitySurfaces(surfaces);
+    final Map<VolatilityCubeKey, VolatilityCubeSnapshot> cubes = new HashMap<VolatilityCubeKey, VolatilityCubeSnapshot>();
+    if (snapshot.getVolatilityCubes() != null) {
+      for (Map.Entry<VolatilityCubeKey, VolatilityCubeSnapshot> entry : snapshot.getVolatilityCubes().entrySet()) {
+        final VolatilityCubeSnapshot baseCube = base.getVolatilityCubes().get(entry.getKey());
+        if ((baseCube == null) || !equals(entry.getValue(), baseCube)) {
+          cubes.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    result.setVolatilityCubes(cubes);
+    return result;
+  }
+
+  private static UnstructuredMarketDataSnapshot diff(final UnstructuredMarketDataSnapshot snapshot, final UnstructuredMarketDataSnapshot base) {
+    final Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> values = getValues(snapshot);
+    final Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> baseValues = getValues(base);
+    final Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> delta = new HashMap<MarketDataValueSpecification, Map<String, ValueSnapshot>>();
+    final Map<MarketDataValueSpecification, Set<String>> removed = new HashMap<MarketDataValueSpecification, Set<String>>();
+    for (Map.Entry<MarketDataValueSpecification, Map<String, ValueSnapshot>> target : values.entrySet()) {
+      Map<String, ValueSnapshot> baseTarget = baseValues.get(target.getKey());
+      if (baseTarget == null) {
+        baseTarget = Collections.emptyMap();
+      }
+      final Map<String, ValueSnapshot> targetDelta = new HashMap<String, ValueSnapshot>();
+      for (Map.Entry<String, ValueSnapshot> value : target.getValue().entrySet()) {
+        if (!baseTarget.containsKey(value.getKey()) || !ObjectUtils.equals(value.getValue(), baseTarget.get(value.getKey()))) {
+          targetDelta.put(value.getKey(), value.getValue());
+        }
+      }
+      final Set<String> targetRemoved = new HashSet<String>();
+      for (String valueName : baseTarget.keySet()) {
+        if (!target.getValue().containsKey(valueName)) {
+          targetRemoved.add(valueName);
+        }
+      }
+      if (!targetDelta.isEmpty()) {
+        delta.put(target.getKey(), targetDelta);
+      }
+      if (!targetRemoved.isEmpty()) {
+        removed.put(target.getKey(), targetRemoved);
+      }
+    }
+    for (Map.Entry<MarketDataValueSpecification, Map<String, ValueSnapshot>> baseTarget : baseValues.entrySet()) {
+      if (!values.containsKey(baseTarget.getKey()) && !baseTarget.getValue().isEmpty()) {
+        removed.put(baseTarget.getKey(), new HashSet<String>(baseTarget.getValue().keySet()));
+      }
+    }
+    if (delta.isEmpty() && removed.isEmpty()) {
+      return null;
+    }
+    final ManageableUnstructuredMarketDataSnapshot result = new ManageableUnstructuredMarketDataSnapshot();
+    result.setValues(delta);
+    if (!removed.isEmpty()) {
+      result.setRemovedValues(removed);
+    }
+    return result;
+  }
+
+  private static Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> getValues(final UnstructuredMarketDataSnapshot snapshot) {
+    if ((snapshot == null) || (snapshot.getValues() == null)) {
+      return Collections.emptyMap();
+    }
+    return snapshot.getValues();
+  }
+
+  private static UnstructuredMarketDataSnapshot emptyValues() {
+    final ManageableUnstructuredMarketDataSnapshot result = new ManageableUnstructuredMarketDataSnapshot();
+    result.setValues(new HashMap<MarketDataValueSpecification, Map<String, ValueSnapshot>>());
+    return result;
+  }
+
+  private static boolean equals(final VolatilityCubeSnapshot a, final VolatilityCubeSnapshot b) {
+    return ObjectUtils.equals(a.getValues(), b.getValues())
+        && ObjectUtils.equals(a.getStrikes(), b.getStrikes())
+        && ObjectUtils.equals(getValues(a.getOtherValues()), getValues(b.getOtherValues()));
+  }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.core.marketdatasnapshot.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.core.marketdatasnapshot.MarketDataValueSpecification;
+import com.opengamma.core.marketdatasnapshot.MarketDataValueType;
+import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.test.AbstractFudgeBuilderTestCase;
+
+/**
+ * Tests {@link ManageableUnstructuredMarketDataSnapshotBuilder}.
+ */
+@Test
+public class ManageableUnstructuredMarketDataSnapshotBuilderTest extends AbstractFudgeBuilderTestCase {
+
+  private static final MarketDataValueSpecification A = new MarketDataValueSpecification(MarketDataValueType.PRIMITIVE, UniqueId.of("Test", "A"));
+  private static final MarketDataValueSpecification B = new MarketDataValueSpecification(MarketDataValueType.PRIMITIVE, UniqueId.of("Test", "B"));
+
+  private static ManageableUnstructuredMarketDataSnapshot snapshot() {
+    final Map<String, ValueSnapshot> value = new HashMap<String, ValueSnapshot>();
+    value.put("Market_Value", new ValueSnapshot(1.5, 2.0));
+    value.put("Empty", new ValueSnapshot(null, null));
+    final Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> values = new HashMap<MarketDataValueSpecification, Map<String, ValueSnapshot>>();
+    values.put(A, value);
+    final ManageableUnstructuredMarketDataSnapshot snapshot = new ManageableUnstructuredMarketDataSnapshot();
+    snapshot.setValues(values);
+    return snapshot;
+  }
+
+  public void testValues() {
+    final ManageableUnstructuredMarketDataSnapshot snapshot = snapshot();
+    final ManageableUnstructuredMarketDataSnapshot cycled = cycleObject(ManageableUnstructuredMarketDataSnapshot.class, snapshot);
+    assertEquals(snapshot.getValues(), cycled.getValues());
+    assertNull(cycled.getRemovedValues());
+  }
+
+  public void testRemovedValues() {
+    final ManageableUnstructuredMarketDataSnapshot snapshot = snapshot();
+    snapshot.setRemovedValues(Collections.<MarketDataValueSpecification, Set<String>>singletonMap(B, Collections.singleton("Market_Value")));
+    final ManageableUnstructuredMarketDataSnapshot cycled = cycleObject(ManageableUnstructuredMarketDataSnapshot.class, snapshot);
+    assertEquals(snapshot.getValues(), cycled.getValues());
+    assertEquals(snapshot.getRemovedValues(), cycled.getRemovedValues());
+  }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.core.marketdatasnapshot.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.time.Instant;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.core.marketdatasnapshot.MarketDataSnapshotSource;
+import com.opengamma.core.marketdatasnapshot.MarketDataValueSpecification;
+import com.opengamma.core.marketdatasnapshot.MarketDataValueType;
+import com.opengamma.core.marketdatasnapshot.UnstructuredMarketDataSnapshot;
+import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
+import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
+import com.opengamma.core.marketdatasnapshot.YieldCurveSnapshot;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.money.Currency;
+
+/**
+ * Tests {@link MarketDataSnapshotChain}
+ */
+@Test
+public class MarketDataSnapshotChainTest {
+
+  private static final String VALUE = "Market_Value";
+  private static final MarketDataValueSpecification A = new MarketDataValueSpecification(MarketDataValueType.PRIMITIVE, UniqueId.of("Test", "A"));
+  private static final MarketDataValueSpecification B = new MarketDataValueSpecification(MarketDataValueType.PRIMITIVE, UniqueId.of("Test", "B"));
+  private static final MarketDataValueSpecification C = new MarketDataValueSpecification(MarketDataValueType.PRIMITIVE, UniqueId.of("Test", "C"));
+  private static final YieldCurveKey CURVE = new YieldCurveKey(Currency.USD, "Funding");
+  private static final Instant TIME = Instant.ofEpochMillis(1000L);
+
+  private static UnstructuredMarketDataSnapshot values(final Object... specValues) {
+    final Map<MarketDataValueSpecification, Map<String, ValueSnapshot>> values = new HashMap<MarketDataValueSpecification, Map<String, ValueSnapshot>>();
+    for (int i = 0; i < specValues.length; i += 2) {
+      final Map<String, ValueSnapshot> value = new HashMap<String, ValueSnapshot>();
+      value.put(VALUE, new ValueSnapshot((Double) specValues[i + 1]));
+      values.put((MarketDataValueSpecification) specValues[i], value);
+    }
+    final ManageableUnstructuredMarketDataSnapshot snapshot = new ManageableUnstructuredMarketDataSnapshot();
+    snapshot.setValues(values);
+    return snapshot;
+  }
+
+  private static ManageableMarketDataSnapshot snapshot(final String id, final UnstructuredMarketDataSnapshot globalValues, final UnstructuredMarketDataSnapshot curveValues,
+      final Instant valuationTime) {
+    final ManageableMarketDataSnapshot snapshot = new ManageableMarketDataSnapshot();
+    snapshot.setUniqueId(UniqueId.of("Snapshot", id));
+    snapshot.setName(id);
+    snapshot.setGlobalValues(globalValues);
+    final ManageableYieldCurveSnapshot curve = new ManageableYieldCurveSnapshot();
+    curve.setValuationTime(valuationTime);
+    curve.setValues(curveValues);
+    final Map<YieldCurveKey, YieldCurveSnapshot> curves = new HashMap<YieldCurveKey, YieldCurveSnapshot>();
+    curves.put(CURVE, curve);
+    snapshot.setYieldCurves(curves);
+    return snapshot;
+  }
+
+  private static Double value(final UnstructuredMarketDataSnapshot values, final MarketDataValueSpecification spec) {
+    final Map<String, ValueSnapshot> value = values.getValues().get(spec);
+    return (value != null) ? value.get(VALUE).getMarketValue() : null;
+  }
+
+  public void testDiffAndResolve() {
+    final ManageableMarketDataSnapshot parent = snapshot("Parent", values(A, 1.0, B, 2.0), values(A, 10.0, B, 20.0), TIME);
+    final MarketDataSnapshotChain parentChain = new MarketDataSnapshotChain(Arrays.asList(parent));
+    final ManageableMarketDataSnapshot full = snapshot("Child", values(A, 1.5, C, 3.0), values(A, 10.0, B, 21.0), TIME);
+    final ManageableMarketDataSnapshot child = MarketDataSnapshotChain.diff(full, parentChain);
+    assertEquals(parent.getUniqueId(), child.getParentSnapshotId());
+    // Only the changes are held
+    assertEquals(2, child.getGlobalValues().getValues().size());
+    assertEquals(1.5, value(child.getGlobalValues(), A));
+    assertEquals(3.0, value(child.getGlobalValues(), C));
+    assertEquals(Collections.singletonMap(B, Collections.singleton(VALUE)), ((ManageableUnstructuredMarketDataSnapshot) child.getGlobalValues()).getRemovedValues());
+    assertEquals(1, child.getYieldCurves().get(CURVE).getValues().getValues().size());
+    assertEquals(21.0, value(child.getYieldCurves().get(CURVE).getValues(), B));
+    // Resolved against the parent
+    child.setUniqueId(UniqueId.of("Snapshot", "Child"));
+    final MarketDataSnapshotChain chain = new MarketDataSnapshotChain(Arrays.asList(child, parent));
+    assertEquals(1.5, chain.getGlobalValue(A, VALUE).getMarketValue());
+    assertNull(chain.getGlobalValue(B, VALUE));
+    assertEquals(3.0, chain.getGlobalValue(C, VALUE).getMarketValue());
+    final YieldCurveSnapshot curve = chain.getYieldCurve(CURVE);
+    assertEquals(TIME, curve.getValuationTime());
+    assertEquals(10.0, value(curve.getValues(), A));
+    assertEquals(21.0, value(curve.getValues(), B));
+    // Materializing gives back the full snapshot's values
+    final ManageableMarketDataSnapshot materialized = chain.materialize();
+    assertNull(materialized.getParentSnapshotId());
+    assertEquals(full.getGlobalValues().getValues(), materialized.getGlobalValues().getValues());
+    assertEquals(full.getYieldCurves().get(CURVE).getValues().getValues(), materialized.getYieldCurves().get(CURVE).getValues().getValues());
+  }
+
+  public void testUnchangedCurveNotCopied() {
+    final ManageableMarketDataSnapshot parent = snapshot("Parent", values(A, 1.0), values(A, 10.0), TIME);
+    final ManageableMarketDataSnapshot child = MarketDataSnapshotChain.diff(snapshot("Child", values(A, 2.0), values(A, 10.0), TIME),
+        new MarketDataSnapshotChain(Arrays.asList(parent)));
+    assertTrue(child.getYieldCurves().isEmpty());
+    final MarketDataSnapshotChain chain = new MarketDataSnapshotChain(Arrays.asList(child, parent));
+    assertSame(parent.getYieldCurves().get(CURVE), chain.getYieldCurve(CURVE));
+    assertEquals(Instant.ofEpochMillis(1000L), chain.getYieldCurve(CURVE).getValuationTime());
+  }
+
+  public void testLoad() {
+    final ManageableMarketDataSnapshot root = snapshot("Root", values(A, 1.0), values(A, 10.0), TIME);
+    final ManageableMarketDataSnapshot middle = snapshot("Middle", values(A, 2.0), values(), TIME);
+    middle.setParentSnapshotId(root.getUniqueId());
+    final ManageableMarketDataSnapshot leaf = snapshot("Leaf", values(B, 3.0), values(), TIME);
+    leaf.setParentSnapshotId(middle.getUniqueId());
+    final MarketDataSnapshotSource source = mock(MarketDataSnapshotSource.class);
+    when(source.getSnapshot(root.getUniqueId())).thenReturn(root);
+    when(source.getSnapshot(middle.getUniqueId())).thenReturn(middle);
+    when(source.getSnapshot(leaf.getUniqueId())).thenReturn(leaf);
+    final MarketDataSnapshotChain chain = MarketDataSnapshotChain.load(source, leaf.getUniqueId());
+    assertEquals(Arrays.asList(leaf, middle, root), chain.getSnapshots());
+    assertEquals(2.0, chain.getGlobalValue(A, VALUE).getMarketValue());
+    assertEquals(3.0, chain.getGlobalValue(B, VALUE).getMarketValue());
+    assertEquals(10.0, value(chain.getYieldCurve(CURVE).getValues(), A));
+  }
+
+  @Test(expectedExceptions = OpenGammaRuntimeException.class)
+  public void testLoadCycle() {
+    final ManageableMarketDataSnapshot a = snapshot("A", values(), values(), TIME);
+    final ManageableMarketDataSnapshot b = snapshot("B", values(), values(), TIME);
+    a.setParentSnapshotId(b.getUniqueId());
+    b.setParentSnapshotId(a.getUniqueId());
+    final MarketDataSnapshotSource source = mock(MarketDataSnapshotSource.class);
+    when(source.getSnapshot(a.getUniqueId())).thenReturn(a);
+    when(source.getSnapshot(b.getUniqueId())).thenReturn(b);
+    MarketDataSnapshotChain.load(source, a.getUniqueId());
+  }
+
+  public void testEmptyValuesRoundTrip() {
+    final ManageableMarketDataSnapshot parent = snapshot("Parent", values(A, null, B, 2.0), values(A, null), TIME);
+    // A stays empty, B becomes empty and C is new and empty
+    final ManageableMarketDataSnapshot full = snapshot("Child", values(A, null, B, null, C, null), values(A, null, B, null), TIME);
+    final ManageableMarketDataSnapshot child = MarketDataSnapshotChain.diff(full, new MarketDataSnapshotChain(Arrays.asList(parent)));
+    assertNull(((ManageableUnstructuredMarketDataSnapshot) child.getGlobalValues()).getRemovedValues());
+    assertEquals(2, child.getGlobalValues().getValues().size());
+    child.setUniqueId(UniqueId.of("Snapshot", "Child"));
+    final MarketDataSnapshotChain chain = new MarketDataSnapshotChain(Arrays.asList(child, parent));
+    assertEquals(new ValueSnapshot(null, null), chain.getGlobalValue(A, VALUE));
+    assertEquals(new ValueSnapshot(null, null), chain.getGlobalValue(B, VALUE));
+    assertEquals(new ValueSnapshot(null, null), chain.getGlobalValue(C, VALUE));
+    final ManageableMarketDataSnapshot materialized = chain.materialize();
+    assertEquals(full.getGlobalValues().getValues(), materialized.getGlobalValues().getValues());
+    assertEquals(full.getYieldCurves().get(CURVE).getValues().getValues(), materialized.getYieldCurves().get(CURVE).getValues().getValues());
+  }
+
+  public void testRemovalOverridesParent() {
+    final ManageableMarketDataSnapshot root = snapshot("Root", values(A, 1.0, B, 2.0), values(A, 10.0), TIME);
+    final ManageableMarketDataSnapshot middle = MarketDataSnapshotChain.diff(snapshot("Middle", values(B, 2.0), values(A, 10.0), TIME),
+        new MarketDataSnapshotChain(Arrays.asList(root)));
+    middle.setUniqueId(UniqueId.of("Snapshot", "Middle"));
+    final MarketDataSnapshotChain middleChain = new MarketDataSnapshotChain(Arrays.asList(middle, root));
+    assertNull(middleChain.getGlobalValue(A, VALUE));
+    // Putting the value back in a later snapshot restores it
+    final ManageableMarketDataSnapshot leaf = MarketDataSnapshotChain.diff(snapshot("Leaf", values(A, 3.0, B, 2.0), values(A, 10.0), TIME), middleChain);
+    final MarketDataSnapshotChain chain = new MarketDataSnapshotChain(Arrays.asList(leaf, middle, root));
+    assertEquals(3.0, chain.getGlobalValue(A, VALUE).getMarketValue());
+    assertEquals(2.0, chain.getGlobalValue(B, VALUE).getMarketValue());
+  }
+
+  public void testRootNullValueKept() {
+    final ManageableMarketDataSnapshot root = snapshot("Root", values(), values(), TIME);
+    final Map<String, ValueSnapshot> value = new HashMap<String, ValueSnapshot>();
+    value.put(VALUE, new ValueSnapshot(null, null));
+    root.getGlobalValues().getValues().put(A, value);
+    final MarketDataSnapshotChain chain = new MarketDataSnapshotChain(Arrays.asList(root));
+    assertFalse(chain.getGlobalValue(A, VALUE) == null);
+  }
+
+}
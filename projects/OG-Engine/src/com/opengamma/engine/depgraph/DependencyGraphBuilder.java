@@ -33,6 +33,7 @@ import com.opengamma.OpenGammaRuntimeException;
 import com.opengamma.engine.function.FunctionCompilationContext;
 import com.opengamma.engine.function.exclusion.FunctionExclusionGroups;
 import com.opengamma.engine.function.resolver.CompiledFunctionResolver;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProvider;
 import com.opengamma.engine.marketdata.availability.MarketDataAvailabilityProvider;
 import com.opengamma.engine.value.ValueRequirement;
 import com.opengamma.engine.value.ValueSpecification;
@@ -344,6 +345,8 @@ public final class DependencyGraphBuilder implements Cancelable {
   public void addTarget(Set<ValueRequirement> requirements) {
     ArgumentChecker.noNulls(requirements, "requirements");
     checkInjectedInputs();
+    // Resolve the availability of the whole batch up front so the resolution tasks will find it cached
+    prefetchAvailability(requirements);
     // Hold the build complete lock so that housekeeping thread cannot observe a "built" state within this atomic block of work
     synchronized (_buildCompleteLock) {
       for (ValueRequirement requirement : requirements) {
@@ -354,6 +357,18 @@ public final class DependencyGraphBuilder implements Cancelable {
     startBackgroundConstructionJob();
   }
 
+  /**
+   * Resolves the availability of a batch of requirements in one pass if the market data availability provider caches its
+   * answers. The resolution tasks for the requirements will then find their availability already known.
+   * 
+   * @param requirements the requirements that are about to be resolved, not null
+   */
+  /* package */void prefetchAvailability(final Collection<ValueRequirement> requirements) {
+    if ((getMarketDataAvailabilityProvider() instanceof CachingMarketDataAvailabilityProvider) && !requirements.isEmpty()) {
+      ((CachingMarketDataAvailabilityProvider) getMarketDataAvailabilityProvider()).getAvailability(requirements);
+    }
+  }
+
   protected void addToRunQueue(final ContextRunnable runnable) {
     final boolean dontSpawn = _runQueue.isEmpty();
     _scheduledSteps.incrementAndGet();
@@ -464,6 +464,7 @@ import com.opengamma.util.tuple.Triple;
 
       };
       final Set<FunctionExclusionGroup> functionExclusion = getFunctionExclusion(context, getFunction().getFunction());
+      context.prefetchAvailability(additionalRequirements);
       for (ValueRequirement inputRequirement : additionalRequirements) {
         final ResolvedValueProducer inputProducer = context.resolveRequirement(inputRequirement, getTask(), functionExclusion);
         lock.incrementAndGet();
@@ -592,6 +593,8 @@ import com.opengamma.util.tuple.Triple;
         s_logger.debug("Function {} requires {}", functionDefinition, inputRequirements);
         worker.setPumpingState(state, inputRequirements.size());
         final Set<FunctionExclusionGroup> functionExclusion = getFunctionExclusion(context, functionDefinition);
+        // The inputs are where the market data requirements are found, so resolve their availability together
+        context.prefetchAvailability(inputRequirements);
         for (ValueRequirement inputRequirement : inputRequirements) {
           final ResolvedValueProducer inputProducer = context.resolveRequirement(inputRequirement, getTask(), functionExclusion);
           worker.addInput(context, inputProducer);
@@ -5,6 +5,7 @@
  */
 package com.opengamma.engine.depgraph;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -65,6 +66,16 @@ import com.opengamma.util.tuple.Pair;
 
   // Operations
 
+  /**
+   * Resolves the availability of market data for a set of requirements that are about to be resolved, in one pass rather
+   * than as each is resolved.
+   * 
+   * @param requirements the requirements, not null
+   */
+  public void prefetchAvailability(final Collection<ValueRequirement> requirements) {
+    getBuilder().prefetchAvailability(requirements);
+  }
+
   /**
    * Schedule the task for execution.
    * 
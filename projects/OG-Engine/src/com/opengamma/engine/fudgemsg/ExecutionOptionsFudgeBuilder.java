@@ -40,6 +40,8 @@ public class ExecutionOptionsFudgeBuilder implements FudgeBuilder<ExecutionOptio
   private static final String DEFAULT_EXECUTION_OPTIONS_FIELD = "defaultExecutionOptions";
   private static final String VERSION_CORRECTION_FIELD = "versionCorrection";
   private static final String BATCH_FIELD = "batch";
+  private static final String PARALLEL_CYCLES_FIELD = "parallelCycles";
+  private static final String MAX_PARALLEL_CYCLES_FIELD = "maxParallelCycles";
 
   @Override
   public MutableFudgeMsg buildMessage(FudgeSerializer serializer, ExecutionOptions object) {
@@ -52,9 +54,13 @@ public class ExecutionOptionsFudgeBuilder implements FudgeBuilder<ExecutionOptio
     msg.add(COMPILE_ONLY_FIELD, object.getFlags().contains(ViewExecutionFlags.COMPILE_ONLY));
     msg.add(WAIT_FOR_INITIAL_TRIGGER_FIELD, object.getFlags().contains(ViewExecutionFlags.WAIT_FOR_INITIAL_TRIGGER));
     msg.add(BATCH_FIELD, object.getFlags().contains(ViewExecutionFlags.BATCH));
+    msg.add(PARALLEL_CYCLES_FIELD, object.getFlags().contains(ViewExecutionFlags.PARALLEL_CYCLES));
     if (object.getMaxSuccessiveDeltaCycles() != null) {
       msg.add(MAX_SUCCESSIVE_DELTA_CYCLES_FIELD, object.getMaxSuccessiveDeltaCycles());
     }
+    if (object.getMaxParallelCycles() != null) {
+      msg.add(MAX_PARALLEL_CYCLES_FIELD, object.getMaxParallelCycles());
+    }
     serializer.addToMessage(msg, DEFAULT_EXECUTION_OPTIONS_FIELD, null, object.getDefaultExecutionOptions());
     serializer.addToMessage(msg, VERSION_CORRECTION_FIELD, null, object.getVersionCorrection());
     return msg;
@@ -85,10 +91,17 @@ public class ExecutionOptionsFudgeBuilder implements FudgeBuilder<ExecutionOptio
     if (BooleanUtils.isTrue(message.getBoolean(BATCH_FIELD))) {
       flags.add(ViewExecutionFlags.BATCH);
     }
+    if (BooleanUtils.isTrue(message.getBoolean(PARALLEL_CYCLES_FIELD))) {
+      flags.add(ViewExecutionFlags.PARALLEL_CYCLES);
+    }
     Integer maxSuccessiveDeltaCycles = null;
     if (message.hasField(MAX_SUCCESSIVE_DELTA_CYCLES_FIELD)) {
       maxSuccessiveDeltaCycles = message.getInt(MAX_SUCCESSIVE_DELTA_CYCLES_FIELD);
     }
+    Integer maxParallelCycles = null;
+    if (message.hasField(MAX_PARALLEL_CYCLES_FIELD)) {
+      maxParallelCycles = message.getInt(MAX_PARALLEL_CYCLES_FIELD);
+    }
 
     FudgeField defaultExecutionOptionsField = message.getByName(DEFAULT_EXECUTION_OPTIONS_FIELD);
     ViewCycleExecutionOptions defaultExecutionOptions = defaultExecutionOptionsField != null ?
@@ -97,7 +110,7 @@ public class ExecutionOptionsFudgeBuilder implements FudgeBuilder<ExecutionOptio
     FudgeField versionCorrectionField = message.getByName(VERSION_CORRECTION_FIELD);
     VersionCorrection versionCorrection = deserializer.fieldValueToObject(VersionCorrection.class, versionCorrectionField);
 
-    return new ExecutionOptions(executionSequence, flags, maxSuccessiveDeltaCycles, defaultExecutionOptions, versionCorrection);
+    return new ExecutionOptions(executionSequence, flags, maxSuccessiveDeltaCycles, defaultExecutionOptions, versionCorrection, maxParallelCycles);
   }
 
 }
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.fudgemsg;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.mapping.FudgeBuilder;
+import org.fudgemsg.mapping.FudgeBuilderFor;
+import org.fudgemsg.mapping.FudgeDeserializer;
+import org.fudgemsg.mapping.FudgeSerializer;
+
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.view.client.ViewResultFilter;
+
+/**
+ * Fudge message builder for {@link ViewResultFilter}
+ */
+@FudgeBuilderFor(ViewResultFilter.class)
+public class ViewResultFilterFudgeBuilder implements FudgeBuilder<ViewResultFilter> {
+
+  private static final String CALCULATION_CONFIGURATION_NAMES_FIELD = "calcConfigs";
+  private static final String VALUE_NAMES_FIELD = "valueNames";
+  private static final String TARGETS_FIELD = "targets";
+
+  private static void addStrings(final MutableFudgeMsg msg, final String name, final Set<String> values) {
+    if (values != null) {
+      final MutableFudgeMsg submsg = msg.addSubMessage(name, null);
+      for (String value : values) {
+        submsg.add(null, null, value);
+      }
+    }
+  }
+
+  private static Set<String> getStrings(final FudgeMsg msg, final String name) {
+    final FudgeMsg submsg = msg.getMessage(name);
+    if (submsg == null) {
+      return null;
+    }
+    final Set<String> values = new HashSet<String>();
+    for (FudgeField field : submsg) {
+      values.add((String) field.getValue());
+    }
+    return values;
+  }
+
+  @Override
+  public MutableFudgeMsg buildMessage(final FudgeSerializer serializer, final ViewResultFilter object) {
+    final MutableFudgeMsg msg = serializer.newMessage();
+    addStrings(msg, CALCULATION_CONFIGURATION_NAMES_FIELD, object.getCalculationConfigurationNames());
+    addStrings(msg, VALUE_NAMES_FIELD, object.getValueNames());
+    if (object.getTargets() != null) {
+      final MutableFudgeMsg submsg = msg.addSubMessage(TARGETS_FIELD, null);
+      for (ComputationTargetSpecification target : object.getTargets()) {
+        serializer.addToMessage(submsg, null, null, target);
+      }
+    }
+    return msg;
+  }
+
+  @Override
+  public ViewResultFilter buildObject(final FudgeDeserializer deserializer, final FudgeMsg message) {
+    Set<ComputationTargetSpecification> targets = null;
+    final FudgeMsg targetsMsg = message.getMessage(TARGETS_FIELD);
+    if (targetsMsg != null) {
+      targets = new HashSet<ComputationTargetSpecification>();
+      for (FudgeField field : targetsMsg) {
+        targets.add(deserializer.fieldValueToObject(ComputationTargetSpecification.class, field));
+      }
+    }
+    return new ViewResultFilter(getStrings(message, CALCULATION_CONFIGURATION_NAMES_FIELD), getStrings(message, VALUE_NAMES_FIELD), targets);
+  }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.function;
+
+import java.util.List;
+import java.util.Set;
+
+import com.opengamma.engine.ComputationTarget;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.util.PublicSPI;
+
+/**
+ * Optional extension to {@link FunctionInvoker} for functions that can execute against many targets in a single call.
+ * <p>
+ * A calculation node will pass consecutive job items that share the same function and the same {@link FunctionParameters} to
+ * {@link #executeBatch} instead of making a call to {@link #execute} for each one. The inputs for all of the items are fetched
+ * from the value cache in bulk before the call and all of the outputs are written back in bulk afterwards. A function that
+ * requires the same expensive set-up for each target (for example building a curve bundle from its inputs) can then do that
+ * work once for the batch.
+ * <p>
+ * If the batch invocation throws an exception the node will fall back to invoking {@link #execute} for each of the items so
+ * that a failure of one target does not fail all of the others.
+ */
+@PublicSPI
+public interface BatchFunctionInvoker extends FunctionInvoker {
+
+  /**
+   * Executes on each of the specified targets, producing the values desired. The lists passed are all the same length; the
+   * element at each index describes a single invocation equivalent to a call to {@link #execute}.
+   *
+   * @param executionContext the execution-time configuration for this invocation, the function parameters are common to all targets
+   * @param inputs the inputs for each target, not null
+   * @param targets the targets on which calculation should be performed, not null
+   * @param desiredValues the values that should be computed for each target, not null
+   * @return the values computed for each target, in the same order as the targets. An element may be null if nothing could be
+   *         computed for that target.
+   */
+  List<Set<ComputedValue>> executeBatch(
+      FunctionExecutionContext executionContext,
+      List<FunctionInputs> inputs,
+      List<ComputationTarget> targets,
+      List<Set<ValueRequirement>> desiredValues);
+
+}
@@ -5,16 +5,24 @@
  */
 package com.opengamma.engine.function;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.time.Instant;
 import javax.time.InstantProvider;
@@ -40,6 +48,7 @@ public class CompiledFunctionService {
   private final FunctionCompilationContext _functionCompilationContext;
   private Set<FunctionDefinition> _reinitializingFunctionDefinitions;
   private Set<UniqueId> _reinitializingFunctionRequirements;
+  private volatile LazyInitialization _lazyInitialization;
   private boolean _localExecutorService;
   private ExecutorService _executorService;
   private final FunctionReinitializer _reinitializer = new FunctionReinitializer() {
@@ -97,7 +106,10 @@ public class CompiledFunctionService {
     private final Set<FunctionDefinition> _functions;
 
     private StaticFunctionRepository(final FunctionRepository functions) {
-      _functions = new HashSet<FunctionDefinition>((functions != null) ? functions.getAllFunctions() : Collections.<FunctionDefinition>emptyList());
+      _functions = Collections.newSetFromMap(new ConcurrentHashMap<FunctionDefinition, Boolean>());
+      if (functions != null) {
+        _functions.addAll(functions.getAllFunctions());
+      }
     }
 
     private void remove(final FunctionDefinition function) {
@@ -115,6 +127,96 @@ public class CompiledFunctionService {
 
   }
 
+  /**
+   * Functions made available before being initialized, and the background task that initializes them.
+   */
+  private final class LazyInitialization implements Runnable {
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+
+    private final List<FunctionDefinition> _functions;
+    private final StaticFunctionRepository _repository = new StaticFunctionRepository(null);
+    private final ConcurrentMap<String, FunctionDefinition> _pending = new ConcurrentHashMap<String, FunctionDefinition>();
+    private final Set<String> _failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger _state = new AtomicInteger(QUEUED);
+    private final CountDownLatch _finished = new CountDownLatch(1);
+    private volatile boolean _cancelled;
+
+    private LazyInitialization(final List<FunctionDefinition> functions) {
+      _functions = functions;
+      for (FunctionDefinition definition : functions) {
+        _pending.put(definition.getUniqueId(), definition);
+        _repository.add(definition);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!_state.compareAndSet(QUEUED, RUNNING)) {
+        return;
+      }
+      try {
+        final OperationTimer timer = new OperationTimer(s_logger, "Initializing {} function definitions in background", _functions.size());
+        for (FunctionDefinition definition : _functions) {
+          if (_cancelled) {
+            s_logger.info("Background initialization of function definitions cancelled");
+            return;
+          }
+          ensureInitialized(definition.getUniqueId());
+        }
+        timer.finished();
+      } finally {
+        _state.set(FINISHED);
+        _finished.countDown();
+      }
+    }
+
+    private boolean ensureInitialized(final String uniqueId) {
+      final FunctionDefinition definition = _pending.get(uniqueId);
+      if (definition != null) {
+        synchronized (definition) {
+          if (!_cancelled && (_pending.get(uniqueId) == definition)) {
+            try {
+              definition.init(getFunctionCompilationContext());
+            } catch (Exception e) {
+              s_logger.error("Couldn't initialize function {} id={}", definition.getShortName(), definition.getUniqueId());
+              s_logger.warn("Caught exception", e);
+              _failed.add(uniqueId);
+              _repository.remove(definition);
+            }
+            _pending.remove(uniqueId);
+          }
+        }
+      }
+      return !_failed.contains(uniqueId);
+    }
+
+    private void initializePending() {
+      if (!_pending.isEmpty()) {
+        s_logger.info("Completing initialization of {} function definitions", _pending.size());
+        for (String uniqueId : new ArrayList<String>(_pending.keySet())) {
+          ensureInitialized(uniqueId);
+        }
+      }
+    }
+
+    private void cancel() {
+      _cancelled = true;
+      if (_state.compareAndSet(QUEUED, FINISHED)) {
+        return;
+      }
+      try {
+        _finished.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OpenGammaRuntimeException("Interrupted while cancelling background initialization of function definitions", e);
+      }
+    }
+
+  }
+
   protected void initializeImpl(final long initId, final Collection<FunctionDefinition> functions) {
     OperationTimer timer = new OperationTimer(s_logger, "Initializing {} function definitions", functions.size());
     final ExecutorCompletionService<FunctionDefinition> completionService = new ExecutorCompletionService<FunctionDefinition>(getExecutorService());
@@ -181,14 +283,97 @@ public class CompiledFunctionService {
    */
   public synchronized Set<UniqueId> initialize(final long initId) {
     s_logger.info("Initializing all function definitions to {}", initId);
+    cancelLazyInitialization();
     _reinitializingFunctionDefinitions = new HashSet<FunctionDefinition>();
     _reinitializingFunctionRequirements = new HashSet<UniqueId>();
     initializeImpl(initId, getFunctionRepository().getAllFunctions());
     return _reinitializingFunctionRequirements;
   }
 
+  /**
+   * Initializes functions lazily, becoming ready for use immediately. This is intended for a remote calculation node that
+   * has been sent the set of functions that initialized successfully at the view processor. Those functions are assumed to
+   * initialize successfully here and are made available at once; each is then initialized on first use by
+   * {@link #ensureInitialized} or by a background task that works through them in the order given. Local functions not in
+   * the set are not made available, as the view processor will not have used them.
+   * <p>
+   * This is only possible if the repository compiler defers compilation until a definition is requested, as
+   * {@link LazyFunctionRepositoryCompiler} does. With any other compiler all functions are initialized immediately as
+   * for {@link #initialize(long)}.
+   * 
+   * @param initId the initialization identifier
+   * @param functionIds the unique identifiers of the functions initialized at the view processor, not null
+   * @return the set of unique identifiers that should trigger re-initialization, populated as functions initialize
+   */
+  public synchronized Set<UniqueId> initialize(final long initId, final Collection<String> functionIds) {
+    ArgumentChecker.notNull(functionIds, "functionIds");
+    if (!(getFunctionRepositoryCompiler() instanceof LazyFunctionRepositoryCompiler)) {
+      return initialize(initId);
+    }
+    s_logger.info("Lazily initializing {} function definitions to {}", functionIds.size(), initId);
+    cancelLazyInitialization();
+    _reinitializingFunctionDefinitions = new HashSet<FunctionDefinition>();
+    _reinitializingFunctionRequirements = new HashSet<UniqueId>();
+    final Map<String, FunctionDefinition> local = new HashMap<String, FunctionDefinition>();
+    for (FunctionDefinition definition : getFunctionRepository().getAllFunctions()) {
+      local.put(definition.getUniqueId(), definition);
+    }
+    final List<FunctionDefinition> functions = new ArrayList<FunctionDefinition>(functionIds.size());
+    for (String functionId : functionIds) {
+      final FunctionDefinition definition = local.remove(functionId);
+      if (definition != null) {
+        functions.add(definition);
+      } else {
+        s_logger.warn("Function {} initialized at view processor is not available locally", functionId);
+      }
+    }
+    if (!local.isEmpty()) {
+      s_logger.info("Ignoring {} function definitions not initialized at view processor", local.size());
+    }
+    final LazyInitialization lazy = new LazyInitialization(functions);
+    _lazyInitialization = lazy;
+    _initializedFunctionRepository = lazy._repository;
+    getFunctionCompilationContext().setFunctionReinitializer(_reinitializer);
+    getFunctionCompilationContext().setFunctionInitId(initId);
+    getExecutorService().execute(lazy);
+    return _reinitializingFunctionRequirements;
+  }
+
+  /**
+   * Ensures that a function is initialized before it is used. Functions are normally initialized before the service is
+   * used so this will return immediately unless {@link #initialize(long, Collection)} was used and the function has not
+   * yet been initialized.
+   * 
+   * @param uniqueId the unique identifier of the function, not null
+   * @return false if the function was lazily initialized and failed, true otherwise
+   */
+  public boolean ensureInitialized(final String uniqueId) {
+    final LazyInitialization lazy = _lazyInitialization;
+    return (lazy == null) || lazy.ensureInitialized(uniqueId);
+  }
+
+  /**
+   * Stops any lazy initialization in progress, waiting for its background task so that it can't initialize a function
+   * at the same time as a subsequent initialization.
+   */
+  private void cancelLazyInitialization() {
+    final LazyInitialization lazy = _lazyInitialization;
+    if (lazy != null) {
+      _lazyInitialization = null;
+      lazy.cancel();
+    }
+  }
+
+  private void initializePending() {
+    final LazyInitialization lazy = _lazyInitialization;
+    if (lazy != null) {
+      lazy.initializePending();
+    }
+  }
+
   public synchronized void reinitializeIfNeeded(final long initId) {
     if (getFunctionCompilationContext().getFunctionInitId() != initId) {
+      initializePending();
       s_logger.info("Re-initializing function definitions - was {} required {}", getFunctionCompilationContext().getFunctionInitId(), initId);
       final Set<FunctionDefinition> reinitialize = _reinitializingFunctionDefinitions;
       if (reinitialize.isEmpty()) {
@@ -210,6 +395,7 @@ public class CompiledFunctionService {
   public synchronized Set<UniqueId> reinitialize() {
     long initId = getFunctionCompilationContext().getFunctionInitId() + 1;
     s_logger.info("Re-initializing all function definitions to {}", initId);
+    initializePending();
     final Set<FunctionDefinition> reinitialize = _reinitializingFunctionDefinitions;
     if (reinitialize.isEmpty()) {
       s_logger.warn("No functions registered for re-initialization");
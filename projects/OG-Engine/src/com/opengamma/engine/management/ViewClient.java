@@ -11,6 +11,7 @@ import javax.management.ObjectName;
 import net.sf.ehcache.CacheException;
 
 import com.opengamma.engine.view.ViewComputationResultModel;
+import com.opengamma.engine.view.client.ViewClientImpl;
 import com.opengamma.engine.view.client.ViewClientState;
 import com.opengamma.id.UniqueId;
 import com.opengamma.livedata.UserPrincipal;
@@ -88,6 +89,38 @@ public class ViewClient implements ViewClientMBean {
     _viewClient.setUpdatePeriod(periodMillis);
   }
 
+  @Override
+  public long getEffectiveUpdatePeriod() {
+    if (_viewClient instanceof ViewClientImpl) {
+      return ((ViewClientImpl) _viewClient).getEffectiveUpdatePeriodMillis();
+    }
+    return -1;
+  }
+
+  @Override
+  public int getResultLag() {
+    if (_viewClient instanceof ViewClientImpl) {
+      return ((ViewClientImpl) _viewClient).getResultLag();
+    }
+    return -1;
+  }
+
+  @Override
+  public long getResultMergeCount() {
+    if (_viewClient instanceof ViewClientImpl) {
+      return ((ViewClientImpl) _viewClient).getResultMergeCount();
+    }
+    return -1;
+  }
+
+  @Override
+  public int getResultBacklog() {
+    if (_viewClient instanceof ViewClientImpl) {
+      return ((ViewClientImpl) _viewClient).getResultBacklog();
+    }
+    return -1;
+  }
+
   @Override
   public void pause() {
     _viewClient.pause();
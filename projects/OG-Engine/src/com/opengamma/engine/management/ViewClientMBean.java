@@ -57,6 +57,37 @@ public interface ViewClientMBean {
    */
   void setUpdatePeriod(long periodMillis);
   
+  /**
+   * Gets the period currently applied between results delivered to the listener. This may exceed the requested update
+   * period if the listener is slow to accept results.
+   * 
+   * @return the effective update period in milliseconds, 0 if results are not rate limited, or -1 if not known
+   */
+  long getEffectiveUpdatePeriod();
+  
+  /**
+   * Gets the number of completed cycles whose results have not yet been delivered to the listener.
+   * 
+   * @return the number of cycles by which the listener lags the view process, or -1 if not known
+   */
+  int getResultLag();
+  
+  /**
+   * Gets the total number of cycle results that were merged into a later result rather than delivered individually.
+   * 
+   * @return the number of merged results, or -1 if not known
+   */
+  long getResultMergeCount();
+  
+  /**
+   * Gets the number of messages accepted by the listener which have not yet reached its consumer, for example messages
+   * queued for sending to a remote client. Each listener call, such as a cycle starting, a fragment or a cycle
+   * completing, may count as one message, so this is not the number of cycle results.
+   * 
+   * @return the number of outstanding messages, or -1 if not known
+   */
+  int getResultBacklog();
+  
   /**
    * Pauses the flow of results exposed through this client. They continue to be received internally, and these are
    * delivered as a merged result when updates are resumed.
@@ -12,6 +12,7 @@ import net.sf.ehcache.CacheException;
 
 import com.opengamma.engine.view.ViewProcessInternal;
 import com.opengamma.engine.view.ViewProcessState;
+import com.opengamma.engine.view.client.DeltaCalculationStatistics;
 import com.opengamma.id.UniqueId;
 import com.opengamma.util.ArgumentChecker;
 
@@ -74,6 +75,12 @@ public class ViewProcess implements ViewProcessMBean {
     return _viewProcess.getState();
   }
 
+  @Override
+  public String getLatestDeltaStatistics() {
+    final DeltaCalculationStatistics statistics = _viewProcess.getLatestDeltaStatistics();
+    return (statistics != null) ? statistics.toString() : null;
+  }
+
   @Override
   public void shutdown() {
     _viewProcess.shutdown();
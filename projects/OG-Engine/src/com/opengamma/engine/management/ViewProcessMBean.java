@@ -41,6 +41,14 @@ public interface ViewProcessMBean {
    * @return the computation state of the view process, not null
    */
   ViewProcessState getState();
+
+  /**
+   * Gets a description of the work done computing the most recent delta result, for either a completed cycle or a
+   * cycle fragment.
+   * 
+   * @return the delta statistics, null if no delta has been calculated
+   */
+  String getLatestDeltaStatistics();
   
   /**
    * Terminates this view process, detaching any clients from it.
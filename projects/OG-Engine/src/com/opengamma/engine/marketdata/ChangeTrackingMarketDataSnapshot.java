@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata;
+
+import java.util.Set;
+
+import com.opengamma.engine.value.ValueRequirement;
+
+/**
+ * A {@link MarketDataSnapshot} which can report the values that have changed since an earlier snapshot.
+ * <p>
+ * This allows a computation cycle to find the nodes affected by new market data without comparing every input with
+ * its value in the previous cycle.
+ */
+public interface ChangeTrackingMarketDataSnapshot extends MarketDataSnapshot {
+
+  /**
+   * Gets the requirements whose values differ between this snapshot and an earlier one, including any that are present
+   * in only one of them. Both snapshots must have been initialized. The result may include requirements whose values
+   * are equal but must not omit any that differ.
+   *
+   * @param previous the earlier snapshot, not null
+   * @return the changed requirements, or null if the snapshots cannot be compared
+   */
+  Set<ValueRequirement> getChangedSince(MarketDataSnapshot previous);
+
+}
@@ -6,10 +6,9 @@
 package com.opengamma.engine.marketdata;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,15 +24,21 @@ import com.opengamma.id.ExternalId;
 import com.opengamma.id.ExternalIdBundle;
 import com.opengamma.id.UniqueId;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.map.PersistentHashMap;
 
 /**
  * An implementation of {@link MarketDataProvider} which maintains an LKV cache of externally-provided values.
+ * <p>
+ * The values are held in an immutable {@link PersistentHashMap} which is replaced on each update. Taking a snapshot
+ * is therefore just a read of the current map, whatever the number of values, and successive snapshots share all of
+ * the entries that have not changed between them.
  */
 public class InMemoryLKVMarketDataProvider extends AbstractMarketDataProvider implements MarketDataInjector, MarketDataAvailabilityProvider {
   
   private static final Logger s_logger = LoggerFactory.getLogger(InMemoryLKVMarketDataProvider.class);
   
-  private final Map<ValueRequirement, Object> _lastKnownValues = new ConcurrentHashMap<ValueRequirement, Object>();
+  private final AtomicReference<PersistentHashMap<ValueRequirement, Object>> _lastKnownValues =
+      new AtomicReference<PersistentHashMap<ValueRequirement, Object>>(PersistentHashMap.<ValueRequirement, Object>of());
   private final SecuritySource _securitySource;
   private final MarketDataPermissionProvider _permissionProvider;
 
@@ -101,16 +106,39 @@ public class InMemoryLKVMarketDataProvider extends AbstractMarketDataProvider im
   //-------------------------------------------------------------------------
   @Override
   public MarketDataAvailability getAvailability(ValueRequirement requirement) {
-    return _lastKnownValues.containsKey(requirement) ? MarketDataAvailability.AVAILABLE : MarketDataAvailability.NOT_AVAILABLE;
+    return _lastKnownValues.get().containsKey(requirement) ? MarketDataAvailability.AVAILABLE : MarketDataAvailability.NOT_AVAILABLE;
   }
 
   //-------------------------------------------------------------------------
   @Override
   public void addValue(ValueRequirement requirement, Object value) {
-    _lastKnownValues.put(requirement, value);
+    PersistentHashMap<ValueRequirement, Object> previous;
+    PersistentHashMap<ValueRequirement, Object> updated;
+    do {
+      previous = _lastKnownValues.get();
+      updated = previous.with(requirement, value);
+    } while ((updated != previous) && !_lastKnownValues.compareAndSet(previous, updated));
     valueChanged(requirement);
   }
   
+  /**
+   * Adds or replaces a number of values at once. The values become visible to snapshots together.
+   * 
+   * @param values  the values to add, keyed by requirement, not null
+   */
+  public void addValues(Map<ValueRequirement, ?> values) {
+    PersistentHashMap<ValueRequirement, Object> previous;
+    PersistentHashMap<ValueRequirement, Object> updated;
+    do {
+      previous = _lastKnownValues.get();
+      updated = previous;
+      for (Map.Entry<ValueRequirement, ?> value : values.entrySet()) {
+        updated = updated.with(value.getKey(), value.getValue());
+      }
+    } while ((updated != previous) && !_lastKnownValues.compareAndSet(previous, updated));
+    valuesChanged(values.keySet());
+  }
+
   @Override
   public void addValue(ExternalId identifier, String valueName, Object value) {
     ValueRequirement valueRequirement = resolveRequirement(identifier, valueName);
@@ -119,7 +147,12 @@ public class InMemoryLKVMarketDataProvider extends AbstractMarketDataProvider im
 
   @Override
   public void removeValue(final ValueRequirement valueRequirement) {
-    _lastKnownValues.remove(valueRequirement);
+    PersistentHashMap<ValueRequirement, Object> previous;
+    PersistentHashMap<ValueRequirement, Object> updated;
+    do {
+      previous = _lastKnownValues.get();
+      updated = previous.without(valueRequirement);
+    } while ((updated != previous) && !_lastKnownValues.compareAndSet(previous, updated));
     valueChanged(valueRequirement);
   }
   
@@ -130,17 +163,22 @@ public class InMemoryLKVMarketDataProvider extends AbstractMarketDataProvider im
   }
   
   //-------------------------------------------------------------------------
+  /**
+   * Gets the keys of the values currently held. The set is a snapshot and will not reflect later changes.
+   *
+   * @return the keys, not null
+   */
   public Set<ValueRequirement> getAllValueKeys() {
-    return Collections.unmodifiableSet(_lastKnownValues.keySet());
+    return Collections.unmodifiableSet(_lastKnownValues.get().keySet());
   }
 
   public Object getCurrentValue(ValueRequirement valueRequirement) {
-    return _lastKnownValues.get(valueRequirement);
+    return _lastKnownValues.get().get(valueRequirement);
   }
   
   //-------------------------------------------------------------------------
-  /*package*/ Map<ValueRequirement, Object> doSnapshot() {
-    return new HashMap<ValueRequirement, Object>(_lastKnownValues);
+  /*package*/ PersistentHashMap<ValueRequirement, Object> doSnapshot() {
+    return _lastKnownValues.get();
   }
   
   private ValueRequirement resolveRequirement(ExternalId identifier, String valueName) {
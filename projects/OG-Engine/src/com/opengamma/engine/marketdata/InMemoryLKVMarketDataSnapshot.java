@@ -6,7 +6,7 @@
 package com.opengamma.engine.marketdata;
 
 import java.util.Collections;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -17,17 +17,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.util.map.PersistentHashMap;
 
 /**
  * An implementation of {@link MarketDataSnapshot} backed by an {@link InMemoryLKVMarketDataProvider}.
  */
-public class InMemoryLKVMarketDataSnapshot extends AbstractMarketDataSnapshot {
+public class InMemoryLKVMarketDataSnapshot extends AbstractMarketDataSnapshot implements ChangeTrackingMarketDataSnapshot {
 
   private static final Logger s_logger = LoggerFactory.getLogger(InMemoryLKVMarketDataSnapshot.class);
   
   private final InMemoryLKVMarketDataProvider _provider;
   private Instant _snapshotTime;
-  private Map<ValueRequirement, Object> _snapshot;
+  private PersistentHashMap<ValueRequirement, Object> _snapshot;
   
   public InMemoryLKVMarketDataSnapshot(InMemoryLKVMarketDataProvider provider) {
     _provider = provider;
@@ -71,7 +72,22 @@ public class InMemoryLKVMarketDataSnapshot extends AbstractMarketDataSnapshot {
   }
   
   //-------------------------------------------------------------------------
-  private Map<ValueRequirement, Object> getSnapshot() {
+  @Override
+  public Set<ValueRequirement> getChangedSince(MarketDataSnapshot previous) {
+    if (!(previous instanceof InMemoryLKVMarketDataSnapshot)) {
+      return null;
+    }
+    final InMemoryLKVMarketDataSnapshot previousLKV = (InMemoryLKVMarketDataSnapshot) previous;
+    if ((previousLKV.getProvider() != getProvider()) || (previousLKV._snapshot == null)) {
+      return null;
+    }
+    final Set<ValueRequirement> changed = new HashSet<ValueRequirement>();
+    getSnapshot().getChangedKeys(previousLKV._snapshot, changed);
+    return changed;
+  }
+
+  //-------------------------------------------------------------------------
+  private PersistentHashMap<ValueRequirement, Object> getSnapshot() {
     if (_snapshot == null) {
       throw new IllegalStateException("Snapshot has not been initialised");
     }
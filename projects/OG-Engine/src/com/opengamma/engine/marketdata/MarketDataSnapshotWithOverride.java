@@ -23,7 +23,7 @@ import com.opengamma.id.UniqueId;
  * Note that the overriding snapshot can provide instances of {@link OverrideOperation} instead of (or as well as)
  * actual values for this to return. In this case the operation is applied to the underlying.
  */
-public class MarketDataSnapshotWithOverride extends AbstractMarketDataSnapshot {
+public class MarketDataSnapshotWithOverride extends AbstractMarketDataSnapshot implements ChangeTrackingMarketDataSnapshot {
 
   private final MarketDataSnapshot _underlying;
   private final MarketDataSnapshot _override;
@@ -115,6 +115,33 @@ public class MarketDataSnapshotWithOverride extends AbstractMarketDataSnapshot {
     return result;
   }
 
+  @Override
+  public Set<ValueRequirement> getChangedSince(final MarketDataSnapshot previous) {
+    if (!(previous instanceof MarketDataSnapshotWithOverride)) {
+      return null;
+    }
+    final MarketDataSnapshotWithOverride previousWithOverride = (MarketDataSnapshotWithOverride) previous;
+    final Set<ValueRequirement> underlyingChanges = getChangedSince(getUnderlying(), previousWithOverride.getUnderlying());
+    if (underlyingChanges == null) {
+      return null;
+    }
+    final Set<ValueRequirement> overrideChanges = getChangedSince(getOverride(), previousWithOverride.getOverride());
+    if (overrideChanges == null) {
+      return null;
+    }
+    final Set<ValueRequirement> changes = new HashSet<ValueRequirement>(underlyingChanges);
+    changes.addAll(overrideChanges);
+    return changes;
+  }
+
+  private static Set<ValueRequirement> getChangedSince(final MarketDataSnapshot snapshot, final MarketDataSnapshot previous) {
+    if (snapshot instanceof ChangeTrackingMarketDataSnapshot) {
+      return ((ChangeTrackingMarketDataSnapshot) snapshot).getChangedSince(previous);
+    } else {
+      return null;
+    }
+  }
+
   //-------------------------------------------------------------------------
   private MarketDataSnapshot getUnderlying() {
     return _underlying;
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.availability;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opengamma.core.change.ChangeEvent;
+import com.opengamma.core.change.ChangeListener;
+import com.opengamma.engine.marketdata.MarketDataListener;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.ObjectId;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Remembers the availability reported by an underlying provider so that repeated compilations do not resolve the
+ * same requirements again.
+ * <p>
+ * Entries are invalidated when a {@link ChangeEvent} is received for the target of the requirement, for example from
+ * the change manager of the security source the underlying resolves against, and when a subscription to the
+ * requirement fails or is stopped. The provider should be registered as a change listener and as a market data
+ * listener where those events are raised.
+ * <p>
+ * This class is thread-safe if the underlying is.
+ */
+public class CachingMarketDataAvailabilityProvider implements MarketDataAvailabilityProvider, ChangeListener, MarketDataListener {
+
+  private static final Logger s_logger = LoggerFactory.getLogger(CachingMarketDataAvailabilityProvider.class);
+
+  private final MarketDataAvailabilityProvider _underlying;
+  private final ConcurrentMap<ValueRequirement, MarketDataAvailability> _availability = new ConcurrentHashMap<ValueRequirement, MarketDataAvailability>();
+  private final ConcurrentMap<ObjectId, Set<ValueRequirement>> _requirementsByTarget = new ConcurrentHashMap<ObjectId, Set<ValueRequirement>>();
+
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _missTimeNanos = new AtomicLong();
+  private final AtomicLong _invalidations = new AtomicLong();
+  /** Incremented by every invalidation, so that a resolution racing with one can tell. */
+  private final AtomicLong _invalidationSequence = new AtomicLong();
+
+  /**
+   * Creates an instance.
+   *
+   * @param underlying  the provider to cache the results of, not null
+   */
+  public CachingMarketDataAvailabilityProvider(final MarketDataAvailabilityProvider underlying) {
+    ArgumentChecker.notNull(underlying, "underlying");
+    _underlying = underlying;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the underlying provider.
+   *
+   * @return the underlying provider, not null
+   */
+  public MarketDataAvailabilityProvider getUnderlying() {
+    return _underlying;
+  }
+
+  @Override
+  public MarketDataAvailability getAvailability(final ValueRequirement requirement) {
+    final MarketDataAvailability cached = _availability.get(requirement);
+    if (cached != null) {
+      _hits.incrementAndGet();
+      return cached;
+    }
+    return resolve(requirement);
+  }
+
+  /**
+   * Gets the availability of a number of requirements, resolving any not already known in a single pass.
+   *
+   * @param requirements  the market data requirements, not null and not containing nulls
+   * @return the availability status of each requirement, not null
+   */
+  public Map<ValueRequirement, MarketDataAvailability> getAvailability(final Collection<ValueRequirement> requirements) {
+    ArgumentChecker.notNull(requirements, "requirements");
+    final Map<ValueRequirement, MarketDataAvailability> result = new HashMap<ValueRequirement, MarketDataAvailability>();
+    int hits = 0;
+    for (ValueRequirement requirement : requirements) {
+      MarketDataAvailability availability = _availability.get(requirement);
+      if (availability != null) {
+        hits++;
+      } else {
+        availability = resolve(requirement);
+      }
+      result.put(requirement, availability);
+    }
+    _hits.addAndGet(hits);
+    return result;
+  }
+
+  private MarketDataAvailability resolve(final ValueRequirement requirement) {
+    // Any invalidation from now on, including of the target the requirement is registered against, discards the answer
+    final long sequence = _invalidationSequence.get();
+    registerTarget(requirement);
+    final long start = System.nanoTime();
+    final MarketDataAvailability availability = _underlying.getAvailability(requirement);
+    _missTimeNanos.addAndGet(System.nanoTime() - start);
+    _misses.incrementAndGet();
+    _availability.put(requirement, availability);
+    if (_invalidationSequence.get() != sequence) {
+      // An invalidation may have happened while the underlying was answering, so the answer can't be kept
+      _availability.remove(requirement, availability);
+    }
+    return availability;
+  }
+
+  private void registerTarget(final ValueRequirement requirement) {
+    final UniqueId targetId = requirement.getTargetSpecification().getUniqueId();
+    if (targetId != null) {
+      final ObjectId target = targetId.getObjectId();
+      Set<ValueRequirement> requirements = _requirementsByTarget.get(target);
+      if (requirements == null) {
+        requirements = new CopyOnWriteArraySet<ValueRequirement>();
+        final Set<ValueRequirement> existing = _requirementsByTarget.putIfAbsent(target, requirements);
+        if (existing != null) {
+          requirements = existing;
+        }
+      }
+      requirements.add(requirement);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Discards the cached availability of a requirement.
+   *
+   * @param requirement  the requirement, not null
+   */
+  public void invalidate(final ValueRequirement requirement) {
+    _invalidationSequence.incrementAndGet();
+    if (_availability.remove(requirement) != null) {
+      _invalidations.incrementAndGet();
+    }
+  }
+
+  /**
+   * Discards the cached availability of all requirements on a target.
+   *
+   * @param target  the target, not null
+   */
+  public void invalidate(final ObjectId target) {
+    _invalidationSequence.incrementAndGet();
+    final Set<ValueRequirement> requirements = _requirementsByTarget.remove(target);
+    if (requirements != null) {
+      s_logger.debug("Invalidating availability of {} requirements on {}", requirements.size(), target);
+      for (ValueRequirement requirement : requirements) {
+        invalidate(requirement);
+      }
+    }
+  }
+
+  /**
+   * Discards all cached availability.
+   */
+  public void invalidateAll() {
+    _invalidationSequence.incrementAndGet();
+    _invalidations.addAndGet(_availability.size());
+    _availability.clear();
+    _requirementsByTarget.clear();
+  }
+
+  @Override
+  public void entityChanged(final ChangeEvent event) {
+    if (event.getBeforeId() != null) {
+      invalidate(event.getBeforeId().getObjectId());
+    }
+    if (event.getAfterId() != null) {
+      invalidate(event.getAfterId().getObjectId());
+    }
+  }
+
+  @Override
+  public void subscriptionSucceeded(final ValueRequirement requirement) {
+    // No-op
+  }
+
+  @Override
+  public void subscriptionFailed(final ValueRequirement requirement, final String msg) {
+    invalidate(requirement);
+  }
+
+  @Override
+  public void subscriptionStopped(final ValueRequirement requirement) {
+    invalidate(requirement);
+  }
+
+  @Override
+  public void valuesChanged(final Collection<ValueRequirement> requirements) {
+    // No-op
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of queries answered from the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  /**
+   * Gets the number of queries passed to the underlying provider.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  /**
+   * Gets the proportion of queries answered from the cache.
+   *
+   * @return the hit rate, between 0 and 1, zero if there have been no queries
+   */
+  public double getHitRate() {
+    final long hits = _hits.get();
+    final long total = hits + _misses.get();
+    return (total > 0) ? (double) hits / (double) total : 0;
+  }
+
+  /**
+   * Gets the mean time taken by the underlying provider to answer a query.
+   *
+   * @return the mean time in nanoseconds, zero if there have been no misses
+   */
+  public double getMeanMissLatencyNanos() {
+    final long misses = _misses.get();
+    return (misses > 0) ? (double) _missTimeNanos.get() / (double) misses : 0;
+  }
+
+  /**
+   * Gets the number of cached entries that have been discarded.
+   *
+   * @return the number of invalidations
+   */
+  public long getInvalidationCount() {
+    return _invalidations.get();
+  }
+
+  /**
+   * Gets the number of requirements with a cached availability.
+   *
+   * @return the cache size
+   */
+  public int getSize() {
+    return _availability.size();
+  }
+
+}
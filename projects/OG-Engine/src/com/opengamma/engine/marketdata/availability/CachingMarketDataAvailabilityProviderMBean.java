@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.availability;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * JMX management of a {@link CachingMarketDataAvailabilityProvider}.
+ */
+@ManagedResource(
+    objectName = "com.opengamma:name=CachingMarketDataAvailabilityProvider",
+    description = "This MBean reports on the caching of market data availability between compilations.")
+public class CachingMarketDataAvailabilityProviderMBean {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(CachingMarketDataAvailabilityProviderMBean.class);
+
+  /**
+   * The underlying provider.
+   */
+  private final CachingMarketDataAvailabilityProvider _provider;
+
+  /**
+   * Creates an instance.
+   * 
+   * @param provider  the underlying provider, not null
+   */
+  public CachingMarketDataAvailabilityProviderMBean(CachingMarketDataAvailabilityProvider provider) {
+    ArgumentChecker.notNull(provider, "provider");
+    _provider = provider;
+  }
+
+  //-------------------------------------------------------------------------
+  @ManagedAttribute(description = "The number of queries answered from the cache.")
+  public long getHitCount() {
+    try {
+      return _provider.getHitCount();
+    } catch (RuntimeException e) {
+      s_logger.error("getHitCount() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of queries passed to the underlying provider.")
+  public long getMissCount() {
+    try {
+      return _provider.getMissCount();
+    } catch (RuntimeException e) {
+      s_logger.error("getMissCount() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The proportion of queries answered from the cache.")
+  public double getHitRate() {
+    try {
+      return _provider.getHitRate();
+    } catch (RuntimeException e) {
+      s_logger.error("getHitRate() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The mean time, in nanoseconds, taken by the underlying provider to answer a query.")
+  public double getMeanMissLatencyNanos() {
+    try {
+      return _provider.getMeanMissLatencyNanos();
+    } catch (RuntimeException e) {
+      s_logger.error("getMeanMissLatencyNanos() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of cached entries that have been discarded.")
+  public long getInvalidationCount() {
+    try {
+      return _provider.getInvalidationCount();
+    } catch (RuntimeException e) {
+      s_logger.error("getInvalidationCount() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of requirements with a cached availability.")
+  public int getSize() {
+    try {
+      return _provider.getSize();
+    } catch (RuntimeException e) {
+      s_logger.error("getSize() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedOperation(description = "Discards all cached availability.")
+  public void invalidateAll() {
+    try {
+      _provider.invalidateAll();
+    } catch (RuntimeException e) {
+      s_logger.error("invalidateAll() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+}
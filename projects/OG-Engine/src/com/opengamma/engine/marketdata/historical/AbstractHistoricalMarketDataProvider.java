@@ -6,6 +6,7 @@
 package com.opengamma.engine.marketdata.historical;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -116,6 +117,15 @@ public abstract class AbstractHistoricalMarketDataProvider extends AbstractMarke
     s_logger.debug("Removed subscriptions from {}", valueRequirements);
   }
   
+  /**
+   * Gets the requirements currently subscribed to.
+   * 
+   * @return a copy of the subscribed requirements, not null
+   */
+  protected Set<ValueRequirement> getSubscriptions() {
+    return new HashSet<ValueRequirement>(_subscriptionIdBundleMap.keySet());
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public MarketDataAvailabilityProvider getAvailabilityProvider() {
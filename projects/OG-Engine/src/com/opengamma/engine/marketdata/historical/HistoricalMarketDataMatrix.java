@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.historical;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.time.calendar.LocalDate;
+
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.timeseries.localdate.LocalDateDoubleTimeSeries;
+
+/**
+ * Historical market data for a range of dates, held as a dense matrix of primitive values.
+ * <p>
+ * The matrix holds one column per date on which any of its time-series has a point, and one row per requirement. A
+ * column is the complete market data for a date, so a snapshot for that date is just a reference to the column. Points
+ * missing from a time-series are held as NaN.
+ * <p>
+ * The values are stored by row so that a matrix extended with further requirements shares the rows of the original.
+ * Only when the new time-series have points on dates the matrix doesn't hold yet are the existing rows copied to make
+ * room for the new columns.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public final class HistoricalMarketDataMatrix {
+
+  /**
+   * The market data for a single date.
+   */
+  public static final class Column {
+
+    private final Object2IntMap<ValueRequirement> _rows;
+    private final double[][] _values;
+    private final int _column;
+
+    private Column(final Object2IntMap<ValueRequirement> rows, final double[][] values, final int column) {
+      _rows = rows;
+      _values = values;
+      _column = column;
+    }
+
+    /**
+     * Tests whether the requirement was loaded into the matrix.
+     *
+     * @param requirement the requirement, not null
+     * @return true if the matrix holds the requirement, even if there is no value for it on this date
+     */
+    public boolean contains(final ValueRequirement requirement) {
+      return _rows.containsKey(requirement);
+    }
+
+    /**
+     * Gets the value of a requirement on this date.
+     *
+     * @param requirement the requirement, not null
+     * @return the value, null if there is none
+     */
+    public Double getValue(final ValueRequirement requirement) {
+      final int row = _rows.getInt(requirement);
+      if ((row < 0) || (_column < 0)) {
+        return null;
+      }
+      final double value = _values[row][_column];
+      return Double.isNaN(value) ? null : value;
+    }
+
+  }
+
+  private final LocalDate _startDate;
+  private final LocalDate _endDate;
+  private final Object2IntMap<ValueRequirement> _rows;
+  private final LocalDate[] _dates;
+  private final double[][] _values;
+
+  private HistoricalMarketDataMatrix(final LocalDate startDate, final LocalDate endDate, final Object2IntMap<ValueRequirement> rows, final LocalDate[] dates,
+      final double[][] values) {
+    _startDate = startDate;
+    _endDate = endDate;
+    _rows = rows;
+    _dates = dates;
+    _values = values;
+  }
+
+  /**
+   * Creates a matrix from time-series.
+   *
+   * @param startDate the first date covered by the matrix, not null
+   * @param endDate the last date covered by the matrix, not null
+   * @param timeSeries the time-series for each requirement, not null
+   * @return the matrix, not null
+   */
+  public static HistoricalMarketDataMatrix of(final LocalDate startDate, final LocalDate endDate, final Map<ValueRequirement, LocalDateDoubleTimeSeries> timeSeries) {
+    ArgumentChecker.notNull(startDate, "startDate");
+    ArgumentChecker.notNull(endDate, "endDate");
+    ArgumentChecker.notNull(timeSeries, "timeSeries");
+    return new HistoricalMarketDataMatrix(startDate, endDate, emptyRows(), new LocalDate[0], new double[0][]).with(timeSeries);
+  }
+
+  private static Object2IntMap<ValueRequirement> emptyRows() {
+    final Object2IntMap<ValueRequirement> rows = new Object2IntOpenHashMap<ValueRequirement>();
+    rows.defaultReturnValue(-1);
+    return rows;
+  }
+
+  /**
+   * Creates a matrix covering the same dates with additional requirements. Requirements already in this matrix are
+   * replaced. The rows of this matrix are shared with the new one unless the time-series add dates to it.
+   *
+   * @param timeSeries the time-series for each additional requirement, not null
+   * @return the new matrix, not null
+   */
+  public HistoricalMarketDataMatrix with(final Map<ValueRequirement, LocalDateDoubleTimeSeries> timeSeries) {
+    ArgumentChecker.notNull(timeSeries, "timeSeries");
+    // Rows
+    final Object2IntMap<ValueRequirement> rows = emptyRows();
+    rows.putAll(_rows);
+    for (ValueRequirement requirement : timeSeries.keySet()) {
+      if (!rows.containsKey(requirement)) {
+        rows.put(requirement, rows.size());
+      }
+    }
+    // Columns
+    SortedSet<LocalDate> newDates = null;
+    for (LocalDateDoubleTimeSeries series : timeSeries.values()) {
+      for (int i = 0; i < series.size(); i++) {
+        final LocalDate date = series.getTimeAt(i);
+        if (covers(date) && (Arrays.binarySearch(_dates, date) < 0)) {
+          if (newDates == null) {
+            newDates = new TreeSet<LocalDate>(Arrays.asList(_dates));
+          }
+          newDates.add(date);
+        }
+      }
+    }
+    final LocalDate[] dates;
+    final double[][] values = new double[rows.size()][];
+    if (newDates == null) {
+      dates = _dates;
+      System.arraycopy(_values, 0, values, 0, _values.length);
+    } else {
+      dates = newDates.toArray(new LocalDate[newDates.size()]);
+      for (int row = 0; row < _values.length; row++) {
+        final double[] previous = _values[row];
+        final double[] current = new double[dates.length];
+        Arrays.fill(current, Double.NaN);
+        for (int i = 0; i < _dates.length; i++) {
+          current[Arrays.binarySearch(dates, _dates[i])] = previous[i];
+        }
+        values[row] = current;
+      }
+    }
+    for (Map.Entry<ValueRequirement, LocalDateDoubleTimeSeries> series : timeSeries.entrySet()) {
+      final double[] row = new double[dates.length];
+      Arrays.fill(row, Double.NaN);
+      final LocalDateDoubleTimeSeries points = series.getValue();
+      for (int i = 0; i < points.size(); i++) {
+        final int column = Arrays.binarySearch(dates, points.getTimeAt(i));
+        if (column >= 0) {
+          row[column] = points.getValueAt(i);
+        }
+      }
+      values[rows.getInt(series.getKey())] = row;
+    }
+    return new HistoricalMarketDataMatrix(_startDate, _endDate, rows, dates, values);
+  }
+
+  //-------------------------------------------------------------------------
+  public LocalDate getStartDate() {
+    return _startDate;
+  }
+
+  public LocalDate getEndDate() {
+    return _endDate;
+  }
+
+  /**
+   * Tests whether a date is within the range of the matrix.
+   *
+   * @param date the date, not null
+   * @return true if the date is within the range
+   */
+  public boolean covers(final LocalDate date) {
+    return !date.isBefore(_startDate) && !date.isAfter(_endDate);
+  }
+
+  /**
+   * Tests whether a requirement is held in the matrix.
+   *
+   * @param requirement the requirement, not null
+   * @return true if the requirement is held
+   */
+  public boolean contains(final ValueRequirement requirement) {
+    return _rows.containsKey(requirement);
+  }
+
+  /**
+   * Gets the market data for a date.
+   *
+   * @param date the date, not null
+   * @return the column, not null. This holds no values if the date has no points or is outside the range of the matrix
+   */
+  public Column getColumn(final LocalDate date) {
+    return new Column(_rows, _values, Arrays.binarySearch(_dates, date));
+  }
+
+  public int getRequirementCount() {
+    return _rows.size();
+  }
+
+  public int getDateCount() {
+    return _dates.length;
+  }
+
+  /**
+   * Estimates the memory used by the values in the matrix.
+   *
+   * @return the approximate size in bytes
+   */
+  public long getValueMemoryBytes() {
+    return (long) _dates.length * _rows.size() * 8;
+  }
+
+}
@@ -16,23 +16,44 @@ import com.opengamma.util.ArgumentChecker;
 
 /**
  * A factory for {@link HistoricalMarketDataProvider} instances.
+ * <p>
+ * If a number of preload days is given then {@link PreloadingHistoricalMarketDataProvider} instances are created, which
+ * load blocks of dates in bulk for runs over many dates.
  */
 public class HistoricalMarketDataProviderFactory implements MarketDataProviderFactory {
 
   private final HistoricalTimeSeriesSource _timeSeriesSource;
   private final SecuritySource _securitySource;
+  private final int _preloadDays;
 
   public HistoricalMarketDataProviderFactory(final HistoricalTimeSeriesSource timeSeriesSource, SecuritySource securitySource) {
+    this(timeSeriesSource, securitySource, 0);
+  }
+
+  /**
+   * Creates an instance.
+   * 
+   * @param timeSeriesSource  the time-series source, not null
+   * @param securitySource  the security source, not null
+   * @param preloadDays  the number of days of data to load at a time, or 0 to query the time-series source for each value
+   */
+  public HistoricalMarketDataProviderFactory(final HistoricalTimeSeriesSource timeSeriesSource, SecuritySource securitySource, int preloadDays) {
     ArgumentChecker.notNull(timeSeriesSource, "timeSeriesSource");
     ArgumentChecker.notNull(securitySource, "securitySource");
+    ArgumentChecker.notNegative(preloadDays, "preloadDays");
     _timeSeriesSource = timeSeriesSource;
     _securitySource = securitySource;
+    _preloadDays = preloadDays;
   }
 
   @Override
   public MarketDataProvider create(UserPrincipal marketDataUser,
                                    MarketDataSpecification marketDataSpec) {
     HistoricalMarketDataSpecification historicalMarketDataSpec = (HistoricalMarketDataSpecification) marketDataSpec;
+    if (_preloadDays > 0) {
+      return new PreloadingHistoricalMarketDataProvider(getTimeSeriesSource(), getSecuritySource(), historicalMarketDataSpec.getTimeSeriesResolverKey(),
+          historicalMarketDataSpec.getTimeSeriesFieldResolverKey(), _preloadDays);
+    }
     return new HistoricalMarketDataProvider(getTimeSeriesSource(), getSecuritySource(), historicalMarketDataSpec.getTimeSeriesResolverKey(), historicalMarketDataSpec.getTimeSeriesFieldResolverKey());
   }
 
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.historical;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.time.Instant;
+import javax.time.calendar.LocalDate;
+
+import com.opengamma.core.historicaltimeseries.HistoricalTimeSeriesSource;
+import com.opengamma.engine.value.ValueRequirement;
+
+/**
+ * A historical market data snapshot which reads from the matrix loaded by a {@link PreloadingHistoricalMarketDataProvider}.
+ * Requirements that were not loaded are queried from the time-series source as usual.
+ */
+public class PreloadedHistoricalMarketDataSnapshot extends HistoricalMarketDataSnapshot {
+
+  private final LocalDate _snapshotDate;
+  private final PreloadingHistoricalMarketDataProvider _provider;
+  private volatile HistoricalMarketDataMatrix.Column _column;
+
+  /**
+   * Creates a market data snapshot.
+   * 
+   * @param timeSeriesSource  the time-series source, not null
+   * @param snapshotInstant  the snapshot instant to report to the engine, not null
+   * @param snapshotDate  the date of the required value, not null
+   * @param timeSeriesFieldResolverKey  the time series field resolver key, null for default
+   * @param provider  the provider holding the preloaded data, not null
+   */
+  public PreloadedHistoricalMarketDataSnapshot(HistoricalTimeSeriesSource timeSeriesSource, Instant snapshotInstant,
+      LocalDate snapshotDate, String timeSeriesFieldResolverKey, PreloadingHistoricalMarketDataProvider provider) {
+    super(timeSeriesSource, snapshotInstant, snapshotDate, timeSeriesFieldResolverKey, provider);
+    _snapshotDate = snapshotDate;
+    _provider = provider;
+  }
+
+  @Override
+  public void init() {
+    _column = _provider.getColumn(_snapshotDate, null);
+  }
+
+  @Override
+  public void init(Set<ValueRequirement> valuesRequired, long timeout, TimeUnit unit) {
+    _column = _provider.getColumn(_snapshotDate, valuesRequired);
+  }
+
+  @Override
+  public Object query(ValueRequirement requirement) {
+    final HistoricalMarketDataMatrix.Column column = _column;
+    if ((column != null) && column.contains(requirement)) {
+      return column.getValue(requirement);
+    }
+    return super.query(requirement);
+  }
+
+}
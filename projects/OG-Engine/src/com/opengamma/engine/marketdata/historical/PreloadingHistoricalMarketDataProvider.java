@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.historical;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.time.Instant;
+import javax.time.calendar.LocalDate;
+import javax.time.calendar.TimeZone;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opengamma.core.historicaltimeseries.HistoricalTimeSeries;
+import com.opengamma.core.historicaltimeseries.HistoricalTimeSeriesSource;
+import com.opengamma.core.security.SecuritySource;
+import com.opengamma.engine.marketdata.MarketDataSnapshot;
+import com.opengamma.engine.marketdata.spec.FixedHistoricalMarketDataSpecification;
+import com.opengamma.engine.marketdata.spec.MarketDataSpecification;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.ExternalIdBundle;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.time.DateUtils;
+import com.opengamma.util.timeseries.localdate.ArrayLocalDateDoubleTimeSeries;
+import com.opengamma.util.timeseries.localdate.LocalDateDoubleTimeSeries;
+
+/**
+ * Historical market data provider for runs over many dates, such as backtests.
+ * <p>
+ * Rather than querying the time-series source for every requirement on every cycle, the provider loads a block of
+ * dates for all of its subscriptions at once and holds them in a {@link HistoricalMarketDataMatrix}. A snapshot for a
+ * date in the block is then a column of the matrix. When a date outside the block is requested, the next block is
+ * loaded starting from that date, or ending on it if the run is moving backwards in time. Requirements subscribed to
+ * after a block was loaded are added to it the next time a snapshot is taken.
+ * <p>
+ * A snapshot for a date uses the time-series its identifiers resolve to on that date. A time-series is loaded for the
+ * whole block when its identifiers resolve to the same series at both ends of the block; otherwise the block is split
+ * until they do, so a change of resolution part way through a block is honored. A resolution that changes and then
+ * changes back within a part of the block is not detected.
+ */
+public class PreloadingHistoricalMarketDataProvider extends HistoricalMarketDataProvider {
+
+  private static final Logger s_logger = LoggerFactory.getLogger(PreloadingHistoricalMarketDataProvider.class);
+
+  private static final LocalDateDoubleTimeSeries NO_DATA = new ArrayLocalDateDoubleTimeSeries();
+
+  /**
+   * The default number of days to load at a time.
+   */
+  public static final int DEFAULT_PRELOAD_DAYS = 366;
+
+  private final int _preloadDays;
+
+  private HistoricalMarketDataMatrix _matrix;
+  private long _preloadCount;
+  private long _preloadTimeMillis;
+
+  /**
+   * Creates an instance.
+   *
+   * @param historicalTimeSeriesSource  the underlying source of historical data, not null
+   * @param securitySource  the source of securities, not null
+   * @param timeSeriesResolverKey  the source resolver key, or null to use the source default
+   * @param fieldResolverKey  the field name resolver resolution key, or null to use the resolver default
+   * @param preloadDays  the number of calendar days to load at a time, positive
+   */
+  public PreloadingHistoricalMarketDataProvider(final HistoricalTimeSeriesSource historicalTimeSeriesSource,
+      final SecuritySource securitySource, final String timeSeriesResolverKey, final String fieldResolverKey, final int preloadDays) {
+    super(historicalTimeSeriesSource, securitySource, timeSeriesResolverKey, fieldResolverKey);
+    ArgumentChecker.isTrue(preloadDays > 0, "preloadDays must be positive");
+    _preloadDays = preloadDays;
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param historicalTimeSeriesSource  the underlying source of historical data, not null
+   * @param securitySource  the source of securities, not null
+   */
+  public PreloadingHistoricalMarketDataProvider(final HistoricalTimeSeriesSource historicalTimeSeriesSource, final SecuritySource securitySource) {
+    this(historicalTimeSeriesSource, securitySource, null, null, DEFAULT_PRELOAD_DAYS);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public MarketDataSnapshot snapshot(MarketDataSpecification marketDataSpec) {
+    FixedHistoricalMarketDataSpecification historicalSpec = (FixedHistoricalMarketDataSpecification) marketDataSpec;
+    Instant snapshotInstant = historicalSpec.getSnapshotDate().atTime(16, 0).atZone(TimeZone.UTC).toInstant();
+    LocalDate snapshotDate = historicalSpec.getSnapshotDate();
+    return new PreloadedHistoricalMarketDataSnapshot(getTimeSeriesSource(), snapshotInstant, snapshotDate, historicalSpec.getTimeSeriesFieldResolverKey(), this);
+  }
+
+  /**
+   * Gets the market data for a date, loading it if necessary.
+   *
+   * @param date  the date, not null
+   * @param valuesRequired  requirements needed in addition to the current subscriptions, null for none
+   * @return the market data, not null
+   */
+  /* package */ synchronized HistoricalMarketDataMatrix.Column getColumn(final LocalDate date, final Set<ValueRequirement> valuesRequired) {
+    final Set<ValueRequirement> requirements = getSubscriptions();
+    if (valuesRequired != null) {
+      requirements.addAll(valuesRequired);
+    }
+    if ((_matrix == null) || !_matrix.covers(date)) {
+      final LocalDate startDate;
+      final LocalDate endDate;
+      if ((_matrix != null) && date.isBefore(_matrix.getStartDate())) {
+        startDate = date.minusDays(_preloadDays - 1);
+        endDate = date;
+      } else {
+        startDate = date;
+        endDate = date.plusDays(_preloadDays - 1);
+      }
+      _matrix = HistoricalMarketDataMatrix.of(startDate, endDate, load(requirements, startDate, endDate));
+    } else {
+      final Set<ValueRequirement> missing = new HashSet<ValueRequirement>();
+      for (ValueRequirement requirement : requirements) {
+        if (!_matrix.contains(requirement)) {
+          missing.add(requirement);
+        }
+      }
+      if (!missing.isEmpty()) {
+        _matrix = _matrix.with(load(missing, _matrix.getStartDate(), _matrix.getEndDate()));
+      }
+    }
+    s_logger.debug("Historical market data matrix of {} dates by {} requirements using ~{} bytes",
+        new Object[] {_matrix.getDateCount(), _matrix.getRequirementCount(), _matrix.getValueMemoryBytes() });
+    return _matrix.getColumn(date);
+  }
+
+  private Map<ValueRequirement, LocalDateDoubleTimeSeries> load(final Set<ValueRequirement> requirements, final LocalDate startDate, final LocalDate endDate) {
+    final long start = System.currentTimeMillis();
+    final Map<ValueRequirement, LocalDateDoubleTimeSeries> result = new HashMap<ValueRequirement, LocalDateDoubleTimeSeries>();
+    int loaded = 0;
+    for (ValueRequirement requirement : requirements) {
+      final ExternalIdBundle identifiers = getExternalIdBundle(requirement);
+      LocalDateDoubleTimeSeries timeSeries = NO_DATA;
+      if (identifiers != null) {
+        final HistoricalTimeSeries hts = getTimeSeriesSource().getHistoricalTimeSeries(requirement.getValueName(), identifiers, endDate, getTimeSeriesFieldResolverKey(),
+            startDate, true, endDate, true);
+        final List<LocalDate> dates = new ArrayList<LocalDate>();
+        final List<Double> values = new ArrayList<Double>();
+        if (load(requirement.getValueName(), identifiers, startDate, endDate, hts, dates, values)) {
+          timeSeries = new ArrayLocalDateDoubleTimeSeries(dates, values);
+          loaded++;
+        }
+      }
+      // Requirements without data are held too, so that they are not looked up again for each date
+      result.put(requirement, timeSeries);
+    }
+    final long elapsed = System.currentTimeMillis() - start;
+    _preloadCount++;
+    _preloadTimeMillis += elapsed;
+    s_logger.info("Loaded {} of {} time-series from {} to {} in {}ms", new Object[] {loaded, requirements.size(), startDate, endDate, elapsed });
+    return result;
+  }
+
+  /**
+   * Adds the points from a range of dates, taking each from the time-series the identifiers resolve to on that date.
+   *
+   * @param dataField  the data field, not null
+   * @param identifiers  the identifiers, not null
+   * @param startDate  the first date, not null
+   * @param endDate  the last date, not null
+   * @param endSeries  the time-series resolved as of the last date, loaded for at least the range, null if none
+   * @param dates  the dates to add to, not null
+   * @param values  the values to add to, not null
+   * @return true if any time-series was found for the range
+   */
+  private boolean load(final String dataField, final ExternalIdBundle identifiers, final LocalDate startDate, final LocalDate endDate, final HistoricalTimeSeries endSeries,
+      final List<LocalDate> dates, final List<Double> values) {
+    if (!startDate.equals(endDate)) {
+      // Only the identity of the series resolved as of the start date is needed, so ask for at most one point
+      final HistoricalTimeSeries startSeries = getTimeSeriesSource().getHistoricalTimeSeries(dataField, identifiers, startDate, getTimeSeriesFieldResolverKey(),
+          startDate, true, endDate, true, 1);
+      if (!isSameSeries(startSeries, endSeries)) {
+        final LocalDate midDate = startDate.plusDays(DateUtils.getDaysBetween(startDate, endDate) / 2);
+        final HistoricalTimeSeries midSeries = getTimeSeriesSource().getHistoricalTimeSeries(dataField, identifiers, midDate, getTimeSeriesFieldResolverKey(),
+            startDate, true, midDate, true);
+        final boolean found = load(dataField, identifiers, startDate, midDate, midSeries, dates, values);
+        return load(dataField, identifiers, midDate.plusDays(1), endDate, endSeries, dates, values) || found;
+      }
+    }
+    if (endSeries == null) {
+      return false;
+    }
+    final LocalDateDoubleTimeSeries points = endSeries.getTimeSeries();
+    for (int i = 0; i < points.size(); i++) {
+      final LocalDate date = points.getTimeAt(i);
+      if (!date.isBefore(startDate) && !date.isAfter(endDate)) {
+        dates.add(date);
+        values.add(points.getValueAt(i));
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSameSeries(final HistoricalTimeSeries a, final HistoricalTimeSeries b) {
+    if ((a == null) || (b == null)) {
+      return a == b;
+    }
+    return ObjectUtils.equals(a.getUniqueId(), b.getUniqueId());
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of times a block of market data has been loaded.
+   *
+   * @return the number of loads
+   */
+  public synchronized long getPreloadCount() {
+    return _preloadCount;
+  }
+
+  /**
+   * Gets the total time spent loading market data.
+   *
+   * @return the time in milliseconds
+   */
+  public synchronized long getPreloadTimeMillis() {
+    return _preloadTimeMillis;
+  }
+
+  /**
+   * Gets the approximate memory used by the values currently loaded.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getPreloadMemoryBytes() {
+    return (_matrix != null) ? _matrix.getValueMemoryBytes() : 0;
+  }
+
+}
@@ -6,6 +6,7 @@
 package com.opengamma.engine.marketdata.live;
 
 import com.opengamma.core.security.SecuritySource;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProvider;
 import com.opengamma.engine.marketdata.availability.MarketDataAvailabilityProvider;
 import com.opengamma.livedata.LiveDataClient;
 import com.opengamma.livedata.UserPrincipal;
@@ -13,6 +14,10 @@ import com.opengamma.util.ArgumentChecker;
 
 /**
  * Factory for building {@link LiveMarketDataProvider} instances.
+ * <p>
+ * If asked to cache availability, the providers built share a {@link CachingMarketDataAvailabilityProvider} over the
+ * availability provider, so that availability is remembered between compilations. It is invalidated by changes to the
+ * securities and by failed subscriptions.
  */
 public class LiveDataFactory {
 
@@ -23,15 +28,49 @@ public class LiveDataFactory {
   public LiveDataFactory(LiveDataClient liveDataClient,
                          MarketDataAvailabilityProvider availabilityProvider,
                          SecuritySource securitySource) {
+    this(liveDataClient, availabilityProvider, securitySource, false);
+  }
+
+  /**
+   * Creates an instance.
+   * 
+   * @param liveDataClient  the live data client, not null
+   * @param availabilityProvider  the availability provider, not null
+   * @param securitySource  the security source, not null
+   * @param cacheAvailability  whether to remember availability between compilations
+   */
+  public LiveDataFactory(LiveDataClient liveDataClient,
+                         MarketDataAvailabilityProvider availabilityProvider,
+                         SecuritySource securitySource,
+                         boolean cacheAvailability) {
     ArgumentChecker.notNull(liveDataClient, "liveDataClient");
     ArgumentChecker.notNull(availabilityProvider, "availabilityProvider");
     ArgumentChecker.notNull(securitySource, "securitySource");
     _liveDataClient = liveDataClient;
-    _availabilityProvider = availabilityProvider;
+    if (cacheAvailability) {
+      final CachingMarketDataAvailabilityProvider cache = new CachingMarketDataAvailabilityProvider(availabilityProvider);
+      securitySource.changeManager().addChangeListener(cache);
+      _availabilityProvider = cache;
+    } else {
+      _availabilityProvider = availabilityProvider;
+    }
     _securitySource = securitySource;
   }
 
+  /**
+   * Gets the availability provider shared by the market data providers.
+   * 
+   * @return the availability provider, a {@link CachingMarketDataAvailabilityProvider} if availability is cached, not null
+   */
+  public MarketDataAvailabilityProvider getAvailabilityProvider() {
+    return _availabilityProvider;
+  }
+
   /* package */ LiveMarketDataProvider create(UserPrincipal user) {
-    return new LiveMarketDataProvider(_liveDataClient, _availabilityProvider, _securitySource, user);
+    final LiveMarketDataProvider provider = new LiveMarketDataProvider(_liveDataClient, _availabilityProvider, _securitySource, user);
+    if (_availabilityProvider instanceof CachingMarketDataAvailabilityProvider) {
+      provider.addListener((CachingMarketDataAvailabilityProvider) _availabilityProvider);
+    }
+    return provider;
   }
 }
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.live;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.LiveDataValueUpdate;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Conflates live data updates between snapshots.
+ * <p>
+ * Each {@link LiveDataSpecification} has a slot holding the fields received since the slot was last drained. A new
+ * update to a pending slot is merged into it field by field, so only the latest value of each field is kept. Slots
+ * are queued when they first become pending, so draining visits only those that have changed, in one pass.
+ * <p>
+ * Updates for a given specification normally arrive on a single thread; the slot lock then only contends with a drain.
+ * This class is thread-safe.
+ */
+public class LiveDataUpdateConflator {
+
+  private static final class Slot {
+
+    private final LiveDataSpecification _specification;
+    // The first update since the slot was drained, kept as-is unless a second arrives
+    private FudgeMsg _pending;
+    // The merged fields once there has been more than one update
+    private Map<String, FudgeField> _merged;
+
+    private Slot(final LiveDataSpecification specification) {
+      _specification = specification;
+    }
+
+    /**
+     * @return true if the slot was previously empty
+     */
+    private synchronized boolean update(final FudgeMsg fields) {
+      if (_pending == null) {
+        _pending = fields;
+        return true;
+      }
+      if (_merged == null) {
+        _merged = new LinkedHashMap<String, FudgeField>();
+        for (FudgeField field : _pending) {
+          _merged.put(field.getName(), field);
+        }
+      }
+      for (FudgeField field : fields) {
+        _merged.put(field.getName(), field);
+      }
+      return false;
+    }
+
+    private synchronized FudgeMsg take() {
+      final FudgeMsg result;
+      if (_merged != null) {
+        final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+        for (FudgeField field : _merged.values()) {
+          msg.add(field);
+        }
+        result = msg;
+        _merged = null;
+      } else {
+        result = _pending;
+      }
+      _pending = null;
+      return result;
+    }
+
+  }
+
+  private final ConcurrentMap<LiveDataSpecification, Slot> _slots = new ConcurrentHashMap<LiveDataSpecification, Slot>();
+  private final Queue<Slot> _pendingSlots = new ConcurrentLinkedQueue<Slot>();
+  private final AtomicInteger _pendingCount = new AtomicInteger();
+
+  private final AtomicLong _ticksIn = new AtomicLong();
+  private final AtomicLong _ticksConflated = new AtomicLong();
+  private final AtomicInteger _maxPendingCount = new AtomicInteger();
+
+  /**
+   * Records an update.
+   *
+   * @param update the update, not null
+   * @return true if this is the first update to the specification since the last drain, false if it has been merged
+   *         into an update that is already pending
+   */
+  public boolean update(final LiveDataValueUpdate update) {
+    _ticksIn.incrementAndGet();
+    Slot slot = _slots.get(update.getSpecification());
+    if (slot == null) {
+      slot = new Slot(update.getSpecification());
+      final Slot existing = _slots.putIfAbsent(update.getSpecification(), slot);
+      if (existing != null) {
+        slot = existing;
+      }
+    }
+    if (slot.update(update.getFields())) {
+      _pendingSlots.add(slot);
+      final int pending = _pendingCount.incrementAndGet();
+      int max = _maxPendingCount.get();
+      while ((pending > max) && !_maxPendingCount.compareAndSet(max, pending)) {
+        max = _maxPendingCount.get();
+      }
+      return true;
+    } else {
+      _ticksConflated.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Discards the slot for a specification that is no longer subscribed to.
+   * <p>
+   * An update already pending for the specification is still returned by the next drain.
+   *
+   * @param specification the specification, not null
+   */
+  public void remove(final LiveDataSpecification specification) {
+    _slots.remove(specification);
+  }
+
+  /**
+   * Removes all pending updates.
+   *
+   * @return the conflated fields for each specification updated since the last drain, not null
+   */
+  public Map<LiveDataSpecification, FudgeMsg> drain() {
+    final Map<LiveDataSpecification, FudgeMsg> result = new HashMap<LiveDataSpecification, FudgeMsg>();
+    Slot slot = _pendingSlots.poll();
+    while (slot != null) {
+      _pendingCount.decrementAndGet();
+      final FudgeMsg fields = slot.take();
+      if (fields != null) {
+        result.put(slot._specification, fields);
+      }
+      slot = _pendingSlots.poll();
+    }
+    return result;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of updates received.
+   *
+   * @return the number of updates
+   */
+  public long getTicksIn() {
+    return _ticksIn.get();
+  }
+
+  /**
+   * Gets the number of updates that were merged into an already pending update rather than being passed on.
+   *
+   * @return the number of conflated updates
+   */
+  public long getTicksConflated() {
+    return _ticksConflated.get();
+  }
+
+  /**
+   * Gets the number of specifications with an update pending.
+   *
+   * @return the number of pending specifications
+   */
+  public int getPendingCount() {
+    return _pendingCount.get();
+  }
+
+  /**
+   * Gets the largest number of specifications that have had updates pending at once.
+   *
+   * @return the maximum number of pending specifications
+   */
+  public int getMaxPendingCount() {
+    return _maxPendingCount.get();
+  }
+
+}
@@ -6,6 +6,7 @@
 package com.opengamma.engine.marketdata.live;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -30,18 +31,29 @@ import com.opengamma.livedata.LiveDataClient;
 import com.opengamma.livedata.LiveDataListener;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdate;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.livedata.msg.LiveDataSubscriptionResponse;
 import com.opengamma.livedata.msg.LiveDataSubscriptionResult;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * A {@link MarketDataProvider} for live data.
+ * <p>
+ * Updates from the {@link LiveDataClient} are conflated rather than applied as they arrive. Listeners are told of the
+ * first update to each specification since the last snapshot, and the latest fields for every updated specification
+ * are applied together when the next snapshot is taken.
  */
 public class LiveMarketDataProvider extends AbstractMarketDataProvider implements LiveDataListener {
 
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(LiveMarketDataProvider.class);
+  /**
+   * The {@link LatencyTracer} stage reached when a sampled tick has been received by the provider. Sampled ticks are
+   * handed to the listeners with {@link LatencyTracer#setCurrentTrace}.
+   */
+  public static final String RECEIVED_STAGE = "engine.marketData.received";
 
   // Injected Inputs:
   private final LiveDataClient _liveDataClient;
@@ -54,6 +66,7 @@ public class LiveMarketDataProvider extends AbstractMarketDataProvider implement
   private final Map<LiveDataSpecification, Set<ValueRequirement>> _liveDataSpec2ValueRequirements =
       new ConcurrentHashMap<LiveDataSpecification, Set<ValueRequirement>>();
   private final Set<ValueRequirement> _failedRequirements = new CopyOnWriteArraySet<ValueRequirement>();
+  private final LiveDataUpdateConflator _conflator = new LiveDataUpdateConflator();
   private final UserPrincipal _marketDataUser;
 
   public LiveMarketDataProvider(LiveDataClient liveDataClient,
@@ -148,6 +161,65 @@ public class LiveMarketDataProvider extends AbstractMarketDataProvider implement
     return new LiveMarketDataSnapshot(_underlyingProvider.snapshot(marketDataSpec), this);
   }
 
+  /**
+   * Applies the conflated updates received since the last call to the underlying last known values. This is called
+   * before the underlying provider is snapshotted.
+   */
+  /* package */ void flushUpdates() {
+    final Map<LiveDataSpecification, FudgeMsg> updates = _conflator.drain();
+    if (updates.isEmpty()) {
+      return;
+    }
+    final Map<ValueRequirement, Object> values = new HashMap<ValueRequirement, Object>();
+    for (Map.Entry<LiveDataSpecification, FudgeMsg> update : updates.entrySet()) {
+      final Set<ValueRequirement> valueRequirements = _liveDataSpec2ValueRequirements.get(update.getKey());
+      if (valueRequirements == null) {
+        continue;
+      }
+      final FudgeMsg msg = update.getValue();
+      for (ValueRequirement valueRequirement : valueRequirements) {
+        // We assume all market data can be represented as a Double. The request for the field as a Double also ensures
+        // that we consistently provide a Double downstream, even if the value has been represented as a more efficient
+        // type in the message.
+        Double value = msg.getDouble(valueRequirement.getValueName());
+        if (value == null) {
+          continue;
+        }
+        values.put(valueRequirement, value);
+      }
+    }
+    s_logger.debug("Applying {} values from {} conflated updates", values.size(), updates.size());
+    _underlyingProvider.addValues(values);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of updates received from the live data client.
+   * 
+   * @return the number of updates
+   */
+  public long getTicksReceived() {
+    return _conflator.getTicksIn();
+  }
+
+  /**
+   * Gets the number of updates that were merged into an earlier update to the same specification before being applied.
+   * 
+   * @return the number of conflated updates
+   */
+  public long getTicksConflated() {
+    return _conflator.getTicksConflated();
+  }
+
+  /**
+   * Gets the largest number of specifications that have had updates waiting to be applied at once.
+   * 
+   * @return the maximum number of pending specifications
+   */
+  public int getMaxPendingUpdates() {
+    return _conflator.getMaxPendingCount();
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public void subscriptionResultReceived(LiveDataSubscriptionResponse subscriptionResult) {
@@ -187,6 +259,8 @@ public class LiveMarketDataProvider extends AbstractMarketDataProvider implement
       LiveDataSpecification fullyQualifiedSpecification) {
     // This shouldn't really happen because there's no removeSubscription() method on this class...
     s_logger.warn("Subscription stopped " + fullyQualifiedSpecification);
+    _liveDataSpec2ValueRequirements.remove(fullyQualifiedSpecification);
+    _conflator.remove(fullyQualifiedSpecification);
   }
 
   @Override
@@ -199,21 +273,18 @@ public class LiveMarketDataProvider extends AbstractMarketDataProvider implement
       return;
     }
 
-    s_logger.debug("Corresponding value requirements are {}", valueRequirements);
-    FudgeMsg msg = valueUpdate.getFields();
-
-    for (ValueRequirement valueRequirement : valueRequirements) {
-      // We assume all market data can be represented as a Double. The request for the field as a Double also ensures
-      // that we consistently provide a Double downstream, even if the value has been represented as a more efficient
-      // type in the message.
-      Double value = msg.getDouble(valueRequirement.getValueName());
-      if (value == null) {
-        continue;
+    final long traceTimestamp = (valueUpdate instanceof LiveDataValueUpdateBean) ? ((LiveDataValueUpdateBean) valueUpdate).getTraceTimestamp() : LatencyTracer.NOT_TRACED;
+    LatencyTracer.getInstance().record(RECEIVED_STAGE, traceTimestamp);
+    // Later updates before the next snapshot are merged into this one, and listeners have already been told. They're
+    // told again of a sampled update so that its trace reaches the next cycle.
+    if (_conflator.update(valueUpdate) || (traceTimestamp != LatencyTracer.NOT_TRACED)) {
+      final long previousTrace = LatencyTracer.setCurrentTrace(traceTimestamp);
+      try {
+        super.valuesChanged(valueRequirements);
+      } finally {
+        LatencyTracer.setCurrentTrace(previousTrace);
       }
-      _underlyingProvider.addValue(valueRequirement, value);
     }
-
-    super.valuesChanged(valueRequirements);
   }
 
 }
@@ -19,6 +19,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.opengamma.engine.marketdata.AbstractMarketDataSnapshot;
+import com.opengamma.engine.marketdata.ChangeTrackingMarketDataSnapshot;
 import com.opengamma.engine.marketdata.InMemoryLKVMarketDataSnapshot;
 import com.opengamma.engine.marketdata.MarketDataListener;
 import com.opengamma.engine.marketdata.MarketDataSnapshot;
@@ -28,7 +29,7 @@ import com.opengamma.id.UniqueId;
 /**
  * A {@link MarketDataSnapshot} for live data.
  */
-public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot {
+public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot implements ChangeTrackingMarketDataSnapshot {
   private static final Logger s_logger = LoggerFactory.getLogger(LiveMarketDataSnapshot.class);
 
   private final InMemoryLKVMarketDataSnapshot _underlyingSnapshot;
@@ -52,6 +53,7 @@ public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot {
 
   @Override
   public void init() {
+    _liveMarketDataProvider.flushUpdates();
     _underlyingSnapshot.init();
   }
 
@@ -86,6 +88,7 @@ public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot {
       };
       _liveMarketDataProvider.addListener(listener);
       try {
+        _liveMarketDataProvider.flushUpdates();
         _underlyingSnapshot.init(); // TODO We need something to query, but snapshotting twice is a bit overkill
         for (ValueRequirement requirement : valuesRequired) {
           if (_underlyingSnapshot.query(requirement) != null) {
@@ -110,6 +113,7 @@ public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot {
         _liveMarketDataProvider.removeListener(listener);
       }
     }
+    _liveMarketDataProvider.flushUpdates();
     _underlyingSnapshot.init(valuesRequired, timeout, unit);
   }
 
@@ -123,4 +127,13 @@ public class LiveMarketDataSnapshot extends AbstractMarketDataSnapshot {
     //TODO: return useful error message if failed
     return _underlyingSnapshot.query(requirement);
   }
+
+  @Override
+  public Set<ValueRequirement> getChangedSince(MarketDataSnapshot previous) {
+    if (!(previous instanceof LiveMarketDataSnapshot)) {
+      return null;
+    }
+    return _underlyingSnapshot.getChangedSince(((LiveMarketDataSnapshot) previous)._underlyingSnapshot);
+  }
+
 }
@@ -9,6 +9,7 @@ import java.util.Map;
 
 import com.opengamma.core.marketdatasnapshot.StructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
+import com.opengamma.core.marketdatasnapshot.impl.MarketDataSnapshotChain;
 import com.opengamma.engine.value.ValueRequirement;
 import com.opengamma.engine.view.calc.ViewCycle;
 import com.opengamma.engine.view.client.ViewClient;
@@ -28,6 +29,15 @@ public interface MarketDataSnapshotter {
    * @return A snapshot representing the data used in the given view cycle
    */
   StructuredMarketDataSnapshot createSnapshot(ViewClient client, ViewCycle cycle);
+
+  /**
+   * Produces a differential snapshot from a view cycle, holding only the values that differ from a parent snapshot.
+   * @param client The client to use
+   * @param cycle The cycle on which to base the snapshot
+   * @param parent The parent snapshot and the snapshots it is based on, the parent must have a unique identifier
+   * @return A snapshot which, resolved against the parent, represents the data used in the given view cycle
+   */
+  StructuredMarketDataSnapshot createSnapshot(ViewClient client, ViewCycle cycle, MarketDataSnapshotChain parent);
   
   /**
    * Provides the specifications for interesting values for yield curves included in the given cycle.
@@ -21,7 +21,6 @@ import com.opengamma.core.marketdatasnapshot.MarketDataValueSpecification;
 import com.opengamma.core.marketdatasnapshot.MarketDataValueType;
 import com.opengamma.core.marketdatasnapshot.SnapshotDataBundle;
 import com.opengamma.core.marketdatasnapshot.StructuredMarketDataKey;
-import com.opengamma.core.marketdatasnapshot.StructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.UnstructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.ValueSnapshot;
 import com.opengamma.core.marketdatasnapshot.VolatilityCubeData;
@@ -33,6 +32,7 @@ import com.opengamma.core.marketdatasnapshot.VolatilitySurfaceKey;
 import com.opengamma.core.marketdatasnapshot.VolatilitySurfaceSnapshot;
 import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
 import com.opengamma.core.marketdatasnapshot.YieldCurveSnapshot;
+import com.opengamma.core.marketdatasnapshot.impl.MarketDataSnapshotChain;
 import com.opengamma.core.value.MarketDataRequirementNames;
 import com.opengamma.engine.ComputationTargetType;
 import com.opengamma.engine.marketdata.AbstractMarketDataSnapshot;
@@ -51,6 +51,8 @@ import com.opengamma.util.tuple.Pair;
 // They are a perfect example of adding a custom market data source and should be moved elsewhere.
 /**
  * Represents a market data snapshot from a {@link MarketDataSnapshotSource}.
+ * <p>
+ * A differential snapshot is resolved against the snapshots it is based on through a {@link MarketDataSnapshotChain}.
  */
 public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
 
@@ -61,7 +63,7 @@ public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
 
   private final MarketDataSnapshotSource _snapshotSource;
   private final UniqueId _snapshotId;
-  private StructuredMarketDataSnapshot _snapshot;
+  private MarketDataSnapshotChain _snapshot;
 
   /**
    * Factory for {@link StructuredMarketDataKey} instances.
@@ -202,7 +204,7 @@ public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
   @Override
   public void init() {
     try {
-      _snapshot = getSnapshotSource().getSnapshot(getSnapshotId());
+      _snapshot = MarketDataSnapshotChain.load(getSnapshotSource(), getSnapshotId());
     } catch (DataNotFoundException ex) {
       _snapshot = null;
     }
@@ -217,12 +219,10 @@ public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
   public Instant getSnapshotTime() {
     // TODO [PLAT-1393] should explicitly store a snapshot time, which the user might choose to customise
     Instant latestTimestamp = null;
-    Map<YieldCurveKey, YieldCurveSnapshot> yieldCurves = getSnapshot().getYieldCurves();
-    if (yieldCurves != null) {
-      for (YieldCurveSnapshot yieldCurveSnapshot : yieldCurves.values()) {
-        if (latestTimestamp == null || latestTimestamp.isBefore(yieldCurveSnapshot.getValuationTime())) {
-          latestTimestamp = yieldCurveSnapshot.getValuationTime();
-        }
+    for (YieldCurveKey yieldCurveKey : getSnapshot().getYieldCurveKeys()) {
+      YieldCurveSnapshot yieldCurveSnapshot = getSnapshot().getYieldCurve(yieldCurveKey);
+      if (latestTimestamp == null || latestTimestamp.isBefore(yieldCurveSnapshot.getValuationTime())) {
+        latestTimestamp = yieldCurveSnapshot.getValuationTime();
       }
     }
     if (latestTimestamp == null) {
@@ -256,18 +256,9 @@ public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
   }
 
   private Object queryUnstructured(ValueRequirement requirement) {
-    UnstructuredMarketDataSnapshot globalValues = getSnapshot().getGlobalValues();
-    if (globalValues == null) {
-      return null;
-    }
     MarketDataValueSpecification marketDataValueSpecification = new MarketDataValueSpecification(
         getTargetType(requirement), requirement.getTargetSpecification().getUniqueId());
-
-    Map<String, ValueSnapshot> map = globalValues.getValues().get(marketDataValueSpecification);
-    if (map == null) {
-      return null;
-    }
-    ValueSnapshot valueSnapshot = map.get(requirement.getValueName());
+    ValueSnapshot valueSnapshot = getSnapshot().getGlobalValue(marketDataValueSpecification, requirement.getValueName());
     return query(valueSnapshot);
   }
 
@@ -294,69 +285,59 @@ public class UserMarketDataSnapshot extends AbstractMarketDataSnapshot {
   }
 
   private YieldCurveSnapshot getYieldCurveSnapshot(YieldCurveKey yieldcurveKey) {
-    if (getSnapshot().getYieldCurves() == null) {
-      return null;
-    }
     if (yieldcurveKey.getName() == null) {
       //Any curve will do
-      for (Entry<YieldCurveKey, YieldCurveSnapshot> entry : getSnapshot().getYieldCurves().entrySet()) {
+      for (YieldCurveKey key : getSnapshot().getYieldCurveKeys()) {
         //This could return any old value, but hey, that's what they asked for right?
-        if (entry.getKey().getCurrency().equals(yieldcurveKey.getCurrency())) {
-          return entry.getValue();
+        if (key.getCurrency().equals(yieldcurveKey.getCurrency())) {
+          return getSnapshot().getYieldCurve(key);
         }
       }
       return null;
     } else {
-      YieldCurveSnapshot yieldCurveSnapshot = getSnapshot().getYieldCurves().get(yieldcurveKey);
+      YieldCurveSnapshot yieldCurveSnapshot = getSnapshot().getYieldCurve(yieldcurveKey);
       return yieldCurveSnapshot;
     }
   }
 
   private VolatilityCubeSnapshot getVolCubeSnapshot(VolatilityCubeKey volCubeKey) {
-    if (getSnapshot().getVolatilityCubes() == null) {
-      return null;
-    }
     if (volCubeKey.getName() == null) {
       //Any cube will do
-      for (Entry<VolatilityCubeKey, VolatilityCubeSnapshot> entry : getSnapshot().getVolatilityCubes().entrySet()) {
+      for (VolatilityCubeKey key : getSnapshot().getVolatilityCubeKeys()) {
         //This could return any old cube, but hey, that's what they asked for right?
-        if (entry.getKey().getCurrency().equals(volCubeKey.getCurrency())) {
-          return entry.getValue();
+        if (key.getCurrency().equals(volCubeKey.getCurrency())) {
+          return getSnapshot().getVolatilityCube(key);
         }
       }
       return null;
     } else {
-      VolatilityCubeSnapshot volCubeSnapshot = getSnapshot().getVolatilityCubes().get(volCubeKey);
+      VolatilityCubeSnapshot volCubeSnapshot = getSnapshot().getVolatilityCube(volCubeKey);
       return volCubeSnapshot;
     }
   }
 
   private VolatilitySurfaceData<Object, Object> getVolSurfaceSnapshot(VolatilitySurfaceKey volSurfaceKey) {
-    if (getSnapshot().getVolatilitySurfaces() == null) {
-      return null;
-    }
     if (volSurfaceKey.getName() != null && volSurfaceKey.getInstrumentType() != null) {
-      VolatilitySurfaceSnapshot volatilitySurfaceSnapshot = getSnapshot().getVolatilitySurfaces().get(volSurfaceKey);
+      VolatilitySurfaceSnapshot volatilitySurfaceSnapshot = getSnapshot().getVolatilitySurface(volSurfaceKey);
       if (volatilitySurfaceSnapshot == null) {
         return null;
       }
       return buildVolatilitySurfaceData(volatilitySurfaceSnapshot, (VolatilitySurfaceKey) volSurfaceKey);
     }
     //Match with wildcards
-    for (Entry<VolatilitySurfaceKey, VolatilitySurfaceSnapshot> entry : getSnapshot().getVolatilitySurfaces().entrySet()) {
+    for (VolatilitySurfaceKey key : getSnapshot().getVolatilitySurfaceKeys()) {
       //This could return any old surface, but hey, that's what they asked for right?
-      VolatilitySurfaceKey key = entry.getKey();
       if (key.getTarget().equals(volSurfaceKey.getTarget())
           && (volSurfaceKey.getInstrumentType() == null || key.getInstrumentType() == volSurfaceKey.getInstrumentType())
           && (volSurfaceKey.getName() == null || key.getName() == volSurfaceKey.getName())) {
-        return buildVolatilitySurfaceData(entry.getValue(), entry.getKey());
+        return buildVolatilitySurfaceData(getSnapshot().getVolatilitySurface(key), key);
       }
     }
     return null;
 
   }
 
-  private StructuredMarketDataSnapshot getSnapshot() {
+  private MarketDataSnapshotChain getSnapshot() {
     if (_snapshot == null) {
       throw new IllegalStateException("Snapshot has not been initialised");
     }
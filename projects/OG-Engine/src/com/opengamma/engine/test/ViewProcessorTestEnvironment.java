@@ -30,6 +30,7 @@ import com.opengamma.engine.function.resolver.FunctionResolver;
 import com.opengamma.engine.marketdata.InMemoryLKVMarketDataProvider;
 import com.opengamma.engine.marketdata.InMemoryNamedMarketDataSpecificationRepository;
 import com.opengamma.engine.marketdata.MarketDataProvider;
+import com.opengamma.engine.marketdata.OverrideOperationCompiler;
 import com.opengamma.engine.marketdata.resolver.MarketDataProviderResolver;
 import com.opengamma.engine.marketdata.resolver.SingleMarketDataProviderResolver;
 import com.opengamma.engine.value.ValueRequirement;
@@ -98,6 +99,7 @@ public class ViewProcessorTestEnvironment {
   private CachingComputationTargetResolver _cachingComputationTargetResolver;
   private ViewDefinitionRepository _viewDefinitionRepository;
   private ViewResultListenerFactory _viewResultListenerFactory;
+  private OverrideOperationCompiler _overrideOperationCompiler;
 
   public void init() {
     ViewProcessorFactoryBean vpFactBean = new ViewProcessorFactoryBean();
@@ -147,6 +149,9 @@ public class ViewProcessorTestEnvironment {
     vpFactBean.setComputationJobDispatcher(new JobDispatcher(jobInvoker));
     vpFactBean.setFunctionResolver(generateFunctionResolver(compiledFunctions));
     vpFactBean.setViewResultListenerFactory(_viewResultListenerFactory);
+    if (getOverrideOperationCompiler() != null) {
+      vpFactBean.setOverrideOperationCompiler(getOverrideOperationCompiler());
+    }
     _viewProcessor = (ViewProcessorImpl) vpFactBean.createObject();
   }
   
@@ -209,6 +214,14 @@ public class ViewProcessorTestEnvironment {
     return repository;
   }
   
+  public OverrideOperationCompiler getOverrideOperationCompiler() {
+    return _overrideOperationCompiler;
+  }
+
+  public void setOverrideOperationCompiler(OverrideOperationCompiler overrideOperationCompiler) {
+    _overrideOperationCompiler = overrideOperationCompiler;
+  }
+
   public MarketDataProvider getMarketDataProvider() {
     return _marketDataProvider;
   }
@@ -0,0 +1,576 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.time.Duration;
+import javax.time.Instant;
+
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueProperties;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.id.UniqueId;
+import com.opengamma.id.VersionCorrection;
+import com.opengamma.util.tuple.Pair;
+import com.opengamma.util.tuple.Triple;
+
+/**
+ * A column-oriented implementation of {@link ViewComputationResultModel} for large result sets.
+ * <p>
+ * Targets are held once in a dictionary and referred to by an integer identifier. Each combination of calculation
+ * configuration, value name and value properties is a column holding a value for each target identifier. Plain double
+ * values are held in a primitive array; anything else, including a double that carries invocation details, is held as
+ * the original {@link ComputedValue} in a side array. The {@link ComputedValue} and {@link ValueSpecification} objects
+ * seen through the {@link ViewResultModel} methods are created on demand.
+ * <p>
+ * Code that needs to walk a whole result, for example to compute a delta or merge results, can use {@link #getColumnCount},
+ * {@link #getColumn} and {@link #getTarget} to work on the columns directly.
+ * <p>
+ * This class is not thread-safe for modification.
+ */
+public class ColumnarViewComputationResultModel implements ViewComputationResultModel, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final double[] EMPTY_DOUBLES = new double[0];
+
+  /**
+   * A column of values for one calculation configuration, value name and set of value properties, indexed by target identifier.
+   */
+  public static final class Column implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String _calcConfigurationName;
+    private final String _valueName;
+    private final ValueProperties _properties;
+    private final BitSet _present = new BitSet();
+    private final BitSet _objects = new BitSet();
+    private double[] _doubles = EMPTY_DOUBLES;
+    private ComputedValue[] _values;
+
+    private Column(final String calcConfigurationName, final String valueName, final ValueProperties properties) {
+      _calcConfigurationName = calcConfigurationName;
+      _valueName = valueName;
+      _properties = properties;
+    }
+
+    public String getCalculationConfigurationName() {
+      return _calcConfigurationName;
+    }
+
+    public String getValueName() {
+      return _valueName;
+    }
+
+    public ValueProperties getProperties() {
+      return _properties;
+    }
+
+    /**
+     * Returns the next target identifier, at or after the one given, that has a value in this column.
+     *
+     * @param targetId the target identifier to start from
+     * @return the target identifier, or -1 if there are no more
+     */
+    public int nextTarget(final int targetId) {
+      return _present.nextSetBit(targetId);
+    }
+
+    public boolean isPresent(final int targetId) {
+      return _present.get(targetId);
+    }
+
+    /**
+     * Tests whether the value for a target is held as a primitive double.
+     *
+     * @param targetId the target identifier
+     * @return true if the value is present and available from {@link #getDouble}
+     */
+    public boolean isDouble(final int targetId) {
+      return _present.get(targetId) && !_objects.get(targetId);
+    }
+
+    public double getDouble(final int targetId) {
+      return _doubles[targetId];
+    }
+
+    /**
+     * Returns the number of targets with a value in this column.
+     *
+     * @return the number of values
+     */
+    public int size() {
+      return _present.cardinality();
+    }
+
+    private void ensureCapacity(final int targetId) {
+      if (targetId >= _doubles.length) {
+        _doubles = Arrays.copyOf(_doubles, Math.max(targetId + 1, _doubles.length * 2));
+      }
+    }
+
+    private void setDouble(final int targetId, final double value) {
+      ensureCapacity(targetId);
+      _doubles[targetId] = value;
+      _present.set(targetId);
+      if (_objects.get(targetId)) {
+        _objects.clear(targetId);
+        _values[targetId] = null;
+      }
+    }
+
+    private void setObject(final int targetId, final ComputedValue value) {
+      ensureCapacity(targetId);
+      if (_values == null) {
+        _values = new ComputedValue[_doubles.length];
+      } else if (_values.length < _doubles.length) {
+        _values = Arrays.copyOf(_values, _doubles.length);
+      }
+      _values[targetId] = value;
+      _present.set(targetId);
+      _objects.set(targetId);
+    }
+
+    private void set(final int targetId, final ComputedValue value) {
+      if (isPlainDouble(value)) {
+        setDouble(targetId, (Double) value.getValue());
+      } else {
+        setObject(targetId, value);
+      }
+    }
+
+  }
+
+  private UniqueId _viewProcessId;
+  private UniqueId _viewCycleId;
+  private Instant _valuationTime;
+  private Instant _calculationTime;
+  private Duration _calculationDuration;
+  private VersionCorrection _versionCorrection;
+  private final List<ComputationTargetSpecification> _targets = new ArrayList<ComputationTargetSpecification>();
+  private final Map<ComputationTargetSpecification, Integer> _targetIds = new HashMap<ComputationTargetSpecification, Integer>();
+  private final List<Column> _columns = new ArrayList<Column>();
+  private final Map<Triple<String, String, ValueProperties>, Integer> _columnIds = new HashMap<Triple<String, String, ValueProperties>, Integer>();
+  private final Map<String, List<Column>> _columnsByConfiguration = new LinkedHashMap<String, List<Column>>();
+  private final Map<ValueSpecification, ComputedValue> _allMarketData = new HashMap<ValueSpecification, ComputedValue>();
+  private final Map<ValueSpecification, Set<ValueRequirement>> _specToRequirementsMap = new HashMap<ValueSpecification, Set<ValueRequirement>>();
+  /**
+   * The targets with a value in each calculation configuration, built when first asked for and discarded when values
+   * are added to the configuration. A completed result is read by many clients at once, so this must be concurrent.
+   */
+  private transient volatile ConcurrentMap<String, Set<ComputationTargetSpecification>> _targetsByConfiguration;
+  /**
+   * A read-only view of all targets, which follows targets being added.
+   */
+  private transient volatile Set<ComputationTargetSpecification> _allTargets;
+
+  private static boolean isPlainDouble(final ComputedValue value) {
+    return (value.getValue() instanceof Double) && (value.getInvocationResult() == null) && (value.getExceptionClass() == null) && (value.getExceptionMsg() == null)
+        && (value.getStackTrace() == null) && (value.getMissingInputs() == null) && (value.getRequirements() == null) && (value.getComputeNodeId() == null);
+  }
+
+  @Override
+  public UniqueId getViewProcessId() {
+    return _viewProcessId;
+  }
+
+  public void setViewProcessId(UniqueId viewProcessId) {
+    _viewProcessId = viewProcessId;
+  }
+
+  @Override
+  public UniqueId getViewCycleId() {
+    return _viewCycleId;
+  }
+
+  public void setViewCycleId(UniqueId viewCycleId) {
+    _viewCycleId = viewCycleId;
+  }
+
+  @Override
+  public Instant getValuationTime() {
+    return _valuationTime;
+  }
+
+  public void setValuationTime(Instant valuationTime) {
+    _valuationTime = valuationTime;
+  }
+
+  @Override
+  public Instant getCalculationTime() {
+    return _calculationTime;
+  }
+
+  public void setCalculationTime(Instant calculationTime) {
+    _calculationTime = calculationTime;
+  }
+
+  @Override
+  public Duration getCalculationDuration() {
+    return _calculationDuration;
+  }
+
+  public void setCalculationDuration(Duration calculationDuration) {
+    _calculationDuration = calculationDuration;
+  }
+
+  @Override
+  public VersionCorrection getVersionCorrection() {
+    return _versionCorrection;
+  }
+
+  public void setVersionCorrection(VersionCorrection versionCorrection) {
+    _versionCorrection = versionCorrection;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Returns the number of targets in the target dictionary.
+   *
+   * @return the number of targets
+   */
+  public int getTargetCount() {
+    return _targets.size();
+  }
+
+  /**
+   * Returns a target from the dictionary.
+   *
+   * @param targetId the target identifier, at least zero and less than {@link #getTargetCount}
+   * @return the target specification, not null
+   */
+  public ComputationTargetSpecification getTarget(final int targetId) {
+    return _targets.get(targetId);
+  }
+
+  /**
+   * Returns the identifier of a target in the dictionary.
+   *
+   * @param target the target specification, not null
+   * @return the target identifier, or -1 if the target is not in this result
+   */
+  public int getTargetId(final ComputationTargetSpecification target) {
+    final Integer targetId = _targetIds.get(target);
+    return (targetId != null) ? targetId : -1;
+  }
+
+  private int getOrCreateTargetId(final ComputationTargetSpecification target) {
+    Integer targetId = _targetIds.get(target);
+    if (targetId == null) {
+      targetId = _targets.size();
+      _targets.add(target);
+      _targetIds.put(target, targetId);
+    }
+    return targetId;
+  }
+
+  public int getColumnCount() {
+    return _columns.size();
+  }
+
+  public Column getColumn(final int columnId) {
+    return _columns.get(columnId);
+  }
+
+  /**
+   * Returns a column by its key.
+   *
+   * @param calcConfigurationName the calculation configuration name, not null
+   * @param valueName the value name, not null
+   * @param properties the value properties, not null
+   * @return the column, or null if there is none
+   */
+  public Column getColumn(final String calcConfigurationName, final String valueName, final ValueProperties properties) {
+    final Integer columnId = _columnIds.get(Triple.of(calcConfigurationName, valueName, properties));
+    return (columnId != null) ? _columns.get(columnId) : null;
+  }
+
+  private Column getOrCreateColumn(final String calcConfigurationName, final String valueName, final ValueProperties properties) {
+    final Triple<String, String, ValueProperties> key = Triple.of(calcConfigurationName, valueName, properties);
+    final Integer columnId = _columnIds.get(key);
+    if (columnId != null) {
+      return _columns.get(columnId);
+    }
+    final Column column = new Column(calcConfigurationName, valueName, properties);
+    _columnIds.put(key, _columns.size());
+    _columns.add(column);
+    List<Column> columns = _columnsByConfiguration.get(calcConfigurationName);
+    if (columns == null) {
+      columns = new ArrayList<Column>();
+      _columnsByConfiguration.put(calcConfigurationName, columns);
+    }
+    columns.add(column);
+    return column;
+  }
+
+  /**
+   * Returns the value held in a column for a target as a {@link ComputedValue}.
+   *
+   * @param column the column, not null
+   * @param targetId the target identifier
+   * @return the value, or null if the column has no value for the target
+   */
+  public ComputedValue getComputedValue(final Column column, final int targetId) {
+    if (!column.isPresent(targetId)) {
+      return null;
+    }
+    if (column._objects.get(targetId)) {
+      return column._values[targetId];
+    }
+    return new ComputedValue(new ValueSpecification(column.getValueName(), getTarget(targetId), column.getProperties()), column.getDouble(targetId));
+  }
+
+  //-------------------------------------------------------------------------
+  public void addValue(final String calcConfigurationName, final ComputedValue value) {
+    final ValueSpecification specification = value.getSpecification();
+    final int targetId = getOrCreateTargetId(specification.getTargetSpecification());
+    getOrCreateColumn(calcConfigurationName, specification.getValueName(), specification.getProperties()).set(targetId, value);
+    invalidateTargets(calcConfigurationName);
+  }
+
+  /**
+   * Adds a plain double value without creating a {@link ComputedValue}.
+   *
+   * @param calcConfigurationName the calculation configuration name, not null
+   * @param specification the value specification, not null
+   * @param value the value
+   */
+  public void addValue(final String calcConfigurationName, final ValueSpecification specification, final double value) {
+    final int targetId = getOrCreateTargetId(specification.getTargetSpecification());
+    getOrCreateColumn(calcConfigurationName, specification.getValueName(), specification.getProperties()).setDouble(targetId, value);
+    invalidateTargets(calcConfigurationName);
+  }
+
+  /**
+   * Adds, or replaces, all of the values from another result. Values are copied column to column without creating any
+   * intermediate objects.
+   *
+   * @param source the result to copy values from, not null
+   */
+  public void putAll(final ColumnarViewComputationResultModel source) {
+    final int[] targetIds = new int[source.getTargetCount()];
+    Arrays.fill(targetIds, -1);
+    for (Column sourceColumn : source._columns) {
+      final Column column = getOrCreateColumn(sourceColumn.getCalculationConfigurationName(), sourceColumn.getValueName(), sourceColumn.getProperties());
+      for (int sourceTargetId = sourceColumn.nextTarget(0); sourceTargetId >= 0; sourceTargetId = sourceColumn.nextTarget(sourceTargetId + 1)) {
+        int targetId = targetIds[sourceTargetId];
+        if (targetId < 0) {
+          targetId = getOrCreateTargetId(source.getTarget(sourceTargetId));
+          targetIds[sourceTargetId] = targetId;
+        }
+        if (sourceColumn._objects.get(sourceTargetId)) {
+          column.setObject(targetId, sourceColumn._values[sourceTargetId]);
+        } else {
+          column.setDouble(targetId, sourceColumn._doubles[sourceTargetId]);
+        }
+      }
+      invalidateTargets(sourceColumn.getCalculationConfigurationName());
+    }
+  }
+
+  private void invalidateTargets(final String calcConfigurationName) {
+    final Map<String, Set<ComputationTargetSpecification>> targetsByConfiguration = _targetsByConfiguration;
+    if (targetsByConfiguration != null) {
+      targetsByConfiguration.remove(calcConfigurationName);
+    }
+  }
+
+  private Set<ComputationTargetSpecification> getTargets(final String calcConfigurationName, final List<Column> columns) {
+    ConcurrentMap<String, Set<ComputationTargetSpecification>> targetsByConfiguration = _targetsByConfiguration;
+    if (targetsByConfiguration == null) {
+      targetsByConfiguration = new ConcurrentHashMap<String, Set<ComputationTargetSpecification>>();
+      _targetsByConfiguration = targetsByConfiguration;
+    }
+    Set<ComputationTargetSpecification> targets = targetsByConfiguration.get(calcConfigurationName);
+    if (targets == null) {
+      final BitSet present = new BitSet();
+      for (Column column : columns) {
+        present.or(column._present);
+      }
+      final Set<ComputationTargetSpecification> newTargets = new LinkedHashSet<ComputationTargetSpecification>();
+      for (int targetId = present.nextSetBit(0); targetId >= 0; targetId = present.nextSetBit(targetId + 1)) {
+        newTargets.add(getTarget(targetId));
+      }
+      targets = Collections.unmodifiableSet(newTargets);
+      targetsByConfiguration.put(calcConfigurationName, targets);
+    }
+    return targets;
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public Set<ComputationTargetSpecification> getAllTargets() {
+    Set<ComputationTargetSpecification> allTargets = _allTargets;
+    if (allTargets == null) {
+      allTargets = Collections.unmodifiableSet(_targetIds.keySet());
+      _allTargets = allTargets;
+    }
+    return allTargets;
+  }
+
+  @Override
+  public Collection<String> getCalculationConfigurationNames() {
+    return Collections.unmodifiableSet(_columnsByConfiguration.keySet());
+  }
+
+  @Override
+  public ViewCalculationResultModel getCalculationResult(final String calcConfigurationName) {
+    final List<Column> columns = _columnsByConfiguration.get(calcConfigurationName);
+    if (columns == null) {
+      return null;
+    }
+    return new ViewCalculationResultModel() {
+
+      @Override
+      public Collection<ComputationTargetSpecification> getAllTargets() {
+        return getTargets(calcConfigurationName, columns);
+      }
+
+      @Override
+      public Map<Pair<String, ValueProperties>, ComputedValue> getValues(final ComputationTargetSpecification target) {
+        final int targetId = getTargetId(target);
+        if (targetId < 0) {
+          return null;
+        }
+        Map<Pair<String, ValueProperties>, ComputedValue> values = null;
+        for (Column column : columns) {
+          if (column.isPresent(targetId)) {
+            if (values == null) {
+              values = new HashMap<Pair<String, ValueProperties>, ComputedValue>();
+            }
+            values.put(Pair.of(column.getValueName(), column.getProperties()), getComputedValue(column, targetId));
+          }
+        }
+        return (values != null) ? Collections.unmodifiableMap(values) : null;
+      }
+
+      @Override
+      public Collection<ComputedValue> getAllValues(final ComputationTargetSpecification target) {
+        final Map<Pair<String, ValueProperties>, ComputedValue> values = getValues(target);
+        return (values != null) ? values.values() : null;
+      }
+
+    };
+  }
+
+  @Override
+  public ViewTargetResultModel getTargetResult(final ComputationTargetSpecification targetSpecification) {
+    final int targetId = getTargetId(targetSpecification);
+    if (targetId < 0) {
+      return null;
+    }
+    return new ViewTargetResultModel() {
+
+      @Override
+      public Collection<String> getCalculationConfigurationNames() {
+        final Set<String> names = new HashSet<String>();
+        for (Map.Entry<String, List<Column>> configuration : _columnsByConfiguration.entrySet()) {
+          for (Column column : configuration.getValue()) {
+            if (column.isPresent(targetId)) {
+              names.add(configuration.getKey());
+              break;
+            }
+          }
+        }
+        return Collections.unmodifiableSet(names);
+      }
+
+      @Override
+      public Collection<ComputedValue> getAllValues(final String calcConfigurationName) {
+        final List<Column> columns = _columnsByConfiguration.get(calcConfigurationName);
+        if (columns == null) {
+          return null;
+        }
+        List<ComputedValue> values = null;
+        for (Column column : columns) {
+          if (column.isPresent(targetId)) {
+            if (values == null) {
+              values = new ArrayList<ComputedValue>();
+            }
+            values.add(getComputedValue(column, targetId));
+          }
+        }
+        return (values != null) ? Collections.unmodifiableList(values) : null;
+      }
+
+    };
+  }
+
+  @Override
+  public List<ViewResultEntry> getAllResults() {
+    int size = 0;
+    for (Column column : _columns) {
+      size += column.size();
+    }
+    final List<ViewResultEntry> results = new ArrayList<ViewResultEntry>(size);
+    for (Column column : _columns) {
+      for (int targetId = column.nextTarget(0); targetId >= 0; targetId = column.nextTarget(targetId + 1)) {
+        results.add(new ViewResultEntry(column.getCalculationConfigurationName(), getComputedValue(column, targetId)));
+      }
+    }
+    return Collections.unmodifiableList(results);
+  }
+
+  @Override
+  public Set<String> getAllOutputValueNames() {
+    final Set<String> outputValueNames = new HashSet<String>();
+    for (Column column : _columns) {
+      outputValueNames.add(column.getValueName());
+    }
+    return outputValueNames;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Adds a market data value, replacing any previous item with the same value specification.
+   *
+   * @param marketData  the market data value, not null
+   */
+  public void addMarketData(ComputedValue marketData) {
+    _allMarketData.put(marketData.getSpecification(), marketData);
+  }
+
+  @Override
+  public Set<ComputedValue> getAllMarketData() {
+    return new HashSet<ComputedValue>(_allMarketData.values());
+  }
+
+  public ColumnarViewComputationResultModel addRequirements(Set<ValueRequirement> newRequirements, ValueSpecification specification) {
+    synchronized (_specToRequirementsMap) {
+      Set<ValueRequirement> requirements = _specToRequirementsMap.get(specification);
+      if (requirements == null) {
+        requirements = new HashSet<ValueRequirement>();
+        _specToRequirementsMap.put(specification, requirements);
+      }
+      requirements.addAll(newRequirements);
+    }
+    return this;
+  }
+
+  @Override
+  public Map<ValueSpecification, Set<ValueRequirement>> getRequirementToSpecificationMapping() {
+    return Collections.unmodifiableMap(_specToRequirementsMap);
+  }
+
+}
@@ -60,6 +60,25 @@ public class DeltaDefinition {
     return !ObjectUtils.equals(previousValue, newValue);
   }
   
+  /**
+   * Tests whether two plain double values, for the same value specification, constitute a delta. This gives the same
+   * answer as {@link #isDelta(ComputedValue, ComputedValue)} would for the equivalent computed values.
+   * 
+   * @param previousValue the previous value
+   * @param newValue the new value
+   * @return true if the change is a delta
+   */
+  public boolean isDelta(double previousValue, double newValue) {
+    final DeltaComparer<Number> numberComparer = getNumberComparer();
+    if (numberComparer instanceof NumberDeltaComparer) {
+      return ((NumberDeltaComparer) numberComparer).isDelta(previousValue, newValue);
+    }
+    if (numberComparer != null) {
+      return numberComparer.isDelta(previousValue, newValue);
+    }
+    return Double.doubleToLongBits(previousValue) != Double.doubleToLongBits(newValue);
+  }
+
   @Override
   public int hashCode() {
     return ObjectUtils.hashCode(_numberComparer);
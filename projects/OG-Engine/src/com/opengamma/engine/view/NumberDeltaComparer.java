@@ -44,8 +44,19 @@ public class NumberDeltaComparer implements DeltaComparer<Number> {
       return true;
     }
     
-    long previousCompare = (long) (previousValue.doubleValue() * _multiplier);
-    long newCompare = (long) (newValue.doubleValue() * _multiplier);
+    return isDelta(previousValue.doubleValue(), newValue.doubleValue());
+  }
+
+  /**
+   * Primitive form of {@link #isDelta(Number, Number)}.
+   * 
+   * @param previousValue the previous value
+   * @param newValue the new value
+   * @return true if the values differ within the number of decimal places
+   */
+  public boolean isDelta(double previousValue, double newValue) {
+    long previousCompare = (long) (previousValue * _multiplier);
+    long newCompare = (long) (newValue * _multiplier);
     return previousCompare != newCompare;
   }
   
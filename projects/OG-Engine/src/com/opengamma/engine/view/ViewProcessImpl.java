@@ -29,6 +29,7 @@ import com.opengamma.engine.view.calc.SingleComputationCycle;
 import com.opengamma.engine.view.calc.ViewComputationJob;
 import com.opengamma.engine.view.calc.ViewCycle;
 import com.opengamma.engine.view.calc.ViewCycleMetadata;
+import com.opengamma.engine.view.client.DeltaCalculationStatistics;
 import com.opengamma.engine.view.client.ViewDeltaResultCalculator;
 import com.opengamma.engine.view.compilation.CompiledViewDefinitionWithGraphsImpl;
 import com.opengamma.engine.view.execution.ViewCycleExecutionOptions;
@@ -75,6 +76,8 @@ public class ViewProcessImpl implements ViewProcessInternal, Lifecycle {
   private final AtomicReference<Pair<CompiledViewDefinitionWithGraphsImpl, MarketDataPermissionProvider>> _latestCompiledViewDefinition =
       new AtomicReference<Pair<CompiledViewDefinitionWithGraphsImpl, MarketDataPermissionProvider>>();
   private final AtomicReference<ViewComputationResultModel> _latestResult = new AtomicReference<ViewComputationResultModel>();
+  private volatile DeltaCalculationStatistics _latestDeltaStatistics;
+  private volatile ExecutorService _deltaExecutorService;
 
   private ExecutorService _calcJobResultExecutorService = Executors.newSingleThreadExecutor();
 
@@ -292,7 +295,11 @@ public class ViewProcessImpl implements ViewProcessInternal, Lifecycle {
     // We swap these first so that in the callback the process is consistent.
     ViewComputationResultModel previousResult = _latestResult.get();
 
-    ViewDeltaResultModel deltaFragment = ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousResult, fullFragment);
+    final DeltaCalculationStatistics deltaStatistics = new DeltaCalculationStatistics();
+    ViewDeltaResultModel deltaFragment = ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousResult, fullFragment, getDeltaExecutorService(),
+        deltaStatistics);
+    s_logger.debug("Delta for fragment of cycle {} - {}", fullFragment.getViewCycleId(), deltaStatistics);
+    _latestDeltaStatistics = deltaStatistics;
     for (ViewResultListener listener : _listeners) {
       try {
         listener.cycleFragmentCompleted(fullFragment, deltaFragment);
@@ -317,7 +324,12 @@ public class ViewProcessImpl implements ViewProcessInternal, Lifecycle {
     ViewComputationResultModel previousResult = _latestResult.get();
     _latestResult.set(result);
 
-    ViewDeltaResultModel deltaResult = ViewDeltaResultCalculator.computeDeltaModel(cycle.getCompiledViewDefinition().getViewDefinition(), previousResult, result);
+    // The delta is computed once here and shared by all of the clients that want it
+    final DeltaCalculationStatistics deltaStatistics = new DeltaCalculationStatistics();
+    ViewDeltaResultModel deltaResult = ViewDeltaResultCalculator.computeDeltaModel(cycle.getCompiledViewDefinition().getViewDefinition(), previousResult, result,
+        getDeltaExecutorService(), deltaStatistics);
+    s_logger.debug("Delta for cycle {} - {}", result.getViewCycleId(), deltaStatistics);
+    _latestDeltaStatistics = deltaStatistics;
     for (ViewResultListener listener : _listeners) {
       try {
         listener.cycleCompleted(result, deltaResult);
@@ -441,6 +453,30 @@ public class ViewProcessImpl implements ViewProcessInternal, Lifecycle {
     _computationThread = computationJobThread;
   }
 
+  /**
+   * Gets the executor used to compute delta results in parallel.
+   * 
+   * @return the executor, null if deltas are computed on the thread delivering results
+   */
+  public ExecutorService getDeltaExecutorService() {
+    return _deltaExecutorService;
+  }
+
+  /**
+   * Sets the executor used to compute delta results in parallel. This is typically shared with other view processes
+   * but kept apart from compilation and calculation work, so that neither can hold up the other.
+   * 
+   * @param deltaExecutorService  the executor, null to compute deltas on the thread delivering results
+   */
+  public void setDeltaExecutorService(ExecutorService deltaExecutorService) {
+    _deltaExecutorService = deltaExecutorService;
+  }
+
+  @Override
+  public DeltaCalculationStatistics getLatestDeltaStatistics() {
+    return _latestDeltaStatistics;
+  }
+
   private ViewProcessContext getProcessContext() {
     return _viewProcessContext;
   }
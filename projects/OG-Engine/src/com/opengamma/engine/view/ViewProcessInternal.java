@@ -5,6 +5,8 @@
  */
 package com.opengamma.engine.view;
 
+import com.opengamma.engine.view.client.DeltaCalculationStatistics;
+
 /**
  * Exposes engine-level access to a view process.
  */
@@ -20,5 +22,12 @@ public interface ViewProcessInternal extends ViewProcess {
    * Resumes operations on the view process, following a call to {@link #suspend}.
    */
   void resume();
+
+  /**
+   * Returns the statistics from the most recent delta calculation, for either a completed cycle or a cycle fragment.
+   * 
+   * @return the statistics, null if no delta has been calculated
+   */
+  DeltaCalculationStatistics getLatestDeltaStatistics();
   
 }
@@ -11,11 +11,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -55,6 +56,7 @@ import com.opengamma.id.UniqueId;
 import com.opengamma.id.VersionCorrection;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.NamedThreadPoolFactory;
 import com.opengamma.util.monitor.OperationTimer;
 import com.opengamma.util.tuple.Pair;
 
@@ -72,7 +74,8 @@ public class ViewProcessorImpl implements ViewProcessorInternal {
   private final AtomicLong _processIdSource = new AtomicLong();
   private final AtomicLong _clientIdSource = new AtomicLong();
   private final ReentrantLock _lifecycleLock = new ReentrantLock();
-  private final Timer _clientResultTimer = new Timer("Shared ViewClient result timer");
+  private ScheduledExecutorService _clientResultScheduler;
+  private ExecutorService _deltaExecutorService;
 
   private final EngineResourceManagerInternal<SingleComputationCycle> _cycleManager = new EngineResourceManagerImpl<SingleComputationCycle>();
 
@@ -341,6 +344,7 @@ public class ViewProcessorImpl implements ViewProcessorInternal {
       ObjectId cycleObjectId = ObjectId.of(CYCLE_SCHEME, idValue);
       ViewProcessContext viewProcessContext = createViewProcessContext();
       ViewProcessImpl viewProcess = new ViewProcessImpl(viewProcessId, definitionId, executionOptions, viewProcessContext, getViewCycleManager(), cycleObjectId);
+      viewProcess.setDeltaExecutorService(getDeltaExecutorService());
 
       // If executing in batch mode then attach a special listener to write incoming results into the batch db
       if (executionOptions.getFlags().contains(ViewExecutionFlags.BATCH)) {
@@ -463,7 +467,7 @@ public class ViewProcessorImpl implements ViewProcessorInternal {
     ArgumentChecker.notNull(clientUser, "clientUser");
     String idValue = generateIdValue(_clientIdSource);
     UniqueId clientId = UniqueId.of(CLIENT_SCHEME, idValue);
-    ViewClientImpl client = new ViewClientImpl(clientId, this, clientUser, _clientResultTimer);
+    ViewClientImpl client = new ViewClientImpl(clientId, this, clientUser, getClientResultScheduler());
     _allClientsById.put(clientId, client);
     _viewProcessorEventListenerRegistry.notifyViewClientAdded(clientId);
     return client;
@@ -565,6 +569,44 @@ public class ViewProcessorImpl implements ViewProcessorInternal {
   // Lifecycle
   //-------------------------------------------------------------------------
   
+  /**
+   * Gets the scheduler shared by all clients for releasing rate-limited results, creating it if necessary. It is shut
+   * down when the view processor stops.
+   * 
+   * @return the scheduler, not null
+   */
+  private ScheduledExecutorService getClientResultScheduler() {
+    _lifecycleLock.lock();
+    try {
+      if (_clientResultScheduler == null) {
+        _clientResultScheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(),
+            new NamedThreadPoolFactory("Shared ViewClient result scheduler"));
+      }
+      return _clientResultScheduler;
+    } finally {
+      _lifecycleLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the executor shared by all view processes for computing delta results in parallel, creating it if necessary.
+   * It is shut down when the view processor stops.
+   * 
+   * @return the executor, not null
+   */
+  private ExecutorService getDeltaExecutorService() {
+    _lifecycleLock.lock();
+    try {
+      if (_deltaExecutorService == null) {
+        _deltaExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new NamedThreadPoolFactory("Shared ViewProcess delta calculation", true));
+      }
+      return _deltaExecutorService;
+    } finally {
+      _lifecycleLock.unlock();
+    }
+  }
+
   @Override
   public boolean isRunning() {
     _lifecycleLock.lock();
@@ -666,6 +708,14 @@ public class ViewProcessorImpl implements ViewProcessorInternal {
         viewClient.shutdown();
       }
       _allClientsById.clear();
+      if (_clientResultScheduler != null) {
+        _clientResultScheduler.shutdown();
+        _clientResultScheduler = null;
+      }
+      if (_deltaExecutorService != null) {
+        _deltaExecutorService.shutdown();
+        _deltaExecutorService = null;
+      }
       
       _isStarted = false;
       
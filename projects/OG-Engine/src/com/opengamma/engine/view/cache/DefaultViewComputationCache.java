@@ -48,7 +48,7 @@ public class DefaultViewComputationCache implements ViewComputationCache,
 
   private final IdentifierMap _identifierMap;
   private final FudgeMessageStore _privateDataStore;
-  private final FudgeMessageStore _sharedDataStore;
+  private final ReadThroughFudgeMessageStore _sharedDataStore;
   private final FudgeContext _fudgeContext;
 
   private MissingValueLoader _missingValueLoader;
@@ -94,7 +94,7 @@ public class DefaultViewComputationCache implements ViewComputationCache,
     ArgumentChecker.notNull(fudgeContext, "Fudge context");
     _identifierMap = identifierMap;
     _privateDataStore = privateDataStore;
-    _sharedDataStore = sharedDataStore;
+    _sharedDataStore = new ReadThroughFudgeMessageStore(sharedDataStore);
     _fudgeContext = fudgeContext;
     _valueSizeByClassCache = buildValueSizeByClassMap();
   }
@@ -445,9 +445,22 @@ public class DefaultViewComputationCache implements ViewComputationCache,
   public void delete() {
     _valueSizeCache.remove(); //TODO this is not right
     getPrivateDataStore().delete();
-    if (getSharedDataStore() != getPrivateDataStore()) {
+    if (_sharedDataStore.getUnderlying() != getPrivateDataStore()) {
       getSharedDataStore().delete();
     }
   }
 
+  /**
+   * Makes shared values held by another cache visible through this one without copying them. Values written to this
+   * cache take precedence over those read through.
+   * 
+   * @param cache the cache holding the values, not null
+   * @param specifications the values to read from it, not null
+   */
+  public void readThrough(final DefaultViewComputationCache cache, final Collection<ValueSpecification> specifications) {
+    ArgumentChecker.notNull(cache, "cache");
+    ArgumentChecker.notNull(specifications, "specifications");
+    _sharedDataStore.readThrough(cache.getSharedDataStore(), getIdentifierMap().getIdentifiers(specifications).values());
+  }
+
 }
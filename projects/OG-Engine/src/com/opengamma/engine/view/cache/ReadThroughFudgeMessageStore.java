@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fudgemsg.FudgeMsg;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * A {@link FudgeMessageStore} which answers for some identifiers from other stores, so that values can be shared between
+ * caches without copying them. Data written to this store takes precedence over data read through.
+ */
+/* package */final class ReadThroughFudgeMessageStore implements FudgeMessageStore {
+
+  private final FudgeMessageStore _underlying;
+  private final ConcurrentMap<Long, FudgeMessageStore> _readThrough = new ConcurrentHashMap<Long, FudgeMessageStore>();
+
+  public ReadThroughFudgeMessageStore(final FudgeMessageStore underlying) {
+    ArgumentChecker.notNull(underlying, "underlying");
+    _underlying = underlying;
+  }
+
+  public FudgeMessageStore getUnderlying() {
+    return _underlying;
+  }
+
+  /**
+   * Reads the given identifiers from another store when this one has no data for them.
+   * 
+   * @param store the store to read from, not null
+   * @param identifiers the identifiers to read from it, not null
+   */
+  public void readThrough(final FudgeMessageStore store, final Collection<Long> identifiers) {
+    for (Long identifier : identifiers) {
+      _readThrough.put(identifier, store);
+    }
+  }
+
+  @Override
+  public FudgeMsg get(final long identifier) {
+    final FudgeMsg data = _underlying.get(identifier);
+    if ((data != null) || _readThrough.isEmpty()) {
+      return data;
+    }
+    final FudgeMessageStore store = _readThrough.get(identifier);
+    return (store != null) ? store.get(identifier) : null;
+  }
+
+  @Override
+  public Map<Long, FudgeMsg> get(final Collection<Long> identifiers) {
+    final Map<Long, FudgeMsg> data = _underlying.get(identifiers);
+    if (_readThrough.isEmpty() || (data.size() == identifiers.size())) {
+      return data;
+    }
+    Map<FudgeMessageStore, List<Long>> missing = null;
+    for (Long identifier : identifiers) {
+      if (!data.containsKey(identifier)) {
+        final FudgeMessageStore store = _readThrough.get(identifier);
+        if (store != null) {
+          if (missing == null) {
+            missing = new HashMap<FudgeMessageStore, List<Long>>();
+          }
+          List<Long> storeIdentifiers = missing.get(store);
+          if (storeIdentifiers == null) {
+            storeIdentifiers = new ArrayList<Long>();
+            missing.put(store, storeIdentifiers);
+          }
+          storeIdentifiers.add(identifier);
+        }
+      }
+    }
+    if (missing == null) {
+      return data;
+    }
+    final Map<Long, FudgeMsg> result = new HashMap<Long, FudgeMsg>(data);
+    for (Map.Entry<FudgeMessageStore, List<Long>> store : missing.entrySet()) {
+      result.putAll(store.getKey().get(store.getValue()));
+    }
+    return result;
+  }
+
+  @Override
+  public void put(final long identifier, final FudgeMsg data) {
+    _underlying.put(identifier, data);
+  }
+
+  @Override
+  public void put(final Map<Long, FudgeMsg> data) {
+    _underlying.put(data);
+  }
+
+  @Override
+  public void delete() {
+    _readThrough.clear();
+    _underlying.delete();
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.opengamma.engine.depgraph.DependencyNode;
+import com.opengamma.engine.function.BatchFunctionInvoker;
+import com.opengamma.engine.function.FunctionInvoker;
+import com.opengamma.engine.function.FunctionParameters;
+import com.opengamma.util.tuple.Pair;
+
+/**
+ * Orders the nodes of a job so that items which can be passed to a {@link BatchFunctionInvoker} together are adjacent.
+ * <p>
+ * The calculation node will only batch consecutive job items that share a function and its parameters. The order produced is still a valid execution order - a node never appears before any of its
+ * inputs that are part of the same job. Where there is a choice the original order is preferred so that jobs without any batchable functions are unchanged.
+ */
+/* package */final class BatchJobItemOrdering {
+
+  private BatchJobItemOrdering() {
+  }
+
+  private static Pair<String, FunctionParameters> batchKey(final DependencyNode node) {
+    final FunctionInvoker invoker = node.getFunction().getFunction().getFunctionInvoker();
+    if (invoker instanceof BatchFunctionInvoker) {
+      return Pair.of(node.getFunction().getFunction().getFunctionDefinition().getUniqueId(), node.getFunction().getParameters());
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the nodes in an order that places batchable items adjacent to each other.
+   *
+   * @param nodes the nodes in a valid execution order, not null
+   * @return the reordered nodes, or the original list if there is nothing to batch
+   */
+  public static List<DependencyNode> order(final List<DependencyNode> nodes) {
+    final int count = nodes.size();
+    if (count < 3) {
+      return nodes;
+    }
+    final DependencyNode[] nodeArray = nodes.toArray(new DependencyNode[count]);
+    final Map<DependencyNode, Integer> index = new HashMap<DependencyNode, Integer>();
+    final Object[] keys = new Object[count];
+    boolean batchable = false;
+    for (int i = 0; i < count; i++) {
+      index.put(nodeArray[i], i);
+      keys[i] = batchKey(nodeArray[i]);
+      if (keys[i] != null) {
+        batchable = true;
+      }
+    }
+    if (!batchable) {
+      return nodes;
+    }
+    final int[] blockCount = new int[count];
+    for (int i = 0; i < count; i++) {
+      for (DependencyNode input : nodeArray[i].getInputNodes()) {
+        if (index.containsKey(input)) {
+          blockCount[i]++;
+        }
+      }
+    }
+    final PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+    final Map<Object, PriorityQueue<Integer>> readyByKey = new HashMap<Object, PriorityQueue<Integer>>();
+    for (int i = 0; i < count; i++) {
+      if (blockCount[i] == 0) {
+        makeReady(i, keys, ready, readyByKey);
+      }
+    }
+    final boolean[] emitted = new boolean[count];
+    final List<DependencyNode> result = new ArrayList<DependencyNode>(count);
+    Object currentKey = null;
+    while (result.size() < count) {
+      Integer next = null;
+      if (currentKey != null) {
+        next = poll(readyByKey.get(currentKey), emitted);
+      }
+      if (next == null) {
+        next = poll(ready, emitted);
+        currentKey = keys[next];
+      }
+      emitted[next] = true;
+      final DependencyNode node = nodeArray[next];
+      result.add(node);
+      for (DependencyNode dependent : node.getDependentNodes()) {
+        final Integer dependentIndex = index.get(dependent);
+        if ((dependentIndex != null) && (--blockCount[dependentIndex] == 0)) {
+          makeReady(dependentIndex, keys, ready, readyByKey);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void makeReady(final int i, final Object[] keys, final PriorityQueue<Integer> ready, final Map<Object, PriorityQueue<Integer>> readyByKey) {
+    ready.add(i);
+    if (keys[i] != null) {
+      PriorityQueue<Integer> queue = readyByKey.get(keys[i]);
+      if (queue == null) {
+        queue = new PriorityQueue<Integer>();
+        readyByKey.put(keys[i], queue);
+      }
+      queue.add(i);
+    }
+  }
+
+  private static Integer poll(final PriorityQueue<Integer> queue, final boolean[] emitted) {
+    if (queue != null) {
+      Integer i = queue.poll();
+      while ((i != null) && emitted[i]) {
+        i = queue.poll();
+      }
+      return i;
+    }
+    return null;
+  }
+
+}
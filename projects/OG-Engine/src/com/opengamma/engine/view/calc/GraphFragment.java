@@ -105,7 +105,7 @@ import com.opengamma.engine.view.calcnode.CalculationJobSpecification;
 
   public CalculationJob createCalculationJob(final GraphFragmentContext context) {
     final CalculationJobSpecification jobSpec = context.getExecutor().createJobSpecification(context.getGraph());
-    final List<DependencyNode> nodes = getNodes();
+    final List<DependencyNode> nodes = BatchJobItemOrdering.order(getNodes());
     final List<CalculationJobItem> items = new ArrayList<CalculationJobItem>(nodes.size());
     for (DependencyNode node : nodes) {
       final Set<ValueSpecification> inputs = node.getInputValues();
@@ -30,6 +30,7 @@ public class LiveDataDeltaCalculator {
   private final DependencyGraph _graph;
   private final ViewComputationCache _cache;
   private final ViewComputationCache _previousCache;
+  private final Set<ValueRequirement> _changedMarketData;
 
   private final Set<DependencyNode> _changedNodes = new HashSet<DependencyNode>();
   private final Set<DependencyNode> _unchangedNodes = new HashSet<DependencyNode>();
@@ -47,12 +48,26 @@ public class LiveDataDeltaCalculator {
    * @param previousCache Contains PreviousLiveDataInputs (for the given graph)
    */
   public LiveDataDeltaCalculator(DependencyGraph graph, ViewComputationCache cache, ViewComputationCache previousCache) {
+    this(graph, cache, previousCache, null);
+  }
+
+  /**
+   * If the market data snapshot has already identified the inputs that changed then the caches need not be queried.
+   * 
+   * @param graph Dependency graph
+   * @param cache Contains CurrentLiveDataInputs (for the given graph)
+   * @param previousCache Contains PreviousLiveDataInputs (for the given graph)
+   * @param changedMarketData The market data requirements whose values may have changed, or null to compare the values
+   *        in the caches
+   */
+  public LiveDataDeltaCalculator(DependencyGraph graph, ViewComputationCache cache, ViewComputationCache previousCache, Set<ValueRequirement> changedMarketData) {
     ArgumentChecker.notNull(graph, "Graph");
     ArgumentChecker.notNull(cache, "Cache");
     ArgumentChecker.notNull(previousCache, "Previous cache");
     _graph = graph;
     _cache = cache;
     _previousCache = previousCache;
+    _changedMarketData = changedMarketData;
   }
 
   public Set<DependencyNode> getChangedNodes() {
@@ -102,11 +117,15 @@ public class LiveDataDeltaCalculator {
       // due to market data changes affecting the function of the node.
       Pair<ValueRequirement, ValueSpecification> liveData = node.getRequiredMarketData();
       if (liveData != null) {
-        // Market data is always in the shared cache
-        Object oldValue = _previousCache.getValue(liveData.getSecond(), CacheSelectHint.allShared());
-        Object newValue = _cache.getValue(liveData.getSecond(), CacheSelectHint.allShared());
-        if (!ObjectUtils.equals(oldValue, newValue)) {
-          hasChanged = true;
+        if (_changedMarketData != null) {
+          hasChanged = _changedMarketData.contains(liveData.getFirst());
+        } else {
+          // Market data is always in the shared cache
+          Object oldValue = _previousCache.getValue(liveData.getSecond(), CacheSelectHint.allShared());
+          Object newValue = _cache.getValue(liveData.getSecond(), CacheSelectHint.allShared());
+          if (!ObjectUtils.equals(oldValue, newValue)) {
+            hasChanged = true;
+          }
         }
       }
     }
@@ -44,17 +44,20 @@ import com.opengamma.engine.depgraph.DependencyNode;
 import com.opengamma.engine.depgraph.DependencyNodeFilter;
 import com.opengamma.engine.function.MarketDataSourcingFunction;
 import com.opengamma.engine.function.blacklist.FunctionBlacklistQuery;
+import com.opengamma.engine.marketdata.ChangeTrackingMarketDataSnapshot;
 import com.opengamma.engine.marketdata.MarketDataSnapshot;
 import com.opengamma.engine.marketdata.OverrideOperation;
 import com.opengamma.engine.value.ComputedValue;
 import com.opengamma.engine.value.ValueRequirement;
 import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
 import com.opengamma.engine.view.InMemoryViewComputationResultModel;
 import com.opengamma.engine.view.ViewCalculationConfiguration;
 import com.opengamma.engine.view.ViewComputationResultModel;
 import com.opengamma.engine.view.ViewDefinition;
 import com.opengamma.engine.view.ViewProcessContext;
 import com.opengamma.engine.view.cache.CacheSelectHint;
+import com.opengamma.engine.view.cache.DefaultViewComputationCache;
 import com.opengamma.engine.view.cache.MissingMarketDataSentinel;
 import com.opengamma.engine.view.cache.NotCalculatedSentinel;
 import com.opengamma.engine.view.cache.ViewComputationCache;
@@ -83,6 +86,14 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
    */
   public static final String MARKET_DATA_SHIFT_PROPERTY = "MARKET_DATA_SHIFT";
 
+  /**
+   * The default property naming the calculation configuration a scenario is based on. A calculation configuration with
+   * this property is executed after its base, and only the nodes affected by its market data shift are executed; other
+   * values are copied from the base configuration's cache. The scenario's results are reported under its own
+   * calculation configuration name.
+   */
+  public static final String SCENARIO_BASE_PROPERTY = "SCENARIO_BASE";
+
   private enum NodeStateFlag {
     /**
      * Node was executed successfully.
@@ -117,9 +128,11 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
 
   private final Map<DependencyNode, NodeStateFlag> _nodeStates = new ConcurrentHashMap<DependencyNode, NodeStateFlag>();
   private final Map<String, ViewComputationCache> _cachesByCalculationConfiguration = new HashMap<String, ViewComputationCache>();
+  private volatile MarketDataSnapshot _marketDataSnapshot;
+  private final Map<ViewComputationCache, Set<ValueRequirement>> _shiftedMarketData = new HashMap<ViewComputationCache, Set<ValueRequirement>>();
 
   // Output
-  private final InMemoryViewComputationResultModel _resultModel;
+  private final ColumnarViewComputationResultModel _resultModel;
 
   public SingleComputationCycle(UniqueId cycleId, UniqueId viewProcessId,
       ComputationResultListener cycleFragmentResultListener, ViewProcessContext viewProcessContext,
@@ -139,7 +152,7 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     _cycleFragmentResultListener = cycleFragmentResultListener;
     _executionOptions = executionOptions;
     _versionCorrection = versionCorrection;
-    _resultModel = constructTemplateResultModel();
+    _resultModel = constructFullResultModel();
     _dependencyGraphExecutor = getViewProcessContext().getDependencyGraphExecutorFactory().createExecutor(this);
     _statisticsGatherer = getViewProcessContext().getGraphExecutorStatisticsGathererProvider().getStatisticsGatherer(getViewProcessId());
   }
@@ -153,6 +166,15 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     return result;
   }
 
+  private ColumnarViewComputationResultModel constructFullResultModel() {
+    ColumnarViewComputationResultModel result = new ColumnarViewComputationResultModel();
+    result.setViewCycleId(getCycleId());
+    result.setViewProcessId(getViewProcessId());
+    result.setValuationTime(getExecutionOptions().getValuationTime());
+    result.setVersionCorrection(getVersionCorrection());
+    return result;
+  }
+
   //-------------------------------------------------------------------------
   public Instant getValuationTime() {
     return getExecutionOptions().getValuationTime();
@@ -255,7 +277,7 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
   }
 
   @Override
-  public InMemoryViewComputationResultModel getResultModel() {
+  public ColumnarViewComputationResultModel getResultModel() {
     return _resultModel;
   }
 
@@ -297,6 +319,7 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     _state = ViewCycleState.EXECUTING;
 
     createAllCaches();
+    _marketDataSnapshot = marketDataSnapshot;
     prepareInputs(marketDataSnapshot);
 
     if (previousCycle != null) {
@@ -311,36 +334,24 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
 
       LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
 
+      // Scenarios can only be executed once the configurations they are based on have completed
+      final Map<String, String> scenarioBases = getScenarioBases();
       for (String calcConfigurationName : getAllCalculationConfigurationNames()) {
-        s_logger.info("Executing plans for calculation configuration {}", calcConfigurationName);
-        final DependencyGraph depGraph = createExecutableDependencyGraph(calcConfigurationName);
-        s_logger.info("Submitting {} for execution by {}", depGraph, getDependencyGraphExecutor());
-        final Future<?> future = getDependencyGraphExecutor().execute(depGraph, calcJobResultQueue, _statisticsGatherer);
-        futures.add(future);
+        if (!scenarioBases.containsKey(calcConfigurationName)) {
+          futures.add(executeCalculationConfiguration(calcConfigurationName, calcJobResultQueue));
+        }
       }
-
-      while (!futures.isEmpty()) {
-        Future<?> future = futures.poll();
-        try {
-          future.get(5, TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-          s_logger.info("Waiting for " + future);
-          futures.add(future);
-        } catch (InterruptedException e) {
-          Thread.interrupted();
-          // Cancel all outstanding jobs to free up resources
-          future.cancel(true);
-          for (Future<?> incompleteFuture : futures) {
-            incompleteFuture.cancel(true);
-          }
-          _state = ViewCycleState.EXECUTION_INTERRUPTED;
-          s_logger.info("Execution interrupted before completion.");
-          throw e;
-        } catch (ExecutionException e) {
-          s_logger.error("Unable to execute dependency graph", e);
-          // Should we be swallowing this or not?
-          throw new OpenGammaRuntimeException("Unable to execute dependency graph", e);
+      waitForCompletion(futures);
+      if (!scenarioBases.isEmpty()) {
+        final InMemoryViewComputationResultModel scenarioResultFragment = constructTemplateResultModel();
+        for (Map.Entry<String, String> scenarioBase : scenarioBases.entrySet()) {
+          computeScenarioDelta(scenarioBase.getKey(), scenarioBase.getValue(), scenarioResultFragment);
+          futures.add(executeCalculationConfiguration(scenarioBase.getKey(), calcJobResultQueue));
+        }
+        if (!scenarioResultFragment.getAllResults().isEmpty()) {
+          notifyFragmentCompleted(scenarioResultFragment);
         }
+        waitForCompletion(futures);
       }
 
       _endTime = Instant.now();
@@ -361,6 +372,175 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     _state = ViewCycleState.EXECUTED;
   }
 
+  private Future<?> executeCalculationConfiguration(final String calcConfigurationName, final BlockingQueue<ExecutionResult> calcJobResultQueue) {
+    s_logger.info("Executing plans for calculation configuration {}", calcConfigurationName);
+    final DependencyGraph depGraph = createExecutableDependencyGraph(calcConfigurationName);
+    s_logger.info("Submitting {} for execution by {}", depGraph, getDependencyGraphExecutor());
+    return getDependencyGraphExecutor().execute(depGraph, calcJobResultQueue, _statisticsGatherer);
+  }
+
+  private void waitForCompletion(final LinkedList<Future<?>> futures) throws InterruptedException {
+    while (!futures.isEmpty()) {
+      Future<?> future = futures.poll();
+      try {
+        future.get(5, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        s_logger.info("Waiting for " + future);
+        futures.add(future);
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        // Cancel all outstanding jobs to free up resources
+        future.cancel(true);
+        for (Future<?> incompleteFuture : futures) {
+          incompleteFuture.cancel(true);
+        }
+        _state = ViewCycleState.EXECUTION_INTERRUPTED;
+        s_logger.info("Execution interrupted before completion.");
+        throw e;
+      } catch (ExecutionException e) {
+        s_logger.error("Unable to execute dependency graph", e);
+        // Should we be swallowing this or not?
+        throw new OpenGammaRuntimeException("Unable to execute dependency graph", e);
+      }
+    }
+  }
+
+  /**
+   * Finds the calculation configurations which are scenarios on another configuration in the view. A scenario cannot be
+   * based on another scenario.
+   * 
+   * @return the base configuration name for each scenario configuration name, not null
+   */
+  private Map<String, String> getScenarioBases() {
+    final Map<String, String> scenarioBases = new HashMap<String, String>();
+    for (ViewCalculationConfiguration calcConfig : getCompiledViewDefinition().getViewDefinition().getAllCalculationConfigurations()) {
+      final Set<String> scenarioBase = calcConfig.getDefaultProperties().getValues(SCENARIO_BASE_PROPERTY);
+      if (scenarioBase != null) {
+        if ((scenarioBase.size() != 1) || !getAllCalculationConfigurationNames().contains(scenarioBase.iterator().next())) {
+          s_logger.error("Scenario base for {} not valid - {}", calcConfig.getName(), scenarioBase);
+        } else {
+          scenarioBases.put(calcConfig.getName(), scenarioBase.iterator().next());
+        }
+      }
+    }
+    final Iterator<Map.Entry<String, String>> itr = scenarioBases.entrySet().iterator();
+    while (itr.hasNext()) {
+      final Map.Entry<String, String> scenarioBase = itr.next();
+      if (scenarioBases.containsKey(scenarioBase.getValue())) {
+        s_logger.error("Scenario base for {} not valid - {} is itself a scenario", scenarioBase.getKey(), scenarioBase.getValue());
+        itr.remove();
+      }
+    }
+    return scenarioBases;
+  }
+
+  /**
+   * Takes the values of the nodes in a scenario which are not affected by its market data shift from the scenario's base,
+   * which must already have been executed. A node is taken from the base if it is not downstream of shifted market data,
+   * and it and all of its inputs produce the same value specifications as nodes in the base configuration. The node takes
+   * the state of the base node, and its values, or the errors it failed or was suppressed with, are read through to the
+   * base cache rather than copied. Nodes already copied from a previous cycle are left alone.
+   * 
+   * @param calcConfigurationName the scenario calculation configuration, not null
+   * @param baseCalcConfigurationName the base calculation configuration, not null
+   * @param resultFragment the fragment to receive any terminal outputs taken from the base, not null
+   */
+  private void computeScenarioDelta(final String calcConfigurationName, final String baseCalcConfigurationName, final InMemoryViewComputationResultModel resultFragment) {
+    final DependencyGraph depGraph = getDependencyGraph(calcConfigurationName);
+    final DependencyGraph baseDepGraph = getDependencyGraph(baseCalcConfigurationName);
+    final ViewComputationCache cache = getComputationCache(calcConfigurationName);
+    final ViewComputationCache baseCache = getComputationCache(baseCalcConfigurationName);
+    Set<ValueRequirement> shiftedMarketData = _shiftedMarketData.get(cache);
+    if (shiftedMarketData == null) {
+      shiftedMarketData = Collections.emptySet();
+    }
+    final LiveDataDeltaCalculator deltaCalculator = new LiveDataDeltaCalculator(depGraph, cache, baseCache, shiftedMarketData);
+    deltaCalculator.computeDelta();
+    final Map<DependencyNode, NodeStateFlag> baseNodeStates = new HashMap<DependencyNode, NodeStateFlag>();
+    for (DependencyNode unchangedNode : deltaCalculator.getUnchangedNodes()) {
+      getBaseNodeState(unchangedNode, baseDepGraph, deltaCalculator.getUnchangedNodes(), baseNodeStates);
+    }
+    final Collection<ValueSpecification> specsFromBase = new LinkedList<ValueSpecification>();
+    int copied = 0;
+    for (Map.Entry<DependencyNode, NodeStateFlag> baseNode : baseNodeStates.entrySet()) {
+      final DependencyNode unchangedNode = baseNode.getKey();
+      final NodeStateFlag baseNodeState = baseNode.getValue();
+      if ((baseNodeState == null) || (getNodeState(unchangedNode) != null) || (unchangedNode.getFunction().getFunction() instanceof MarketDataSourcingFunction)) {
+        continue;
+      }
+      setNodeState(unchangedNode, baseNodeState);
+      copied++;
+      specsFromBase.addAll(unchangedNode.getOutputValues());
+    }
+    s_logger.info("Computed scenario delta for calculation configuration '{}' against '{}'. {} nodes out of {} taken from base.",
+        new Object[] {calcConfigurationName, baseCalcConfigurationName, copied, depGraph.getSize() });
+    if (specsFromBase.isEmpty()) {
+      return;
+    }
+    if ((cache instanceof DefaultViewComputationCache) && (baseCache instanceof DefaultViewComputationCache)) {
+      ((DefaultViewComputationCache) cache).readThrough((DefaultViewComputationCache) baseCache, specsFromBase);
+      final Collection<ValueSpecification> terminalSpecs = new ArrayList<ValueSpecification>();
+      for (ValueSpecification spec : specsFromBase) {
+        if (depGraph.getTerminalOutputSpecifications().contains(spec)) {
+          terminalSpecs.add(spec);
+        }
+      }
+      if (!terminalSpecs.isEmpty()) {
+        for (Pair<ValueSpecification, Object> value : baseCache.getValues(terminalSpecs, CacheSelectHint.allShared())) {
+          if (value.getValue() != null) {
+            resultFragment.addValue(calcConfigurationName, new ComputedValue(value.getFirst(), value.getSecond()));
+          }
+        }
+      }
+    } else {
+      for (ComputedValue value : copyValues(cache, baseCache, specsFromBase)) {
+        if (depGraph.getTerminalOutputSpecifications().contains(value.getSpecification())) {
+          resultFragment.addValue(calcConfigurationName, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the state of the node in a base graph which produces all of the outputs of a node, if the node and all of its
+   * inputs are unaffected by the scenario.
+   * 
+   * @param node the node, not null
+   * @param baseDepGraph the base graph, not null
+   * @param unchangedNodes the nodes not downstream of shifted market data, not null
+   * @param baseNodeStates the states found so far, updated with the result, not null
+   * @return the state of the equivalent node, null if there is none, it has not been executed, or the node is affected
+   */
+  private NodeStateFlag getBaseNodeState(final DependencyNode node, final DependencyGraph baseDepGraph, final Set<DependencyNode> unchangedNodes,
+      final Map<DependencyNode, NodeStateFlag> baseNodeStates) {
+    if (baseNodeStates.containsKey(node)) {
+      return baseNodeStates.get(node);
+    }
+    NodeStateFlag state = null;
+    if (unchangedNodes.contains(node)) {
+      DependencyNode baseNode = null;
+      for (ValueSpecification outputValue : node.getOutputValues()) {
+        final DependencyNode producer = baseDepGraph.getNodeProducing(outputValue);
+        if ((producer == null) || ((baseNode != null) && (producer != baseNode))) {
+          baseNode = null;
+          break;
+        }
+        baseNode = producer;
+      }
+      if (baseNode != null) {
+        state = getNodeState(baseNode);
+        for (DependencyNode inputNode : node.getInputNodes()) {
+          if (getBaseNodeState(inputNode, baseDepGraph, unchangedNodes, baseNodeStates) == null) {
+            state = null;
+            break;
+          }
+        }
+      }
+    }
+    baseNodeStates.put(node, state);
+    return state;
+  }
+
   /**
    * Creates a map containing the "shift" operations to apply to market data or each calculation configuration. If there is no operation to apply, the map contains null for that configuration.
    * 
@@ -416,7 +596,7 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
         getResultModel().addMarketData(dataAsValue);
         addMarketDataToResultFragment(marketDataResultFragment, marketDataRequirement.getValue(), dataAsValue);
       }
-      addToAllCaches(marketDataRequirement.getKey(), dataAsValue, cacheMarketDataOperation);
+      addToAllCaches(marketDataRequirement.getKey(), dataAsValue, cacheMarketDataOperation, _shiftedMarketData);
     }
     if (!missingMarketData.isEmpty()) {
       s_logger.info("Missing {} market data elements: {}", missingMarketData.size(), formatMissingLiveData(missingMarketData));
@@ -448,7 +628,8 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     }
   }
 
-  private void addToAllCaches(final ValueRequirement valueRequirement, final ComputedValue dataAsValue, final Map<ViewComputationCache, OverrideOperation> cacheMarketDataInfo) {
+  private void addToAllCaches(final ValueRequirement valueRequirement, final ComputedValue dataAsValue, final Map<ViewComputationCache, OverrideOperation> cacheMarketDataInfo,
+      final Map<ViewComputationCache, Set<ValueRequirement>> shiftedMarketData) {
     for (Map.Entry<ViewComputationCache, OverrideOperation> cacheMarketData : cacheMarketDataInfo.entrySet()) {
       final ViewComputationCache cache = cacheMarketData.getKey();
       final ComputedValue cacheValue;
@@ -458,6 +639,12 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
         final Object newValue = cacheMarketData.getValue().apply(valueRequirement, dataAsValue.getValue());
         if (newValue != dataAsValue.getValue()) {
           cacheValue = new ComputedValue(dataAsValue.getSpecification(), newValue);
+          Set<ValueRequirement> shifted = shiftedMarketData.get(cache);
+          if (shifted == null) {
+            shifted = new HashSet<ValueRequirement>();
+            shiftedMarketData.put(cache, shifted);
+          }
+          shifted.add(valueRequirement);
         } else {
           cacheValue = dataAsValue;
         }
@@ -484,11 +671,12 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
       throw new IllegalArgumentException("State of previous cycle must be " + ViewCycleState.EXECUTED);
     }
     InMemoryViewComputationResultModel deltaResultFragment = constructTemplateResultModel();
+    final Set<ValueRequirement> changedMarketData = getChangedMarketData(previousCycle);
     for (String calcConfigurationName : getAllCalculationConfigurationNames()) {
       final DependencyGraph depGraph = getCompiledViewDefinition().getDependencyGraph(calcConfigurationName);
       ViewComputationCache cache = getComputationCache(calcConfigurationName);
       ViewComputationCache previousCache = previousCycle.getComputationCache(calcConfigurationName);
-      LiveDataDeltaCalculator deltaCalculator = new LiveDataDeltaCalculator(depGraph, cache, previousCache);
+      LiveDataDeltaCalculator deltaCalculator = new LiveDataDeltaCalculator(depGraph, cache, previousCache, changedMarketData);
       deltaCalculator.computeDelta();
       s_logger.info("Computed delta for calculation configuration '{}'. {} nodes out of {} require recomputation.",
           new Object[] {calcConfigurationName, deltaCalculator.getChangedNodes().size(), depGraph.getSize() });
@@ -523,6 +711,26 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
     }
   }
 
+  /**
+   * Asks the market data snapshot which values have changed since the previous cycle's snapshot. This is only valid if
+   * both cycles populated their caches from the same requirements, so the same compiled view definition.
+   * 
+   * @param previousCycle the previous cycle, not null
+   * @return the changed market data requirements, or null if the cache values must be compared instead
+   */
+  private Set<ValueRequirement> getChangedMarketData(SingleComputationCycle previousCycle) {
+    if ((previousCycle.getCompiledViewDefinition() != getCompiledViewDefinition())
+        || !(_marketDataSnapshot instanceof ChangeTrackingMarketDataSnapshot) || (previousCycle._marketDataSnapshot == null)
+        || (previousCycle._marketDataSnapshot == _marketDataSnapshot)) {
+      return null;
+    }
+    final Set<ValueRequirement> changed = ((ChangeTrackingMarketDataSnapshot) _marketDataSnapshot).getChangedSince(previousCycle._marketDataSnapshot);
+    if (changed != null) {
+      s_logger.debug("{} market data values changed since previous cycle", changed.size());
+    }
+    return changed;
+  }
+
   private Collection<ComputedValue> copyValues(ViewComputationCache cache, ViewComputationCache previousCache, Collection<ValueSpecification> specsToCopy) {
     Collection<Pair<ValueSpecification, Object>> valuesToCopy = previousCache.getValues(specsToCopy);
     Collection<ComputedValue> newValues = new ArrayList<ComputedValue>(valuesToCopy.size());
@@ -700,6 +908,7 @@ public class SingleComputationCycle implements ViewCycle, EngineResource {
       dumpComputationCachesToDisk();
     }
     getViewProcessContext().getComputationCacheSource().releaseCaches(getUniqueId());
+    _marketDataSnapshot = null;
     _state = ViewCycleState.DESTROYED;
   }
 
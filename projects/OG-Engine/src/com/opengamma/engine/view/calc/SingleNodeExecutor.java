@@ -62,7 +62,7 @@ public class SingleNodeExecutor implements DependencyGraphExecutor<ExecutionResu
   public Future<ExecutionResult> execute(final DependencyGraph graph, final Queue<ExecutionResult> executionResultQueue, final GraphExecutorStatisticsGatherer statistics) {
     long jobId = JobIdSource.getId();
     CalculationJobSpecification jobSpec = new CalculationJobSpecification(_cycle.getUniqueId(), graph.getCalculationConfigurationName(), _cycle.getValuationTime(), jobId);
-    List<DependencyNode> order = graph.getExecutionOrder();
+    List<DependencyNode> order = BatchJobItemOrdering.order(graph.getExecutionOrder());
     List<CalculationJobItem> items = new ArrayList<CalculationJobItem>();
     final Set<ValueSpecification> privateValues = new HashSet<ValueSpecification>();
     final Set<ValueSpecification> sharedValues = new HashSet<ValueSpecification>(graph.getTerminalOutputSpecifications());
@@ -6,16 +6,21 @@
 package com.opengamma.engine.view.calc;
 
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +37,7 @@ import com.opengamma.core.change.ChangeListener;
 import com.opengamma.engine.ComputationTargetSpecification;
 import com.opengamma.engine.depgraph.DependencyGraph;
 import com.opengamma.engine.marketdata.MarketDataListener;
+import com.opengamma.engine.marketdata.MarketDataPermissionProvider;
 import com.opengamma.engine.marketdata.MarketDataProvider;
 import com.opengamma.engine.marketdata.MarketDataSnapshot;
 import com.opengamma.engine.marketdata.availability.MarketDataAvailabilityProvider;
@@ -62,7 +68,9 @@ import com.opengamma.engine.view.listener.ComputationResultListener;
 import com.opengamma.id.UniqueId;
 import com.opengamma.id.VersionCorrection;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.NamedThreadPoolFactory;
 import com.opengamma.util.TerminatableJob;
+import com.opengamma.util.monitor.LatencyTracer;
 import com.opengamma.util.monitor.OperationTimer;
 
 /**
@@ -73,6 +81,18 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
 
   private static final long NANOS_PER_MILLISECOND = 1000000;
   private static final long MARKET_DATA_TIMEOUT_MILLIS = 10000;
+  /**
+   * The maximum number of parallel cycles if not set in the execution options.
+   * See {@link ViewExecutionOptions#getMaxParallelCycles()}.
+   */
+  private static final int DEFAULT_MAX_PARALLEL_CYCLES = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /** The {@link LatencyTracer} stage reached when a cycle is triggered by a sampled tick. */
+  public static final String CYCLE_TRIGGERED_STAGE = "engine.cycle.triggered";
+  /** The {@link LatencyTracer} stage reached when the cycle triggered by a sampled tick has executed. */
+  public static final String CYCLE_EXECUTED_STAGE = "engine.cycle.executed";
+  /** The {@link LatencyTracer} stage reached when the results of the cycle have been delivered to the view process. */
+  public static final String RESULTS_DELIVERED_STAGE = "engine.results.delivered";
 
   private final ViewProcessImpl _viewProcess;
   private final ViewExecutionOptions _executionOptions;
@@ -81,6 +101,15 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
   private final ViewCycleTrigger _masterCycleTrigger;
   private final FixedTimeTrigger _compilationExpiryCycleTrigger;
   private final boolean _executeCycles;
+  private final boolean _parallelCycles;
+  private final int _maxParallelCycles;
+  private final Queue<PreparedCycle> _parallelCycleWindow = new ArrayDeque<PreparedCycle>();
+  private ExecutorService _parallelCycleExecutor;
+  /**
+   * The compilation last reported to the view process by the parallel path, which reports each compilation only once
+   * the cycles executing under the previous one have been delivered.
+   */
+  private CompiledViewDefinitionWithGraphsImpl _reportedCompiledViewDefinition;
 
   private int _cycleCount;
   private EngineResourceReference<SingleComputationCycle> _previousCycleReference;
@@ -99,6 +128,14 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
   private volatile boolean _viewDefinitionDirty = true;
   private volatile boolean _compilationDirty;
   private volatile Future<CompiledViewDefinitionWithGraphsImpl> _compilationTask;
+  /**
+   * The trace timestamp of the earliest sampled tick since the last cycle was triggered, guarded by this.
+   */
+  private long _pendingTraceTimestamp = LatencyTracer.NOT_TRACED;
+  /**
+   * The trace timestamp taken by the last cycle triggered.
+   */
+  private long _cycleTraceTimestamp = LatencyTracer.NOT_TRACED;
 
   /**
    * Nanoseconds
@@ -121,6 +158,8 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
     _compilationExpiryCycleTrigger = new FixedTimeTrigger();
     _masterCycleTrigger = createViewCycleTrigger(executionOptions);
     _executeCycles = !getExecutionOptions().getFlags().contains(ViewExecutionFlags.COMPILE_ONLY);
+    _parallelCycles = _executeCycles && getExecutionOptions().getFlags().contains(ViewExecutionFlags.PARALLEL_CYCLES);
+    _maxParallelCycles = (executionOptions.getMaxParallelCycles() != null) ? executionOptions.getMaxParallelCycles() : DEFAULT_MAX_PARALLEL_CYCLES;
     updateViewDefinitionIfRequired();
     subscribeToViewDefinition();
   }
@@ -186,6 +225,11 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       return;
     }
 
+    if (_parallelCycles) {
+      runParallelCycle();
+      return;
+    }
+
     ViewCycleExecutionOptions executionOptions = null;
     try {
       if (!getExecutionOptions().getExecutionSequence().isEmpty()) {
@@ -202,10 +246,153 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       return;
     }
 
+    final PreparedCycle preparedCycle = prepareCycle(executionOptions, true);
+    if (preparedCycle.getFailure() != null) {
+      cycleExecutionFailed(executionOptions, preparedCycle.getFailure());
+    }
+    final EngineResourceReference<SingleComputationCycle> cycleReference = preparedCycle.getCycleReference();
+    if (cycleReference == null) {
+      return;
+    }
+
+    if (_executeCycles) {
+      try {
+        cycleStarted(preparedCycle.createMetadata());
+        executeViewCycle(cycleType, cycleReference, preparedCycle.getMarketDataSnapshot(), getViewProcess().getCalcJobResultExecutorService());
+        LatencyTracer.getInstance().record(CYCLE_EXECUTED_STAGE, _cycleTraceTimestamp);
+      } catch (InterruptedException e) {
+        // Execution interrupted - don't propagate as failure
+        s_logger.info("View cycle execution interrupted for view process {}", getViewProcess());
+        cycleReference.release();
+        return;
+      } catch (Exception e) {
+        // Execution failed
+        s_logger.error("View cycle execution failed for view process " + getViewProcess(), e);
+        cycleReference.release();
+        cycleExecutionFailed(executionOptions, e);
+        return;
+      }
+    }
+
+    // Don't push the results through if we've been terminated, since another computation job could be running already
+    // and the fact that we've been terminated means the view is no longer interested in the result. Just die quietly.
+    if (isTerminated()) {
+      cycleReference.release();
+      return;
+    }
+
+    if (_executeCycles) {
+      cycleCompleted(cycleReference.get());
+      LatencyTracer.getInstance().record(RESULTS_DELIVERED_STAGE, _cycleTraceTimestamp);
+    }
+
+    if (getExecutionOptions().getExecutionSequence().isEmpty()) {
+      processCompleted();
+    }
+
+    if (_executeCycles) {
+      if (_previousCycleReference != null) {
+        _previousCycleReference.release();
+      }
+      _previousCycleReference = cycleReference;
+    }
+  }
+
+  /**
+   * Delivers the next cycle from the window of concurrently executing cycles, first topping the window up from the
+   * execution sequence. Cycles are prepared (market data snapshot, compilation) one at a time on this thread, executed
+   * concurrently, and delivered in sequence order. Each is a full cycle since the others are not available as the basis
+   * for a delta.
+   */
+  private void runParallelCycle() {
+    while ((_parallelCycleWindow.size() < _maxParallelCycles) && !isTerminated()) {
+      final ViewCycleExecutionOptions executionOptions;
+      try {
+        if (getExecutionOptions().getExecutionSequence().isEmpty()) {
+          break;
+        }
+        executionOptions = getExecutionOptions().getExecutionSequence().getNext(getExecutionOptions().getDefaultExecutionOptions());
+        s_logger.debug("Next cycle execution options: {}", executionOptions);
+      } catch (Exception e) {
+        s_logger.error("Error obtaining next view cycle execution options from sequence for view process " + getViewProcess(), e);
+        break;
+      }
+      if (executionOptions == null) {
+        break;
+      }
+      final PreparedCycle preparedCycle = prepareCycle(executionOptions, false);
+      if (preparedCycle.getCycleReference() != null) {
+        preparedCycle.submit(getParallelCycleExecutor());
+      }
+      _parallelCycleWindow.add(preparedCycle);
+    }
+
+    final PreparedCycle preparedCycle = _parallelCycleWindow.poll();
+    if (preparedCycle == null) {
+      s_logger.info("No more view cycle execution options");
+      processCompleted();
+      return;
+    }
+    final CompiledViewDefinitionWithGraphsImpl compiledViewDefinition = preparedCycle.getCompiledViewDefinition();
+    if ((compiledViewDefinition != null) && (compiledViewDefinition != _reportedCompiledViewDefinition)) {
+      // Every cycle compiled under the previous definition has now been delivered
+      _reportedCompiledViewDefinition = compiledViewDefinition;
+      viewDefinitionCompiled(compiledViewDefinition, preparedCycle.getPermissionProvider());
+    }
+    if (preparedCycle.getFailure() != null) {
+      cycleExecutionFailed(preparedCycle.getExecutionOptions(), preparedCycle.getFailure());
+    }
+    final EngineResourceReference<SingleComputationCycle> cycleReference = preparedCycle.getCycleReference();
+    if (cycleReference == null) {
+      return;
+    }
+
+    cycleStarted(preparedCycle.createMetadata());
+    try {
+      preparedCycle.getExecution().get();
+    } catch (InterruptedException e) {
+      s_logger.info("View cycle execution interrupted for view process {}", getViewProcess());
+      preparedCycle.cancel();
+      return;
+    } catch (ExecutionException e) {
+      s_logger.error("View cycle execution failed for view process " + getViewProcess(), e.getCause());
+      cycleReference.release();
+      final Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : new OpenGammaRuntimeException("View cycle execution failed", e.getCause());
+      cycleExecutionFailed(preparedCycle.getExecutionOptions(), cause);
+      return;
+    }
+
+    if (isTerminated()) {
+      cycleReference.release();
+      return;
+    }
+    recordCycleDuration(cycleReference.get());
+    cycleCompleted(cycleReference.get());
+
+    if (_parallelCycleWindow.isEmpty() && getExecutionOptions().getExecutionSequence().isEmpty()) {
+      processCompleted();
+    }
+
+    if (_previousCycleReference != null) {
+      _previousCycleReference.release();
+    }
+    _previousCycleReference = cycleReference;
+  }
+
+  /**
+   * Obtains the market data snapshot and compiled view definition for a cycle, and creates the cycle.
+   * 
+   * @param executionOptions  the cycle execution options, not null
+   * @param streamFragments  whether the cycle should publish result fragments as they are calculated
+   * @return the cycle, not null. This holds no cycle reference if the cycle cannot be executed, and the failure to be
+   *         reported if there is one
+   */
+  private PreparedCycle prepareCycle(ViewCycleExecutionOptions executionOptions, boolean streamFragments) {
+    final PreparedCycle preparedCycle = new PreparedCycle(executionOptions);
     if (executionOptions.getMarketDataSpecification() == null) {
       s_logger.error("No market data specification for cycle");
-      cycleExecutionFailed(executionOptions, new OpenGammaRuntimeException("No market data specification for cycle"));
-      return;
+      preparedCycle.setFailure(new OpenGammaRuntimeException("No market data specification for cycle"));
+      return preparedCycle;
     }
 
     MarketDataSnapshot marketDataSnapshot;
@@ -223,8 +410,8 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       marketDataSnapshot = _marketDataProvider.snapshot(executionOptions.getMarketDataSpecification());
     } catch (Exception e) {
       s_logger.error("Error with market data provider", e);
-      cycleExecutionFailed(executionOptions, new OpenGammaRuntimeException("Error with market data provider", e));
-      return;
+      preparedCycle.setFailure(new OpenGammaRuntimeException("Error with market data provider", e));
+      return preparedCycle;
     }
 
     Instant compilationValuationTime;
@@ -242,8 +429,8 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       }
     } catch (Exception e) {
       s_logger.error("Error obtaining compilation valuation time", e);
-      cycleExecutionFailed(executionOptions, new OpenGammaRuntimeException("Error obtaining compilation valuation time", e));
-      return;
+      preparedCycle.setFailure(new OpenGammaRuntimeException("Error obtaining compilation valuation time", e));
+      return preparedCycle;
     }
 
     VersionCorrection versionCorrection = getResolvedVersionCorrection();
@@ -254,8 +441,8 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       String message = MessageFormat.format("Error obtaining compiled view definition {0} for time {1} at version-correction {2}",
           getViewProcess().getDefinitionId(), compilationValuationTime, versionCorrection);
       s_logger.error(message);
-      cycleExecutionFailed(executionOptions, new OpenGammaRuntimeException(message, e));
-      return;
+      preparedCycle.setFailure(new OpenGammaRuntimeException(message, e));
+      return preparedCycle;
     }
 
     try {
@@ -269,71 +456,124 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       }
     } catch (Exception e) {
       s_logger.error("Error initializing snapshot {}", marketDataSnapshot);
-      cycleExecutionFailed(executionOptions, new OpenGammaRuntimeException("Error initializing snapshot" + marketDataSnapshot, e));
+      preparedCycle.setFailure(new OpenGammaRuntimeException("Error initializing snapshot" + marketDataSnapshot, e));
     }
 
-    EngineResourceReference<SingleComputationCycle> cycleReference;
     try {
-      cycleReference = createCycle(executionOptions, compiledViewDefinition, versionCorrection);
+      preparedCycle.setCycle(createCycle(executionOptions, compiledViewDefinition, versionCorrection, streamFragments), marketDataSnapshot,
+          compiledViewDefinition, versionCorrection, _marketDataProvider.getPermissionProvider());
     } catch (Exception e) {
       s_logger.error("Error creating next view cycle for view process " + getViewProcess(), e);
-      return;
     }
+    return preparedCycle;
+  }
 
-    if (_executeCycles) {
-      try {
-        final SingleComputationCycle singleComputationCycle = cycleReference.get();
-        final HashMap<String, Collection<ComputationTargetSpecification>> configToComputationTargets = new HashMap<String, Collection<ComputationTargetSpecification>>();
-        final HashMap<String, Map<ValueSpecification, Set<ValueRequirement>>> configToTerminalOutputs = new HashMap<String, Map<ValueSpecification, Set<ValueRequirement>>>();
-        for (DependencyGraph graph : compiledViewDefinition.getAllDependencyGraphs()) {
-          configToComputationTargets.put(graph.getCalculationConfigurationName(), graph.getAllComputationTargets());
-          configToTerminalOutputs.put(graph.getCalculationConfigurationName(), graph.getTerminalOutputs());
-        }
-        cycleStarted(new DefaultViewCycleMetadata(
-            cycleReference.get().getUniqueId(),
-            marketDataSnapshot.getUniqueId(),
-            compiledViewDefinition.getViewDefinition().getUniqueId(),
-            versionCorrection,
-            executionOptions.getValuationTime(),
-            singleComputationCycle.getAllCalculationConfigurationNames(),
-            configToComputationTargets,
-            configToTerminalOutputs));
-        executeViewCycle(cycleType, cycleReference, marketDataSnapshot, getViewProcess().getCalcJobResultExecutorService());
-      } catch (InterruptedException e) {
-        // Execution interrupted - don't propagate as failure
-        s_logger.info("View cycle execution interrupted for view process {}", getViewProcess());
-        cycleReference.release();
-        return;
-      } catch (Exception e) {
-        // Execution failed
-        s_logger.error("View cycle execution failed for view process " + getViewProcess(), e);
-        cycleReference.release();
-        cycleExecutionFailed(executionOptions, e);
-        return;
-      }
+  private ExecutorService getParallelCycleExecutor() {
+    if (_parallelCycleExecutor == null) {
+      // Cycles in the window and their result stream consumers run on this; the window bounds the number of threads
+      _parallelCycleExecutor = Executors.newCachedThreadPool(new NamedThreadPoolFactory("ParallelCycle-" + getViewProcess().getUniqueId()));
     }
+    return _parallelCycleExecutor;
+  }
 
-    // Don't push the results through if we've been terminated, since another computation job could be running already
-    // and the fact that we've been terminated means the view is no longer interested in the result. Just die quietly.
-    if (isTerminated()) {
-      cycleReference.release();
-      return;
+  /**
+   * A cycle which has been created, but not yet delivered, together with the state needed to execute and report it.
+   */
+  private static final class PreparedCycle {
+
+    private final ViewCycleExecutionOptions _executionOptions;
+    private Exception _failure;
+    private EngineResourceReference<SingleComputationCycle> _cycleReference;
+    private MarketDataSnapshot _marketDataSnapshot;
+    private CompiledViewDefinitionWithGraphsImpl _compiledViewDefinition;
+    private VersionCorrection _versionCorrection;
+    private MarketDataPermissionProvider _permissionProvider;
+    private Future<?> _execution;
+
+    private PreparedCycle(ViewCycleExecutionOptions executionOptions) {
+      _executionOptions = executionOptions;
     }
 
-    if (_executeCycles) {
-      cycleCompleted(cycleReference.get());
+    private ViewCycleExecutionOptions getExecutionOptions() {
+      return _executionOptions;
     }
 
-    if (getExecutionOptions().getExecutionSequence().isEmpty()) {
-      processCompleted();
+    private Exception getFailure() {
+      return _failure;
     }
 
-    if (_executeCycles) {
-      if (_previousCycleReference != null) {
-        _previousCycleReference.release();
+    private void setFailure(Exception failure) {
+      _failure = failure;
+    }
+
+    private EngineResourceReference<SingleComputationCycle> getCycleReference() {
+      return _cycleReference;
+    }
+
+    private MarketDataSnapshot getMarketDataSnapshot() {
+      return _marketDataSnapshot;
+    }
+
+    private CompiledViewDefinitionWithGraphsImpl getCompiledViewDefinition() {
+      return _compiledViewDefinition;
+    }
+
+    private MarketDataPermissionProvider getPermissionProvider() {
+      return _permissionProvider;
+    }
+
+    private Future<?> getExecution() {
+      return _execution;
+    }
+
+    private void setCycle(EngineResourceReference<SingleComputationCycle> cycleReference, MarketDataSnapshot marketDataSnapshot,
+        CompiledViewDefinitionWithGraphsImpl compiledViewDefinition, VersionCorrection versionCorrection, MarketDataPermissionProvider permissionProvider) {
+      _cycleReference = cycleReference;
+      _marketDataSnapshot = marketDataSnapshot;
+      _compiledViewDefinition = compiledViewDefinition;
+      _versionCorrection = versionCorrection;
+      _permissionProvider = permissionProvider;
+    }
+
+    private void submit(final ExecutorService executor) {
+      _execution = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          s_logger.info("Performing full computation for {}", _executionOptions);
+          getCycleReference().get().execute(null, getMarketDataSnapshot(), executor);
+          return null;
+        }
+      });
+    }
+
+    private void cancel() {
+      if (_execution != null) {
+        _execution.cancel(true);
       }
-      _previousCycleReference = cycleReference;
+      if (_cycleReference != null) {
+        _cycleReference.release();
+      }
+    }
+
+    private ViewCycleMetadata createMetadata() {
+      final SingleComputationCycle cycle = _cycleReference.get();
+      final HashMap<String, Collection<ComputationTargetSpecification>> configToComputationTargets = new HashMap<String, Collection<ComputationTargetSpecification>>();
+      final HashMap<String, Map<ValueSpecification, Set<ValueRequirement>>> configToTerminalOutputs = new HashMap<String, Map<ValueSpecification, Set<ValueRequirement>>>();
+      for (DependencyGraph graph : _compiledViewDefinition.getAllDependencyGraphs()) {
+        configToComputationTargets.put(graph.getCalculationConfigurationName(), graph.getAllComputationTargets());
+        configToTerminalOutputs.put(graph.getCalculationConfigurationName(), graph.getTerminalOutputs());
+      }
+      return new DefaultViewCycleMetadata(
+          cycle.getUniqueId(),
+          _marketDataSnapshot.getUniqueId(),
+          _compiledViewDefinition.getViewDefinition().getUniqueId(),
+          _versionCorrection,
+          _executionOptions.getValuationTime(),
+          cycle.getAllCalculationConfigurationNames(),
+          configToComputationTargets,
+          configToTerminalOutputs);
     }
+
   }
 
   private void cycleCompleted(ViewCycle cycle) {
@@ -370,8 +610,12 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
   }
 
   private void viewDefinitionCompiled(CompiledViewDefinitionWithGraphsImpl compiledViewDefinition) {
+    viewDefinitionCompiled(compiledViewDefinition, _marketDataProvider.getPermissionProvider());
+  }
+
+  private void viewDefinitionCompiled(CompiledViewDefinitionWithGraphsImpl compiledViewDefinition, MarketDataPermissionProvider permissionProvider) {
     try {
-      getViewProcess().viewDefinitionCompiled(compiledViewDefinition, _marketDataProvider.getPermissionProvider());
+      getViewProcess().viewDefinitionCompiled(compiledViewDefinition, permissionProvider);
     } catch (Exception vpe) {
       s_logger.error("Error notifying view process " + getViewProcess() + " of view definition compilation");
     }
@@ -397,6 +641,9 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       }
       if (cycleEligibility == ViewCycleEligibility.FORCE || cycleEligibility == ViewCycleEligibility.ELIGIBLE && _marketDataChanged) {
         _marketDataChanged = false;
+        _cycleTraceTimestamp = _pendingTraceTimestamp;
+        _pendingTraceTimestamp = LatencyTracer.NOT_TRACED;
+        LatencyTracer.getInstance().record(CYCLE_TRIGGERED_STAGE, _cycleTraceTimestamp);
         ViewCycleType cycleType = triggerResult.getCycleType();
         if (_previousCycleReference == null) {
           // Cannot do a delta if we have no previous cycle
@@ -471,7 +718,11 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
       throw e;
     }
 
-    long durationNanos = cycleReference.get().getDuration().toNanosLong();
+    recordCycleDuration(cycleReference.get());
+  }
+
+  private void recordCycleDuration(SingleComputationCycle cycle) {
+    long durationNanos = cycle.getDuration().toNanosLong();
     _totalTimeNanos += durationNanos;
     _cycleCount += 1;
     s_logger.info("Last latency was {} ms, Average latency is {} ms", durationNanos / NANOS_PER_MILLISECOND, (_totalTimeNanos / _cycleCount) / NANOS_PER_MILLISECOND);
@@ -479,6 +730,15 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
 
   @Override
   protected void postRunCycle() {
+    PreparedCycle preparedCycle = _parallelCycleWindow.poll();
+    while (preparedCycle != null) {
+      preparedCycle.cancel();
+      preparedCycle = _parallelCycleWindow.poll();
+    }
+    if (_parallelCycleExecutor != null) {
+      _parallelCycleExecutor.shutdownNow();
+      _parallelCycleExecutor = null;
+    }
     if (_previousCycleReference != null) {
       _previousCycleReference.release();
     }
@@ -537,6 +797,10 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
 
     s_logger.debug("Market Data changed");
     _marketDataChanged = true;
+    // A sampled tick is handed over by the market data provider; the cycle it triggers is traced
+    if (_pendingTraceTimestamp == LatencyTracer.NOT_TRACED) {
+      _pendingTraceTimestamp = LatencyTracer.getCurrentTrace();
+    }
     if (!_wakeOnMarketDataChanged) {
       return;
     }
@@ -545,7 +809,7 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
 
   //-------------------------------------------------------------------------
   private EngineResourceReference<SingleComputationCycle> createCycle(ViewCycleExecutionOptions executionOptions,
-      CompiledViewDefinitionWithGraphsImpl compiledViewDefinition, VersionCorrection versionCorrection) {
+      CompiledViewDefinitionWithGraphsImpl compiledViewDefinition, VersionCorrection versionCorrection, final boolean streamFragments) {
     // View definition was compiled based on compilation options, which might have only included an indicative
     // valuation time. A further check ensures that the compiled view definition is still valid.
     if (!compiledViewDefinition.isValidFor(executionOptions.getValuationTime())) {
@@ -556,7 +820,9 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
     ComputationResultListener streamingResultListener = new ComputationResultListener() {
       @Override
       public void resultAvailable(ViewComputationResultModel result) {
-        cycleFragmentCompleted(result);
+        if (streamFragments) {
+          cycleFragmentCompleted(result);
+        }
       }
     };
     SingleComputationCycle cycle = new SingleComputationCycle(cycleId, getViewProcess().getUniqueId(),
@@ -622,8 +888,12 @@ public class ViewComputationJob extends TerminatableJob implements MarketDataLis
     }
 
     // Notify the view that a (re)compilation has taken place before going on to do any time-consuming work.
-    // This might contain enough for clients to e.g. render an empty grid in which results will later appear. 
-    viewDefinitionCompiled(compiledViewDefinition);
+    // This might contain enough for clients to e.g. render an empty grid in which results will later appear. Cycles
+    // executing in parallel may still be running under the previous compilation, so the parallel path notifies the
+    // view when it delivers the first cycle compiled this way.
+    if (!_parallelCycles) {
+      viewDefinitionCompiled(compiledViewDefinition);
+    }
 
     // Update the market data subscriptions to whatever is now required, ensuring the computation cycle can find the
     // required input data when it is executed.
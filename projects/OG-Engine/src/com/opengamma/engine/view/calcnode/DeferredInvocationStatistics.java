@@ -17,6 +17,7 @@ import com.opengamma.engine.view.calcnode.stats.FunctionInvocationStatisticsGath
   private final FunctionInvocationStatisticsGatherer _gatherer;
   private final String _configuration;
   private String _functionIdentifier;
+  private int _invocationCount = 1;
   private long _invocationTime;
   private double _dataInputBytes;
   private int _dataOutputBytes;
@@ -37,6 +38,10 @@ import com.opengamma.engine.view.calcnode.stats.FunctionInvocationStatisticsGath
     _invocationTime = System.nanoTime() - _invocationTime;
   }
 
+  protected void setInvocationCount(final int invocationCount) {
+    _invocationCount = invocationCount;
+  }
+
   protected void setDataInputBytes(final int bytes, final int samples) {
     if (samples > 0) {
       _dataInputBytes = (double) bytes / (double) samples;
@@ -57,7 +62,7 @@ import com.opengamma.engine.view.calcnode.stats.FunctionInvocationStatisticsGath
     }
     _expectedDataOutputSamples--;
     if (_expectedDataOutputSamples == 0) {
-      _gatherer.functionInvoked(_configuration, _functionIdentifier, 1, _invocationTime, _dataInputBytes, (_dataOutputSamples > 0) ? _dataOutputBytes / _dataOutputSamples : Double.NaN);
+      _gatherer.functionInvoked(_configuration, _functionIdentifier, _invocationCount, _invocationTime, _dataInputBytes, (_dataOutputSamples > 0) ? _dataOutputBytes / _dataOutputSamples : Double.NaN);
     }
   }
 
@@ -8,6 +8,7 @@ package com.opengamma.engine.view.calcnode;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.fudgemsg.FudgeContext;
 import org.fudgemsg.FudgeMsg;
@@ -51,6 +52,8 @@ public class RemoteNodeClient extends SimpleCalculationNodeInvocationContainer i
   private final FunctionInvocationStatisticsSender _statistics;
   private boolean _started;
   private String _hostId;
+  private final AtomicLong _initTimestamp = new AtomicLong();
+  private volatile long _timeToFirstJob = -1;
   private final RemoteCalcNodeMessageVisitor _messageVisitor = new RemoteCalcNodeMessageVisitor() {
 
     @Override
@@ -74,6 +77,11 @@ public class RemoteNodeClient extends SimpleCalculationNodeInvocationContainer i
 
         @Override
         public void executionComplete(final CalculationJobResult result) {
+          final long initTimestamp = _initTimestamp.getAndSet(0);
+          if (initTimestamp != 0) {
+            _timeToFirstJob = (System.nanoTime() - initTimestamp) / 1000000;
+            s_logger.info("First job completed {}ms after initialization", _timeToFirstJob);
+          }
           AbstractIdentifierMap.convertIdentifiers(getIdentifierMap(), result);
           sendMessage(new Result(result));
         }
@@ -90,7 +98,14 @@ public class RemoteNodeClient extends SimpleCalculationNodeInvocationContainer i
     @Override
     protected void visitInitMessage(final Init message) {
       // Note that this may be called multiple times, e.g. after a reconnect.
-      getFunctionCompilationService().initialize(message.getFunctionInitId());
+      _timeToFirstJob = -1;
+      _initTimestamp.set(System.nanoTime());
+      if (message.getFunctionId() != null) {
+        // The view processor has told us which functions it initialized; trust those and initialize on demand
+        getFunctionCompilationService().initialize(message.getFunctionInitId(), message.getFunctionId());
+      } else {
+        getFunctionCompilationService().initialize(message.getFunctionInitId());
+      }
     }
 
     @Override
@@ -153,6 +168,15 @@ public class RemoteNodeClient extends SimpleCalculationNodeInvocationContainer i
     }
   }
 
+  /**
+   * Returns the time taken from receipt of the most recent initialization message to the completion of the first job.
+   * 
+   * @return the time in milliseconds, or -1 if no job has completed since initialization
+   */
+  public long getTimeToFirstJob() {
+    return _timeToFirstJob;
+  }
+
   protected FudgeConnection getConnection() {
     return _connection;
   }
@@ -19,7 +19,10 @@ import org.fudgemsg.mapping.FudgeDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.opengamma.engine.function.CompiledFunctionService;
 import com.opengamma.engine.function.FunctionCompilationContext;
+import com.opengamma.engine.function.FunctionDefinition;
+import com.opengamma.engine.function.FunctionRepository;
 import com.opengamma.engine.function.blacklist.DefaultFunctionBlacklistMaintainer;
 import com.opengamma.engine.function.blacklist.DefaultFunctionBlacklistQuery;
 import com.opengamma.engine.function.blacklist.DummyFunctionBlacklistMaintainer;
@@ -264,6 +267,7 @@ public class RemoteNodeServer implements FudgeConnectionReceiver {
   private Set<Capability> _capabilitiesToAdd;
   private FunctionBlacklistMaintainerProvider _blacklistUpdate;
   private FunctionBlacklistQueryProvider _blacklistQuery;
+  private CompiledFunctionService _functionCompilationService;
 
   public RemoteNodeServer(final JobInvokerRegister jobInvokerRegister, final IdentifierMap identifierMap,
       final FunctionCosts functionCosts, final FunctionCompilationContext functionCompilationContext) {
@@ -334,6 +338,42 @@ public class RemoteNodeServer implements FudgeConnectionReceiver {
     _blacklistQuery = provider;
   }
 
+  /**
+   * Returns the function compilation service used by the view processor.
+   * 
+   * @return the compilation service, null for none
+   */
+  public CompiledFunctionService getFunctionCompilationService() {
+    return _functionCompilationService;
+  }
+
+  /**
+   * Sets the function compilation service used by the view processor. If set, the identifiers of the functions it has
+   * initialized are sent to connecting nodes so that they can become ready without first initializing every function.
+   * 
+   * @param functionCompilationService the compilation service, null for none
+   */
+  public void setFunctionCompilationService(final CompiledFunctionService functionCompilationService) {
+    _functionCompilationService = functionCompilationService;
+  }
+
+  protected Collection<String> getInitializedFunctionIds() {
+    final CompiledFunctionService functionCompilationService = getFunctionCompilationService();
+    if (functionCompilationService == null) {
+      return null;
+    }
+    final FunctionRepository functions = functionCompilationService.getInitializedFunctionRepository();
+    if (functions == null) {
+      return null;
+    }
+    final Collection<FunctionDefinition> definitions = functions.getAllFunctions();
+    final Collection<String> functionIds = new ArrayList<String>(definitions.size());
+    for (FunctionDefinition definition : definitions) {
+      functionIds.add(definition.getUniqueId());
+    }
+    return functionIds;
+  }
+
   protected FunctionBlacklistQuery getBlacklistQuery(final String nodeId) {
     final FunctionBlacklistQueryProvider provider = getBlacklistQuery();
     if (provider != null) {
@@ -384,7 +424,7 @@ public class RemoteNodeServer implements FudgeConnectionReceiver {
         if (_capabilitiesToAdd != null) {
           invoker.addCapabilities(_capabilitiesToAdd);
         }
-        final Init init = new Init(getFunctionCompilationContext().getFunctionInitId());
+        final Init init = new Init(getFunctionCompilationContext().getFunctionInitId(), getInitializedFunctionIds());
         invoker.sendMessage(init);
         getJobInvokerRegister().registerJobInvoker(invoker);
       }
@@ -6,10 +6,12 @@
 package com.opengamma.engine.view.calcnode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
@@ -19,10 +21,14 @@ import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterators;
 import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.opengamma.engine.ComputationTarget;
 import com.opengamma.engine.ComputationTargetResolver;
+import com.opengamma.engine.function.BatchFunctionInvoker;
 import com.opengamma.engine.function.CompiledFunctionService;
 import com.opengamma.engine.function.FunctionExecutionContext;
 import com.opengamma.engine.function.FunctionInputs;
@@ -310,8 +316,22 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
    * @throws AsynchronousHandleExecution if the job is completing asynchronously
    */
   public CalculationJobResult executeJob(final CalculationJob job) throws AsynchronousHandleExecution, AsynchronousExecution {
+    return executeJob(job, null);
+  }
+
+  /**
+   * Invokes all of the items from a calculation job on this node, using input values that have already been fetched from the cache where possible. See {@link #executeJob(CalculationJob)} for the
+   * execution semantics.
+   * 
+   * @param job the job to execute
+   * @param prefetchedInputs input values already fetched from the shared cache, null if there are none
+   * @return the job result
+   * @throws AsynchronousHandleExecution if the job is completing asynchronously
+   */
+  public CalculationJobResult executeJob(final CalculationJob job, final Map<ValueSpecification, Object> prefetchedInputs) throws AsynchronousHandleExecution, AsynchronousExecution {
     s_logger.info("Executing {} on {}", job, _nodeId);
     setJob(job);
+    setPrefetchedInputs(prefetchedInputs);
     final CalculationJobSpecification spec = job.getSpecification();
     getFunctionExecutionContext().setViewProcessorQuery(new ViewProcessorQuery(getViewProcessorQuerySender(), spec));
     getFunctionExecutionContext().setValuationTime(spec.getValuationTime());
@@ -351,7 +371,58 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
     return CalculationJobResultItem.failure(t);
   }
 
-  private List<CalculationJobResultItem> executeJobItems(final Iterator<CalculationJobItem> jobItemItr, final List<CalculationJobResultItem> resultItems) throws AsynchronousHandleExecution {
+  private FunctionInvoker getInvoker(final String functionUniqueId) {
+    if (!getFunctionCompilationService().ensureInitialized(functionUniqueId)) {
+      return null;
+    }
+    return getFunctions().getInvoker(functionUniqueId);
+  }
+
+  /**
+   * Takes a batch of job items from the iterator that can be passed to a {@link BatchFunctionInvoker} together with the given item. Items in a batch must be for the same function with the same
+   * parameters and must not consume the outputs of any earlier item in the batch as all of the inputs are fetched before the invocation.
+   * 
+   * @param jobItem the first item of the batch, already taken from the iterator
+   * @param invoker the invoker for the item
+   * @param jobItemItr the remaining items
+   * @return the batch of items, or null if the item should be invoked on its own
+   */
+  private List<CalculationJobItem> nextBatch(final CalculationJobItem jobItem, final FunctionInvoker invoker, final PeekingIterator<CalculationJobItem> jobItemItr) {
+    if (!(invoker instanceof BatchFunctionInvoker) || !jobItemItr.hasNext()) {
+      return null;
+    }
+    List<CalculationJobItem> batch = null;
+    Set<ValueSpecification> batchOutputs = null;
+    while (jobItemItr.hasNext()) {
+      final CalculationJobItem nextItem = jobItemItr.peek();
+      if (!jobItem.getFunctionUniqueIdentifier().equals(nextItem.getFunctionUniqueIdentifier())) {
+        break;
+      }
+      if ((jobItem.getFunctionParameters() != nextItem.getFunctionParameters())
+          && ((jobItem.getFunctionParameters() == null) || !jobItem.getFunctionParameters().equals(nextItem.getFunctionParameters()))) {
+        break;
+      }
+      if (batch == null) {
+        batchOutputs = new HashSet<ValueSpecification>(jobItem.getOutputs());
+      }
+      if (!Collections.disjoint(batchOutputs, nextItem.getInputs())) {
+        break;
+      }
+      if (getFunctionBlacklistQuery().isBlacklisted(nextItem)) {
+        break;
+      }
+      if (batch == null) {
+        batch = new ArrayList<CalculationJobItem>();
+        batch.add(jobItem);
+      }
+      batch.add(nextItem);
+      batchOutputs.addAll(nextItem.getOutputs());
+      jobItemItr.next();
+    }
+    return batch;
+  }
+
+  private List<CalculationJobResultItem> executeJobItems(final PeekingIterator<CalculationJobItem> jobItemItr, final List<CalculationJobResultItem> resultItems) throws AsynchronousHandleExecution {
     while (jobItemItr.hasNext()) {
       if (getJob().isCancelled()) {
         return null;
@@ -362,6 +433,17 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
       if (getFunctionBlacklistQuery().isBlacklisted(jobItem)) {
         resultItem = invocationBlacklisted(jobItem);
       } else {
+        final FunctionInvoker invoker = getInvoker(jobItem.getFunctionUniqueIdentifier());
+        final List<CalculationJobItem> batch = nextBatch(jobItem, invoker, jobItemItr);
+        if (batch != null) {
+          getMaxJobItemExecution().jobExecutionStarted(jobItem);
+          try {
+            resultItems.addAll(invokeBatch(batch, (BatchFunctionInvoker) invoker));
+          } finally {
+            getMaxJobItemExecution().jobExecutionStopped();
+          }
+          continue;
+        }
         getMaxJobItemExecution().jobExecutionStarted(jobItem);
         try {
           resultItem = invoke(jobItem, new DeferredInvocationStatistics(getFunctionInvocationStatistics(), getConfiguration()));
@@ -400,7 +482,7 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
   }
 
   private List<CalculationJobResultItem> executeJobItems() throws AsynchronousHandleExecution {
-    return executeJobItems(getJob().getJobItems().iterator(), new ArrayList<CalculationJobResultItem>());
+    return executeJobItems(Iterators.peekingIterator(getJob().getJobItems().iterator()), new ArrayList<CalculationJobResultItem>());
   }
 
   private DeferredViewComputationCache getDeferredViewComputationCache(final ViewComputationCache cache) {
@@ -463,6 +545,36 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
     return itemResult;
   }
 
+  /**
+   * Fetches input values, taking them from any prefetched values before going to the cache.
+   * 
+   * @param inputs the values to fetch
+   * @return the values, with null for anything not in the cache
+   */
+  private Collection<Pair<ValueSpecification, Object>> getInputValues(final Collection<ValueSpecification> inputs) {
+    final Map<ValueSpecification, Object> prefetched = getPrefetchedInputs();
+    if (prefetched == null) {
+      return getCache().getValues(inputs, getJob().getCacheSelectHint());
+    }
+    final List<Pair<ValueSpecification, Object>> values = new ArrayList<Pair<ValueSpecification, Object>>(inputs.size());
+    List<ValueSpecification> remaining = null;
+    for (ValueSpecification input : inputs) {
+      final Object value = prefetched.get(input);
+      if (value != null) {
+        values.add(Pair.of(input, value));
+      } else {
+        if (remaining == null) {
+          remaining = new ArrayList<ValueSpecification>(inputs.size());
+        }
+        remaining.add(input);
+      }
+    }
+    if (remaining != null) {
+      values.addAll(getCache().getValues(remaining, getJob().getCacheSelectHint()));
+    }
+    return values;
+  }
+
   private CalculationJobResultItem invoke(final CalculationJobItem jobItem, final DeferredInvocationStatistics statistics) throws AsynchronousExecution {
     final String functionUniqueId = jobItem.getFunctionUniqueIdentifier();
     Future<ComputationTarget> targetFuture = null;
@@ -480,7 +592,7 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
         return CalculationJobResultItem.failure(ERROR_CANT_RESOLVE, "Unable to resolve target " + jobItem.getComputationTargetSpecification());
       }
     }
-    final FunctionInvoker invoker = getFunctions().getInvoker(functionUniqueId);
+    final FunctionInvoker invoker = getInvoker(functionUniqueId);
     if (invoker == null) {
       return CalculationJobResultItem.failure(ERROR_BAD_FUNCTION, "Unable to locate " + functionUniqueId + " in function repository");
     }
@@ -492,7 +604,7 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
     int inputBytes = 0;
     int inputSamples = 0;
     final DeferredViewComputationCache cache = getCache();
-    for (Pair<ValueSpecification, Object> input : cache.getValues(jobItem.getInputs(), getJob().getCacheSelectHint())) {
+    for (Pair<ValueSpecification, Object> input : getInputValues(jobItem.getInputs())) {
       if ((input.getValue() == null) || (input.getValue() instanceof MissingInput)) {
         missing.add(input.getKey());
       } else {
@@ -569,4 +681,147 @@ public class SimpleCalculationNode extends SimpleCalculationNodeState implements
       return itemResult.withFailure(t);
     }
   }
+
+  /**
+   * Invokes a batch of job items through a single call to a {@link BatchFunctionInvoker}. The inputs for all of the items are fetched from the cache in one operation and all of the outputs written
+   * in one operation.
+   * 
+   * @param jobItems the items to invoke, all for the same function and parameters
+   * @param invoker the batch invoker
+   * @return the result items, in the same order as the job items
+   */
+  private List<CalculationJobResultItem> invokeBatch(final List<CalculationJobItem> jobItems, final BatchFunctionInvoker invoker) {
+    final String functionUniqueId = jobItems.get(0).getFunctionUniqueIdentifier();
+    final int count = jobItems.size();
+    final CalculationJobResultItem[] resultItems = new CalculationJobResultItem[count];
+    final DeferredViewComputationCache cache = getCache();
+    // fetch inputs in bulk
+    final Set<ValueSpecification> inputSpecifications = new HashSet<ValueSpecification>();
+    for (CalculationJobItem jobItem : jobItems) {
+      inputSpecifications.addAll(jobItem.getInputs());
+    }
+    final Map<ValueSpecification, ComputedValue> inputValues = Maps.newHashMapWithExpectedSize(inputSpecifications.size());
+    int inputBytes = 0;
+    int inputSamples = 0;
+    for (Pair<ValueSpecification, Object> input : getInputValues(inputSpecifications)) {
+      if ((input.getValue() != null) && !(input.getValue() instanceof MissingInput)) {
+        final ComputedValue value = new ComputedValue(input.getKey(), input.getValue());
+        inputValues.put(input.getKey(), value);
+        final Integer bytes = cache.estimateValueSize(value);
+        if (bytes != null) {
+          inputBytes += bytes;
+          inputSamples++;
+        }
+      }
+    }
+    // assemble the invocations
+    final List<Integer> batchIndices = new ArrayList<Integer>(count);
+    final List<FunctionInputs> batchInputs = new ArrayList<FunctionInputs>(count);
+    final List<ComputationTarget> batchTargets = new ArrayList<ComputationTarget>(count);
+    final List<Set<ValueRequirement>> batchDesiredValues = new ArrayList<Set<ValueRequirement>>(count);
+    for (int i = 0; i < count; i++) {
+      final CalculationJobItem jobItem = jobItems.get(i);
+      final ComputationTarget target = LazyComputationTargetResolver.resolve(getTargetResolver(), jobItem.getComputationTargetSpecification());
+      if (target == null) {
+        resultItems[i] = CalculationJobResultItem.failure(ERROR_CANT_RESOLVE, "Unable to resolve target " + jobItem.getComputationTargetSpecification());
+        continue;
+      }
+      final Collection<ComputedValue> inputs = new HashSet<ComputedValue>();
+      final Set<ValueSpecification> missing = new HashSet<ValueSpecification>();
+      for (ValueSpecification inputSpecification : jobItem.getInputs()) {
+        final ComputedValue value = inputValues.get(inputSpecification);
+        if (value != null) {
+          inputs.add(value);
+        } else {
+          missing.add(inputSpecification);
+        }
+      }
+      if (missing.isEmpty()) {
+        resultItems[i] = CalculationJobResultItem.success();
+      } else {
+        if (invoker.canHandleMissingInputs()) {
+          s_logger.debug("Executing even with missing inputs {}", missing);
+          resultItems[i] = CalculationJobResultItem.partialInputs(new HashSet<ValueSpecification>(missing));
+        } else {
+          s_logger.info("Not able to execute as missing inputs {}", missing);
+          postEvaluationErrors(jobItem.getOutputs(), NotCalculatedSentinel.MISSING_INPUTS);
+          resultItems[i] = CalculationJobResultItem.missingInputs(missing);
+          continue;
+        }
+      }
+      batchIndices.add(i);
+      batchInputs.add(new FunctionInputsImpl(inputs, missing));
+      batchTargets.add(target);
+      batchDesiredValues.add(plat2290(jobItem.getOutputs()));
+    }
+    if (batchIndices.isEmpty()) {
+      return Arrays.asList(resultItems);
+    }
+    // execute
+    getFunctionExecutionContext().setFunctionParameters(jobItems.get(0).getFunctionParameters());
+    final DeferredInvocationStatistics statistics = new DeferredInvocationStatistics(getFunctionInvocationStatistics(), getConfiguration());
+    statistics.setDataInputBytes(inputBytes, inputSamples);
+    statistics.beginInvocation(functionUniqueId);
+    List<Set<ComputedValue>> batchResults;
+    try {
+      batchResults = invoker.executeBatch(getFunctionExecutionContext(), batchInputs, batchTargets, batchDesiredValues);
+      if ((batchResults != null) && (batchResults.size() != batchIndices.size())) {
+        throw new IllegalStateException("Invoker " + invoker + " returned " + batchResults.size() + " results for " + batchIndices.size() + " targets");
+      }
+    } catch (FunctionBlacklistedException e) {
+      for (Integer index : batchIndices) {
+        resultItems[index] = invocationBlacklisted(jobItems.get(index));
+      }
+      return Arrays.asList(resultItems);
+    } catch (Throwable t) {
+      s_logger.warn("Batch invocation of {} failed, invoking {} items individually: {}", new Object[] {functionUniqueId, batchIndices.size(), t.getMessage() });
+      s_logger.debug("Caught exception", t);
+      for (Integer index : batchIndices) {
+        final CalculationJobItem jobItem = jobItems.get(index);
+        try {
+          resultItems[index] = invoke(jobItem, new DeferredInvocationStatistics(getFunctionInvocationStatistics(), getConfiguration()));
+        } catch (AsynchronousExecution e) {
+          resultItems[index] = AsynchronousOperation.getResult(e);
+        } catch (Throwable t2) {
+          resultItems[index] = invocationFailure(t2, jobItem);
+        }
+      }
+      return Arrays.asList(resultItems);
+    }
+    statistics.endInvocation();
+    // store results in bulk
+    final Collection<ComputedValue> results = new ArrayList<ComputedValue>();
+    final Set<ValueSpecification> missing = new HashSet<ValueSpecification>();
+    for (int i = 0; i < batchIndices.size(); i++) {
+      final int index = batchIndices.get(i);
+      final Set<ValueSpecification> outputs = jobItems.get(index).getOutputs();
+      final Set<ComputedValue> itemResults = (batchResults != null) ? batchResults.get(i) : null;
+      if (itemResults == null) {
+        for (ValueSpecification output : outputs) {
+          results.add(new ComputedValue(output, NotCalculatedSentinel.EVALUATION_ERROR));
+        }
+        resultItems[index] = resultItems[index].withFailure(ERROR_INVOKING, "No results returned by invoker " + invoker);
+        continue;
+      }
+      missing.clear();
+      missing.addAll(outputs);
+      for (ComputedValue result : itemResults) {
+        if (!missing.remove(result.getSpecification())) {
+          s_logger.debug("Function produced non-requested result {}", result.getSpecification());
+        }
+        results.add(result);
+      }
+      if (!missing.isEmpty()) {
+        for (ValueSpecification output : missing) {
+          results.add(new ComputedValue(output, NotCalculatedSentinel.EVALUATION_ERROR));
+        }
+        resultItems[index] = resultItems[index].withMissingOutputs(new HashSet<ValueSpecification>(missing));
+      }
+    }
+    statistics.setInvocationCount(batchIndices.size());
+    statistics.setExpectedDataOutputSamples(results.size());
+    cache.putValues(results, getJob().getCacheSelectHint(), statistics);
+    return Arrays.asList(resultItems);
+  }
+
 }
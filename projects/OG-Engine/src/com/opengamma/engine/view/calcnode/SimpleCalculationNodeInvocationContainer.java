@@ -11,17 +11,27 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Maps;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.cache.CacheSelectHint;
+import com.opengamma.engine.view.cache.ViewComputationCache;
+import com.opengamma.engine.view.cache.ViewComputationCacheSource;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.async.AsynchronousExecution;
 import com.opengamma.util.async.AsynchronousHandle;
@@ -32,6 +42,10 @@ import com.opengamma.util.tuple.Pair;
 
 /**
  * Base class for objects that manage a set of AbstractCalculationNodes with the intention of invoking job executions on them.
+ * <p>
+ * Job execution is staged. Jobs that are runnable but waiting for a node have their shared inputs fetched by a separate prefetch pool while the nodes are busy computing, the computation
+ * runs on a pool that can be bounded with {@link #setMaxComputeThreads} and, if the nodes use a write-behind cache, results are written back asynchronously. The depth of each stage is available for
+ * monitoring.
  */
 public abstract class SimpleCalculationNodeInvocationContainer {
 
@@ -45,6 +59,11 @@ public abstract class SimpleCalculationNodeInvocationContainer {
    */
   private static final long FAILURE_RETENTION = 5L * 60L * 100000000L; // 5m
 
+  /**
+   * The default bound on the number of compute threads.
+   */
+  private static final int DEFAULT_MAX_COMPUTE_THREADS = Runtime.getRuntime().availableProcessors();
+
   private static final Logger s_logger = LoggerFactory.getLogger(SimpleCalculationNodeInvocationContainer.class);
 
   /**
@@ -64,6 +83,8 @@ public abstract class SimpleCalculationNodeInvocationContainer {
     private final JobExecution _execution;
     private ExecutionReceiver _receiver;
     private AtomicInteger _blockCount;
+    private volatile boolean _started;
+    private volatile Future<Map<ValueSpecification, Object>> _prefetch;
 
     public JobEntry(final CalculationJob job, final JobExecution execution, final ExecutionReceiver receiver) {
       _job = job;
@@ -109,6 +130,34 @@ public abstract class SimpleCalculationNodeInvocationContainer {
       _receiver = null;
     }
 
+    public boolean isStarted() {
+      return _started;
+    }
+
+    public void setPrefetch(final Future<Map<ValueSpecification, Object>> prefetch) {
+      _prefetch = prefetch;
+    }
+
+    /**
+     * Marks the job as started and returns any inputs that have been prefetched for it. A prefetch that has not completed is abandoned rather than waited for; the node will fetch the values itself.
+     * 
+     * @return the prefetched input values, null if none are available
+     */
+    public Map<ValueSpecification, Object> startAndGetPrefetched() {
+      _started = true;
+      final Future<Map<ValueSpecification, Object>> prefetch = _prefetch;
+      if ((prefetch == null) || !prefetch.isDone()) {
+        return null;
+      }
+      _prefetch = null;
+      try {
+        return prefetch.get();
+      } catch (Exception e) {
+        s_logger.warn("Input prefetch for job {} failed: {}", getExecution().getJobId(), e.getMessage());
+        return null;
+      }
+    }
+
     @Override
     public int hashCode() {
       return getJob().hashCode();
@@ -252,14 +301,71 @@ public abstract class SimpleCalculationNodeInvocationContainer {
    */
   private final Queue<PartialJobEntry> _partialJobs = new ConcurrentLinkedQueue<PartialJobEntry>();
 
-  private final ExecutorService _executorService = Executors.newCachedThreadPool();
+  /**
+   * The pool used to execute jobs on the nodes. Bounded to the number of processors unless {@link #setMaxComputeThreads} is used.
+   */
+  private volatile ThreadPoolExecutor _executorService = createExecutorService(DEFAULT_MAX_COMPUTE_THREADS);
+
+  /**
+   * The bound on the number of compute threads, zero if unbounded.
+   */
+  private volatile int _maxComputeThreads = DEFAULT_MAX_COMPUTE_THREADS;
+
+  /**
+   * The pool used to prefetch the inputs of runnable jobs, null if prefetching is disabled.
+   */
+  private volatile ExecutorService _prefetchExecutorService = createExecutorService(1);
+
+  /**
+   * The number of threads in the prefetch pool.
+   */
+  private volatile int _prefetchThreads = 1;
+
+  /**
+   * The cache source used to prefetch inputs. This is taken from the nodes added to the container.
+   */
+  private volatile ViewComputationCacheSource _prefetchCacheSource;
+
+  /**
+   * The number of jobs waiting for, or having, their inputs prefetched.
+   */
+  private final AtomicInteger _prefetchQueueDepth = new AtomicInteger();
+
+  /**
+   * The number of jobs that have executed but are still writing their results back to the value cache.
+   */
+  private final AtomicInteger _writeBackQueueDepth = new AtomicInteger();
+
+  private static ThreadPoolExecutor createExecutorService(final int threads) {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ThreadPoolExecutor createUnboundedExecutorService() {
+    // Equivalent to Executors.newCachedThreadPool; the number of nodes limits the threads in use
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+  }
 
   protected Queue<SimpleCalculationNode> getNodes() {
     return _nodes;
   }
 
+  private void setPrefetchCacheSource(final SimpleCalculationNode node) {
+    if (_prefetchCacheSource == null) {
+      _prefetchCacheSource = node.getCacheSource();
+    }
+  }
+
+  private void setPrefetchCacheSource(final Collection<SimpleCalculationNode> nodes) {
+    if (!nodes.isEmpty()) {
+      setPrefetchCacheSource(nodes.iterator().next());
+    }
+  }
+
   public void addNode(final SimpleCalculationNode node) {
     ArgumentChecker.notNull(node, "node");
+    setPrefetchCacheSource(node);
     _nodeCount.incrementAndGet();
     getNodes().add(node);
     onNodeChange();
@@ -267,6 +373,7 @@ public abstract class SimpleCalculationNodeInvocationContainer {
 
   public void addNodes(final Collection<SimpleCalculationNode> nodes) {
     ArgumentChecker.notNull(nodes, "nodes");
+    setPrefetchCacheSource(nodes);
     _nodeCount.addAndGet(nodes.size());
     getNodes().addAll(nodes);
     onNodeChange();
@@ -274,6 +381,8 @@ public abstract class SimpleCalculationNodeInvocationContainer {
 
   public void setNode(final SimpleCalculationNode node) {
     ArgumentChecker.notNull(node, "node");
+    _prefetchCacheSource = null;
+    setPrefetchCacheSource(node);
     getNodes().clear();
     _nodeCount.set(1);
     getNodes().add(node);
@@ -282,6 +391,8 @@ public abstract class SimpleCalculationNodeInvocationContainer {
 
   public void setNodes(final Collection<SimpleCalculationNode> nodes) {
     ArgumentChecker.notNull(nodes, "nodes");
+    _prefetchCacheSource = null;
+    setPrefetchCacheSource(nodes);
     getNodes().clear();
     _nodeCount.set(nodes.size());
     getNodes().addAll(nodes);
@@ -348,6 +459,84 @@ public abstract class SimpleCalculationNodeInvocationContainer {
     return _partialJobs.size();
   }
 
+  /**
+   * Returns the number of jobs that are queued for, or currently having, their inputs prefetched.
+   * 
+   * @return the number of jobs
+   */
+  public int getPrefetchQueueDepth() {
+    return _prefetchQueueDepth.get();
+  }
+
+  /**
+   * Returns the number of node executions that are queued for a compute thread. Executions are queued when there are more nodes available than compute threads.
+   * 
+   * @return the number of queued executions
+   */
+  public int getComputeQueueDepth() {
+    return _executorService.getQueue().size();
+  }
+
+  /**
+   * Returns the number of jobs that have executed but are still writing their results back to the value cache.
+   * 
+   * @return the number of jobs
+   */
+  public int getWriteBackQueueDepth() {
+    return _writeBackQueueDepth.get();
+  }
+
+  /**
+   * Sets the maximum number of threads used to execute jobs on the nodes. By default the pool is bounded to the number of available processors. A bound smaller than the number of nodes queues
+   * node executions, which is reported by {@link #getComputeQueueDepth}. An unbounded pool starts a thread for each node that is busy, leaving the number of nodes to limit the work that can run.
+   * Executions already started on the previous pool are allowed to complete.
+   * 
+   * @param threads the number of threads, zero for an unbounded pool
+   */
+  public synchronized void setMaxComputeThreads(final int threads) {
+    ArgumentChecker.notNegative(threads, "threads");
+    if (threads == _maxComputeThreads) {
+      return;
+    }
+    final ExecutorService previous = _executorService;
+    _executorService = (threads > 0) ? createExecutorService(threads) : createUnboundedExecutorService();
+    _maxComputeThreads = threads;
+    previous.shutdown();
+  }
+
+  /**
+   * Returns the maximum number of threads used to execute jobs on the nodes.
+   * 
+   * @return the number of threads, zero if the pool is unbounded
+   */
+  public int getMaxComputeThreads() {
+    return _maxComputeThreads;
+  }
+
+  /**
+   * Sets the number of threads used to prefetch the inputs of jobs waiting for a node. Zero disables prefetching.
+   * 
+   * @param threads the number of threads, zero or more
+   */
+  public synchronized void setPrefetchThreads(final int threads) {
+    ArgumentChecker.notNegative(threads, "threads");
+    final ExecutorService previous = _prefetchExecutorService;
+    _prefetchExecutorService = (threads > 0) ? createExecutorService(threads) : null;
+    _prefetchThreads = threads;
+    if (previous != null) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of threads used to prefetch the inputs of jobs waiting for a node.
+   * 
+   * @return the number of threads, zero if prefetching is disabled
+   */
+  public int getPrefetchThreads() {
+    return _prefetchThreads;
+  }
+
   protected abstract void onNodeChange();
 
   protected void onJobExecutionComplete() {
@@ -383,9 +572,12 @@ public abstract class SimpleCalculationNodeInvocationContainer {
           if (node == null) {
             s_logger.debug("Adding job {} to runnable queue", jobexec.getJob().getSpecification().getJobId());
             _runnableJobs.add(jobexec);
-            return;
           }
         }
+        if (node == null) {
+          prefetchInputs(jobexec);
+          return;
+        }
       }
     }
     s_logger.debug("Spawning execution of job {}", jobexec.getJob().getSpecification().getJobId());
@@ -398,6 +590,58 @@ public abstract class SimpleCalculationNodeInvocationContainer {
     });
   }
 
+  /**
+   * Fetches the shared inputs of a job that is waiting for a node so that they are available without further I/O when it starts. Only shared values are fetched as the private values are local.
+   * Fetches of a single value are not made as a miss would be recorded by a caching remote store and hide a value written later.
+   * 
+   * @param jobexec the job to prefetch inputs for
+   */
+  private void prefetchInputs(final JobEntry jobexec) {
+    final ExecutorService executor = _prefetchExecutorService;
+    final ViewComputationCacheSource cacheSource = _prefetchCacheSource;
+    if ((executor == null) || (cacheSource == null)) {
+      return;
+    }
+    final CalculationJob job = jobexec.getJob();
+    final Set<ValueSpecification> outputs = new HashSet<ValueSpecification>();
+    final Set<ValueSpecification> inputs = new HashSet<ValueSpecification>();
+    for (CalculationJobItem item : job.getJobItems()) {
+      for (ValueSpecification input : item.getInputs()) {
+        if (!outputs.contains(input) && !job.getCacheSelectHint().isPrivateValue(input)) {
+          inputs.add(input);
+        }
+      }
+      outputs.addAll(item.getOutputs());
+    }
+    if (inputs.size() < 2) {
+      return;
+    }
+    _prefetchQueueDepth.incrementAndGet();
+    jobexec.setPrefetch(executor.submit(new Callable<Map<ValueSpecification, Object>>() {
+      @Override
+      public Map<ValueSpecification, Object> call() {
+        try {
+          if (jobexec.isStarted()) {
+            s_logger.debug("Job {} started before its inputs were prefetched", job.getSpecification().getJobId());
+            return null;
+          }
+          final CalculationJobSpecification spec = job.getSpecification();
+          final ViewComputationCache cache = cacheSource.getCache(spec.getViewCycleId(), spec.getCalcConfigName());
+          final Map<ValueSpecification, Object> values = Maps.newHashMapWithExpectedSize(inputs.size());
+          for (Pair<ValueSpecification, Object> value : cache.getValues(inputs, CacheSelectHint.allShared())) {
+            if (value.getValue() != null) {
+              values.put(value.getKey(), value.getValue());
+            }
+          }
+          s_logger.debug("Prefetched {} of {} inputs for job {}", new Object[] {values.size(), inputs.size(), spec.getJobId() });
+          return values;
+        } finally {
+          _prefetchQueueDepth.decrementAndGet();
+        }
+      }
+    }));
+  }
+
   private void spawnOrQueueJob(final PartialJobEntry jobexec) {
     SimpleCalculationNode node = getNodes().poll();
     if (node == null) {
@@ -585,7 +829,7 @@ public abstract class SimpleCalculationNodeInvocationContainer {
       if (job.getExecution().threadBusy(job.getJob())) {
         try {
           if (resumeJob == null) {
-            result = node.executeJob(job.getJob());
+            result = node.executeJob(job.getJob(), job.startAndGetPrefetched());
           } else {
             node.restoreState(resumeJob.getNodeState());
             result = resumeJob.getHandle().getResult().get();
@@ -611,9 +855,11 @@ public abstract class SimpleCalculationNodeInvocationContainer {
           threadFree(job.getExecution());
           succeedExecution(job.getExecution());
           final JobEntry originalJob = job;
+          _writeBackQueueDepth.incrementAndGet();
           e.setResultListener(new ResultListener<CalculationJobResult>() {
             @Override
             public void operationComplete(final AsynchronousResult<CalculationJobResult> aresult) {
+              _writeBackQueueDepth.decrementAndGet();
               final CalculationJobResult result;
               try {
                 result = aresult.getResult();
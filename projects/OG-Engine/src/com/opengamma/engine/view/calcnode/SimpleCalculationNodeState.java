@@ -5,8 +5,11 @@
  */
 package com.opengamma.engine.view.calcnode;
 
+import java.util.Map;
+
 import com.opengamma.engine.function.CompiledFunctionRepository;
 import com.opengamma.engine.function.FunctionExecutionContext;
+import com.opengamma.engine.value.ValueSpecification;
 import com.opengamma.engine.view.cache.DeferredViewComputationCache;
 
 /**
@@ -20,6 +23,7 @@ import com.opengamma.engine.view.cache.DeferredViewComputationCache;
   private DeferredViewComputationCache _cache;
   private String _calculationConfiguration;
   private long _executionTime;
+  private Map<ValueSpecification, Object> _prefetchedInputs;
 
   private SimpleCalculationNodeState(final SimpleCalculationNodeState copyFrom) {
     restoreState(copyFrom);
@@ -42,6 +46,7 @@ import com.opengamma.engine.view.cache.DeferredViewComputationCache;
     setCache(state.getCache());
     setConfiguration(state.getConfiguration());
     setExecutionStartTime(state.getExecutionStartTime());
+    setPrefetchedInputs(state.getPrefetchedInputs());
   }
 
   protected void setFunctionExecutionContext(FunctionExecutionContext functionExecutionContext) {
@@ -92,4 +97,12 @@ import com.opengamma.engine.view.cache.DeferredViewComputationCache;
     _executionTime = executionTime;
   }
 
+  protected Map<ValueSpecification, Object> getPrefetchedInputs() {
+    return _prefetchedInputs;
+  }
+
+  protected void setPrefetchedInputs(final Map<ValueSpecification, Object> prefetchedInputs) {
+    _prefetchedInputs = prefetchedInputs;
+  }
+
 }
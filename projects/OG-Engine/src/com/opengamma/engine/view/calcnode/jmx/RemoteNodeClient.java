@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calcnode.jmx;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import com.opengamma.engine.view.calcnode.SimpleCalculationNodeFactory;
+
+/**
+ * JMX exposure of a remote node client.
+ */
+public class RemoteNodeClient extends SimpleCalculationNodeInvocationContainer<com.opengamma.engine.view.calcnode.RemoteNodeClient> implements RemoteNodeClientMBean {
+
+  protected RemoteNodeClient(final com.opengamma.engine.view.calcnode.RemoteNodeClient client, final SimpleCalculationNodeFactory nodeFactory) {
+    super(client, nodeFactory);
+  }
+
+  public static void registerMBeans(final com.opengamma.engine.view.calcnode.RemoteNodeClient client, final SimpleCalculationNodeFactory nodeFactory,
+      final MBeanServer server) throws JMException {
+    new RemoteNodeClient(client, nodeFactory).registerMBean(server);
+  }
+
+  @Override
+  public long getTimeToFirstJob() {
+    return getContainer().getTimeToFirstJob();
+  }
+
+}
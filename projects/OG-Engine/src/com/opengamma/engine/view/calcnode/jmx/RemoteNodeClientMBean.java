@@ -0,0 +1,20 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calcnode.jmx;
+
+/**
+ * JMX exposure of a {@link RemoteNodeClient}.
+ */
+public interface RemoteNodeClientMBean extends SimpleCalculationNodeInvocationContainerMBean {
+
+  /**
+   * Returns the time taken from receipt of the most recent initialization message to the completion of the first job.
+   * 
+   * @return the time in milliseconds, or -1 if no job has completed since initialization
+   */
+  long getTimeToFirstJob();
+
+}
@@ -83,6 +83,41 @@ public class SimpleCalculationNodeInvocationContainer<T extends com.opengamma.en
     return getContainer().getPartialJobCount();
   }
 
+  @Override
+  public int getPrefetchQueueDepth() {
+    return getContainer().getPrefetchQueueDepth();
+  }
+
+  @Override
+  public int getComputeQueueDepth() {
+    return getContainer().getComputeQueueDepth();
+  }
+
+  @Override
+  public int getWriteBackQueueDepth() {
+    return getContainer().getWriteBackQueueDepth();
+  }
+
+  @Override
+  public int getMaxComputeThreads() {
+    return getContainer().getMaxComputeThreads();
+  }
+
+  @Override
+  public void setMaxComputeThreads(final int threads) {
+    getContainer().setMaxComputeThreads(threads);
+  }
+
+  @Override
+  public int getPrefetchThreads() {
+    return getContainer().getPrefetchThreads();
+  }
+
+  @Override
+  public void setPrefetchThreads(final int threads) {
+    getContainer().setPrefetchThreads(threads);
+  }
+
   @Override
   public String removeNode() {
     for (int i = 10; i > 0; i--) {
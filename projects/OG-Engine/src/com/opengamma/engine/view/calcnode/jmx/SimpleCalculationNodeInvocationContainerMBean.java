@@ -10,4 +10,53 @@ package com.opengamma.engine.view.calcnode.jmx;
  */
 public interface SimpleCalculationNodeInvocationContainerMBean extends CalculationNodesMBean {
 
+  /**
+   * Returns the number of jobs queued for, or currently having, their inputs prefetched.
+   * 
+   * @return the prefetch stage queue depth
+   */
+  int getPrefetchQueueDepth();
+
+  /**
+   * Returns the number of node executions waiting for a compute thread.
+   * 
+   * @return the compute stage queue depth
+   */
+  int getComputeQueueDepth();
+
+  /**
+   * Returns the number of executed jobs still writing their results to the value cache.
+   * 
+   * @return the write-back stage queue depth
+   */
+  int getWriteBackQueueDepth();
+
+  /**
+   * Returns the maximum number of threads used to execute jobs on the nodes.
+   * 
+   * @return the number of threads, zero if unbounded
+   */
+  int getMaxComputeThreads();
+
+  /**
+   * Sets the maximum number of threads used to execute jobs on the nodes.
+   * 
+   * @param threads the number of threads, zero for unbounded
+   */
+  void setMaxComputeThreads(int threads);
+
+  /**
+   * Returns the number of threads used to prefetch the inputs of jobs waiting for a node.
+   * 
+   * @return the number of threads, zero if prefetching is disabled
+   */
+  int getPrefetchThreads();
+
+  /**
+   * Sets the number of threads used to prefetch the inputs of jobs waiting for a node.
+   * 
+   * @param threads the number of threads, zero to disable prefetching
+   */
+  void setPrefetchThreads(int threads);
+
 }
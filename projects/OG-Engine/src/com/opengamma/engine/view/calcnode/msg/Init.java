@@ -7,6 +7,8 @@ public class Init extends com.opengamma.engine.view.calcnode.msg.RemoteCalcNodeM
   private static final long serialVersionUID = -43293390246l;
   private long _functionInitId;
   public static final String FUNCTION_INIT_ID_KEY = "functionInitId";
+  private java.util.List<String> _functionId;
+  public static final String FUNCTION_ID_KEY = "functionId";
   public Init (long functionInitId) {
     _functionInitId = functionInitId;
   }
@@ -21,11 +23,42 @@ public class Init extends com.opengamma.engine.view.calcnode.msg.RemoteCalcNodeM
     catch (IllegalArgumentException e) {
       throw new IllegalArgumentException ("Fudge message is not a Init - field 'functionInitId' is not long", e);
     }
+    java.util.List<org.fudgemsg.FudgeField> fudgeFields;
+    fudgeFields = fudgeMsg.getAllByName (FUNCTION_ID_KEY);
+    if (fudgeFields.size () > 0)  {
+      final java.util.List<String> fudge1;
+      fudge1 = new java.util.ArrayList<String> (fudgeFields.size ());
+      for (org.fudgemsg.FudgeField fudge2 : fudgeFields) {
+        try {
+          fudge1.add (fudge2.getValue ().toString ());
+        }
+        catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException ("Fudge message is not a Init - field 'functionId' is not string", e);
+        }
+      }
+      setFunctionId (fudge1);
+    }
+  }
+  public Init (long functionInitId, java.util.Collection<? extends String> functionId) {
+    _functionInitId = functionInitId;
+    if (functionId == null) _functionId = null;
+    else {
+      final java.util.List<String> fudge0 = new java.util.ArrayList<String> (functionId);
+      for (java.util.ListIterator<String> fudge1 = fudge0.listIterator (); fudge1.hasNext (); ) {
+        String fudge2 = fudge1.next ();
+        if (fudge2 == null) throw new NullPointerException ("List element of 'functionId' cannot be null");
+      }
+      _functionId = fudge0;
+    }
   }
   protected Init (final Init source) {
     super (source);
     if (source == null) throw new NullPointerException ("'source' must not be null");
     _functionInitId = source._functionInitId;
+    if (source._functionId == null) _functionId = null;
+    else {
+      _functionId = new java.util.ArrayList<String> (source._functionId);
+    }
   }
   public Init clone () {
     return new Init (this);
@@ -39,6 +72,11 @@ public class Init extends com.opengamma.engine.view.calcnode.msg.RemoteCalcNodeM
   public void toFudgeMsg (final org.fudgemsg.mapping.FudgeSerializer serializer, final org.fudgemsg.MutableFudgeMsg msg) {
     super.toFudgeMsg (serializer, msg);
     msg.add (FUNCTION_INIT_ID_KEY, null, _functionInitId);
+    if (_functionId != null)  {
+      for (String fudge1 : _functionId) {
+        msg.add (FUNCTION_ID_KEY, null, fudge1);
+      }
+    }
   }
   public static Init fromFudgeMsg (final org.fudgemsg.mapping.FudgeDeserializer deserializer, final org.fudgemsg.FudgeMsg fudgeMsg) {
     final java.util.List<org.fudgemsg.FudgeField> types = fudgeMsg.getAllByOrdinal (0);
@@ -60,6 +98,35 @@ public class Init extends com.opengamma.engine.view.calcnode.msg.RemoteCalcNodeM
   public void setFunctionInitId (long functionInitId) {
     _functionInitId = functionInitId;
   }
+  public java.util.List<String> getFunctionId () {
+    if (_functionId != null) {
+      return java.util.Collections.unmodifiableList (_functionId);
+    }
+    else return null;
+  }
+  public void setFunctionId (String functionId) {
+    if (functionId == null) _functionId = null;
+    else {
+      _functionId = new java.util.ArrayList<String> (1);
+      addFunctionId (functionId);
+    }
+  }
+  public void setFunctionId (java.util.Collection<? extends String> functionId) {
+    if (functionId == null) _functionId = null;
+    else {
+      final java.util.List<String> fudge0 = new java.util.ArrayList<String> (functionId);
+      for (java.util.ListIterator<String> fudge1 = fudge0.listIterator (); fudge1.hasNext (); ) {
+        String fudge2 = fudge1.next ();
+        if (fudge2 == null) throw new NullPointerException ("List element of 'functionId' cannot be null");
+      }
+      _functionId = fudge0;
+    }
+  }
+  public void addFunctionId (String functionId) {
+    if (functionId == null) throw new NullPointerException ("'functionId' cannot be null");
+    if (_functionId == null) _functionId = new java.util.ArrayList<String> ();
+    _functionId.add (functionId);
+  }
   public String toString () {
     return org.apache.commons.lang.builder.ToStringBuilder.reflectionToString(this, org.apache.commons.lang.builder.ToStringStyle.SHORT_PREFIX_STYLE);
   }
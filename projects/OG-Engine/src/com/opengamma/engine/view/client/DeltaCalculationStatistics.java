@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.client;
+
+/**
+ * Records the work done by {@link ViewDeltaResultCalculator} when computing a delta result.
+ */
+public class DeltaCalculationStatistics {
+
+  private long _comparisons;
+  private long _numericComparisons;
+  private long _deltas;
+  private int _tasks;
+  private long _elapsedNanos;
+
+  /**
+   * Returns the number of values that were compared with a previous value.
+   *
+   * @return the number of comparisons
+   */
+  public long getComparisons() {
+    return _comparisons;
+  }
+
+  /**
+   * Returns the number of comparisons that were made between primitive double values.
+   *
+   * @return the number of numeric comparisons
+   */
+  public long getNumericComparisons() {
+    return _numericComparisons;
+  }
+
+  /**
+   * Returns the number of values included in the delta result.
+   *
+   * @return the number of deltas
+   */
+  public long getDeltas() {
+    return _deltas;
+  }
+
+  /**
+   * Returns the number of units of work the calculation was split into.
+   *
+   * @return the number of tasks
+   */
+  public int getTasks() {
+    return _tasks;
+  }
+
+  /**
+   * Returns the time taken to compute the delta.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return _elapsedNanos;
+  }
+
+  /* package */void record(final long comparisons, final long numericComparisons, final long deltas, final int tasks, final long elapsedNanos) {
+    _comparisons += comparisons;
+    _numericComparisons += numericComparisons;
+    _deltas += deltas;
+    _tasks += tasks;
+    _elapsedNanos += elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "DeltaCalculationStatistics[comparisons=" + _comparisons + ", numeric=" + _numericComparisons + ", deltas=" + _deltas + ", tasks=" + _tasks + ", time="
+        + (_elapsedNanos / 1000000d) + "ms]";
+  }
+
+}
@@ -201,6 +201,27 @@ public interface ViewClient extends UniqueIdentifiable {
    */
   void setFragmentResultMode(ViewResultMode fragmentResultMode);
 
+  /**
+   * Gets the filter applied to full and delta results, including fragments, before they are sent to the listener.
+   * Defaults to {@link ViewResultFilter#ALL}.
+   *
+   * @return the result filter, not null
+   */
+  ViewResultFilter getResultFilter();
+
+  /**
+   * Sets the filter applied to full and delta results, including fragments, before they are sent to the listener.
+   * Defaults to {@link ViewResultFilter#ALL}.
+   * <p>
+   * The filter is applied where the results are produced so that outputs the client is not interested in are never
+   * serialized or transmitted. It may be set before attaching to a view process, or changed at any time afterwards
+   * without affecting the compiled view. After a change, a result mode of {@link ViewResultMode#FULL_THEN_DELTA} sends
+   * a full result next, as the previous results were filtered differently.
+   *
+   * @param resultFilter  the result filter, not null
+   */
+  void setResultFilter(ViewResultFilter resultFilter);
+
   //-------------------------------------------------------------------------
   /**
    * Pauses the flow of results exposed through this client. They continue to be received internally, and these are
@@ -5,8 +5,8 @@
  */
 package com.opengamma.engine.view.client;
 
-import java.util.Timer;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
@@ -29,6 +29,7 @@ import com.opengamma.engine.view.client.merging.RateLimitingMergingViewProcessLi
 import com.opengamma.engine.view.compilation.CompiledViewDefinition;
 import com.opengamma.engine.view.execution.ViewCycleExecutionOptions;
 import com.opengamma.engine.view.execution.ViewExecutionOptions;
+import com.opengamma.engine.view.listener.ViewResultBacklog;
 import com.opengamma.engine.view.listener.ViewResultListener;
 import com.opengamma.engine.view.permission.ViewPermissionProvider;
 import com.opengamma.id.UniqueId;
@@ -52,6 +53,8 @@ public class ViewClientImpl implements ViewClient {
 
   private final AtomicReference<ViewResultMode> _resultMode = new AtomicReference<ViewResultMode>(ViewResultMode.FULL_ONLY);
   private final AtomicReference<ViewResultMode> _fragmentResultMode = new AtomicReference<ViewResultMode>(ViewResultMode.NONE);
+  private final AtomicReference<ViewResultFilter> _resultFilter = new AtomicReference<ViewResultFilter>(ViewResultFilter.ALL);
+  private final AtomicBoolean _fullResultRequired = new AtomicBoolean();
 
   private final AtomicBoolean _isViewCycleAccessSupported = new AtomicBoolean(false);
   private final AtomicBoolean _isAttached = new AtomicBoolean(false);
@@ -80,13 +83,13 @@ public class ViewClientImpl implements ViewClient {
    * @param id  the unique identifier assigned to this view client
    * @param viewProcessor  the parent view processor to which this client belongs
    * @param user  the user who owns this client
-   * @param timer  the timer to use for scheduled tasks
+   * @param scheduler  the scheduler to use for releasing rate-limited results
    */
-  public ViewClientImpl(UniqueId id, ViewProcessorImpl viewProcessor, UserPrincipal user, Timer timer) {
+  public ViewClientImpl(UniqueId id, ViewProcessorImpl viewProcessor, UserPrincipal user, ScheduledExecutorService scheduler) {
     ArgumentChecker.notNull(id, "id");
     ArgumentChecker.notNull(viewProcessor, "viewProcessor");
     ArgumentChecker.notNull(user, "user");
-    ArgumentChecker.notNull(timer, "timer");
+    ArgumentChecker.notNull(scheduler, "scheduler");
 
     _id = id;
     _viewProcessor = viewProcessor;
@@ -131,14 +134,16 @@ public class ViewClientImpl implements ViewClient {
       @Override
       public void cycleCompleted(ViewComputationResultModel fullResult, ViewDeltaResultModel deltaResult) {
         boolean isFirstResult = updateLatestResult(fullResult);
+        boolean isFullResultForced = isFirstResult | _fullResultRequired.getAndSet(false);
         ViewResultListener listener = _userResultListener.get();
         if (listener != null) {
           ViewResultMode resultMode = getResultMode();
           if (!resultMode.equals(ViewResultMode.NONE)) {
-            ViewComputationResultModel userFullResult = isFullResultRequired(resultMode, isFirstResult) ? fullResult : null;
-            ViewDeltaResultModel userDeltaResult = isDeltaResultRequired(resultMode, isFirstResult) ? deltaResult : null;
+            ViewComputationResultModel userFullResult = isFullResultRequired(resultMode, isFullResultForced) ? fullResult : null;
+            ViewDeltaResultModel userDeltaResult = isDeltaResultRequired(resultMode, isFullResultForced) ? deltaResult : null;
             if (userFullResult != null || userDeltaResult != null) {
-              listener.cycleCompleted(userFullResult, userDeltaResult);
+              final ViewResultFilter filter = getResultFilter();
+              listener.cycleCompleted(userFullResult != null ? filter.filter(userFullResult) : null, userDeltaResult != null ? filter.filter(userDeltaResult) : null);
             } else if (!isFirstResult || resultMode != ViewResultMode.DELTA_ONLY) {
               // Would expect this if it's the first result and we're in delta only mode, otherwise log a warning
               s_logger.warn("Ignored CycleCompleted call with no useful results to propagate");
@@ -150,14 +155,16 @@ public class ViewClientImpl implements ViewClient {
       @Override
       public void cycleFragmentCompleted(ViewComputationResultModel fullFragment, ViewDeltaResultModel deltaFragment) {
         ViewComputationResultModel prevResult = _latestResult.get();
+        boolean isFullResultForced = (prevResult == null) || _fullResultRequired.get();
         ViewResultListener listener = _userResultListener.get();
         if (listener != null) {
           ViewResultMode resultMode = getFragmentResultMode();
           if (!resultMode.equals(ViewResultMode.NONE)) {
-            ViewComputationResultModel userFullResult = isFullResultRequired(resultMode, prevResult == null) ? fullFragment : null;
-            ViewDeltaResultModel userDeltaResult = isDeltaResultRequired(resultMode, prevResult == null) ? deltaFragment : null;
+            ViewComputationResultModel userFullResult = isFullResultRequired(resultMode, isFullResultForced) ? fullFragment : null;
+            ViewDeltaResultModel userDeltaResult = isDeltaResultRequired(resultMode, isFullResultForced) ? deltaFragment : null;
             if (userFullResult != null || userDeltaResult != null) {
-              listener.cycleFragmentCompleted(userFullResult, userDeltaResult);
+              final ViewResultFilter filter = getResultFilter();
+              listener.cycleFragmentCompleted(userFullResult != null ? filter.filter(userFullResult) : null, userDeltaResult != null ? filter.filter(userDeltaResult) : null);
             } else if (prevResult == null || resultMode != ViewResultMode.DELTA_ONLY) {
               // Would expect this if it's the first result and we're in delta only mode, otherwise log a warning
               s_logger.warn("Ignored CycleFragmentCompleted call with no useful results to propagate");
@@ -207,7 +214,7 @@ public class ViewClientImpl implements ViewClient {
 
     };
 
-    _mergingViewProcessListener = new RateLimitingMergingViewProcessListener(_mergedViewProcessListener, getViewProcessor().getViewCycleManager(), timer);
+    _mergingViewProcessListener = new RateLimitingMergingViewProcessListener(_mergedViewProcessListener, getViewProcessor().getViewCycleManager(), scheduler);
     _mergingViewProcessListener.setPaused(true);
   }
 
@@ -313,6 +320,8 @@ public class ViewClientImpl implements ViewClient {
   @Override
   public void setResultListener(ViewResultListener resultListener) {
     _userResultListener.set(resultListener);
+    // A listener which forwards results asynchronously can hold back further results until its consumer catches up
+    _mergingViewProcessListener.setBacklog((resultListener instanceof ViewResultBacklog) ? (ViewResultBacklog) resultListener : null);
   }
 
   @Override
@@ -340,6 +349,57 @@ public class ViewClientImpl implements ViewClient {
     _fragmentResultMode.set(fragmentResultMode);
   }
 
+  @Override
+  public ViewResultFilter getResultFilter() {
+    return _resultFilter.get();
+  }
+
+  @Override
+  public void setResultFilter(ViewResultFilter resultFilter) {
+    ArgumentChecker.notNull(resultFilter, "resultFilter");
+    if (!resultFilter.equals(_resultFilter.getAndSet(resultFilter))) {
+      // Deltas are only meaningful against a result filtered the same way
+      _fullResultRequired.set(true);
+    }
+  }
+
+  /**
+   * Gets the number of completed cycles whose results have not yet been released to the listener.
+   * 
+   * @return the number of cycles the listener is behind the view process
+   */
+  public int getResultLag() {
+    return _mergingViewProcessListener.getPendingCycleCount();
+  }
+
+  /**
+   * Gets the total number of cycle results that were merged into a later result rather than released individually.
+   * 
+   * @return the number of merged results
+   */
+  public long getResultMergeCount() {
+    return _mergingViewProcessListener.getMergeCount();
+  }
+
+  /**
+   * Gets the number of messages, rather than cycle results, that the listener has yet to pass on to its consumer.
+   * 
+   * @return the listener's backlog, 0 if the listener delivers results synchronously
+   */
+  public int getResultBacklog() {
+    return _mergingViewProcessListener.getCurrentBacklog();
+  }
+
+  /**
+   * Gets the period currently applied between results, which may exceed the requested update period if the listener is
+   * slow to accept results.
+   * 
+   * @return the effective update period in milliseconds, 0 if results are not rate limited
+   */
+  public long getEffectiveUpdatePeriodMillis() {
+    return _mergingViewProcessListener.getEffectiveUpdatePeriodMillis();
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public void pause() {
@@ -5,34 +5,211 @@
  */
 package com.opengamma.engine.view.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.opengamma.OpenGammaRuntimeException;
 import com.opengamma.engine.ComputationTargetSpecification;
 import com.opengamma.engine.value.ComputedValue;
 import com.opengamma.engine.value.ValueProperties;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
 import com.opengamma.engine.view.DeltaDefinition;
 import com.opengamma.engine.view.InMemoryViewDeltaResultModel;
 import com.opengamma.engine.view.ViewCalculationResultModel;
 import com.opengamma.engine.view.ViewComputationResultModel;
 import com.opengamma.engine.view.ViewDefinition;
 import com.opengamma.engine.view.ViewDeltaResultModel;
+import com.opengamma.engine.view.ViewResultEntry;
 import com.opengamma.engine.view.ViewResultModel;
 import com.opengamma.util.tuple.Pair;
 
 /**
  * Produces {@link ViewDeltaResultModel} instances by comparing two {@link ViewComputationResultModel}.
+ * <p>
+ * The comparison is split into tasks by calculation configuration (or column, for {@link ColumnarViewComputationResultModel})
+ * and target range. If an executor is supplied, and the result is large enough to make it worthwhile, the tasks are run
+ * in parallel with the calling thread taking part.
  */
 public class ViewDeltaResultCalculator {
 
+  /**
+   * Number of values below which the delta is always computed on the calling thread.
+   */
+  private static final int PARALLEL_THRESHOLD = 8192;
+
+  /**
+   * Number of targets processed by each task.
+   */
+  private static final int TASK_SIZE = 4096;
+
+  /**
+   * A unit of the delta calculation, collecting its own results so that tasks do not contend.
+   */
+  private abstract static class Task {
+
+    private final List<ViewResultEntry> _deltas = new ArrayList<ViewResultEntry>();
+    private long _comparisons;
+    private long _numericComparisons;
+
+    protected void delta(final String calcConfigName, final ComputedValue value) {
+      _deltas.add(new ViewResultEntry(calcConfigName, value));
+    }
+
+    protected boolean isDelta(final DeltaDefinition deltaDefinition, final double previousValue, final double value) {
+      _comparisons++;
+      _numericComparisons++;
+      return deltaDefinition.isDelta(previousValue, value);
+    }
+
+    protected boolean isDelta(final DeltaDefinition deltaDefinition, final ComputedValue previousValue, final ComputedValue value) {
+      if ((previousValue.getValue() instanceof Double) && (value.getValue() instanceof Double)
+          && previousValue.getSpecification().equals(value.getSpecification())) {
+        return isDelta(deltaDefinition, (Double) previousValue.getValue(), (Double) value.getValue());
+      }
+      _comparisons++;
+      return deltaDefinition.isDelta(previousValue, value);
+    }
+
+    protected abstract void run();
+
+  }
+
+  /**
+   * Compares a range of targets from one column of a pair of column-oriented results.
+   */
+  private static final class ColumnTask extends Task {
+
+    private final DeltaDefinition _deltaDefinition;
+    private final ColumnarViewComputationResultModel _previousResult;
+    private final ColumnarViewComputationResultModel.Column _previousColumn;
+    private final int[] _previousTargetIds;
+    private final ColumnarViewComputationResultModel _result;
+    private final ColumnarViewComputationResultModel.Column _column;
+    private final int _fromTargetId;
+    private final int _toTargetId;
+
+    private ColumnTask(final DeltaDefinition deltaDefinition, final ColumnarViewComputationResultModel previousResult, final ColumnarViewComputationResultModel.Column previousColumn,
+        final int[] previousTargetIds, final ColumnarViewComputationResultModel result, final ColumnarViewComputationResultModel.Column column, final int fromTargetId, final int toTargetId) {
+      _deltaDefinition = deltaDefinition;
+      _previousResult = previousResult;
+      _previousColumn = previousColumn;
+      _previousTargetIds = previousTargetIds;
+      _result = result;
+      _column = column;
+      _fromTargetId = fromTargetId;
+      _toTargetId = toTargetId;
+    }
+
+    @Override
+    protected void run() {
+      final String calcConfigName = _column.getCalculationConfigurationName();
+      for (int targetId = _column.nextTarget(_fromTargetId); (targetId >= 0) && (targetId < _toTargetId); targetId = _column.nextTarget(targetId + 1)) {
+        final boolean delta;
+        final int previousTargetId = (_previousColumn != null) ? _previousTargetIds[targetId] : -1;
+        if ((previousTargetId < 0) || !_previousColumn.isPresent(previousTargetId)) {
+          // Everything is new/delta because this is a new calculation context, value or target
+          delta = true;
+        } else if (_column.isDouble(targetId) && _previousColumn.isDouble(previousTargetId)) {
+          delta = isDelta(_deltaDefinition, _previousColumn.getDouble(previousTargetId), _column.getDouble(targetId));
+        } else {
+          delta = isDelta(_deltaDefinition, _previousResult.getComputedValue(_previousColumn, previousTargetId), _result.getComputedValue(_column, targetId));
+        }
+        if (delta) {
+          delta(calcConfigName, _result.getComputedValue(_column, targetId));
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Compares a range of targets from one calculation configuration of a pair of results.
+   */
+  private static final class TargetTask extends Task {
+
+    private final DeltaDefinition _deltaDefinition;
+    private final String _calcConfigName;
+    private final ViewCalculationResultModel _previousCalcModel;
+    private final ViewCalculationResultModel _resultCalcModel;
+    private final List<ComputationTargetSpecification> _targets;
+
+    private TargetTask(final DeltaDefinition deltaDefinition, final String calcConfigName, final ViewCalculationResultModel previousCalcModel,
+        final ViewCalculationResultModel resultCalcModel, final List<ComputationTargetSpecification> targets) {
+      _deltaDefinition = deltaDefinition;
+      _calcConfigName = calcConfigName;
+      _previousCalcModel = previousCalcModel;
+      _resultCalcModel = resultCalcModel;
+      _targets = targets;
+    }
+
+    @Override
+    protected void run() {
+      for (ComputationTargetSpecification targetSpec : _targets) {
+        computeDelta(targetSpec);
+      }
+    }
+
+    private void computeDelta(final ComputationTargetSpecification targetSpec) {
+      final Map<Pair<String, ValueProperties>, ComputedValue> resultValues = _resultCalcModel.getValues(targetSpec);
+      if (resultValues == null) {
+        return;
+      }
+      final Map<Pair<String, ValueProperties>, ComputedValue> previousValues = (_previousCalcModel != null) ? _previousCalcModel.getValues(targetSpec) : null;
+      if (previousValues == null) {
+        // Everything is new/delta because this is a new calculation context or target.
+        for (ComputedValue result : resultValues.values()) {
+          delta(_calcConfigName, result);
+        }
+        return;
+      }
+      // Have to individual delta.
+      for (Map.Entry<Pair<String, ValueProperties>, ComputedValue> resultEntry : resultValues.entrySet()) {
+        ComputedValue resultValue = resultEntry.getValue();
+        ComputedValue previousValue = previousValues.get(resultEntry.getKey());
+        // REVIEW jonathan 2010-05-07 -- The previous value that we're comparing with is the value from the last
+        // computation cycle, not the value that we last emitted as a delta. It is therefore important that the
+        // DeltaComparers take this into account in their implementation of isDelta. E.g. they should compare the
+        // values after truncation to the required decimal place, rather than testing whether the difference of the
+        // full values is greater than some threshold; this way, there will always be a point beyond which a change
+        // is detected, even in the event of gradual creep.
+        if ((previousValue == null) || isDelta(_deltaDefinition, previousValue, resultValue)) {
+          delta(_calcConfigName, resultValue);
+        }
+      }
+    }
+
+  }
+
   /**
    * Computes the delta between and old and new results.
-   * 
+   *
    * @param viewDefinition  the view definition to which the results apply
    * @param previousResult  the previous result
    * @param result  the new result
    * @return  the delta between the two results, not null
    */
   public static ViewDeltaResultModel computeDeltaModel(ViewDefinition viewDefinition, ViewResultModel previousResult, ViewResultModel result) {
+    return computeDeltaModel(viewDefinition, previousResult, result, null, null);
+  }
+
+  /**
+   * Computes the delta between and old and new results, using an executor to work in parallel.
+   *
+   * @param viewDefinition  the view definition to which the results apply
+   * @param previousResult  the previous result
+   * @param result  the new result
+   * @param executor  the executor to run tasks on, null to compute on the calling thread only
+   * @param statistics  the statistics to update, null for none
+   * @return  the delta between the two results, not null
+   */
+  public static ViewDeltaResultModel computeDeltaModel(ViewDefinition viewDefinition, ViewResultModel previousResult, ViewResultModel result,
+      ExecutorService executor, DeltaCalculationStatistics statistics) {
+    final long startTime = System.nanoTime();
     InMemoryViewDeltaResultModel deltaModel = new InMemoryViewDeltaResultModel();
     deltaModel.setValuationTime(result.getValuationTime());
     deltaModel.setCalculationTime(result.getCalculationTime());
@@ -40,60 +217,114 @@ public class ViewDeltaResultCalculator {
     deltaModel.setVersionCorrection(result.getVersionCorrection());
     deltaModel.setViewCycleId(result.getViewCycleId());
     deltaModel.setViewProcessId(result.getViewProcessId());
-    
+
     if (previousResult != null) {
       deltaModel.setPreviousCalculationTime(previousResult.getCalculationTime());
     }
-    for (ComputationTargetSpecification targetSpec : result.getAllTargets()) {
-      computeDeltaModel(viewDefinition, deltaModel, targetSpec, previousResult, result);
+    final List<Task> tasks = new ArrayList<Task>();
+    final int size;
+    if ((result instanceof ColumnarViewComputationResultModel) && ((previousResult == null) || (previousResult instanceof ColumnarViewComputationResultModel))) {
+      size = createTasks(viewDefinition, (ColumnarViewComputationResultModel) previousResult, (ColumnarViewComputationResultModel) result, tasks);
+    } else {
+      size = createTasks(viewDefinition, previousResult, result, tasks);
+    }
+    if ((executor == null) || (tasks.size() < 2) || (size < PARALLEL_THRESHOLD)) {
+      for (Task task : tasks) {
+        task.run();
+      }
+    } else {
+      runTasks(executor, tasks);
+    }
+    long comparisons = 0;
+    long numericComparisons = 0;
+    long deltas = 0;
+    for (Task task : tasks) {
+      for (ViewResultEntry delta : task._deltas) {
+        deltaModel.addValue(delta.getCalculationConfiguration(), delta.getComputedValue());
+      }
+      comparisons += task._comparisons;
+      numericComparisons += task._numericComparisons;
+      deltas += task._deltas.size();
+    }
+    if (statistics != null) {
+      statistics.record(comparisons, numericComparisons, deltas, tasks.size(), System.nanoTime() - startTime);
     }
     return deltaModel;
   }
-  
-  private static void computeDeltaModel(ViewDefinition viewDefinition, InMemoryViewDeltaResultModel deltaModel, ComputationTargetSpecification targetSpec,
-      ViewResultModel previousResult, ViewResultModel result) {
+
+  private static int createTasks(final ViewDefinition viewDefinition, final ColumnarViewComputationResultModel previousResult, final ColumnarViewComputationResultModel result,
+      final List<Task> tasks) {
+    final int targetCount = result.getTargetCount();
+    int[] previousTargetIds = null;
+    if (previousResult != null) {
+      previousTargetIds = new int[targetCount];
+      for (int targetId = 0; targetId < targetCount; targetId++) {
+        previousTargetIds[targetId] = previousResult.getTargetId(result.getTarget(targetId));
+      }
+    }
+    int size = 0;
+    for (int columnId = 0; columnId < result.getColumnCount(); columnId++) {
+      final ColumnarViewComputationResultModel.Column column = result.getColumn(columnId);
+      final String calcConfigName = column.getCalculationConfigurationName();
+      final ColumnarViewComputationResultModel.Column previousColumn = (previousResult != null) ? previousResult.getColumn(calcConfigName, column.getValueName(), column.getProperties()) : null;
+      final DeltaDefinition deltaDefinition = (previousColumn != null) ? viewDefinition.getCalculationConfiguration(calcConfigName).getDeltaDefinition() : null;
+      for (int fromTargetId = 0; fromTargetId < targetCount; fromTargetId += TASK_SIZE) {
+        tasks.add(new ColumnTask(deltaDefinition, previousResult, previousColumn, previousTargetIds, result, column, fromTargetId, Math.min(fromTargetId + TASK_SIZE, targetCount)));
+      }
+      size += column.size();
+    }
+    return size;
+  }
+
+  private static int createTasks(final ViewDefinition viewDefinition, final ViewResultModel previousResult, final ViewResultModel result, final List<Task> tasks) {
+    int size = 0;
     for (String calcConfigName : result.getCalculationConfigurationNames()) {
-      DeltaDefinition deltaDefinition = viewDefinition.getCalculationConfiguration(calcConfigName).getDeltaDefinition();
-      ViewCalculationResultModel resultCalcModel = result.getCalculationResult(calcConfigName);
-      ViewCalculationResultModel previousCalcModel = previousResult != null ? previousResult.getCalculationResult(calcConfigName) : null;      
-      computeDeltaModel(deltaDefinition, deltaModel, targetSpec, calcConfigName, previousCalcModel, resultCalcModel);
+      final DeltaDefinition deltaDefinition = viewDefinition.getCalculationConfiguration(calcConfigName).getDeltaDefinition();
+      final ViewCalculationResultModel resultCalcModel = result.getCalculationResult(calcConfigName);
+      final ViewCalculationResultModel previousCalcModel = previousResult != null ? previousResult.getCalculationResult(calcConfigName) : null;
+      final List<ComputationTargetSpecification> targets = new ArrayList<ComputationTargetSpecification>(resultCalcModel.getAllTargets());
+      for (int fromIndex = 0; fromIndex < targets.size(); fromIndex += TASK_SIZE) {
+        tasks.add(new TargetTask(deltaDefinition, calcConfigName, previousCalcModel, resultCalcModel, targets.subList(fromIndex, Math.min(fromIndex + TASK_SIZE, targets.size()))));
+      }
+      size += targets.size();
     }
+    return size;
   }
 
-  private static void computeDeltaModel(DeltaDefinition deltaDefinition, InMemoryViewDeltaResultModel deltaModel, ComputationTargetSpecification targetSpec,
-      String calcConfigName, ViewCalculationResultModel previousCalcModel, ViewCalculationResultModel resultCalcModel) {
-    final Map<Pair<String, ValueProperties>, ComputedValue> resultValues = resultCalcModel.getValues(targetSpec);
-    if (resultValues != null) {
-      if (previousCalcModel == null) {
-        // Everything is new/delta because this is a new calculation context.
-        for (Map.Entry<Pair<String, ValueProperties>, ComputedValue> resultEntry : resultValues.entrySet()) {
-          deltaModel.addValue(calcConfigName, resultEntry.getValue());
+  /**
+   * Runs the tasks using the executor, with the calling thread also taking tasks. Workers that the executor has not
+   * started by the time all tasks are taken are cancelled so a busy executor cannot delay the result.
+   */
+  private static void runTasks(final ExecutorService executor, final List<Task> tasks) {
+    final AtomicInteger nextTask = new AtomicInteger();
+    final Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        int index = nextTask.getAndIncrement();
+        while (index < tasks.size()) {
+          tasks.get(index).run();
+          index = nextTask.getAndIncrement();
         }
-      } else {
-        final Map<Pair<String, ValueProperties>, ComputedValue> previousValues = previousCalcModel.getValues(targetSpec);
-        if (previousValues == null) {
-          // Everything is new/delta because this is a new target.
-          for (ComputedValue result : resultValues.values()) {
-            deltaModel.addValue(calcConfigName, result);
-          }
-        } else {
-          // Have to individual delta.
-          for (Map.Entry<Pair<String, ValueProperties>, ComputedValue> resultEntry : resultValues.entrySet()) {
-            ComputedValue resultValue = resultEntry.getValue();
-            ComputedValue previousValue = previousValues.get(resultEntry.getKey());
-            // REVIEW jonathan 2010-05-07 -- The previous value that we're comparing with is the value from the last
-            // computation cycle, not the value that we last emitted as a delta. It is therefore important that the
-            // DeltaComparers take this into account in their implementation of isDelta. E.g. they should compare the
-            // values after truncation to the required decimal place, rather than testing whether the difference of the
-            // full values is greater than some threshold; this way, there will always be a point beyond which a change
-            // is detected, even in the event of gradual creep.
-            if (deltaDefinition.isDelta(previousValue, resultValue)) {
-              deltaModel.addValue(calcConfigName, resultEntry.getValue());
-            }
-          }
+      }
+    };
+    final int workerCount = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()) - 1;
+    final List<Future<?>> workers = new ArrayList<Future<?>>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(executor.submit(worker));
+    }
+    worker.run();
+    for (Future<?> future : workers) {
+      if (!future.cancel(false)) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new OpenGammaRuntimeException("Interrupted while computing delta", e);
+        } catch (ExecutionException e) {
+          throw new OpenGammaRuntimeException("Error computing delta", e.getCause());
         }
       }
     }
   }
-  
+
 }
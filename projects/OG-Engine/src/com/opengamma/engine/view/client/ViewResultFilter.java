@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.client;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import com.opengamma.core.position.PortfolioNode;
+import com.opengamma.core.position.Position;
+import com.opengamma.core.position.Trade;
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
+import com.opengamma.engine.view.InMemoryViewComputationResultModel;
+import com.opengamma.engine.view.InMemoryViewDeltaResultModel;
+import com.opengamma.engine.view.InMemoryViewResultModel;
+import com.opengamma.engine.view.ViewCalculationResultModel;
+import com.opengamma.engine.view.ViewComputationResultModel;
+import com.opengamma.engine.view.ViewDeltaResultModel;
+import com.opengamma.engine.view.ViewResultModel;
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Restricts the results delivered to a view client to a subset of the view's outputs.
+ * <p>
+ * A filter may restrict results by calculation configuration name, by value name and by computation target. Each
+ * restriction is optional; a null set places no restriction on that dimension. A result is delivered only if it passes
+ * every restriction.
+ * <p>
+ * This class is immutable.
+ */
+public final class ViewResultFilter implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * A filter that accepts every result.
+   */
+  public static final ViewResultFilter ALL = new ViewResultFilter(null, null, null);
+
+  private final Set<String> _calculationConfigurationNames;
+  private final Set<String> _valueNames;
+  private final Set<ComputationTargetSpecification> _targets;
+
+  /**
+   * Creates a filter.
+   *
+   * @param calculationConfigurationNames the calculation configurations to deliver, null for all
+   * @param valueNames the value names to deliver, null for all
+   * @param targets the computation targets to deliver, null for all
+   */
+  public ViewResultFilter(final Set<String> calculationConfigurationNames, final Set<String> valueNames, final Set<ComputationTargetSpecification> targets) {
+    _calculationConfigurationNames = copy(calculationConfigurationNames);
+    _valueNames = copy(valueNames);
+    _targets = copy(targets);
+  }
+
+  private static <T> Set<T> copy(final Set<T> set) {
+    return (set != null) ? Collections.unmodifiableSet(new HashSet<T>(set)) : null;
+  }
+
+  /**
+   * Creates a filter that accepts results for a portfolio node and everything beneath it: child nodes, positions and
+   * trades.
+   *
+   * @param node the root of the sub-portfolio, not null
+   * @return the filter, not null
+   */
+  public static ViewResultFilter forPortfolioNode(final PortfolioNode node) {
+    ArgumentChecker.notNull(node, "node");
+    final Set<ComputationTargetSpecification> targets = new HashSet<ComputationTargetSpecification>();
+    addPortfolioTargets(node, targets);
+    return new ViewResultFilter(null, null, targets);
+  }
+
+  private static void addPortfolioTargets(final PortfolioNode node, final Set<ComputationTargetSpecification> targets) {
+    targets.add(new ComputationTargetSpecification(node));
+    for (Position position : node.getPositions()) {
+      targets.add(new ComputationTargetSpecification(position));
+      for (Trade trade : position.getTrades()) {
+        targets.add(new ComputationTargetSpecification(trade));
+      }
+    }
+    for (PortfolioNode child : node.getChildNodes()) {
+      addPortfolioTargets(child, targets);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the calculation configurations accepted by the filter.
+   *
+   * @return the configuration names, null if not restricted
+   */
+  public Set<String> getCalculationConfigurationNames() {
+    return _calculationConfigurationNames;
+  }
+
+  /**
+   * Returns a copy of this filter restricted to the given calculation configurations.
+   *
+   * @param calculationConfigurationNames the configuration names, null for all
+   * @return the new filter, not null
+   */
+  public ViewResultFilter withCalculationConfigurationNames(final Set<String> calculationConfigurationNames) {
+    return new ViewResultFilter(calculationConfigurationNames, _valueNames, _targets);
+  }
+
+  /**
+   * Gets the value names accepted by the filter.
+   *
+   * @return the value names, null if not restricted
+   */
+  public Set<String> getValueNames() {
+    return _valueNames;
+  }
+
+  /**
+   * Returns a copy of this filter restricted to the given value names.
+   *
+   * @param valueNames the value names, null for all
+   * @return the new filter, not null
+   */
+  public ViewResultFilter withValueNames(final Set<String> valueNames) {
+    return new ViewResultFilter(_calculationConfigurationNames, valueNames, _targets);
+  }
+
+  /**
+   * Gets the computation targets accepted by the filter.
+   *
+   * @return the targets, null if not restricted
+   */
+  public Set<ComputationTargetSpecification> getTargets() {
+    return _targets;
+  }
+
+  /**
+   * Returns a copy of this filter restricted to the given computation targets.
+   *
+   * @param targets the targets, null for all
+   * @return the new filter, not null
+   */
+  public ViewResultFilter withTargets(final Set<ComputationTargetSpecification> targets) {
+    return new ViewResultFilter(_calculationConfigurationNames, _valueNames, targets);
+  }
+
+  /**
+   * Tests whether the filter accepts every result.
+   *
+   * @return true if there are no restrictions
+   */
+  public boolean isAll() {
+    return (_calculationConfigurationNames == null) && (_valueNames == null) && (_targets == null);
+  }
+
+  //-------------------------------------------------------------------------
+  private boolean acceptsCalculationConfiguration(final String calculationConfigurationName) {
+    return (_calculationConfigurationNames == null) || _calculationConfigurationNames.contains(calculationConfigurationName);
+  }
+
+  private boolean acceptsValueName(final String valueName) {
+    return (_valueNames == null) || _valueNames.contains(valueName);
+  }
+
+  private boolean acceptsTarget(final ComputationTargetSpecification target) {
+    return (_targets == null) || _targets.contains(target);
+  }
+
+  /**
+   * Tests whether the filter accepts a value.
+   *
+   * @param calculationConfigurationName the calculation configuration producing the value, not null
+   * @param specification the value specification, not null
+   * @return true if the value should be delivered
+   */
+  public boolean accepts(final String calculationConfigurationName, final ValueSpecification specification) {
+    return acceptsCalculationConfiguration(calculationConfigurationName) && acceptsValueName(specification.getValueName())
+        && acceptsTarget(specification.getTargetSpecification());
+  }
+
+  /**
+   * Applies the filter to a full result.
+   *
+   * @param result the result to filter, not null
+   * @return the filtered result, not null. This is the original result if the filter accepts everything.
+   */
+  public ViewComputationResultModel filter(final ViewComputationResultModel result) {
+    if (isAll()) {
+      return result;
+    }
+    if (result instanceof ColumnarViewComputationResultModel) {
+      return filterColumns((ColumnarViewComputationResultModel) result);
+    }
+    final InMemoryViewComputationResultModel filtered = new InMemoryViewComputationResultModel();
+    copyMetadata(result, filtered);
+    filterValues(result, filtered);
+    for (ComputedValue marketData : result.getAllMarketData()) {
+      if (acceptsTarget(marketData.getSpecification().getTargetSpecification())) {
+        filtered.addMarketData(marketData);
+      }
+    }
+    for (Map.Entry<ValueSpecification, Set<ValueRequirement>> requirements : result.getRequirementToSpecificationMapping().entrySet()) {
+      if (acceptsValueName(requirements.getKey().getValueName()) && acceptsTarget(requirements.getKey().getTargetSpecification())) {
+        filtered.addRequirements(requirements.getValue(), requirements.getKey());
+      }
+    }
+    return filtered;
+  }
+
+  /**
+   * Applies the filter to a delta result.
+   *
+   * @param result the result to filter, not null
+   * @return the filtered result, not null. This is the original result if the filter accepts everything.
+   */
+  public ViewDeltaResultModel filter(final ViewDeltaResultModel result) {
+    if (isAll()) {
+      return result;
+    }
+    final InMemoryViewDeltaResultModel filtered = new InMemoryViewDeltaResultModel();
+    copyMetadata(result, filtered);
+    filtered.setPreviousCalculationTime(result.getPreviousResultTimestamp());
+    filterValues(result, filtered);
+    return filtered;
+  }
+
+  private ViewComputationResultModel filterColumns(final ColumnarViewComputationResultModel result) {
+    final ColumnarViewComputationResultModel filtered = new ColumnarViewComputationResultModel();
+    filtered.setViewProcessId(result.getViewProcessId());
+    filtered.setViewCycleId(result.getViewCycleId());
+    filtered.setValuationTime(result.getValuationTime());
+    filtered.setCalculationTime(result.getCalculationTime());
+    filtered.setCalculationDuration(result.getCalculationDuration());
+    filtered.setVersionCorrection(result.getVersionCorrection());
+    for (int i = 0; i < result.getColumnCount(); i++) {
+      final ColumnarViewComputationResultModel.Column column = result.getColumn(i);
+      // Whole columns are skipped without visiting their values
+      if (!acceptsCalculationConfiguration(column.getCalculationConfigurationName()) || !acceptsValueName(column.getValueName())) {
+        continue;
+      }
+      for (int target = column.nextTarget(0); target >= 0; target = column.nextTarget(target + 1)) {
+        if (acceptsTarget(result.getTarget(target))) {
+          filtered.addValue(column.getCalculationConfigurationName(), result.getComputedValue(column, target));
+        }
+      }
+    }
+    for (ComputedValue marketData : result.getAllMarketData()) {
+      if (acceptsTarget(marketData.getSpecification().getTargetSpecification())) {
+        filtered.addMarketData(marketData);
+      }
+    }
+    for (Map.Entry<ValueSpecification, Set<ValueRequirement>> requirements : result.getRequirementToSpecificationMapping().entrySet()) {
+      if (acceptsValueName(requirements.getKey().getValueName()) && acceptsTarget(requirements.getKey().getTargetSpecification())) {
+        filtered.addRequirements(requirements.getValue(), requirements.getKey());
+      }
+    }
+    return filtered;
+  }
+
+  private static void copyMetadata(final ViewResultModel source, final InMemoryViewResultModel destination) {
+    destination.setViewProcessId(source.getViewProcessId());
+    destination.setViewCycleId(source.getViewCycleId());
+    destination.setValuationTime(source.getValuationTime());
+    destination.setCalculationTime(source.getCalculationTime());
+    destination.setCalculationDuration(source.getCalculationDuration());
+    destination.setVersionCorrection(source.getVersionCorrection());
+  }
+
+  private void filterValues(final ViewResultModel source, final InMemoryViewResultModel destination) {
+    for (String calcConfigName : source.getCalculationConfigurationNames()) {
+      if (!acceptsCalculationConfiguration(calcConfigName)) {
+        continue;
+      }
+      final ViewCalculationResultModel calcResult = source.getCalculationResult(calcConfigName);
+      final Collection<ComputationTargetSpecification> allTargets = calcResult.getAllTargets();
+      final Collection<ComputationTargetSpecification> targets;
+      if ((_targets != null) && (_targets.size() < allTargets.size())) {
+        targets = _targets;
+      } else {
+        targets = allTargets;
+      }
+      for (ComputationTargetSpecification target : targets) {
+        if (!acceptsTarget(target)) {
+          continue;
+        }
+        final Collection<ComputedValue> values = calcResult.getAllValues(target);
+        if (values == null) {
+          continue;
+        }
+        for (ComputedValue value : values) {
+          if (acceptsValueName(value.getSpecification().getValueName())) {
+            destination.addValue(calcConfigName, value);
+          }
+        }
+      }
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof ViewResultFilter)) {
+      return false;
+    }
+    final ViewResultFilter other = (ViewResultFilter) obj;
+    return ObjectUtils.equals(_calculationConfigurationNames, other._calculationConfigurationNames) && ObjectUtils.equals(_valueNames, other._valueNames)
+        && ObjectUtils.equals(_targets, other._targets);
+  }
+
+  @Override
+  public int hashCode() {
+    int hc = ObjectUtils.hashCode(_calculationConfigurationNames);
+    hc = hc * 31 + ObjectUtils.hashCode(_valueNames);
+    hc = hc * 31 + ObjectUtils.hashCode(_targets);
+    return hc;
+  }
+
+  @Override
+  public String toString() {
+    return "ViewResultFilter[calcConfigs=" + _calculationConfigurationNames + ", valueNames=" + _valueNames + ", targets=" + ((_targets != null) ? _targets.size() : null) + "]";
+  }
+
+}
@@ -58,6 +58,16 @@ public class MergingViewProcessListener implements ViewResultListener {
   private int _cycleCompletedIndex = -1;
   private int _cycleFragmentCompletedIndex = -1;
   
+  /**
+   * The number of cycles whose results are waiting in the queue.
+   */
+  private int _pendingCycles;
+  
+  /**
+   * The total number of cycle results that have been merged into an earlier, undelivered result.
+   */
+  private final AtomicLong _mergeCount = new AtomicLong();
+  
   public MergingViewProcessListener(ViewResultListener underlying, EngineResourceManagerInternal<?> cycleManager) {
     ArgumentChecker.notNull(underlying, "underlying");
     _underlying = underlying;
@@ -101,6 +111,20 @@ public class MergingViewProcessListener implements ViewResultListener {
     }
   }
   
+  /**
+   * Tests whether there are updates waiting to be released.
+   * 
+   * @return true if {@link #drain} would notify the underlying listener
+   */
+  protected boolean hasPendingCalls() {
+    _mergerLock.lock();
+    try {
+      return !_callQueue.isEmpty();
+    } finally {
+      _mergerLock.unlock();
+    }
+  }
+  
   /**
    * Gets the time at which the last update was received.
    * 
@@ -110,6 +134,31 @@ public class MergingViewProcessListener implements ViewResultListener {
     return _lastUpdateMillis.get();
   }
   
+  /**
+   * Gets the number of completed cycles whose results are waiting to be released. This is the number of cycles by
+   * which the underlying listener is lagging the view process.
+   * 
+   * @return the number of pending cycles
+   */
+  public int getPendingCycleCount() {
+    _mergerLock.lock();
+    try {
+      return _pendingCycles;
+    } finally {
+      _mergerLock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the total number of cycle results that have been merged into an earlier result rather than being released
+   * individually.
+   * 
+   * @return the number of merges
+   */
+  public long getMergeCount() {
+    return _mergeCount.get();
+  }
+  
   //-------------------------------------------------------------------------
   public boolean isLatestResultCycleRetained() {
     return _isLatestResultCycleRetained;
@@ -199,6 +248,7 @@ public class MergingViewProcessListener implements ViewResultListener {
           CycleCompletedCall cycleCompletedCall = pullCallToEnd(_cycleCompletedIndex);
           // Merge new cycle completed call into old one
           cycleCompletedCall.update(fullResult, deltaResult);
+          _mergeCount.incrementAndGet();
         } else {
           // No existing cycle completed call - add new one
           CycleCompletedCall cycleCompletedCall = new CycleCompletedCall(fullResult, deltaResult);
@@ -206,6 +256,8 @@ public class MergingViewProcessListener implements ViewResultListener {
           _callQueue.add(cycleCompletedCall);
         }
         
+        _pendingCycles++;
+        
         // Only keep the cycle started call for the latest complete result
         if (_previousCycleStartedIndex != -1) {
           removeCall(_previousCycleStartedIndex);
@@ -302,6 +354,7 @@ public class MergingViewProcessListener implements ViewResultListener {
       _latestCycleStartedIndex = -1;
       _cycleCompletedIndex = -1;
       _cycleFragmentCompletedIndex = -1;
+      _pendingCycles = 0;
     } finally {
       _mergerLock.unlock();
     }
@@ -318,6 +371,7 @@ public class MergingViewProcessListener implements ViewResultListener {
       _latestCycleStartedIndex = -1;
       _cycleCompletedIndex = -1;
       _cycleFragmentCompletedIndex = -1;
+      _pendingCycles = 0;
       getCycleRetainer().replaceRetainedCycle(null);
     } finally {
       _mergerLock.unlock();
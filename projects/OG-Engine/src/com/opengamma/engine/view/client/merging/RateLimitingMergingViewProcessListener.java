@@ -5,26 +5,50 @@
  */
 package com.opengamma.engine.view.client.merging;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.opengamma.engine.view.calc.EngineResourceManagerInternal;
+import com.opengamma.engine.view.listener.ViewResultBacklog;
 import com.opengamma.engine.view.listener.ViewResultListener;
 import com.opengamma.util.ArgumentChecker;
 
 /**
  * Merges view process results to satisfy a specified maximum downstream update rate (given in terms of a minimum
  * period between updates). This maximum rate can be adjusted on-the-fly.
+ * <p>
+ * The rate also adapts to the downstream consumer. The period between updates is stretched to a multiple of the time
+ * the underlying listener takes to accept an update, and if a {@link ViewResultBacklog} is supplied then no update is
+ * released while the consumer has more than {@link #getMaximumBacklog()} messages outstanding. Results arriving while an
+ * update is held back are merged, so a slow consumer always receives the latest state rather than a growing queue.
  */
 public class RateLimitingMergingViewProcessListener extends MergingViewProcessListener {
 
+  private static final Logger s_logger = LoggerFactory.getLogger(RateLimitingMergingViewProcessListener.class);
+
   private static final long MIN_PERIOD = 50;
   
-  private final Timer _timer;
+  /**
+   * The multiple of the measured drain time below which the update period will not fall.
+   */
+  private static final int DRAIN_TIME_FACTOR = 2;
+
+  /**
+   * The default number of outstanding downstream messages above which updates are held back. A backlog counts every
+   * message waiting to be sent, and a cycle can produce several (its start, fragments and completion), so this allows
+   * a few cycles to be in flight before the consumer is treated as having fallen behind.
+   */
+  public static final int DEFAULT_MAXIMUM_BACKLOG = 16;
+
+  private final ScheduledExecutorService _scheduler;
   private ReentrantLock _taskSetupLock = new ReentrantLock();
-  private TimerTask _asyncUpdateCheckerTask;
+  private ScheduledFuture<?> _asyncUpdateCheckerTask;
   
   private boolean _isPaused;
   
@@ -35,10 +59,25 @@ public class RateLimitingMergingViewProcessListener extends MergingViewProcessLi
    */
   private AtomicLong _lastUpdateTimeMillis = new AtomicLong();
   
-  public RateLimitingMergingViewProcessListener(ViewResultListener underlying, EngineResourceManagerInternal<?> cycleManager, Timer timer) {
+  /**
+   * A moving average of the time taken to release an update to the underlying listener.
+   */
+  private AtomicLong _drainTimeMillis = new AtomicLong();
+
+  private volatile ViewResultBacklog _backlog;
+  private volatile int _maximumBacklog = DEFAULT_MAXIMUM_BACKLOG;
+
+  /**
+   * Creates a new listener.
+   *
+   * @param underlying  the listener to release merged updates to, not null
+   * @param cycleManager  the cycle manager, not null
+   * @param scheduler  the scheduler used to release updates, typically shared between many listeners, not null
+   */
+  public RateLimitingMergingViewProcessListener(ViewResultListener underlying, EngineResourceManagerInternal<?> cycleManager, ScheduledExecutorService scheduler) {
     super(underlying, cycleManager);
-    ArgumentChecker.notNull(timer, "timer");
-    _timer = timer;
+    ArgumentChecker.notNull(scheduler, "scheduler");
+    _scheduler = scheduler;
   }
   
   public void terminate() {
@@ -112,28 +151,112 @@ public class RateLimitingMergingViewProcessListener extends MergingViewProcessLi
     }
   }
   
+  /**
+   * Gets the period currently being applied between updates. This is at least the minimum update period, but is
+   * stretched if the underlying listener is slow to accept updates.
+   *
+   * @return the effective update period in milliseconds, 0 if updates are passed straight through
+   */
+  public long getEffectiveUpdatePeriodMillis() {
+    final long minimumUpdatePeriodMillis = getMinimumUpdatePeriodMillis();
+    if (minimumUpdatePeriodMillis == 0) {
+      return 0;
+    }
+    return Math.max(minimumUpdatePeriodMillis, DRAIN_TIME_FACTOR * _drainTimeMillis.get());
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the source of the downstream consumer's backlog.
+   *
+   * @return the backlog, null if updates are released without regard to the consumer
+   */
+  public ViewResultBacklog getBacklog() {
+    return _backlog;
+  }
+
+  /**
+   * Sets the source of the downstream consumer's backlog. While the backlog exceeds {@link #getMaximumBacklog()},
+   * updates are merged and held back, even if they would otherwise have been passed straight through.
+   *
+   * @param backlog  the backlog, null to release updates without regard to the consumer
+   */
+  public void setBacklog(ViewResultBacklog backlog) {
+    _taskSetupLock.lock();
+    try {
+      _backlog = backlog;
+      updateConfiguration();
+    } finally {
+      _taskSetupLock.unlock();
+    }
+  }
+
+  public int getMaximumBacklog() {
+    return _maximumBacklog;
+  }
+
+  /**
+   * Sets the number of messages which may be outstanding downstream before further updates are held back.
+   *
+   * @param maximumBacklog  the maximum backlog, not negative
+   */
+  public void setMaximumBacklog(int maximumBacklog) {
+    ArgumentChecker.notNegative(maximumBacklog, "maximumBacklog");
+    _maximumBacklog = maximumBacklog;
+  }
+
+  /**
+   * Gets the number of messages outstanding at the downstream consumer.
+   *
+   * @return the backlog, 0 if no backlog source is set
+   */
+  public int getCurrentBacklog() {
+    final ViewResultBacklog backlog = _backlog;
+    return (backlog != null) ? backlog.getBacklog() : 0;
+  }
+
+  private boolean isOverloaded() {
+    final ViewResultBacklog backlog = _backlog;
+    return (backlog != null) && (backlog.getBacklog() > _maximumBacklog);
+  }
+
+  @Override
+  protected boolean isPassThrough() {
+    // Once anything has been held back, later updates must queue behind it until it has been released
+    return super.isPassThrough() && !hasPendingCalls() && !isOverloaded();
+  }
+
   //-------------------------------------------------------------------------
   private boolean drainIfRequired() {    
     
     long currentTime = System.currentTimeMillis();
     long lastUpdateTime = _lastUpdateTimeMillis.get();
-    long lastResultTime = getLastUpdateTimeMillis();
-    if (lastResultTime < lastUpdateTime) {
+    if (!hasPendingCalls()) {
       // No more results since the last output
       return false;
     }
     
-    long minimumUpdatePeriodMillis = getMinimumUpdatePeriodMillis();
-    if (currentTime - lastUpdateTime < minimumUpdatePeriodMillis) {
+    long updatePeriodMillis = getEffectiveUpdatePeriodMillis();
+    if (currentTime - lastUpdateTime < updatePeriodMillis) {
       return false;
     }
     
+    if (isOverloaded()) {
+      s_logger.debug("Holding back update; consumer backlog of {} with {} cycles pending", getCurrentBacklog(), getPendingCycleCount());
+      return false;
+    }
+
     if (!_lastUpdateTimeMillis.compareAndSet(lastUpdateTime, currentTime)) {
       // Another thread has got there before us
       return false;
     }
     
     drain();
+    long drainTime = System.currentTimeMillis() - currentTime;
+    long previousDrainTime;
+    do {
+      previousDrainTime = _drainTimeMillis.get();
+    } while (!_drainTimeMillis.compareAndSet(previousDrainTime, (previousDrainTime * 3 + drainTime) / 4));
     return true;
   }
   
@@ -141,20 +264,25 @@ public class RateLimitingMergingViewProcessListener extends MergingViewProcessLi
     long minimumUpdatePeriodMillis = getMinimumUpdatePeriodMillis();
     cancelTimerTask();
     setPassThrough(minimumUpdatePeriodMillis == 0 && !isPaused());
-    if (!isPaused() && !isPassThrough()) {
-      _asyncUpdateCheckerTask = new TimerTask() {
+    if (!isPaused() && (!super.isPassThrough() || (_backlog != null))) {
+      // When passing through, the task is only needed to release updates held back by an overloaded consumer
+      long checkPeriodMillis = (minimumUpdatePeriodMillis == 0) ? MIN_PERIOD : minimumUpdatePeriodMillis;
+      _asyncUpdateCheckerTask = _scheduler.scheduleWithFixedDelay(new Runnable() {
         @Override
         public void run() {
-          drainIfRequired();
+          try {
+            drainIfRequired();
+          } catch (RuntimeException e) {
+            s_logger.error("Error releasing merged update", e);
+          }
         }
-      };
-      _timer.schedule(_asyncUpdateCheckerTask, minimumUpdatePeriodMillis, minimumUpdatePeriodMillis);
+      }, checkPeriodMillis, checkPeriodMillis, TimeUnit.MILLISECONDS);
     } 
   }
 
   private void cancelTimerTask() {
     if (_asyncUpdateCheckerTask != null) {
-      _asyncUpdateCheckerTask.cancel();
+      _asyncUpdateCheckerTask.cancel(false);
       _asyncUpdateCheckerTask = null;
     }
   }
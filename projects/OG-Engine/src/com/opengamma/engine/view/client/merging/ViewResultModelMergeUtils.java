@@ -9,6 +9,7 @@ import java.util.Collection;
 
 import com.opengamma.engine.ComputationTargetSpecification;
 import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
 import com.opengamma.engine.view.InMemoryViewResultModel;
 import com.opengamma.engine.view.ViewCalculationResultModel;
 import com.opengamma.engine.view.ViewResultModel;
@@ -46,5 +47,38 @@ public class ViewResultModelMergeUtils {
       }
     }
   }
+
+  /**
+   * Merges a result into a column-oriented destination. If the source is also column-oriented the values are copied
+   * between the columns directly.
+   * 
+   * @param source the result to merge, not null
+   * @param destination the result to merge into, not null
+   */
+  public static void merge(ViewResultModel source, ColumnarViewComputationResultModel destination) {
+    destination.setValuationTime(source.getValuationTime());
+    destination.setCalculationTime(source.getCalculationTime());
+    destination.setCalculationDuration(source.getCalculationDuration());
+    destination.setVersionCorrection(source.getVersionCorrection());
+    destination.setViewCycleId(source.getViewCycleId());
+    destination.setViewProcessId(source.getViewProcessId());
+    
+    if (source instanceof ColumnarViewComputationResultModel) {
+      destination.putAll((ColumnarViewComputationResultModel) source);
+      return;
+    }
+    for (String calcConfigName : source.getCalculationConfigurationNames()) {
+      ViewCalculationResultModel resultCalcModel = source.getCalculationResult(calcConfigName);
+      for (ComputationTargetSpecification targetSpec : resultCalcModel.getAllTargets()) {
+        Collection<ComputedValue> resultValues = resultCalcModel.getAllValues(targetSpec);
+        if (resultValues == null) {
+          continue;
+        }
+        for (ComputedValue result : resultValues) {
+          destination.addValue(calcConfigName, result);
+        }
+      }
+    }
+  }
   
 }
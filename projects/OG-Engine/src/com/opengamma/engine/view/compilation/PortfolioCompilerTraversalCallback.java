@@ -43,8 +43,10 @@ import com.opengamma.util.tuple.Pair;
     _builder = builder;
   }
 
-  protected void addValueRequirement(final ValueRequirement valueRequirement) {
-    _builder.addTarget(valueRequirement);
+  protected void addValueRequirements(final Set<ValueRequirement> valueRequirements) {
+    if (!valueRequirements.isEmpty()) {
+      _builder.addTarget(valueRequirements);
+    }
   }
 
   @Override
@@ -53,9 +55,11 @@ import com.opengamma.util.tuple.Pair;
     final Set<Pair<String, ValueProperties>> requiredOutputs = _calculationConfiguration.getPortfolioRequirementsBySecurityType().get(ViewCalculationConfiguration.SECURITY_TYPE_AGGREGATE_ONLY);
     if ((requiredOutputs != null) && !requiredOutputs.isEmpty()) {
       final ComputationTargetSpecification nodeSpec = new ComputationTargetSpecification(ComputationTargetType.PORTFOLIO_NODE, node.getUniqueId());
+      final Set<ValueRequirement> valueRequirements = new HashSet<ValueRequirement>();
       for (Pair<String, ValueProperties> requiredOutput : requiredOutputs) {
-        addValueRequirement(new ValueRequirement(requiredOutput.getFirst(), nodeSpec, requiredOutput.getSecond()));
+        valueRequirements.add(new ValueRequirement(requiredOutput.getFirst(), nodeSpec, requiredOutput.getSecond()));
       }
+      addValueRequirements(valueRequirements);
     }
   }
 
@@ -66,6 +70,7 @@ import com.opengamma.util.tuple.Pair;
       return;
     }
     final String securityType = security.getSecurityType();
+    final Set<ValueRequirement> valueRequirements = new HashSet<ValueRequirement>();
     Set<Pair<String, ValueProperties>> requiredOutputs;
     if ((_resultModelDefinition.getAggregatePositionOutputMode() != ResultOutputMode.NONE)
         || (_resultModelDefinition.getPositionOutputMode() != ResultOutputMode.NONE)) {
@@ -80,7 +85,7 @@ import com.opengamma.util.tuple.Pair;
         if (_resultModelDefinition.getPositionOutputMode() != ResultOutputMode.NONE) {
           final ComputationTargetSpecification positionSpec = new ComputationTargetSpecification(ComputationTargetType.POSITION, position.getUniqueId());
           for (Pair<String, ValueProperties> requiredOutput : requiredOutputs) {
-            addValueRequirement(new ValueRequirement(requiredOutput.getFirst(), positionSpec, requiredOutput.getSecond()));
+            valueRequirements.add(new ValueRequirement(requiredOutput.getFirst(), positionSpec, requiredOutput.getSecond()));
           }
         }
       }
@@ -93,12 +98,13 @@ import com.opengamma.util.tuple.Pair;
           for (Trade trade : trades) {
             final ComputationTargetSpecification tradeSpec = new ComputationTargetSpecification(ComputationTargetType.TRADE, trade.getUniqueId());
             for (Pair<String, ValueProperties> requiredOutput : requiredOutputs) {
-              addValueRequirement(new ValueRequirement(requiredOutput.getFirst(), tradeSpec, requiredOutput.getSecond()));
+              valueRequirements.add(new ValueRequirement(requiredOutput.getFirst(), tradeSpec, requiredOutput.getSecond()));
             }
           }
         }
       }
     }
+    addValueRequirements(valueRequirements);
   }
 
   @Override
@@ -111,9 +117,11 @@ import com.opengamma.util.tuple.Pair;
       }
     }
     final ComputationTargetSpecification nodeSpec = new ComputationTargetSpecification(ComputationTargetType.PORTFOLIO_NODE, node.getUniqueId());
+    final Set<ValueRequirement> valueRequirements = new HashSet<ValueRequirement>();
     for (Pair<String, ValueProperties> requiredOutput : nodeRequirements) {
-      addValueRequirement(new ValueRequirement(requiredOutput.getFirst(), nodeSpec, requiredOutput.getSecond()));
+      valueRequirements.add(new ValueRequirement(requiredOutput.getFirst(), nodeSpec, requiredOutput.getSecond()));
     }
+    addValueRequirements(valueRequirements);
   }
 
 }
@@ -6,6 +6,8 @@
 package com.opengamma.engine.view.compilation;
 
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.opengamma.engine.ComputationTargetSpecification;
 import com.opengamma.engine.ComputationTargetType;
@@ -34,6 +36,7 @@ public final class SpecificRequirementsCompiler {
     ResultModelDefinition resultModelDefinition = compilationContext.getViewDefinition().getResultModelDefinition();
     for (ViewCalculationConfiguration calcConfig : compilationContext.getViewDefinition().getAllCalculationConfigurations()) {
       final DependencyGraphBuilder builder = compilationContext.getBuilder(calcConfig.getName());
+      final Set<ValueRequirement> requirements = new HashSet<ValueRequirement>();
       for (ValueRequirement requirement : calcConfig.getSpecificRequirements()) {
         ComputationTargetSpecification targetSpecification = requirement.getTargetSpecification();
         if (resultModelDefinition.getOutputMode(targetSpecification.getType()) == ResultOutputMode.NONE) {
@@ -41,7 +44,10 @@ public final class SpecificRequirementsCompiler {
           // automatically if it is needed for some other terminal output.
           continue;
         }
-        builder.addTarget(requirement);
+        requirements.add(requirement);
+      }
+      if (!requirements.isEmpty()) {
+        builder.addTarget(requirements);
       }
     }
     return specificTargetTypes;
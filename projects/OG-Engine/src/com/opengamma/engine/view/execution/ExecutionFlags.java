@@ -77,6 +77,16 @@ public final class ExecutionFlags {
     return this;
   }
   
+  /**
+   * Adds {@link ViewExecutionFlags#PARALLEL_CYCLES}.
+   * 
+   * @return this
+   */
+  public ExecutionFlags parallelCycles() {
+    _flags.add(ViewExecutionFlags.PARALLEL_CYCLES);
+    return this;
+  }
+  
   /**
    * Adds {@link ViewExecutionFlags#COMPILE_ONLY}
    * 
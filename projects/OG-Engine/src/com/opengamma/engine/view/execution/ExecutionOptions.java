@@ -26,6 +26,7 @@ public class ExecutionOptions implements ViewExecutionOptions {
   private final Integer _maxSuccessiveDeltaCycles;
   private final ViewCycleExecutionOptions _defaultExecutionOptions;
   private final VersionCorrection _versionCorrection;
+  private final Integer _maxParallelCycles;
 
   //-------------------------------------------------------------------------
   /**
@@ -239,15 +240,33 @@ public class ExecutionOptions implements ViewExecutionOptions {
    */
   public ExecutionOptions(ViewCycleExecutionSequence executionSequence, EnumSet<ViewExecutionFlags> flags,
       Integer maxSuccessiveDeltaCycles, ViewCycleExecutionOptions defaultExecutionOptions, VersionCorrection versionCorrection) {
+    this(executionSequence, flags, maxSuccessiveDeltaCycles, defaultExecutionOptions, versionCorrection, null);
+  }
+
+  /**
+   * 
+   * @param executionSequence  the execution sequence, not null
+   * @param flags  the execution flags, not null
+   * @param maxSuccessiveDeltaCycles  the maximum cycles, may be null
+   * @param defaultExecutionOptions  the default view cycle execution options, may be null
+   * @param versionCorrection  the version-correction instants, not null
+   * @param maxParallelCycles  the maximum number of concurrent cycles with {@link ViewExecutionFlags#PARALLEL_CYCLES}, positive, may be null
+   */
+  public ExecutionOptions(ViewCycleExecutionSequence executionSequence, EnumSet<ViewExecutionFlags> flags,
+      Integer maxSuccessiveDeltaCycles, ViewCycleExecutionOptions defaultExecutionOptions, VersionCorrection versionCorrection, Integer maxParallelCycles) {
     ArgumentChecker.notNull(executionSequence, "executionSequence");
     ArgumentChecker.notNull(flags, "flags");
     ArgumentChecker.notNull(versionCorrection, "versionCorrection");
+    if (maxParallelCycles != null) {
+      ArgumentChecker.notNegativeOrZero(maxParallelCycles, "maxParallelCycles");
+    }
     
     _executionSequence = executionSequence;
     _flags = flags;
     _maxSuccessiveDeltaCycles = maxSuccessiveDeltaCycles;
     _defaultExecutionOptions = defaultExecutionOptions;
     _versionCorrection = versionCorrection;
+    _maxParallelCycles = maxParallelCycles;
   }
 
   //-------------------------------------------------------------------------
@@ -261,6 +280,11 @@ public class ExecutionOptions implements ViewExecutionOptions {
     return _maxSuccessiveDeltaCycles;
   }
 
+  @Override
+  public Integer getMaxParallelCycles() {
+    return _maxParallelCycles;
+  }
+
   @Override
   public ViewCycleExecutionOptions getDefaultExecutionOptions() {
     return _defaultExecutionOptions;
@@ -312,6 +336,13 @@ public class ExecutionOptions implements ViewExecutionOptions {
     if (!_versionCorrection.equals(other._versionCorrection)) {
       return false;
     }
+    if (_maxParallelCycles == null) {
+      if (other._maxParallelCycles != null) {
+        return false;
+      }
+    } else if (!_maxParallelCycles.equals(other._maxParallelCycles)) {
+      return false;
+    }
     return true;
   }
 
@@ -324,13 +355,14 @@ public class ExecutionOptions implements ViewExecutionOptions {
     result = prime * result + ((_defaultExecutionOptions == null) ? 0 : _defaultExecutionOptions.hashCode());
     result = prime * result + ((_maxSuccessiveDeltaCycles == null) ? 0 : _maxSuccessiveDeltaCycles.hashCode());
     result = prime * result + _versionCorrection.hashCode();
+    result = prime * result + ((_maxParallelCycles == null) ? 0 : _maxParallelCycles.hashCode());
     return result;
   }
 
   @Override
   public String toString() {
     return "ExecutionOptions [executionSequence=" + _executionSequence + ", flags=" + _flags + ", maxSuccessiveDeltaCycles=" + _maxSuccessiveDeltaCycles + ", defaultExecutionOptions=" +
-        _defaultExecutionOptions + ", versionCorrection=" + _versionCorrection + "]";
+        _defaultExecutionOptions + ", versionCorrection=" + _versionCorrection + ", maxParallelCycles=" + _maxParallelCycles + "]";
   }
 
 }
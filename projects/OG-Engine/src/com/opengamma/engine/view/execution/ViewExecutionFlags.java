@@ -52,6 +52,14 @@ public enum ViewExecutionFlags {
   /**
    * Indicates that the results should be stored in batch database.
    */
-  BATCH
+  BATCH,
+
+  /**
+   * Indicates that the cycles in the execution sequence are independent of each other, so several may be executed
+   * concurrently. Each cycle is a full computation with its own market data snapshot, and results are still delivered
+   * in the order of the sequence. This is intended for historical or batch sequences, such as a run over many valuation
+   * dates; cycle fragments are not streamed in this mode.
+   */
+  PARALLEL_CYCLES
     
 }
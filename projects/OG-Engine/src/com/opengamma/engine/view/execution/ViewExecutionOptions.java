@@ -34,6 +34,16 @@ public interface ViewExecutionOptions {
    * @return the maximum number of delta cycles following a full computation cycle, null for no limit
    */
   Integer getMaxSuccessiveDeltaCycles();
+
+  /**
+   * Gets the maximum number of cycles executing at once when {@link ViewExecutionFlags#PARALLEL_CYCLES} is set.
+   * <p>
+   * If not set, the number of available processors is used, but never fewer than two so that cycles still overlap on
+   * a single processor.
+   * 
+   * @return the maximum number of concurrent cycles, null for the default
+   */
+  Integer getMaxParallelCycles();
     
   /**
    * Gets the default execution options.
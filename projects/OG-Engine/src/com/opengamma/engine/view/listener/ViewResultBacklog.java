@@ -0,0 +1,22 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.listener;
+
+/**
+ * Implemented by a {@link ViewResultListener} that hands results on asynchronously, for example to a remote consumer,
+ * so that the rate at which results are released to it can follow the rate at which they are consumed.
+ */
+public interface ViewResultBacklog {
+
+  /**
+   * Returns the number of messages accepted by the listener that have not yet been consumed downstream. Each listener
+   * call, such as a cycle starting, a fragment or a cycle completing, may count as one message.
+   *
+   * @return the number of outstanding messages, zero if the consumer is keeping up
+   */
+  int getBacklog();
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.fudgemsg;
+
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Sets;
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.view.client.ViewResultFilter;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.test.AbstractFudgeBuilderTestCase;
+
+/**
+ * Test the {@link ViewResultFilterFudgeBuilder} class.
+ */
+@Test
+public class ViewResultFilterFudgeBuilderTest extends AbstractFudgeBuilderTestCase {
+
+  public void testAll() {
+    assertEncodeDecodeCycle(ViewResultFilter.class, ViewResultFilter.ALL);
+  }
+
+  public void testPopulated() {
+    final ViewResultFilter filter = new ViewResultFilter(Collections.singleton("Default"), Sets.newHashSet("PV", "Delta"),
+        Sets.newHashSet(new ComputationTargetSpecification(UniqueId.of("Test", "A")), new ComputationTargetSpecification(UniqueId.of("Test", "B"))));
+    assertEncodeDecodeCycle(ViewResultFilter.class, filter);
+  }
+
+  public void testEmptySetsRetained() {
+    final ViewResultFilter filter = ViewResultFilter.ALL.withValueNames(Collections.<String>emptySet());
+    assertEncodeDecodeCycle(ViewResultFilter.class, filter);
+  }
+
+}
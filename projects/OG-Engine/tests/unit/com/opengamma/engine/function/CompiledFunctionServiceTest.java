@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.function;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.time.InstantProvider;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+
+/**
+ * Tests the {@link CompiledFunctionService} class.
+ */
+@Test
+public class CompiledFunctionServiceTest {
+
+  private static class MockFunction extends AbstractFunction {
+
+    private final AtomicInteger _initCount = new AtomicInteger();
+    private final boolean _fail;
+
+    private MockFunction(final String name, final boolean fail) {
+      setUniqueId(name);
+      _fail = fail;
+    }
+
+    @Override
+    public void init(final FunctionCompilationContext context) {
+      _initCount.incrementAndGet();
+      if (_fail) {
+        throw new OpenGammaRuntimeException("fail");
+      }
+    }
+
+    @Override
+    public CompiledFunctionDefinition compile(final FunctionCompilationContext context, final InstantProvider atInstant) {
+      return null;
+    }
+
+  }
+
+  /**
+   * Holds submitted tasks until they are explicitly run.
+   */
+  private static class DeferredExecutorService extends AbstractExecutorService {
+
+    private final List<Runnable> _tasks = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(final Runnable command) {
+      _tasks.add(command);
+    }
+
+    public void runAll() {
+      for (Runnable task : _tasks) {
+        task.run();
+      }
+      _tasks.clear();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      return true;
+    }
+
+  }
+
+  private static InMemoryFunctionRepository repository(final MockFunction... functions) {
+    final InMemoryFunctionRepository repository = new InMemoryFunctionRepository();
+    for (MockFunction function : functions) {
+      repository.addFunction(function);
+    }
+    return repository;
+  }
+
+  public void testLazyInitialization() {
+    final MockFunction a = new MockFunction("A", false);
+    final MockFunction b = new MockFunction("B", false);
+    final CompiledFunctionService service = new CompiledFunctionService(repository(a, b), new LazyFunctionRepositoryCompiler(), new FunctionCompilationContext());
+    final DeferredExecutorService executor = new DeferredExecutorService();
+    service.setExecutorService(executor);
+    service.initialize(42L, Arrays.asList("A", "B"));
+    assertEquals(42L, (long) service.getFunctionCompilationContext().getFunctionInitId());
+    assertEquals(2, service.getInitializedFunctionRepository().getAllFunctions().size());
+    assertEquals(0, a._initCount.get());
+    assertTrue(service.ensureInitialized("A"));
+    assertTrue(service.ensureInitialized("A"));
+    assertEquals(1, a._initCount.get());
+    assertEquals(0, b._initCount.get());
+    executor.runAll();
+    assertEquals(1, a._initCount.get());
+    assertEquals(1, b._initCount.get());
+  }
+
+  public void testLazyInitializationIgnoresOtherFunctions() {
+    final MockFunction a = new MockFunction("A", false);
+    final MockFunction b = new MockFunction("B", false);
+    final CompiledFunctionService service = new CompiledFunctionService(repository(a, b), new LazyFunctionRepositoryCompiler(), new FunctionCompilationContext());
+    final DeferredExecutorService executor = new DeferredExecutorService();
+    service.setExecutorService(executor);
+    service.initialize(1L, Arrays.asList("A"));
+    assertEquals(Collections.singleton(a), new HashSet<FunctionDefinition>(service.getInitializedFunctionRepository().getAllFunctions()));
+    executor.runAll();
+    assertEquals(1, a._initCount.get());
+    assertEquals(0, b._initCount.get());
+  }
+
+  public void testReinitializationCancelsBackgroundInitialization() {
+    final MockFunction a = new MockFunction("A", false);
+    final MockFunction b = new MockFunction("B", false);
+    final CompiledFunctionService service = new CompiledFunctionService(repository(a, b), new LazyFunctionRepositoryCompiler(), new FunctionCompilationContext());
+    final DeferredExecutorService executor = new DeferredExecutorService();
+    service.setExecutorService(executor);
+    service.initialize(1L, Arrays.asList("A", "B"));
+    // A reconnect re-initializes before the first background task has run
+    service.initialize(2L, Arrays.asList("A", "B"));
+    executor.runAll();
+    assertEquals(1, a._initCount.get());
+    assertEquals(1, b._initCount.get());
+    assertEquals(2L, (long) service.getFunctionCompilationContext().getFunctionInitId());
+  }
+
+  public void testLazyInitializationFailure() {
+    final MockFunction a = new MockFunction("A", true);
+    final CompiledFunctionService service = new CompiledFunctionService(repository(a), new LazyFunctionRepositoryCompiler(), new FunctionCompilationContext());
+    service.setExecutorService(new DeferredExecutorService());
+    service.initialize(1L, Arrays.asList("A"));
+    assertFalse(service.ensureInitialized("A"));
+    assertFalse(service.ensureInitialized("A"));
+    assertEquals(1, a._initCount.get());
+    assertTrue(service.getInitializedFunctionRepository().getAllFunctions().isEmpty());
+  }
+
+  public void testEagerInitializationWithoutLazyCompiler() {
+    final MockFunction a = new MockFunction("A", false);
+    final CompiledFunctionService service = new CompiledFunctionService(repository(a), new CachingFunctionRepositoryCompiler(), new FunctionCompilationContext());
+    service.initialize(1L, Arrays.asList("A"));
+    assertEquals(1, a._initCount.get());
+    assertTrue(service.ensureInitialized("A"));
+    assertEquals(1, a._initCount.get());
+  }
+
+}
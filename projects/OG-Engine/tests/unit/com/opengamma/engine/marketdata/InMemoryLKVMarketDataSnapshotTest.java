@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Sets;
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests {@link InMemoryLKVMarketDataSnapshot}
+ */
+@Test
+public class InMemoryLKVMarketDataSnapshotTest {
+
+  private ValueRequirement getRequirement(int number) {
+    return new ValueRequirement("Req-" + number, new ComputationTargetSpecification(ComputationTargetType.PRIMITIVE, UniqueId.of("Scheme", "Target")));
+  }
+
+  public void testSnapshotIsolation() {
+    final InMemoryLKVMarketDataProvider provider = new InMemoryLKVMarketDataProvider();
+    provider.addValue(getRequirement(1), 1.0);
+    final InMemoryLKVMarketDataSnapshot snapshot = provider.snapshot(null);
+    snapshot.init();
+    provider.addValue(getRequirement(1), 2.0);
+    provider.addValue(getRequirement(2), 3.0);
+    assertEquals(1.0, snapshot.query(getRequirement(1)));
+    assertNull(snapshot.query(getRequirement(2)));
+    assertEquals(Collections.singleton(getRequirement(1)), snapshot.getAllValueKeys());
+    assertEquals(2.0, provider.getCurrentValue(getRequirement(1)));
+  }
+
+  public void testChangedSince() {
+    final InMemoryLKVMarketDataProvider provider = new InMemoryLKVMarketDataProvider();
+    for (int i = 0; i < 100; i++) {
+      provider.addValue(getRequirement(i), (double) i);
+    }
+    final InMemoryLKVMarketDataSnapshot previous = provider.snapshot(null);
+    previous.init();
+    provider.addValue(getRequirement(1), 1.0);
+    provider.addValue(getRequirement(2), 2.5);
+    provider.removeValue(getRequirement(3));
+    provider.addValue(getRequirement(100), 100.0);
+    final InMemoryLKVMarketDataSnapshot current = provider.snapshot(null);
+    current.init();
+    assertEquals(Sets.newHashSet(getRequirement(2), getRequirement(3), getRequirement(100)), current.getChangedSince(previous));
+    assertTrue(current.getChangedSince(current).isEmpty());
+  }
+
+  public void testChangedSinceOtherProvider() {
+    final InMemoryLKVMarketDataSnapshot previous = new InMemoryLKVMarketDataProvider().snapshot(null);
+    previous.init();
+    final InMemoryLKVMarketDataSnapshot current = new InMemoryLKVMarketDataProvider().snapshot(null);
+    current.init();
+    assertNull(current.getChangedSince(previous));
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.availability;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.time.Instant;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.core.change.ChangeEvent;
+import com.opengamma.core.change.ChangeType;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests {@link CachingMarketDataAvailabilityProvider}
+ */
+@Test
+public class CachingMarketDataAvailabilityProviderTest {
+
+  private static final ValueRequirement A = new ValueRequirement("Market_Value", ComputationTargetType.SECURITY, UniqueId.of("Sec", "A", "1"));
+  private static final ValueRequirement B = new ValueRequirement("Market_Value", ComputationTargetType.SECURITY, UniqueId.of("Sec", "B", "1"));
+
+  private static final class CountingProvider extends FixedMarketDataAvailabilityProvider {
+
+    private int _calls;
+
+    @Override
+    public MarketDataAvailability getAvailability(final ValueRequirement requirement) {
+      _calls++;
+      return super.getAvailability(requirement);
+    }
+
+  }
+
+  public void testCached() {
+    final CountingProvider underlying = new CountingProvider();
+    underlying.addAvailableRequirement(A);
+    final CachingMarketDataAvailabilityProvider cache = new CachingMarketDataAvailabilityProvider(underlying);
+    assertEquals(MarketDataAvailability.AVAILABLE, cache.getAvailability(A));
+    assertEquals(MarketDataAvailability.AVAILABLE, cache.getAvailability(A));
+    assertEquals(MarketDataAvailability.NOT_AVAILABLE, cache.getAvailability(B));
+    assertEquals(MarketDataAvailability.NOT_AVAILABLE, cache.getAvailability(B));
+    assertEquals(2, underlying._calls);
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate(), 0);
+  }
+
+  public void testBulk() {
+    final CountingProvider underlying = new CountingProvider();
+    underlying.addMissingRequirement(B);
+    final CachingMarketDataAvailabilityProvider cache = new CachingMarketDataAvailabilityProvider(underlying);
+    cache.getAvailability(A);
+    final Map<ValueRequirement, MarketDataAvailability> result = cache.getAvailability(Arrays.asList(A, B));
+    assertEquals(MarketDataAvailability.NOT_AVAILABLE, result.get(A));
+    assertEquals(MarketDataAvailability.MISSING, result.get(B));
+    assertEquals(2, underlying._calls);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  public void testChangeInvalidatesTarget() {
+    final CountingProvider underlying = new CountingProvider();
+    final CachingMarketDataAvailabilityProvider cache = new CachingMarketDataAvailabilityProvider(underlying);
+    cache.getAvailability(A);
+    cache.getAvailability(B);
+    underlying.addAvailableRequirement(A);
+    // A later version of the same security invalidates requirements on any version
+    cache.entityChanged(new ChangeEvent(ChangeType.UPDATED, UniqueId.of("Sec", "A", "1"), UniqueId.of("Sec", "A", "2"), Instant.now()));
+    assertEquals(1, cache.getSize());
+    assertEquals(MarketDataAvailability.AVAILABLE, cache.getAvailability(A));
+    assertEquals(MarketDataAvailability.NOT_AVAILABLE, cache.getAvailability(B));
+    assertEquals(3, underlying._calls);
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  public void testSubscriptionFailureInvalidates() {
+    final CountingProvider underlying = new CountingProvider();
+    final CachingMarketDataAvailabilityProvider cache = new CachingMarketDataAvailabilityProvider(underlying);
+    cache.getAvailability(A);
+    underlying.addMissingRequirement(A);
+    cache.subscriptionFailed(A, "Test");
+    assertEquals(MarketDataAvailability.MISSING, cache.getAvailability(A));
+    assertEquals(2, underlying._calls);
+  }
+
+}
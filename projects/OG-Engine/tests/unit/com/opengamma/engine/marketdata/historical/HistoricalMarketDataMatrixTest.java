@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.historical;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.time.calendar.LocalDate;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.timeseries.localdate.ArrayLocalDateDoubleTimeSeries;
+import com.opengamma.util.timeseries.localdate.LocalDateDoubleTimeSeries;
+
+/**
+ * Tests {@link HistoricalMarketDataMatrix}
+ */
+@Test
+public class HistoricalMarketDataMatrixTest {
+
+  private static final LocalDate D1 = LocalDate.of(2012, 6, 1);
+  private static final LocalDate D2 = LocalDate.of(2012, 6, 4);
+  private static final LocalDate D3 = LocalDate.of(2012, 6, 5);
+  private static final LocalDate D4 = LocalDate.of(2012, 6, 6);
+
+  private ValueRequirement getRequirement(String ticker) {
+    return new ValueRequirement("Market_Value", new ComputationTargetSpecification(ComputationTargetType.PRIMITIVE, UniqueId.of("Test", ticker)));
+  }
+
+  private LocalDateDoubleTimeSeries series(LocalDate[] dates, double[] values) {
+    return new ArrayLocalDateDoubleTimeSeries(dates, values);
+  }
+
+  public void testColumns() {
+    final Map<ValueRequirement, LocalDateDoubleTimeSeries> data = new HashMap<ValueRequirement, LocalDateDoubleTimeSeries>();
+    data.put(getRequirement("A"), series(new LocalDate[] {D1, D2, D3 }, new double[] {1.0, 2.0, 3.0 }));
+    data.put(getRequirement("B"), series(new LocalDate[] {D2, D4 }, new double[] {20.0, 40.0 }));
+    // D4 is outside the range so is not held
+    final HistoricalMarketDataMatrix matrix = HistoricalMarketDataMatrix.of(D1, D3, data);
+    assertEquals(3, matrix.getDateCount());
+    assertEquals(2, matrix.getRequirementCount());
+    assertEquals(3 * 2 * 8, matrix.getValueMemoryBytes());
+    assertTrue(matrix.covers(D2));
+    assertFalse(matrix.covers(D4));
+    HistoricalMarketDataMatrix.Column column = matrix.getColumn(D2);
+    assertEquals(2.0, column.getValue(getRequirement("A")));
+    assertEquals(20.0, column.getValue(getRequirement("B")));
+    column = matrix.getColumn(D3);
+    assertEquals(3.0, column.getValue(getRequirement("A")));
+    assertTrue(column.contains(getRequirement("B")));
+    assertNull(column.getValue(getRequirement("B")));
+    assertFalse(column.contains(getRequirement("C")));
+    assertNull(column.getValue(getRequirement("C")));
+    column = matrix.getColumn(D4);
+    assertNull(column.getValue(getRequirement("B")));
+  }
+
+  public void testWith() {
+    final HistoricalMarketDataMatrix matrix = HistoricalMarketDataMatrix.of(D1, D4,
+        Collections.singletonMap(getRequirement("A"), series(new LocalDate[] {D1, D2 }, new double[] {1.0, 2.0 })));
+    final HistoricalMarketDataMatrix extended = matrix.with(
+        Collections.singletonMap(getRequirement("B"), series(new LocalDate[] {D2, D3 }, new double[] {20.0, 30.0 })));
+    assertFalse(matrix.contains(getRequirement("B")));
+    assertTrue(extended.contains(getRequirement("B")));
+    assertEquals(3, extended.getDateCount());
+    assertEquals(1.0, extended.getColumn(D1).getValue(getRequirement("A")));
+    assertNull(extended.getColumn(D1).getValue(getRequirement("B")));
+    assertEquals(2.0, extended.getColumn(D2).getValue(getRequirement("A")));
+    assertEquals(20.0, extended.getColumn(D2).getValue(getRequirement("B")));
+    assertNull(extended.getColumn(D3).getValue(getRequirement("A")));
+    assertEquals(30.0, extended.getColumn(D3).getValue(getRequirement("B")));
+    // The original is unchanged
+    assertEquals(2, matrix.getDateCount());
+  }
+
+}
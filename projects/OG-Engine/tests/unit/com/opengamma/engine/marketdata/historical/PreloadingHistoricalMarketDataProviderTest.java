@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.historical;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.time.calendar.LocalDate;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.core.historicaltimeseries.HistoricalTimeSeriesSource;
+import com.opengamma.core.historicaltimeseries.impl.SimpleHistoricalTimeSeries;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.marketdata.MarketDataSnapshot;
+import com.opengamma.engine.marketdata.spec.FixedHistoricalMarketDataSpecification;
+import com.opengamma.engine.test.MockSecuritySource;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.id.ExternalIdBundle;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.timeseries.localdate.ArrayLocalDateDoubleTimeSeries;
+
+/**
+ * Tests {@link PreloadingHistoricalMarketDataProvider}
+ */
+@Test
+public class PreloadingHistoricalMarketDataProviderTest {
+
+  private static final LocalDate START = LocalDate.of(2012, 1, 2);
+
+  public void testOneLoadPerBlock() {
+    final ValueRequirement requirement = new ValueRequirement("Market_Value", ComputationTargetType.PRIMITIVE, UniqueId.of("Test", "A"));
+    final LocalDate[] dates = new LocalDate[20];
+    final double[] values = new double[dates.length];
+    for (int i = 0; i < dates.length; i++) {
+      dates[i] = START.plusDays(i);
+      values[i] = i;
+    }
+    final HistoricalTimeSeriesSource source = mock(HistoricalTimeSeriesSource.class);
+    when(source.getHistoricalTimeSeries(eq("Market_Value"), any(ExternalIdBundle.class), any(LocalDate.class), anyString(), any(LocalDate.class), anyBoolean(),
+        any(LocalDate.class), anyBoolean())).thenReturn(new SimpleHistoricalTimeSeries(UniqueId.of("Hts", "A"), new ArrayLocalDateDoubleTimeSeries(dates, values)));
+    when(source.getHistoricalTimeSeries(eq("Market_Value"), any(ExternalIdBundle.class), any(LocalDate.class), anyString(), any(LocalDate.class), anyBoolean(),
+        any(LocalDate.class), anyBoolean(), anyInt())).thenReturn(new SimpleHistoricalTimeSeries(UniqueId.of("Hts", "A"), new ArrayLocalDateDoubleTimeSeries()));
+    final PreloadingHistoricalMarketDataProvider provider = new PreloadingHistoricalMarketDataProvider(source, new MockSecuritySource(), null, null, 10);
+    provider.subscribe(requirement);
+    for (int i = 0; i < 10; i++) {
+      final MarketDataSnapshot snapshot = provider.snapshot(new FixedHistoricalMarketDataSpecification(START.plusDays(i)));
+      snapshot.init(new HashSet<ValueRequirement>(Arrays.asList(requirement)), 0, null);
+      assertEquals((double) i, snapshot.query(requirement));
+    }
+    assertEquals(1, provider.getPreloadCount());
+    final MarketDataSnapshot snapshot = provider.snapshot(new FixedHistoricalMarketDataSpecification(START.plusDays(10)));
+    snapshot.init();
+    assertEquals(2, provider.getPreloadCount());
+    verify(source, times(2)).getHistoricalTimeSeries(eq("Market_Value"), any(ExternalIdBundle.class), any(LocalDate.class), anyString(), any(LocalDate.class),
+        anyBoolean(), any(LocalDate.class), anyBoolean());
+    // The mock returns the same points whatever range is asked for; only those inside the block are used
+    assertEquals(10.0, snapshot.query(requirement));
+    assertNull(provider.snapshot(new FixedHistoricalMarketDataSpecification(START.plusDays(25))).query(requirement));
+  }
+
+  public void testResolutionChangeWithinBlock() {
+    final ValueRequirement requirement = new ValueRequirement("Market_Value", ComputationTargetType.PRIMITIVE, UniqueId.of("Test", "A"));
+    final LocalDate change = START.plusDays(6);
+    final LocalDate[] dates = new LocalDate[10];
+    final double[] oldValues = new double[dates.length];
+    final double[] newValues = new double[dates.length];
+    for (int i = 0; i < dates.length; i++) {
+      dates[i] = START.plusDays(i);
+      oldValues[i] = i;
+      newValues[i] = 100 + i;
+    }
+    final SimpleHistoricalTimeSeries oldSeries = new SimpleHistoricalTimeSeries(UniqueId.of("Hts", "Old"), new ArrayLocalDateDoubleTimeSeries(dates, oldValues));
+    final SimpleHistoricalTimeSeries newSeries = new SimpleHistoricalTimeSeries(UniqueId.of("Hts", "New"), new ArrayLocalDateDoubleTimeSeries(dates, newValues));
+    // The identifiers resolve to the old series before the change date and the new one from it
+    final HistoricalTimeSeriesSource source = mock(HistoricalTimeSeriesSource.class);
+    for (int i = 0; i < dates.length; i++) {
+      final SimpleHistoricalTimeSeries series = dates[i].isBefore(change) ? oldSeries : newSeries;
+      when(source.getHistoricalTimeSeries(eq("Market_Value"), any(ExternalIdBundle.class), eq(dates[i]), anyString(), any(LocalDate.class), anyBoolean(),
+          any(LocalDate.class), anyBoolean())).thenReturn(series);
+      when(source.getHistoricalTimeSeries(eq("Market_Value"), any(ExternalIdBundle.class), eq(dates[i]), anyString(), any(LocalDate.class), anyBoolean(),
+          any(LocalDate.class), anyBoolean(), anyInt())).thenReturn(series);
+    }
+    final PreloadingHistoricalMarketDataProvider provider = new PreloadingHistoricalMarketDataProvider(source, new MockSecuritySource(), null, null, 10);
+    provider.subscribe(requirement);
+    for (int i = 0; i < dates.length; i++) {
+      final MarketDataSnapshot snapshot = provider.snapshot(new FixedHistoricalMarketDataSpecification(dates[i]));
+      snapshot.init(new HashSet<ValueRequirement>(Arrays.asList(requirement)), 0, null);
+      assertEquals(dates[i].isBefore(change) ? (double) i : 100.0 + i, snapshot.query(requirement));
+    }
+    assertEquals(1, provider.getPreloadCount());
+  }
+
+}
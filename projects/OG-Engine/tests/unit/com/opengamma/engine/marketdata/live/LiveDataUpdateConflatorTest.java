@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.marketdata.live;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Map;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
+
+/**
+ * Tests {@link LiveDataUpdateConflator}
+ */
+@Test
+public class LiveDataUpdateConflatorTest {
+
+  private static final LiveDataSpecification SPEC_A = new LiveDataSpecification("Test", ExternalId.of("Test", "A"));
+  private static final LiveDataSpecification SPEC_B = new LiveDataSpecification("Test", ExternalId.of("Test", "B"));
+
+  private static FudgeMsg fields(final Object... nameValues) {
+    final MutableFudgeMsg msg = new FudgeContext().newMessage();
+    for (int i = 0; i < nameValues.length; i += 2) {
+      msg.add((String) nameValues[i], nameValues[i + 1]);
+    }
+    return msg;
+  }
+
+  public void testSingleUpdatePassedThrough() {
+    final LiveDataUpdateConflator conflator = new LiveDataUpdateConflator();
+    final FudgeMsg msg = fields("Bid", 1.0);
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(0, SPEC_A, msg)));
+    final Map<LiveDataSpecification, FudgeMsg> drained = conflator.drain();
+    assertEquals(1, drained.size());
+    assertSame(msg, drained.get(SPEC_A));
+    assertTrue(conflator.drain().isEmpty());
+  }
+
+  public void testFieldsMerged() {
+    final LiveDataUpdateConflator conflator = new LiveDataUpdateConflator();
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(0, SPEC_A, fields("Bid", 1.0, "Ask", 2.0))));
+    assertFalse(conflator.update(new LiveDataValueUpdateBean(1, SPEC_A, fields("Bid", 1.5))));
+    assertFalse(conflator.update(new LiveDataValueUpdateBean(2, SPEC_A, fields("Last", 1.7))));
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(3, SPEC_B, fields("Bid", 9.0))));
+    assertEquals(2, conflator.getPendingCount());
+    final Map<LiveDataSpecification, FudgeMsg> drained = conflator.drain();
+    assertEquals(2, drained.size());
+    final FudgeMsg a = drained.get(SPEC_A);
+    assertEquals(3, a.getNumFields());
+    assertEquals(1.5, a.getDouble("Bid"), 0);
+    assertEquals(2.0, a.getDouble("Ask"), 0);
+    assertEquals(1.7, a.getDouble("Last"), 0);
+    assertEquals(9.0, drained.get(SPEC_B).getDouble("Bid"), 0);
+    assertEquals(0, conflator.getPendingCount());
+    // The next update after a drain is reported again
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(4, SPEC_A, fields("Bid", 1.6))));
+    assertEquals(1.6, conflator.drain().get(SPEC_A).getDouble("Bid"), 0);
+  }
+
+  public void testRemove() {
+    final LiveDataUpdateConflator conflator = new LiveDataUpdateConflator();
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(0, SPEC_A, fields("Bid", 1.0))));
+    conflator.remove(SPEC_A);
+    // The pending update is still drained
+    assertEquals(1.0, conflator.drain().get(SPEC_A).getDouble("Bid"), 0);
+    assertEquals(0, conflator.getPendingCount());
+    // A later update starts a new slot
+    assertTrue(conflator.update(new LiveDataValueUpdateBean(1, SPEC_A, fields("Ask", 2.0))));
+    assertEquals(2.0, conflator.drain().get(SPEC_A).getDouble("Ask"), 0);
+  }
+
+  public void testStatistics() {
+    final LiveDataUpdateConflator conflator = new LiveDataUpdateConflator();
+    for (int i = 0; i < 10; i++) {
+      conflator.update(new LiveDataValueUpdateBean(i, SPEC_A, fields("Bid", (double) i)));
+      conflator.update(new LiveDataValueUpdateBean(i, SPEC_B, fields("Bid", (double) i)));
+    }
+    conflator.drain();
+    conflator.update(new LiveDataValueUpdateBean(10, SPEC_A, fields("Bid", 10.0)));
+    assertEquals(21, conflator.getTicksIn());
+    assertEquals(18, conflator.getTicksConflated());
+    assertEquals(2, conflator.getMaxPendingCount());
+    assertEquals(1, conflator.getPendingCount());
+  }
+
+}
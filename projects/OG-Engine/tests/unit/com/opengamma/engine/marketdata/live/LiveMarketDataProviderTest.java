@@ -92,6 +92,10 @@ public class LiveMarketDataProviderTest {
     assertEquals(52.17, test3Value, 0.000001);
     
     assertNull(snapshot.query(constructRequirement("invalidticker")));
+    
+    assertEquals(4, provider.getTicksReceived());
+    assertEquals(1, provider.getTicksConflated());
+    assertEquals(3, provider.getMaxPendingUpdates());
   }
   
 
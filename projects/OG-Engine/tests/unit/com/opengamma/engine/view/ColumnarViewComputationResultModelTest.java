@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.calcnode.InvocationResult;
+import com.opengamma.engine.view.client.ViewDeltaResultCalculator;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests the {@link ColumnarViewComputationResultModel} class.
+ */
+@Test
+public class ColumnarViewComputationResultModelTest {
+
+  private static final String CONFIG_1 = "config1";
+  private static final String CONFIG_2 = "config2";
+
+  private static ComputedValue value(final String valueName, final String target, final Object value) {
+    final ValueRequirement requirement = new ValueRequirement(valueName, ComputationTargetType.PRIMITIVE, UniqueId.of("Scheme", target));
+    return new ComputedValue(new ValueSpecification(requirement, "FunctionId"), value);
+  }
+
+  private static void populate(final InMemoryViewResultModel inMemory, final ColumnarViewComputationResultModel columnar, final String calcConfigName, final ComputedValue value) {
+    inMemory.addValue(calcConfigName, value);
+    columnar.addValue(calcConfigName, value);
+  }
+
+  private static Set<ViewResultEntry> entries(final ViewResultModel model) {
+    return new HashSet<ViewResultEntry>(model.getAllResults());
+  }
+
+  private static void assertResultsEqual(final ViewResultModel expected, final ViewResultModel actual) {
+    assertEquals(expected.getAllTargets(), actual.getAllTargets());
+    assertEquals(new HashSet<String>(expected.getCalculationConfigurationNames()), new HashSet<String>(actual.getCalculationConfigurationNames()));
+    for (String calcConfigName : expected.getCalculationConfigurationNames()) {
+      final ViewCalculationResultModel expectedCalcResult = expected.getCalculationResult(calcConfigName);
+      final ViewCalculationResultModel actualCalcResult = actual.getCalculationResult(calcConfigName);
+      assertEquals(new HashSet<ComputationTargetSpecification>(expectedCalcResult.getAllTargets()), new HashSet<ComputationTargetSpecification>(actualCalcResult.getAllTargets()));
+      for (ComputationTargetSpecification target : expected.getAllTargets()) {
+        assertEquals(expectedCalcResult.getValues(target), actualCalcResult.getValues(target));
+      }
+    }
+    for (ComputationTargetSpecification target : expected.getAllTargets()) {
+      final ViewTargetResultModel expectedTargetResult = expected.getTargetResult(target);
+      final ViewTargetResultModel actualTargetResult = actual.getTargetResult(target);
+      assertEquals(new HashSet<String>(expectedTargetResult.getCalculationConfigurationNames()), new HashSet<String>(actualTargetResult.getCalculationConfigurationNames()));
+    }
+    assertEquals(entries(expected), entries(actual));
+    assertEquals(expected.getAllOutputValueNames(), actual.getAllOutputValueNames());
+  }
+
+  public void testMatchesInMemoryModel() {
+    final InMemoryViewComputationResultModel inMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    populate(inMemory, columnar, CONFIG_1, value("PV", "A", 1.5));
+    populate(inMemory, columnar, CONFIG_1, value("PV", "B", 2.5));
+    populate(inMemory, columnar, CONFIG_1, value("Delta", "A", "text"));
+    populate(inMemory, columnar, CONFIG_2, value("PV", "C", 3));
+    populate(inMemory, columnar, CONFIG_1, value("PV", "A", 4.5));
+    assertResultsEqual(inMemory, columnar);
+    assertNull(columnar.getCalculationResult("missing"));
+    assertNull(columnar.getTargetResult(new ComputationTargetSpecification("missing")));
+  }
+
+  public void testColumns() {
+    final ColumnarViewComputationResultModel model = new ColumnarViewComputationResultModel();
+    final ComputedValue a = value("PV", "A", 1.5);
+    final ComputedValue b = value("PV", "B", "text");
+    model.addValue(CONFIG_1, a);
+    model.addValue(CONFIG_1, b);
+    assertEquals(2, model.getTargetCount());
+    assertEquals(1, model.getColumnCount());
+    final ColumnarViewComputationResultModel.Column column = model.getColumn(CONFIG_1, "PV", a.getSpecification().getProperties());
+    final int targetA = model.getTargetId(a.getSpecification().getTargetSpecification());
+    final int targetB = model.getTargetId(b.getSpecification().getTargetSpecification());
+    assertTrue(column.isDouble(targetA));
+    assertEquals(1.5, column.getDouble(targetA), 0d);
+    assertFalse(column.isDouble(targetB));
+    assertSame(b, model.getComputedValue(column, targetB));
+    assertEquals(a, model.getComputedValue(column, targetA));
+    assertEquals(2, column.size());
+  }
+
+  public void testRetainsInvocationDetails() {
+    final ColumnarViewComputationResultModel model = new ColumnarViewComputationResultModel();
+    final ComputedValue value = value("PV", "A", 1.5);
+    value.setInvocationResult(InvocationResult.SUCCESS);
+    model.addValue(CONFIG_1, value);
+    final ColumnarViewComputationResultModel.Column column = model.getColumn(0);
+    assertFalse(column.isDouble(0));
+    assertSame(value, model.getComputedValue(column, 0));
+  }
+
+  public void testTargetsCachedUntilValuesAdded() {
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    columnar.addValue(CONFIG_1, value("PV", "A", 1.5));
+    final ViewCalculationResultModel calcResult = columnar.getCalculationResult(CONFIG_1);
+    final Collection<ComputationTargetSpecification> targets = calcResult.getAllTargets();
+    assertEquals(1, targets.size());
+    assertSame(targets, calcResult.getAllTargets());
+    assertSame(columnar.getAllTargets(), columnar.getAllTargets());
+    // A value in another configuration leaves these targets alone
+    columnar.addValue(CONFIG_2, value("PV", "B", 2.5));
+    assertSame(targets, columnar.getCalculationResult(CONFIG_1).getAllTargets());
+    columnar.addValue(CONFIG_1, value("Delta", "C", 3.5));
+    assertEquals(2, calcResult.getAllTargets().size());
+    assertEquals(3, columnar.getAllTargets().size());
+  }
+
+  public void testPutAll() {
+    final InMemoryViewComputationResultModel expected = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel first = new ColumnarViewComputationResultModel();
+    populate(expected, first, CONFIG_1, value("PV", "A", 1.0));
+    populate(expected, first, CONFIG_1, value("PV", "B", 2.0));
+    final ColumnarViewComputationResultModel second = new ColumnarViewComputationResultModel();
+    populate(expected, second, CONFIG_1, value("PV", "C", 3.0));
+    populate(expected, second, CONFIG_1, value("PV", "A", 4.0));
+    populate(expected, second, CONFIG_2, value("Delta", "B", "text"));
+    first.putAll(second);
+    assertResultsEqual(expected, first);
+  }
+
+  public void testDeltaMatchesInMemoryModel() {
+    final ViewDefinition viewDefinition = new ViewDefinition("Test", "Test");
+    final ViewCalculationConfiguration calcConfig1 = new ViewCalculationConfiguration(viewDefinition, CONFIG_1);
+    calcConfig1.getDeltaDefinition().setNumberComparer(new NumberDeltaComparer(2));
+    viewDefinition.addViewCalculationConfiguration(calcConfig1);
+    viewDefinition.addViewCalculationConfiguration(new ViewCalculationConfiguration(viewDefinition, CONFIG_2));
+    final InMemoryViewComputationResultModel previousInMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel previousColumnar = new ColumnarViewComputationResultModel();
+    populate(previousInMemory, previousColumnar, CONFIG_1, value("PV", "A", 1.0));
+    populate(previousInMemory, previousColumnar, CONFIG_1, value("PV", "B", 2.0));
+    populate(previousInMemory, previousColumnar, CONFIG_1, value("PV", "C", "text"));
+    populate(previousInMemory, previousColumnar, CONFIG_2, value("PV", "A", 1.0));
+    final InMemoryViewComputationResultModel inMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    populate(inMemory, columnar, CONFIG_1, value("PV", "D", 5.0));
+    populate(inMemory, columnar, CONFIG_1, value("PV", "A", 1.001));
+    populate(inMemory, columnar, CONFIG_1, value("PV", "B", 2.5));
+    populate(inMemory, columnar, CONFIG_1, value("PV", "C", "text"));
+    populate(inMemory, columnar, CONFIG_1, value("Delta", "A", 1.0));
+    populate(inMemory, columnar, CONFIG_2, value("PV", "A", 1.001));
+    final ViewDeltaResultModel expected = ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousInMemory, inMemory);
+    final ViewDeltaResultModel actual = ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousColumnar, columnar);
+    assertEquals(entries(expected), entries(actual));
+    assertEquals(4, actual.getAllResults().size());
+    assertEquals(entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, null, inMemory)),
+        entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, null, columnar)));
+  }
+
+}
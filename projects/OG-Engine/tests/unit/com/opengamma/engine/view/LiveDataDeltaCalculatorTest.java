@@ -172,4 +172,16 @@ public class LiveDataDeltaCalculatorTest {
     assertEquals(_graph.getDependencyNodes(), _deltaCalculator.getChangedNodes());
   }
 
+  public void changeFromMarketDataSnapshot() {
+    // The caches are not consulted when the snapshot has identified the changes
+    put(_cache, _node3, 6.0);
+    put(_previousCache, _node3, 7.0);
+    final LiveDataDeltaCalculator deltaCalculator = new LiveDataDeltaCalculator(_graph, _cache, _previousCache, Collections.singleton(getValueRequirement("Node1")));
+    
+    deltaCalculator.computeDelta();
+    
+    assertEquals(Sets.newHashSet(_node2, _node3), deltaCalculator.getUnchangedNodes());
+    assertEquals(Sets.newHashSet(_node0, _node1), deltaCalculator.getChangedNodes());
+  }
+
 }
@@ -24,6 +24,7 @@ import com.opengamma.engine.marketdata.spec.MarketData;
 import com.opengamma.engine.test.TestViewResultListener;
 import com.opengamma.engine.test.ViewProcessorTestEnvironment;
 import com.opengamma.engine.view.calc.ViewComputationJob;
+import com.opengamma.engine.view.client.DeltaCalculationStatistics;
 import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.engine.view.client.ViewClientState;
 import com.opengamma.engine.view.compilation.CompiledViewDefinition;
@@ -104,6 +105,34 @@ public class ViewProcessTest {
     vp.stop();
   }
   
+  public void testDeltaStatistics() throws InterruptedException {
+    final ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
+    env.init();
+    final ViewProcessorImpl vp = env.getViewProcessor();
+    vp.start();
+    
+    ViewClient client = vp.createViewClient(ViewProcessorTestEnvironment.TEST_USER);
+    TestViewResultListener resultListener = new TestViewResultListener();
+    client.setResultListener(resultListener);
+    
+    final Instant time0 = Instant.now();
+    ViewCycleExecutionOptions defaultCycleOptions = new ViewCycleExecutionOptions(MarketData.live());
+    final ViewExecutionOptions executionOptions = new ExecutionOptions(ArbitraryViewCycleExecutionSequence.of(time0, time0.plusMillis(10)), ExecutionFlags.none().get(), defaultCycleOptions);
+    client.attachToViewProcess(env.getViewDefinition().getUniqueId(), executionOptions);
+    
+    ViewProcessImpl viewProcess = env.getViewProcess(vp, client.getUniqueId());
+    assertNotNull(viewProcess.getDeltaExecutorService());
+    resultListener.getViewDefinitionCompiled(Timeout.standardTimeoutMillis());
+    resultListener.getCycleCompleted(10 * Timeout.standardTimeoutMillis());
+    final DeltaCalculationStatistics firstStatistics = viewProcess.getLatestDeltaStatistics();
+    assertNotNull(firstStatistics);
+    env.getCurrentComputationJob(viewProcess).marketDataChanged();
+    resultListener.getCycleCompleted(10 * Timeout.standardTimeoutMillis());
+    assertNotSame(firstStatistics, viewProcess.getLatestDeltaStatistics());
+    
+    vp.stop();
+  }
+
   public void testGraphRebuild() throws InterruptedException {
     final ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
     env.init();
@@ -218,4 +218,29 @@ public class DefaultViewComputationCacheTest {
     assertPutValues (2, CacheSelectHint.sharedValues(Arrays.asList (valueSpecFoo)), CacheSelectHint.privateValues(Arrays.asList(valueSpecFoo)));
   }
 
+  @Test
+  public void testReadThrough() {
+    final DefaultViewComputationCache base = new DefaultViewComputationCache(_viewComputationCache.getIdentifierMap(), new DefaultFudgeMessageStore(new InMemoryBinaryDataStore(),
+        FudgeContext.GLOBAL_DEFAULT), new DefaultFudgeMessageStore(new InMemoryBinaryDataStore(), FudgeContext.GLOBAL_DEFAULT), FudgeContext.GLOBAL_DEFAULT);
+    final ValueSpecification valueSpecFoo = new ValueSpecification(new ValueRequirement("foo", new ComputationTargetSpecification(null)), "mockFunctionId");
+    final ValueSpecification valueSpecBar = new ValueSpecification(new ValueRequirement("bar", new ComputationTargetSpecification(null)), "mockFunctionId");
+    final ValueSpecification valueSpecOther = new ValueSpecification(new ValueRequirement("other", new ComputationTargetSpecification(null)), "mockFunctionId");
+    base.putSharedValue(new ComputedValue(valueSpecFoo, "Foo"));
+    base.putSharedValue(new ComputedValue(valueSpecBar, "Bar"));
+    base.putSharedValue(new ComputedValue(valueSpecOther, "Other"));
+    _viewComputationCache.readThrough(base, Arrays.asList(valueSpecFoo, valueSpecBar));
+    assertEquals("Foo", _viewComputationCache.getValue(valueSpecFoo));
+    assertEquals("Bar", _viewComputationCache.getValue(valueSpecBar, CacheSelectHint.allShared()));
+    // Only the values named are read through
+    assertNull(_viewComputationCache.getValue(valueSpecOther));
+    // Values written locally take precedence
+    _viewComputationCache.putSharedValue(new ComputedValue(valueSpecBar, "Local"));
+    final Collection<Pair<ValueSpecification, Object>> values = _viewComputationCache.getValues(Arrays.asList(valueSpecFoo, valueSpecBar, valueSpecOther));
+    assertEquals(2, values.size());
+    for (Pair<ValueSpecification, Object> value : values) {
+      assertEquals(valueSpecFoo.equals(value.getFirst()) ? "Foo" : "Local", value.getSecond());
+    }
+    assertEquals("Bar", base.getValue(valueSpecBar));
+  }
+
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calc;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTarget;
+import com.opengamma.engine.depgraph.DependencyNode;
+import com.opengamma.engine.function.BatchFunctionInvoker;
+import com.opengamma.engine.function.FunctionExecutionContext;
+import com.opengamma.engine.function.FunctionInputs;
+import com.opengamma.engine.test.MockFunction;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+
+/**
+ * Tests the {@link BatchJobItemOrdering} class.
+ */
+@Test
+public class BatchJobItemOrderingTest {
+
+  private static class BatchMockFunction extends MockFunction implements BatchFunctionInvoker {
+
+    public BatchMockFunction(final ComputationTarget target) {
+      super("batch", target);
+    }
+
+    @Override
+    public List<Set<ComputedValue>> executeBatch(final FunctionExecutionContext executionContext, final List<FunctionInputs> inputs, final List<ComputationTarget> targets,
+        final List<Set<ValueRequirement>> desiredValues) {
+      final List<Set<ComputedValue>> results = new ArrayList<Set<ComputedValue>>(targets.size());
+      for (int i = 0; i < targets.size(); i++) {
+        results.add(execute(executionContext, inputs.get(i), targets.get(i), desiredValues.get(i)));
+      }
+      return results;
+    }
+
+  }
+
+  private static DependencyNode batchNode(final String target) {
+    final ComputationTarget computationTarget = new ComputationTarget(target);
+    final DependencyNode node = new DependencyNode(computationTarget);
+    node.setFunction(new BatchMockFunction(computationTarget));
+    return node;
+  }
+
+  private static DependencyNode mockNode(final String target) {
+    final ComputationTarget computationTarget = new ComputationTarget(target);
+    final DependencyNode node = new DependencyNode(computationTarget);
+    node.setFunction(new MockFunction(computationTarget));
+    return node;
+  }
+
+  public void testNoBatchableNodes() {
+    final List<DependencyNode> nodes = Arrays.asList(mockNode("A"), mockNode("B"), mockNode("C"));
+    assertSame(nodes, BatchJobItemOrdering.order(nodes));
+  }
+
+  public void testGroupsIndependentNodes() {
+    final DependencyNode a = batchNode("A");
+    final DependencyNode x = mockNode("X");
+    final DependencyNode b = batchNode("B");
+    final DependencyNode y = mockNode("Y");
+    final DependencyNode c = batchNode("C");
+    assertEquals(Arrays.asList(a, b, c, x, y), BatchJobItemOrdering.order(Arrays.asList(a, x, b, y, c)));
+  }
+
+  public void testRespectsDependencies() {
+    final DependencyNode a = batchNode("A");
+    final DependencyNode x = mockNode("X");
+    final DependencyNode b = batchNode("B");
+    b.addInputNode(x);
+    final DependencyNode c = batchNode("C");
+    assertEquals(Arrays.asList(a, c, x, b), BatchJobItemOrdering.order(Arrays.asList(a, x, b, c)));
+  }
+
+}
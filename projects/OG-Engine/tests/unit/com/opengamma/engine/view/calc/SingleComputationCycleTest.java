@@ -5,26 +5,52 @@
  */
 package com.opengamma.engine.view.calc;
 
+import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertTrue;
 
+import java.util.Collections;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.time.Instant;
 
 import org.testng.annotations.Test;
 
+import com.opengamma.engine.ComputationTarget;
+import com.opengamma.engine.ComputationTargetType;
 import com.opengamma.engine.depgraph.DependencyGraph;
+import com.opengamma.engine.function.AbstractFunction;
+import com.opengamma.engine.function.FunctionCompilationContext;
+import com.opengamma.engine.function.FunctionExecutionContext;
+import com.opengamma.engine.function.FunctionInputs;
+import com.opengamma.engine.function.InMemoryFunctionRepository;
+import com.opengamma.engine.marketdata.InMemoryLKVMarketDataProvider;
+import com.opengamma.engine.marketdata.OverrideOperation;
+import com.opengamma.engine.marketdata.OverrideOperationCompiler;
 import com.opengamma.engine.marketdata.spec.MarketData;
+import com.opengamma.engine.test.TestViewResultListener;
 import com.opengamma.engine.test.ViewProcessorTestEnvironment;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueProperties;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ViewCalculationConfiguration;
+import com.opengamma.engine.view.ViewCalculationResultModel;
+import com.opengamma.engine.view.ViewComputationResultModel;
+import com.opengamma.engine.view.ViewDefinition;
 import com.opengamma.engine.view.ViewProcessImpl;
 import com.opengamma.engine.view.ViewProcessorImpl;
 import com.opengamma.engine.view.calc.stats.GraphExecutorStatisticsGatherer;
 import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.engine.view.execution.ExecutionOptions;
+import com.opengamma.id.UniqueId;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.util.test.Timeout;
 
@@ -67,6 +93,149 @@ public class SingleComputationCycleTest {
     assertTrue(executor.wasInterrupted());
   }
   
+  //-------------------------------------------------------------------------
+  public void testScenarioReusesUnaffectedBaseValues() throws InterruptedException {
+    final ScaleFunction scale1 = new ScaleFunction(ViewProcessorTestEnvironment.getPrimitive1());
+    final ScaleFunction scale2 = new ScaleFunction(ViewProcessorTestEnvironment.getPrimitive2());
+    final ViewComputationResultModel result = executeScenario("Base", scale1, scale2);
+    assertScaled(result.getCalculationResult("Base"), 10, 20);
+    // The shift doubles Value1 in the scenario
+    assertScaled(result.getCalculationResult("Scenario"), 20, 20);
+    // Only the node downstream of the shifted market data is executed again
+    assertEquals(2, scale1.getInvocations());
+    assertEquals(1, scale2.getInvocations());
+  }
+
+  public void testScenarioWithoutBaseExecutedInFull() throws InterruptedException {
+    final ScaleFunction scale1 = new ScaleFunction(ViewProcessorTestEnvironment.getPrimitive1());
+    final ScaleFunction scale2 = new ScaleFunction(ViewProcessorTestEnvironment.getPrimitive2());
+    final ViewComputationResultModel result = executeScenario("Missing", scale1, scale2);
+    assertScaled(result.getCalculationResult("Base"), 10, 20);
+    assertScaled(result.getCalculationResult("Scenario"), 20, 20);
+    assertEquals(2, scale1.getInvocations());
+    assertEquals(2, scale2.getInvocations());
+  }
+
+  private ViewComputationResultModel executeScenario(final String scenarioBase, final ScaleFunction... functions) throws InterruptedException {
+    final ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
+    final ViewDefinition viewDefinition = new ViewDefinition(UniqueId.of("Test", "Scenario"), "Scenario", ViewProcessorTestEnvironment.TEST_USER);
+    final ViewCalculationConfiguration base = new ViewCalculationConfiguration(viewDefinition, "Base");
+    final ViewCalculationConfiguration scenario = new ViewCalculationConfiguration(viewDefinition, "Scenario");
+    scenario.setDefaultProperties(ValueProperties.with(SingleComputationCycle.SCENARIO_BASE_PROPERTY, scenarioBase)
+        .with(SingleComputationCycle.MARKET_DATA_SHIFT_PROPERTY, "Value1 x 2").get());
+    final InMemoryFunctionRepository functionRepository = new InMemoryFunctionRepository();
+    for (ScaleFunction function : functions) {
+      base.addSpecificRequirement(function.getOutputRequirement());
+      scenario.addSpecificRequirement(function.getOutputRequirement());
+      functionRepository.addFunction(function);
+    }
+    viewDefinition.addViewCalculationConfiguration(base);
+    viewDefinition.addViewCalculationConfiguration(scenario);
+    env.setViewDefinition(viewDefinition);
+    env.setFunctionRepository(functionRepository);
+    final InMemoryLKVMarketDataProvider marketDataProvider = new InMemoryLKVMarketDataProvider();
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive1(), 1.0);
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive2(), 2.0);
+    env.setMarketDataProvider(marketDataProvider);
+    env.setOverrideOperationCompiler(new OverrideOperationCompiler() {
+      @Override
+      public OverrideOperation compile(final String operation) {
+        return new OverrideOperation() {
+          @Override
+          public Object apply(final ValueRequirement requirement, final Object original) {
+            return "Value1".equals(requirement.getValueName()) ? (Object) ((Double) original * 2) : original;
+          }
+        };
+      }
+    });
+    env.init();
+    final ViewProcessorImpl vp = env.getViewProcessor();
+    vp.start();
+    try {
+      final ViewClient client = vp.createViewClient(ViewProcessorTestEnvironment.TEST_USER);
+      final TestViewResultListener resultListener = new TestViewResultListener();
+      client.setResultListener(resultListener);
+      client.attachToViewProcess(viewDefinition.getUniqueId(), ExecutionOptions.singleCycle(Instant.now(), MarketData.live()));
+      return resultListener.getCycleCompleted(10 * TIMEOUT).getFullResult();
+    } finally {
+      vp.stop();
+    }
+  }
+
+  private static void assertScaled(final ViewCalculationResultModel result, final double expected1, final double expected2) {
+    assertEquals(expected1, getValue(result, ViewProcessorTestEnvironment.getPrimitive1()));
+    assertEquals(expected2, getValue(result, ViewProcessorTestEnvironment.getPrimitive2()));
+  }
+
+  private static Object getValue(final ViewCalculationResultModel result, final ValueRequirement input) {
+    for (ComputedValue value : result.getAllValues(input.getTargetSpecification())) {
+      if (value.getSpecification().getValueName().equals(ScaleFunction.getOutputName(input))) {
+        return value.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Multiplies a market data value by ten, counting the invocations.
+   */
+  private static class ScaleFunction extends AbstractFunction.NonCompiledInvoker {
+
+    private final ValueRequirement _input;
+    private final AtomicInteger _invocations = new AtomicInteger();
+
+    public ScaleFunction(final ValueRequirement input) {
+      _input = input;
+      setUniqueId(getOutputName(input));
+    }
+
+    public static String getOutputName(final ValueRequirement input) {
+      return input.getValueName() + "x10";
+    }
+
+    public ValueRequirement getOutputRequirement() {
+      return new ValueRequirement(getOutputName(_input), _input.getTargetSpecification());
+    }
+
+    public int getInvocations() {
+      return _invocations.get();
+    }
+
+    private ValueSpecification getOutputSpecification(final ComputationTarget target) {
+      return new ValueSpecification(getOutputName(_input), target.toSpecification(), createValueProperties().get());
+    }
+
+    @Override
+    public ComputationTargetType getTargetType() {
+      return ComputationTargetType.PRIMITIVE;
+    }
+
+    @Override
+    public boolean canApplyTo(final FunctionCompilationContext context, final ComputationTarget target) {
+      return target.toSpecification().equals(_input.getTargetSpecification());
+    }
+
+    @Override
+    public Set<ValueRequirement> getRequirements(final FunctionCompilationContext context, final ComputationTarget target, final ValueRequirement desiredValue) {
+      return Collections.singleton(_input);
+    }
+
+    @Override
+    public Set<ValueSpecification> getResults(final FunctionCompilationContext context, final ComputationTarget target) {
+      return Collections.singleton(getOutputSpecification(target));
+    }
+
+    @Override
+    public Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final ComputationTarget target,
+        final Set<ValueRequirement> desiredValues) {
+      _invocations.incrementAndGet();
+      final double value = (Double) inputs.getValue(_input.getValueName());
+      return Collections.singleton(new ComputedValue(getOutputSpecification(target), value * 10));
+    }
+
+  }
+
+  //-------------------------------------------------------------------------
   private class BlockingDependencyGraphExecutorFactory implements DependencyGraphExecutorFactory<ExecutionResult> {
 
     private final BlockingDependencyGraphExecutor _instance;
@@ -254,6 +254,33 @@ public class ViewComputationJobTest {
     resultListener.assertProcessCompleted(TIMEOUT);
   }
   
+  @Test
+  public void testParallelCyclesDeliveredInOrder() throws InterruptedException {
+    ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
+    env.init();
+    
+    ViewProcessorImpl vp = env.getViewProcessor();
+    vp.start();
+    
+    ViewClient client = vp.createViewClient(ViewProcessorTestEnvironment.TEST_USER);
+    TestViewResultListener resultListener = new TestViewResultListener();
+    client.setResultListener(resultListener);
+    Instant valuationTime = Instant.now();
+    ViewCycleExecutionOptions[] cycles = new ViewCycleExecutionOptions[6];
+    for (int i = 0; i < cycles.length; i++) {
+      cycles[i] = new ViewCycleExecutionOptions(valuationTime.plusMillis(i), MarketData.live());
+    }
+    EnumSet<ViewExecutionFlags> flags = ExecutionFlags.none().runAsFastAsPossible().parallelCycles().get();
+    ViewExecutionOptions executionOptions = ExecutionOptions.of(ArbitraryViewCycleExecutionSequence.of(cycles), flags);
+    client.attachToViewProcess(env.getViewDefinition().getUniqueId(), executionOptions);
+    
+    resultListener.assertViewDefinitionCompiled(TIMEOUT);
+    for (int i = 0; i < cycles.length; i++) {
+      assertEquals(valuationTime.plusMillis(i), resultListener.getCycleCompleted(TIMEOUT).getFullResult().getValuationTime());
+    }
+    resultListener.assertProcessCompleted(TIMEOUT);
+  }
+  
   @Test
   public void testTriggerCycle() {
     ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
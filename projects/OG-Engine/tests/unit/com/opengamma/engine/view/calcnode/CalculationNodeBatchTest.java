@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calcnode;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.time.Instant;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTarget;
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.function.AbstractFunction;
+import com.opengamma.engine.function.BatchFunctionInvoker;
+import com.opengamma.engine.function.FunctionCompilationContext;
+import com.opengamma.engine.function.FunctionExecutionContext;
+import com.opengamma.engine.function.FunctionInputs;
+import com.opengamma.engine.function.FunctionParameters;
+import com.opengamma.engine.function.InMemoryFunctionRepository;
+import com.opengamma.engine.function.blacklist.AbstractFunctionBlacklistQuery;
+import com.opengamma.engine.function.blacklist.FunctionBlacklistedException;
+import com.opengamma.engine.test.CalculationNodeUtils;
+import com.opengamma.engine.test.TestCalculationNode;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.cache.CacheSelectHint;
+import com.opengamma.engine.view.cache.NotCalculatedSentinel;
+import com.opengamma.engine.view.cache.ViewComputationCache;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests the batch invocation of {@link BatchFunctionInvoker} functions by {@link SimpleCalculationNode}.
+ */
+@Test
+public class CalculationNodeBatchTest {
+
+  private static final String FUNCTION_ID = "batch";
+
+  /**
+   * Doubles its input, counting how it was invoked.
+   */
+  private static final class DoublingFunction extends AbstractFunction.NonCompiledInvoker implements BatchFunctionInvoker {
+
+    private int _executeCalls;
+    private int _executeBatchCalls;
+    private final List<Integer> _batchSizes = new ArrayList<Integer>();
+    private RuntimeException _batchException;
+
+    public DoublingFunction() {
+      setUniqueId(FUNCTION_ID);
+    }
+
+    @Override
+    public ComputationTargetType getTargetType() {
+      return ComputationTargetType.PRIMITIVE;
+    }
+
+    @Override
+    public boolean canApplyTo(final FunctionCompilationContext context, final ComputationTarget target) {
+      return true;
+    }
+
+    @Override
+    public Set<ValueRequirement> getRequirements(final FunctionCompilationContext context, final ComputationTarget target, final ValueRequirement desiredValue) {
+      return Collections.singleton(new ValueRequirement("INPUT", target.toSpecification()));
+    }
+
+    @Override
+    public Set<ValueSpecification> getResults(final FunctionCompilationContext context, final ComputationTarget target) {
+      return Collections.singleton(output(target.toSpecification()));
+    }
+
+    private Set<ComputedValue> compute(final FunctionInputs inputs, final ComputationTarget target) {
+      final Object input = inputs.getValue("INPUT");
+      if (input == null) {
+        return Collections.emptySet();
+      }
+      return Collections.singleton(new ComputedValue(output(target.toSpecification()), 2 * (Double) input));
+    }
+
+    @Override
+    public Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final ComputationTarget target, final Set<ValueRequirement> desiredValues) {
+      _executeCalls++;
+      return compute(inputs, target);
+    }
+
+    @Override
+    public List<Set<ComputedValue>> executeBatch(final FunctionExecutionContext executionContext, final List<FunctionInputs> inputs, final List<ComputationTarget> targets,
+        final List<Set<ValueRequirement>> desiredValues) {
+      _executeBatchCalls++;
+      _batchSizes.add(targets.size());
+      if (_batchException != null) {
+        throw _batchException;
+      }
+      final List<Set<ComputedValue>> results = new ArrayList<Set<ComputedValue>>(targets.size());
+      for (int i = 0; i < targets.size(); i++) {
+        results.add(compute(inputs.get(i), targets.get(i)));
+      }
+      return results;
+    }
+
+  }
+
+  /**
+   * Blacklists one target.
+   */
+  private static final class TargetBlacklistQuery extends AbstractFunctionBlacklistQuery {
+
+    private final ComputationTargetSpecification _target;
+
+    public TargetBlacklistQuery(final ComputationTargetSpecification target) {
+      _target = target;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return false;
+    }
+
+    @Override
+    public boolean isBlacklisted(final String functionIdentifier, final FunctionParameters functionParameters) {
+      return false;
+    }
+
+    @Override
+    public boolean isBlacklisted(final ComputationTargetSpecification target) {
+      return _target.equals(target);
+    }
+
+    @Override
+    public boolean isBlacklisted(final String functionIdentifier, final FunctionParameters functionParameters, final ComputationTargetSpecification target) {
+      return isBlacklisted(target);
+    }
+
+    @Override
+    public boolean isBlacklisted(final String functionIdentifier, final FunctionParameters functionParameters, final ComputationTargetSpecification target, final Set<ValueSpecification> inputs,
+        final Set<ValueSpecification> outputs) {
+      return isBlacklisted(target);
+    }
+
+  }
+
+  private static ComputationTargetSpecification target(final int index) {
+    return new ComputationTargetSpecification(ComputationTargetType.PRIMITIVE, UniqueId.of("Test", Integer.toString(index)));
+  }
+
+  private static ValueSpecification input(final ComputationTargetSpecification target) {
+    return new ValueSpecification(new ValueRequirement("INPUT", target), "source");
+  }
+
+  private static ValueSpecification output(final ComputationTargetSpecification target) {
+    return new ValueSpecification(new ValueRequirement("OUTPUT", target), FUNCTION_ID);
+  }
+
+  private static TestCalculationNode node(final DoublingFunction function) {
+    final TestCalculationNode node = new TestCalculationNode();
+    ((InMemoryFunctionRepository) node.getFunctionCompilationService().getFunctionRepository()).addFunction(function);
+    node.getFunctionCompilationService().initialize();
+    return node;
+  }
+
+  private static CalculationJob job(final DoublingFunction function, final int count) {
+    final CalculationJobSpecification jobSpec = new CalculationJobSpecification(UniqueId.of("Test", "ViewProcess"), CalculationNodeUtils.CALC_CONF_NAME, Instant.now(), 1L);
+    final List<CalculationJobItem> items = new ArrayList<CalculationJobItem>(count);
+    for (int i = 0; i < count; i++) {
+      final ComputationTargetSpecification target = target(i);
+      items.add(new CalculationJobItem(FUNCTION_ID, function.getDefaultParameters(), target, Collections.singleton(input(target)), Collections.singleton(output(target))));
+    }
+    return new CalculationJob(jobSpec, 0L, null, items, CacheSelectHint.allShared());
+  }
+
+  private static ViewComputationCache populate(final TestCalculationNode node, final CalculationJob job, final Set<Integer> missing) {
+    final ViewComputationCache cache = node.getCache(job.getSpecification());
+    for (int i = 0; i < job.getJobItems().size(); i++) {
+      if (!missing.contains(i)) {
+        cache.putSharedValue(new ComputedValue(input(target(i)), (double) i));
+      }
+    }
+    return cache;
+  }
+
+  //-------------------------------------------------------------------------
+  public void testBulkFetchAndStore() {
+    final DoublingFunction function = new DoublingFunction();
+    final TestCalculationNode node = node(function);
+    final CalculationJob job = job(function, 5);
+    final ViewComputationCache cache = populate(node, job, Collections.<Integer>emptySet());
+    final CalculationJobResult result = node.executeJob(job);
+    assertEquals(1, function._executeBatchCalls);
+    assertEquals(Collections.singletonList(5), function._batchSizes);
+    assertEquals(0, function._executeCalls);
+    assertEquals(5, result.getResultItems().size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(InvocationResult.SUCCESS, result.getResultItems().get(i).getResult());
+      assertEquals(2.0 * i, cache.getValue(output(target(i))));
+    }
+  }
+
+  public void testMissingInputs() {
+    final DoublingFunction function = new DoublingFunction();
+    final TestCalculationNode node = node(function);
+    final CalculationJob job = job(function, 4);
+    final ViewComputationCache cache = populate(node, job, Collections.singleton(2));
+    final CalculationJobResult result = node.executeJob(job);
+    // The item without its input is left out of the batch rather than failing it
+    assertEquals(Collections.singletonList(3), function._batchSizes);
+    final CalculationJobResultItem missingItem = result.getResultItems().get(2);
+    assertEquals(InvocationResult.MISSING_INPUTS, missingItem.getResult());
+    assertEquals(Collections.singleton(input(target(2))), missingItem.getMissingInputs());
+    assertEquals(NotCalculatedSentinel.MISSING_INPUTS, cache.getValue(output(target(2))));
+    for (int i : new int[] {0, 1, 3 }) {
+      assertEquals(InvocationResult.SUCCESS, result.getResultItems().get(i).getResult());
+      assertEquals(2.0 * i, cache.getValue(output(target(i))));
+    }
+  }
+
+  public void testFallbackToIndividualInvocation() {
+    final DoublingFunction function = new DoublingFunction();
+    function._batchException = new IllegalStateException("Batch failure");
+    final TestCalculationNode node = node(function);
+    final CalculationJob job = job(function, 3);
+    final ViewComputationCache cache = populate(node, job, Collections.<Integer>emptySet());
+    final CalculationJobResult result = node.executeJob(job);
+    assertEquals(1, function._executeBatchCalls);
+    assertEquals(3, function._executeCalls);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(InvocationResult.SUCCESS, result.getResultItems().get(i).getResult());
+      assertEquals(2.0 * i, cache.getValue(output(target(i))));
+    }
+  }
+
+  public void testBatchBlacklisted() {
+    final DoublingFunction function = new DoublingFunction();
+    function._batchException = new FunctionBlacklistedException();
+    final TestCalculationNode node = node(function);
+    final CalculationJob job = job(function, 3);
+    final ViewComputationCache cache = populate(node, job, Collections.<Integer>emptySet());
+    final CalculationJobResult result = node.executeJob(job);
+    // Suppressed items are not retried individually
+    assertEquals(1, function._executeBatchCalls);
+    assertEquals(0, function._executeCalls);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(InvocationResult.SUPPRESSED, result.getResultItems().get(i).getResult());
+      assertEquals(NotCalculatedSentinel.SUPPRESSED, cache.getValue(output(target(i))));
+    }
+  }
+
+  public void testBlacklistedItemSplitsBatch() {
+    final DoublingFunction function = new DoublingFunction();
+    final TestCalculationNode node = node(function);
+    node.setFunctionBlacklistQuery(new TargetBlacklistQuery(target(2)));
+    final CalculationJob job = job(function, 5);
+    final ViewComputationCache cache = populate(node, job, Collections.<Integer>emptySet());
+    final CalculationJobResult result = node.executeJob(job);
+    assertEquals(Arrays.asList(2, 2), function._batchSizes);
+    assertEquals(0, function._executeCalls);
+    assertEquals(InvocationResult.SUPPRESSED, result.getResultItems().get(2).getResult());
+    assertEquals(NotCalculatedSentinel.SUPPRESSED, cache.getValue(output(target(2))));
+    final Set<Integer> calculated = new HashSet<Integer>();
+    for (int i = 0; i < 5; i++) {
+      if (result.getResultItems().get(i).getResult() == InvocationResult.SUCCESS) {
+        assertEquals(2.0 * i, cache.getValue(output(target(i))));
+        calculated.add(i);
+      }
+    }
+    assertEquals(new HashSet<Integer>(Arrays.asList(0, 1, 3, 4)), calculated);
+  }
+
+  public void testSingleItemNotBatched() {
+    final DoublingFunction function = new DoublingFunction();
+    final TestCalculationNode node = node(function);
+    final CalculationJob job = job(function, 1);
+    final ViewComputationCache cache = populate(node, job, Collections.<Integer>emptySet());
+    final CalculationJobResult result = node.executeJob(job);
+    assertEquals(0, function._executeBatchCalls);
+    assertEquals(1, function._executeCalls);
+    assertEquals(InvocationResult.SUCCESS, result.getResultItems().get(0).getResult());
+    assertEquals(0.0, cache.getValue(output(target(0))));
+  }
+
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.calcnode;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.time.Instant;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.function.EmptyFunctionParameters;
+import com.opengamma.engine.test.TestCalculationNode;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueProperties;
+import com.opengamma.engine.value.ValuePropertyNames;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.cache.CacheSelectHint;
+import com.opengamma.engine.view.cache.ViewComputationCache;
+import com.opengamma.id.UniqueId;
+import com.opengamma.util.async.AsynchronousExecution;
+import com.opengamma.util.async.AsynchronousOperation;
+import com.opengamma.util.test.Timeout;
+
+/**
+ * Tests the staging of job execution by {@link SimpleCalculationNodeInvocationContainer}.
+ */
+@Test
+public class SimpleCalculationNodeInvocationContainerTest {
+
+  private static final long TIMEOUT = Timeout.standardTimeoutMillis();
+  private static final AtomicLong s_jobId = new AtomicLong();
+  private static final ComputationTargetSpecification TARGET = new ComputationTargetSpecification(ComputationTargetType.PRIMITIVE, UniqueId.of("Test", "Target"));
+
+  /**
+   * A node that records the jobs it executes and can hold them, or their write-back, until released.
+   */
+  private static final class Node extends TestCalculationNode {
+
+    private final BlockingQueue<Long> _started = new LinkedBlockingQueue<Long>();
+    private final Map<Long, Map<ValueSpecification, Object>> _prefetched = Collections.synchronizedMap(new HashMap<Long, Map<ValueSpecification, Object>>());
+    private final Map<Long, CountDownLatch> _holds = new ConcurrentHashMap<Long, CountDownLatch>();
+    private final Map<Long, AsynchronousOperation<CalculationJobResult>> _writeBacks = new ConcurrentHashMap<Long, AsynchronousOperation<CalculationJobResult>>();
+
+    public CountDownLatch hold(final CalculationJob job) {
+      final CountDownLatch latch = new CountDownLatch(1);
+      _holds.put(job.getSpecification().getJobId(), latch);
+      return latch;
+    }
+
+    public AsynchronousOperation<CalculationJobResult> writeBehind(final CalculationJob job) {
+      final AsynchronousOperation<CalculationJobResult> operation = new AsynchronousOperation<CalculationJobResult>();
+      _writeBacks.put(job.getSpecification().getJobId(), operation);
+      return operation;
+    }
+
+    public Long waitForStart() throws InterruptedException {
+      return _started.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CalculationJobResult executeJob(final CalculationJob job, final Map<ValueSpecification, Object> prefetchedInputs) throws AsynchronousExecution {
+      final Long jobId = job.getSpecification().getJobId();
+      _prefetched.put(jobId, prefetchedInputs);
+      _started.add(jobId);
+      final CountDownLatch hold = _holds.get(jobId);
+      if (hold != null) {
+        try {
+          assertTrue(hold.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+          throw new OpenGammaRuntimeException("Interrupted", e);
+        }
+      }
+      final AsynchronousOperation<CalculationJobResult> writeBack = _writeBacks.get(jobId);
+      if (writeBack != null) {
+        return writeBack.getResult();
+      }
+      return result(job);
+    }
+
+  }
+
+  /**
+   * Records the jobs reported complete, in order.
+   */
+  private static final class Receiver implements SimpleCalculationNodeInvocationContainer.ExecutionReceiver {
+
+    private final BlockingQueue<Long> _completed = new LinkedBlockingQueue<Long>();
+
+    @Override
+    public void executionFailed(final SimpleCalculationNode node, final Exception exception) {
+      throw new OpenGammaRuntimeException("Job failed", exception);
+    }
+
+    @Override
+    public void executionComplete(final CalculationJobResult result) {
+      _completed.add(result.getSpecification().getJobId());
+    }
+
+    public Long waitForCompletion() throws InterruptedException {
+      return _completed.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+  }
+
+  private static SimpleCalculationNodeInvocationContainer createContainer(final Node... nodes) {
+    final SimpleCalculationNodeInvocationContainer container = new SimpleCalculationNodeInvocationContainer() {
+      @Override
+      protected void onNodeChange() {
+        // No-op
+      }
+    };
+    container.setNodes(Arrays.<SimpleCalculationNode>asList(nodes));
+    return container;
+  }
+
+  private static CalculationJob createJob(final List<ValueSpecification> inputs, final long[] requiredJobIds) {
+    final CalculationJobSpecification spec = new CalculationJobSpecification(UniqueId.of("Test", "ViewCycle"), "Default", Instant.now(), s_jobId.incrementAndGet());
+    final ValueSpecification output = new ValueSpecification("Output" + spec.getJobId(), TARGET, ValueProperties.with(ValuePropertyNames.FUNCTION, "Test").get());
+    final CalculationJobItem item = new CalculationJobItem("Test", new EmptyFunctionParameters(), TARGET, inputs, Collections.singleton(output));
+    return new CalculationJob(spec, 0L, requiredJobIds, Collections.singletonList(item), CacheSelectHint.allShared());
+  }
+
+  private static CalculationJob createJob() {
+    return createJob(Collections.<ValueSpecification>emptyList(), null);
+  }
+
+  private static CalculationJobResult result(final CalculationJob job) {
+    return new CalculationJobResult(job.getSpecification(), 0L, new ArrayList<CalculationJobResultItem>(), "Test");
+  }
+
+  private static void waitFor(final SimpleCalculationNodeInvocationContainer container, final int prefetchQueueDepth) throws InterruptedException {
+    final long limit = System.currentTimeMillis() + TIMEOUT;
+    while (container.getPrefetchQueueDepth() != prefetchQueueDepth) {
+      assertTrue(System.currentTimeMillis() < limit);
+      Thread.sleep(10);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  public void testDefaultComputePoolBoundedToProcessors() {
+    final SimpleCalculationNodeInvocationContainer container = createContainer(new Node());
+    assertEquals(Runtime.getRuntime().availableProcessors(), container.getMaxComputeThreads());
+    container.setMaxComputeThreads(0);
+    assertEquals(0, container.getMaxComputeThreads());
+  }
+
+  public void testPrefetchWhileNodeBusy() throws Exception {
+    final Node node = new Node();
+    final SimpleCalculationNodeInvocationContainer container = createContainer(node);
+    final Receiver receiver = new Receiver();
+    final CalculationJob busy = createJob();
+    final CountDownLatch release = node.hold(busy);
+    container.addJob(busy, receiver, null);
+    assertEquals(busy.getSpecification().getJobId(), (long) node.waitForStart());
+    // The second job waits for the node; its shared inputs are fetched in the meantime
+    final ViewComputationCache cache = node.getCacheSource().getCache(busy.getSpecification().getViewCycleId(), busy.getSpecification().getCalcConfigName());
+    final List<ValueSpecification> inputs = new ArrayList<ValueSpecification>();
+    for (int i = 0; i < 2; i++) {
+      final ValueSpecification input = new ValueSpecification("Input" + i, TARGET, ValueProperties.with(ValuePropertyNames.FUNCTION, "Test").get());
+      cache.putSharedValue(new ComputedValue(input, (double) i));
+      inputs.add(input);
+    }
+    final CalculationJob waiting = createJob(inputs, null);
+    container.addJob(waiting, receiver, null);
+    assertEquals(1, container.getRunnableJobCount());
+    waitFor(container, 0);
+    // Allow the completed prefetch to be published to the job before the node takes it
+    Thread.sleep(100);
+    release.countDown();
+    assertEquals(busy.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    assertEquals(waiting.getSpecification().getJobId(), (long) node.waitForStart());
+    assertEquals(waiting.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    final Map<ValueSpecification, Object> prefetched = node._prefetched.get(waiting.getSpecification().getJobId());
+    assertNotNull(prefetched);
+    assertEquals(2, prefetched.size());
+    assertEquals((Object) 1d, prefetched.get(inputs.get(1)));
+    // The job started without waiting has nothing prefetched
+    assertNull(node._prefetched.get(busy.getSpecification().getJobId()));
+    assertEquals(0, container.getPrefetchQueueDepth());
+  }
+
+  public void testWriteBackReleasesTailBeforeReporting() throws Exception {
+    final Node node = new Node();
+    final SimpleCalculationNodeInvocationContainer container = createContainer(node);
+    final Receiver receiver = new Receiver();
+    final CalculationJob head = createJob();
+    final AsynchronousOperation<CalculationJobResult> writeBack = node.writeBehind(head);
+    final CalculationJob tail = createJob(Collections.<ValueSpecification>emptyList(), new long[] {head.getSpecification().getJobId() });
+    container.addJob(head, receiver, null);
+    container.addJob(tail, receiver, null);
+    // The tail runs, and is reported, while the head's results are still being written
+    assertEquals(head.getSpecification().getJobId(), (long) node.waitForStart());
+    assertEquals(tail.getSpecification().getJobId(), (long) node.waitForStart());
+    assertEquals(tail.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    assertEquals(1, container.getWriteBackQueueDepth());
+    // The head is only reported once its write-back completes
+    writeBack.getCallback().setResult(result(head));
+    assertEquals(head.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    assertEquals(0, container.getWriteBackQueueDepth());
+  }
+
+  public void testComputeQueueDepth() throws Exception {
+    final Node node1 = new Node();
+    final Node node2 = new Node();
+    final SimpleCalculationNodeInvocationContainer container = createContainer(node1, node2);
+    container.setMaxComputeThreads(1);
+    final Receiver receiver = new Receiver();
+    final CalculationJob job1 = createJob();
+    final CalculationJob job2 = createJob();
+    final CountDownLatch release1 = node1.hold(job1);
+    container.addJob(job1, receiver, null);
+    assertEquals(job1.getSpecification().getJobId(), (long) node1.waitForStart());
+    // The second node is free but the only compute thread is busy, so its execution is queued
+    container.addJob(job2, receiver, null);
+    assertEquals(0, container.getRunnableJobCount());
+    assertEquals(1, container.getComputeQueueDepth());
+    release1.countDown();
+    assertEquals(job1.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    assertEquals(job2.getSpecification().getJobId(), (long) receiver.waitForCompletion());
+    assertEquals(0, container.getComputeQueueDepth());
+  }
+
+}
@@ -49,6 +49,7 @@ import com.opengamma.engine.view.ViewProcessorImpl;
 import com.opengamma.engine.view.ViewResultModel;
 import com.opengamma.engine.view.calc.ViewComputationJob;
 import com.opengamma.engine.view.execution.ExecutionOptions;
+import com.opengamma.engine.view.listener.CycleCompletedCall;
 import com.opengamma.engine.view.listener.CycleStartedCall;
 import com.opengamma.id.ExternalId;
 import com.opengamma.id.UniqueId;
@@ -248,6 +249,56 @@ public class ViewClientTest {
     expected.put(ViewProcessorTestEnvironment.getPrimitive1(), (byte) 3);
     assertComputationResult(expected, env.getCalculationResult(result2));
   }
+
+  @Test
+  public void testFullResultAfterFilterChange() throws InterruptedException {
+    ViewProcessorTestEnvironment env = new ViewProcessorTestEnvironment();
+    SynchronousInMemoryLKVSnapshotProvider marketDataProvider = new SynchronousInMemoryLKVSnapshotProvider();
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive1(), 1);
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive2(), 2);
+    env.setMarketDataProvider(marketDataProvider);
+    env.init();
+    
+    ViewProcessorImpl vp = env.getViewProcessor();
+    vp.start();
+    
+    ViewClient client = vp.createViewClient(ViewProcessorTestEnvironment.TEST_USER);
+    client.setResultMode(ViewResultMode.FULL_THEN_DELTA);
+    client.setFragmentResultMode(ViewResultMode.NONE);
+    TestViewResultListener resultListener = new TestViewResultListener();
+    client.setResultListener(resultListener);
+    client.attachToViewProcess(env.getViewDefinition().getUniqueId(), ExecutionOptions.infinite(MarketData.live()));
+    resultListener.assertViewDefinitionCompiled(TIMEOUT);
+    CycleCompletedCall call = resultListener.getCycleCompleted(TIMEOUT);
+    assertNotNull(call.getFullResult());
+    assertEquals(null, call.getDeltaResult());
+    
+    ViewProcessImpl viewProcess = env.getViewProcess(vp, client.getUniqueId());
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive1(), 3);
+    env.getCurrentComputationJob(viewProcess).marketDataChanged();
+    call = resultListener.getCycleCompleted(TIMEOUT);
+    assertEquals(null, call.getFullResult());
+    assertNotNull(call.getDeltaResult());
+    
+    // The listener only has deltas against the old filter, so the next result must be full
+    client.setResultFilter(ViewResultFilter.ALL.withValueNames(Collections.singleton(ViewProcessorTestEnvironment.getPrimitive2().getValueName())));
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive1(), 4);
+    env.getCurrentComputationJob(viewProcess).marketDataChanged();
+    call = resultListener.getCycleCompleted(TIMEOUT);
+    assertNotNull(call.getFullResult());
+    assertEquals(null, call.getDeltaResult());
+    Map<ValueRequirement, Object> expected = new HashMap<ValueRequirement, Object>();
+    expected.put(ViewProcessorTestEnvironment.getPrimitive2(), (byte) 2);
+    assertComputationResult(expected, env.getCalculationResult(call.getFullResult()));
+    
+    // Setting the same filter again doesn't force another full result
+    client.setResultFilter(client.getResultFilter());
+    marketDataProvider.addValue(ViewProcessorTestEnvironment.getPrimitive1(), 5);
+    env.getCurrentComputationJob(viewProcess).marketDataChanged();
+    call = resultListener.getCycleCompleted(TIMEOUT);
+    assertEquals(null, call.getFullResult());
+    assertNotNull(call.getDeltaResult());
+  }
   
   @Test
   public void testStates() throws InterruptedException {
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.client;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
+import com.opengamma.engine.view.InMemoryViewComputationResultModel;
+import com.opengamma.engine.view.NumberDeltaComparer;
+import com.opengamma.engine.view.ViewCalculationConfiguration;
+import com.opengamma.engine.view.ViewDefinition;
+import com.opengamma.engine.view.ViewDeltaResultModel;
+import com.opengamma.engine.view.ViewResultEntry;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests the {@link ViewDeltaResultCalculator} class.
+ */
+@Test
+public class ViewDeltaResultCalculatorTest {
+
+  private static final String CONFIG_1 = "config1";
+  private static final String CONFIG_2 = "config2";
+  private static final int TARGETS = 20000;
+
+  private ExecutorService _executor;
+
+  @BeforeClass
+  public void createExecutor() {
+    _executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterClass
+  public void shutdownExecutor() {
+    _executor.shutdown();
+  }
+
+  private static ViewDefinition viewDefinition() {
+    final ViewDefinition viewDefinition = new ViewDefinition("Test", "Test");
+    final ViewCalculationConfiguration calcConfig1 = new ViewCalculationConfiguration(viewDefinition, CONFIG_1);
+    calcConfig1.getDeltaDefinition().setNumberComparer(new NumberDeltaComparer(2));
+    viewDefinition.addViewCalculationConfiguration(calcConfig1);
+    viewDefinition.addViewCalculationConfiguration(new ViewCalculationConfiguration(viewDefinition, CONFIG_2));
+    return viewDefinition;
+  }
+
+  private static ComputedValue value(final String valueName, final int target, final Object value) {
+    final ValueRequirement requirement = new ValueRequirement(valueName, ComputationTargetType.PRIMITIVE, UniqueId.of("Scheme", Integer.toString(target)));
+    return new ComputedValue(new ValueSpecification(requirement, "FunctionId"), value);
+  }
+
+  private static void populate(final InMemoryViewComputationResultModel inMemory, final ColumnarViewComputationResultModel columnar, final int cycle) {
+    for (int i = 0; i < TARGETS; i++) {
+      // Every third value moves enough to be a delta in both configurations, others only in the configuration without a comparer
+      final double pv = i + ((i % 3 == 0) ? cycle : cycle * 0.001);
+      inMemory.addValue(CONFIG_1, value("PV", i, pv));
+      columnar.addValue(CONFIG_1, value("PV", i, pv));
+      inMemory.addValue(CONFIG_2, value("PV", i, pv));
+      columnar.addValue(CONFIG_2, value("PV", i, pv));
+      if (i % 100 == 0) {
+        inMemory.addValue(CONFIG_1, value("Text", i, "T" + (i + cycle)));
+        columnar.addValue(CONFIG_1, value("Text", i, "T" + (i + cycle)));
+      }
+    }
+  }
+
+  private static Set<ViewResultEntry> entries(final ViewDeltaResultModel model) {
+    return new HashSet<ViewResultEntry>(model.getAllResults());
+  }
+
+  public void testParallelMatchesSequential() {
+    final ViewDefinition viewDefinition = viewDefinition();
+    final InMemoryViewComputationResultModel previousInMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel previousColumnar = new ColumnarViewComputationResultModel();
+    populate(previousInMemory, previousColumnar, 0);
+    final InMemoryViewComputationResultModel inMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    populate(inMemory, columnar, 1);
+    final Set<ViewResultEntry> expected = entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousInMemory, inMemory));
+    final DeltaCalculationStatistics inMemoryStatistics = new DeltaCalculationStatistics();
+    assertEquals(expected, entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousInMemory, inMemory, _executor, inMemoryStatistics)));
+    final DeltaCalculationStatistics columnarStatistics = new DeltaCalculationStatistics();
+    assertEquals(expected, entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, previousColumnar, columnar, _executor, columnarStatistics)));
+    final int expectedDeltas = (TARGETS + 2) / 3 + TARGETS + TARGETS / 100;
+    assertEquals(expectedDeltas, expected.size());
+    assertEquals(expectedDeltas, columnarStatistics.getDeltas());
+    assertEquals(2 * TARGETS + TARGETS / 100, columnarStatistics.getComparisons());
+    assertEquals(2 * TARGETS, columnarStatistics.getNumericComparisons());
+    assertEquals(columnarStatistics.getComparisons(), inMemoryStatistics.getComparisons());
+    assertEquals(columnarStatistics.getNumericComparisons(), inMemoryStatistics.getNumericComparisons());
+  }
+
+  public void testNoPreviousResult() {
+    final ViewDefinition viewDefinition = viewDefinition();
+    final InMemoryViewComputationResultModel inMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    populate(inMemory, columnar, 0);
+    final DeltaCalculationStatistics statistics = new DeltaCalculationStatistics();
+    final Set<ViewResultEntry> actual = entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, null, columnar, _executor, statistics));
+    assertEquals(entries(ViewDeltaResultCalculator.computeDeltaModel(viewDefinition, null, inMemory)), actual);
+    assertEquals(2 * TARGETS + TARGETS / 100, actual.size());
+    assertEquals(0, statistics.getComparisons());
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.engine.view.client;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.engine.ComputationTargetSpecification;
+import com.opengamma.engine.ComputationTargetType;
+import com.opengamma.engine.value.ComputedValue;
+import com.opengamma.engine.value.ValueRequirement;
+import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
+import com.opengamma.engine.view.InMemoryViewComputationResultModel;
+import com.opengamma.engine.view.InMemoryViewDeltaResultModel;
+import com.opengamma.engine.view.InMemoryViewResultModel;
+import com.opengamma.engine.view.ViewComputationResultModel;
+import com.opengamma.engine.view.ViewResultEntry;
+import com.opengamma.engine.view.ViewResultModel;
+import com.opengamma.id.UniqueId;
+
+/**
+ * Tests the {@link ViewResultFilter} class.
+ */
+@Test
+public class ViewResultFilterTest {
+
+  private static final String CONFIG_1 = "config1";
+  private static final String CONFIG_2 = "config2";
+
+  private static ComputationTargetSpecification target(final String target) {
+    return new ComputationTargetSpecification(ComputationTargetType.PRIMITIVE, UniqueId.of("Scheme", target));
+  }
+
+  private static ComputedValue value(final String valueName, final String target, final Object value) {
+    final ValueRequirement requirement = new ValueRequirement(valueName, target(target));
+    return new ComputedValue(new ValueSpecification(requirement, "FunctionId"), value);
+  }
+
+  private static void populate(final InMemoryViewResultModel inMemory, final ColumnarViewComputationResultModel columnar) {
+    final String[] configs = new String[] {CONFIG_1, CONFIG_2 };
+    final String[] targets = new String[] {"A", "B", "C" };
+    for (String config : configs) {
+      for (String target : targets) {
+        inMemory.addValue(config, value("PV", target, 1.0));
+        inMemory.addValue(config, value("Delta", target, "text"));
+        if (columnar != null) {
+          columnar.addValue(config, value("PV", target, 1.0));
+          columnar.addValue(config, value("Delta", target, "text"));
+        }
+      }
+    }
+  }
+
+  private static Set<ViewResultEntry> entries(final ViewResultModel model) {
+    return new HashSet<ViewResultEntry>(model.getAllResults());
+  }
+
+  public void testAllIsIdentity() {
+    final InMemoryViewComputationResultModel result = new InMemoryViewComputationResultModel();
+    populate(result, null);
+    assertSame(result, ViewResultFilter.ALL.filter(result));
+  }
+
+  public void testFilterFullResult() {
+    final InMemoryViewComputationResultModel inMemory = new InMemoryViewComputationResultModel();
+    final ColumnarViewComputationResultModel columnar = new ColumnarViewComputationResultModel();
+    populate(inMemory, columnar);
+    final ViewResultFilter filter = new ViewResultFilter(Collections.singleton(CONFIG_1), Collections.singleton("PV"), new HashSet<ComputationTargetSpecification>(
+        Arrays.asList(target("A"), target("C"))));
+    final ViewComputationResultModel filteredInMemory = filter.filter(inMemory);
+    final ViewComputationResultModel filteredColumnar = filter.filter(columnar);
+    final Set<ViewResultEntry> expected = new HashSet<ViewResultEntry>();
+    expected.add(new ViewResultEntry(CONFIG_1, value("PV", "A", 1.0)));
+    expected.add(new ViewResultEntry(CONFIG_1, value("PV", "C", 1.0)));
+    assertEquals(expected, entries(filteredInMemory));
+    assertEquals(expected, entries(filteredColumnar));
+    assertEquals(Collections.singleton(CONFIG_1), new HashSet<String>(filteredColumnar.getCalculationConfigurationNames()));
+  }
+
+  public void testFilterDeltaResult() {
+    final InMemoryViewDeltaResultModel delta = new InMemoryViewDeltaResultModel();
+    populate(delta, null);
+    final ViewResultFilter filter = ViewResultFilter.ALL.withValueNames(Collections.singleton("Delta")).withCalculationConfigurationNames(Collections.singleton(CONFIG_2));
+    final Set<ViewResultEntry> expected = new HashSet<ViewResultEntry>();
+    expected.add(new ViewResultEntry(CONFIG_2, value("Delta", "A", "text")));
+    expected.add(new ViewResultEntry(CONFIG_2, value("Delta", "B", "text")));
+    expected.add(new ViewResultEntry(CONFIG_2, value("Delta", "C", "text")));
+    assertEquals(expected, entries(filter.filter(delta)));
+  }
+
+  public void testEquality() {
+    final ViewResultFilter a = ViewResultFilter.ALL.withValueNames(Collections.singleton("PV"));
+    final ViewResultFilter b = new ViewResultFilter(null, Collections.singleton("PV"), null);
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+  }
+
+}
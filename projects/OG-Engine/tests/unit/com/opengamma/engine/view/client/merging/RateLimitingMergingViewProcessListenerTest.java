@@ -11,10 +11,14 @@ import static org.testng.AssertJUnit.assertTrue;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import com.opengamma.engine.ComputationTargetType;
@@ -28,6 +32,7 @@ import com.opengamma.engine.view.ViewDeltaResultModel;
 import com.opengamma.engine.view.ViewResultEntry;
 import com.opengamma.engine.view.calc.EngineResourceManagerImpl;
 import com.opengamma.engine.view.compilation.CompiledViewDefinitionWithGraphsImpl;
+import com.opengamma.engine.view.listener.ViewResultBacklog;
 import com.opengamma.engine.view.listener.ViewResultListener;
 import com.opengamma.id.UniqueId;
 import com.opengamma.util.test.Timeout;
@@ -41,10 +46,22 @@ public class RateLimitingMergingViewProcessListenerTest {
 
   private static final Logger s_logger = LoggerFactory.getLogger(RateLimitingMergingViewProcessListenerTest.class);
 
+  private ScheduledExecutorService _scheduler;
+
+  @BeforeClass
+  public void createScheduler() {
+    _scheduler = Executors.newScheduledThreadPool(2);
+  }
+
+  @AfterClass
+  public void shutdownScheduler() {
+    _scheduler.shutdown();
+  }
+
   @Test
   public void testPassThrough() {
     TestViewResultListener testListener = new TestViewResultListener();
-    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), new Timer("Custom timer"));
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
 
     // OK, it doesn't really test the 'synchronous' bit, but it at least checks that no merging has happened.
     addCompile(mergingListener);
@@ -74,7 +91,7 @@ public class RateLimitingMergingViewProcessListenerTest {
   @Test
   public void testMergingWhenRateLimiting() throws InterruptedException {
     TestViewResultListener testListener = new TestViewResultListener();
-    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), new Timer("Custom timer"));
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
     mergingListener.setMinimumUpdatePeriodMillis(500);
 
     addResults(mergingListener, 1000);
@@ -88,7 +105,7 @@ public class RateLimitingMergingViewProcessListenerTest {
   @Test
   public void testModifiableUpdatePeriod() throws InterruptedException {
     TestViewResultListener testListener = new TestViewResultListener();
-    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), new Timer("Custom timer"));
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
 
     assertCorrectUpdateRate(mergingListener, testListener, 100);
     assertCorrectUpdateRate(mergingListener, testListener, 400);
@@ -97,10 +114,73 @@ public class RateLimitingMergingViewProcessListenerTest {
     mergingListener.terminate();
   }
   
+  @Test
+  public void testBacklogHoldsBackPassThrough() throws InterruptedException {
+    TestViewResultListener testListener = new TestViewResultListener();
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
+    final AtomicInteger backlog = new AtomicInteger();
+    mergingListener.setBacklog(new ViewResultBacklog() {
+      @Override
+      public int getBacklog() {
+        return backlog.get();
+      }
+    });
+
+    addResults(mergingListener, 10);
+    testListener.assertMultipleCycleCompleted(10);
+    testListener.assertNoCalls();
+    assertEquals(0, mergingListener.getPendingCycleCount());
+
+    // Consumer falls behind; results are merged and held back
+    backlog.set(RateLimitingMergingViewProcessListener.DEFAULT_MAXIMUM_BACKLOG + 1);
+    addResults(mergingListener, 100);
+    Thread.sleep(200);
+    testListener.assertNoCalls();
+    assertEquals(100, mergingListener.getPendingCycleCount());
+    assertEquals(99, mergingListener.getMergeCount());
+
+    // Consumer catches up; only the latest, merged, result is released
+    backlog.set(0);
+    testListener.assertCycleCompleted(Timeout.standardTimeoutMillis());
+    testListener.assertNoCalls();
+    assertEquals(0, mergingListener.getPendingCycleCount());
+
+    // Back to passing results straight through
+    addResults(mergingListener, 10);
+    testListener.assertMultipleCycleCompleted(10);
+    testListener.assertNoCalls();
+
+    mergingListener.terminate();
+  }
+
+  @Test
+  public void testBacklogHoldsBackRateLimited() throws InterruptedException {
+    TestViewResultListener testListener = new TestViewResultListener();
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
+    final AtomicInteger backlog = new AtomicInteger(2);
+    mergingListener.setMinimumUpdatePeriodMillis(100);
+    mergingListener.setBacklog(new ViewResultBacklog() {
+      @Override
+      public int getBacklog() {
+        return backlog.get();
+      }
+    });
+    assertEquals(100, mergingListener.getEffectiveUpdatePeriodMillis());
+
+    addResults(mergingListener, 100);
+    Thread.sleep(300);
+    testListener.assertNoCalls();
+    mergingListener.setMaximumBacklog(2);
+    testListener.assertCycleCompleted(Timeout.standardTimeoutMillis());
+    testListener.assertNoCalls();
+
+    mergingListener.terminate();
+  }
+
   @Test
   public void testCallOrderingAndCollapsing() throws InterruptedException {
     TestViewResultListener testListener = new TestViewResultListener();
-    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), new Timer("Custom timer"));
+    RateLimitingMergingViewProcessListener mergingListener = new RateLimitingMergingViewProcessListener(testListener, mock(EngineResourceManagerImpl.class), _scheduler);
    
     mergingListener.setPaused(true);
     testListener.assertNoCalls();
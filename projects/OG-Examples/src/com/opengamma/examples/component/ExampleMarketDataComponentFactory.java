@@ -31,6 +31,8 @@ import com.opengamma.core.value.MarketDataRequirementNamesHelper;
 import com.opengamma.engine.marketdata.InMemoryNamedMarketDataSpecificationRepository;
 import com.opengamma.engine.marketdata.MarketDataProviderFactory;
 import com.opengamma.engine.marketdata.NamedMarketDataSpecificationRepository;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProvider;
+import com.opengamma.engine.marketdata.availability.CachingMarketDataAvailabilityProviderMBean;
 import com.opengamma.engine.marketdata.availability.DomainMarketDataAvailabilityProvider;
 import com.opengamma.engine.marketdata.availability.MarketDataAvailabilityProvider;
 import com.opengamma.engine.marketdata.live.LiveDataFactory;
@@ -100,7 +102,8 @@ public class ExampleMarketDataComponentFactory extends AbstractComponentFactory
                                                          getEntitlementTopic(),
                                                          getHeartbeatTopic());
     MarketDataAvailabilityProvider availabilityProvider = createAvailabilityProvider();
-    LiveDataFactory defaultFactory = new LiveDataFactory(liveDataClient, availabilityProvider, getSecuritySource());
+    LiveDataFactory defaultFactory = new LiveDataFactory(liveDataClient, availabilityProvider, getSecuritySource(), true);
+    repo.registerMBean(new CachingMarketDataAvailabilityProviderMBean((CachingMarketDataAvailabilityProvider) defaultFactory.getAvailabilityProvider()));
     Map<String, LiveDataFactory> factoryMap = ImmutableMap.of(SIMULATED_LIVE_SOURCE_NAME, defaultFactory);
     LiveMarketDataProviderFactory marketDataProviderFactory = new LiveMarketDataProviderFactory(defaultFactory, factoryMap);
     ComponentInfo info = new ComponentInfo(MarketDataProviderFactory.class, getClassifier());
@@ -5,9 +5,12 @@
  */
 package com.opengamma.financial.analytics.model.fixedincome;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -29,6 +32,7 @@ import com.opengamma.core.security.SecuritySource;
 import com.opengamma.engine.ComputationTarget;
 import com.opengamma.engine.ComputationTargetType;
 import com.opengamma.engine.function.AbstractFunction;
+import com.opengamma.engine.function.BatchFunctionInvoker;
 import com.opengamma.engine.function.FunctionCompilationContext;
 import com.opengamma.engine.function.FunctionExecutionContext;
 import com.opengamma.engine.function.FunctionInputs;
@@ -68,11 +72,12 @@ import com.opengamma.id.UniqueIdentifiable;
 import com.opengamma.master.historicaltimeseries.HistoricalTimeSeriesResolver;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.money.Currency;
+import com.opengamma.util.tuple.Pair;
 
 /**
  *
  */
-public abstract class InterestRateInstrumentFunction extends AbstractFunction.NonCompiledInvoker {
+public abstract class InterestRateInstrumentFunction extends AbstractFunction.NonCompiledInvoker implements BatchFunctionInvoker {
   private static final Logger s_logger = LoggerFactory.getLogger(InterestRateInstrumentFunction.class);
   private FixedIncomeConverterDataProvider _definitionConverter;
   private final String _valueRequirementName;
@@ -105,23 +110,65 @@ public abstract class InterestRateInstrumentFunction extends AbstractFunction.No
   @Override
   public Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final ComputationTarget target,
       final Set<ValueRequirement> desiredValues) {
-    final FinancialSecurity security = (FinancialSecurity) target.getSecurity();
-    final Currency currency = FinancialSecurityUtils.getCurrency(security);
-    final Clock snapshotClock = executionContext.getValuationClock();
-    final ZonedDateTime now = snapshotClock.zonedDateTime();
-    final HistoricalTimeSeriesBundle timeSeries = HistoricalTimeSeriesFunctionUtils.getHistoricalTimeSeriesInputs(executionContext, inputs);
     final ValueRequirement desiredValue = desiredValues.iterator().next();
     final String curveCalculationConfigName = desiredValue.getConstraint(ValuePropertyNames.CURVE_CALCULATION_CONFIG);
     final ConfigSource configSource = OpenGammaExecutionContext.getConfigSource(executionContext);
     final ConfigDBCurveCalculationConfigSource curveCalculationConfigSource = new ConfigDBCurveCalculationConfigSource(configSource);
+    final MultiCurveCalculationConfig curveCalculationConfig = getCurveCalculationConfig(curveCalculationConfigSource, curveCalculationConfigName);
+    final YieldCurveBundle bundle = YieldCurveFunctionUtils.getAllYieldCurves(inputs, curveCalculationConfig, curveCalculationConfigSource);
+    return execute(executionContext, inputs, target, curveCalculationConfigName, curveCalculationConfig, bundle);
+  }
+
+  /**
+   * Executes against a batch of securities. The curve calculation configuration and the curve bundle are resolved once for each configuration
+   * name rather than once for each security.
+   * 
+   * @param executionContext the execution context
+   * @param inputs the inputs for each target
+   * @param targets the targets
+   * @param desiredValues the desired values for each target
+   * @return the computed values for each target
+   */
+  @Override
+  public List<Set<ComputedValue>> executeBatch(final FunctionExecutionContext executionContext, final List<FunctionInputs> inputs, final List<ComputationTarget> targets,
+      final List<Set<ValueRequirement>> desiredValues) {
+    final ConfigSource configSource = OpenGammaExecutionContext.getConfigSource(executionContext);
+    final ConfigDBCurveCalculationConfigSource curveCalculationConfigSource = new ConfigDBCurveCalculationConfigSource(configSource);
+    final Map<String, Pair<MultiCurveCalculationConfig, YieldCurveBundle>> curves = new HashMap<String, Pair<MultiCurveCalculationConfig, YieldCurveBundle>>();
+    final List<Set<ComputedValue>> results = new ArrayList<Set<ComputedValue>>(targets.size());
+    for (int i = 0; i < targets.size(); i++) {
+      final ValueRequirement desiredValue = desiredValues.get(i).iterator().next();
+      final String curveCalculationConfigName = desiredValue.getConstraint(ValuePropertyNames.CURVE_CALCULATION_CONFIG);
+      Pair<MultiCurveCalculationConfig, YieldCurveBundle> curve = curves.get(curveCalculationConfigName);
+      if (curve == null) {
+        final MultiCurveCalculationConfig curveCalculationConfig = getCurveCalculationConfig(curveCalculationConfigSource, curveCalculationConfigName);
+        final YieldCurveBundle bundle = YieldCurveFunctionUtils.getAllYieldCurves(inputs.get(i), curveCalculationConfig, curveCalculationConfigSource);
+        curve = Pair.of(curveCalculationConfig, bundle);
+        curves.put(curveCalculationConfigName, curve);
+      }
+      results.add(execute(executionContext, inputs.get(i), targets.get(i), curveCalculationConfigName, curve.getFirst(), curve.getSecond()));
+    }
+    return results;
+  }
+
+  private static MultiCurveCalculationConfig getCurveCalculationConfig(final ConfigDBCurveCalculationConfigSource curveCalculationConfigSource, final String curveCalculationConfigName) {
     final MultiCurveCalculationConfig curveCalculationConfig = curveCalculationConfigSource.getConfig(curveCalculationConfigName);
     if (curveCalculationConfig == null) {
       throw new OpenGammaRuntimeException("Could not find curve calculation configuration named " + curveCalculationConfigName);
     }
+    return curveCalculationConfig;
+  }
+
+  private Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final ComputationTarget target,
+      final String curveCalculationConfigName, final MultiCurveCalculationConfig curveCalculationConfig, final YieldCurveBundle bundle) {
+    final FinancialSecurity security = (FinancialSecurity) target.getSecurity();
+    final Currency currency = FinancialSecurityUtils.getCurrency(security);
+    final Clock snapshotClock = executionContext.getValuationClock();
+    final ZonedDateTime now = snapshotClock.zonedDateTime();
+    final HistoricalTimeSeriesBundle timeSeries = HistoricalTimeSeriesFunctionUtils.getHistoricalTimeSeriesInputs(executionContext, inputs);
     final String[] curveNames = curveCalculationConfig.getYieldCurveNames();
     final String[] yieldCurveNames = curveNames.length == 1 ? new String[] {curveNames[0], curveNames[0] } : curveNames;
     final String[] curveNamesForSecurity = FixedIncomeInstrumentCurveExposureHelper.getCurveNamesForSecurity(security, yieldCurveNames[0], yieldCurveNames[1]);
-    final YieldCurveBundle bundle = YieldCurveFunctionUtils.getAllYieldCurves(inputs, curveCalculationConfig, curveCalculationConfigSource);
     final InstrumentDefinition<?> definition = security.accept(_visitor);
     if (definition == null) {
       throw new OpenGammaRuntimeException("Definition for security " + security + " was null");
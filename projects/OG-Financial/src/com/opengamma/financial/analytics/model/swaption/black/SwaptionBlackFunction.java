@@ -5,8 +5,12 @@
  */
 package com.opengamma.financial.analytics.model.swaption.black;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.time.calendar.Clock;
@@ -30,6 +34,7 @@ import com.opengamma.core.security.SecuritySource;
 import com.opengamma.engine.ComputationTarget;
 import com.opengamma.engine.ComputationTargetType;
 import com.opengamma.engine.function.AbstractFunction;
+import com.opengamma.engine.function.BatchFunctionInvoker;
 import com.opengamma.engine.function.FunctionCompilationContext;
 import com.opengamma.engine.function.FunctionExecutionContext;
 import com.opengamma.engine.function.FunctionInputs;
@@ -54,11 +59,12 @@ import com.opengamma.financial.security.FinancialSecurityUtils;
 import com.opengamma.financial.security.option.SwaptionSecurity;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.money.Currency;
+import com.opengamma.util.tuple.Triple;
 
 /**
  *
  */
-public abstract class SwaptionBlackFunction extends AbstractFunction.NonCompiledInvoker {
+public abstract class SwaptionBlackFunction extends AbstractFunction.NonCompiledInvoker implements BatchFunctionInvoker {
   private static final Logger s_logger = LoggerFactory.getLogger(SwaptionBlackFunction.class);
   private final String _valueRequirementName;
   private SwaptionSecurityConverter _visitor;
@@ -80,14 +86,67 @@ public abstract class SwaptionBlackFunction extends AbstractFunction.NonCompiled
 
   @Override
   public Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final ComputationTarget target, final Set<ValueRequirement> desiredValues) {
-    final Clock snapshotClock = executionContext.getValuationClock();
-    final ZonedDateTime now = snapshotClock.zonedDateTime();
-    final SecuritySource securitySource = OpenGammaExecutionContext.getSecuritySource(executionContext);
     final SwaptionSecurity security = (SwaptionSecurity) target.getSecurity();
     final ValueRequirement desiredValue = desiredValues.iterator().next();
     final Currency currency = FinancialSecurityUtils.getCurrency(security);
     final String surfaceName = desiredValue.getConstraint(ValuePropertyNames.SURFACE);
     final String curveCalculationConfigName = desiredValue.getConstraint(ValuePropertyNames.CURVE_CALCULATION_CONFIG);
+    final MarketData marketData = getMarketData(executionContext, inputs, currency, surfaceName, curveCalculationConfigName);
+    return execute(executionContext, target, currency, surfaceName, curveCalculationConfigName, marketData);
+  }
+
+  /**
+   * Executes against a batch of swaptions. The curves and volatility surface are extracted from the inputs once for each distinct
+   * currency, surface and curve calculation configuration rather than once for each swaption.
+   * 
+   * @param executionContext the execution context
+   * @param inputs the inputs for each target
+   * @param targets the targets
+   * @param desiredValues the desired values for each target
+   * @return the computed values for each target
+   */
+  @Override
+  public List<Set<ComputedValue>> executeBatch(final FunctionExecutionContext executionContext, final List<FunctionInputs> inputs, final List<ComputationTarget> targets,
+      final List<Set<ValueRequirement>> desiredValues) {
+    final Map<Triple<Currency, String, String>, MarketData> marketData = new HashMap<Triple<Currency, String, String>, MarketData>();
+    final List<Set<ComputedValue>> results = new ArrayList<Set<ComputedValue>>(targets.size());
+    for (int i = 0; i < targets.size(); i++) {
+      final ComputationTarget target = targets.get(i);
+      final ValueRequirement desiredValue = desiredValues.get(i).iterator().next();
+      final Currency currency = FinancialSecurityUtils.getCurrency(target.getSecurity());
+      final String surfaceName = desiredValue.getConstraint(ValuePropertyNames.SURFACE);
+      final String curveCalculationConfigName = desiredValue.getConstraint(ValuePropertyNames.CURVE_CALCULATION_CONFIG);
+      final Triple<Currency, String, String> key = Triple.of(currency, surfaceName, curveCalculationConfigName);
+      MarketData data = marketData.get(key);
+      if (data == null) {
+        data = getMarketData(executionContext, inputs.get(i), currency, surfaceName, curveCalculationConfigName);
+        marketData.put(key, data);
+      }
+      results.add(execute(executionContext, target, currency, surfaceName, curveCalculationConfigName, data));
+    }
+    return results;
+  }
+
+  /**
+   * The curves and volatility surface used for a swaption, which are common to all swaptions in the same currency priced with the same
+   * surface and curve calculation configuration.
+   */
+  private static final class MarketData {
+
+    private final String[] _curveNames;
+    private final YieldCurveBundle _curves;
+    private final VolatilitySurface _volatilitySurface;
+
+    private MarketData(final String[] curveNames, final YieldCurveBundle curves, final VolatilitySurface volatilitySurface) {
+      _curveNames = curveNames;
+      _curves = curves;
+      _volatilitySurface = volatilitySurface;
+    }
+
+  }
+
+  private MarketData getMarketData(final FunctionExecutionContext executionContext, final FunctionInputs inputs, final Currency currency, final String surfaceName,
+      final String curveCalculationConfigName) {
     final ConfigSource configSource = OpenGammaExecutionContext.getConfigSource(executionContext);
     final ConfigDBCurveCalculationConfigSource curveCalculationConfigSource = new ConfigDBCurveCalculationConfigSource(configSource);
     final MultiCurveCalculationConfig curveCalculationConfig = curveCalculationConfigSource.getConfig(curveCalculationConfigName);
@@ -107,13 +166,22 @@ public abstract class SwaptionBlackFunction extends AbstractFunction.NonCompiled
     if (!(volatilitySurface.getSurface() instanceof InterpolatedDoublesSurface)) {
       throw new OpenGammaRuntimeException("Expecting an InterpolatedDoublesSurface; got " + volatilitySurface.getSurface().getClass());
     }
+    return new MarketData(curveNames, curves, volatilitySurface);
+  }
+
+  private Set<ComputedValue> execute(final FunctionExecutionContext executionContext, final ComputationTarget target, final Currency currency, final String surfaceName,
+      final String curveCalculationConfigName, final MarketData marketData) {
+    final Clock snapshotClock = executionContext.getValuationClock();
+    final ZonedDateTime now = snapshotClock.zonedDateTime();
+    final SecuritySource securitySource = OpenGammaExecutionContext.getSecuritySource(executionContext);
+    final SwaptionSecurity security = (SwaptionSecurity) target.getSecurity();
     final InstrumentDefinition<?> definition = security.accept(_visitor);
-    final InstrumentDerivative swaption = definition.toDerivative(now, curveNames);
+    final InstrumentDerivative swaption = definition.toDerivative(now, marketData._curveNames);
     final ValueProperties properties = getResultProperties(currency.getCode(), curveCalculationConfigName, surfaceName);
     final ValueSpecification spec = new ValueSpecification(_valueRequirementName, target.toSpecification(), properties);
-    final BlackSwaptionParameters parameters = new BlackSwaptionParameters(volatilitySurface.getSurface(),
+    final BlackSwaptionParameters parameters = new BlackSwaptionParameters(marketData._volatilitySurface.getSurface(),
         SwaptionUtils.getSwapGenerator(security, definition, securitySource));
-    final YieldCurveWithBlackSwaptionBundle data = new YieldCurveWithBlackSwaptionBundle(parameters, curves);
+    final YieldCurveWithBlackSwaptionBundle data = new YieldCurveWithBlackSwaptionBundle(parameters, marketData._curves);
     return getResult(swaption, data, spec);
   }
 
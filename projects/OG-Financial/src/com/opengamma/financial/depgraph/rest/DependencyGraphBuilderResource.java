@@ -8,6 +8,7 @@ package com.opengamma.financial.depgraph.rest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 
 import javax.time.Instant;
@@ -181,9 +182,7 @@ public final class DependencyGraphBuilderResource extends AbstractDataResource {
         _fudgeContext));
     builder.setResolutionFailureVisitor(failures);
     builder.setDisableFailureReporting(false);
-    for (ValueRequirement requirement : _requirements) {
-      builder.addTarget(requirement);
-    }
+    builder.addTarget(new HashSet<ValueRequirement>(_requirements));
     final FudgeSerializer serializer = new FudgeSerializer(fudgeContext);
     final MutableFudgeMsg result = serializer.newMessage();
     final DependencyGraph graph = builder.getDependencyGraph();
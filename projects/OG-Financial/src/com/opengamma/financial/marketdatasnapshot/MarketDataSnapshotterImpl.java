@@ -36,6 +36,7 @@ import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
 import com.opengamma.core.marketdatasnapshot.YieldCurveSnapshot;
 import com.opengamma.core.marketdatasnapshot.impl.ManageableMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.impl.ManageableUnstructuredMarketDataSnapshot;
+import com.opengamma.core.marketdatasnapshot.impl.MarketDataSnapshotChain;
 import com.opengamma.engine.ComputationTargetSpecification;
 import com.opengamma.engine.ComputationTargetType;
 import com.opengamma.engine.depgraph.DependencyGraph;
@@ -86,6 +87,11 @@ public class MarketDataSnapshotterImpl implements MarketDataSnapshotter {
     return createSnapshot(cycle.getResultModel(), getGraphs(defn), cycle, defn.getViewDefinition().getName());
   }
 
+  @Override
+  public StructuredMarketDataSnapshot createSnapshot(ViewClient client, ViewCycle cycle, MarketDataSnapshotChain parent) {
+    return MarketDataSnapshotChain.diff(createSnapshot(client, cycle), parent);
+  }
+
   private Map<String, DependencyGraph> getGraphs(CompiledViewDefinitionWithGraphs defn) {
     HashMap<String, DependencyGraph> ret = new HashMap<String, DependencyGraph>();
     for (CompiledViewCalculationConfiguration config : defn.getCompiledCalculationConfigurations()) {
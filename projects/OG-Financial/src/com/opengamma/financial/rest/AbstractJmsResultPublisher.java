@@ -5,7 +5,10 @@
  */
 package com.opengamma.financial.rest;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -37,6 +40,10 @@ public abstract class AbstractJmsResultPublisher {
   /** Logger */
   private static final Logger s_logger = LoggerFactory.getLogger(AbstractJmsResultPublisher.class);
   private static final String SEQUENCE_NUMBER_FIELD_NAME = "#";
+  /** The size of a Fudge envelope header, which precedes the fields. */
+  private static final int ENVELOPE_HEADER_SIZE = 8;
+  /** The offset of the message size, including the header, within a Fudge envelope header. */
+  private static final int ENVELOPE_SIZE_OFFSET = 4;
 
   private final FudgeContext _fudgeContext;
   private final FudgeSerializer _fudgeSerializationContext;
@@ -45,12 +52,26 @@ public abstract class AbstractJmsResultPublisher {
   private final AtomicLong _sequenceNumber = new AtomicLong();
 
   private final AtomicBoolean _isShutdown = new AtomicBoolean(false);
-  private BlockingQueue<byte[]> _messageQueue = new LinkedBlockingQueue<byte[]>();
+  private BlockingQueue<QueuedMessage> _messageQueue = new LinkedBlockingQueue<QueuedMessage>();
+  private final EncodedResultCache _encodedResultCache;
 
   private volatile Connection _connection;
   private volatile Session _session;
   private volatile MessageProducer _producer;
 
+  private static final class QueuedMessage {
+
+    /** The sequence number to add to the message, negative for none. */
+    private final long _sequenceNumber;
+    private final byte[] _data;
+
+    private QueuedMessage(final long sequenceNumber, final byte[] data) {
+      _sequenceNumber = sequenceNumber;
+      _data = data;
+    }
+
+  }
+
   /**
    * Creates an instance.
    * 
@@ -58,9 +79,21 @@ public abstract class AbstractJmsResultPublisher {
    * @param jmsConnector  the JMS connector, not null
    */
   public AbstractJmsResultPublisher(FudgeContext fudgeContext, JmsConnector jmsConnector) {
+    this(fudgeContext, jmsConnector, null);
+  }
+
+  /**
+   * Creates an instance which shares the encoding of results with other publishers.
+   * 
+   * @param fudgeContext  the Fudge context, not null
+   * @param jmsConnector  the JMS connector, not null
+   * @param encodedResultCache  the cache of encodings shared between publishers, null to encode every result
+   */
+  public AbstractJmsResultPublisher(FudgeContext fudgeContext, JmsConnector jmsConnector, EncodedResultCache encodedResultCache) {
     _fudgeContext = fudgeContext;
     _fudgeSerializationContext = new FudgeSerializer(fudgeContext);
     _jmsConnector = jmsConnector;
+    _encodedResultCache = encodedResultCache;
   }
 
   //-------------------------------------------------------------------------
@@ -84,13 +117,82 @@ public abstract class AbstractJmsResultPublisher {
    */
   protected void send(Object result) {
     s_logger.debug("Result received to forward over JMS: {}", result);    
-    MutableFudgeMsg resultMsg = _fudgeSerializationContext.objectToFudgeMsg(result);
+    enqueue(encode(result));
+  }
+
+  /**
+   * Publishes a result over JMS, sharing its encoding with any other publisher sending a result of the same type
+   * constructed from the same component objects.
+   * <p>
+   * The result must be a pure function of its components, for example a call object wrapping result models that were
+   * delivered unchanged to several clients, so that the encoding produced by one publisher is valid for all of them.
+   * 
+   * @param result  the result, not null
+   * @param components  the objects the result was constructed from, compared by identity, not null
+   */
+  protected void sendShared(final Object result, final Object... components) {
+    final EncodedResultCache encodedResultCache = getEncodedResultCache();
+    if (encodedResultCache == null) {
+      send(result);
+      return;
+    }
+    s_logger.debug("Shared result received to forward over JMS: {}", result);
+    enqueue(encodedResultCache.getEncoding(result.getClass(), components, new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return encode(result);
+      }
+    }));
+  }
+
+  private byte[] encode(final Object result) {
+    final MutableFudgeMsg resultMsg = _fudgeSerializationContext.objectToFudgeMsg(result);
     FudgeSerializer.addClassHeader(resultMsg, result.getClass());
-    long sequenceNumber = _sequenceNumber.getAndIncrement();
-    resultMsg.add(SEQUENCE_NUMBER_FIELD_NAME, sequenceNumber);
-    s_logger.debug("Sending result as fudge message with sequence number {}: {}", sequenceNumber, resultMsg);
-    byte[] resultMsgByteArray = _fudgeContext.toByteArray(resultMsg);
-    _messageQueue.add(resultMsgByteArray);
+    return _fudgeContext.toByteArray(resultMsg);
+  }
+
+  private void enqueue(final byte[] data) {
+    final long sequenceNumber = _sequenceNumber.getAndIncrement();
+    s_logger.debug("Queuing result of {} bytes with sequence number {}", data.length, sequenceNumber);
+    _messageQueue.add(new QueuedMessage(sequenceNumber, data));
+  }
+
+  /**
+   * Gets the number of results that have been accepted for publishing but not yet sent.
+   * 
+   * @return the number of queued results
+   */
+  public int getPendingMessageCount() {
+    return _messageQueue.size();
+  }
+
+  /**
+   * Returns the cache used to share encodings between publishers.
+   * 
+   * @return the cache, null if every result is encoded by this publisher
+   */
+  public EncodedResultCache getEncodedResultCache() {
+    return _encodedResultCache;
+  }
+
+  /**
+   * Adds a sequence number field to the end of an encoded message. A shared encoding can't carry the sequence number
+   * of any one publisher, so the field is appended to a copy just before sending. The result is the same as encoding
+   * the message with the field added last.
+   * 
+   * @param fudgeContext  the Fudge context, not null
+   * @param encoding  the encoded message, not null
+   * @param sequenceNumber  the sequence number
+   * @return the encoded message with the sequence number, not null
+   */
+  /* package */ static byte[] appendSequenceNumber(final FudgeContext fudgeContext, final byte[] encoding, final long sequenceNumber) {
+    final MutableFudgeMsg sequenceNumberMsg = fudgeContext.newMessage();
+    sequenceNumberMsg.add(SEQUENCE_NUMBER_FIELD_NAME, sequenceNumber);
+    final byte[] field = fudgeContext.toByteArray(sequenceNumberMsg);
+    final byte[] result = Arrays.copyOf(encoding, encoding.length + field.length - ENVELOPE_HEADER_SIZE);
+    System.arraycopy(field, ENVELOPE_HEADER_SIZE, result, encoding.length, field.length - ENVELOPE_HEADER_SIZE);
+    ByteBuffer.wrap(result).putInt(ENVELOPE_SIZE_OFFSET, result.length);
+    return result;
   }
 
   //-------------------------------------------------------------------------
@@ -126,7 +228,7 @@ public abstract class AbstractJmsResultPublisher {
     
     // REVIEW jonathan 2012-02-03 -- until we have more than one control signal, it's sufficient to push through an
     // empty message.
-    _messageQueue.add(_fudgeContext.toByteArray(_fudgeContext.newMessage()));
+    _messageQueue.add(new QueuedMessage(-1, _fudgeContext.toByteArray(_fudgeContext.newMessage())));
   }
 
   private void closeJms() {
@@ -148,7 +250,7 @@ public abstract class AbstractJmsResultPublisher {
       @Override
       public void run() {
         while (true) {
-          byte[] nextMessage;
+          QueuedMessage nextMessage;
           try {
             nextMessage = _messageQueue.take();
             if (_isShutdown.get()) {
@@ -165,7 +267,7 @@ public abstract class AbstractJmsResultPublisher {
     senderThread.start();
   }
 
-  private void sendSync(byte[] buffer) {
+  private void sendSync(QueuedMessage message) {
     MessageProducer producer = _producer;
     if (producer == null) {
       s_logger.debug("Result received after publishing stopped");
@@ -173,7 +275,11 @@ public abstract class AbstractJmsResultPublisher {
     }
     try {
       BytesMessage msg = _session.createBytesMessage();
-      msg.writeBytes(buffer);
+      if (message._sequenceNumber >= 0) {
+        msg.writeBytes(appendSequenceNumber(_fudgeContext, message._data, message._sequenceNumber));
+      } else {
+        msg.writeBytes(message._data);
+      }
       producer.send(msg);
     } catch (Exception e) {
       s_logger.error("Error while sending result over JMS. This result may never reach the client.", e);
@@ -186,7 +292,7 @@ public abstract class AbstractJmsResultPublisher {
       s_logger.debug("Removing listener {}", this);
       stopListener();
       _isShutdown.set(true);
-      _messageQueue.add(new byte[0]);
+      _messageQueue.add(new QueuedMessage(-1, new byte[0]));
       closeJms();
     } finally {
       _lock.unlock();
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.financial.rest;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Holds the encoded form of recently published results so that a result delivered to many listeners is only encoded once.
+ * <p>
+ * Entries are identified by the type of the message and the identity, not equality, of the objects it was constructed from.
+ * Only weak references to those objects are held so a cached encoding never keeps a result model alive, and only a small
+ * number of the most recently used encodings are retained.
+ */
+public class EncodedResultCache {
+
+  /**
+   * The default number of encodings retained.
+   */
+  public static final int DEFAULT_SIZE = 8;
+
+  private final int _size;
+  private final LinkedList<Entry> _entries = new LinkedList<Entry>();
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+
+  private static final class Entry {
+
+    private final Class<?> _type;
+    private final WeakReference<?>[] _components;
+    private final FutureTask<byte[]> _encoding;
+
+    private Entry(final Class<?> type, final Object[] components, final FutureTask<byte[]> encoding) {
+      _type = type;
+      _components = new WeakReference<?>[components.length];
+      for (int i = 0; i < components.length; i++) {
+        _components[i] = (components[i] != null) ? new WeakReference<Object>(components[i]) : null;
+      }
+      _encoding = encoding;
+    }
+
+    private boolean matches(final Class<?> type, final Object[] components) {
+      if ((_type != type) || (_components.length != components.length)) {
+        return false;
+      }
+      for (int i = 0; i < components.length; i++) {
+        final Object component = (_components[i] != null) ? _components[i].get() : null;
+        if (component != components[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isCleared() {
+      for (WeakReference<?> component : _components) {
+        if ((component != null) && (component.get() == null)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  /**
+   * Creates a new cache retaining {@link #DEFAULT_SIZE} encodings.
+   */
+  public EncodedResultCache() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Creates a new cache.
+   *
+   * @param size the number of encodings to retain, at least one
+   */
+  public EncodedResultCache(final int size) {
+    ArgumentChecker.isTrue(size > 0, "size");
+    _size = size;
+  }
+
+  /**
+   * Returns the encoding of a message, producing it if the message has not been encoded recently. If several threads
+   * request the same message concurrently only one of them will perform the encoding; the others wait for the result.
+   *
+   * @param type the type of the message being encoded, not null
+   * @param components the objects the message is constructed from, compared by identity, not null
+   * @param encoder produces the encoding if it is not already cached, not null
+   * @return the encoded message, not null. The array is shared and must not be modified.
+   */
+  public byte[] getEncoding(final Class<?> type, final Object[] components, final Callable<byte[]> encoder) {
+    FutureTask<byte[]> encoding = null;
+    boolean owner = false;
+    synchronized (_entries) {
+      final Iterator<Entry> itr = _entries.iterator();
+      while (itr.hasNext()) {
+        final Entry entry = itr.next();
+        if (entry.matches(type, components)) {
+          itr.remove();
+          _entries.addFirst(entry);
+          encoding = entry._encoding;
+          break;
+        } else if (entry.isCleared()) {
+          itr.remove();
+        }
+      }
+      if (encoding == null) {
+        encoding = new FutureTask<byte[]>(encoder);
+        owner = true;
+        _entries.addFirst(new Entry(type, components, encoding));
+        while (_entries.size() > _size) {
+          _entries.removeLast();
+        }
+      }
+    }
+    if (owner) {
+      _misses.incrementAndGet();
+      encoding.run();
+    } else {
+      _hits.incrementAndGet();
+    }
+    try {
+      return encoding.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OpenGammaRuntimeException("Interrupted waiting for message encoding", e);
+    } catch (ExecutionException e) {
+      if (owner) {
+        discard(encoding);
+      }
+      throw new OpenGammaRuntimeException("Error encoding message", e.getCause());
+    }
+  }
+
+  private void discard(final FutureTask<byte[]> encoding) {
+    synchronized (_entries) {
+      final Iterator<Entry> itr = _entries.iterator();
+      while (itr.hasNext()) {
+        if (itr.next()._encoding == encoding) {
+          itr.remove();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of requests satisfied by an existing encoding.
+   *
+   * @return the hit count
+   */
+  public long getHits() {
+    return _hits.get();
+  }
+
+  /**
+   * Returns the number of requests that required a new encoding.
+   *
+   * @return the miss count
+   */
+  public long getMisses() {
+    return _misses.get();
+  }
+
+}
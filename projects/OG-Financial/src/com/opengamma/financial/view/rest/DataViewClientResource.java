@@ -24,9 +24,11 @@ import com.opengamma.engine.view.calc.EngineResourceReference;
 import com.opengamma.engine.view.calc.ViewCycle;
 import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.engine.view.client.ViewClientState;
+import com.opengamma.engine.view.client.ViewResultFilter;
 import com.opengamma.engine.view.client.ViewResultMode;
 import com.opengamma.financial.livedata.rest.DataLiveDataInjectorResource;
 import com.opengamma.financial.rest.AbstractRestfulJmsResultPublisher;
+import com.opengamma.financial.rest.EncodedResultCache;
 import com.opengamma.id.UniqueId;
 import com.opengamma.transport.jaxrs.FudgeRest;
 import com.opengamma.util.ArgumentChecker;
@@ -51,6 +53,7 @@ public class DataViewClientResource extends AbstractRestfulJmsResultPublisher {
   public static final String PATH_LIVE_DATA_OVERRIDE_INJECTOR = "overrides";
   public static final String PATH_RESULT_MODE = "resultMode";
   public static final String PATH_FRAGMENT_RESULT_MODE = "fragmentResultMode";
+  public static final String PATH_RESULT_FILTER = "resultFilter";
   public static final String PATH_RESUME = "resume";
   public static final String PATH_PAUSE = "pause";
   public static final String PATH_COMPLETED = "completed";
@@ -74,7 +77,12 @@ public class DataViewClientResource extends AbstractRestfulJmsResultPublisher {
   private final DataEngineResourceManagerResource<ViewCycle> _viewCycleManagerResource;
 
   public DataViewClientResource(ViewClient viewClient, DataEngineResourceManagerResource<ViewCycle> viewCycleManagerResource, JmsConnector jmsConnector, ExecutorService executor) {
-    super(new ViewClientJmsResultPublisher(viewClient, OpenGammaFudgeContext.getInstance(), jmsConnector), executor);
+    this(viewClient, viewCycleManagerResource, jmsConnector, executor, null);
+  }
+
+  public DataViewClientResource(ViewClient viewClient, DataEngineResourceManagerResource<ViewCycle> viewCycleManagerResource, JmsConnector jmsConnector, ExecutorService executor,
+      EncodedResultCache encodedResultCache) {
+    super(new ViewClientJmsResultPublisher(viewClient, OpenGammaFudgeContext.getInstance(), jmsConnector, encodedResultCache), executor);
     _viewClient = viewClient;
     _viewCycleManagerResource = viewCycleManagerResource;
   }
@@ -210,6 +218,22 @@ public class DataViewClientResource extends AbstractRestfulJmsResultPublisher {
     return responseOk();
   }
 
+  //-------------------------------------------------------------------------
+  @GET
+  @Path(PATH_RESULT_FILTER)
+  public Response getResultFilter() {
+    updateLastAccessed();
+    return responseOkFudge(getViewClient().getResultFilter());
+  }
+
+  @PUT
+  @Path(PATH_RESULT_FILTER)
+  public Response setResultFilter(ViewResultFilter resultFilter) {
+    updateLastAccessed();
+    getViewClient().setResultFilter(resultFilter);
+    return responseOk();
+  }
+
   //-------------------------------------------------------------------------
   @POST
   @Path(PATH_PAUSE)
@@ -31,6 +31,7 @@ import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.financial.analytics.volatility.cube.VolatilityCubeDefinitionSource;
 import com.opengamma.financial.marketdatasnapshot.MarketDataSnapshotterImpl;
 import com.opengamma.financial.rest.AbstractRestfulJmsResultPublisherExpiryJob;
+import com.opengamma.financial.rest.EncodedResultCache;
 import com.opengamma.id.UniqueId;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.transport.jaxrs.FudgeRest;
@@ -73,6 +74,10 @@ public class DataViewProcessorResource extends AbstractDataResource {
    * The executor service.
    */
   private final ScheduledExecutorService _scheduler;
+  /**
+   * The encodings of cycle results, shared by the publishers of all view clients created through this resource.
+   */
+  private final EncodedResultCache _encodedResultCache = new EncodedResultCache();
   /**
    * The stale view client expiry job. 
    */
@@ -220,7 +225,7 @@ public class DataViewProcessorResource extends AbstractDataResource {
 
   private DataViewClientResource createViewClientResource(ViewClient viewClient, URI viewProcessorUri) {
     DataViewCycleManagerResource cycleManagerResource = getOrCreateDataViewCycleManagerResource(viewProcessorUri);
-    return new DataViewClientResource(viewClient, cycleManagerResource, _jmsConnector, _scheduler);
+    return new DataViewClientResource(viewClient, cycleManagerResource, _jmsConnector, _scheduler, _encodedResultCache);
   }
 
 }
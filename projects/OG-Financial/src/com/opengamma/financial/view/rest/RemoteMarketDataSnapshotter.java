@@ -10,6 +10,7 @@ import java.util.Map;
 
 import com.opengamma.core.marketdatasnapshot.StructuredMarketDataSnapshot;
 import com.opengamma.core.marketdatasnapshot.YieldCurveKey;
+import com.opengamma.core.marketdatasnapshot.impl.MarketDataSnapshotChain;
 import com.opengamma.engine.marketdata.snapshot.MarketDataSnapshotter;
 import com.opengamma.engine.value.ValueRequirement;
 import com.opengamma.engine.view.calc.ViewCycle;
@@ -36,6 +37,13 @@ public class RemoteMarketDataSnapshotter extends AbstractRemoteClient implements
     return accessRemote(uri).get(StructuredMarketDataSnapshot.class);
   }
 
+  @Override
+  public StructuredMarketDataSnapshot createSnapshot(ViewClient client, ViewCycle cycle, MarketDataSnapshotChain parent) {
+    ArgumentChecker.notNull(parent, "parent");
+    // The parent chain is already local, so only the full snapshot needs to come from the server
+    return MarketDataSnapshotChain.diff(createSnapshot(client, cycle), parent);
+  }
+
   @Override
   public Map<YieldCurveKey, Map<String, ValueRequirement>> getYieldCurveSpecifications(ViewClient client, ViewCycle cycle) {
     ArgumentChecker.notNull(client, "client");
@@ -28,6 +28,7 @@ import com.opengamma.engine.view.calc.EngineResourceReference;
 import com.opengamma.engine.view.calc.ViewCycle;
 import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.engine.view.client.ViewClientState;
+import com.opengamma.engine.view.client.ViewResultFilter;
 import com.opengamma.engine.view.client.ViewResultMode;
 import com.opengamma.engine.view.compilation.CompiledViewDefinition;
 import com.opengamma.engine.view.execution.ViewExecutionOptions;
@@ -266,6 +267,18 @@ public class RemoteViewClient extends AbstractRestfulJmsResultConsumer implement
     getClient().accessFudge(uri).put(viewResultMode);
   }
 
+  @Override
+  public ViewResultFilter getResultFilter() {
+    URI uri = getUri(getBaseUri(), DataViewClientResource.PATH_RESULT_FILTER);
+    return getClient().accessFudge(uri).get(ViewResultFilter.class);
+  }
+
+  @Override
+  public void setResultFilter(ViewResultFilter resultFilter) {
+    URI uri = getUri(getBaseUri(), DataViewClientResource.PATH_RESULT_FILTER);
+    getClient().accessFudge(uri).put(resultFilter);
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public void pause() {
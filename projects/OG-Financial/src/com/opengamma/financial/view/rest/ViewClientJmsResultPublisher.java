@@ -26,15 +26,23 @@ import com.opengamma.engine.view.listener.ProcessCompletedCall;
 import com.opengamma.engine.view.listener.ProcessTerminatedCall;
 import com.opengamma.engine.view.listener.ViewDefinitionCompilationFailedCall;
 import com.opengamma.engine.view.listener.ViewDefinitionCompiledCall;
+import com.opengamma.engine.view.listener.ViewResultBacklog;
 import com.opengamma.engine.view.listener.ViewResultListener;
 import com.opengamma.financial.rest.AbstractJmsResultPublisher;
+import com.opengamma.financial.rest.EncodedResultCache;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.util.jms.JmsConnector;
 
 /**
  * Publishes {@code ViewClient} results over JMS.
+ * <p>
+ * Clients attached to the same view process receive the same result model instances for each cycle, so cycle results are
+ * encoded once and the encoding shared between all publishers that forward them.
+ * <p>
+ * Results waiting to be sent are reported as a backlog so that the view client can hold back, and merge, further
+ * results while the JMS sender falls behind.
  */
-public class ViewClientJmsResultPublisher extends AbstractJmsResultPublisher implements ViewResultListener  {
+public class ViewClientJmsResultPublisher extends AbstractJmsResultPublisher implements ViewResultListener, ViewResultBacklog {
 
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(ViewClientJmsResultPublisher.class);
@@ -52,7 +60,19 @@ public class ViewClientJmsResultPublisher extends AbstractJmsResultPublisher imp
    * @param jmsConnector  the JMS connector, not null
    */
   public ViewClientJmsResultPublisher(ViewClient viewClient, FudgeContext fudgeContext, JmsConnector jmsConnector) {
-    super(fudgeContext, jmsConnector);
+    this(viewClient, fudgeContext, jmsConnector, null);
+  }
+
+  /**
+   * Creates an instance which shares the encoding of cycle results with other publishers.
+   * 
+   * @param viewClient  the view client, not null
+   * @param fudgeContext  the Fudge context, not null
+   * @param jmsConnector  the JMS connector, not null
+   * @param encodedResultCache  the cache of encodings shared between publishers, null to encode every result
+   */
+  public ViewClientJmsResultPublisher(ViewClient viewClient, FudgeContext fudgeContext, JmsConnector jmsConnector, EncodedResultCache encodedResultCache) {
+    super(fudgeContext, jmsConnector, encodedResultCache);
     _viewClient = viewClient;
   }
 
@@ -69,6 +89,12 @@ public class ViewClientJmsResultPublisher extends AbstractJmsResultPublisher imp
     _viewClient.setResultListener(null);
   }
 
+  //-------------------------------------------------------------------------
+  @Override
+  public int getBacklog() {
+    return getPendingMessageCount();
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public UserPrincipal getUser() {
@@ -92,12 +118,12 @@ public class ViewClientJmsResultPublisher extends AbstractJmsResultPublisher imp
 
   @Override
   public void cycleFragmentCompleted(ViewComputationResultModel fullFragment, ViewDeltaResultModel deltaFragment) {
-    send(new CycleFragmentCompletedCall(fullFragment, deltaFragment));
+    sendShared(new CycleFragmentCompletedCall(fullFragment, deltaFragment), fullFragment, deltaFragment);
   }
 
   @Override
   public void cycleCompleted(ViewComputationResultModel fullResult, ViewDeltaResultModel deltaResult) {
-    send(new CycleCompletedCall(fullResult, deltaResult));
+    sendShared(new CycleCompletedCall(fullResult, deltaResult), fullResult, deltaResult);
   }
 
   @Override
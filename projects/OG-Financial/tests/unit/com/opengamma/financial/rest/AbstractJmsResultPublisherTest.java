@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.financial.rest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Tests the {@link AbstractJmsResultPublisher} class.
+ */
+@Test
+public class AbstractJmsResultPublisherTest {
+
+  private static MutableFudgeMsg message(final FudgeContext fudgeContext) {
+    final MutableFudgeMsg msg = fudgeContext.newMessage();
+    msg.add("name", "value");
+    msg.add(null, 0, "ordinal");
+    msg.add("number", 42.5);
+    return msg;
+  }
+
+  public void testAppendSequenceNumber() {
+    final FudgeContext fudgeContext = OpenGammaFudgeContext.getInstance();
+    final byte[] shared = fudgeContext.toByteArray(message(fudgeContext));
+    for (long sequenceNumber : new long[] {0, 1, 300, Integer.MAX_VALUE + 1L }) {
+      final MutableFudgeMsg expected = message(fudgeContext);
+      expected.add("#", sequenceNumber);
+      final byte[] appended = AbstractJmsResultPublisher.appendSequenceNumber(fudgeContext, shared, sequenceNumber);
+      assertTrue(Arrays.equals(fudgeContext.toByteArray(expected), appended));
+      final FudgeMsg decoded = fudgeContext.deserialize(appended).getMessage();
+      assertEquals(sequenceNumber, (long) decoded.getLong("#"));
+      assertEquals("value", decoded.getString("name"));
+    }
+  }
+
+}
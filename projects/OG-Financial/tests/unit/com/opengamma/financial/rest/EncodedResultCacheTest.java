@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.financial.rest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+
+/**
+ * Tests the {@link EncodedResultCache} class.
+ */
+@Test
+public class EncodedResultCacheTest {
+
+  private static final class Encoder implements Callable<byte[]> {
+
+    private final AtomicInteger _calls = new AtomicInteger();
+
+    @Override
+    public byte[] call() {
+      _calls.incrementAndGet();
+      return new byte[] {1, 2, 3 };
+    }
+
+  }
+
+  public void testEncodesOnce() {
+    final EncodedResultCache cache = new EncodedResultCache(4);
+    final Encoder encoder = new Encoder();
+    final Object full = new Object();
+    final Object delta = new Object();
+    final byte[] first = cache.getEncoding(String.class, new Object[] {full, delta }, encoder);
+    for (int i = 0; i < 10; i++) {
+      assertSame(first, cache.getEncoding(String.class, new Object[] {full, delta }, encoder));
+    }
+    assertEquals(1, encoder._calls.get());
+    assertEquals(10, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  public void testIdentityNotEquality() {
+    final EncodedResultCache cache = new EncodedResultCache(4);
+    final Encoder encoder = new Encoder();
+    final byte[] first = cache.getEncoding(String.class, new Object[] {new String("A"), null }, encoder);
+    final byte[] second = cache.getEncoding(String.class, new Object[] {new String("A"), null }, encoder);
+    assertNotSame(first, second);
+    assertEquals(2, encoder._calls.get());
+  }
+
+  public void testTypeDistinguishes() {
+    final EncodedResultCache cache = new EncodedResultCache(4);
+    final Encoder encoder = new Encoder();
+    final Object component = new Object();
+    cache.getEncoding(String.class, new Object[] {component }, encoder);
+    cache.getEncoding(Integer.class, new Object[] {component }, encoder);
+    assertEquals(2, encoder._calls.get());
+  }
+
+  public void testBounded() {
+    final EncodedResultCache cache = new EncodedResultCache(2);
+    final Encoder encoder = new Encoder();
+    final Object a = new Object();
+    final Object b = new Object();
+    final Object c = new Object();
+    cache.getEncoding(String.class, new Object[] {a }, encoder);
+    cache.getEncoding(String.class, new Object[] {b }, encoder);
+    cache.getEncoding(String.class, new Object[] {c }, encoder);
+    assertEquals(3, encoder._calls.get());
+    cache.getEncoding(String.class, new Object[] {c }, encoder);
+    cache.getEncoding(String.class, new Object[] {b }, encoder);
+    assertEquals(3, encoder._calls.get());
+    cache.getEncoding(String.class, new Object[] {a }, encoder);
+    assertEquals(4, encoder._calls.get());
+  }
+
+  public void testFailureNotCached() {
+    final EncodedResultCache cache = new EncodedResultCache(2);
+    final Object component = new Object();
+    try {
+      cache.getEncoding(String.class, new Object[] {component }, new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          throw new IllegalStateException();
+        }
+      });
+    } catch (OpenGammaRuntimeException e) {
+      // expected
+    }
+    final Encoder encoder = new Encoder();
+    cache.getEncoding(String.class, new Object[] {component }, encoder);
+    assertEquals(1, encoder._calls.get());
+  }
+
+}
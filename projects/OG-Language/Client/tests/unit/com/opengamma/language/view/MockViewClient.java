@@ -16,6 +16,7 @@ import com.opengamma.engine.view.calc.EngineResourceReference;
 import com.opengamma.engine.view.calc.ViewCycle;
 import com.opengamma.engine.view.client.ViewClient;
 import com.opengamma.engine.view.client.ViewClientState;
+import com.opengamma.engine.view.client.ViewResultFilter;
 import com.opengamma.engine.view.client.ViewResultMode;
 import com.opengamma.engine.view.compilation.CompiledViewDefinition;
 import com.opengamma.engine.view.execution.ViewExecutionOptions;
@@ -126,6 +127,16 @@ import com.opengamma.livedata.UserPrincipal;
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public ViewResultFilter getResultFilter() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setResultFilter(ViewResultFilter resultFilter) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public ViewClientState getState() {
     throw new UnsupportedOperationException();
@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata;
+
+import static com.opengamma.livedata.CompactValueUpdateEncoder.FLAG_KEY_FRAME;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.HEADER_LENGTH;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.MAGIC;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.RECORD_DEFINE_FIELD;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.RECORD_DEFINE_SPECIFICATION;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.RECORD_TRACE;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.RECORD_UPDATE;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.TYPE_DOUBLE;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.TYPE_FUDGE;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.TYPE_LONG;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.TYPE_STRING;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.TYPE_UNCHANGED;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.UNNAMED_FIELD;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.UTF8;
+import static com.opengamma.livedata.CompactValueUpdateEncoder.VERSION;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.mapping.FudgeDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyTracer;
+
+/**
+ * Decodes frames written by {@link CompactValueUpdateEncoder}s.
+ * <p>
+ * A decoder can read frames from any number of encoders, keeping what it has learnt about each stream apart.
+ * Frames from a stream are ignored until a key frame from it has been read, and again after a frame
+ * that can't be read or a gap in the frame numbers, so a receiver that misses frames recovers at the next
+ * key frame. Key frames carry the last known values of everything in the stream, so nothing is missed.
+ * <p>
+ * What has been learnt about a stream is discarded once no frames have been read from it for
+ * {@link #setStreamTimeoutMillis the stream timeout}; a frame from it after that is ignored until the next key frame.
+ * <p>
+ * This class is thread-safe. Frames of different streams may be decoded concurrently.
+ */
+public class CompactValueUpdateDecoder {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(CompactValueUpdateDecoder.class);
+
+  /**
+   * The default time, in milliseconds, after which a stream that no frames have been read from is discarded.
+   */
+  public static final long DEFAULT_STREAM_TIMEOUT_MILLIS = 60000L;
+
+  /**
+   * What has been learnt about a stream since its last key frame.
+   */
+  private static final class Stream {
+
+    private boolean _synchronized;
+    private long _nextFrameNumber;
+    private volatile long _lastFrameMillis;
+    private final Map<Integer, String> _fieldNames = new HashMap<Integer, String>();
+    private final Map<Integer, SpecificationState> _specifications = new HashMap<Integer, SpecificationState>();
+
+    private Stream(final long now) {
+      _lastFrameMillis = now;
+    }
+
+    private void clear() {
+      _fieldNames.clear();
+      _specifications.clear();
+    }
+
+  }
+
+  /**
+   * What has been learnt about a specification in a stream.
+   */
+  private static final class SpecificationState {
+
+    private final LiveDataSpecification _specification;
+    private long _lastSequenceNumber;
+    private final Map<Integer, Object> _lastValues = new HashMap<Integer, Object>();
+
+    private SpecificationState(final LiveDataSpecification specification) {
+      _specification = specification;
+    }
+
+  }
+
+  private final FudgeContext _fudgeContext;
+  private final ConcurrentMap<Long, Stream> _streams = new ConcurrentHashMap<Long, Stream>();
+  private final AtomicLong _framesDecoded = new AtomicLong();
+  private final AtomicLong _framesDropped = new AtomicLong();
+  private final AtomicLong _lastPruneMillis = new AtomicLong(System.currentTimeMillis());
+  private volatile long _streamTimeoutMillis = DEFAULT_STREAM_TIMEOUT_MILLIS;
+
+  public CompactValueUpdateDecoder(final FudgeContext fudgeContext) {
+    ArgumentChecker.notNull(fudgeContext, "fudgeContext");
+    _fudgeContext = fudgeContext;
+  }
+
+  //-------------------------------------------------------------------------
+  public FudgeContext getFudgeContext() {
+    return _fudgeContext;
+  }
+
+  /**
+   * Checks whether a message is a frame written by a {@link CompactValueUpdateEncoder}, rather than a Fudge message.
+   *
+   * @param message  the message, not null
+   * @return true if the message is a frame
+   */
+  public static boolean isFrame(final byte[] message) {
+    return (message.length >= HEADER_LENGTH) && (message[0] == MAGIC[0]) && (message[1] == MAGIC[1]);
+  }
+
+  public long getStreamTimeoutMillis() {
+    return _streamTimeoutMillis;
+  }
+
+  /**
+   * Sets the time, in milliseconds, after which a stream that no frames have been read from is discarded.
+   * This should be several times the key frame interval of the encoders.
+   *
+   * @param streamTimeoutMillis  the timeout, greater than zero
+   */
+  public void setStreamTimeoutMillis(final long streamTimeoutMillis) {
+    ArgumentChecker.isTrue(streamTimeoutMillis > 0, "streamTimeoutMillis");
+    _streamTimeoutMillis = streamTimeoutMillis;
+  }
+
+  /**
+   * Gets the number of streams that frames have been read from and which have not yet been discarded.
+   *
+   * @return the number of streams
+   */
+  public int getNumStreams() {
+    return _streams.size();
+  }
+
+  /**
+   * Forgets everything learnt about all streams, so that each must send a key frame before any more of its
+   * frames are decoded.
+   */
+  public void reset() {
+    _streams.clear();
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Decodes a frame.
+   *
+   * @param frame  the frame, not null
+   * @return the updates in the frame, empty if it couldn't be decoded, not null
+   */
+  public List<LiveDataValueUpdateBean> decode(final byte[] frame) {
+    ArgumentChecker.notNull(frame, "frame");
+    if (!isFrame(frame)) {
+      s_logger.warn("Ignoring {} byte message which isn't a compact value update frame", frame.length);
+      _framesDropped.incrementAndGet();
+      return Collections.emptyList();
+    }
+    if (frame[MAGIC.length] != VERSION) {
+      s_logger.warn("Ignoring compact value update frame of unsupported version {}", frame[MAGIC.length]);
+      _framesDropped.incrementAndGet();
+      return Collections.emptyList();
+    }
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, MAGIC.length + 1, frame.length - MAGIC.length - 1));
+    try {
+      final int flags = in.readUnsignedByte();
+      final long streamId = in.readLong();
+      final long frameNumber = readVarLong(in);
+      final long now = System.currentTimeMillis();
+      pruneStreams(now);
+      Stream stream = _streams.get(streamId);
+      if (stream == null) {
+        final Stream fresh = new Stream(now);
+        stream = _streams.putIfAbsent(streamId, fresh);
+        if (stream == null) {
+          stream = fresh;
+        }
+      }
+      stream._lastFrameMillis = now;
+      synchronized (stream) {
+        if ((flags & FLAG_KEY_FRAME) != 0) {
+          stream.clear();
+          stream._synchronized = true;
+        } else if (!stream._synchronized) {
+          s_logger.debug("Ignoring frame from stream {} until a key frame is received", streamId);
+          _framesDropped.incrementAndGet();
+          return Collections.emptyList();
+        } else if (frameNumber != stream._nextFrameNumber) {
+          s_logger.warn("Missed frames {} to {} from stream {}, ignoring it until a key frame is received",
+              new Object[] {stream._nextFrameNumber, frameNumber - 1, streamId });
+          stream.clear();
+          stream._synchronized = false;
+          _framesDropped.incrementAndGet();
+          return Collections.emptyList();
+        }
+        stream._nextFrameNumber = frameNumber + 1;
+        try {
+          final List<LiveDataValueUpdateBean> updates = readRecords(in, stream);
+          _framesDecoded.incrementAndGet();
+          return updates;
+        } catch (IOException e) {
+          stream._synchronized = false;
+          throw e;
+        } catch (RuntimeException e) {
+          stream._synchronized = false;
+          throw new IOException(e.getMessage());
+        }
+      }
+    } catch (IOException e) {
+      s_logger.warn("Ignoring compact value update frame which couldn't be read: {}", e.getMessage());
+      _framesDropped.incrementAndGet();
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Discards the streams that no frames have been read from for the stream timeout. At most one thread
+   * checks, and no more often than the timeout.
+   */
+  private void pruneStreams(final long now) {
+    final long timeout = _streamTimeoutMillis;
+    final long lastPrune = _lastPruneMillis.get();
+    if ((now - lastPrune < timeout) || !_lastPruneMillis.compareAndSet(lastPrune, now)) {
+      return;
+    }
+    for (Map.Entry<Long, Stream> stream : _streams.entrySet()) {
+      if (now - stream.getValue()._lastFrameMillis >= timeout) {
+        s_logger.debug("Discarding stream {} which has sent no frames for {}ms", stream.getKey(), timeout);
+        _streams.remove(stream.getKey(), stream.getValue());
+      }
+    }
+  }
+
+  private List<LiveDataValueUpdateBean> readRecords(final DataInputStream in, final Stream stream) throws IOException {
+    final List<LiveDataValueUpdateBean> updates = new ArrayList<LiveDataValueUpdateBean>();
+    long traceTimestamp = LatencyTracer.NOT_TRACED;
+    while (in.available() > 0) {
+      final int record = in.readUnsignedByte();
+      switch (record) {
+        case RECORD_DEFINE_FIELD:
+          stream._fieldNames.put(readVarInt(in), new String(readBytes(in), UTF8));
+          break;
+        case RECORD_DEFINE_SPECIFICATION: {
+          final int id = readVarInt(in);
+          final LiveDataSpecification specification = LiveDataSpecificationFudgeBuilder.fromFudgeMsg(
+              new FudgeDeserializer(_fudgeContext), _fudgeContext.deserialize(readBytes(in)).getMessage());
+          stream._specifications.put(id, new SpecificationState(specification));
+          break;
+        }
+        case RECORD_TRACE:
+          traceTimestamp = in.readLong();
+          break;
+        case RECORD_UPDATE:
+          updates.add(readUpdate(in, stream, traceTimestamp));
+          traceTimestamp = LatencyTracer.NOT_TRACED;
+          break;
+        default:
+          throw new IOException("Unknown record type " + record);
+      }
+    }
+    return updates;
+  }
+
+  private LiveDataValueUpdateBean readUpdate(final DataInputStream in, final Stream stream, final long traceTimestamp) throws IOException {
+    final int specificationId = readVarInt(in);
+    final SpecificationState specification = stream._specifications.get(specificationId);
+    if (specification == null) {
+      throw new IOException("Undefined specification " + specificationId);
+    }
+    specification._lastSequenceNumber += unZigZag(readVarLong(in));
+    final int numFields = readVarInt(in);
+    final MutableFudgeMsg fields = _fudgeContext.newMessage();
+    for (int i = 0; i < numFields; i++) {
+      final int id = readVarInt(in);
+      String name = null;
+      if (id != UNNAMED_FIELD) {
+        name = stream._fieldNames.get(id);
+        if (name == null) {
+          throw new IOException("Undefined field " + id);
+        }
+      }
+      final int type = in.readUnsignedByte();
+      switch (type) {
+        case TYPE_UNCHANGED: {
+          final Object value = specification._lastValues.get(id);
+          if (value == null) {
+            throw new IOException("No previous value for field " + name);
+          }
+          fields.add(name, value);
+          break;
+        }
+        case TYPE_DOUBLE: {
+          final Double value = in.readDouble();
+          specification._lastValues.put(id, value);
+          fields.add(name, value);
+          break;
+        }
+        case TYPE_LONG: {
+          final Object last = specification._lastValues.get(id);
+          final Long value = ((last instanceof Long) ? (Long) last : 0L) + unZigZag(readVarLong(in));
+          specification._lastValues.put(id, value);
+          fields.add(name, value);
+          break;
+        }
+        case TYPE_STRING: {
+          final String value = new String(readBytes(in), UTF8);
+          specification._lastValues.put(id, value);
+          fields.add(name, value);
+          break;
+        }
+        case TYPE_FUDGE: {
+          final FudgeField field = _fudgeContext.deserialize(readBytes(in)).getMessage().getByIndex(0);
+          specification._lastValues.remove(id);
+          fields.add(name, field.getOrdinal(), field.getType(), field.getValue());
+          break;
+        }
+        default:
+          throw new IOException("Unknown value type " + type);
+      }
+    }
+    return new LiveDataValueUpdateBean(specification._lastSequenceNumber, specification._specification, fields, traceTimestamp);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of frames decoded.
+   *
+   * @return the number of frames
+   */
+  public long getFramesDecoded() {
+    return _framesDecoded.get();
+  }
+
+  /**
+   * Gets the number of frames ignored, either while waiting for a key frame, because frames before them were
+   * missed, or because they couldn't be read.
+   *
+   * @return the number of frames
+   */
+  public long getFramesDropped() {
+    return _framesDropped.get();
+  }
+
+  //-------------------------------------------------------------------------
+  private static long unZigZag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readVarLong(final DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  private static int readVarInt(final DataInputStream in) throws IOException {
+    final long value = readVarLong(in);
+    if ((value < 0) || (value > Integer.MAX_VALUE)) {
+      throw new IOException("Integer out of range " + value);
+    }
+    return (int) value;
+  }
+
+  private static byte[] readBytes(final DataInputStream in) throws IOException {
+    final int length = readVarInt(in);
+    if (length > in.available()) {
+      throw new IOException("Truncated frame");
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+}
@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.mapping.FudgeSerializer;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyTracer;
+
+/**
+ * Encodes {@link LiveDataValueUpdate}s into compact binary frames, to be read by a {@link CompactValueUpdateDecoder}.
+ * <p>
+ * Each encoder writes a stream of frames. A specification or field name is sent in full the first time it is
+ * used in the stream and referred to by a small integer after that. Field values are sent relative to the last
+ * value sent for the same field of the same specification: an unchanged value is a single byte, and integral
+ * values are sent as the difference from the last one. Any number of updates can be written into one frame.
+ * <p>
+ * Because frames depend on the ones before them, a decoder must see every frame of a stream from the
+ * most recent key frame onwards. The first frame is always a key frame. Frames are numbered, so a decoder that
+ * misses one ignores the stream until the next key frame. If frames may be missed, for example by subscribers
+ * joining a JMS topic part way through, {@link #setKeyFrameIntervalMillis} makes the encoder start again from a
+ * key frame periodically. A sender that fails to deliver a frame should call {@link #reset}.
+ * <p>
+ * A key frame carries the last known value of every field of every specification encoded, not just the fields
+ * of the updates in it, so a decoder that starts again from it misses nothing sent while it was ignoring the
+ * stream. {@link #forget} stops a specification being carried in key frames.
+ * <p>
+ * Frames start with bytes that can't start a Fudge message envelope, so a receiver can accept both formats.
+ * Integral values are decoded as {@code Long}, as Fudge readers already narrow and widen them freely. Field
+ * values of other types, and fields with ordinals, are carried as Fudge encoded fields. The trace timestamp of
+ * updates sampled by a {@link LatencyTracer} is carried with them.
+ * <p>
+ * This class is thread-safe, but frames must reach the decoder in the order they were encoded.
+ */
+public class CompactValueUpdateEncoder {
+
+  /** The first bytes of every frame. A Fudge envelope starts with zero processing directives. */
+  /*package*/ static final byte[] MAGIC = {(byte) 0xC0, (byte) 0xDA };
+  /** The version of the format written. */
+  public static final int VERSION = 1;
+  /** The shortest frame header; the magic, version, flags, stream identifier and a one byte frame number. */
+  /*package*/ static final int HEADER_LENGTH = MAGIC.length + 2 + 8 + 1;
+  /** Frame flag; the decoder must discard everything it knows about the stream. */
+  /*package*/ static final int FLAG_KEY_FRAME = 1;
+
+  /*package*/ static final int RECORD_DEFINE_FIELD = 1;
+  /*package*/ static final int RECORD_DEFINE_SPECIFICATION = 2;
+  /*package*/ static final int RECORD_UPDATE = 3;
+  /** Record holding the latency trace timestamp of the update that follows it. */
+  /*package*/ static final int RECORD_TRACE = 4;
+
+  /** Field identifier for fields without a name. */
+  /*package*/ static final int UNNAMED_FIELD = 0;
+
+  /*package*/ static final int TYPE_UNCHANGED = 0;
+  /*package*/ static final int TYPE_DOUBLE = 1;
+  /*package*/ static final int TYPE_LONG = 2;
+  /*package*/ static final int TYPE_STRING = 3;
+  /*package*/ static final int TYPE_FUDGE = 4;
+
+  /*package*/ static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The state held for each specification sent in the stream.
+   */
+  private static final class SpecificationState {
+
+    private final int _id;
+    private long _lastSequenceNumber;
+    private final Map<Integer, Object> _lastValues = new HashMap<Integer, Object>();
+
+    private SpecificationState(final int id) {
+      _id = id;
+    }
+
+  }
+
+  /**
+   * The last known value of every field of a specification, which key frames carry in full.
+   */
+  private static final class Image {
+
+    private long _sequenceNumber;
+    private final MutableFudgeMsg _fields;
+
+    private Image(final MutableFudgeMsg fields) {
+      _fields = fields;
+    }
+
+  }
+
+  private final FudgeContext _fudgeContext;
+  private final long _streamId;
+  private final Map<LiveDataSpecification, Image> _images = new LinkedHashMap<LiveDataSpecification, Image>();
+  private final Map<String, Integer> _fieldIds = new HashMap<String, Integer>();
+  private final Map<LiveDataSpecification, SpecificationState> _specifications = new HashMap<LiveDataSpecification, SpecificationState>();
+  private long _keyFrameIntervalMillis;
+  private long _lastKeyFrame;
+  private boolean _keyFrame = true;
+  private long _frameNumber;
+  private long _framesEncoded;
+  private long _updatesEncoded;
+  private long _bytesEncoded;
+
+  public CompactValueUpdateEncoder(final FudgeContext fudgeContext) {
+    ArgumentChecker.notNull(fudgeContext, "fudgeContext");
+    _fudgeContext = fudgeContext;
+    final UUID uuid = UUID.randomUUID();
+    _streamId = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+  }
+
+  //-------------------------------------------------------------------------
+  public FudgeContext getFudgeContext() {
+    return _fudgeContext;
+  }
+
+  /**
+   * Gets the identifier written into every frame, which decoders use to keep the state of each stream apart.
+   *
+   * @return the stream identifier
+   */
+  public long getStreamId() {
+    return _streamId;
+  }
+
+  public synchronized long getKeyFrameIntervalMillis() {
+    return _keyFrameIntervalMillis;
+  }
+
+  /**
+   * Sets the longest time, in milliseconds, between key frames. Any frame encoded after this long is a key frame.
+   * Zero, the default, only makes the first frame, or the first after {@link #reset}, a key frame.
+   *
+   * @param keyFrameIntervalMillis  the interval, zero or greater
+   */
+  public synchronized void setKeyFrameIntervalMillis(final long keyFrameIntervalMillis) {
+    ArgumentChecker.notNegative(keyFrameIntervalMillis, "keyFrameIntervalMillis");
+    _keyFrameIntervalMillis = keyFrameIntervalMillis;
+  }
+
+  /**
+   * Makes the next frame a key frame. This must be called if a frame that has been encoded may not reach the
+   * decoders, for example because sending it failed or the connection it was sent on was lost.
+   */
+  public synchronized void reset() {
+    _keyFrame = true;
+  }
+
+  /**
+   * Stops carrying the last known values of a specification in key frames, for example once no receiver is
+   * interested in it any more.
+   *
+   * @param specification  the specification, not null
+   */
+  public synchronized void forget(final LiveDataSpecification specification) {
+    ArgumentChecker.notNull(specification, "specification");
+    _images.remove(specification);
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Encodes a single update as a frame.
+   *
+   * @param update  the update, not null
+   * @return the frame, not null
+   */
+  public byte[] encode(final LiveDataValueUpdate update) {
+    return encode(Collections.singleton(update));
+  }
+
+  /**
+   * Encodes updates into a single frame.
+   *
+   * @param updates  the updates, not null
+   * @return the frame, not null
+   */
+  public synchronized byte[] encode(final Collection<? extends LiveDataValueUpdate> updates) {
+    ArgumentChecker.notNull(updates, "updates");
+    final long now = System.currentTimeMillis();
+    if ((_keyFrameIntervalMillis > 0) && (now - _lastKeyFrame >= _keyFrameIntervalMillis)) {
+      _keyFrame = true;
+    }
+    final boolean keyFrame = _keyFrame;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(HEADER_LENGTH + updates.size() * 32);
+    final DataOutputStream out = new DataOutputStream(buffer);
+    try {
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(keyFrame ? FLAG_KEY_FRAME : 0);
+      out.writeLong(_streamId);
+      writeVarLong(out, _frameNumber);
+      if (keyFrame) {
+        _fieldIds.clear();
+        _specifications.clear();
+        _lastKeyFrame = now;
+        _keyFrame = false;
+        // A decoder starting from here may have missed any earlier frame, so give it the state of everything
+        final Set<LiveDataSpecification> updated = new HashSet<LiveDataSpecification>();
+        for (LiveDataValueUpdate update : updates) {
+          updated.add(update.getSpecification());
+        }
+        for (Map.Entry<LiveDataSpecification, Image> image : _images.entrySet()) {
+          if (!updated.contains(image.getKey())) {
+            writeUpdate(out, image.getKey(), image.getValue()._sequenceNumber, image.getValue()._fields, LatencyTracer.NOT_TRACED);
+          }
+        }
+      }
+      for (LiveDataValueUpdate update : updates) {
+        final Image image = updateImage(update);
+        final long traceTimestamp = (update instanceof LiveDataValueUpdateBean) ? ((LiveDataValueUpdateBean) update).getTraceTimestamp() : LatencyTracer.NOT_TRACED;
+        writeUpdate(out, update.getSpecification(), update.getSequenceNumber(), keyFrame ? imageFields(image, update.getFields()) : update.getFields(), traceTimestamp);
+      }
+      out.flush();
+    } catch (IOException e) {
+      _keyFrame = true;
+      throw new OpenGammaRuntimeException("Unable to encode value updates", e);
+    } catch (RuntimeException e) {
+      // The state may no longer match what a decoder will have seen
+      _keyFrame = true;
+      throw e;
+    }
+    final byte[] frame = buffer.toByteArray();
+    _frameNumber++;
+    _framesEncoded++;
+    _updatesEncoded += updates.size();
+    _bytesEncoded += frame.length;
+    return frame;
+  }
+
+  /**
+   * Records the fields of an update as the last known values of its specification.
+   * Fields with neither a name nor an ordinal can't be told apart, so aren't recorded.
+   */
+  private Image updateImage(final LiveDataValueUpdate update) {
+    Image image = _images.get(update.getSpecification());
+    if (image == null) {
+      image = new Image(_fudgeContext.newMessage());
+      _images.put(update.getSpecification(), image);
+    }
+    image._sequenceNumber = update.getSequenceNumber();
+    for (FudgeField field : update.getFields()) {
+      if (field.getName() != null) {
+        image._fields.remove(field.getName());
+        image._fields.add(field);
+      } else if (field.getOrdinal() != null) {
+        image._fields.remove(field.getOrdinal());
+        image._fields.add(field);
+      }
+    }
+    return image;
+  }
+
+  private FudgeMsg imageFields(final Image image, final FudgeMsg updateFields) {
+    final MutableFudgeMsg fields = _fudgeContext.newMessage();
+    for (FudgeField field : image._fields) {
+      fields.add(field);
+    }
+    for (FudgeField field : updateFields) {
+      if ((field.getName() == null) && (field.getOrdinal() == null)) {
+        fields.add(field);
+      }
+    }
+    return fields;
+  }
+
+  private void writeUpdate(final DataOutputStream out, final LiveDataSpecification spec, final long sequenceNumber, final FudgeMsg fields,
+      final long traceTimestamp) throws IOException {
+    SpecificationState specification = _specifications.get(spec);
+    if (specification == null) {
+      specification = new SpecificationState(_specifications.size() + 1);
+      _specifications.put(spec, specification);
+      out.writeByte(RECORD_DEFINE_SPECIFICATION);
+      writeVarLong(out, specification._id);
+      writeBytes(out, _fudgeContext.toByteArray(LiveDataSpecificationFudgeBuilder.toFudgeMsg(new FudgeSerializer(_fudgeContext), spec)));
+    }
+    final int[] ids = new int[fields.getNumFields()];
+    int i = 0;
+    for (FudgeField field : fields) {
+      ids[i++] = fieldId(out, field.getName());
+    }
+    if (traceTimestamp != LatencyTracer.NOT_TRACED) {
+      out.writeByte(RECORD_TRACE);
+      out.writeLong(traceTimestamp);
+    }
+    out.writeByte(RECORD_UPDATE);
+    writeVarLong(out, specification._id);
+    writeVarLong(out, zigZag(sequenceNumber - specification._lastSequenceNumber));
+    specification._lastSequenceNumber = sequenceNumber;
+    writeVarLong(out, ids.length);
+    i = 0;
+    for (FudgeField field : fields) {
+      final int id = ids[i++];
+      writeVarLong(out, id);
+      writeValue(out, specification, id, field);
+    }
+  }
+
+  private int fieldId(final DataOutputStream out, final String name) throws IOException {
+    if (name == null) {
+      return UNNAMED_FIELD;
+    }
+    Integer id = _fieldIds.get(name);
+    if (id == null) {
+      id = _fieldIds.size() + 1;
+      _fieldIds.put(name, id);
+      out.writeByte(RECORD_DEFINE_FIELD);
+      writeVarLong(out, id);
+      writeBytes(out, name.getBytes(UTF8));
+    }
+    return id;
+  }
+
+  private void writeValue(final DataOutputStream out, final SpecificationState specification, final int id, final FudgeField field) throws IOException {
+    final Object value = field.getValue();
+    if ((id == UNNAMED_FIELD) || (field.getOrdinal() != null) || (value == null)) {
+      writeFudgeValue(out, field);
+      specification._lastValues.remove(id);
+      return;
+    }
+    final Object last = specification._lastValues.get(id);
+    if (value instanceof Double) {
+      if (value.equals(last)) {
+        out.writeByte(TYPE_UNCHANGED);
+      } else {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+        specification._lastValues.put(id, value);
+      }
+    } else if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+      final Long longValue = ((Number) value).longValue();
+      if (longValue.equals(last)) {
+        out.writeByte(TYPE_UNCHANGED);
+      } else {
+        out.writeByte(TYPE_LONG);
+        writeVarLong(out, zigZag(longValue - ((last instanceof Long) ? (Long) last : 0L)));
+        specification._lastValues.put(id, longValue);
+      }
+    } else if (value instanceof String) {
+      if (value.equals(last)) {
+        out.writeByte(TYPE_UNCHANGED);
+      } else {
+        out.writeByte(TYPE_STRING);
+        writeBytes(out, ((String) value).getBytes(UTF8));
+        specification._lastValues.put(id, value);
+      }
+    } else {
+      writeFudgeValue(out, field);
+      specification._lastValues.remove(id);
+    }
+  }
+
+  private void writeFudgeValue(final DataOutputStream out, final FudgeField field) throws IOException {
+    final MutableFudgeMsg msg = _fudgeContext.newMessage();
+    msg.add(null, field.getOrdinal(), field.getType(), field.getValue());
+    out.writeByte(TYPE_FUDGE);
+    writeBytes(out, _fudgeContext.toByteArray(msg));
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of frames encoded.
+   *
+   * @return the number of frames
+   */
+  public synchronized long getFramesEncoded() {
+    return _framesEncoded;
+  }
+
+  /**
+   * Gets the number of updates encoded.
+   *
+   * @return the number of updates
+   */
+  public synchronized long getUpdatesEncoded() {
+    return _updatesEncoded;
+  }
+
+  /**
+   * Gets the total size, in bytes, of the frames encoded.
+   *
+   * @return the number of bytes
+   */
+  public synchronized long getBytesEncoded() {
+    return _bytesEncoded;
+  }
+
+  //-------------------------------------------------------------------------
+  private static long zigZag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+}
@@ -11,6 +11,7 @@ import org.apache.commons.lang.ObjectUtils;
 import org.fudgemsg.FudgeMsg;
 
 import com.opengamma.util.PublicAPI;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * A simple implementation of a market data update sent from server to client. 
@@ -33,6 +34,10 @@ public class LiveDataValueUpdateBean implements LiveDataValueUpdate, Serializabl
    * The data fields.
    */
   private final FudgeMsg _fieldContainer;
+  /**
+   * The latency trace timestamp, not part of the update's value.
+   */
+  private final long _traceTimestamp;
 
   /**
    * Creates an instance.
@@ -42,10 +47,23 @@ public class LiveDataValueUpdateBean implements LiveDataValueUpdate, Serializabl
    * @param fieldContainer  the fields held as a Fudge message
    */
   public LiveDataValueUpdateBean(long sequenceNumber, LiveDataSpecification specification, FudgeMsg fieldContainer) {
+    this(sequenceNumber, specification, fieldContainer, LatencyTracer.NOT_TRACED);
+  }
+
+  /**
+   * Creates an instance.
+   * 
+   * @param sequenceNumber  the sequence number
+   * @param specification  the specification
+   * @param fieldContainer  the fields held as a Fudge message
+   * @param traceTimestamp  the timestamp from {@link LatencyTracer#sample} if the update is being traced
+   */
+  public LiveDataValueUpdateBean(long sequenceNumber, LiveDataSpecification specification, FudgeMsg fieldContainer, long traceTimestamp) {
     // TODO kirk 2009-09-29 -- Check Inputs.
     _sequenceNumber = sequenceNumber;
     _specification = specification;
     _fieldContainer = fieldContainer;
+    _traceTimestamp = traceTimestamp;
   }
 
   //-------------------------------------------------------------------------
@@ -64,6 +82,15 @@ public class LiveDataValueUpdateBean implements LiveDataValueUpdate, Serializabl
     return _fieldContainer;
   }
 
+  /**
+   * Gets the timestamp carried by updates sampled for latency tracing.
+   * 
+   * @return the trace timestamp, {@link LatencyTracer#NOT_TRACED} if the update isn't being traced
+   */
+  public long getTraceTimestamp() {
+    return _traceTimestamp;
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public boolean equals(Object obj) {
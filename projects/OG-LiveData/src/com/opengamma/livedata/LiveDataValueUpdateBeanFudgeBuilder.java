@@ -12,6 +12,8 @@ import org.fudgemsg.mapping.FudgeBuilderFor;
 import org.fudgemsg.mapping.FudgeDeserializer;
 import org.fudgemsg.mapping.FudgeSerializer;
 
+import com.opengamma.util.monitor.LatencyTracer;
+
 /**
  * Fudge message builder for {@code LiveDataValueUpdate}.
  */
@@ -24,6 +26,8 @@ public class LiveDataValueUpdateBeanFudgeBuilder implements FudgeBuilder<LiveDat
   public static final String SPECIFICATION_FIELD_NAME = "specification";
   /** Field name. */
   public static final String FIELDS_FIELD_NAME = "fields";
+  /** Field name. */
+  public static final String TRACE_TIMESTAMP_FIELD_NAME = "traceTimestamp";
 
   @Override
   public MutableFudgeMsg buildMessage(FudgeSerializer serializer, LiveDataValueUpdateBean object) {
@@ -44,6 +48,9 @@ public class LiveDataValueUpdateBeanFudgeBuilder implements FudgeBuilder<LiveDat
     if (object.getFields() != null) {
       msg.add(FIELDS_FIELD_NAME, object.getFields());
     }
+    if (object.getTraceTimestamp() != LatencyTracer.NOT_TRACED) {
+      msg.add(TRACE_TIMESTAMP_FIELD_NAME, object.getTraceTimestamp());
+    }
 //    FudgeSerializer.addClassHeader(msg, LiveDataValueUpdateBean.class, LiveDataValueUpdate.class);
   }
 
@@ -67,7 +74,8 @@ public class LiveDataValueUpdateBeanFudgeBuilder implements FudgeBuilder<LiveDat
       return null;
     }
     LiveDataSpecification spec = LiveDataSpecificationFudgeBuilder.fromFudgeMsg(deserializer, specificationFields);
-    return new LiveDataValueUpdateBean(sequenceNumber, spec, fields);
+    Long traceTimestamp = msg.getLong(TRACE_TIMESTAMP_FIELD_NAME);
+    return new LiveDataValueUpdateBean(sequenceNumber, spec, fields, (traceTimestamp != null) ? traceTimestamp : LatencyTracer.NOT_TRACED);
   }
 
 }
@@ -39,6 +39,7 @@ import com.opengamma.transport.ByteArrayMessageSender;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.PublicAPI;
 import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * A base class that handles all the in-memory requirements
@@ -47,6 +48,8 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 @PublicAPI
 public abstract class AbstractLiveDataClient implements LiveDataClient {
   private static final Logger s_logger = LoggerFactory.getLogger(AbstractLiveDataClient.class);
+  /** The {@link LatencyTracer} stage reached when a sampled tick has been received from the server. */
+  public static final String RECEIVED_STAGE = "liveData.client.received";
   // Injected Inputs:
   private long _heartbeatPeriod = HeartbeatSender.DEFAULT_PERIOD;
   private FudgeContext _fudgeContext = OpenGammaFudgeContext.getInstance();
@@ -354,6 +357,7 @@ public abstract class AbstractLiveDataClient implements LiveDataClient {
   protected void valueUpdate(LiveDataValueUpdateBean update) {
     
     s_logger.debug("{}", update);
+    LatencyTracer.getInstance().record(RECEIVED_STAGE, update.getTraceTimestamp());
 
     _pendingSubscriptionReadLock.lock();
     try {
@@ -367,4 +371,26 @@ public abstract class AbstractLiveDataClient implements LiveDataClient {
     getValueDistributor().notifyListeners(update);
   }
 
+  /**
+   * Handles a batch of updates, such as those decoded from a single compact frame.
+   * 
+   * @param updates  the updates, in the order they were sent, not null
+   */
+  protected void valueUpdates(Collection<LiveDataValueUpdateBean> updates) {
+    _pendingSubscriptionReadLock.lock();
+    try {
+      for (LiveDataValueUpdateBean update : updates) {
+        s_logger.debug("{}", update);
+        LatencyTracer.getInstance().record(RECEIVED_STAGE, update.getTraceTimestamp());
+        Collection<SubscriptionHandle> pendingSubscriptions = _fullyQualifiedSpec2PendingSubscriptions.get(update.getSpecification());
+        for (SubscriptionHandle pendingSubscription : pendingSubscriptions) {
+          pendingSubscription.addTickOnHold(update);
+        }
+      }
+    } finally {
+      _pendingSubscriptionReadLock.unlock();
+    }
+    getValueDistributor().notifyListeners(updates);
+  }
+
 }
@@ -23,6 +23,7 @@ import org.apache.commons.lang.ObjectUtils;
 import org.fudgemsg.FudgeContext;
 import org.fudgemsg.FudgeMsg;
 import org.fudgemsg.FudgeMsgEnvelope;
+import org.fudgemsg.MutableFudgeMsg;
 import org.fudgemsg.mapping.FudgeDeserializer;
 import org.fudgemsg.mapping.FudgeSerializer;
 import org.fudgemsg.wire.FudgeMsgReader;
@@ -32,12 +33,15 @@ import org.springframework.context.Lifecycle;
 
 import com.opengamma.OpenGammaRuntimeException;
 import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.CompactValueUpdateDecoder;
+import com.opengamma.livedata.CompactValueUpdateEncoder;
 import com.opengamma.livedata.LiveDataClient;
 import com.opengamma.livedata.LiveDataListener;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdate;
 import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataBuilderUtil;
 import com.opengamma.livedata.cogda.msg.CogdaLiveDataSnapshotRequestBuilder;
 import com.opengamma.livedata.cogda.msg.CogdaLiveDataSnapshotRequestMessage;
 import com.opengamma.livedata.cogda.msg.CogdaLiveDataSnapshotResponseBuilder;
@@ -69,6 +73,9 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 /**
  * An implementation of {@link LiveDataClient} which is able to connect to a
  * {@link CogdaLiveDataServer}.
+ * <p/>
+ * Unless turned off with {@link #setCompactValueUpdates(boolean)}, the client asks the server
+ * to send updates as compact frames. Servers that don't offer them, as by default, send Fudge messages instead.
  */
 public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifecycle, FudgeMessageReceiver {
   private static final Logger s_logger = LoggerFactory.getLogger(CogdaLiveDataClient.class);
@@ -77,6 +84,7 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
   private int _serverPort = CogdaLiveDataServer.DEFAULT_LISTEN_PORT;
   private FudgeContext _fudgeContext = OpenGammaFudgeContext.getInstance();
   private final UserPrincipal _user;
+  private boolean _compactValueUpdates = true;
   
   // Runtime state:
   /**
@@ -88,6 +96,7 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
   private Thread _socketReadThread;
   private AtomicLong _nextRequestId = new AtomicLong(1L);
   private Map<Long, SubscriptionHandle> _activeSubscriptionRequests = new ConcurrentHashMap<Long, SubscriptionHandle>();
+  private CompactValueUpdateDecoder _compactDecoder;
   
   public CogdaLiveDataClient(UserPrincipal user) {
     ArgumentChecker.notNull(user, "userPrincipal");
@@ -154,6 +163,31 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
     _fudgeContext = fudgeContext;
   }
 
+  /**
+   * Gets whether the client asks the server for compact value updates.
+   * @return true if compact value updates are asked for
+   */
+  public boolean isCompactValueUpdates() {
+    return _compactValueUpdates;
+  }
+
+  /**
+   * Sets whether the client asks the server for compact value updates. Defaults to true.
+   * This <b>must</b> be set <b>before</b> {@link #start()} is called.
+   * @param compactValueUpdates  false to be sent Fudge messages
+   */
+  public void setCompactValueUpdates(boolean compactValueUpdates) {
+    _compactValueUpdates = compactValueUpdates;
+  }
+
+  /**
+   * Gets the decoder for compact value updates.
+   * @return the decoder, null if the server doesn't send them
+   */
+  public CompactValueUpdateDecoder getCompactDecoder() {
+    return _compactDecoder;
+  }
+
   @Override
   public Map<LiveDataSpecification, Boolean> isEntitled(UserPrincipal user, Collection<LiveDataSpecification> requestedSpecifications) {
     Map<LiveDataSpecification, Boolean> result = new HashMap<LiveDataSpecification, Boolean>();
@@ -215,6 +249,9 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
       case LIVE_DATA_UPDATE:
         dispatchLiveDataUpdate(msg);
         break;
+      case LIVE_DATA_UPDATE_FRAME:
+        dispatchLiveDataUpdateFrame(msg);
+        break;
       default:
         s_logger.warn("Received message that wasn't understood: {}", msg);
     }
@@ -230,6 +267,17 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
     super.valueUpdate(valueUpdateBean);
   }
 
+  private void dispatchLiveDataUpdateFrame(FudgeMsg msg) {
+    if (_compactDecoder == null) {
+      s_logger.warn("Received compact value updates without asking for them");
+      return;
+    }
+    List<LiveDataValueUpdateBean> updates = _compactDecoder.decode(CogdaLiveDataBuilderUtil.parseUpdateFrame(msg));
+    if (!updates.isEmpty()) {
+      super.valueUpdates(updates);
+    }
+  }
+
   private void dispatchCommandResponse(CogdaMessageType msgType, FudgeMsg msg) {
     if (!msg.hasField("correlationId")) {
       s_logger.warn("Received subscription response message without correlationId: {}", msg);
@@ -336,6 +384,11 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
   protected void login(InputStream is) throws IOException {
     ConnectionRequestMessage requestMessage = new ConnectionRequestMessage();
     requestMessage.setUserName(_user.getUserName());
+    if (isCompactValueUpdates()) {
+      MutableFudgeMsg capabilities = getFudgeContext().newMessage();
+      capabilities.add(CogdaLiveDataServer.COMPACT_VALUE_UPDATES_CAPABILITY, CompactValueUpdateEncoder.VERSION);
+      requestMessage.applyCapabilities(capabilities);
+    }
     _messageSender.send(ConnectionRequestBuilder.buildMessageStatic(new FudgeSerializer(getFudgeContext()), requestMessage));
     // TODO kirk 2012-08-22 -- This needs a timeout.
     FudgeMsgReader reader = getFudgeContext().createMessageReader(is);
@@ -347,6 +400,10 @@ public class CogdaLiveDataClient extends AbstractLiveDataClient implements Lifec
         // We're good to go!
         // TODO kirk 2012-08-15 -- Add logic eventually for connection restart semantics.
         s_logger.warn("Successfully logged into server.");
+        if (isCompactValueUpdates() && response.getCapabilities().hasField(CogdaLiveDataServer.COMPACT_VALUE_UPDATES_CAPABILITY)) {
+          s_logger.info("Server will send compact value updates");
+          _compactDecoder = new CompactValueUpdateDecoder(getFudgeContext());
+        }
         break;
       case NOT_AUTHORIZED:
         // REVIEW kirk 2012-08-15 -- Is this the right error?
@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import com.opengamma.OpenGammaRuntimeException;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.livedata.entitlement.LiveDataEntitlementChecker;
 import com.opengamma.livedata.msg.EntitlementRequest;
 import com.opengamma.livedata.msg.EntitlementResponse;
 import com.opengamma.livedata.msg.EntitlementResponseMsg;
@@ -33,8 +34,11 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 
 /**
  * Checks entitlements against a LiveData server by sending the server a Fudge message.
+ * <p>
+ * Each check is a round trip to the server; wrap this in a
+ * {@link com.opengamma.livedata.entitlement.CachingEntitlementChecker} to avoid repeating them.
  */
-public class DistributedEntitlementChecker {
+public class DistributedEntitlementChecker implements LiveDataEntitlementChecker {
   
   /**
    * If no response from server is received within this period of time, throw exception
@@ -56,6 +60,7 @@ public class DistributedEntitlementChecker {
     _fudgeContext = fudgeContext;
   }
 
+  @Override
   public Map<LiveDataSpecification, Boolean> isEntitled(UserPrincipal user,
       Collection<LiveDataSpecification> specifications) {
     s_logger.info("Checking entitlements by {} to {}", user, specifications);
@@ -102,6 +107,7 @@ public class DistributedEntitlementChecker {
     return returnValue;
   }
   
+  @Override
   public boolean isEntitled(UserPrincipal user,
       LiveDataSpecification specification) {
     Map<LiveDataSpecification, Boolean> entitlements = isEntitled(user, Collections.singleton(specification));
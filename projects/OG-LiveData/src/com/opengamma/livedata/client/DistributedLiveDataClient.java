@@ -24,6 +24,8 @@ import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.LiveDataValueUpdateBeanFudgeBuilder;
 import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.livedata.entitlement.CachingEntitlementChecker;
+import com.opengamma.livedata.entitlement.LiveDataEntitlementChecker;
 import com.opengamma.livedata.msg.LiveDataSubscriptionRequest;
 import com.opengamma.livedata.msg.LiveDataSubscriptionResponse;
 import com.opengamma.livedata.msg.LiveDataSubscriptionResponseMsg;
@@ -46,7 +48,8 @@ public class DistributedLiveDataClient extends AbstractLiveDataClient implements
   private final FudgeContext _fudgeContext;
   private final FudgeRequestSender _subscriptionRequestSender;
   
-  private final DistributedEntitlementChecker _entitlementChecker;
+  private final DistributedEntitlementChecker _distributedEntitlementChecker;
+  private volatile LiveDataEntitlementChecker _entitlementChecker;
   
   /**
    * An exception will be thrown when doing a snapshot if no reply is received from the server
@@ -71,7 +74,47 @@ public class DistributedLiveDataClient extends AbstractLiveDataClient implements
     _subscriptionRequestSender = subscriptionRequestSender;
     _fudgeContext = fudgeContext;
     
-    _entitlementChecker = new DistributedEntitlementChecker(entitlementRequestSender, fudgeContext);
+    _distributedEntitlementChecker = new DistributedEntitlementChecker(entitlementRequestSender, fudgeContext);
+    _entitlementChecker = _distributedEntitlementChecker;
+  }
+
+  /**
+   * Gets the checker used for entitlement decisions. This is a {@link CachingEntitlementChecker},
+   * which can be used to invalidate the cache or see its hit rate, if caching has been enabled.
+   * 
+   * @return the entitlement checker, not null
+   */
+  public LiveDataEntitlementChecker getEntitlementChecker() {
+    return _entitlementChecker;
+  }
+
+  /**
+   * Gets how long entitlement decisions made by the server are cached for.
+   * 
+   * @return the time to live, in milliseconds, zero if decisions are not cached
+   */
+  public long getEntitlementCacheTimeToLiveMillis() {
+    final LiveDataEntitlementChecker checker = _entitlementChecker;
+    return (checker instanceof CachingEntitlementChecker) ? ((CachingEntitlementChecker) checker).getTimeToLiveMillis() : 0;
+  }
+
+  /**
+   * Sets how long entitlement decisions made by the server are cached for. Decisions are not
+   * cached by default, so a change to a user's permissions is seen by the next check.
+   * 
+   * @param timeToLiveMillis  the time to live, in milliseconds, zero to stop caching
+   */
+  public synchronized void setEntitlementCacheTimeToLiveMillis(final long timeToLiveMillis) {
+    ArgumentChecker.isTrue(timeToLiveMillis >= 0, "timeToLiveMillis");
+    if (timeToLiveMillis == 0) {
+      _entitlementChecker = _distributedEntitlementChecker;
+    } else if (_entitlementChecker instanceof CachingEntitlementChecker) {
+      ((CachingEntitlementChecker) _entitlementChecker).setTimeToLiveMillis(timeToLiveMillis);
+    } else {
+      final CachingEntitlementChecker cache = new CachingEntitlementChecker(_distributedEntitlementChecker);
+      cache.setTimeToLiveMillis(timeToLiveMillis);
+      _entitlementChecker = cache;
+    }
   }
 
   /**
@@ -30,7 +30,10 @@ import org.springframework.context.Lifecycle;
 import org.springframework.jms.support.JmsUtils;
 
 import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.livedata.CompactValueUpdateDecoder;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.transport.ByteArrayFudgeMessageReceiver;
+import com.opengamma.transport.ByteArrayMessageReceiver;
 import com.opengamma.transport.FudgeRequestSender;
 import com.opengamma.transport.jms.JmsByteArrayMessageDispatcher;
 import com.opengamma.util.ArgumentChecker;
@@ -43,6 +46,9 @@ import com.opengamma.util.jms.JmsConnector;
  * onMessage() notification capability.
  * The client creates 10 JMS sessions by default. New market data
  * subscriptions are assigned to sessions in round-robin fashion.
+ * <p>
+ * Ticks may be sent either as Fudge messages or as frames written by a
+ * {@link com.opengamma.livedata.CompactValueUpdateEncoder}; each message is checked for its format.
  */
 @PublicAPI
 public class JmsLiveDataClient extends DistributedLiveDataClient implements Lifecycle {
@@ -81,6 +87,8 @@ public class JmsLiveDataClient extends DistributedLiveDataClient implements Life
   
   private ExecutorService _executor;
   
+  private final CompactValueUpdateDecoder _compactDecoder;
+  
   public JmsLiveDataClient(FudgeRequestSender subscriptionRequestSender,
       FudgeRequestSender entitlementRequestSender,
       JmsConnector jmsConnector) {
@@ -115,6 +123,7 @@ public class JmsLiveDataClient extends DistributedLiveDataClient implements Life
       throw new IllegalArgumentException("Max sessions must be positive");
     }
     _maxSessions = maxSessions;
+    _compactDecoder = new CompactValueUpdateDecoder(fudgeContext);
   }
 
   //-------------------------------------------------------------------------
@@ -127,6 +136,36 @@ public class JmsLiveDataClient extends DistributedLiveDataClient implements Life
     return _jmsConnector;
   }
 
+  /**
+   * Gets the decoder for ticks sent as compact frames.
+   * 
+   * @return the decoder, not null
+   */
+  public CompactValueUpdateDecoder getCompactDecoder() {
+    return _compactDecoder;
+  }
+
+  /**
+   * Receives ticks in whichever format the server sent them.
+   */
+  private class TickReceiver implements ByteArrayMessageReceiver {
+    
+    private final ByteArrayFudgeMessageReceiver _fudgeReceiver = new ByteArrayFudgeMessageReceiver(JmsLiveDataClient.this, getFudgeContext());
+    
+    @Override
+    public void messageReceived(byte[] message) {
+      if (CompactValueUpdateDecoder.isFrame(message)) {
+        List<LiveDataValueUpdateBean> updates = _compactDecoder.decode(message);
+        if (!updates.isEmpty()) {
+          valueUpdates(updates);
+        }
+      } else {
+        _fudgeReceiver.messageReceived(message);
+      }
+    }
+    
+  }
+
   @Override
   public synchronized void startReceivingTicks(Collection<String> tickDistributionSpecifications) {
     super.startReceivingTicks(tickDistributionSpecifications);
@@ -188,8 +227,7 @@ public class JmsLiveDataClient extends DistributedLiveDataClient implements Life
       public Map<String, Runnable> call() {
         Session session = _sessions.get(sessionIndex);
         
-        ByteArrayFudgeMessageReceiver fudgeReceiver = new ByteArrayFudgeMessageReceiver(JmsLiveDataClient.this, getFudgeContext());
-        final JmsByteArrayMessageDispatcher jmsDispatcher = new JmsByteArrayMessageDispatcher(fudgeReceiver);
+        final JmsByteArrayMessageDispatcher jmsDispatcher = new JmsByteArrayMessageDispatcher(new TickReceiver());
         
         return startReceivingTicks(specs, session, jmsDispatcher);
       }
@@ -263,6 +301,7 @@ public class JmsLiveDataClient extends DistributedLiveDataClient implements Life
         close.run(); // [PLAT-1809]  Must close these as well
       }
       _closeRunnableBySpec.clear();
+      _compactDecoder.reset();
       
       if (_connection != null) {
         _connection.close();
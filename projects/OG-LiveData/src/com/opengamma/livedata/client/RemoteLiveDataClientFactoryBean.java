@@ -28,6 +28,7 @@ public class RemoteLiveDataClientFactoryBean extends SingletonFactoryBean<LiveDa
   private String _subscriptionTopic;
   private String _entitlementTopic;
   private String _heartbeatTopic;
+  private long _entitlementCacheTimeToLiveMillis;
   
   public void setJmsConnector(final JmsConnector jmsConnector) {
     _jmsConnector = jmsConnector;
@@ -60,6 +61,19 @@ public class RemoteLiveDataClientFactoryBean extends SingletonFactoryBean<LiveDa
   public String getHeartbeatTopic() {
     return _heartbeatTopic;
   }
+
+  /**
+   * Sets how long the client caches entitlement decisions for, zero (the default) to not cache them.
+   * 
+   * @param entitlementCacheTimeToLiveMillis  the time to live, in milliseconds
+   */
+  public void setEntitlementCacheTimeToLiveMillis(long entitlementCacheTimeToLiveMillis) {
+    _entitlementCacheTimeToLiveMillis = entitlementCacheTimeToLiveMillis;
+  }
+
+  public long getEntitlementCacheTimeToLiveMillis() {
+    return _entitlementCacheTimeToLiveMillis;
+  }
   
   @Override
   protected LiveDataClient createObject() {
@@ -78,6 +92,7 @@ public class RemoteLiveDataClientFactoryBean extends SingletonFactoryBean<LiveDa
         OpenGammaFudgeContext.getInstance(),
         JmsLiveDataClient.DEFAULT_NUM_SESSIONS);
     liveDataClient.setFudgeContext(OpenGammaFudgeContext.getInstance());
+    liveDataClient.setEntitlementCacheTimeToLiveMillis(getEntitlementCacheTimeToLiveMillis());
     if (getHeartbeatTopic() != null) {
       JmsByteArrayMessageSender jmsHeartbeatSender = new JmsByteArrayMessageSender(getHeartbeatTopic(), jmsTemplate);
       liveDataClient.setHeartbeatMessageSender(jmsHeartbeatSender);
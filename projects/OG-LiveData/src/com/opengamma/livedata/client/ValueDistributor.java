@@ -5,6 +5,7 @@
  */
 package com.opengamma.livedata.client;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -94,4 +95,15 @@ public class ValueDistributor {
     }
   }
 
+  /**
+   * Notifies the listeners of each of a batch of updates, in order.
+   * 
+   * @param updateBeans  the updates, not null
+   */
+  public void notifyListeners(Collection<LiveDataValueUpdateBean> updateBeans) {
+    for (LiveDataValueUpdateBean updateBean : updateBeans) {
+      notifyListeners(updateBean);
+    }
+  }
+
 }
@@ -11,6 +11,7 @@ import org.fudgemsg.MutableFudgeMsg;
 import org.fudgemsg.mapping.FudgeSerializer;
 
 import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.CompactValueUpdateEncoder;
 
 /**
  * 
@@ -62,4 +63,23 @@ public final class CogdaLiveDataBuilderUtil {
     return null;
   }
   
+  /**
+   * Builds a message carrying a frame of updates written by a {@link CompactValueUpdateEncoder}.
+   * Only sent to clients that asked for compact value updates when connecting.
+   * 
+   * @param fudgeContext  the Fudge context
+   * @param frame  the encoded frame
+   * @return the message
+   */
+  public static FudgeMsg buildUpdateFrameMessage(FudgeContext fudgeContext, byte[] frame) {
+    MutableFudgeMsg msg = fudgeContext.newMessage();
+    msg.add("MESSAGE_TYPE", CogdaMessageType.LIVE_DATA_UPDATE_FRAME.name());
+    msg.add("frame", frame);
+    return msg;
+  }
+  
+  public static byte[] parseUpdateFrame(FudgeMsg msg) {
+    return msg.getValue(byte[].class, "frame");
+  }
+  
 }
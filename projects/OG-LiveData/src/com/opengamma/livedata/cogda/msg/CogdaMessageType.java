@@ -26,7 +26,9 @@ public enum CogdaMessageType {
   /** {@see CogdaLiveDataUnsubscribeMessage} */
   UNSUBSCRIBE,
   /** {@see CogdaLiveDataUpdateMessage} */
-  LIVE_DATA_UPDATE;
+  LIVE_DATA_UPDATE,
+  /** {@see CogdaLiveDataBuilderUtil#buildUpdateFrameMessage} */
+  LIVE_DATA_UPDATE_FRAME;
   
   public static CogdaMessageType getFromMessage(FudgeMsg msg) {
     if (msg == null) {
@@ -6,7 +6,10 @@
 package com.opengamma.livedata.cogda.server;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
@@ -24,8 +27,10 @@ import com.opengamma.OpenGammaRuntimeException;
 import com.opengamma.core.user.EntitlementUtils;
 import com.opengamma.core.user.OGUser;
 import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.CompactValueUpdateEncoder;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdate;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.livedata.cogda.msg.CogdaCommandResponseResult;
 import com.opengamma.livedata.cogda.msg.CogdaLiveDataBuilderUtil;
@@ -46,7 +51,9 @@ import com.opengamma.livedata.cogda.msg.ConnectionRequestMessage;
 import com.opengamma.livedata.cogda.msg.ConnectionResponseBuilder;
 import com.opengamma.livedata.cogda.msg.ConnectionResponseMessage;
 import com.opengamma.livedata.cogda.msg.ConnectionResult;
+import com.opengamma.livedata.server.FieldHistoryStore;
 import com.opengamma.livedata.server.LastKnownValueStore;
+import com.opengamma.transport.EncodedFudgeMessageSender;
 import com.opengamma.transport.FudgeConnection;
 import com.opengamma.transport.FudgeConnectionStateListener;
 import com.opengamma.transport.FudgeMessageReceiver;
@@ -65,11 +72,14 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
   
   private final ConcurrentMap<LiveDataSpecification, Boolean> _subscriptions = new ConcurrentHashMap<LiveDataSpecification, Boolean>();
   private final ConcurrentMap<LiveDataSpecification, FudgeMsg> _valuesToSend = new ConcurrentHashMap<LiveDataSpecification, FudgeMsg>();
+  // Updates to new subscriptions held until their response is written, changed holding the values to send lock
+  private final ConcurrentMap<LiveDataSpecification, List<FudgeMsg>> _heldUpdates = new ConcurrentHashMap<LiveDataSpecification, List<FudgeMsg>>();
   private final Lock _writerLock = new ReentrantLock();
   private final Lock _valuesToSendLock = new ReentrantLock();
   
   private UserPrincipal _userPrincipal;
   private OGUser _user;
+  private volatile CompactValueUpdateEncoder _compactEncoder;
   
   public CogdaClientConnection(FudgeContext fudgeContext, CogdaLiveDataServer server, FudgeConnection connection) {
     ArgumentChecker.notNull(fudgeContext, "fudgeContext");
@@ -107,6 +117,22 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     return _messageSender;
   }
 
+  /**
+   * Gets the subscriptions.
+   * @return the subscriptions, not null
+   */
+  /*package*/ Set<LiveDataSpecification> getSubscriptions() {
+    return _subscriptions.keySet();
+  }
+
+  /**
+   * Gets the encoder for compact value updates.
+   * @return the encoder, null if the client is sent Fudge messages
+   */
+  public CompactValueUpdateEncoder getCompactEncoder() {
+    return _compactEncoder;
+  }
+
   /**
    * Gets the user.
    * @return the user
@@ -173,6 +199,9 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
       response.setResult(ConnectionResult.NEW_CONNECTION_SUCCESS);
       response.setAvailableServers(getServer().getAvailableServers());
       response.applyCapabilities(getServer().getCapabilities());
+      if (getServer().isCompactValueUpdates() && request.getCapabilities().hasField(CogdaLiveDataServer.COMPACT_VALUE_UPDATES_CAPABILITY)) {
+        _compactEncoder = new CompactValueUpdateEncoder(fudgeContext);
+      }
       sendMessage(ConnectionResponseBuilder.buildMessageStatic(new FudgeSerializer(fudgeContext), response));
     }
   }
@@ -202,7 +231,15 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     }
     
     if (response != null) {
-      sendMessage(CogdaLiveDataBuilderUtil.buildCommandResponseMessage(fudgeContext, response));
+      _writerLock.lock();
+      try {
+        sendMessage(CogdaLiveDataBuilderUtil.buildCommandResponseMessage(fudgeContext, response));
+        if (response instanceof CogdaLiveDataSubscriptionResponseMessage) {
+          releaseHeldUpdates(new LiveDataSpecification(response.getNormalizationScheme(), response.getSubscriptionId()));
+        }
+      } finally {
+        _writerLock.unlock();
+      }
     }
   }
   
@@ -261,6 +298,8 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     } else if (!isEntitled(EntitlementUtils.SUBSCRIBE, request.getSubscriptionId(), request.getNormalizationScheme())) {
       response.setGenericResult(CogdaCommandResponseResult.NOT_AUTHORIZED);
     } else {
+      // Subscribed before the snapshot is taken so that no tick after it is missed
+      addSubscription(new LiveDataSpecification(request.getNormalizationScheme(), request.getSubscriptionId()));
       LastKnownValueStore lkvStore = getServer().getLastKnownValueStore(request.getSubscriptionId(), request.getNormalizationScheme());
       FudgeMsg fields = null;
       if (lkvStore != null) {
@@ -272,16 +311,69 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
       
       response.setGenericResult(CogdaCommandResponseResult.SUCCESSFUL);
       response.setSnapshot(fields);
-      
-      _subscriptions.putIfAbsent(new LiveDataSpecification(request.getNormalizationScheme(), request.getSubscriptionId()), Boolean.TRUE);
     }
     return response;
   }
+
+  /**
+   * Subscribes to updates, holding them until {@link #releaseHeldUpdates} is called once the
+   * subscription response has been written.
+   */
+  private void addSubscription(final LiveDataSpecification subscription) {
+    if (_subscriptions.putIfAbsent(subscription, Boolean.TRUE) == null) {
+      _heldUpdates.put(subscription, new ArrayList<FudgeMsg>());
+      getServer().addSubscriber(subscription, this);
+    }
+  }
+
+  /**
+   * Sends the updates held since a subscription was made, after which updates to it are sent as they arrive.
+   * The writer lock must be held, so that nothing is written between the response and the held updates.
+   */
+  private void releaseHeldUpdates(final LiveDataSpecification subscription) {
+    while (true) {
+      _valuesToSendLock.lock();
+      try {
+        final List<FudgeMsg> held = _heldUpdates.get(subscription);
+        if (held == null) {
+          return;
+        }
+        if (held.isEmpty()) {
+          _heldUpdates.remove(subscription);
+          return;
+        }
+        // Each is a delta on the one before, so they are merged rather than only the last sent
+        final FieldHistoryStore merged = new FieldHistoryStore();
+        for (FudgeMsg fields : held) {
+          merged.liveDataReceived(fields);
+        }
+        held.clear();
+        _valuesToSend.put(subscription, merged.getLastKnownValues());
+      } finally {
+        _valuesToSendLock.unlock();
+      }
+      // More may be held while these are sent; the update to the subscription is only sent directly once none are
+      sendAllUpdates();
+    }
+  }
   
   private void handleUnsubscription(FudgeContext fudgeContext, FudgeMsg msg) {
     CogdaLiveDataUnsubscribeMessage request = CogdaLiveDataUnsubscribeBuilder.buildObjectStatic(new FudgeDeserializer(fudgeContext), msg);
     
-    _subscriptions.remove(new LiveDataSpecification(request.getNormalizationScheme(), request.getSubscriptionId()));
+    final LiveDataSpecification subscription = new LiveDataSpecification(request.getNormalizationScheme(), request.getSubscriptionId());
+    if (_subscriptions.remove(subscription) != null) {
+      getServer().removeSubscriber(subscription, this);
+      _valuesToSendLock.lock();
+      try {
+        _heldUpdates.remove(subscription);
+      } finally {
+        _valuesToSendLock.unlock();
+      }
+      final CompactValueUpdateEncoder encoder = _compactEncoder;
+      if (encoder != null) {
+        encoder.forget(subscription);
+      }
+    }
   }
   
   private void sendMessage(FudgeMsg msg) {
@@ -299,6 +391,11 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     }
     _valuesToSendLock.lock();
     try {
+      final List<FudgeMsg> held = _heldUpdates.get(valueUpdate.getSpecification());
+      if (held != null) {
+        held.add(valueUpdate.getFields());
+        return false;
+      }
       _valuesToSend.put(valueUpdate.getSpecification(), valueUpdate.getFields());
     } finally {
       _valuesToSendLock.unlock();
@@ -306,11 +403,43 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     return true;
   }
   
+  /**
+   * Queues an update that has already been encoded by {@link #encodeValueUpdate}.
+   * <p>
+   * If the connection can take encoded messages the update is queued to it directly, replacing any
+   * earlier update to the same subscription that has not yet been written. Otherwise, or if the client
+   * is sent compact value updates, it is held until {@link #sendAllUpdates} is called.
+   * 
+   * @param valueUpdate  the update
+   * @param encoded  the encoded update message
+   * @return true if {@link #sendAllUpdates} must be called
+   */
+  public boolean liveDataReceived(LiveDataValueUpdate valueUpdate, byte[] encoded) {
+    if ((_compactEncoder != null) || !(getMessageSender() instanceof EncodedFudgeMessageSender) || _heldUpdates.containsKey(valueUpdate.getSpecification())) {
+      // Compact frames depend on the ones before them, so can't be replaced once queued, and updates
+      // to a new subscription are held until its response has been written
+      return liveDataReceived(valueUpdate);
+    }
+    if (!_subscriptions.containsKey(valueUpdate.getSpecification())) {
+      return false;
+    }
+    try {
+      ((EncodedFudgeMessageSender) getMessageSender()).sendEncoded(encoded, valueUpdate.getSpecification());
+    } catch (Exception e) {
+      s_logger.info("Exception thrown; assuming socket closed and tearing down client.");
+    }
+    return false;
+  }
+
   public void sendAllUpdates() {
     _writerLock.lock();
     try {
       _valuesToSendLock.lock();
       try {
+        if (_compactEncoder != null) {
+          sendCompactValueUpdates();
+          return;
+        }
         for (Map.Entry<LiveDataSpecification, FudgeMsg> entry : _valuesToSend.entrySet()) {
           sendValueUpdate(entry.getKey(), entry.getValue());
         }
@@ -323,17 +452,30 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     }
   }
 
+  private void sendCompactValueUpdates() {
+    if (_valuesToSend.isEmpty()) {
+      return;
+    }
+    final List<LiveDataValueUpdate> updates = new ArrayList<LiveDataValueUpdate>(_valuesToSend.size());
+    for (Map.Entry<LiveDataSpecification, FudgeMsg> entry : _valuesToSend.entrySet()) {
+      updates.add(new LiveDataValueUpdateBean(0L, entry.getKey(), entry.getValue()));
+    }
+    _valuesToSend.clear();
+    final FudgeMsg msg = CogdaLiveDataBuilderUtil.buildUpdateFrameMessage(getFudgeContext(), _compactEncoder.encode(updates));
+    try {
+      getMessageSender().send(msg);
+    } catch (Exception e) {
+      _compactEncoder.reset();
+      s_logger.info("Exception thrown; assuming socket closed and tearing down client.");
+    }
+  }
+
   /**
    * @param key
    * @param values
    */
   private void sendValueUpdate(LiveDataSpecification key, FudgeMsg values) {
-    CogdaLiveDataUpdateMessage message = new CogdaLiveDataUpdateMessage();
-    // REVIEW kirk 2012-07-23 -- This is a terrible terrible idea performance wise, this next line.
-    message.setSubscriptionId(key.getIdentifiers().getExternalIds().iterator().next());
-    message.setNormalizationScheme(key.getNormalizationRuleSetId());
-    message.setValues(values);
-    FudgeMsg msg = CogdaLiveDataUpdateBuilder.buildMessageStatic(new FudgeSerializer(getFudgeContext()), message);
+    FudgeMsg msg = buildValueUpdate(getFudgeContext(), key, values);
     try {
       getMessageSender().send(msg);
     } catch (Exception e) {
@@ -341,4 +483,25 @@ public class CogdaClientConnection implements FudgeConnectionStateListener, Fudg
     }
   }
 
+  private static FudgeMsg buildValueUpdate(FudgeContext fudgeContext, LiveDataSpecification key, FudgeMsg values) {
+    CogdaLiveDataUpdateMessage message = new CogdaLiveDataUpdateMessage();
+    // REVIEW kirk 2012-07-23 -- This is a terrible terrible idea performance wise, this next line.
+    message.setSubscriptionId(key.getIdentifiers().getExternalIds().iterator().next());
+    message.setNormalizationScheme(key.getNormalizationRuleSetId());
+    message.setValues(values);
+    return CogdaLiveDataUpdateBuilder.buildMessageStatic(new FudgeSerializer(fudgeContext), message);
+  }
+
+  /**
+   * Encodes an update message once, for sending to every connection subscribed to it.
+   * 
+   * @param fudgeContext  the context to encode with
+   * @param key  the subscription
+   * @param values  the updated values
+   * @return the encoded message envelope
+   */
+  public static byte[] encodeValueUpdate(FudgeContext fudgeContext, LiveDataSpecification key, FudgeMsg values) {
+    return fudgeContext.toByteArray(buildValueUpdate(fudgeContext, key, values));
+  }
+
 }
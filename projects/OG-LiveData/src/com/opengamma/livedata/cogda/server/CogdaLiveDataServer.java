@@ -7,19 +7,19 @@ package com.opengamma.livedata.cogda.server;
 
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.fudgemsg.FudgeContext;
 import org.fudgemsg.FudgeMsg;
 import org.fudgemsg.FudgeMsgEnvelope;
+import org.fudgemsg.MutableFudgeMsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.Lifecycle;
@@ -30,6 +30,7 @@ import com.opengamma.core.user.UserSource;
 import com.opengamma.core.user.impl.SimpleOGUser;
 import com.opengamma.id.ExternalId;
 import com.opengamma.id.VersionCorrection;
+import com.opengamma.livedata.CompactValueUpdateEncoder;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdate;
 import com.opengamma.livedata.UserPrincipal;
@@ -37,8 +38,9 @@ import com.opengamma.livedata.server.LastKnownValueStore;
 import com.opengamma.livedata.server.LastKnownValueStoreProvider;
 import com.opengamma.transport.FudgeConnection;
 import com.opengamma.transport.FudgeConnectionReceiver;
-import com.opengamma.transport.socket.ServerSocketFudgeConnectionReceiver;
+import com.opengamma.transport.socket.NioServerSocketFudgeConnectionReceiver;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.NamedThreadPoolFactory;
 import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 
 /**
@@ -55,6 +57,14 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
  * <p/>
  * Because the {@link UserSource} will be hit for every authorization question, it is <strong>critical</strong>
  * that the source caches requests in some form.
+ * <p/>
+ * Client connections are served from a single selector thread. Each tick is encoded once and queued to
+ * every client subscribed to it; a tick still queued for a client when a newer one arrives for the same
+ * subscription is replaced by it, and a client that falls too far behind is disconnected.
+ * <p/>
+ * If turned on with {@link #setCompactValueUpdates(boolean)}, clients that ask for {@link #COMPACT_VALUE_UPDATES_CAPABILITY}
+ * when connecting are instead sent every update waiting for them in one frame written by a
+ * {@link CompactValueUpdateEncoder} kept for the connection.
  */
 public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
   private static final Logger s_logger = LoggerFactory.getLogger(CogdaLiveDataServer.class);
@@ -62,19 +72,28 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
    * The default port on which the server will listen for inbound connections.
    */
   public static final int DEFAULT_LISTEN_PORT = 11876;
+  /**
+   * The capability a client asks for, and the server confirms, to receive updates as compact frames.
+   * The value is the version of the {@link CompactValueUpdateEncoder} format.
+   */
+  public static final String COMPACT_VALUE_UPDATES_CAPABILITY = "compactValueUpdates";
   private int _portNumber = DEFAULT_LISTEN_PORT;
   
-  private final ServerSocketFudgeConnectionReceiver _connectionReceiver;
+  private final FudgeContext _fudgeContext;
+  private final NioServerSocketFudgeConnectionReceiver _connectionReceiver;
   private final LastKnownValueStoreProvider _lastKnownValueStoreProvider;
   private final ConcurrentMap<LiveDataSpecification, LastKnownValueStore> _lastKnownValueStores =
       new ConcurrentHashMap<LiveDataSpecification, LastKnownValueStore>();
   
   private final Set<CogdaClientConnection> _clients = Collections.synchronizedSet(new HashSet<CogdaClientConnection>());
-  // TODO kirk 2012-07-23 -- This is absolutely the wrong executor here.
-  private final Executor _valueUpdateSendingExecutor = Executors.newFixedThreadPool(5);
+  private final ConcurrentMap<LiveDataSpecification, Set<CogdaClientConnection>> _subscribers =
+      new ConcurrentHashMap<LiveDataSpecification, Set<CogdaClientConnection>>();
+  // Only used to send to connections that can't take encoded messages
+  private volatile ExecutorService _valueUpdateSendingExecutor = createValueUpdateSendingExecutor();
   private final AtomicLong _ticksReceived = new AtomicLong(0L);
   private UserSource _userSource;
   private boolean _checkPassword = true;
+  private boolean _compactValueUpdates;
   
   public CogdaLiveDataServer(LastKnownValueStoreProvider lkvStoreProvider) {
     this(lkvStoreProvider, OpenGammaFudgeContext.getInstance());
@@ -84,8 +103,8 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
     ArgumentChecker.notNull(lkvStoreProvider, "lkvStoreProvider");
     ArgumentChecker.notNull(fudgeContext, "fudgeContext");
     _lastKnownValueStoreProvider = lkvStoreProvider;
-    _connectionReceiver = new ServerSocketFudgeConnectionReceiver(fudgeContext, this);
-    _connectionReceiver.setLazyFudgeMsgReads(false);
+    _fudgeContext = fudgeContext;
+    _connectionReceiver = new NioServerSocketFudgeConnectionReceiver(fudgeContext, this);
   }
 
   /**
@@ -105,6 +124,23 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
     _portNumber = portNumber;
   }
 
+  /**
+   * Gets the maximum number of bytes that may be queued for a client before it is disconnected.
+   * @return the maxQueuedBytes
+   */
+  public int getMaxQueuedBytes() {
+    return _connectionReceiver.getMaxQueuedBytes();
+  }
+
+  /**
+   * Sets the maximum number of bytes that may be queued for a client before it is disconnected.
+   * Defaults to {@link NioServerSocketFudgeConnectionReceiver#DEFAULT_MAX_QUEUED_BYTES}.
+   * @param maxQueuedBytes  the maxQueuedBytes
+   */
+  public void setMaxQueuedBytes(int maxQueuedBytes) {
+    _connectionReceiver.setMaxQueuedBytes(maxQueuedBytes);
+  }
+
   /**
    * Gets the lastKnownValueStoreProvider.
    * @return the lastKnownValueStoreProvider
@@ -147,26 +183,51 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
     _checkPassword = checkPassword;
   }
 
+  /**
+   * Whether clients that ask for compact value updates are sent them.
+   * @return true if compact value updates are offered
+   */
+  public boolean isCompactValueUpdates() {
+    return _compactValueUpdates;
+  }
+
+  /**
+   * Sets whether clients that ask for compact value updates are sent them. Defaults to false.
+   * Clients that don't ask are always sent Fudge messages.
+   * @param compactValueUpdates  false to send Fudge messages to every client
+   */
+  public void setCompactValueUpdates(boolean compactValueUpdates) {
+    _compactValueUpdates = compactValueUpdates;
+  }
+
   @Override
   public void connectionReceived(FudgeContext fudgeContext, FudgeMsgEnvelope message, FudgeConnection connection) {
     CogdaClientConnection clientConnection = new CogdaClientConnection(fudgeContext, this, connection);
-    // We're blocked on connection acceptance. Therefore it's entirely fine
-    // to do the handshake here as we won't get any more messages until
-    // it's done.
+    // Messages from a connection are dispatched one at a time. Therefore it's
+    // entirely fine to do the handshake here as we won't get any more messages
+    // until it's done.
     clientConnection.handshakeMessage(fudgeContext, message);
     _clients.add(clientConnection);
   }
 
+  private static ExecutorService createValueUpdateSendingExecutor() {
+    return Executors.newFixedThreadPool(5, new NamedThreadPoolFactory("CogdaValueUpdateSender", true));
+  }
+
   @Override
-  
-  public void start() {
+  public synchronized void start() {
+    if (_valueUpdateSendingExecutor.isShutdown()) {
+      _valueUpdateSendingExecutor = createValueUpdateSendingExecutor();
+    }
     _connectionReceiver.setPortNumber(getPortNumber());
     _connectionReceiver.start();
+    setPortNumber(_connectionReceiver.getPortNumber());
   }
 
   @Override
-  public void stop() {
+  public synchronized void stop() {
     _connectionReceiver.stop();
+    _valueUpdateSendingExecutor.shutdown();
   }
 
   @Override
@@ -176,11 +237,14 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
   
   public void liveDataReceived(LiveDataValueUpdate valueUpdate) {
     _ticksReceived.incrementAndGet();
-    // This could probably be much much faster, but we're designed initially for low-frequency
-    // updates. Someone smarter should optimize the data structures here.
-    List<CogdaClientConnection> connections = new LinkedList<CogdaClientConnection>(_clients);
-    for (CogdaClientConnection connection : connections) {
-      boolean needsPump = connection.liveDataReceived(valueUpdate);
+    final Set<CogdaClientConnection> subscribers = _subscribers.get(valueUpdate.getSpecification());
+    if ((subscribers == null) || subscribers.isEmpty()) {
+      return;
+    }
+    // Encoded once, and the same bytes queued to every subscriber
+    final byte[] encoded = CogdaClientConnection.encodeValueUpdate(_fudgeContext, valueUpdate.getSpecification(), valueUpdate.getFields());
+    for (CogdaClientConnection connection : subscribers) {
+      boolean needsPump = connection.liveDataReceived(valueUpdate, encoded);
       if (needsPump) {
         final CogdaClientConnection finalConnection = connection;
         _valueUpdateSendingExecutor.execute(new Runnable() {
@@ -234,7 +298,11 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
   }
   
   public FudgeMsg getCapabilities() {
-    return OpenGammaFudgeContext.getInstance().newMessage();
+    MutableFudgeMsg capabilities = OpenGammaFudgeContext.getInstance().newMessage();
+    if (isCompactValueUpdates()) {
+      capabilities.add(COMPACT_VALUE_UPDATES_CAPABILITY, CompactValueUpdateEncoder.VERSION);
+    }
+    return capabilities;
   }
   
   public boolean isValidLiveData(ExternalId subscriptionId, String normalizationScheme) {
@@ -260,6 +328,46 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
   
   public void removeClient(CogdaClientConnection connection) {
     _clients.remove(connection);
+    for (LiveDataSpecification subscription : connection.getSubscriptions()) {
+      removeSubscriber(subscription, connection);
+    }
+  }
+
+  // Changes to a subscriber set are made holding its monitor so that one emptied and removed from the
+  // index is never added to; ticks are delivered by iterating the set without it.
+  /*package*/ void addSubscriber(LiveDataSpecification subscription, CogdaClientConnection connection) {
+    while (true) {
+      Set<CogdaClientConnection> subscribers = _subscribers.get(subscription);
+      if (subscribers == null) {
+        final Set<CogdaClientConnection> fresh = Collections.newSetFromMap(new ConcurrentHashMap<CogdaClientConnection, Boolean>());
+        subscribers = _subscribers.putIfAbsent(subscription, fresh);
+        if (subscribers == null) {
+          subscribers = fresh;
+        }
+      }
+      synchronized (subscribers) {
+        if (_subscribers.get(subscription) == subscribers) {
+          subscribers.add(connection);
+          return;
+        }
+      }
+      // The set was emptied and removed from the index; try again with a fresh one
+    }
+  }
+
+  /*package*/ Set<CogdaClientConnection> getSubscribers(LiveDataSpecification subscription) {
+    return _subscribers.get(subscription);
+  }
+
+  /*package*/ void removeSubscriber(LiveDataSpecification subscription, CogdaClientConnection connection) {
+    final Set<CogdaClientConnection> subscribers = _subscribers.get(subscription);
+    if (subscribers != null) {
+      synchronized (subscribers) {
+        if (subscribers.remove(connection) && subscribers.isEmpty()) {
+          _subscribers.remove(subscription, subscribers);
+        }
+      }
+    }
   }
   
 
@@ -270,6 +378,14 @@ public class CogdaLiveDataServer implements FudgeConnectionReceiver, Lifecycle {
   public long getNumTicksReceived() {
     return _ticksReceived.get();
   }
+
+  public long getNumTicksConflated() {
+    return _connectionReceiver.getNumMessagesConflated();
+  }
+
+  public long getNumSlowClientsDisconnected() {
+    return _connectionReceiver.getNumSlowConsumersClosed();
+  }
   
   public Set<String> getActiveUsers() {
     Set<String> result = new TreeSet<String>();
@@ -77,6 +77,26 @@ public class CogdaLiveDataServerMBean {
     }
   }
   
+  @ManagedAttribute(description = "Number of ticks replaced by a newer one before being sent to a client.")
+  public long getNumTicksConflated() {
+    try {
+      return getServer().getNumTicksConflated();
+    } catch (RuntimeException e) {
+      s_logger.error("getNumTicksConflated() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "Number of clients disconnected for falling too far behind.")
+  public long getNumSlowClientsDisconnected() {
+    try {
+      return getServer().getNumSlowClientsDisconnected();
+    } catch (RuntimeException e) {
+      s_logger.error("getNumSlowClientsDisconnected() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
   @ManagedAttribute(description = "Names of all actively connected users.")
   public Set<String> getActiveUsers() {
     try {
@@ -0,0 +1,465 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.entitlement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.tuple.Pair;
+
+/**
+ * Caches the decisions of an underlying entitlement checker.
+ * <p>
+ * Positive and negative decisions are both held for a time to live, after which the
+ * underlying checker is asked again. Decisions can also be invalidated explicitly, for
+ * example when a user's permissions are known to have changed.
+ * <p>
+ * Checks that miss the cache are coalesced. A decision already being fetched by one thread
+ * is waited for by any other thread wanting it, and decisions wanted while a request to the
+ * underlying checker is outstanding are sent together, one request per user, once it completes.
+ * Errors from the underlying checker are passed to every caller waiting on them and are not cached.
+ * <p>
+ * The number of cached decisions is bounded. When the bound is exceeded expired decisions are
+ * discarded and, if that is not enough, arbitrary others until the cache is back within it.
+ */
+public class CachingEntitlementChecker implements LiveDataEntitlementChecker {
+
+  /**
+   * Default time to live of a cached decision, in milliseconds.
+   */
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+  /**
+   * Default maximum number of decisions requested from the underlying checker at once.
+   */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  /**
+   * Default maximum number of cached decisions.
+   */
+  public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+  private static final Logger s_logger = LoggerFactory.getLogger(CachingEntitlementChecker.class);
+
+  private final LiveDataEntitlementChecker _underlying;
+  private final ConcurrentMap<Pair<UserPrincipal, LiveDataSpecification>, Decision> _cache =
+      new ConcurrentHashMap<Pair<UserPrincipal, LiveDataSpecification>, Decision>();
+  private final ConcurrentMap<Pair<UserPrincipal, LiveDataSpecification>, Pending> _pending =
+      new ConcurrentHashMap<Pair<UserPrincipal, LiveDataSpecification>, Pending>();
+  private final Queue<Pending> _queue = new ConcurrentLinkedQueue<Pending>();
+  private final AtomicBoolean _requesting = new AtomicBoolean();
+  /**
+   * Incremented on each invalidation so that decisions fetched before it aren't cached.
+   */
+  private final AtomicLong _generation = new AtomicLong();
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _coalesced = new AtomicLong();
+  private final AtomicLong _requests = new AtomicLong();
+  private final AtomicLong _evictions = new AtomicLong();
+  private volatile long _timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_TO_LIVE_MILLIS);
+  private volatile int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  private volatile int _maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+  /**
+   * A cached decision.
+   */
+  private static final class Decision {
+
+    private final boolean _entitled;
+    private final long _expiry;
+
+    private Decision(final boolean entitled, final long expiry) {
+      _entitled = entitled;
+      _expiry = expiry;
+    }
+
+  }
+
+  /**
+   * A decision waiting to be fetched from the underlying checker.
+   */
+  private static final class Pending {
+
+    private final Pair<UserPrincipal, LiveDataSpecification> _key;
+    private final CountDownLatch _done = new CountDownLatch(1);
+    private volatile boolean _entitled;
+    private volatile RuntimeException _error;
+
+    private Pending(final Pair<UserPrincipal, LiveDataSpecification> key) {
+      _key = key;
+    }
+
+    private void complete(final boolean entitled) {
+      _entitled = entitled;
+      _done.countDown();
+    }
+
+    private void fail(final RuntimeException error) {
+      _error = error;
+      _done.countDown();
+    }
+
+    private boolean get() {
+      try {
+        _done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OpenGammaRuntimeException("Interrupted", e);
+      }
+      if (_error != null) {
+        throw new OpenGammaRuntimeException("Couldn't check entitlement of " + _key.getFirst() + " to " + _key.getSecond(), _error);
+      }
+      return _entitled;
+    }
+
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param underlying  the checker to cache the decisions of, not null
+   */
+  public CachingEntitlementChecker(final LiveDataEntitlementChecker underlying) {
+    ArgumentChecker.notNull(underlying, "underlying");
+    _underlying = underlying;
+  }
+
+  //-------------------------------------------------------------------------
+  public LiveDataEntitlementChecker getUnderlying() {
+    return _underlying;
+  }
+
+  public long getTimeToLiveMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(_timeToLiveNanos);
+  }
+
+  /**
+   * Sets how long a decision is cached for. Decisions already cached keep the time to live
+   * they were cached with.
+   *
+   * @param timeToLiveMillis  the time to live, in milliseconds, zero to disable caching
+   */
+  public void setTimeToLiveMillis(final long timeToLiveMillis) {
+    ArgumentChecker.isTrue(timeToLiveMillis >= 0, "timeToLiveMillis");
+    _timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+  }
+
+  public int getMaxBatchSize() {
+    return _maxBatchSize;
+  }
+
+  /**
+   * Sets the maximum number of decisions requested from the underlying checker at once.
+   *
+   * @param maxBatchSize  the maximum batch size, greater than zero
+   */
+  public void setMaxBatchSize(final int maxBatchSize) {
+    ArgumentChecker.isTrue(maxBatchSize > 0, "maxBatchSize");
+    _maxBatchSize = maxBatchSize;
+  }
+
+  public int getMaxCacheSize() {
+    return _maxCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of decisions cached. The cache is brought within a reduced bound
+   * when the next decisions are cached.
+   *
+   * @param maxCacheSize  the maximum cache size, greater than zero
+   */
+  public void setMaxCacheSize(final int maxCacheSize) {
+    ArgumentChecker.isTrue(maxCacheSize > 0, "maxCacheSize");
+    _maxCacheSize = maxCacheSize;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Discards all cached decisions.
+   */
+  public void invalidate() {
+    _generation.incrementAndGet();
+    _cache.clear();
+  }
+
+  /**
+   * Discards the cached decisions for a user.
+   *
+   * @param user  the user, not null
+   */
+  public void invalidate(final UserPrincipal user) {
+    ArgumentChecker.notNull(user, "user");
+    _generation.incrementAndGet();
+    final Iterator<Pair<UserPrincipal, LiveDataSpecification>> itr = _cache.keySet().iterator();
+    while (itr.hasNext()) {
+      if (user.equals(itr.next().getFirst())) {
+        itr.remove();
+      }
+    }
+  }
+
+  /**
+   * Discards the cached decision for a user's access to a specification.
+   *
+   * @param user  the user, not null
+   * @param specification  the specification, not null
+   */
+  public void invalidate(final UserPrincipal user, final LiveDataSpecification specification) {
+    ArgumentChecker.notNull(user, "user");
+    ArgumentChecker.notNull(specification, "specification");
+    _generation.incrementAndGet();
+    _cache.remove(Pair.of(user, specification));
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of decisions answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getHits() {
+    return _hits.get();
+  }
+
+  /**
+   * Gets the number of decisions not answered from the cache. This includes those
+   * answered by a request already made for another caller.
+   *
+   * @return the number of cache misses
+   */
+  public long getMisses() {
+    return _misses.get();
+  }
+
+  /**
+   * Gets the number of cache misses that were answered by a request already made for another caller.
+   *
+   * @return the number of coalesced misses
+   */
+  public long getCoalesced() {
+    return _coalesced.get();
+  }
+
+  /**
+   * Gets the number of requests made to the underlying checker.
+   *
+   * @return the number of requests
+   */
+  public long getRequests() {
+    return _requests.get();
+  }
+
+  /**
+   * Gets the proportion of decisions answered from the cache.
+   *
+   * @return the hit rate, between 0 and 1, or 0 if nothing has been checked
+   */
+  public double getHitRate() {
+    final long hits = _hits.get();
+    final long total = hits + _misses.get();
+    return (total > 0) ? (double) hits / (double) total : 0;
+  }
+
+  /**
+   * Gets the number of decisions discarded, before they expired or once expired, to keep the cache within its bound.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictions() {
+    return _evictions.get();
+  }
+
+  public int getCacheSize() {
+    return _cache.size();
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public boolean isEntitled(final UserPrincipal user, final LiveDataSpecification requestedSpecification) {
+    ArgumentChecker.notNull(user, "user");
+    ArgumentChecker.notNull(requestedSpecification, "requestedSpecification");
+    final Pair<UserPrincipal, LiveDataSpecification> key = Pair.of(user, requestedSpecification);
+    final Decision decision = getCached(key, System.nanoTime());
+    if (decision != null) {
+      return decision._entitled;
+    }
+    final Pending pending = fetch(key);
+    requestQueued();
+    return pending.get();
+  }
+
+  @Override
+  public Map<LiveDataSpecification, Boolean> isEntitled(final UserPrincipal user, final Collection<LiveDataSpecification> requestedSpecifications) {
+    ArgumentChecker.notNull(user, "user");
+    ArgumentChecker.notNull(requestedSpecifications, "requestedSpecifications");
+    final Map<LiveDataSpecification, Boolean> result = new HashMap<LiveDataSpecification, Boolean>();
+    List<Pending> fetching = null;
+    final long now = System.nanoTime();
+    for (LiveDataSpecification requestedSpecification : requestedSpecifications) {
+      final Pair<UserPrincipal, LiveDataSpecification> key = Pair.of(user, requestedSpecification);
+      final Decision decision = getCached(key, now);
+      if (decision != null) {
+        result.put(requestedSpecification, decision._entitled);
+      } else {
+        if (fetching == null) {
+          fetching = new ArrayList<Pending>();
+        }
+        fetching.add(fetch(key));
+      }
+    }
+    if (fetching != null) {
+      requestQueued();
+      for (Pending pending : fetching) {
+        result.put(pending._key.getSecond(), pending.get());
+      }
+    }
+    return result;
+  }
+
+  private Decision getCached(final Pair<UserPrincipal, LiveDataSpecification> key, final long now) {
+    final Decision decision = _cache.get(key);
+    if (decision != null) {
+      if (decision._expiry - now > 0) {
+        _hits.incrementAndGet();
+        return decision;
+      }
+      _cache.remove(key, decision);
+    }
+    _misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Finds the decision being fetched for a key, or queues a new one.
+   */
+  private Pending fetch(final Pair<UserPrincipal, LiveDataSpecification> key) {
+    final Pending pending = new Pending(key);
+    final Pending existing = _pending.putIfAbsent(key, pending);
+    if (existing != null) {
+      _coalesced.incrementAndGet();
+      return existing;
+    }
+    _queue.add(pending);
+    return pending;
+  }
+
+  /**
+   * Makes requests to the underlying checker for the queued decisions unless another thread
+   * is already doing so, in which case that thread will pick them up when its request completes.
+   */
+  private void requestQueued() {
+    while (!_queue.isEmpty()) {
+      if (!_requesting.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        final int maxBatchSize = _maxBatchSize;
+        final Map<UserPrincipal, List<Pending>> batches = new HashMap<UserPrincipal, List<Pending>>();
+        Pending pending;
+        for (int i = 0; (i < maxBatchSize) && ((pending = _queue.poll()) != null); i++) {
+          List<Pending> batch = batches.get(pending._key.getFirst());
+          if (batch == null) {
+            batch = new ArrayList<Pending>();
+            batches.put(pending._key.getFirst(), batch);
+          }
+          batch.add(pending);
+        }
+        for (Map.Entry<UserPrincipal, List<Pending>> batch : batches.entrySet()) {
+          request(batch.getKey(), batch.getValue());
+        }
+      } finally {
+        _requesting.set(false);
+      }
+    }
+  }
+
+  private void request(final UserPrincipal user, final List<Pending> batch) {
+    final List<LiveDataSpecification> specifications = new ArrayList<LiveDataSpecification>(batch.size());
+    for (Pending pending : batch) {
+      specifications.add(pending._key.getSecond());
+    }
+    final long generation = _generation.get();
+    Map<LiveDataSpecification, Boolean> entitlements = null;
+    RuntimeException error = null;
+    _requests.incrementAndGet();
+    try {
+      entitlements = _underlying.isEntitled(user, specifications);
+    } catch (RuntimeException e) {
+      s_logger.warn("Error checking entitlements of {} to {} specifications", user, specifications.size());
+      error = e;
+    }
+    final long timeToLive = _timeToLiveNanos;
+    final long now = System.nanoTime();
+    final long expiry = now + timeToLive;
+    for (Pending pending : batch) {
+      final Boolean entitled = (entitlements != null) ? entitlements.get(pending._key.getSecond()) : null;
+      if (entitled != null) {
+        if ((timeToLive > 0) && (generation == _generation.get())) {
+          final Decision decision = new Decision(entitled, expiry);
+          _cache.put(pending._key, decision);
+          if (generation != _generation.get()) {
+            // Invalidated while being cached
+            _cache.remove(pending._key, decision);
+          }
+        }
+        _pending.remove(pending._key, pending);
+        pending.complete(entitled);
+      } else {
+        _pending.remove(pending._key, pending);
+        pending.fail((error != null) ? error : new OpenGammaRuntimeException("No entitlement decision returned for " + pending._key.getSecond()));
+      }
+    }
+    if (_cache.size() > _maxCacheSize) {
+      evict(now);
+    }
+  }
+
+  /**
+   * Brings the cache within its bound, discarding expired decisions first. Only called by the
+   * thread making requests to the underlying checker.
+   */
+  private void evict(final long now) {
+    final int maxCacheSize = _maxCacheSize;
+    final Iterator<Decision> expired = _cache.values().iterator();
+    while (expired.hasNext()) {
+      if (expired.next()._expiry - now <= 0) {
+        expired.remove();
+        _evictions.incrementAndGet();
+      }
+    }
+    final Iterator<Decision> itr = _cache.values().iterator();
+    while ((_cache.size() > maxCacheSize) && itr.hasNext()) {
+      itr.next();
+      itr.remove();
+      _evictions.incrementAndGet();
+    }
+    s_logger.debug("Evicted entitlement decisions down to {}", _cache.size());
+  }
+
+  @Override
+  public String toString() {
+    return "CachingEntitlementChecker[" + _underlying + "]";
+  }
+
+}
@@ -6,9 +6,7 @@
 
 package com.opengamma.livedata.firehose;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -119,7 +117,13 @@ public abstract class AbstractConnectorJob<Record> implements Runnable {
 
   protected abstract void endConnection();
 
-  protected abstract InputStream getInputStream() throws IOException;
+  /**
+   * Opens the stream of records for the current connection.
+   * 
+   * @return the record stream, not null
+   * @throws IOException if the stream can't be opened
+   */
+  protected abstract RecordStream<Record> openRecordStream() throws IOException;
 
   @SuppressWarnings("unchecked")
   @Override
@@ -135,7 +139,7 @@ public abstract class AbstractConnectorJob<Record> implements Runnable {
         s_logger.info("Connected");
         getCallback().connected();
         if (isPipeLineRead()) {
-          final RecordStream<Record> stream = getStreamFactory().newInstance(new BufferedInputStream(getInputStream()));
+          final RecordStream<Record> stream = openRecordStream();
           final RecordDecoder decoder = new RecordDecoder(stream);
           getPipeLineExecutor().submit(decoder);
           final BlockingQueue<Object> records = decoder.getQueue();
@@ -149,7 +153,7 @@ public abstract class AbstractConnectorJob<Record> implements Runnable {
             throw new OpenGammaRuntimeException("Interrupted", e);
           }
         } else {
-          final RecordStream<Record> records = getStreamFactory().newInstance(new BufferedInputStream(getInputStream()));
+          final RecordStream<Record> records = openRecordStream();
           do {
             getCallback().received(records.readRecord());
           } while (true);
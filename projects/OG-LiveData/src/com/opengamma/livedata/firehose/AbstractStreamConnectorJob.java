@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+package com.opengamma.livedata.firehose;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Abstraction for a connector job that decodes its records from a single input stream for each connection.
+ * 
+ * @param <Record> the transport record type
+ */
+public abstract class AbstractStreamConnectorJob<Record> extends AbstractConnectorJob<Record> {
+
+  protected AbstractStreamConnectorJob(final Callback<Record> callback, final RecordStream.Factory<Record> streamFactory, final ExecutorService pipeLineExecutor) {
+    super(callback, streamFactory, pipeLineExecutor);
+  }
+
+  protected abstract InputStream getInputStream() throws IOException;
+
+  @Override
+  protected RecordStream<Record> openRecordStream() throws IOException {
+    return getStreamFactory().newInstance(new BufferedInputStream(getInputStream()));
+  }
+
+}
@@ -19,7 +19,7 @@ import com.opengamma.util.ArgumentChecker;
  * 
  * @param <T> record type
  */
-public class ByteArrayConnectorJob<T> extends AbstractConnectorJob<T> {
+public class ByteArrayConnectorJob<T> extends AbstractStreamConnectorJob<T> {
 
   private static final String END_CONNECTION_EXCEPTION_MESSAGE = "Terminate the parent job";
 
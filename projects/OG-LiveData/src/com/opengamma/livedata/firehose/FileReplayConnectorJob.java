@@ -22,7 +22,7 @@ import com.opengamma.util.ArgumentChecker;
  * 
  * @param <T> the record type
  */
-public class FileReplayConnectorJob<T> extends AbstractConnectorJob<T> {
+public class FileReplayConnectorJob<T> extends AbstractStreamConnectorJob<T> {
 
   private static final Logger s_logger = LoggerFactory.getLogger(FileReplayConnectorJob.class);
 
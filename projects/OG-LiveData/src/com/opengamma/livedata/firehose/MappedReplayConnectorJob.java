@@ -0,0 +1,520 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+package com.opengamma.livedata.firehose;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyHistogram;
+
+/**
+ * Replays data from one or more memory-mapped files, for load testing.
+ * <p>
+ * Files written by {@link TimestampedOutputStream} are replayed with their original timing scaled by the replay
+ * speed, or as fast as possible. Records from several files are merged in timestamp order. Any other file is replayed
+ * as fast as possible, after any timestamped files.
+ * <p>
+ * Records are decoded on the thread that delivers them, straight from the mapped files, so the pipe-line executor is
+ * not used. A {@link ReplayReport} of throughput, latency and allocation is logged at the end of each pass. The mapped
+ * windows are released as soon as the files are closed rather than left for the garbage collector.
+ *
+ * @param <T> the record type
+ */
+public class MappedReplayConnectorJob<T> extends AbstractConnectorJob<T> {
+
+  private static final Logger s_logger = LoggerFactory.getLogger(MappedReplayConnectorJob.class);
+
+  /**
+   * Replay speed at which records are delivered without waiting.
+   */
+  public static final double AS_FAST_AS_POSSIBLE = 0;
+
+  private static final long WINDOW_SIZE = 256L * 1024L * 1024L;
+  private static final long SLEEP_THRESHOLD = 2000000L;
+  /**
+   * Timestamp of data from a file without timestamps.
+   */
+  private static final long UNTIMED = Long.MAX_VALUE;
+
+  private final List<String> _filenames;
+  private final double _speed;
+  private final Measurement<T> _measurement;
+  private volatile MappedInput[] _inputs;
+
+  /**
+   * Creates {@link MappedReplayConnectorJob} instances.
+   */
+  public static class Factory<T> implements AbstractConnectorJob.Factory<T> {
+
+    private List<String> _filenames = Collections.emptyList();
+    private double _speed = 1;
+    private volatile MappedReplayConnectorJob<T> _lastJob;
+
+    @Override
+    public MappedReplayConnectorJob<T> newInstance(final AbstractConnectorJob.Callback<T> callback, final RecordStream.Factory<T> streamFactory, final ExecutorService pipeLineExecutor) {
+      final MappedReplayConnectorJob<T> job = new MappedReplayConnectorJob<T>(callback, streamFactory, getFilenames(), getSpeed());
+      _lastJob = job;
+      return job;
+    }
+
+    public void setFilename(final String filename) {
+      ArgumentChecker.notNull(filename, "filename");
+      setFilenames(Collections.singletonList(filename));
+    }
+
+    public void setFilenames(final List<String> filenames) {
+      ArgumentChecker.notEmpty(filenames, "filenames");
+      ArgumentChecker.noNulls(filenames, "filenames");
+      _filenames = new ArrayList<String>(filenames);
+    }
+
+    public List<String> getFilenames() {
+      return Collections.unmodifiableList(_filenames);
+    }
+
+    /**
+     * Sets the replay speed, as a multiple of the original timing.
+     *
+     * @param speed the replay speed, 1 for the original timing or {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public void setSpeed(final double speed) {
+      ArgumentChecker.isTrue(speed >= 0, "speed must not be negative");
+      _speed = speed;
+    }
+
+    public double getSpeed() {
+      return _speed;
+    }
+
+    /**
+     * Gets the report of the last pass completed by the most recently created job.
+     *
+     * @return the report, null if no pass has completed
+     */
+    public ReplayReport getLastReport() {
+      final MappedReplayConnectorJob<T> job = _lastJob;
+      return (job != null) ? job.getLastReport() : null;
+    }
+
+  }
+
+  protected MappedReplayConnectorJob(final AbstractConnectorJob.Callback<T> callback, final RecordStream.Factory<T> streamFactory, final List<String> filenames,
+      final double speed) {
+    this(new Measurement<T>(callback), streamFactory, filenames, speed);
+  }
+
+  private MappedReplayConnectorJob(final Measurement<T> measurement, final RecordStream.Factory<T> streamFactory, final List<String> filenames, final double speed) {
+    super(measurement, streamFactory, null);
+    ArgumentChecker.notEmpty(filenames, "filenames");
+    ArgumentChecker.isTrue(speed >= 0, "speed must not be negative");
+    _measurement = measurement;
+    _filenames = new ArrayList<String>(filenames);
+    _speed = speed;
+  }
+
+  protected List<String> getFilenames() {
+    return Collections.unmodifiableList(_filenames);
+  }
+
+  protected double getSpeed() {
+    return _speed;
+  }
+
+  /**
+   * Gets the report of the last pass completed.
+   *
+   * @return the report, null if no pass has completed
+   */
+  public ReplayReport getLastReport() {
+    return _measurement._lastReport;
+  }
+
+  @Override
+  protected void prepareConnection() {
+    // No-op
+  }
+
+  @Override
+  protected void establishConnection() throws IOException {
+    final MappedInput[] inputs = new MappedInput[_filenames.size()];
+    try {
+      for (int i = 0; i < inputs.length; i++) {
+        inputs[i] = new MappedInput(_filenames.get(i));
+      }
+    } catch (IOException e) {
+      close(inputs);
+      throw e;
+    }
+    _inputs = inputs;
+  }
+
+  @Override
+  protected void endConnection() {
+    final MappedInput[] inputs = _inputs;
+    if (inputs != null) {
+      _inputs = null;
+      s_logger.info("Closing files");
+      close(inputs);
+    } else {
+      s_logger.info("No files to close at poison");
+    }
+  }
+
+  private static void close(final MappedInput[] inputs) {
+    for (MappedInput input : inputs) {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          s_logger.debug("I/O exception caught", e);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected RecordStream<T> openRecordStream() throws IOException {
+    final MappedInput[] inputs = _inputs;
+    if (inputs == null) {
+      throw new IOException("Replay closed");
+    }
+    return new MergingRecordStream(inputs);
+  }
+
+  private static void waitUntil(final long due) throws InterruptedIOException {
+    long delay = due - System.nanoTime();
+    while (delay > 0) {
+      if (delay > SLEEP_THRESHOLD) {
+        try {
+          Thread.sleep(Math.max(1, (delay - SLEEP_THRESHOLD) / 1000000L));
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      } else {
+        LockSupport.parkNanos(delay);
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException();
+        }
+      }
+      delay = due - System.nanoTime();
+    }
+  }
+
+  /**
+   * Releases a mapped buffer now rather than when it is garbage collected, if the JVM allows it. The buffer must not be
+   * used afterwards.
+   */
+  private static void unmap(final MappedByteBuffer buffer) {
+    try {
+      final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      final Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        final Method cleanMethod = cleaner.getClass().getMethod("clean");
+        cleanMethod.setAccessible(true);
+        cleanMethod.invoke(cleaner);
+      }
+    } catch (Exception e) {
+      s_logger.debug("Couldn't unmap buffer - {}", e.toString());
+    }
+  }
+
+  private static long getAllocatedBytes() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Merges the records from each file in timestamp order, releasing each when it is due.
+   */
+  private final class MergingRecordStream implements RecordStream<T> {
+
+    private final MappedInput[] _inputs;
+    private final RecordStream<T>[] _streams;
+    private final Object[] _next;
+    private final long[] _timestamps;
+    private final boolean[] _done;
+    private boolean _started;
+    private long _startNanos;
+    private long _startTimestamp;
+
+    @SuppressWarnings("unchecked")
+    private MergingRecordStream(final MappedInput[] inputs) throws IOException {
+      _inputs = inputs;
+      _streams = new RecordStream[inputs.length];
+      _next = new Object[inputs.length];
+      _timestamps = new long[inputs.length];
+      _done = new boolean[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        _streams[i] = getStreamFactory().newInstance(inputs[i]);
+        advance(i);
+      }
+    }
+
+    private void advance(final int source) throws IOException {
+      try {
+        _next[source] = _streams[source].readRecord();
+        _timestamps[source] = _inputs[source].getTimestamp();
+      } catch (IOException e) {
+        if (!_inputs[source].isAtEnd()) {
+          throw e;
+        }
+        _next[source] = null;
+        _done[source] = true;
+      }
+    }
+
+    private long release(final long timestamp) throws InterruptedIOException {
+      final long now = System.nanoTime();
+      if (timestamp == UNTIMED) {
+        return now;
+      }
+      if (!_started) {
+        _started = true;
+        _startNanos = now;
+        _startTimestamp = timestamp;
+      }
+      if (_speed <= 0) {
+        return now;
+      }
+      final long due = _startNanos + (long) ((timestamp - _startTimestamp) / _speed);
+      waitUntil(due);
+      return due;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T readRecord() throws IOException {
+      int source = -1;
+      for (int i = 0; i < _done.length; i++) {
+        if (!_done[i] && ((source < 0) || (_timestamps[i] < _timestamps[source]))) {
+          source = i;
+        }
+      }
+      if (source < 0) {
+        throw new EOFException("End of replay");
+      }
+      final T record = (T) _next[source];
+      final long timestamp = _timestamps[source];
+      advance(source);
+      _measurement._due = release(timestamp);
+      return record;
+    }
+
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Reads a file through a memory-mapped window, limiting each read to a single timestamped block.
+   * <p>
+   * Reads are synchronized with closing, which may happen on another thread, so that a window is never unmapped while
+   * it is being read.
+   */
+  private static final class MappedInput extends InputStream {
+
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+    private final long _size;
+    private final boolean _timestamped;
+    private MappedByteBuffer _window;
+    private long _windowStart;
+    private long _position;
+    private long _blockRemaining;
+    private long _timestamp;
+    private volatile boolean _closed;
+
+    private MappedInput(final String filename) throws IOException {
+      _file = new RandomAccessFile(filename, "r");
+      _channel = _file.getChannel();
+      _size = _channel.size();
+      boolean timestamped = false;
+      if (_size >= TimestampedOutputStream.HEADER_SIZE) {
+        final int offset = window(0, TimestampedOutputStream.HEADER_SIZE);
+        if (_window.getInt(offset) == TimestampedOutputStream.MAGIC) {
+          final int version = _window.getInt(offset + 4);
+          if (version != TimestampedOutputStream.VERSION) {
+            close();
+            throw new IOException("Unsupported recording version " + version + " in " + filename);
+          }
+          timestamped = true;
+          _position = TimestampedOutputStream.HEADER_SIZE;
+        }
+      }
+      _timestamped = timestamped;
+      if (!timestamped) {
+        _blockRemaining = _size;
+        _timestamp = UNTIMED;
+      }
+    }
+
+    /**
+     * Maps the window so that it includes the given range, or as much of it as is in the file.
+     */
+    private int window(final long position, final int bytes) throws IOException {
+      if ((_window == null) || (position < _windowStart) || (position + bytes > _windowStart + _window.capacity())) {
+        if (_window != null) {
+          unmap(_window);
+          _window = null;
+        }
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, _size - position));
+        _windowStart = position;
+      }
+      return (int) (position - _windowStart);
+    }
+
+    private boolean nextBlock() throws IOException {
+      if (!_timestamped || (_position + TimestampedOutputStream.BLOCK_HEADER_SIZE > _size)) {
+        return false;
+      }
+      final int offset = window(_position, TimestampedOutputStream.BLOCK_HEADER_SIZE);
+      _timestamp = _window.getLong(offset);
+      _position += TimestampedOutputStream.BLOCK_HEADER_SIZE;
+      // A block truncated by the end of the recording is replayed as far as it goes
+      _blockRemaining = Math.min(_window.getInt(offset + 8) & 0xFFFFFFFFL, _size - _position);
+      return true;
+    }
+
+    private boolean hasData() throws IOException {
+      if (_closed) {
+        throw new IOException("Replay file closed");
+      }
+      while (_blockRemaining == 0) {
+        if (!nextBlock()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isAtEnd() {
+      return (_blockRemaining == 0) && (!_timestamped || (_position + TimestampedOutputStream.BLOCK_HEADER_SIZE > _size));
+    }
+
+    /**
+     * Gets the time the block last read from was received.
+     */
+    private long getTimestamp() {
+      return _timestamp;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      if (!hasData()) {
+        return -1;
+      }
+      final int offset = window(_position, 1);
+      _position++;
+      _blockRemaining--;
+      return _window.get(offset) & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(final byte[] buffer, final int ofs, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!hasData()) {
+        return -1;
+      }
+      final int offset = window(_position, 1);
+      final int bytes = (int) Math.min(Math.min(len, _blockRemaining), _window.capacity() - offset);
+      _window.position(offset);
+      _window.get(buffer, ofs, bytes);
+      _position += bytes;
+      _blockRemaining -= bytes;
+      return bytes;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(_blockRemaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (_closed) {
+        return;
+      }
+      _closed = true;
+      if (_window != null) {
+        unmap(_window);
+        _window = null;
+      }
+      _file.close();
+    }
+
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Measures the delivery of each record to the underlying callback.
+   */
+  private static final class Measurement<T> implements AbstractConnectorJob.Callback<T> {
+
+    private final AbstractConnectorJob.Callback<T> _underlying;
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private long _due;
+    private long _records;
+    private long _startNanos;
+    private long _startAllocated;
+    private volatile ReplayReport _lastReport;
+
+    private Measurement(final AbstractConnectorJob.Callback<T> underlying) {
+      ArgumentChecker.notNull(underlying, "underlying");
+      _underlying = underlying;
+    }
+
+    @Override
+    public void connected() {
+      _latency.reset();
+      _records = 0;
+      _startAllocated = getAllocatedBytes();
+      _startNanos = System.nanoTime();
+      _underlying.connected();
+    }
+
+    @Override
+    public void received(final T record) {
+      _underlying.received(record);
+      _latency.record(System.nanoTime() - _due);
+      _records++;
+    }
+
+    @Override
+    public void disconnected() {
+      final long elapsed = System.nanoTime() - _startNanos;
+      final long allocated = (_startAllocated >= 0) ? getAllocatedBytes() - _startAllocated : -1;
+      final ReplayReport report = new ReplayReport(_records, elapsed, _latency, allocated);
+      s_logger.info("Replay pass complete - {}", report);
+      _lastReport = report;
+      _underlying.disconnected();
+    }
+
+  }
+
+}
@@ -24,7 +24,7 @@ import com.opengamma.util.ArgumentChecker;
  * 
  * @param <T> the record type
  */
-public class NetworkConnectorJob<T> extends AbstractConnectorJob<T> {
+public class NetworkConnectorJob<T> extends AbstractStreamConnectorJob<T> {
 
   private static final Logger s_logger = LoggerFactory.getLogger(NetworkConnectorJob.class);
 
@@ -10,10 +10,14 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 
 /**
  * Records the content of a network stream to a file.
+ * <p>
+ * If a fourth argument of {@code true} is given the file is written with a {@link TimestampedOutputStream} so that it
+ * can be replayed with its original timing.
  */
 public class RecordNetworkStream {
 
@@ -21,8 +25,10 @@ public class RecordNetworkStream {
     final String host = args[0];
     final Integer port = Integer.parseInt(args[1]);
     final String file = args[2];
+    final boolean timestamped = (args.length > 3) && Boolean.parseBoolean(args[3]);
     final Socket socket = new Socket(host, port);
-    final BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+    final OutputStream output = timestamped ? new TimestampedOutputStream(new BufferedOutputStream(new FileOutputStream(file)))
+        : new BufferedOutputStream(new FileOutputStream(file));
     try {
       final BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
       try {
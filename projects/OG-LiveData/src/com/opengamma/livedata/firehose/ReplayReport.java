@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+package com.opengamma.livedata.firehose;
+
+import com.opengamma.util.monitor.LatencyHistogram;
+
+/**
+ * Throughput, latency and allocation figures for one pass of a replay by {@link MappedReplayConnectorJob}.
+ * <p>
+ * Latency is measured from the time a record was due to be released, according to the replay speed, until the
+ * callback receiving it returned, so it includes any time the replay fell behind schedule.
+ */
+public final class ReplayReport {
+
+  private final long _records;
+  private final long _elapsedNanos;
+  private final long _latencyMean;
+  private final long _latency50;
+  private final long _latency99;
+  private final long _latency999;
+  private final long _latencyMax;
+  private final long _allocatedBytes;
+
+  /**
+   * Creates a report.
+   *
+   * @param records the number of records replayed
+   * @param elapsedNanos the duration of the pass
+   * @param latency the latencies, in nanoseconds, of the records replayed
+   * @param allocatedBytes the bytes allocated by the replaying thread, negative if not known
+   */
+  public ReplayReport(final long records, final long elapsedNanos, final LatencyHistogram latency, final long allocatedBytes) {
+    _records = records;
+    _elapsedNanos = elapsedNanos;
+    _latencyMean = (long) latency.getMean();
+    _latency50 = latency.getPercentile(50);
+    _latency99 = latency.getPercentile(99);
+    _latency999 = latency.getPercentile(99.9);
+    _latencyMax = latency.getMax();
+    _allocatedBytes = allocatedBytes;
+  }
+
+  public long getRecords() {
+    return _records;
+  }
+
+  public long getElapsedNanos() {
+    return _elapsedNanos;
+  }
+
+  public double getRecordsPerSecond() {
+    return (_elapsedNanos > 0) ? (double) _records * 1e9 / (double) _elapsedNanos : 0;
+  }
+
+  public long getLatencyMeanNanos() {
+    return _latencyMean;
+  }
+
+  public long getLatency50Nanos() {
+    return _latency50;
+  }
+
+  public long getLatency99Nanos() {
+    return _latency99;
+  }
+
+  public long getLatency999Nanos() {
+    return _latency999;
+  }
+
+  public long getLatencyMaxNanos() {
+    return _latencyMax;
+  }
+
+  /**
+   * Gets the bytes allocated by the replaying thread, which includes everything done synchronously with the
+   * delivery of each record.
+   *
+   * @return the bytes allocated, negative if the JVM can't report it
+   */
+  public long getAllocatedBytes() {
+    return _allocatedBytes;
+  }
+
+  public double getAllocatedBytesPerSecond() {
+    return ((_allocatedBytes >= 0) && (_elapsedNanos > 0)) ? (double) _allocatedBytes * 1e9 / (double) _elapsedNanos : -1;
+  }
+
+  public double getAllocatedBytesPerRecord() {
+    return ((_allocatedBytes >= 0) && (_records > 0)) ? (double) _allocatedBytes / (double) _records : -1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d records in %.1fms (%.0f/s), latency mean=%.1fus 50%%=%.1fus 99%%=%.1fus 99.9%%=%.1fus max=%.1fus, allocated %.0fMB/s (%.0f bytes/record)",
+        _records, _elapsedNanos / 1e6, getRecordsPerSecond(), _latencyMean / 1e3, _latency50 / 1e3, _latency99 / 1e3, _latency999 / 1e3, _latencyMax / 1e3,
+        getAllocatedBytesPerSecond() / 1e6, getAllocatedBytesPerRecord());
+  }
+
+}
@@ -49,4 +49,17 @@ public class StreamedFireHoseLiveDataServer<T> extends FireHoseLiveDataServer {
     return getFireHose().getStreamFactory();
   }
 
+  /**
+   * Gets the report of the last replay pass completed, when replaying recorded data through a {@link MappedReplayConnectorJob}.
+   * 
+   * @return the report, null if not replaying or no pass has completed
+   */
+  public ReplayReport getReplayReport() {
+    final AbstractConnectorJob.Factory<T> factory = getConnectorFactory();
+    if (factory instanceof MappedReplayConnectorJob.Factory) {
+      return ((MappedReplayConnectorJob.Factory<T>) factory).getLastReport();
+    }
+    return null;
+  }
+
 }
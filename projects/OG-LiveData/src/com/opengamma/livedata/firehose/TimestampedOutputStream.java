@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+package com.opengamma.livedata.firehose;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records a stream to a file, noting when each block of it was received so that it can be replayed with its original
+ * timing by {@link MappedReplayConnectorJob}.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}. Each block written is then held as the time it was
+ * written, in nanoseconds since the epoch, its length, and its content.
+ */
+public class TimestampedOutputStream extends OutputStream {
+
+  /**
+   * Marker at the start of a timestamped recording.
+   */
+  public static final int MAGIC = 0x4F474648;
+  /**
+   * Version of the recording format.
+   */
+  public static final int VERSION = 1;
+  /**
+   * Size of the file header.
+   */
+  public static final int HEADER_SIZE = 8;
+  /**
+   * Size of the timestamp and length preceding each block.
+   */
+  public static final int BLOCK_HEADER_SIZE = 12;
+
+  private final DataOutputStream _output;
+  private final long _epochNanos;
+  private final long _startNanos;
+
+  public TimestampedOutputStream(final OutputStream output) throws IOException {
+    _output = new DataOutputStream(output);
+    _epochNanos = System.currentTimeMillis() * 1000000L;
+    _startNanos = System.nanoTime();
+    _output.writeInt(MAGIC);
+    _output.writeInt(VERSION);
+  }
+
+  protected long getTimestamp() {
+    return _epochNanos + (System.nanoTime() - _startNanos);
+  }
+
+  /**
+   * Writes a block with an explicit timestamp.
+   *
+   * @param timestamp the time the block was received, in nanoseconds since the epoch
+   * @param buffer the block content
+   * @param ofs the offset of the block in the buffer
+   * @param len the length of the block
+   * @throws IOException if the block can't be written
+   */
+  public void write(final long timestamp, final byte[] buffer, final int ofs, final int len) throws IOException {
+    _output.writeLong(timestamp);
+    _output.writeInt(len);
+    _output.write(buffer, ofs, len);
+  }
+
+  @Override
+  public void write(final byte[] buffer, final int ofs, final int len) throws IOException {
+    if (len > 0) {
+      write(getTimestamp(), buffer, ofs, len);
+    }
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] {(byte) b }, 0, 1);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    _output.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _output.close();
+  }
+
+}
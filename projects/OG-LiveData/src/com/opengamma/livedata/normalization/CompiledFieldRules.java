@@ -0,0 +1,430 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.normalization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeFieldType;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+
+import com.opengamma.livedata.server.FieldHistoryStore;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * A run of field level normalization rules compiled into a single pass over the message.
+ * <p>
+ * What {@link FieldFilter}, {@link FieldNameChange}, {@link UnitChange} and {@link RequiredFieldFilter} do to a field
+ * depends only on its name. When the run is compiled, each field name the rules mention is traced through them into a
+ * table giving the name the field ends up with, the multipliers applied to it, whether it is filtered out and where it
+ * ends up in the message. A message is then normalized by looking up each of its fields once and writing the result
+ * into a single new message, rather than each rule copying the message in turn.
+ * <p>
+ * The result is the same as applying the rules one by one. Messages the table cannot describe exactly are passed
+ * through the rules one by one instead: those with repeated fields, with fields the rules would rename onto each
+ * other, or with a unit change applied to a value that is not a {@code Double}.
+ */
+/*package*/ final class CompiledFieldRules implements NormalizationRule {
+
+  /**
+   * Returned by the single pass when the message must be passed through the rules one by one.
+   */
+  private static final MutableFudgeMsg FALLBACK = OpenGammaFudgeContext.getInstance().newMessage();
+
+  /**
+   * What the run of rules does to a field with a given name.
+   */
+  private static final class FieldPlan {
+
+    /** The index of the field name in the table. */
+    private final int _index;
+    /** The name the field ends up with, null if it is filtered out. */
+    private final String _name;
+    /** The index of the last rule to move the field to the end of the message, -1 if it keeps its place. */
+    private final int _moveStep;
+    /** Whether the last rule to move the field renamed it, rather than changed its units. */
+    private final boolean _renamedLast;
+    /** The multipliers applied to the field, in order. */
+    private final double[] _multipliers;
+
+    private FieldPlan(final int index, final String name, final int moveStep, final boolean renamedLast, final double[] multipliers) {
+      _index = index;
+      _name = name;
+      _moveStep = moveStep;
+      _renamedLast = renamedLast;
+      _multipliers = multipliers;
+    }
+
+    private boolean isSurviving() {
+      return _name != null;
+    }
+
+  }
+
+  /**
+   * Working space for a single pass, reused by each thread.
+   */
+  private static final class Scratch {
+
+    private final FudgeField[] _bySource;
+    private final int[] _byMoveStep;
+    private FudgeField[] _fields = new FudgeField[32];
+    private FieldPlan[] _plans = new FieldPlan[32];
+    private int _count;
+
+    private Scratch(final int sources, final int steps) {
+      _bySource = new FudgeField[sources];
+      _byMoveStep = new int[steps];
+      Arrays.fill(_byMoveStep, -1);
+    }
+
+    private void add(final FudgeField field, final FieldPlan plan) {
+      if (_count == _fields.length) {
+        _fields = Arrays.copyOf(_fields, _count * 2);
+        _plans = Arrays.copyOf(_plans, _count * 2);
+      }
+      _fields[_count] = field;
+      _plans[_count] = plan;
+      _count++;
+    }
+
+    private void clear() {
+      for (int i = 0; i < _count; i++) {
+        if (_plans[i] != null) {
+          _bySource[_plans[i]._index] = null;
+          if (_plans[i]._moveStep >= 0) {
+            _byMoveStep[_plans[i]._moveStep] = -1;
+          }
+        }
+        _fields[i] = null;
+        _plans[i] = null;
+      }
+      _count = 0;
+    }
+
+  }
+
+  private final List<NormalizationRule> _rules;
+  private final Map<String, FieldPlan> _plans = new HashMap<String, FieldPlan>();
+  private final boolean _filtered;
+  private final int[][] _required;
+  private final int[] _conflicts;
+  private final FudgeFieldType _doubleType;
+  private final ThreadLocal<Scratch> _scratch;
+  private final AtomicLong _fallbacks = new AtomicLong();
+
+  /**
+   * Compiles a run of rules.
+   *
+   * @param rules  the rules, not null, each one compilable
+   */
+  public CompiledFieldRules(final List<NormalizationRule> rules) {
+    ArgumentChecker.noNulls(rules, "rules");
+    _rules = new ArrayList<NormalizationRule>(rules);
+    final int steps = _rules.size();
+    final Set<String> sources = new LinkedHashSet<String>();
+    boolean filtered = false;
+    for (NormalizationRule rule : _rules) {
+      ArgumentChecker.isTrue(isCompilable(rule), "Rule {} cannot be compiled", rule);
+      sources.addAll(getFieldNames(rule));
+      filtered |= rule instanceof FieldFilter;
+    }
+    _filtered = filtered;
+    // trace[i][step] is the name of field i before the step, null once it has been filtered out
+    final String[][] trace = new String[sources.size()][steps + 1];
+    int index = 0;
+    for (String source : sources) {
+      String name = source;
+      int moveStep = -1;
+      boolean renamedLast = false;
+      final List<Double> multipliers = new ArrayList<Double>();
+      for (int step = 0; (step < steps) && (name != null); step++) {
+        trace[index][step] = name;
+        final NormalizationRule rule = _rules.get(step);
+        if (rule instanceof FieldFilter) {
+          if (!((FieldFilter) rule).getFieldsToAccept().contains(name)) {
+            name = null;
+          }
+        } else if (rule instanceof FieldNameChange) {
+          if (((FieldNameChange) rule).getFrom().equals(name)) {
+            name = ((FieldNameChange) rule).getTo();
+            moveStep = step;
+            renamedLast = true;
+          }
+        } else if (rule instanceof UnitChange) {
+          if (((UnitChange) rule).getField().equals(name)) {
+            multipliers.add(((UnitChange) rule).getMultiplier());
+            moveStep = step;
+            renamedLast = false;
+          }
+        }
+      }
+      trace[index][steps] = name;
+      final double[] multiplierArray = new double[multipliers.size()];
+      for (int i = 0; i < multiplierArray.length; i++) {
+        multiplierArray[i] = multipliers.get(i);
+      }
+      _plans.put(source, new FieldPlan(index, name, moveStep, renamedLast, multiplierArray));
+      index++;
+    }
+    // For each field a rule requires, the fields that have its name at that point
+    final List<int[]> required = new ArrayList<int[]>();
+    for (int step = 0; step < steps; step++) {
+      if (_rules.get(step) instanceof RequiredFieldFilter) {
+        for (String name : ((RequiredFieldFilter) _rules.get(step)).getRequiredFieldNames()) {
+          required.add(fieldsNamed(trace, step, name));
+        }
+      }
+    }
+    _required = required.toArray(new int[required.size()][]);
+    // Pairs of fields that would have the same name at some point
+    final List<Integer> conflicts = new ArrayList<Integer>();
+    for (int i = 0; i < trace.length; i++) {
+      for (int j = i + 1; j < trace.length; j++) {
+        for (int step = 0; step <= steps; step++) {
+          if ((trace[i][step] != null) && trace[i][step].equals(trace[j][step])) {
+            conflicts.add(i);
+            conflicts.add(j);
+            break;
+          }
+        }
+      }
+    }
+    _conflicts = new int[conflicts.size()];
+    for (int i = 0; i < _conflicts.length; i++) {
+      _conflicts[i] = conflicts.get(i);
+    }
+    final MutableFudgeMsg probe = OpenGammaFudgeContext.getInstance().newMessage();
+    probe.add("probe", 0d);
+    _doubleType = probe.getByName("probe").getType();
+    final int sourceCount = sources.size();
+    _scratch = new ThreadLocal<Scratch>() {
+      @Override
+      protected Scratch initialValue() {
+        return new Scratch(sourceCount, steps);
+      }
+    };
+  }
+
+  private static int[] fieldsNamed(final String[][] trace, final int step, final String name) {
+    final List<Integer> fields = new ArrayList<Integer>();
+    for (int i = 0; i < trace.length; i++) {
+      if (name.equals(trace[i][step])) {
+        fields.add(i);
+      }
+    }
+    final int[] result = new int[fields.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = fields.get(i);
+    }
+    return result;
+  }
+
+  private static Collection<String> getFieldNames(final NormalizationRule rule) {
+    if (rule instanceof FieldFilter) {
+      return ((FieldFilter) rule).getFieldsToAccept();
+    } else if (rule instanceof FieldNameChange) {
+      return Arrays.asList(((FieldNameChange) rule).getFrom(), ((FieldNameChange) rule).getTo());
+    } else if (rule instanceof UnitChange) {
+      return Collections.singleton(((UnitChange) rule).getField());
+    } else {
+      return ((RequiredFieldFilter) rule).getRequiredFieldNames();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Checks whether a rule can be compiled into a run.
+   * <p>
+   * Subclasses of the field level rules are not compiled as they may change what the rule does.
+   *
+   * @param rule  the rule, not null
+   * @return true if the rule can be compiled
+   */
+  public static boolean isCompilable(final NormalizationRule rule) {
+    final Class<?> clazz = rule.getClass();
+    return (clazz == FieldFilter.class) || (clazz == FieldNameChange.class) || (clazz == UnitChange.class) || (clazz == RequiredFieldFilter.class);
+  }
+
+  /**
+   * Compiles each run of consecutive compilable rules, leaving the other rules as they are.
+   *
+   * @param rules  the rules, not null
+   * @return the rules to apply in their place, not null
+   */
+  public static List<NormalizationRule> compile(final List<NormalizationRule> rules) {
+    final List<NormalizationRule> compiled = new ArrayList<NormalizationRule>();
+    final List<NormalizationRule> run = new ArrayList<NormalizationRule>();
+    for (NormalizationRule rule : rules) {
+      if (isCompilable(rule)) {
+        run.add(rule);
+      } else {
+        if (!run.isEmpty()) {
+          compiled.add(new CompiledFieldRules(run));
+          run.clear();
+        }
+        compiled.add(rule);
+      }
+    }
+    if (!run.isEmpty()) {
+      compiled.add(new CompiledFieldRules(run));
+    }
+    return compiled;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the rules that were compiled.
+   *
+   * @return the rules, not null
+   */
+  public List<NormalizationRule> getRules() {
+    return Collections.unmodifiableList(_rules);
+  }
+
+  /**
+   * Gets the number of messages that had to be passed through the rules one by one.
+   *
+   * @return the number of messages
+   */
+  public long getFallbackCount() {
+    return _fallbacks.get();
+  }
+
+  @Override
+  public MutableFudgeMsg apply(final MutableFudgeMsg msg, final String securityUniqueId, final FieldHistoryStore fieldHistory) {
+    return apply(msg, msg, securityUniqueId, fieldHistory);
+  }
+
+  /**
+   * Applies the rules to a message without modifying it.
+   *
+   * @param msg  the message to normalize, not null
+   * @param securityUniqueId  the data provider's unique ID of the security, not null
+   * @param fieldHistory  the distributor-specific field history, not null
+   * @return the normalized message, or null to prevent the message from being sent to the client
+   */
+  public MutableFudgeMsg applyToCopy(final FudgeMsg msg, final String securityUniqueId, final FieldHistoryStore fieldHistory) {
+    return apply(msg, null, securityUniqueId, fieldHistory);
+  }
+
+  private MutableFudgeMsg apply(final FudgeMsg msg, final MutableFudgeMsg mutableMsg, final String securityUniqueId, final FieldHistoryStore fieldHistory) {
+    final Scratch scratch = _scratch.get();
+    final MutableFudgeMsg result;
+    try {
+      result = normalize(msg, scratch);
+    } finally {
+      scratch.clear();
+    }
+    if (result != FALLBACK) {
+      return result;
+    }
+    _fallbacks.incrementAndGet();
+    MutableFudgeMsg normalizedMsg = (mutableMsg != null) ? mutableMsg : OpenGammaFudgeContext.getInstance().newMessage(msg);
+    for (NormalizationRule rule : _rules) {
+      normalizedMsg = rule.apply(normalizedMsg, securityUniqueId, fieldHistory);
+      if (normalizedMsg == null) {
+        return null;
+      }
+    }
+    return normalizedMsg;
+  }
+
+  private MutableFudgeMsg normalize(final FudgeMsg msg, final Scratch scratch) {
+    boolean surviving = false;
+    for (FudgeField field : msg) {
+      final FieldPlan plan = (field.getName() != null) ? _plans.get(field.getName()) : null;
+      if (plan != null) {
+        if (scratch._bySource[plan._index] != null) {
+          return FALLBACK;
+        }
+        if ((plan._multipliers.length > 0) && !(field.getValue() instanceof Double)) {
+          return FALLBACK;
+        }
+        scratch._bySource[plan._index] = field;
+        surviving |= plan.isSurviving();
+      }
+      scratch.add(field, plan);
+    }
+    for (int i = 0; i < _conflicts.length; i += 2) {
+      if ((scratch._bySource[_conflicts[i]] != null) && (scratch._bySource[_conflicts[i + 1]] != null)) {
+        return FALLBACK;
+      }
+    }
+    // Any field not mentioned by the rules is removed by the first filter
+    if (_filtered && !surviving) {
+      return null;
+    }
+    for (int[] required : _required) {
+      if (!isAnyPresent(scratch, required)) {
+        return null;
+      }
+    }
+    final MutableFudgeMsg normalizedMsg = OpenGammaFudgeContext.getInstance().newMessage();
+    for (int i = 0; i < scratch._count; i++) {
+      final FieldPlan plan = scratch._plans[i];
+      if (plan == null) {
+        if (!_filtered) {
+          normalizedMsg.add(scratch._fields[i]);
+        }
+      } else if (plan.isSurviving()) {
+        if (plan._moveStep < 0) {
+          normalizedMsg.add(scratch._fields[i]);
+        } else {
+          scratch._byMoveStep[plan._moveStep] = i;
+        }
+      }
+    }
+    // Renamed and rescaled fields are added to the end of the message in the order the rules touched them last
+    for (int step = 0; step < scratch._byMoveStep.length; step++) {
+      final int i = scratch._byMoveStep[step];
+      if (i >= 0) {
+        final FieldPlan plan = scratch._plans[i];
+        final FudgeField field = scratch._fields[i];
+        if (plan._multipliers.length == 0) {
+          normalizedMsg.add(plan._name, null, field.getType(), field.getValue());
+        } else {
+          double value = (Double) field.getValue();
+          for (double multiplier : plan._multipliers) {
+            value = value * multiplier;
+          }
+          if (plan._renamedLast) {
+            normalizedMsg.add(plan._name, null, _doubleType, value);
+          } else {
+            normalizedMsg.add(plan._name, value);
+          }
+        }
+      }
+    }
+    return normalizedMsg;
+  }
+
+  private static boolean isAnyPresent(final Scratch scratch, final int[] fields) {
+    for (int field : fields) {
+      if (scratch._bySource[field] != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledFieldRules" + _rules;
+  }
+
+}
@@ -6,6 +6,7 @@
 package com.opengamma.livedata.normalization;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 
 import org.fudgemsg.FudgeContext;
@@ -46,6 +47,13 @@ public class FieldFilter implements NormalizationRule {
     _context = fudgeContext;
   }
 
+  /**
+   * @return the names of the fields to accept, not null
+   */
+  public Collection<String> getFieldsToAccept() {
+    return Collections.unmodifiableCollection(_fieldsToAccept);
+  }
+
   /**
    * @return the context
    */
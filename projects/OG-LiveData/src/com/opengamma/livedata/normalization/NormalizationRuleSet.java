@@ -22,6 +22,9 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 
 /**
  * An ordered set of normalization rules.
+ * <p>
+ * Runs of consecutive field level rules are compiled into a single pass over the message when the set is created,
+ * see {@link CompiledFieldRules}.
  */
 public class NormalizationRuleSet {
   
@@ -30,6 +33,7 @@ public class NormalizationRuleSet {
   private final String _id;
   private final String _jmsTopicSuffix;
   private final List<NormalizationRule> _rules;
+  private final List<NormalizationRule> _compiledRules;
   
   /* Useful for tests */
   public NormalizationRuleSet(String id) {
@@ -56,6 +60,7 @@ public class NormalizationRuleSet {
     }
     
     _rules = new ArrayList<NormalizationRule>(rules);    
+    _compiledRules = CompiledFieldRules.compile(_rules);
   }
   
   /**
@@ -70,8 +75,17 @@ public class NormalizationRuleSet {
    * rejected the message.
    */
   public FudgeMsg getNormalizedMessage(FudgeMsg msg, String securityUniqueId, FieldHistoryStore fieldHistory) {
-    MutableFudgeMsg normalizedMsg = OpenGammaFudgeContext.getInstance().newMessage(msg);
-    for (NormalizationRule rule : _rules) {
+    MutableFudgeMsg normalizedMsg;
+    int i = 0;
+    if (!_compiledRules.isEmpty() && (_compiledRules.get(0) instanceof CompiledFieldRules)) {
+      // The compiled rules write into a new message so there is no need to copy the original first
+      normalizedMsg = ((CompiledFieldRules) _compiledRules.get(0)).applyToCopy(msg, securityUniqueId, fieldHistory);
+      i++;
+    } else {
+      normalizedMsg = OpenGammaFudgeContext.getInstance().newMessage(msg);
+    }
+    for (; (normalizedMsg != null) && (i < _compiledRules.size()); i++) {
+      NormalizationRule rule = _compiledRules.get(i);
       normalizedMsg = rule.apply(normalizedMsg, securityUniqueId, fieldHistory);
       if (normalizedMsg == null) {
         // One of the rules rejected the message entirely.
@@ -10,11 +10,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -31,6 +37,7 @@ import com.opengamma.id.ExternalId;
 import com.opengamma.id.ExternalScheme;
 import com.opengamma.livedata.LiveDataSpecification;
 import com.opengamma.livedata.LiveDataValueUpdateBean;
+import com.opengamma.livedata.UserPrincipal;
 import com.opengamma.livedata.entitlement.LiveDataEntitlementChecker;
 import com.opengamma.livedata.entitlement.PermissiveLiveDataEntitlementChecker;
 import com.opengamma.livedata.msg.LiveDataSubscriptionRequest;
@@ -47,6 +54,8 @@ import com.opengamma.livedata.server.distribution.MarketDataSenderFactory;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.PerformanceCounter;
 import com.opengamma.util.PublicAPI;
+import com.opengamma.util.functional.Function1;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * The base class from which most OpenGamma Live Data feed servers should
@@ -59,6 +68,11 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(AbstractLiveDataServer.class);
 
+  /**
+   * The default number of specifications handled together when processing a large request.
+   */
+  public static final int DEFAULT_SUBSCRIPTION_CHUNK_SIZE = 1000;
+
   private volatile MarketDataSenderFactory _marketDataSenderFactory = new EmptyMarketDataSenderFactory();
   private final Collection<SubscriptionListener> _subscriptionListeners = new CopyOnWriteArrayList<SubscriptionListener>();
 
@@ -68,8 +82,8 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   /** _Write_ access controlled via _subscriptionLock */
   private final Map<String, Subscription> _securityUniqueId2Subscription = new ConcurrentHashMap<String, Subscription>();
 
-  /** Access controlled via _subscriptionLock */
-  private final Map<LiveDataSpecification, MarketDataDistributor> _fullyQualifiedSpec2Distributor = new HashMap<LiveDataSpecification, MarketDataDistributor>();
+  /** _Write_ access controlled via _subscriptionLock */
+  private final Map<LiveDataSpecification, MarketDataDistributor> _fullyQualifiedSpec2Distributor = new ConcurrentHashMap<LiveDataSpecification, MarketDataDistributor>();
 
   private final AtomicLong _numMarketDataUpdatesReceived = new AtomicLong(0);
   private final PerformanceCounter _performanceCounter;
@@ -81,6 +95,9 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   private DistributionSpecificationResolver _distributionSpecificationResolver = new NaiveDistributionSpecificationResolver();
   private LiveDataEntitlementChecker _entitlementChecker = new PermissiveLiveDataEntitlementChecker();
   private LastKnownValueStoreProvider _lkvStoreProvider = new MapLastKnownValueStoreProvider();
+  private volatile ExecutorService _subscriptionExecutor;
+  private volatile int _subscriptionChunkSize = DEFAULT_SUBSCRIPTION_CHUNK_SIZE;
+  private volatile MarketDataDistributionPipeline _distributionPipeline;
 
   private volatile ConnectionStatus _connectionStatus = ConnectionStatus.NOT_CONNECTED;
 
@@ -225,6 +242,69 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
     _lkvStoreProvider = lkvStoreProvider;
   }
 
+  /**
+   * Gets the pipeline that live data is distributed through.
+   * 
+   * @return the pipeline, null if live data is distributed on the thread it is received on
+   */
+  public MarketDataDistributionPipeline getDistributionPipeline() {
+    return _distributionPipeline;
+  }
+
+  /**
+   * Sets the pipeline that live data is distributed through.
+   * <p>
+   * The pipeline is started and stopped with the server. Live data is distributed on the thread it is received on
+   * while the pipeline is not running.
+   * 
+   * @param distributionPipeline  the pipeline, null to distribute live data on the thread it is received on
+   */
+  public void setDistributionPipeline(MarketDataDistributionPipeline distributionPipeline) {
+    _distributionPipeline = distributionPipeline;
+  }
+
+  /**
+   * Gets the executor used to resolve, entitlement check and snapshot chunks of a large request in parallel.
+   * 
+   * @return the executor, null if requests are processed on the calling thread
+   */
+  public ExecutorService getSubscriptionExecutor() {
+    return _subscriptionExecutor;
+  }
+
+  /**
+   * Sets the executor used to resolve, entitlement check and snapshot chunks of a large request in parallel.
+   * <p>
+   * The executor must not run tasks on the calling thread while the server holds its subscription lock.
+   * 
+   * @param subscriptionExecutor  the executor, null to process requests on the calling thread
+   */
+  public void setSubscriptionExecutor(ExecutorService subscriptionExecutor) {
+    _subscriptionExecutor = subscriptionExecutor;
+  }
+
+  /**
+   * Gets the number of specifications handled together when processing a large request.
+   * 
+   * @return the chunk size
+   */
+  public int getSubscriptionChunkSize() {
+    return _subscriptionChunkSize;
+  }
+
+  /**
+   * Sets the number of specifications handled together when processing a large request.
+   * <p>
+   * The subscriptions of a request are registered a chunk at a time, releasing the subscription lock between chunks.
+   * Defaults to {@link #DEFAULT_SUBSCRIPTION_CHUNK_SIZE}.
+   * 
+   * @param subscriptionChunkSize  the chunk size, greater than zero
+   */
+  public void setSubscriptionChunkSize(int subscriptionChunkSize) {
+    ArgumentChecker.isTrue(subscriptionChunkSize > 0, "subscriptionChunkSize must be positive");
+    _subscriptionChunkSize = subscriptionChunkSize;
+  }
+
   //-------------------------------------------------------------------------
   /**
    * Subscribes to the specified tickers using the underlying market data provider.
@@ -370,6 +450,9 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
 
   @Override
   public synchronized void start() {
+    if (getDistributionPipeline() != null) {
+      getDistributionPipeline().start();
+    }
     if (getConnectionStatus() == ConnectionStatus.NOT_CONNECTED) {
       connect();
     }
@@ -380,6 +463,9 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
     if (getConnectionStatus() == ConnectionStatus.CONNECTED) {
       disconnect();
     }
+    if (getDistributionPipeline() != null) {
+      getDistributionPipeline().stop();
+    }
   }
   
   public synchronized void connect() {
@@ -457,6 +543,40 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   public Collection<LiveDataSubscriptionResponse> subscribe(
       Collection<LiveDataSpecification> liveDataSpecificationsFromClient, boolean persistent) {
     ArgumentChecker.notNull(liveDataSpecificationsFromClient, "Subscriptions to be created");
+    return subscribe(liveDataSpecificationsFromClient, persistent, resolve(liveDataSpecificationsFromClient));
+  }
+
+  /**
+   * Subscribes to market data for which the distribution specifications have already been resolved.
+   * 
+   * @param liveDataSpecificationsFromClient  the specifications requested, not null
+   * @param persistent  see {@link MarketDataDistributor#isPersistent()}
+   * @param distrSpecs  the resolved distribution specifications, containing at least those requested, not null
+   * @return the responses, one for each specification requested, not null
+   */
+  protected Collection<LiveDataSubscriptionResponse> subscribe(
+      Collection<LiveDataSpecification> liveDataSpecificationsFromClient, boolean persistent,
+      Map<LiveDataSpecification, DistributionSpecification> distrSpecs) {
+    return subscribe(liveDataSpecificationsFromClient, persistent, distrSpecs, Collections.<String, FudgeMsg>emptyMap());
+  }
+
+  /**
+   * Subscribes to market data for which the distribution specifications have already been resolved, and for which
+   * some of the initial snapshots may already have been taken.
+   * 
+   * @param liveDataSpecificationsFromClient  the specifications requested, not null
+   * @param persistent  see {@link MarketDataDistributor#isPersistent()}
+   * @param distrSpecs  the resolved distribution specifications, containing at least those requested, not null
+   * @param initialSnapshots  the initial snapshots already taken, keyed by security unique ID, not null
+   * @return the responses, one for each specification requested, not null
+   * @see #snapshotOnSubscriptionStartRequired(Subscription)
+   */
+  protected Collection<LiveDataSubscriptionResponse> subscribe(
+      Collection<LiveDataSpecification> liveDataSpecificationsFromClient, boolean persistent,
+      Map<LiveDataSpecification, DistributionSpecification> distrSpecs, Map<String, FudgeMsg> initialSnapshots) {
+    ArgumentChecker.notNull(liveDataSpecificationsFromClient, "Subscriptions to be created");
+    ArgumentChecker.notNull(distrSpecs, "distrSpecs");
+    ArgumentChecker.notNull(initialSnapshots, "initialSnapshots");
     
     s_logger.info("Subscribe requested for {}, persistent = {}", liveDataSpecificationsFromClient, persistent);
     
@@ -469,7 +589,6 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
     _subscriptionLock.lock();
     try {
     
-      Map<LiveDataSpecification, DistributionSpecification> distrSpecs = getDistributionSpecificationResolver().resolve(liveDataSpecificationsFromClient);
       for (LiveDataSpecification specFromClient : liveDataSpecificationsFromClient) {
         
         // this is the only place where subscribe() can 'partially' fail
@@ -515,12 +634,17 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
       Collection<String> newSubscriptionsForWhichSnapshotIsRequired = new ArrayList<String>();
       for (Subscription subscription : securityUniqueId2NewSubscription.values()) {
         if (snapshotOnSubscriptionStartRequired(subscription)) {
-          newSubscriptionsForWhichSnapshotIsRequired.add(subscription.getSecurityUniqueId());
+          FudgeMsg snapshot = initialSnapshots.get(subscription.getSecurityUniqueId());
+          if (snapshot != null) {
+            subscription.initialSnapshotReceived(snapshot);
+          } else {
+            newSubscriptionsForWhichSnapshotIsRequired.add(subscription.getSecurityUniqueId());
+          }
         }
       }
       
       s_logger.info("Subscription snapshot required for {}", newSubscriptionsForWhichSnapshotIsRequired);
-      Map<String, FudgeMsg> snapshots = doSnapshot(newSubscriptionsForWhichSnapshotIsRequired);
+      Map<String, FudgeMsg> snapshots = snapshotInChunks(newSubscriptionsForWhichSnapshotIsRequired);
       for (Map.Entry<String, FudgeMsg> snapshot : snapshots.entrySet()) {
         Subscription subscription = securityUniqueId2NewSubscription.get(snapshot.getKey());
         subscription.initialSnapshotReceived(snapshot.getValue());
@@ -617,6 +741,128 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   protected void checkSubscribe(Set<String> uniqueIds) {
     //Do nothing by default
   }
+
+  /**
+   * Applies a function to chunks of a collection, in parallel on the subscription executor if there is one and the
+   * collection is large enough to need more than one chunk, or one chunk after another if there isn't.
+   * 
+   * @param <T>  the item type
+   * @param <R>  the result type
+   * @param items  the items, not null
+   * @param function  the function to apply to each chunk, not null
+   * @return the results for each chunk, in order, not null
+   */
+  private <T, R> List<R> processInChunks(final List<T> items, final Function1<List<T>, R> function) {
+    final ExecutorService executor = getSubscriptionExecutor();
+    final int chunkSize = getSubscriptionChunkSize();
+    if (items.size() <= chunkSize) {
+      return Collections.singletonList(function.execute(items));
+    }
+    if (executor == null) {
+      final List<R> results = new ArrayList<R>((items.size() + chunkSize - 1) / chunkSize);
+      for (int i = 0; i < items.size(); i += chunkSize) {
+        results.add(function.execute(items.subList(i, Math.min(i + chunkSize, items.size()))));
+      }
+      return results;
+    }
+    final List<Future<R>> futures = new ArrayList<Future<R>>();
+    for (int i = 0; i < items.size(); i += chunkSize) {
+      final List<T> chunk = items.subList(i, Math.min(i + chunkSize, items.size()));
+      futures.add(executor.submit(new Callable<R>() {
+        @Override
+        public R call() {
+          return function.execute(chunk);
+        }
+      }));
+    }
+    final List<R> results = new ArrayList<R>(futures.size());
+    for (Future<R> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OpenGammaRuntimeException("Interrupted", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new OpenGammaRuntimeException(e.getMessage(), e.getCause());
+      }
+    }
+    return results;
+  }
+
+  private static <K, V> Map<K, V> merge(final List<Map<K, V>> maps) {
+    if (maps.size() == 1) {
+      return maps.get(0);
+    }
+    final Map<K, V> result = new HashMap<K, V>();
+    for (Map<K, V> map : maps) {
+      result.putAll(map);
+    }
+    return result;
+  }
+
+  private Map<LiveDataSpecification, DistributionSpecification> resolve(final Collection<LiveDataSpecification> specs) {
+    return merge(processInChunks(new ArrayList<LiveDataSpecification>(specs),
+        new Function1<List<LiveDataSpecification>, Map<LiveDataSpecification, DistributionSpecification>>() {
+          @Override
+          public Map<LiveDataSpecification, DistributionSpecification> execute(final List<LiveDataSpecification> chunk) {
+            return getDistributionSpecificationResolver().resolve(chunk);
+          }
+        }));
+  }
+
+  private Map<LiveDataSpecification, Boolean> isEntitled(final UserPrincipal user, final List<LiveDataSpecification> specs) {
+    return merge(processInChunks(specs, new Function1<List<LiveDataSpecification>, Map<LiveDataSpecification, Boolean>>() {
+      @Override
+      public Map<LiveDataSpecification, Boolean> execute(final List<LiveDataSpecification> chunk) {
+        return getEntitlementChecker().isEntitled(user, chunk);
+      }
+    }));
+  }
+
+  private Map<String, FudgeMsg> snapshotInChunks(final Collection<String> uniqueIds) {
+    return merge(processInChunks(new ArrayList<String>(uniqueIds), new Function1<List<String>, Map<String, FudgeMsg>>() {
+      @Override
+      public Map<String, FudgeMsg> execute(final List<String> chunk) {
+        return doSnapshot(chunk);
+      }
+    }));
+  }
+
+  /**
+   * Takes the initial snapshots needed by the new subscriptions in a request before the request is subscribed to a
+   * chunk at a time, so that the snapshots can be taken in parallel and without holding the subscription lock.
+   * 
+   * @param specs  the specifications to be subscribed to, not null
+   * @param distrSpecs  the resolved distribution specifications, not null
+   * @return the initial snapshots, keyed by security unique ID, not null
+   */
+  private Map<String, FudgeMsg> snapshotNewSubscriptions(final Collection<LiveDataSpecification> specs,
+      final Map<LiveDataSpecification, DistributionSpecification> distrSpecs) {
+    final Set<String> required = new LinkedHashSet<String>();
+    for (LiveDataSpecification spec : specs) {
+      final DistributionSpecification distributionSpec = distrSpecs.get(spec);
+      if (distributionSpec == null) {
+        continue;
+      }
+      final LiveDataSpecification fullyQualifiedSpec = distributionSpec.getFullyQualifiedLiveDataSpecification();
+      if (getSubscription(fullyQualifiedSpec) != null) {
+        continue;
+      }
+      final String securityUniqueId = fullyQualifiedSpec.getIdentifier(getUniqueIdDomain());
+      if ((securityUniqueId != null) && snapshotOnSubscriptionStartRequired(new Subscription(securityUniqueId, getMarketDataSenderFactory(), getLkvStoreProvider()))) {
+        required.add(securityUniqueId);
+      }
+    }
+    if (required.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    checkSubscribe(required);
+    s_logger.info("Subscription snapshot required for {}", required);
+    return snapshotInChunks(required);
+  }
    
 
   /**
@@ -631,6 +877,21 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
    */
   public Collection<LiveDataSubscriptionResponse> snapshot(Collection<LiveDataSpecification> liveDataSpecificationsFromClient) {
     ArgumentChecker.notNull(liveDataSpecificationsFromClient, "Snapshots to be obtained");
+    return snapshot(liveDataSpecificationsFromClient, resolve(liveDataSpecificationsFromClient));
+  }
+
+  /**
+   * Returns a snapshot of market data for which the distribution specifications have already been resolved.
+   * 
+   * @param liveDataSpecificationsFromClient  the snapshots requested, not null
+   * @param resolved  the resolved distribution specifications, containing at least those requested, not null
+   * @return the responses, not null
+   * @see #snapshot(Collection)
+   */
+  protected Collection<LiveDataSubscriptionResponse> snapshot(Collection<LiveDataSpecification> liveDataSpecificationsFromClient,
+      Map<LiveDataSpecification, DistributionSpecification> resolved) {
+    ArgumentChecker.notNull(liveDataSpecificationsFromClient, "Snapshots to be obtained");
+    ArgumentChecker.notNull(resolved, "resolved");
     
     s_logger.info("Snapshot requested for {}", liveDataSpecificationsFromClient);
     
@@ -641,7 +902,6 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
     Collection<String> snapshotsToActuallyDo = new ArrayList<String>();
     Map<String, LiveDataSpecification> securityUniqueId2LiveDataSpecificationFromClient = new HashMap<String, LiveDataSpecification>(); 
     
-    Map<LiveDataSpecification, DistributionSpecification> resolved = getDistributionSpecificationResolver().resolve(liveDataSpecificationsFromClient);
     for (LiveDataSpecification liveDataSpecificationFromClient : liveDataSpecificationsFromClient) {
       DistributionSpecification distributionSpec = resolved.get(liveDataSpecificationFromClient);
       LiveDataSpecification fullyQualifiedSpec = distributionSpec.getFullyQualifiedLiveDataSpecification();
@@ -678,7 +938,7 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
     }
 
     s_logger.debug("Need to actually snapshot {}", snapshotsToActuallyDo);
-    Map<String, FudgeMsg> snapshots = doSnapshot(snapshotsToActuallyDo);
+    Map<String, FudgeMsg> snapshots = snapshotInChunks(snapshotsToActuallyDo);
     for (Map.Entry<String, FudgeMsg> snapshotEntry : snapshots.entrySet()) {
       String securityUniqueId = snapshotEntry.getKey();
       FudgeMsg msg = snapshotEntry.getValue();
@@ -743,6 +1003,9 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
 
   /**
    * Handles a subscription request.
+   * <p>
+   * Large requests are processed in chunks of {@link #getSubscriptionChunkSize()}, releasing the subscription lock
+   * between chunks.
    * 
    * @param subscriptionRequest  the request, not null
    * @return the response, not null
@@ -750,9 +1013,10 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   protected LiveDataSubscriptionResponseMsg subscriptionRequestMadeImpl(LiveDataSubscriptionRequest subscriptionRequest) {
     final boolean persistent = subscriptionRequest.getType().equals(SubscriptionType.PERSISTENT);
     final ArrayList<LiveDataSubscriptionResponse> responses = new ArrayList<LiveDataSubscriptionResponse>();
+    ArrayList<LiveDataSubscriptionResponse> failures = new ArrayList<LiveDataSubscriptionResponse>();
     
     // build and check the distribution specifications
-    Map<LiveDataSpecification, DistributionSpecification> distributionSpecifications = getDistributionSpecificationResolver().resolve(subscriptionRequest.getSpecifications());
+    Map<LiveDataSpecification, DistributionSpecification> distributionSpecifications = resolve(subscriptionRequest.getSpecifications());
     ArrayList<LiveDataSpecification> distributable = new ArrayList<LiveDataSpecification>();
     for (LiveDataSpecification requestedSpecification : subscriptionRequest.getSpecifications()) {
       try {
@@ -761,21 +1025,21 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
         if (spec == null) {
           String errorMsg = "Could not build distribution specification for " + requestedSpecification;
           s_logger.debug(errorMsg);
-          responses.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.NOT_PRESENT, errorMsg));
+          failures.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.NOT_PRESENT, errorMsg));
         } else {
           distributable.add(requestedSpecification);
         }
         
       } catch (Exception ex) {
         s_logger.error("Failed to subscribe to " + requestedSpecification, ex);
-        responses.add(buildErrorResponse(requestedSpecification, ex));
+        failures.add(buildErrorResponse(requestedSpecification, ex));
       }
     }
     
     // check entitlement and sort into snapshots/subscriptions
     ArrayList<LiveDataSpecification> snapshots = new ArrayList<LiveDataSpecification>();
     ArrayList<LiveDataSpecification> subscriptions = new ArrayList<LiveDataSpecification>();
-    Map<LiveDataSpecification, Boolean> entitled = getEntitlementChecker().isEntitled(subscriptionRequest.getUser(), distributable);
+    Map<LiveDataSpecification, Boolean> entitled = isEntitled(subscriptionRequest.getUser(), distributable);
     for (Entry<LiveDataSpecification, Boolean> entry : entitled.entrySet()) {
       LiveDataSpecification requestedSpecification = entry.getKey();
       try {
@@ -783,7 +1047,7 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
         if (!entitlement) {
           String errorMsg = subscriptionRequest.getUser() + " is not entitled to " + requestedSpecification;
           s_logger.info(errorMsg);
-          responses.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.NOT_AUTHORIZED, errorMsg));
+          failures.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.NOT_AUTHORIZED, errorMsg));
           continue;
         }
         
@@ -796,14 +1060,15 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
         
       } catch (Exception ex) {
         s_logger.error("Failed to subscribe to " + requestedSpecification, ex);
-        responses.add(buildErrorResponse(requestedSpecification, ex));
+        failures.add(buildErrorResponse(requestedSpecification, ex));
       }
     }
+    responses.addAll(failures);
     
     // handle snapshots
     if (!snapshots.isEmpty()) {
       try {
-        responses.addAll(snapshot(snapshots));
+        responses.addAll(snapshot(snapshots, distributionSpecifications));
         
       } catch (Exception ex) {
         s_logger.error("Error obtaining snapshots for {}: {}", snapshots, ex.getMessage());
@@ -812,26 +1077,41 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
         }
         // REVIEW kirk 2012-07-20 -- This doesn't really look like an InternalError,
         // but we have no way to discriminate in the response from doSnapshot at the moment.
+        failures = new ArrayList<LiveDataSubscriptionResponse>();
         for (LiveDataSpecification requestedSpecification : snapshots) {
           String errorMsg = "Problem obtaining snapshot: " + ex.getMessage();
-          responses.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.INTERNAL_ERROR, errorMsg));
+          failures.add(buildErrorMessageResponse(requestedSpecification, LiveDataSubscriptionResult.INTERNAL_ERROR, errorMsg));
         }
+        responses.addAll(failures);
       }
     }
     
-    // handle subscriptions
-    if (!subscriptions.isEmpty()) {
+    // handle subscriptions, a chunk at a time so that the lock is released between chunks
+    final int chunkSize = getSubscriptionChunkSize();
+    Map<String, FudgeMsg> initialSnapshots = Collections.emptyMap();
+    if (subscriptions.size() > chunkSize) {
+      // take the initial snapshots for the whole request up front, rather than one chunk at a time under the lock
       try {
-        responses.addAll(subscribe(subscriptions, persistent));
+        initialSnapshots = snapshotNewSubscriptions(subscriptions, distributionSpecifications);
+      } catch (Exception ex) {
+        s_logger.warn("Error obtaining initial snapshots for {}, will retry as each chunk is subscribed: {}", subscriptions, ex.getMessage());
+      }
+    }
+    for (int i = 0; i < subscriptions.size(); i += chunkSize) {
+      final List<LiveDataSpecification> chunk = subscriptions.subList(i, Math.min(i + chunkSize, subscriptions.size()));
+      try {
+        responses.addAll(subscribe(chunk, persistent, distributionSpecifications, initialSnapshots));
         
       } catch (Exception ex) {
-        s_logger.error("Error obtaining subscriptions for {}: {}", subscriptions, (ex.getMessage() != null ? ex.getMessage() : ex.getClass().getName()));
+        s_logger.error("Error obtaining subscriptions for {}: {}", chunk, (ex.getMessage() != null ? ex.getMessage() : ex.getClass().getName()));
         if (s_logger.isDebugEnabled()) {
-          s_logger.debug("Underlying exception in subscription error " + subscriptions, ex);
+          s_logger.debug("Underlying exception in subscription error " + chunk, ex);
         }
-        for (LiveDataSpecification requestedSpecification : subscriptions) {
-          responses.add(buildErrorResponse(requestedSpecification, ex));
+        failures = new ArrayList<LiveDataSubscriptionResponse>();
+        for (LiveDataSpecification requestedSpecification : chunk) {
+          failures.add(buildErrorResponse(requestedSpecification, ex));
         }
+        responses.addAll(failures);
       }
     }
     
@@ -960,12 +1240,8 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   }
   
   public boolean isSubscribedTo(LiveDataSpecification fullyQualifiedSpec) {
-    _subscriptionLock.lock();
-    try {
-      return _fullyQualifiedSpec2Distributor.containsKey(fullyQualifiedSpec);
-    } finally {
-      _subscriptionLock.unlock();
-    }
+    //NOTE: don't need lock here, map is safe
+    return _fullyQualifiedSpec2Distributor.containsKey(fullyQualifiedSpec);
   }
 
   public boolean isSubscribedTo(Subscription subscription) {
@@ -987,7 +1263,14 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
       return;
     }
       
-    subscription.liveDataReceived(liveDataFields);
+    // One tick in every sample interval carries a timestamp through to the clients
+    final long traceTimestamp = LatencyTracer.getInstance().sample();
+    MarketDataDistributionPipeline pipeline = getDistributionPipeline();
+    if (pipeline != null && pipeline.isRunning()) {
+      pipeline.liveDataReceived(subscription, liveDataFields, traceTimestamp);
+    } else {
+      subscription.liveDataReceived(liveDataFields, traceTimestamp);
+    }
   }
 
   public Set<String> getActiveDistributionSpecs() {
@@ -1055,25 +1338,16 @@ public abstract class AbstractLiveDataServer implements Lifecycle {
   
   public Map<LiveDataSpecification, MarketDataDistributor> getMarketDataDistributors(Collection<LiveDataSpecification> fullyQualifiedSpecs) {
     //NOTE: this is not much (if any) faster here, but for subclasses it can be 
-    _subscriptionLock.lock();
-    try {
-      HashMap<LiveDataSpecification, MarketDataDistributor> hashMap = new HashMap<LiveDataSpecification, MarketDataDistributor>();
-      for (LiveDataSpecification liveDataSpecification : fullyQualifiedSpecs) {
-        hashMap.put(liveDataSpecification, _fullyQualifiedSpec2Distributor.get(liveDataSpecification));
-      }
-      return hashMap;
-    } finally {
-      _subscriptionLock.unlock();
+    HashMap<LiveDataSpecification, MarketDataDistributor> hashMap = new HashMap<LiveDataSpecification, MarketDataDistributor>();
+    for (LiveDataSpecification liveDataSpecification : fullyQualifiedSpecs) {
+      hashMap.put(liveDataSpecification, _fullyQualifiedSpec2Distributor.get(liveDataSpecification));
     }
+    return hashMap;
   }
   
   public MarketDataDistributor getMarketDataDistributor(LiveDataSpecification fullyQualifiedSpec) {
-    _subscriptionLock.lock();
-    try {
-      return _fullyQualifiedSpec2Distributor.get(fullyQualifiedSpec);
-    } finally {
-      _subscriptionLock.unlock();
-    }
+    //NOTE: don't need lock here, map is safe
+    return _fullyQualifiedSpec2Distributor.get(fullyQualifiedSpec);
   }
   
   /**
@@ -138,6 +138,54 @@ public class LiveDataServerMBean {
     }
   }
 
+  @ManagedAttribute(description = "The number of ticks waiting to be normalized by the distribution pipeline, or -1 if there is none.")
+  public int getDistributionNormalizationQueueDepth() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    return (pipeline != null) ? pipeline.getNormalizationQueueDepth() : -1;
+  }
+
+  @ManagedAttribute(description = "The number of distributors with an update waiting to be sent by the distribution pipeline, or -1 if there is none.")
+  public int getDistributionSendQueueDepth() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    return (pipeline != null) ? pipeline.getSendQueueDepth() : -1;
+  }
+
+  @ManagedAttribute(description = "The number of ticks merged into a tick waiting to be normalized because the distribution pipeline was full.")
+  public long getDistributionTicksConflated() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    return (pipeline != null) ? pipeline.getTicksConflated() : 0;
+  }
+
+  @ManagedAttribute(description = "The number of updates merged into an update already waiting to be sent.")
+  public long getDistributionUpdatesConflated() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    return (pipeline != null) ? pipeline.getUpdatesConflated() : 0;
+  }
+
+  @ManagedAttribute(description = "Latency statistics, in nanoseconds, of each stage of the distribution pipeline.")
+  public String[] getDistributionLatencies() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    if (pipeline == null) {
+      return new String[0];
+    }
+    return new String[] {
+      "Normalization wait " + pipeline.getNormalizationWaitLatency(),
+      "Normalization " + pipeline.getNormalizationLatency(),
+      "Send wait " + pipeline.getSendWaitLatency(),
+      "Send " + pipeline.getSendLatency() };
+  }
+
+  @ManagedOperation(description = "Resets the latency statistics of the distribution pipeline.")
+  public void resetDistributionLatencies() {
+    MarketDataDistributionPipeline pipeline = getServer().getDistributionPipeline();
+    if (pipeline != null) {
+      pipeline.getNormalizationWaitLatency().reset();
+      pipeline.getNormalizationLatency().reset();
+      pipeline.getSendWaitLatency().reset();
+      pipeline.getSendLatency().reset();
+    }
+  }
+
   @ManagedOperation(description = "Subscribes to market data. The subscription will be non-persistent."
       + " If the server already subscribes to the given market data, this method is a "
       + " no-op. Returns the name of the JMS topic market data will be published on.")
@@ -0,0 +1,482 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
+
+import com.opengamma.livedata.LiveDataValueUpdateBean;
+import com.opengamma.livedata.server.distribution.MarketDataDistributor;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+import com.opengamma.util.monitor.LatencyHistogram;
+import com.opengamma.util.monitor.LatencyTracer;
+
+/**
+ * Moves the distribution of live data off the thread delivering it from the underlying market data API.
+ * <p>
+ * Distribution runs in two stages, each spread over a number of shards with a single worker thread each:
+ * <ul>
+ * <li>normalization, which updates the field histories and last known values, is sharded by subscription;
+ * <li>sending to the {@link com.opengamma.livedata.server.distribution.MarketDataSender}s is sharded by distributor.
+ * </ul>
+ * Every update for a topic passes through the same shards in turn, so the distribution order for each topic is kept,
+ * while a slow sender only holds up the distributors that share its shard. While an update is waiting to be sent, any
+ * later update to the same distributor is merged into it field by field rather than queued, so a slow sender receives
+ * the latest values rather than a growing backlog. Normalization is conflated in the same way once a shard has its full
+ * capacity queued: ticks for a subscription are merged into a single pending tick, so nothing is dropped and the queue
+ * holds at most one extra tick per subscription.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MarketDataDistributionPipeline implements Lifecycle {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(MarketDataDistributionPipeline.class);
+
+  /**
+   * The default number of shards in each stage.
+   */
+  public static final int DEFAULT_SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+  /**
+   * The default number of ticks each normalization shard can queue.
+   */
+  public static final int DEFAULT_CAPACITY = 65536;
+
+  /**
+   * A single-threaded worker with a lock-free queue of tasks.
+   */
+  private static final class Shard implements Runnable {
+
+    private final String _name;
+    private final Queue<Runnable> _queue = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger _depth = new AtomicInteger();
+    private volatile Thread _thread;
+    private volatile boolean _running;
+
+    private Shard(final String name) {
+      _name = name;
+    }
+
+    private boolean offer(final Runnable task, final int capacity) {
+      if (_depth.get() >= capacity) {
+        return false;
+      }
+      _queue.add(task);
+      // The depth can briefly go negative when the worker takes a task before its producer has counted it
+      if (_depth.getAndIncrement() <= 0) {
+        LockSupport.unpark(_thread);
+      }
+      return true;
+    }
+
+    private int getDepth() {
+      return Math.max(_depth.get(), 0);
+    }
+
+    private void start() {
+      _running = true;
+      final Thread thread = new Thread(this, _name);
+      thread.setDaemon(true);
+      _thread = thread;
+      thread.start();
+    }
+
+    private void stop() {
+      _running = false;
+      LockSupport.unpark(_thread);
+    }
+
+    @Override
+    public void run() {
+      while (_running) {
+        final Runnable task = _queue.poll();
+        if (task == null) {
+          // Woken by the producer that makes the queue non-empty, or by stop
+          LockSupport.park(this);
+          continue;
+        }
+        _depth.decrementAndGet();
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          s_logger.error("Error in " + _name, e);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Merges the fields of two messages, fields in the later message replacing those of the same name in the earlier.
+   *
+   * @param earlier  the earlier message, not null
+   * @param later  the later message, not null
+   * @return the merged message, not null
+   */
+  private static FudgeMsg merge(final FudgeMsg earlier, final FudgeMsg later) {
+    final Map<String, FudgeField> fields = new LinkedHashMap<String, FudgeField>();
+    for (FudgeField field : earlier) {
+      fields.put(field.getName(), field);
+    }
+    for (FudgeField field : later) {
+      fields.put(field.getName(), field);
+    }
+    final MutableFudgeMsg merged = OpenGammaFudgeContext.getInstance().newMessage();
+    for (FudgeField field : fields.values()) {
+      merged.add(field);
+    }
+    return merged;
+  }
+
+  /**
+   * The tick waiting to be normalized for a subscription whose shard was full when it arrived.
+   */
+  private final class PendingTick implements Runnable {
+
+    private final Subscription _subscription;
+    private final long _queuedNanos;
+    private FudgeMsg _fields;
+    private long _traceTimestamp;
+
+    private PendingTick(final Subscription subscription, final FudgeMsg fields, final long traceTimestamp) {
+      _subscription = subscription;
+      _fields = fields;
+      _traceTimestamp = traceTimestamp;
+      _queuedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return false if the tick has already been taken for normalization
+     */
+    private synchronized boolean add(final FudgeMsg fields, final long traceTimestamp) {
+      if (_fields == null) {
+        return false;
+      }
+      _fields = merge(_fields, fields);
+      // Keep tracing the earliest sampled tick merged into the update
+      if (_traceTimestamp == LatencyTracer.NOT_TRACED) {
+        _traceTimestamp = traceTimestamp;
+      }
+      return true;
+    }
+
+    @Override
+    public void run() {
+      final FudgeMsg fields;
+      final long traceTimestamp;
+      synchronized (this) {
+        fields = _fields;
+        traceTimestamp = _traceTimestamp;
+        _fields = null;
+      }
+      _pendingTicks.remove(_subscription, this);
+      normalize(_subscription, fields, traceTimestamp, _queuedNanos);
+    }
+
+  }
+
+  /**
+   * The update waiting to be sent for a distributor.
+   */
+  private final class PendingSend implements Runnable {
+
+    private final MarketDataDistributor _distributor;
+    private LiveDataValueUpdateBean _data;
+    private long _queuedNanos;
+
+    private PendingSend(final MarketDataDistributor distributor) {
+      _distributor = distributor;
+    }
+
+    /**
+     * @return true if the slot was empty and must be queued
+     */
+    private synchronized boolean add(final LiveDataValueUpdateBean data) {
+      if (_data == null) {
+        _data = data;
+        _queuedNanos = System.nanoTime();
+        return true;
+      }
+      final FudgeMsg merged = merge(_data.getFields(), data.getFields());
+      // Keep tracing the earliest sampled tick merged into the update
+      final long traceTimestamp = (_data.getTraceTimestamp() != LatencyTracer.NOT_TRACED) ? _data.getTraceTimestamp() : data.getTraceTimestamp();
+      _data = new LiveDataValueUpdateBean(data.getSequenceNumber(), data.getSpecification(), merged, traceTimestamp);
+      return false;
+    }
+
+    @Override
+    public void run() {
+      final LiveDataValueUpdateBean data;
+      final long queuedNanos;
+      synchronized (this) {
+        data = _data;
+        queuedNanos = _queuedNanos;
+        _data = null;
+      }
+      _pendingSends.remove(_distributor, this);
+      final long start = System.nanoTime();
+      _distributor.sendLiveData(data);
+      final long end = System.nanoTime();
+      _sendWaitLatency.record(start - queuedNanos);
+      _sendLatency.record(end - start);
+    }
+
+  }
+
+  private final Shard[] _normalizationShards;
+  private final Shard[] _sendShards;
+  private final int _capacity;
+  private final ConcurrentMap<Subscription, PendingTick> _pendingTicks = new ConcurrentHashMap<Subscription, PendingTick>();
+  private final ConcurrentMap<MarketDataDistributor, PendingSend> _pendingSends = new ConcurrentHashMap<MarketDataDistributor, PendingSend>();
+  private volatile boolean _running;
+
+  private final AtomicLong _ticksConflated = new AtomicLong();
+  private final AtomicLong _updatesConflated = new AtomicLong();
+  private final LatencyHistogram _normalizationWaitLatency = new LatencyHistogram();
+  private final LatencyHistogram _normalizationLatency = new LatencyHistogram();
+  private final LatencyHistogram _sendWaitLatency = new LatencyHistogram();
+  private final LatencyHistogram _sendLatency = new LatencyHistogram();
+
+  /**
+   * Creates a pipeline with the default number of shards and capacity.
+   */
+  public MarketDataDistributionPipeline() {
+    this(DEFAULT_SHARDS, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param shards  the number of worker threads in each stage, positive
+   * @param capacity  the number of ticks each normalization worker can queue before ticks are conflated, positive
+   */
+  public MarketDataDistributionPipeline(final int shards, final int capacity) {
+    ArgumentChecker.isTrue(shards > 0, "shards must be positive");
+    ArgumentChecker.isTrue(capacity > 0, "capacity must be positive");
+    _capacity = capacity;
+    _normalizationShards = new Shard[shards];
+    _sendShards = new Shard[shards];
+    for (int i = 0; i < shards; i++) {
+      _normalizationShards[i] = new Shard("LiveDataNormalization-" + i);
+      _sendShards[i] = new Shard("LiveDataSend-" + i);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  private static Shard shard(final Shard[] shards, final Object key) {
+    final int hash = key.hashCode();
+    return shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+  }
+
+  /**
+   * Queues live data for distribution.
+   *
+   * @param subscription  the subscription the data is for, not null
+   * @param liveDataFields  the unnormalized market data, not null
+   * @return true if the data was queued as a tick of its own, false if it was merged into a pending tick
+   */
+  public boolean liveDataReceived(final Subscription subscription, final FudgeMsg liveDataFields) {
+    return liveDataReceived(subscription, liveDataFields, LatencyTracer.NOT_TRACED);
+  }
+
+  /**
+   * Queues live data for distribution.
+   *
+   * @param subscription  the subscription the data is for, not null
+   * @param liveDataFields  the unnormalized market data, not null
+   * @param traceTimestamp  the timestamp from {@link LatencyTracer#sample} if the tick is being traced
+   * @return true if the data was queued as a tick of its own, false if it was merged into a pending tick
+   */
+  public boolean liveDataReceived(final Subscription subscription, final FudgeMsg liveDataFields, final long traceTimestamp) {
+    final Shard shard = shard(_normalizationShards, subscription.getSecurityUniqueId());
+    while (true) {
+      // Once a subscription has a pending tick, later ticks must merge into it to stay in order
+      final PendingTick pending = _pendingTicks.get(subscription);
+      if (pending != null) {
+        if (pending.add(liveDataFields, traceTimestamp)) {
+          _ticksConflated.incrementAndGet();
+          return false;
+        }
+        // Already taken by the worker; anything queued now runs after it
+        _pendingTicks.remove(subscription, pending);
+      }
+      final long queuedNanos = System.nanoTime();
+      final boolean queued = shard.offer(new Runnable() {
+        @Override
+        public void run() {
+          normalize(subscription, liveDataFields, traceTimestamp, queuedNanos);
+        }
+      }, _capacity);
+      if (queued) {
+        return true;
+      }
+      final PendingTick fresh = new PendingTick(subscription, liveDataFields, traceTimestamp);
+      if (_pendingTicks.putIfAbsent(subscription, fresh) == null) {
+        if (_ticksConflated.get() == 0) {
+          s_logger.warn("Normalization queue full, conflating ticks for {}", subscription.getSecurityUniqueId());
+        }
+        shard.offer(fresh, Integer.MAX_VALUE);
+        return false;
+      }
+      // Another thread has just started conflating this subscription; merge into its tick
+    }
+  }
+
+  private void normalize(final Subscription subscription, final FudgeMsg liveDataFields, final long traceTimestamp, final long queuedNanos) {
+    final long start = System.nanoTime();
+    subscription.liveDataReceived(liveDataFields, traceTimestamp, this);
+    final long end = System.nanoTime();
+    _normalizationWaitLatency.record(start - queuedNanos);
+    _normalizationLatency.record(end - start);
+  }
+
+  /**
+   * Queues a normalized update to be sent, merging it into any update already waiting for the distributor.
+   *
+   * @param distributor  the distributor, not null
+   * @param data  the normalized update, not null
+   */
+  /*package*/ void send(final MarketDataDistributor distributor, final LiveDataValueUpdateBean data) {
+    PendingSend pending = _pendingSends.get(distributor);
+    if (pending == null) {
+      pending = new PendingSend(distributor);
+      final PendingSend existing = _pendingSends.putIfAbsent(distributor, pending);
+      if (existing != null) {
+        pending = existing;
+      }
+    }
+    if (pending.add(data)) {
+      shard(_sendShards, distributor.getDistributionSpec()).offer(pending, Integer.MAX_VALUE);
+    } else {
+      _updatesConflated.incrementAndGet();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public synchronized void start() {
+    if (!_running) {
+      for (int i = 0; i < _normalizationShards.length; i++) {
+        _normalizationShards[i].start();
+        _sendShards[i].start();
+      }
+      _running = true;
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (_running) {
+      _running = false;
+      for (int i = 0; i < _normalizationShards.length; i++) {
+        _normalizationShards[i].stop();
+        _sendShards[i].stop();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return _running;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of ticks waiting to be normalized.
+   *
+   * @return the queue depth
+   */
+  public int getNormalizationQueueDepth() {
+    int depth = 0;
+    for (Shard shard : _normalizationShards) {
+      depth += shard.getDepth();
+    }
+    return depth;
+  }
+
+  /**
+   * Gets the number of distributors with an update waiting to be sent.
+   *
+   * @return the queue depth
+   */
+  public int getSendQueueDepth() {
+    int depth = 0;
+    for (Shard shard : _sendShards) {
+      depth += shard.getDepth();
+    }
+    return depth;
+  }
+
+  /**
+   * Gets the number of ticks merged into a tick already waiting to be normalized because a normalization queue was full.
+   *
+   * @return the number of conflated ticks
+   */
+  public long getTicksConflated() {
+    return _ticksConflated.get();
+  }
+
+  /**
+   * Gets the number of updates merged into an update already waiting to be sent.
+   *
+   * @return the number of conflated updates
+   */
+  public long getUpdatesConflated() {
+    return _updatesConflated.get();
+  }
+
+  /**
+   * Gets the time ticks spend queued before normalization, in nanoseconds.
+   *
+   * @return the latency histogram, not null
+   */
+  public LatencyHistogram getNormalizationWaitLatency() {
+    return _normalizationWaitLatency;
+  }
+
+  /**
+   * Gets the time taken to normalize a tick for all of its distributors, in nanoseconds.
+   *
+   * @return the latency histogram, not null
+   */
+  public LatencyHistogram getNormalizationLatency() {
+    return _normalizationLatency;
+  }
+
+  /**
+   * Gets the time updates spend queued before sending, in nanoseconds.
+   *
+   * @return the latency histogram, not null
+   */
+  public LatencyHistogram getSendWaitLatency() {
+    return _sendWaitLatency;
+  }
+
+  /**
+   * Gets the time taken to send an update to all of a distributor's senders, in nanoseconds.
+   *
+   * @return the latency histogram, not null
+   */
+  public LatencyHistogram getSendLatency() {
+    return _sendLatency;
+  }
+
+}
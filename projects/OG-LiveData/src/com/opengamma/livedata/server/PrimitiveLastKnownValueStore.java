@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.UnmodifiableFudgeField;
+import org.fudgemsg.wire.types.FudgeWireType;
+
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Implementation of {@link LastKnownValueStore} that holds {@code Double} fields as primitives.
+ * <p>
+ * Field names are interned into a {@link FieldNames dictionary} shared by the stores of a provider, so each store
+ * holds only an array of field keys and an array of values, rather than a map of boxed fields. Any field other than
+ * a named double without an ordinal is held as it is alongside. Unnamed fields are keyed by their ordinal. Once the
+ * dictionary is full, fields with names it doesn't hold are kept in a map in each store instead.
+ * <p>
+ * Updates are made under a lock and reads are lock-free: a reader builds the message straight from the arrays and
+ * retries if an update was made while it was reading, as indicated by a sequence number that is odd while an update
+ * is in progress.
+ */
+public class PrimitiveLastKnownValueStore implements LastKnownValueStore {
+
+  /**
+   * Key used for fields with neither a name nor an ordinal.
+   */
+  private static final int NO_NAME = -1;
+  /**
+   * Key from which unnamed fields with an ordinal count down.
+   */
+  private static final int ORDINAL_BASE = -2;
+
+  /**
+   * A dictionary of field names shared by a number of stores. The dictionary only grows; it is released with the
+   * stores using it.
+   */
+  public static final class FieldNames {
+
+    /**
+     * The default maximum number of names held.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final ConcurrentMap<String, Integer> _indices = new ConcurrentHashMap<String, Integer>();
+    private final int _maxSize;
+    private volatile String[] _names = new String[0];
+
+    /**
+     * Creates a dictionary holding up to the default number of names.
+     */
+    public FieldNames() {
+      this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a dictionary.
+     *
+     * @param maxSize  the maximum number of names held, not negative
+     */
+    public FieldNames(final int maxSize) {
+      ArgumentChecker.notNegative(maxSize, "maxSize");
+      _maxSize = maxSize;
+    }
+
+    /**
+     * Gets the index of a name, adding it if there is room.
+     *
+     * @param name  the field name, not null
+     * @return the index, -1 if the dictionary is full and doesn't hold the name
+     */
+    private int intern(final String name) {
+      final Integer index = _indices.get(name);
+      if (index != null) {
+        return index;
+      }
+      synchronized (this) {
+        Integer existing = _indices.get(name);
+        if (existing == null) {
+          if (_names.length >= _maxSize) {
+            return -1;
+          }
+          final String[] names = Arrays.copyOf(_names, _names.length + 1);
+          existing = _names.length;
+          names[existing] = name;
+          _names = names;
+          _indices.put(name, existing);
+        }
+        return existing;
+      }
+    }
+
+    private String getName(final int index) {
+      return _names[index];
+    }
+
+    /**
+     * Gets the number of names held.
+     *
+     * @return the size
+     */
+    public int size() {
+      return _names.length;
+    }
+
+  }
+
+  /**
+   * The fields held, replaced whenever a new field is added.
+   */
+  private static final class Layout {
+
+    private static final Layout EMPTY = new Layout(new int[0], new AtomicLongArray(0), null);
+
+    private final int[] _fieldNames;
+    private final AtomicLongArray _values;
+    private final AtomicReferenceArray<FudgeField> _others;
+
+    private Layout(final int[] fieldNames, final AtomicLongArray values, final AtomicReferenceArray<FudgeField> others) {
+      _fieldNames = fieldNames;
+      _values = values;
+      _others = others;
+    }
+
+    private int indexOf(final int fieldName) {
+      for (int i = 0; i < _fieldNames.length; i++) {
+        if (_fieldNames[i] == fieldName) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private Layout withField(final int fieldName) {
+      final int size = _fieldNames.length;
+      final int[] fieldNames = Arrays.copyOf(_fieldNames, size + 1);
+      fieldNames[size] = fieldName;
+      final AtomicLongArray values = new AtomicLongArray(size + 1);
+      for (int i = 0; i < size; i++) {
+        values.set(i, _values.get(i));
+      }
+      return new Layout(fieldNames, values, (_others != null) ? copyOthers(size + 1) : null);
+    }
+
+    private Layout withOthers() {
+      return new Layout(_fieldNames, _values, copyOthers(_fieldNames.length));
+    }
+
+    private AtomicReferenceArray<FudgeField> copyOthers(final int size) {
+      final AtomicReferenceArray<FudgeField> others = new AtomicReferenceArray<FudgeField>(size);
+      if (_others != null) {
+        for (int i = 0; i < _others.length(); i++) {
+          others.set(i, _others.get(i));
+        }
+      }
+      return others;
+    }
+
+  }
+
+  private final FieldNames _fieldNames;
+  private volatile Layout _layout = Layout.EMPTY;
+  /**
+   * Fields whose names didn't fit in the dictionary, replaced whenever one is added. Null if there are none.
+   */
+  private volatile Map<String, FudgeField> _overflow;
+  private volatile int _sequence;
+
+  /**
+   * Creates a store with a dictionary of its own.
+   */
+  public PrimitiveLastKnownValueStore() {
+    this(new FieldNames());
+  }
+
+  /**
+   * Creates a store.
+   *
+   * @param fieldNames  the dictionary of field names, shared with other stores, not null
+   */
+  public PrimitiveLastKnownValueStore(final FieldNames fieldNames) {
+    ArgumentChecker.notNull(fieldNames, "fieldNames");
+    _fieldNames = fieldNames;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the key of a field's slot.
+   *
+   * @param field  the field, not null
+   * @return the key, or null if the field must be held in the overflow map
+   */
+  private Integer getKey(final FudgeField field) {
+    if (field.getName() == null) {
+      return (field.getOrdinal() == null) ? NO_NAME : ORDINAL_BASE - (field.getOrdinal() & 0xFFFF);
+    }
+    final int index = _fieldNames.intern(field.getName());
+    return (index >= 0) ? index : null;
+  }
+
+  private static boolean isPrimitive(final FudgeField field) {
+    return (field.getName() != null) && (field.getOrdinal() == null) && (field.getType().getTypeId() == FudgeWireType.DOUBLE_TYPE_ID)
+        && (field.getValue() instanceof Double);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public synchronized void updateFields(FudgeMsg fieldValues) {
+    _sequence++;
+    try {
+      Layout layout = _layout;
+      for (FudgeField field : fieldValues) {
+        final Integer key = getKey(field);
+        if (key == null) {
+          final Map<String, FudgeField> overflow = (_overflow != null) ? new LinkedHashMap<String, FudgeField>(_overflow) : new LinkedHashMap<String, FudgeField>();
+          overflow.put(field.getName(), UnmodifiableFudgeField.of(field));
+          _overflow = overflow;
+          continue;
+        }
+        final int fieldName = key;
+        int slot = layout.indexOf(fieldName);
+        if (slot < 0) {
+          layout = layout.withField(fieldName);
+          _layout = layout;
+          slot = layout._fieldNames.length - 1;
+        }
+        if (isPrimitive(field)) {
+          layout._values.set(slot, Double.doubleToRawLongBits((Double) field.getValue()));
+          if (layout._others != null) {
+            layout._others.set(slot, null);
+          }
+        } else {
+          if (layout._others == null) {
+            layout = layout.withOthers();
+            _layout = layout;
+          }
+          layout._others.set(slot, UnmodifiableFudgeField.of(field));
+        }
+      }
+    } finally {
+      _sequence++;
+    }
+  }
+
+  @Override
+  public FudgeMsg getFields() {
+    while (true) {
+      final int sequence = _sequence;
+      if ((sequence & 1) == 0) {
+        final Layout layout = _layout;
+        final Map<String, FudgeField> overflow = _overflow;
+        final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+        for (int i = 0; i < layout._fieldNames.length; i++) {
+          final FudgeField other = (layout._others != null) ? layout._others.get(i) : null;
+          if (other != null) {
+            msg.add(other);
+          } else {
+            msg.add(_fieldNames.getName(layout._fieldNames[i]), null, FudgeWireType.DOUBLE, Double.longBitsToDouble(layout._values.get(i)));
+          }
+        }
+        if (overflow != null) {
+          for (FudgeField field : overflow.values()) {
+            msg.add(field);
+          }
+        }
+        if (_sequence == sequence) {
+          return msg;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return (_layout._fieldNames.length == 0) && (_overflow == null);
+  }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.tuple.Pair;
+
+/**
+ * Provides {@link PrimitiveLastKnownValueStore}s, for servers holding the last known values of many securities in
+ * memory.
+ * <p>
+ * The stores are kept for the lifetime of the provider, so a security subscribed to again gets the store holding its
+ * last known values, and {@link #getAllIdentifiers} and {@link #isAvailable} report what is held. The stores share a
+ * dictionary of field names which is released with the provider.
+ */
+public class PrimitiveLastKnownValueStoreProvider implements LastKnownValueStoreProvider {
+
+  private final PrimitiveLastKnownValueStore.FieldNames _fieldNames;
+  private final ConcurrentMap<Pair<ExternalId, String>, PrimitiveLastKnownValueStore> _stores = new ConcurrentHashMap<Pair<ExternalId, String>, PrimitiveLastKnownValueStore>();
+
+  /**
+   * Creates a provider whose stores share a dictionary of the default size.
+   */
+  public PrimitiveLastKnownValueStoreProvider() {
+    this(PrimitiveLastKnownValueStore.FieldNames.DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a provider.
+   *
+   * @param maxFieldNames  the number of distinct field names held in the shared dictionary, not negative. Fields with
+   *  other names are held in a map in each store.
+   */
+  public PrimitiveLastKnownValueStoreProvider(final int maxFieldNames) {
+    _fieldNames = new PrimitiveLastKnownValueStore.FieldNames(maxFieldNames);
+  }
+
+  @Override
+  public LastKnownValueStore newInstance(ExternalId security, String normalizationRuleSetId) {
+    ArgumentChecker.notNull(security, "security");
+    final Pair<ExternalId, String> key = Pair.of(security, normalizationRuleSetId);
+    PrimitiveLastKnownValueStore store = _stores.get(key);
+    if (store == null) {
+      final PrimitiveLastKnownValueStore fresh = new PrimitiveLastKnownValueStore(_fieldNames);
+      store = _stores.putIfAbsent(key, fresh);
+      if (store == null) {
+        store = fresh;
+      }
+    }
+    return store;
+  }
+
+  @Override
+  public Set<String> getAllIdentifiers(String identifierScheme) {
+    final Set<String> identifiers = new HashSet<String>();
+    for (Pair<ExternalId, String> key : _stores.keySet()) {
+      if (key.getFirst().getScheme().getName().equals(identifierScheme)) {
+        identifiers.add(key.getFirst().getValue());
+      }
+    }
+    return identifiers;
+  }
+
+  @Override
+  public boolean isAvailable(ExternalId security, String normalizationRuleSetId) {
+    final PrimitiveLastKnownValueStore store = _stores.get(Pair.of(security, normalizationRuleSetId));
+    return (store != null) && !store.isEmpty();
+  }
+
+}
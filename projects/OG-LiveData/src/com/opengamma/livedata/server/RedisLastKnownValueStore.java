@@ -5,6 +5,7 @@
  */
 package com.opengamma.livedata.server;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.fudgemsg.FudgeField;
@@ -27,17 +28,34 @@ import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
  * In the case where this is not write-through, it primarily just acts
  * as a local cache which can be asynchronously updated from Redis
  * to retrieve the current values.
+ * <p>
+ * When written through with a {@link RedisLastKnownValueWriter}, updates are
+ * written to Redis behind the caller rather than synchronously.
+ * <p>
+ * A store created by a {@link RedisLastKnownValueStoreProvider} follows the provider's
+ * connection; while the provider is stopped, updates are only held in memory.
  * 
  */
 public class RedisLastKnownValueStore implements LastKnownValueStore {
   private static final Logger s_logger = LoggerFactory.getLogger(RedisLastKnownValueStore.class);
   private final FieldHistoryStore _inMemoryStore = new FieldHistoryStore();
-  private final JedisPool _jedisPool;
+  private volatile JedisPool _jedisPool;
   //private final byte[] _jedisKey;
   private String _jedisKey;
   private final boolean _writeThrough;
+  private volatile RedisLastKnownValueWriter _writer;
   
   public RedisLastKnownValueStore(JedisPool jedisPool, String jedisKey, boolean writeThrough) {
+    this(jedisPool, jedisKey, writeThrough, null);
+  }
+  
+  /**
+   * @param jedisPool  the pool of connections to Redis, not null
+   * @param jedisKey  the key of the hash holding the values, not null
+   * @param writeThrough  whether updates should be written to Redis
+   * @param writer  the writer to write updates behind the caller, null to write them synchronously
+   */
+  public RedisLastKnownValueStore(JedisPool jedisPool, String jedisKey, boolean writeThrough, RedisLastKnownValueWriter writer) {
     ArgumentChecker.notNull(jedisPool, "Jedis Pool");
     ArgumentChecker.notNull(jedisKey, "Jedis key");
     _jedisPool = jedisPool;
@@ -50,6 +68,7 @@ public class RedisLastKnownValueStore implements LastKnownValueStore {
     */
     _jedisKey = jedisKey;
     _writeThrough = writeThrough;
+    _writer = writer;
     updateFromRedis(true);
   }
 
@@ -63,7 +82,7 @@ public class RedisLastKnownValueStore implements LastKnownValueStore {
 
   /**
    * Gets the jedisPool.
-   * @return the jedisPool
+   * @return the jedisPool, null if disconnected
    */
   public JedisPool getJedisPool() {
     return _jedisPool;
@@ -76,6 +95,24 @@ public class RedisLastKnownValueStore implements LastKnownValueStore {
   public boolean isWriteThrough() {
     return _writeThrough;
   }
+
+  /**
+   * Gets the writer used to write updates behind the caller.
+   * @return the writer, null if updates are written synchronously
+   */
+  public RedisLastKnownValueWriter getWriter() {
+    return _writer;
+  }
+  
+  /**
+   * Redirects the store to a new connection to Redis.
+   * @param jedisPool  the pool of connections to Redis, null to disconnect
+   * @param writer  the writer to write updates behind the caller, null to write them synchronously
+   */
+  /* package */ synchronized void setConnection(JedisPool jedisPool, RedisLastKnownValueWriter writer) {
+    _jedisPool = jedisPool;
+    _writer = writer;
+  }
   
   // TODO kirk 2012-07-16 -- Actually implement asynchronous reading from Redis
   
@@ -84,44 +121,52 @@ public class RedisLastKnownValueStore implements LastKnownValueStore {
 
   @Override
   public synchronized void updateFields(FudgeMsg fieldValues) {
+    if (isWriteThrough() && (getJedisPool() != null)) {
+      Map<String, String> redisFields = toRedisFields(fieldValues);
+      if (getWriter() != null) {
+        getWriter().write(getJedisKey(), redisFields);
+      } else if (!redisFields.isEmpty()) {
+        Jedis jedis = getJedisPool().getResource();
+        try {
+          jedis.hmset(getJedisKey(), redisFields);
+        } catch (JedisDataException jde) {
+          s_logger.warn("Unable to write fields to Redis : {} : {}", _jedisKey, jde.getMessage());
+        } catch (Exception e) {
+          s_logger.error("Unable to write fields to Redis : " + _jedisKey, e);
+        } finally {
+          getJedisPool().returnResource(jedis);
+        }
+      }
+    }
+    _inMemoryStore.liveDataReceived(fieldValues);
+  }
+
+  private Map<String, String> toRedisFields(FudgeMsg fieldValues) {
     // TODO kirk 2012-07-16 -- This is really only good enough as a proof of concept.
     // Ideally you'd want to handle more than just double-as-string ('cos really? That totally lame),
     // but I just want to get this working.
-    if (isWriteThrough()) {
-      Jedis jedis = getJedisPool().getResource();
-      try {
-        for (FudgeField field : fieldValues.getAllFields()) {
-          Double doubleValue = null;
-          
-          if (field.getType().getTypeId() == FudgeWireType.DOUBLE_TYPE_ID) {
-            doubleValue = (Double) field.getValue();
-          } else if (field.getType().getTypeId() == FudgeWireType.STRING_TYPE_ID) {
-            // Try a conversion to double. This can happen if the chunker leaves
-            // a type in raw wire format, and it's a text-based format.
-            try {
-              doubleValue = Double.parseDouble((String) field.getValue());
-            } catch (Exception e) {
-              // Couldn't be parsed.
-            }
-          }
-          if (doubleValue == null) {
-            s_logger.info("Redis encoding for {} can only handle doubles, can't handle {}", getJedisKey(), field);
-            continue;
-          }
-          // Yep, this is ugly as hell.
-          try {
-            jedis.hset(getJedisKey(), field.getName(), doubleValue.toString());
-          } catch (JedisDataException jde) {
-            s_logger.warn("Unable to write stuff yo.");
-          }
+    Map<String, String> redisFields = new HashMap<String, String>();
+    for (FudgeField field : fieldValues.getAllFields()) {
+      Double doubleValue = null;
+      
+      if (field.getType().getTypeId() == FudgeWireType.DOUBLE_TYPE_ID) {
+        doubleValue = (Double) field.getValue();
+      } else if (field.getType().getTypeId() == FudgeWireType.STRING_TYPE_ID) {
+        // Try a conversion to double. This can happen if the chunker leaves
+        // a type in raw wire format, and it's a text-based format.
+        try {
+          doubleValue = Double.parseDouble((String) field.getValue());
+        } catch (Exception e) {
+          // Couldn't be parsed.
         }
-      } catch (Exception e) {
-        s_logger.error("Unable to write fields to Redis : " + _jedisKey, e);
-      } finally {
-        getJedisPool().returnResource(jedis);
       }
+      if (doubleValue == null) {
+        s_logger.info("Redis encoding for {} can only handle doubles, can't handle {}", getJedisKey(), field);
+        continue;
+      }
+      redisFields.put(field.getName(), doubleValue.toString());
     }
-    _inMemoryStore.liveDataReceived(fieldValues);
+    return redisFields;
   }
 
   @Override
@@ -141,6 +186,13 @@ public class RedisLastKnownValueStore implements LastKnownValueStore {
    *                    in the case of Redis failures.
    */
   public synchronized void updateFromRedis(boolean failOnError) {
+    if (getJedisPool() == null) {
+      s_logger.warn("Unable to update {} from Redis while disconnected", _jedisKey);
+      if (failOnError) {
+        throw new OpenGammaRuntimeException("Unable to load state for " + _jedisKey + " while disconnected from Redis");
+      }
+      return;
+    }
     _inMemoryStore.clear();
     Jedis jedis = getJedisPool().getResource();
     try {
@@ -5,10 +5,13 @@
  */
 package com.opengamma.livedata.server;
 
+import java.util.Collections;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
@@ -35,17 +38,38 @@ import com.opengamma.id.ExternalId;
  *       If there are multiple live data servers, only one of which is in charge
  *       of updating Redis, set this to false on all but the master updating
  *       version.</dd>
+ *   <dt>writeBehind</dt>
+ *   <dd>Whether writes should be made to Redis by a background thread rather than by the
+ *       thread updating the values, coalescing repeated updates to the same field.
+ *       Defaults to false.</dd>
+ *   <dt>maxStalenessMillis</dt>
+ *   <dd>When writing behind, the longest time an update is held before being written.
+ *       Defaults to {@link RedisLastKnownValueWriter#DEFAULT_MAX_STALENESS_MILLIS}.</dd>
+ *   <dt>maxBacklog</dt>
+ *   <dd>When writing behind, the most keys held waiting to be written, after which
+ *       updates to other keys are dropped.
+ *       Defaults to {@link RedisLastKnownValueWriter#DEFAULT_MAX_BACKLOG}.</dd>
  * </dl>
- * 
+ * <p/>
+ * The connection is made when the provider is started, or when it is first used. Stopping the
+ * provider writes any values still held by the write-behind thread and closes the connection.
+ * Stores already created hold their values in memory only until the provider connects again,
+ * after which they use the new connection.
  */
-public class RedisLastKnownValueStoreProvider implements LastKnownValueStoreProvider {
+public class RedisLastKnownValueStoreProvider implements LastKnownValueStoreProvider, Lifecycle {
   private static final Logger s_logger = LoggerFactory.getLogger(RedisLastKnownValueStoreProvider.class);
   private String _server = "localhost";
   private int _port = 6379;
   private String _globalPrefix = "";
   private boolean _writeThrough = true;
+  private boolean _writeBehind;
+  private long _maxStalenessMillis = RedisLastKnownValueWriter.DEFAULT_MAX_STALENESS_MILLIS;
+  private int _maxBacklog = RedisLastKnownValueWriter.DEFAULT_MAX_BACKLOG;
   private volatile boolean _isInitialized;
   private JedisPool _jedisPool;
+  private RedisLastKnownValueWriter _writer;
+  // The stores created, redirected when the connection changes. Guarded by this.
+  private final Set<RedisLastKnownValueStore> _stores = Collections.newSetFromMap(new WeakHashMap<RedisLastKnownValueStore, Boolean>());
 
   /**
    * Gets the server.
@@ -111,13 +135,76 @@ public class RedisLastKnownValueStoreProvider implements LastKnownValueStoreProv
     _writeThrough = writeThrough;
   }
 
+  /**
+   * Gets the writeBehind.
+   * @return the writeBehind
+   */
+  public boolean isWriteBehind() {
+    return _writeBehind;
+  }
+
+  /**
+   * Sets the writeBehind.
+   * @param writeBehind  the writeBehind
+   */
+  public void setWriteBehind(boolean writeBehind) {
+    _writeBehind = writeBehind;
+  }
+
+  /**
+   * Gets the maxStalenessMillis.
+   * @return the maxStalenessMillis
+   */
+  public long getMaxStalenessMillis() {
+    return _maxStalenessMillis;
+  }
+
+  /**
+   * Sets the maxStalenessMillis.
+   * @param maxStalenessMillis  the maxStalenessMillis
+   */
+  public void setMaxStalenessMillis(long maxStalenessMillis) {
+    _maxStalenessMillis = maxStalenessMillis;
+  }
+
+  /**
+   * Gets the maxBacklog.
+   * @return the maxBacklog
+   */
+  public int getMaxBacklog() {
+    return _maxBacklog;
+  }
+
+  /**
+   * Sets the maxBacklog.
+   * @param maxBacklog  the maxBacklog
+   */
+  public void setMaxBacklog(int maxBacklog) {
+    _maxBacklog = maxBacklog;
+  }
+
+  /**
+   * Gets the writer used when writing behind, which holds its metrics.
+   * @return the writer, null if not writing behind or not yet connected
+   */
+  public RedisLastKnownValueWriter getWriter() {
+    return _writer;
+  }
+
   @Override
   public LastKnownValueStore newInstance(ExternalId security, String normalizationRuleSetId) {
     initIfNecessary();
     String redisKey = generateRedisKey(security, normalizationRuleSetId);
     s_logger.debug("Creating Redis LKV store on {}/{} with key name {}", new Object[] {security, normalizationRuleSetId, redisKey});
     updateIdentifiers(security);
-    RedisLastKnownValueStore store = new RedisLastKnownValueStore(_jedisPool, redisKey, isWriteThrough());
+    RedisLastKnownValueStore store = new RedisLastKnownValueStore(_jedisPool, redisKey, isWriteThrough(), _writer);
+    synchronized (this) {
+      if (store.getJedisPool() != _jedisPool) {
+        // Stopped or restarted while the store was being created
+        store.setConnection(_jedisPool, _writer);
+      }
+      _stores.add(store);
+    }
     return store;
   }
   
@@ -165,12 +252,25 @@ public class RedisLastKnownValueStoreProvider implements LastKnownValueStoreProv
       return;
     }
     synchronized (this) {
+      if (_isInitialized) {
+        return;
+      }
       assert _jedisPool == null;
-      s_logger.info("Connecting to {}:{}. Write-through set to: {}", new Object[] {getServer(), getPort(), _writeThrough});
+      s_logger.info("Connecting to {}:{}. Write-through set to: {}, write-behind set to: {}", new Object[] {getServer(), getPort(), _writeThrough, _writeBehind});
       JedisPoolConfig poolConfig = new JedisPoolConfig();
       //poolConfig.set...
       JedisPool pool = new JedisPool(poolConfig, getServer(), getPort());
       _jedisPool = pool;
+      if (isWriteThrough() && isWriteBehind()) {
+        RedisLastKnownValueWriter writer = new RedisLastKnownValueWriter(pool);
+        writer.setMaxStalenessMillis(getMaxStalenessMillis());
+        writer.setMaxBacklog(getMaxBacklog());
+        writer.start();
+        _writer = writer;
+      }
+      for (RedisLastKnownValueStore store : _stores) {
+        store.setConnection(_jedisPool, _writer);
+      }
       
       _isInitialized = true;
     }
@@ -205,5 +305,43 @@ public class RedisLastKnownValueStoreProvider implements LastKnownValueStoreProv
     _jedisPool.returnResource(jedis);
     return isAvailable;
   }
-  
+
+  //-------------------------------------------------------------------------
+  @Override
+  public void start() {
+    initIfNecessary();
+  }
+
+  /**
+   * Stops the write-behind thread, writing everything it still holds, and closes the connection to Redis.
+   * The provider, and the stores it has created, connect again if it is used or started afterwards.
+   */
+  @Override
+  public synchronized void stop() {
+    if (!_isInitialized) {
+      return;
+    }
+    // Nothing more is written by the stores once they have been disconnected
+    for (RedisLastKnownValueStore store : _stores) {
+      store.setConnection(null, null);
+    }
+    final RedisLastKnownValueWriter writer = _writer;
+    if (writer != null) {
+      writer.stop();
+      if (!writer.flush()) {
+        s_logger.warn("Unable to write {} keys to Redis before disconnecting", writer.getBacklog());
+      }
+    }
+    s_logger.info("Disconnecting from {}:{}", getServer(), getPort());
+    _isInitialized = false;
+    _writer = null;
+    _jedisPool.destroy();
+    _jedisPool = null;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return _isInitialized;
+  }
+
 }
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ * 
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * JMX management of a {@link RedisLastKnownValueStoreProvider} and its write-behind thread.
+ * <p>
+ * The writer metrics are zero while the provider isn't writing behind or hasn't connected yet.
+ */
+@ManagedResource(
+    objectName = "com.opengamma:name=RedisLastKnownValueStoreProvider",
+    description = "This MBean reports on the writing of last known values to Redis.")
+public class RedisLastKnownValueStoreProviderMBean {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(RedisLastKnownValueStoreProviderMBean.class);
+
+  /**
+   * The underlying provider.
+   */
+  private final RedisLastKnownValueStoreProvider _provider;
+
+  /**
+   * Creates an instance.
+   * 
+   * @param provider  the underlying provider, not null
+   */
+  public RedisLastKnownValueStoreProviderMBean(RedisLastKnownValueStoreProvider provider) {
+    ArgumentChecker.notNull(provider, "provider");
+    _provider = provider;
+  }
+
+  //-------------------------------------------------------------------------
+  @ManagedAttribute(description = "Whether the provider is connected to Redis.")
+  public boolean isRunning() {
+    try {
+      return _provider.isRunning();
+    } catch (RuntimeException e) {
+      s_logger.error("isRunning() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "Whether values are written to Redis by a background thread.")
+  public boolean isWriteBehind() {
+    try {
+      return _provider.getWriter() != null;
+    } catch (RuntimeException e) {
+      s_logger.error("isWriteBehind() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of field values written to Redis by the background thread.")
+  public long getFieldsWritten() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getFieldsWritten() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getFieldsWritten() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of field values replaced by later ones before they were written.")
+  public long getFieldsCoalesced() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getFieldsCoalesced() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getFieldsCoalesced() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of field values discarded because the backlog was full.")
+  public long getFieldsDropped() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getFieldsDropped() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getFieldsDropped() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of flushes that wrote anything.")
+  public long getFlushes() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getFlushes() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getFlushes() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of flushes that couldn't write to Redis and kept their values to retry.")
+  public long getFlushFailures() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getFlushFailures() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getFlushFailures() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of writes rejected by Redis.")
+  public long getWriteErrors() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getWriteErrors() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getWriteErrors() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of keys waiting to be written.")
+  public int getBacklog() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.getBacklog() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getBacklog() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedOperation(description = "Writes everything the background thread holds to Redis now.")
+  public boolean flush() {
+    try {
+      final RedisLastKnownValueWriter writer = _provider.getWriter();
+      return (writer != null) ? writer.flush() : true;
+    } catch (RuntimeException e) {
+      s_logger.error("flush() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Writes last known values to Redis behind the threads updating them.
+ * <p>
+ * Updates are held in memory, with later values for a field of a key replacing earlier ones
+ * that haven't been written yet. A background thread writes what is held every
+ * {@link #getMaxStalenessMillis() maximum staleness}, pipelining a batch of keys into each round trip.
+ * <p>
+ * Updating never waits for Redis. If Redis can't be written to, the values are kept to be retried
+ * on the next flush and the failure is counted. New keys arriving while {@link #getMaxBacklog()}
+ * keys are already waiting are dropped and counted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class RedisLastKnownValueWriter implements Lifecycle {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(RedisLastKnownValueWriter.class);
+
+  /**
+   * The default longest time, in milliseconds, an update is held before being written.
+   */
+  public static final long DEFAULT_MAX_STALENESS_MILLIS = 100;
+  /**
+   * The default maximum number of keys held waiting to be written.
+   */
+  public static final int DEFAULT_MAX_BACKLOG = 100000;
+  /**
+   * The default maximum number of keys written in one pipelined round trip.
+   */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+  private final JedisPool _jedisPool;
+  private final Object _flushLock = new Object();
+  private Map<String, Map<String, String>> _pending = new HashMap<String, Map<String, String>>();
+  private volatile long _maxStalenessMillis = DEFAULT_MAX_STALENESS_MILLIS;
+  private volatile int _maxBacklog = DEFAULT_MAX_BACKLOG;
+  private volatile int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  private volatile Thread _thread;
+  private final AtomicLong _fieldsWritten = new AtomicLong();
+  private final AtomicLong _fieldsCoalesced = new AtomicLong();
+  private final AtomicLong _fieldsDropped = new AtomicLong();
+  private final AtomicLong _flushes = new AtomicLong();
+  private final AtomicLong _flushFailures = new AtomicLong();
+  private final AtomicLong _writeErrors = new AtomicLong();
+
+  public RedisLastKnownValueWriter(final JedisPool jedisPool) {
+    ArgumentChecker.notNull(jedisPool, "jedisPool");
+    _jedisPool = jedisPool;
+  }
+
+  //-------------------------------------------------------------------------
+  public JedisPool getJedisPool() {
+    return _jedisPool;
+  }
+
+  public long getMaxStalenessMillis() {
+    return _maxStalenessMillis;
+  }
+
+  public void setMaxStalenessMillis(final long maxStalenessMillis) {
+    ArgumentChecker.isTrue(maxStalenessMillis > 0, "maxStalenessMillis");
+    _maxStalenessMillis = maxStalenessMillis;
+  }
+
+  public int getMaxBacklog() {
+    return _maxBacklog;
+  }
+
+  public void setMaxBacklog(final int maxBacklog) {
+    ArgumentChecker.isTrue(maxBacklog > 0, "maxBacklog");
+    _maxBacklog = maxBacklog;
+  }
+
+  public int getMaxBatchSize() {
+    return _maxBatchSize;
+  }
+
+  public void setMaxBatchSize(final int maxBatchSize) {
+    ArgumentChecker.isTrue(maxBatchSize > 0, "maxBatchSize");
+    _maxBatchSize = maxBatchSize;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Holds field values to be written to a Redis hash.
+   *
+   * @param key  the key of the hash, not null
+   * @param fields  the field values, not null
+   */
+  public void write(final String key, final Map<String, String> fields) {
+    if (fields.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      final Map<String, String> pending = _pending.get(key);
+      if (pending == null) {
+        if (_pending.size() >= _maxBacklog) {
+          _fieldsDropped.addAndGet(fields.size());
+          return;
+        }
+        _pending.put(key, new HashMap<String, String>(fields));
+      } else {
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+          if (pending.put(field.getKey(), field.getValue()) != null) {
+            _fieldsCoalesced.incrementAndGet();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Puts back values that couldn't be written, unless they have been replaced in the meantime.
+   */
+  private synchronized void retry(final List<Map.Entry<String, Map<String, String>>> failed) {
+    for (Map.Entry<String, Map<String, String>> entry : failed) {
+      final Map<String, String> pending = _pending.get(entry.getKey());
+      if (pending == null) {
+        if (_pending.size() >= _maxBacklog) {
+          _fieldsDropped.addAndGet(entry.getValue().size());
+        } else {
+          _pending.put(entry.getKey(), entry.getValue());
+        }
+      } else {
+        for (Map.Entry<String, String> field : entry.getValue().entrySet()) {
+          if (!pending.containsKey(field.getKey())) {
+            pending.put(field.getKey(), field.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes everything currently held to Redis.
+   *
+   * @return true if everything was written, false if some values were kept to be retried
+   */
+  public boolean flush() {
+    synchronized (_flushLock) {
+      final Map<String, Map<String, String>> pending;
+      synchronized (this) {
+        if (_pending.isEmpty()) {
+          return true;
+        }
+        pending = _pending;
+        _pending = new HashMap<String, Map<String, String>>();
+      }
+      _flushes.incrementAndGet();
+      final List<Map.Entry<String, Map<String, String>>> entries = new ArrayList<Map.Entry<String, Map<String, String>>>(pending.entrySet());
+      final int batchSize = _maxBatchSize;
+      for (int i = 0; i < entries.size(); i += batchSize) {
+        final List<Map.Entry<String, Map<String, String>>> batch = entries.subList(i, Math.min(i + batchSize, entries.size()));
+        if (!write(batch)) {
+          _flushFailures.incrementAndGet();
+          retry(entries.subList(i, entries.size()));
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private boolean write(final List<Map.Entry<String, Map<String, String>>> batch) {
+    Jedis jedis = null;
+    try {
+      jedis = _jedisPool.getResource();
+      final Pipeline pipeline = jedis.pipelined();
+      int fields = 0;
+      for (Map.Entry<String, Map<String, String>> entry : batch) {
+        pipeline.hmset(entry.getKey(), entry.getValue());
+        fields += entry.getValue().size();
+      }
+      for (Object result : pipeline.syncAndReturnAll()) {
+        if (result instanceof JedisDataException) {
+          // Rejected by Redis, so retrying won't help
+          s_logger.warn("Unable to write last known values to Redis: {}", ((JedisDataException) result).getMessage());
+          _writeErrors.incrementAndGet();
+        }
+      }
+      _jedisPool.returnResource(jedis);
+      _fieldsWritten.addAndGet(fields);
+      return true;
+    } catch (RuntimeException e) {
+      s_logger.warn("Unable to write {} keys to Redis, will retry: {}", batch.size(), e.getMessage());
+      if (jedis != null) {
+        _jedisPool.returnBrokenResource(jedis);
+      }
+      return false;
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of field values written to Redis.
+   *
+   * @return the number written
+   */
+  public long getFieldsWritten() {
+    return _fieldsWritten.get();
+  }
+
+  /**
+   * Gets the number of field values replaced by later ones before they were written.
+   *
+   * @return the number coalesced
+   */
+  public long getFieldsCoalesced() {
+    return _fieldsCoalesced.get();
+  }
+
+  /**
+   * Gets the number of field values discarded because the backlog was full.
+   *
+   * @return the number dropped
+   */
+  public long getFieldsDropped() {
+    return _fieldsDropped.get();
+  }
+
+  /**
+   * Gets the number of flushes that wrote anything.
+   *
+   * @return the number of flushes
+   */
+  public long getFlushes() {
+    return _flushes.get();
+  }
+
+  /**
+   * Gets the number of flushes that couldn't write to Redis and kept their values to retry.
+   *
+   * @return the number of failed flushes
+   */
+  public long getFlushFailures() {
+    return _flushFailures.get();
+  }
+
+  /**
+   * Gets the number of writes rejected by Redis.
+   *
+   * @return the number of rejected writes
+   */
+  public long getWriteErrors() {
+    return _writeErrors.get();
+  }
+
+  /**
+   * Gets the number of keys waiting to be written.
+   *
+   * @return the backlog
+   */
+  public synchronized int getBacklog() {
+    return _pending.size();
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public synchronized void start() {
+    if (_thread != null) {
+      return;
+    }
+    final Thread thread = new Thread("RedisLastKnownValueWriter") {
+      @Override
+      public void run() {
+        while (_thread == this) {
+          try {
+            Thread.sleep(_maxStalenessMillis);
+          } catch (InterruptedException e) {
+            // Stopping
+          }
+          try {
+            flush();
+          } catch (RuntimeException e) {
+            s_logger.error("Error writing last known values to Redis", e);
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    _thread = thread;
+    thread.start();
+  }
+
+  /**
+   * Stops the background thread, making a last attempt to write everything held.
+   */
+  @Override
+  public void stop() {
+    final Thread thread;
+    synchronized (this) {
+      thread = _thread;
+      _thread = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        s_logger.warn("Interrupted waiting for last known values to be written");
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return _thread != null;
+  }
+
+}
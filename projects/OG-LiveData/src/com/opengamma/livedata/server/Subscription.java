@@ -16,9 +16,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.server.distribution.MarketDataDistributor;
 import com.opengamma.livedata.server.distribution.MarketDataSenderFactory;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * A record of a market data subscription currently active on a server. 
@@ -243,12 +245,39 @@ public class Subscription {
   }
 
   /*package*/ void liveDataReceived(FudgeMsg liveDataFields) {
+    liveDataReceived(liveDataFields, LatencyTracer.NOT_TRACED);
+  }
+
+  /*package*/ void liveDataReceived(FudgeMsg liveDataFields, long traceTimestamp) {
+    _liveDataSerializationLock.lock();
+    try {
+      _history.liveDataReceived(liveDataFields);
+
+      for (MarketDataDistributor distributor : getDistributors()) {
+        distributor.distributeLiveData(liveDataFields, traceTimestamp);
+      }
+    } finally {
+      _liveDataSerializationLock.unlock();
+    }
+  }
+
+  /**
+   * Normalizes live data for each distributor, passing the updates to a pipeline to be sent.
+   * 
+   * @param liveDataFields  the unnormalized market data, not null
+   * @param traceTimestamp  the timestamp from {@link LatencyTracer#sample} if the tick is being traced
+   * @param pipeline  the pipeline to send the updates through, not null
+   */
+  /*package*/ void liveDataReceived(FudgeMsg liveDataFields, long traceTimestamp, MarketDataDistributionPipeline pipeline) {
     _liveDataSerializationLock.lock();
     try {
       _history.liveDataReceived(liveDataFields);
 
       for (MarketDataDistributor distributor : getDistributors()) {
-        distributor.distributeLiveData(liveDataFields);
+        LiveDataValueUpdateBean data = distributor.normalizeLiveData(liveDataFields, traceTimestamp);
+        if (data != null) {
+          pipeline.send(distributor, data);
+        }
       }
     } finally {
       _liveDataSerializationLock.unlock();
@@ -5,6 +5,9 @@
  */
 package com.opengamma.livedata.server.distribution;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 
 import javax.jms.BytesMessage;
@@ -19,12 +22,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jms.core.MessageCreator;
 
+import com.opengamma.livedata.CompactValueUpdateEncoder;
 import com.opengamma.livedata.LiveDataValueUpdateBean;
 import com.opengamma.livedata.LiveDataValueUpdateBeanFudgeBuilder;
 import com.opengamma.livedata.server.DistributionSpecification;
 import com.opengamma.livedata.server.FieldHistoryStore;
 import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.jms.JmsConnector;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * This {@link MarketDataSender} sends market data to JMS.
@@ -32,12 +37,25 @@ import com.opengamma.util.jms.JmsConnector;
  * When the sender loses connection to JMS, it starts building a 
  * cumulative delta of changes. This cumulative delta is published when 
  * the sender reconnects.
+ * <p>
+ * Updates are sent as Fudge messages unless the sender is given a {@link CompactValueUpdateEncoder},
+ * in which case they are sent as compact frames. {@code JmsLiveDataClient} reads either.
+ * <p>
+ * If the sender is also given an executor, compact frames are sent from it rather than the thread
+ * distributing the update. Updates that arrive while a frame is waiting to be sent, or being sent, go in
+ * the next frame together, up to {@link #MAX_BATCH_SIZE}, after which further updates are merged into the
+ * last one queued. While the transport is interrupted updates are queued in the same way.
  */
 public class JmsSender implements MarketDataSender {
 
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(JmsSender.class);
 
+  /**
+   * The most updates sent in a single compact frame.
+   */
+  public static final int MAX_BATCH_SIZE = 256;
+
   /**
    * The JMS connector.
    */
@@ -46,6 +64,22 @@ public class JmsSender implements MarketDataSender {
    * The Fudge context.
    */
   private final FudgeContext _fudgeContext;
+  /**
+   * The compact encoder, null to send Fudge messages.
+   */
+  private final CompactValueUpdateEncoder _encoder;
+  /**
+   * The executor compact frames are sent from, null to send from the caller.
+   */
+  private final Executor _executor;
+  /**
+   * The updates waiting to be sent from the executor, guarded by the lock.
+   */
+  private List<LiveDataValueUpdateBean> _pending = new ArrayList<LiveDataValueUpdateBean>();
+  /**
+   * Whether a send of the pending updates is queued to, or running on, the executor, guarded by the lock.
+   */
+  private boolean _sendScheduled;
   /**
    * The distributor.
    */
@@ -58,6 +92,10 @@ public class JmsSender implements MarketDataSender {
    * The last sequence number.
    */
   private long _lastSequenceNumber;
+  /**
+   * The trace timestamp of the earliest traced update not yet sent.
+   */
+  private long _traceTimestamp = LatencyTracer.NOT_TRACED;
   /**
    * Whether the sender is interrupted.
    */
@@ -75,12 +113,41 @@ public class JmsSender implements MarketDataSender {
    * @param fudgeContext  the Fudge context, not null
    */
   public JmsSender(JmsConnector jmsConnector, MarketDataDistributor distributor, FudgeContext fudgeContext) {
+    this(jmsConnector, distributor, fudgeContext, null);
+  }
+
+  /**
+   * Creates an instance.
+   * 
+   * @param jmsConnector  the JMS connector, not null
+   * @param distributor  the distributor, not null
+   * @param fudgeContext  the Fudge context, not null
+   * @param encoder  the encoder to send compact frames with, null to send Fudge messages
+   */
+  public JmsSender(JmsConnector jmsConnector, MarketDataDistributor distributor, FudgeContext fudgeContext, CompactValueUpdateEncoder encoder) {
+    this(jmsConnector, distributor, fudgeContext, encoder, null);
+  }
+
+  /**
+   * Creates an instance.
+   * 
+   * @param jmsConnector  the JMS connector, not null
+   * @param distributor  the distributor, not null
+   * @param fudgeContext  the Fudge context, not null
+   * @param encoder  the encoder to send compact frames with, null to send Fudge messages
+   * @param executor  the executor to send batches of compact frames from, null to send each update as it arrives
+   */
+  public JmsSender(JmsConnector jmsConnector, MarketDataDistributor distributor, FudgeContext fudgeContext, CompactValueUpdateEncoder encoder,
+      Executor executor) {
     ArgumentChecker.notNull(jmsConnector, "jmsConnector");
     ArgumentChecker.notNull(distributor, "Market data distributor");
     ArgumentChecker.notNull(fudgeContext, "fudgeContext");
+    ArgumentChecker.isTrue((executor == null) || (encoder != null), "Only compact frames are sent in batches");
     _jmsConnector = jmsConnector;
     _fudgeContext = fudgeContext;
     _distributor = distributor;
+    _encoder = encoder;
+    _executor = executor;
   }
 
   //-------------------------------------------------------------------------
@@ -89,13 +156,29 @@ public class JmsSender implements MarketDataSender {
     return _distributor;
   }
 
+  /**
+   * Gets the compact encoder.
+   * 
+   * @return the encoder, null if Fudge messages are sent
+   */
+  public CompactValueUpdateEncoder getEncoder() {
+    return _encoder;
+  }
+
   //-------------------------------------------------------------------------
   @Override
   public void sendMarketData(LiveDataValueUpdateBean data) {
     _lock.acquireUninterruptibly();
     try {
+      if (_executor != null) {
+        queue(data);
+        return;
+      }
       _cumulativeDelta.liveDataReceived(data.getFields());
       _lastSequenceNumber = data.getSequenceNumber(); 
+      if (_traceTimestamp == LatencyTracer.NOT_TRACED) {
+        _traceTimestamp = data.getTraceTimestamp();
+      }
       
       if (_interrupted) {
         s_logger.debug("{}: Interrupted - not sending message", this);
@@ -114,24 +197,140 @@ public class JmsSender implements MarketDataSender {
     LiveDataValueUpdateBean liveDataValueUpdateBean = new LiveDataValueUpdateBean(
         _lastSequenceNumber, 
         distributionSpec.getFullyQualifiedLiveDataSpecification(), 
-        _cumulativeDelta.getLastKnownValues());
+        _cumulativeDelta.getLastKnownValues(),
+        _traceTimestamp);
     s_logger.debug("{}: Sending Live Data update {}", this, liveDataValueUpdateBean);
     
-    FudgeMsg fudgeMsg = LiveDataValueUpdateBeanFudgeBuilder.toFudgeMsg(new FudgeSerializer(_fudgeContext), liveDataValueUpdateBean);
     String destinationName = distributionSpec.getJmsTopic();
-    final byte[] bytes = _fudgeContext.toByteArray(fudgeMsg);
+    final byte[] bytes;
+    if (_encoder != null) {
+      bytes = _encoder.encode(liveDataValueUpdateBean);
+    } else {
+      FudgeMsg fudgeMsg = LiveDataValueUpdateBeanFudgeBuilder.toFudgeMsg(new FudgeSerializer(_fudgeContext), liveDataValueUpdateBean);
+      bytes = _fudgeContext.toByteArray(fudgeMsg);
+    }
     
-    _jmsConnector.getJmsTemplateTopic().send(destinationName, new MessageCreator() {
-      @Override
-      public Message createMessage(Session session) throws JMSException {
-        // TODO kirk 2009-10-30 -- We want to put stuff in the properties as well I think.
-        BytesMessage bytesMessage = session.createBytesMessage();
-        bytesMessage.writeBytes(bytes);
-        return bytesMessage;
+    try {
+      _jmsConnector.getJmsTemplateTopic().send(destinationName, new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          // TODO kirk 2009-10-30 -- We want to put stuff in the properties as well I think.
+          BytesMessage bytesMessage = session.createBytesMessage();
+          bytesMessage.writeBytes(bytes);
+          return bytesMessage;
+        }
+      });
+    } catch (RuntimeException e) {
+      // Subscribers won't have seen the frame, so the next one must not depend on it
+      if (_encoder != null) {
+        _encoder.reset();
       }
-    });
+      throw e;
+    }
     
     _cumulativeDelta.clear();
+    _traceTimestamp = LatencyTracer.NOT_TRACED;
+  }
+
+  //-------------------------------------------------------------------------
+  private void queue(LiveDataValueUpdateBean data) {
+    final LiveDataValueUpdateBean update = new LiveDataValueUpdateBean(data.getSequenceNumber(),
+        getDistributor().getDistributionSpec().getFullyQualifiedLiveDataSpecification(), data.getFields(), data.getTraceTimestamp());
+    if (_pending.size() < MAX_BATCH_SIZE) {
+      _pending.add(update);
+    } else {
+      _pending.set(_pending.size() - 1, merge(_pending.get(_pending.size() - 1), update));
+    }
+    scheduleSend();
+  }
+
+  private static LiveDataValueUpdateBean merge(LiveDataValueUpdateBean earlier, LiveDataValueUpdateBean later) {
+    final FieldHistoryStore fields = new FieldHistoryStore(earlier.getFields());
+    fields.liveDataReceived(later.getFields());
+    final long traceTimestamp = (earlier.getTraceTimestamp() != LatencyTracer.NOT_TRACED) ? earlier.getTraceTimestamp() : later.getTraceTimestamp();
+    return new LiveDataValueUpdateBean(later.getSequenceNumber(), later.getSpecification(), fields.getLastKnownValues(), traceTimestamp);
+  }
+
+  /**
+   * Queues a send of the pending updates to the executor, if there are any and one isn't already queued.
+   * The lock must be held.
+   */
+  private void scheduleSend() {
+    if (_sendScheduled || _interrupted || _pending.isEmpty()) {
+      return;
+    }
+    _sendScheduled = true;
+    try {
+      _executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          sendPending();
+        }
+      });
+    } catch (RuntimeException e) {
+      _sendScheduled = false;
+      throw e;
+    }
+  }
+
+  private void sendPending() {
+    List<LiveDataValueUpdateBean> batch;
+    _lock.acquireUninterruptibly();
+    try {
+      batch = _pending;
+      _pending = new ArrayList<LiveDataValueUpdateBean>();
+    } finally {
+      _lock.release();
+    }
+    boolean sent = false;
+    try {
+      if (!_interrupted) {
+        send(batch);
+        sent = true;
+      }
+    } catch (RuntimeException e) {
+      s_logger.error("{}: Unable to send {} updates", this, batch.size());
+      s_logger.warn("Caught exception", e);
+    } finally {
+      _lock.acquireUninterruptibly();
+      try {
+        if (!sent) {
+          // Keep them, ahead of anything that arrived since, for the next send
+          for (LiveDataValueUpdateBean update : _pending) {
+            if (batch.size() < MAX_BATCH_SIZE) {
+              batch.add(update);
+            } else {
+              batch.set(batch.size() - 1, merge(batch.get(batch.size() - 1), update));
+            }
+          }
+          _pending = batch;
+        }
+        _sendScheduled = false;
+        if (sent) {
+          scheduleSend();
+        }
+      } finally {
+        _lock.release();
+      }
+    }
+  }
+
+  private void send(final List<LiveDataValueUpdateBean> batch) {
+    s_logger.debug("{}: Sending {} Live Data updates", this, batch.size());
+    final byte[] bytes = _encoder.encode(batch);
+    try {
+      _jmsConnector.getJmsTemplateTopic().send(getDistributor().getDistributionSpec().getJmsTopic(), new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          BytesMessage bytesMessage = session.createBytesMessage();
+          bytesMessage.writeBytes(bytes);
+          return bytesMessage;
+        }
+      });
+    } catch (RuntimeException e) {
+      _encoder.reset();
+      throw e;
+    }
   }
 
   //-------------------------------------------------------------------------
@@ -161,7 +360,20 @@ public class JmsSender implements MarketDataSender {
    */
   public void transportResumed() {
     s_logger.info("Transport resumed {}", this);
+    if (_encoder != null) {
+      // Frames may have been lost while the connection was down
+      _encoder.reset();
+    }
     _interrupted = false;
+    if (_executor != null) {
+      _lock.acquireUninterruptibly();
+      try {
+        scheduleSend();
+      } finally {
+        _lock.release();
+      }
+      return;
+    }
     // tryAcquire() is used to avoid re-entry to the send method if a sendMarketData is already
     // active as that will hold the semaphore.
     if (_lock.tryAcquire()) {
@@ -18,17 +18,29 @@ import org.fudgemsg.FudgeContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.opengamma.livedata.CompactValueUpdateEncoder;
+import com.opengamma.util.ArgumentChecker;
 import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
 import com.opengamma.util.jms.JmsConnector;
 
 /**
  * Factory to create JMS senders.
+ * <p>
+ * Senders send Fudge messages unless {@link #setCompactEncoding compact encoding} is turned on. Only turn it on
+ * once every client reading the topics is able to read compact frames. Compact frames are sent from the
+ * factory's executor, batching the updates that arrive while a sender's previous frame is being sent.
  */
 public class JmsSenderFactory implements MarketDataSenderFactory {
 
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(JmsSenderFactory.class);
 
+  /**
+   * The default longest time, in milliseconds, between key frames when encoding compact frames.
+   * A client that starts listening to a topic waits at most this long before it can read updates from it.
+   */
+  public static final long DEFAULT_KEY_FRAME_INTERVAL_MILLIS = 1000;
+
   /**
    * A {@code WeakHashMap} is used here so the senders can be garbage collected
    * automatically when they're no longer used.
@@ -46,6 +58,14 @@ public class JmsSenderFactory implements MarketDataSenderFactory {
    * The executor.
    */
   private final ExecutorService _executor;
+  /**
+   * Whether senders encode updates as compact frames.
+   */
+  private boolean _compactEncoding;
+  /**
+   * The longest time between key frames when encoding compact frames.
+   */
+  private long _keyFrameIntervalMillis = DEFAULT_KEY_FRAME_INTERVAL_MILLIS;
 
   /**
    * Creates an instance.
@@ -105,6 +125,43 @@ public class JmsSenderFactory implements MarketDataSenderFactory {
     _fudgeContext = fudgeContext;
   }
 
+  /**
+   * Gets whether senders encode updates as compact frames.
+   * 
+   * @return true if compact frames are sent, false for Fudge messages
+   */
+  public boolean isCompactEncoding() {
+    return _compactEncoding;
+  }
+
+  /**
+   * Sets whether senders created from now on encode updates as compact frames.
+   * 
+   * @param compactEncoding  true to send compact frames, false for Fudge messages
+   */
+  public void setCompactEncoding(boolean compactEncoding) {
+    _compactEncoding = compactEncoding;
+  }
+
+  /**
+   * Gets the longest time, in milliseconds, between key frames when encoding compact frames.
+   * 
+   * @return the key frame interval
+   */
+  public long getKeyFrameIntervalMillis() {
+    return _keyFrameIntervalMillis;
+  }
+
+  /**
+   * Sets the longest time, in milliseconds, between key frames when encoding compact frames.
+   * 
+   * @param keyFrameIntervalMillis  the key frame interval, greater than zero
+   */
+  public void setKeyFrameIntervalMillis(long keyFrameIntervalMillis) {
+    ArgumentChecker.isTrue(keyFrameIntervalMillis > 0, "keyFrameIntervalMillis");
+    _keyFrameIntervalMillis = keyFrameIntervalMillis;
+  }
+
   //-------------------------------------------------------------------------
   public synchronized void transportInterrupted() {
     s_logger.warn("JMS transport interrupted; notifying {} senders", _allActiveSenders.size());
@@ -133,7 +190,13 @@ public class JmsSenderFactory implements MarketDataSenderFactory {
   @Override
   public synchronized Collection<MarketDataSender> create(MarketDataDistributor distributor) {
     s_logger.debug("Created JmsSender for {}", distributor);
-    JmsSender sender = new JmsSender(_jmsConnector, distributor, getFudgeContext());
+    CompactValueUpdateEncoder encoder = null;
+    if (isCompactEncoding()) {
+      // Subscribers join topics part way through, so start again from a key frame regularly
+      encoder = new CompactValueUpdateEncoder(getFudgeContext());
+      encoder.setKeyFrameIntervalMillis(getKeyFrameIntervalMillis());
+    }
+    JmsSender sender = new JmsSender(_jmsConnector, distributor, getFudgeContext(), encoder, (encoder != null) ? _executor : null);
     _allActiveSenders.add(sender);
     return Collections.<MarketDataSender>singleton(sender);
   }
@@ -21,6 +21,7 @@ import com.opengamma.livedata.server.LastKnownValueStoreProvider;
 import com.opengamma.livedata.server.MapLastKnownValueStore;
 import com.opengamma.livedata.server.Subscription;
 import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.monitor.LatencyTracer;
 
 /**
  * Distributes market data to clients and keeps a history of what has been distributed.
@@ -30,6 +31,11 @@ public class MarketDataDistributor {
   /** Logger. */
   private static final Logger s_logger = LoggerFactory.getLogger(MarketDataDistributor.class);
 
+  /** The {@link LatencyTracer} stage reached when a sampled tick has been normalized. */
+  public static final String NORMALIZED_STAGE = "liveData.server.normalized";
+  /** The {@link LatencyTracer} stage reached when a sampled tick has been passed to every sender. */
+  public static final String SENT_STAGE = "liveData.server.sent";
+
   /**
    * What data should be distributed, how and where.
    */
@@ -214,12 +220,54 @@ public class MarketDataDistributor {
    * @param liveDataFields Unnormalized market data from underlying market data API.
    */
   public synchronized void distributeLiveData(FudgeMsg liveDataFields) {
+    distributeLiveData(liveDataFields, LatencyTracer.NOT_TRACED);
+  }
+
+  /**
+   * Sends normalized market data to field receivers. 
+   * <p>
+   * Serialized to ensure a well-defined distribution order for this topic.
+   * 
+   * @param liveDataFields Unnormalized market data from underlying market data API.
+   * @param traceTimestamp the timestamp from {@link LatencyTracer#sample} if the tick is being traced
+   */
+  public synchronized void distributeLiveData(FudgeMsg liveDataFields, long traceTimestamp) {
+    LiveDataValueUpdateBean data = normalizeLiveData(liveDataFields, traceTimestamp);
+    if (data != null) {
+      sendLiveData(data);
+    }
+  }
+
+  /**
+   * Normalizes market data and updates the last known values, without sending it.
+   * <p>
+   * The update is numbered as it is normalized, so updates must be sent with {@link #sendLiveData} in the order they
+   * were returned from here to keep the distribution order for this topic.
+   * 
+   * @param liveDataFields Unnormalized market data from underlying market data API.
+   * @return the update to send, null if the message was extinguished by normalization
+   */
+  public synchronized LiveDataValueUpdateBean normalizeLiveData(FudgeMsg liveDataFields) {
+    return normalizeLiveData(liveDataFields, LatencyTracer.NOT_TRACED);
+  }
+
+  /**
+   * Normalizes market data and updates the last known values, without sending it.
+   * <p>
+   * The update is numbered as it is normalized, so updates must be sent with {@link #sendLiveData} in the order they
+   * were returned from here to keep the distribution order for this topic.
+   * 
+   * @param liveDataFields Unnormalized market data from underlying market data API.
+   * @param traceTimestamp the timestamp from {@link LatencyTracer#sample} if the tick is being traced
+   * @return the update to send, carrying the trace timestamp, null if the message was extinguished by normalization
+   */
+  public synchronized LiveDataValueUpdateBean normalizeLiveData(FudgeMsg liveDataFields, long traceTimestamp) {
     FudgeMsg normalizedMsg;
     try {
       normalizedMsg = normalize(liveDataFields);
     } catch (RuntimeException e) {
       s_logger.error("Normalizing " + liveDataFields + " to " + this + " failed.", e);
-      return;
+      return null;
     }
     
     if (normalizedMsg != null) {
@@ -228,23 +276,34 @@ public class MarketDataDistributor {
       LiveDataValueUpdateBean data = new LiveDataValueUpdateBean(
           getNumMessagesSent(), // 0-based as it should be
           getDistributionSpec().getFullyQualifiedLiveDataSpecification(),
-          normalizedMsg);
-      
-      s_logger.debug("{}: Sending Live Data update {}", this, data);
-      
-      for (MarketDataSender sender : _marketDataSenders) {
-        try {
-          sender.sendMarketData(data);
-        } catch (RuntimeException e) {
-          s_logger.error(sender + " failed", e);
-        }
-      }
-      
+          normalizedMsg,
+          traceTimestamp);
       _numMessagesSent.incrementAndGet();
+      LatencyTracer.getInstance().record(NORMALIZED_STAGE, traceTimestamp);
+      return data;
     
     } else {
       s_logger.debug("{}: Not sending Live Data update (message extinguished).", this);
+      return null;
+    }
+  }
+
+  /**
+   * Sends a normalized update to the field receivers.
+   * 
+   * @param data  the update returned by {@link #normalizeLiveData}, not null
+   */
+  public void sendLiveData(LiveDataValueUpdateBean data) {
+    s_logger.debug("{}: Sending Live Data update {}", this, data);
+    
+    for (MarketDataSender sender : _marketDataSenders) {
+      try {
+        sender.sendMarketData(data);
+      } catch (RuntimeException e) {
+        s_logger.error(sender + " failed", e);
+      }
     }
+    LatencyTracer.getInstance().record(SENT_STAGE, data.getTraceTimestamp());
   }
 
   //-------------------------------------------------------------------------
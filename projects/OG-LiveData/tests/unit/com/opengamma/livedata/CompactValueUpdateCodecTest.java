@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.mapping.FudgeDeserializer;
+import org.fudgemsg.mapping.FudgeSerializer;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+import com.opengamma.util.monitor.LatencyTracer;
+
+/**
+ * Tests {@link CompactValueUpdateEncoder} and {@link CompactValueUpdateDecoder}.
+ */
+@Test(groups = "unit")
+public class CompactValueUpdateCodecTest {
+
+  private static final FudgeContext s_fudgeContext = OpenGammaFudgeContext.getInstance();
+  private static final LiveDataSpecification SPEC1 = new LiveDataSpecification("OpenGamma", ExternalId.of("Test", "1"));
+  private static final LiveDataSpecification SPEC2 = new LiveDataSpecification("OpenGamma", ExternalId.of("Test", "2"));
+
+  private static LiveDataValueUpdateBean update(final long sequenceNumber, final LiveDataSpecification spec, final double bid, final long volume, final String status) {
+    final MutableFudgeMsg fields = s_fudgeContext.newMessage();
+    fields.add("BID", bid);
+    fields.add("VOLUME", volume);
+    fields.add("STATUS", status);
+    return new LiveDataValueUpdateBean(sequenceNumber, spec, fields);
+  }
+
+  private static void assertUpdate(final LiveDataValueUpdateBean expected, final LiveDataValueUpdateBean actual) {
+    assertEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+    assertEquals(expected.getSpecification(), actual.getSpecification());
+    assertEquals(expected.getFields().getNumFields(), actual.getFields().getNumFields());
+    assertEquals(expected.getFields().getDouble("BID"), actual.getFields().getDouble("BID"));
+    assertEquals(expected.getFields().getLong("VOLUME"), actual.getFields().getLong("VOLUME"));
+    assertEquals(expected.getFields().getString("STATUS"), actual.getFields().getString("STATUS"));
+  }
+
+  //-------------------------------------------------------------------------
+  public void testRoundTrip() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    final List<LiveDataValueUpdateBean> sent = Arrays.asList(
+        update(0, SPEC1, 1.5, 1000, "OPEN"),
+        update(0, SPEC2, 99.25, 5, "OPEN"),
+        // Unchanged values, and a volume lower than the last
+        update(1, SPEC1, 1.5, 900, "OPEN"),
+        update(7, SPEC2, 99.5, 5, "HALTED"));
+    final List<LiveDataValueUpdateBean> received = new ArrayList<LiveDataValueUpdateBean>(decoder.decode(encoder.encode(sent.subList(0, 2))));
+    received.addAll(decoder.decode(encoder.encode(sent.subList(2, 4))));
+    assertEquals(sent.size(), received.size());
+    for (int i = 0; i < sent.size(); i++) {
+      assertUpdate(sent.get(i), received.get(i));
+    }
+    assertEquals(2, encoder.getFramesEncoded());
+    assertEquals(4, encoder.getUpdatesEncoded());
+    assertEquals(2, decoder.getFramesDecoded());
+    assertEquals(0, decoder.getFramesDropped());
+  }
+
+  public void testOtherFieldTypes() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    final MutableFudgeMsg fields = s_fudgeContext.newMessage();
+    fields.add("FLAG", true);
+    fields.add(null, 3, "by ordinal");
+    final MutableFudgeMsg nested = s_fudgeContext.newMessage();
+    nested.add("X", 1.0);
+    fields.add("NESTED", nested);
+    fields.add("COUNT", 42);
+    final List<LiveDataValueUpdateBean> received = decoder.decode(encoder.encode(new LiveDataValueUpdateBean(0, SPEC1, fields)));
+    assertEquals(1, received.size());
+    final FudgeMsg decoded = received.get(0).getFields();
+    assertEquals(4, decoded.getNumFields());
+    assertEquals(Boolean.TRUE, decoded.getBoolean("FLAG"));
+    assertEquals("by ordinal", decoded.getString(3));
+    assertNull(decoded.getByIndex(1).getName());
+    assertEquals(1.0, decoded.getMessage("NESTED").getDouble("X"));
+    assertEquals(42L, (long) decoded.getLong("COUNT"));
+  }
+
+  public void testSmallerThanFudge() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN"));
+    final LiveDataValueUpdateBean update = update(1, SPEC1, 1.75, 1010, "OPEN");
+    final byte[] fudge = s_fudgeContext.toByteArray(LiveDataValueUpdateBeanFudgeBuilder.toFudgeMsg(new FudgeSerializer(s_fudgeContext), update));
+    final byte[] frame = encoder.encode(update);
+    assertTrue(frame.length * 3 < fudge.length);
+    assertTrue(CompactValueUpdateDecoder.isFrame(frame));
+    assertFalse(CompactValueUpdateDecoder.isFrame(fudge));
+  }
+
+  public void testLateJoinerWaitsForKeyFrame() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder early = new CompactValueUpdateDecoder(s_fudgeContext);
+    final CompactValueUpdateDecoder late = new CompactValueUpdateDecoder(s_fudgeContext);
+    early.decode(encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN")));
+    final byte[] frame = encoder.encode(update(1, SPEC1, 1.5, 1001, "OPEN"));
+    assertEquals(1, early.decode(frame).size());
+    assertTrue(late.decode(frame).isEmpty());
+    assertEquals(1, late.getFramesDropped());
+    encoder.reset();
+    final byte[] keyFrame = encoder.encode(update(2, SPEC1, 1.5, 1002, "OPEN"));
+    assertUpdate(update(2, SPEC1, 1.5, 1002, "OPEN"), early.decode(keyFrame).get(0));
+    assertUpdate(update(2, SPEC1, 1.5, 1002, "OPEN"), late.decode(keyFrame).get(0));
+  }
+
+  public void testKeyFrameInterval() throws InterruptedException {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    encoder.setKeyFrameIntervalMillis(10);
+    encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN"));
+    Thread.sleep(20);
+    final CompactValueUpdateDecoder late = new CompactValueUpdateDecoder(s_fudgeContext);
+    assertEquals(1, late.decode(encoder.encode(update(1, SPEC1, 1.5, 1000, "OPEN"))).size());
+  }
+
+  public void testStreamsKeptApart() {
+    final CompactValueUpdateEncoder encoder1 = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateEncoder encoder2 = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    // Both streams give their first specification and field the same identifiers
+    assertUpdate(update(0, SPEC1, 1.5, 1000, "OPEN"), decoder.decode(encoder1.encode(update(0, SPEC1, 1.5, 1000, "OPEN"))).get(0));
+    assertUpdate(update(0, SPEC2, 2.5, 2000, "OPEN"), decoder.decode(encoder2.encode(update(0, SPEC2, 2.5, 2000, "OPEN"))).get(0));
+    assertUpdate(update(1, SPEC1, 1.5, 1001, "OPEN"), decoder.decode(encoder1.encode(update(1, SPEC1, 1.5, 1001, "OPEN"))).get(0));
+    assertUpdate(update(1, SPEC2, 2.5, 2001, "OPEN"), decoder.decode(encoder2.encode(update(1, SPEC2, 2.5, 2001, "OPEN"))).get(0));
+  }
+
+  public void testTraceTimestampCarried() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    final LiveDataValueUpdateBean untraced = update(0, SPEC1, 1.5, 1000, "OPEN");
+    final LiveDataValueUpdateBean traced = new LiveDataValueUpdateBean(1, SPEC1, untraced.getFields(), 123456789L);
+    final List<LiveDataValueUpdateBean> received = decoder.decode(encoder.encode(Arrays.asList(traced, untraced)));
+    assertEquals(123456789L, received.get(0).getTraceTimestamp());
+    assertEquals(LatencyTracer.NOT_TRACED, received.get(1).getTraceTimestamp());
+    // And in Fudge messages
+    final FudgeMsg msg = LiveDataValueUpdateBeanFudgeBuilder.toFudgeMsg(new FudgeSerializer(s_fudgeContext), traced);
+    assertEquals(123456789L, LiveDataValueUpdateBeanFudgeBuilder.fromFudgeMsg(new FudgeDeserializer(s_fudgeContext), msg).getTraceTimestamp());
+    final FudgeMsg untracedMsg = LiveDataValueUpdateBeanFudgeBuilder.toFudgeMsg(new FudgeSerializer(s_fudgeContext), untraced);
+    assertNull(untracedMsg.getByName(LiveDataValueUpdateBeanFudgeBuilder.TRACE_TIMESTAMP_FIELD_NAME));
+  }
+
+  public void testMissedFrameDropsStream() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    assertEquals(1, decoder.decode(encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN"))).size());
+    // Lost in transit
+    encoder.encode(update(1, SPEC1, 1.75, 1000, "OPEN"));
+    assertTrue(decoder.decode(encoder.encode(update(2, SPEC1, 1.75, 1000, "OPEN"))).isEmpty());
+    assertTrue(decoder.decode(encoder.encode(update(3, SPEC1, 1.75, 1000, "OPEN"))).isEmpty());
+    assertEquals(2, decoder.getFramesDropped());
+    encoder.reset();
+    assertUpdate(update(4, SPEC1, 1.75, 1000, "OPEN"), decoder.decode(encoder.encode(update(4, SPEC1, 1.75, 1000, "OPEN"))).get(0));
+    assertUpdate(update(5, SPEC1, 2.0, 1000, "OPEN"), decoder.decode(encoder.encode(update(5, SPEC1, 2.0, 1000, "OPEN"))).get(0));
+  }
+
+  public void testKeyFrameCarriesLastKnownValues() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    decoder.decode(encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN")));
+    // Lost in transit; the only update to the status
+    final MutableFudgeMsg status = s_fudgeContext.newMessage();
+    status.add("STATUS", "HALTED");
+    encoder.encode(new LiveDataValueUpdateBean(1, SPEC1, status));
+    encoder.reset();
+    final MutableFudgeMsg bid = s_fudgeContext.newMessage();
+    bid.add("BID", 1.75);
+    final List<LiveDataValueUpdateBean> received = decoder.decode(encoder.encode(new LiveDataValueUpdateBean(2, SPEC1, bid)));
+    assertEquals(1, received.size());
+    assertUpdate(update(2, SPEC1, 1.75, 1000, "HALTED"), received.get(0));
+    // Frames after the key frame carry only the update again
+    final FudgeMsg next = decoder.decode(encoder.encode(new LiveDataValueUpdateBean(3, SPEC1, bid))).get(0).getFields();
+    assertEquals(1, next.getNumFields());
+  }
+
+  public void testKeyFrameCarriesOtherSpecifications() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    encoder.encode(Arrays.asList(update(0, SPEC1, 1.5, 1000, "OPEN"), update(0, SPEC2, 2.5, 2000, "OPEN")));
+    encoder.encode(update(1, SPEC2, 2.75, 2000, "OPEN"));
+    encoder.reset();
+    final CompactValueUpdateDecoder late = new CompactValueUpdateDecoder(s_fudgeContext);
+    final List<LiveDataValueUpdateBean> received = late.decode(encoder.encode(update(1, SPEC1, 1.75, 1000, "OPEN")));
+    assertEquals(2, received.size());
+    assertUpdate(update(1, SPEC2, 2.75, 2000, "OPEN"), received.get(0));
+    assertUpdate(update(1, SPEC1, 1.75, 1000, "OPEN"), received.get(1));
+    encoder.forget(SPEC2);
+    encoder.reset();
+    assertEquals(1, late.decode(encoder.encode(update(2, SPEC1, 1.75, 1000, "OPEN"))).size());
+  }
+
+  public void testIdleStreamsDiscarded() throws InterruptedException {
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    decoder.setStreamTimeoutMillis(10);
+    final CompactValueUpdateEncoder idle = new CompactValueUpdateEncoder(s_fudgeContext);
+    decoder.decode(idle.encode(update(0, SPEC1, 1.5, 1000, "OPEN")));
+    assertEquals(1, decoder.getNumStreams());
+    Thread.sleep(20);
+    final CompactValueUpdateEncoder active = new CompactValueUpdateEncoder(s_fudgeContext);
+    decoder.decode(active.encode(update(0, SPEC2, 2.5, 2000, "OPEN")));
+    assertEquals(1, decoder.getNumStreams());
+    // The discarded stream is ignored until its next key frame
+    assertTrue(decoder.decode(idle.encode(update(1, SPEC1, 1.5, 1000, "OPEN"))).isEmpty());
+    idle.reset();
+    assertEquals(1, decoder.decode(idle.encode(update(2, SPEC1, 1.5, 1000, "OPEN"))).size());
+  }
+
+  public void testCorruptFrameDropped() {
+    final CompactValueUpdateEncoder encoder = new CompactValueUpdateEncoder(s_fudgeContext);
+    final CompactValueUpdateDecoder decoder = new CompactValueUpdateDecoder(s_fudgeContext);
+    decoder.decode(encoder.encode(update(0, SPEC1, 1.5, 1000, "OPEN")));
+    final byte[] frame = encoder.encode(update(1, SPEC1, 1.75, 1000, "OPEN"));
+    assertTrue(decoder.decode(Arrays.copyOf(frame, frame.length - 3)).isEmpty());
+    // The stream can't be trusted until the next key frame
+    assertTrue(decoder.decode(encoder.encode(update(2, SPEC1, 2.0, 1000, "OPEN"))).isEmpty());
+    assertEquals(2, decoder.getFramesDropped());
+    encoder.reset();
+    assertEquals(1, decoder.decode(encoder.encode(update(3, SPEC1, 2.0, 1000, "OPEN"))).size());
+  }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.cogda.server;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.FudgeMsgEnvelope;
+import org.fudgemsg.MutableFudgeMsg;
+import org.fudgemsg.mapping.FudgeDeserializer;
+import org.fudgemsg.mapping.FudgeSerializer;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataSubscriptionRequestBuilder;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataSubscriptionRequestMessage;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataUnsubscribeBuilder;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataUnsubscribeMessage;
+import com.opengamma.livedata.cogda.msg.CogdaLiveDataUpdateBuilder;
+import com.opengamma.livedata.cogda.msg.CogdaMessageType;
+import com.opengamma.livedata.cogda.msg.ConnectionRequestBuilder;
+import com.opengamma.livedata.cogda.msg.ConnectionRequestMessage;
+import com.opengamma.livedata.server.LastKnownValueStore;
+import com.opengamma.livedata.server.MapLastKnownValueStore;
+import com.opengamma.livedata.server.MapLastKnownValueStoreProvider;
+import com.opengamma.transport.EncodedFudgeMessageSender;
+import com.opengamma.transport.FudgeConnection;
+import com.opengamma.transport.FudgeConnectionStateListener;
+import com.opengamma.transport.FudgeMessageReceiver;
+import com.opengamma.transport.FudgeMessageSender;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Tests the subscriber index and value update distribution of {@link CogdaLiveDataServer}.
+ */
+@Test(groups = "unit")
+public class CogdaLiveDataServerTest {
+
+  private static final FudgeContext s_fudgeContext = OpenGammaFudgeContext.getInstance();
+  private static final String NORMALIZATION = "Test";
+  private static final ExternalId TICKER = ExternalId.of("Test", "A");
+  private static final LiveDataSpecification SPEC = new LiveDataSpecification(NORMALIZATION, TICKER);
+
+  /**
+   * Records the messages sent, encoded or not, in the order they are sent.
+   */
+  private static final class RecordingSender implements EncodedFudgeMessageSender {
+
+    private final List<FudgeMsg> _messages = new ArrayList<FudgeMsg>();
+    private final List<byte[]> _encoded = new ArrayList<byte[]>();
+
+    @Override
+    public synchronized void send(final FudgeMsg message) {
+      _messages.add(message);
+    }
+
+    @Override
+    public synchronized void sendEncoded(final byte[] envelope, final Object conflationKey) {
+      _encoded.add(envelope);
+      _messages.add(s_fudgeContext.deserialize(envelope).getMessage());
+    }
+
+    @Override
+    public FudgeContext getFudgeContext() {
+      return s_fudgeContext;
+    }
+
+  }
+
+  /**
+   * A connection that delivers nothing itself, the test calls the receiver directly.
+   */
+  private static final class TestConnection implements FudgeConnection {
+
+    private final RecordingSender _sender = new RecordingSender();
+    private CogdaClientConnection _client;
+
+    @Override
+    public void setFudgeMessageReceiver(final FudgeMessageReceiver receiver) {
+      _client = (CogdaClientConnection) receiver;
+    }
+
+    @Override
+    public FudgeMessageSender getFudgeMessageSender() {
+      return _sender;
+    }
+
+    @Override
+    public void setConnectionStateListener(final FudgeConnectionStateListener listener) {
+    }
+
+  }
+
+  /**
+   * Provides stores that can run something while a snapshot is being taken.
+   */
+  private static final class TestStoreProvider extends MapLastKnownValueStoreProvider {
+
+    private Runnable _duringSnapshot;
+
+    @Override
+    public LastKnownValueStore newInstance(final ExternalId security, final String normalizationRuleSetId) {
+      return new MapLastKnownValueStore() {
+        @Override
+        public FudgeMsg getFields() {
+          final FudgeMsg fields = super.getFields();
+          if (_duringSnapshot != null) {
+            final Runnable duringSnapshot = _duringSnapshot;
+            _duringSnapshot = null;
+            duringSnapshot.run();
+          }
+          return fields;
+        }
+      };
+    }
+
+    @Override
+    public boolean isAvailable(final ExternalId security, final String normalizationRuleSetId) {
+      return true;
+    }
+
+  }
+
+  private static TestConnection connect(final CogdaLiveDataServer server) {
+    final ConnectionRequestMessage request = new ConnectionRequestMessage();
+    request.setUserName("test");
+    request.setCapabilities(s_fudgeContext.newMessage());
+    final TestConnection connection = new TestConnection();
+    server.connectionReceived(s_fudgeContext, new FudgeMsgEnvelope(ConnectionRequestBuilder.buildMessageStatic(new FudgeSerializer(s_fudgeContext), request)), connection);
+    connection._sender._messages.clear();
+    return connection;
+  }
+
+  private static void subscribe(final TestConnection connection) {
+    final CogdaLiveDataSubscriptionRequestMessage request = new CogdaLiveDataSubscriptionRequestMessage();
+    request.setCorrelationId(1L);
+    request.setSubscriptionId(TICKER);
+    request.setNormalizationScheme(NORMALIZATION);
+    connection._client.messageReceived(s_fudgeContext, new FudgeMsgEnvelope(CogdaLiveDataSubscriptionRequestBuilder.buildMessageStatic(new FudgeSerializer(s_fudgeContext), request)));
+  }
+
+  private static void unsubscribe(final TestConnection connection) {
+    final CogdaLiveDataUnsubscribeMessage request = new CogdaLiveDataUnsubscribeMessage();
+    request.setCorrelationId(2L);
+    request.setSubscriptionId(TICKER);
+    request.setNormalizationScheme(NORMALIZATION);
+    connection._client.messageReceived(s_fudgeContext, new FudgeMsgEnvelope(CogdaLiveDataUnsubscribeBuilder.buildMessageStatic(new FudgeSerializer(s_fudgeContext), request)));
+  }
+
+  private static LiveDataValueUpdateBean tick(final String field, final double value) {
+    final MutableFudgeMsg fields = s_fudgeContext.newMessage();
+    fields.add(field, value);
+    return new LiveDataValueUpdateBean(0L, SPEC, fields);
+  }
+
+  private static FudgeMsg updateValues(final FudgeMsg message) {
+    assertEquals(CogdaMessageType.LIVE_DATA_UPDATE, CogdaMessageType.getFromMessage(message));
+    return CogdaLiveDataUpdateBuilder.buildObjectStatic(new FudgeDeserializer(s_fudgeContext), message).getValues();
+  }
+
+  //-------------------------------------------------------------------------
+  public void testSubscriberIndex() {
+    final CogdaLiveDataServer server = new CogdaLiveDataServer(new TestStoreProvider());
+    final TestConnection connection1 = connect(server);
+    final TestConnection connection2 = connect(server);
+    assertNull(server.getSubscribers(SPEC));
+    subscribe(connection1);
+    subscribe(connection2);
+    assertEquals(2, server.getSubscribers(SPEC).size());
+    unsubscribe(connection1);
+    assertEquals(1, server.getSubscribers(SPEC).size());
+    assertTrue(server.getSubscribers(SPEC).contains(connection2._client));
+    // The emptied set is removed from the index
+    unsubscribe(connection2);
+    assertNull(server.getSubscribers(SPEC));
+    subscribe(connection1);
+    assertEquals(1, server.getSubscribers(SPEC).size());
+    server.removeClient(connection1._client);
+    assertNull(server.getSubscribers(SPEC));
+  }
+
+  public void testEncodedOnceForAllSubscribers() {
+    final CogdaLiveDataServer server = new CogdaLiveDataServer(new TestStoreProvider());
+    final TestConnection connection1 = connect(server);
+    final TestConnection connection2 = connect(server);
+    final TestConnection unsubscribed = connect(server);
+    subscribe(connection1);
+    subscribe(connection2);
+    server.liveDataReceived(tick("BID", 1.5));
+    assertEquals(1, connection1._sender._encoded.size());
+    assertSame(connection1._sender._encoded.get(0), connection2._sender._encoded.get(0));
+    assertEquals(1.5, updateValues(s_fudgeContext.deserialize(connection1._sender._encoded.get(0)).getMessage()).getDouble("BID"));
+    assertTrue(unsubscribed._sender._messages.isEmpty());
+    assertEquals(1, server.getNumTicksReceived());
+  }
+
+  public void testTicksDuringSnapshotFollowResponse() {
+    final TestStoreProvider provider = new TestStoreProvider();
+    final CogdaLiveDataServer server = new CogdaLiveDataServer(provider);
+    final TestConnection connection = connect(server);
+    provider._duringSnapshot = new Runnable() {
+      @Override
+      public void run() {
+        server.liveDataReceived(tick("BID", 1.5));
+        server.liveDataReceived(tick("ASK", 1.75));
+      }
+    };
+    subscribe(connection);
+    final List<FudgeMsg> messages = connection._sender._messages;
+    assertEquals(2, messages.size());
+    assertEquals(CogdaMessageType.SUBSCRIPTION_RESPONSE, CogdaMessageType.getFromMessage(messages.get(0)));
+    // Both ticks are delivered, after the response
+    final FudgeMsg held = updateValues(messages.get(1));
+    assertEquals(1.5, held.getDouble("BID"));
+    assertEquals(1.75, held.getDouble("ASK"));
+    // Later ticks are sent as they arrive
+    server.liveDataReceived(tick("BID", 2.0));
+    assertEquals(1, connection._sender._encoded.size());
+    assertEquals(2.0, updateValues(messages.get(2)).getDouble("BID"));
+  }
+
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.entitlement;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.util.test.Timeout;
+
+/**
+ * Test.
+ */
+@Test(groups = "unit")
+public class CachingEntitlementCheckerTest {
+
+  private static final UserPrincipal MEGAN = new UserPrincipal("megan", "127.0.0.1");
+  private static final UserPrincipal KIRK = new UserPrincipal("kirk", "127.0.0.1");
+  private static final LiveDataSpecification ALLOWED = new LiveDataSpecification("TestNormalization", ExternalId.of("test", "allowed"));
+  private static final LiveDataSpecification DENIED = new LiveDataSpecification("TestNormalization", ExternalId.of("test", "denied"));
+
+  /**
+   * Allows anything but DENIED, counting the requests made.
+   */
+  private static class CountingEntitlementChecker extends AbstractEntitlementChecker {
+
+    private final AtomicInteger _requests = new AtomicInteger();
+    private volatile boolean _fail;
+
+    @Override
+    public Map<LiveDataSpecification, Boolean> isEntitled(UserPrincipal user, Collection<LiveDataSpecification> requestedSpecifications) {
+      _requests.incrementAndGet();
+      if (_fail) {
+        throw new OpenGammaRuntimeException("Entitlement server unavailable");
+      }
+      Map<LiveDataSpecification, Boolean> result = new HashMap<LiveDataSpecification, Boolean>();
+      for (LiveDataSpecification spec : requestedSpecifications) {
+        result.put(spec, !DENIED.equals(spec));
+      }
+      return result;
+    }
+
+  }
+
+  //-------------------------------------------------------------------------
+  public void testCachesPositiveAndNegative() {
+    CountingEntitlementChecker underlying = new CountingEntitlementChecker();
+    CachingEntitlementChecker checker = new CachingEntitlementChecker(underlying);
+    Map<LiveDataSpecification, Boolean> result = checker.isEntitled(MEGAN, Arrays.asList(ALLOWED, DENIED));
+    assertEquals(Boolean.TRUE, result.get(ALLOWED));
+    assertEquals(Boolean.FALSE, result.get(DENIED));
+    assertEquals(1, underlying._requests.get());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+      assertFalse(checker.isEntitled(MEGAN, DENIED));
+    }
+    assertEquals(1, underlying._requests.get());
+    assertEquals(20, checker.getHits());
+    assertEquals(2, checker.getMisses());
+    assertEquals(1, checker.getRequests());
+    assertEquals(20d / 22d, checker.getHitRate(), 1e-9);
+    // A different user is a different decision
+    assertTrue(checker.isEntitled(KIRK, ALLOWED));
+    assertEquals(2, underlying._requests.get());
+  }
+
+  public void testTimeToLive() throws InterruptedException {
+    CountingEntitlementChecker underlying = new CountingEntitlementChecker();
+    CachingEntitlementChecker checker = new CachingEntitlementChecker(underlying);
+    checker.setTimeToLiveMillis(50);
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertEquals(1, underlying._requests.get());
+    Thread.sleep(100);
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertEquals(2, underlying._requests.get());
+    checker.setTimeToLiveMillis(0);
+    checker.invalidate();
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertEquals(4, underlying._requests.get());
+    assertEquals(0, checker.getCacheSize());
+  }
+
+  public void testInvalidate() {
+    CountingEntitlementChecker underlying = new CountingEntitlementChecker();
+    CachingEntitlementChecker checker = new CachingEntitlementChecker(underlying);
+    checker.isEntitled(MEGAN, Arrays.asList(ALLOWED, DENIED));
+    checker.isEntitled(KIRK, Arrays.asList(ALLOWED, DENIED));
+    assertEquals(4, checker.getCacheSize());
+    checker.invalidate(MEGAN, DENIED);
+    assertEquals(3, checker.getCacheSize());
+    checker.invalidate(KIRK);
+    assertEquals(1, checker.getCacheSize());
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertEquals(2, underlying._requests.get());
+    checker.invalidate();
+    assertEquals(0, checker.getCacheSize());
+  }
+
+  public void testBounded() {
+    CountingEntitlementChecker underlying = new CountingEntitlementChecker();
+    CachingEntitlementChecker checker = new CachingEntitlementChecker(underlying);
+    checker.setMaxCacheSize(5);
+    List<LiveDataSpecification> specs = new ArrayList<LiveDataSpecification>();
+    for (int i = 0; i < 8; i++) {
+      specs.add(new LiveDataSpecification("TestNormalization", ExternalId.of("test", "spec" + i)));
+    }
+    checker.isEntitled(MEGAN, specs);
+    assertEquals(5, checker.getCacheSize());
+    assertEquals(3, checker.getEvictions());
+    checker.isEntitled(KIRK, ALLOWED);
+    assertEquals(5, checker.getCacheSize());
+    assertEquals(4, checker.getEvictions());
+  }
+
+  public void testErrorsNotCached() {
+    CountingEntitlementChecker underlying = new CountingEntitlementChecker();
+    CachingEntitlementChecker checker = new CachingEntitlementChecker(underlying);
+    underlying._fail = true;
+    try {
+      checker.isEntitled(MEGAN, ALLOWED);
+      fail();
+    } catch (OpenGammaRuntimeException e) {
+      // Expected
+    }
+    underlying._fail = false;
+    assertTrue(checker.isEntitled(MEGAN, ALLOWED));
+    assertEquals(2, underlying._requests.get());
+  }
+
+  public void testConcurrentChecksCoalesced() throws InterruptedException {
+    final CountDownLatch requested = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Collection<LiveDataSpecification>> requests = new ArrayList<Collection<LiveDataSpecification>>();
+    final CachingEntitlementChecker checker = new CachingEntitlementChecker(new AbstractEntitlementChecker() {
+      @Override
+      public Map<LiveDataSpecification, Boolean> isEntitled(UserPrincipal user, Collection<LiveDataSpecification> requestedSpecifications) {
+        synchronized (requests) {
+          requests.add(requestedSpecifications);
+        }
+        requested.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new OpenGammaRuntimeException("Interrupted", e);
+        }
+        Map<LiveDataSpecification, Boolean> result = new HashMap<LiveDataSpecification, Boolean>();
+        for (LiveDataSpecification spec : requestedSpecifications) {
+          result.put(spec, true);
+        }
+        return result;
+      }
+    });
+    // The first check blocks in the underlying checker
+    final Thread first = new Thread() {
+      @Override
+      public void run() {
+        checker.isEntitled(MEGAN, ALLOWED);
+      }
+    };
+    first.start();
+    assertTrue(requested.await(Timeout.standardTimeoutMillis(), TimeUnit.MILLISECONDS));
+    // These checks wait for it, and what it isn't fetching is batched into a single request once it completes
+    final int numThreads = 8;
+    final AtomicInteger entitled = new AtomicInteger();
+    final Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final LiveDataSpecification spec = new LiveDataSpecification("TestNormalization", ExternalId.of("test", "spec" + i));
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Map<LiveDataSpecification, Boolean> result = checker.isEntitled(MEGAN, Arrays.asList(ALLOWED, spec));
+          if (result.get(ALLOWED) && result.get(spec)) {
+            entitled.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // Give them time to queue up
+    Thread.sleep(100);
+    release.countDown();
+    first.join(Timeout.standardTimeoutMillis());
+    for (Thread thread : threads) {
+      thread.join(Timeout.standardTimeoutMillis());
+    }
+    assertEquals(numThreads, entitled.get());
+    assertEquals(numThreads, checker.getCoalesced());
+    assertEquals(2, requests.size());
+    assertEquals(1, requests.get(0).size());
+    assertEquals(numThreads, requests.get(1).size());
+  }
+
+}
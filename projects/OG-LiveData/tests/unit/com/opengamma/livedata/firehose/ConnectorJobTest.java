@@ -30,7 +30,7 @@ public class ConnectorJobTest {
 
   private static final Logger s_logger = LoggerFactory.getLogger(ConnectorJobTest.class);
 
-  private static final class JobImpl extends AbstractConnectorJob<Integer> {
+  private static final class JobImpl extends AbstractStreamConnectorJob<Integer> {
     private int _prepareConnection;
     private int _establishConnection;
     private int _endConnection;
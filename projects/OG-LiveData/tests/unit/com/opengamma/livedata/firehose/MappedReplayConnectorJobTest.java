@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+package com.opengamma.livedata.firehose;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.OpenGammaRuntimeException;
+
+/**
+ * Test.
+ */
+@Test(groups = "unit")
+public class MappedReplayConnectorJobTest {
+
+  private static final RecordStream.Factory<Integer> INTEGERS = new RecordStream.Factory<Integer>() {
+    @Override
+    public RecordStream<Integer> newInstance(final InputStream input) {
+      final DataInputStream data = new DataInputStream(input);
+      return new RecordStream<Integer>() {
+        @Override
+        public Integer readRecord() throws IOException {
+          return data.readInt();
+        }
+      };
+    }
+  };
+
+  private static byte[] ints(final int... values) {
+    final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+    for (int value : values) {
+      buffer.putInt(value);
+    }
+    return buffer.array();
+  }
+
+  private static File timestampedFile(final long[] timestamps, final byte[][] blocks) throws IOException {
+    final File file = File.createTempFile("firehose", ".bin");
+    final TimestampedOutputStream out = new TimestampedOutputStream(new FileOutputStream(file));
+    for (int i = 0; i < timestamps.length; i++) {
+      out.write(timestamps[i], blocks[i], 0, blocks[i].length);
+    }
+    out.close();
+    return file;
+  }
+
+  private static File rawFile(final int... values) throws IOException {
+    final File file = File.createTempFile("firehose", ".bin");
+    final OutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.write(ints(values));
+    out.close();
+    return file;
+  }
+
+  private static List<Integer> replayOnce(final MappedReplayConnectorJob.Factory<Integer> factory) {
+    final List<Integer> records = new ArrayList<Integer>();
+    final MappedReplayConnectorJob<Integer> job = factory.newInstance(new AbstractConnectorJob.Callback<Integer>() {
+
+      @Override
+      public void disconnected() {
+        throw new OpenGammaRuntimeException("Terminate test");
+      }
+
+      @Override
+      public void received(final Integer record) {
+        records.add(record);
+      }
+
+      @Override
+      public void connected() {
+      }
+
+    }, INTEGERS, null);
+    try {
+      job.run();
+    } catch (OpenGammaRuntimeException e) {
+      // Ignore; used to terminate the loop
+    }
+    return records;
+  }
+
+  //-------------------------------------------------------------------------
+  public void testMergeByTimestamp() throws IOException {
+    final File a = timestampedFile(new long[] {1000, 3000, 6000 }, new byte[][] {ints(1), ints(3), ints(6) });
+    final File b = timestampedFile(new long[] {2000, 4000 }, new byte[][] {ints(2), ints(4, 5) });
+    // A record split over blocks arrives when its last byte does
+    final byte[] split = ints(7);
+    final File c = timestampedFile(new long[] {5000, 7000 }, new byte[][] {Arrays.copyOf(split, 2), Arrays.copyOfRange(split, 2, 4) });
+    final File raw = rawFile(8, 9);
+    try {
+      final MappedReplayConnectorJob.Factory<Integer> factory = new MappedReplayConnectorJob.Factory<Integer>();
+      factory.setFilenames(Arrays.asList(raw.getPath(), a.getPath(), b.getPath(), c.getPath()));
+      factory.setSpeed(MappedReplayConnectorJob.AS_FAST_AS_POSSIBLE);
+      assertEquals(replayOnce(factory), Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9));
+      final ReplayReport report = factory.getLastReport();
+      assertNotNull(report);
+      assertEquals(report.getRecords(), 9);
+      assertTrue(report.getRecordsPerSecond() > 0);
+    } finally {
+      a.delete();
+      b.delete();
+      c.delete();
+      raw.delete();
+    }
+  }
+
+  public void testPacing() throws IOException {
+    final long[] timestamps = new long[11];
+    final byte[][] blocks = new byte[timestamps.length][];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamps[i] = i * 10000000L;
+      blocks[i] = ints(i);
+    }
+    final File file = timestampedFile(timestamps, blocks);
+    try {
+      final MappedReplayConnectorJob.Factory<Integer> factory = new MappedReplayConnectorJob.Factory<Integer>();
+      factory.setFilename(file.getPath());
+      factory.setSpeed(2);
+      final long start = System.nanoTime();
+      assertEquals(replayOnce(factory).size(), timestamps.length);
+      // 100ms of data at twice the original speed
+      assertTrue(System.nanoTime() - start >= 50000000L);
+      assertEquals(factory.getLastReport().getRecords(), timestamps.length);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testTruncatedRecording() throws IOException {
+    final File file = timestampedFile(new long[] {1000, 2000 }, new byte[][] {ints(1), ints(2) });
+    try {
+      // Lose the end of the last block, and with it the second record
+      final RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+      truncate.setLength(truncate.length() - 2);
+      truncate.close();
+      final MappedReplayConnectorJob.Factory<Integer> factory = new MappedReplayConnectorJob.Factory<Integer>();
+      factory.setFilename(file.getPath());
+      assertEquals(replayOnce(factory), Arrays.asList(1));
+    } finally {
+      file.delete();
+    }
+  }
+
+}
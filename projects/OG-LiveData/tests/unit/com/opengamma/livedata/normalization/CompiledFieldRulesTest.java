@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.normalization;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.fudgemsg.FudgeField;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.core.value.MarketDataRequirementNames;
+import com.opengamma.livedata.server.FieldHistoryStore;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Tests {@link CompiledFieldRules} against the rules applied one by one.
+ */
+@Test(groups = "unit")
+public class CompiledFieldRulesTest {
+
+  private static final String[] NAMES = new String[] {"BID", "ASK", "LAST_PRICE", "VOLUME", "PX_SETTLE", "OPT_IMPLIED_VOLATILITY_MID_RT",
+    MarketDataRequirementNames.BID, MarketDataRequirementNames.ASK, MarketDataRequirementNames.LAST, MarketDataRequirementNames.VOLUME,
+    MarketDataRequirementNames.MARKET_VALUE, MarketDataRequirementNames.MID_IMPLIED_VOLATILITY, "Foo", "Bar" };
+
+  private static List<NormalizationRule> standardRules() {
+    final List<NormalizationRule> rules = new ArrayList<NormalizationRule>();
+    rules.add(new FieldFilter("BID", "ASK", "LAST_PRICE", "VOLUME", "PX_SETTLE", "OPT_IMPLIED_VOLATILITY_MID_RT"));
+    rules.add(new FieldNameChange("BID", MarketDataRequirementNames.BID));
+    rules.add(new FieldNameChange("ASK", MarketDataRequirementNames.ASK));
+    rules.add(new FieldNameChange("LAST_PRICE", MarketDataRequirementNames.LAST));
+    rules.add(new FieldNameChange("PX_SETTLE", MarketDataRequirementNames.SETTLE_PRICE));
+    rules.add(new FieldNameChange("VOLUME", MarketDataRequirementNames.VOLUME));
+    rules.add(new FieldNameChange("OPT_IMPLIED_VOLATILITY_MID_RT", MarketDataRequirementNames.MID_IMPLIED_VOLATILITY));
+    rules.add(new MarketValueCalculator());
+    rules.add(new UnitChange(MarketDataRequirementNames.MARKET_VALUE, 0.01));
+    rules.add(new ImpliedVolatilityCalculator());
+    rules.add(new FieldHistoryUpdater());
+    rules.add(new FieldFilter(MarketDataRequirementNames.MARKET_VALUE, MarketDataRequirementNames.SETTLE_PRICE, MarketDataRequirementNames.VOLUME,
+        MarketDataRequirementNames.IMPLIED_VOLATILITY));
+    rules.add(new RequiredFieldFilter(MarketDataRequirementNames.MARKET_VALUE));
+    return rules;
+  }
+
+  private static List<NormalizationRule> randomRules(final Random random) {
+    final List<NormalizationRule> rules = new ArrayList<NormalizationRule>();
+    final int count = 1 + random.nextInt(8);
+    for (int i = 0; i < count; i++) {
+      switch (random.nextInt(4)) {
+        case 0:
+          rules.add(new FieldFilter(randomNames(random)));
+          break;
+        case 1:
+          rules.add(new FieldNameChange(randomName(random), randomName(random)));
+          break;
+        case 2:
+          rules.add(new UnitChange(randomName(random), 1 + random.nextInt(100) / 7d));
+          break;
+        default:
+          rules.add(new RequiredFieldFilter(randomNames(random)));
+          break;
+      }
+    }
+    return rules;
+  }
+
+  private static String randomName(final Random random) {
+    return NAMES[random.nextInt(NAMES.length)];
+  }
+
+  private static List<String> randomNames(final Random random) {
+    final List<String> names = new ArrayList<String>();
+    final int count = random.nextInt(NAMES.length / 2);
+    for (int i = 0; i < count; i++) {
+      names.add(randomName(random));
+    }
+    return names;
+  }
+
+  private static FudgeMsg randomMessage(final Random random, final boolean clean) {
+    final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    final List<String> names = new ArrayList<String>(Arrays.asList(NAMES));
+    final int count = random.nextInt(8);
+    for (int i = 0; i < count; i++) {
+      final String name = clean ? names.remove(random.nextInt(names.size())) : randomName(random);
+      final int type = clean ? 0 : random.nextInt(6);
+      switch (type) {
+        case 1:
+          msg.add(name, random.nextInt(1000));
+          break;
+        case 2:
+          msg.add(name, "Value" + i);
+          break;
+        case 3:
+          msg.add(null, i, 100d * random.nextDouble());
+          break;
+        default:
+          msg.add(name, 100d * random.nextDouble());
+          break;
+      }
+    }
+    return msg;
+  }
+
+  private static FudgeMsg applyOneByOne(final List<NormalizationRule> rules, final FudgeMsg msg, final FieldHistoryStore history) {
+    MutableFudgeMsg normalizedMsg = OpenGammaFudgeContext.getInstance().newMessage(msg);
+    for (NormalizationRule rule : rules) {
+      normalizedMsg = rule.apply(normalizedMsg, "123", history);
+      if (normalizedMsg == null) {
+        return null;
+      }
+    }
+    return normalizedMsg;
+  }
+
+  private static void assertSameFields(final FudgeMsg expected, final FudgeMsg actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    final List<FudgeField> expectedFields = expected.getAllFields();
+    final List<FudgeField> actualFields = actual.getAllFields();
+    assertEquals(expectedFields.size(), actualFields.size());
+    for (int i = 0; i < expectedFields.size(); i++) {
+      assertEquals(expectedFields.get(i).getName(), actualFields.get(i).getName());
+      assertEquals(expectedFields.get(i).getOrdinal(), actualFields.get(i).getOrdinal());
+      assertEquals(expectedFields.get(i).getType(), actualFields.get(i).getType());
+      assertEquals(expectedFields.get(i).getValue(), actualFields.get(i).getValue());
+    }
+  }
+
+  private static Map<String, Object> history(final FieldHistoryStore history) {
+    final Map<String, Object> values = new TreeMap<String, Object>();
+    for (FudgeField field : history.getLastKnownValues()) {
+      values.put(field.getName(), field.getValue());
+    }
+    return values;
+  }
+
+  //-------------------------------------------------------------------------
+  public void testRandomRules() {
+    final Random random = new Random(1);
+    long messages = 0;
+    long fallbacks = 0;
+    for (int i = 0; i < 200; i++) {
+      final List<NormalizationRule> rules = randomRules(random);
+      final CompiledFieldRules compiled = new CompiledFieldRules(rules);
+      for (int j = 0; j < 200; j++) {
+        final FudgeMsg msg = randomMessage(random, random.nextBoolean());
+        final String before = msg.toString();
+        assertSameFields(applyOneByOne(rules, msg, new FieldHistoryStore()), compiled.applyToCopy(msg, "123", new FieldHistoryStore()));
+        assertEquals(before, msg.toString());
+        final MutableFudgeMsg mutableMsg = OpenGammaFudgeContext.getInstance().newMessage(msg);
+        assertSameFields(applyOneByOne(rules, msg, new FieldHistoryStore()), compiled.apply(mutableMsg, "123", new FieldHistoryStore()));
+        messages += 2;
+      }
+      fallbacks += compiled.getFallbackCount();
+    }
+    // Most messages must take the single pass for the test to be meaningful
+    assertTrue(fallbacks < messages / 2);
+  }
+
+  public void testStandardRuleSet() {
+    final Random random = new Random(2);
+    final List<NormalizationRule> rules = standardRules();
+    final NormalizationRuleSet ruleSet = new NormalizationRuleSet("Test", "Test", rules);
+    final FieldHistoryStore expectedHistory = new FieldHistoryStore();
+    final FieldHistoryStore actualHistory = new FieldHistoryStore();
+    for (int i = 0; i < 10000; i++) {
+      final FudgeMsg msg = randomMessage(random, random.nextInt(4) > 0);
+      assertSameFields(applyOneByOne(rules, msg, expectedHistory), ruleSet.getNormalizedMessage(msg, "123", actualHistory));
+      assertEquals(history(expectedHistory), history(actualHistory));
+    }
+  }
+
+  public void testCompile() {
+    final List<NormalizationRule> compiled = CompiledFieldRules.compile(standardRules());
+    assertEquals(6, compiled.size());
+    assertEquals(7, ((CompiledFieldRules) compiled.get(0)).getRules().size());
+    assertTrue(compiled.get(1) instanceof MarketValueCalculator);
+    assertEquals(1, ((CompiledFieldRules) compiled.get(2)).getRules().size());
+    assertEquals(2, ((CompiledFieldRules) compiled.get(5)).getRules().size());
+  }
+
+  public void testRepeatedFieldFallsBack() {
+    final CompiledFieldRules compiled = new CompiledFieldRules(Arrays.<NormalizationRule>asList(new FieldNameChange("Foo", "Bar")));
+    final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Foo", 1d);
+    msg.add("Foo", 2d);
+    msg.add("Baz", 3d);
+    final FudgeMsg normalized = compiled.applyToCopy(msg, "123", new FieldHistoryStore());
+    assertEquals(1, compiled.getFallbackCount());
+    assertEquals(2, normalized.getNumFields());
+    assertEquals(3d, normalized.getDouble("Baz"), 0);
+    assertEquals(1d, normalized.getDouble("Bar"), 0);
+  }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fudgemsg.FudgeMsg;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.id.ExternalScheme;
+import com.opengamma.livedata.LiveDataSpecification;
+import com.opengamma.livedata.UserPrincipal;
+import com.opengamma.livedata.entitlement.AbstractEntitlementChecker;
+import com.opengamma.livedata.msg.LiveDataSubscriptionRequest;
+import com.opengamma.livedata.msg.LiveDataSubscriptionResponse;
+import com.opengamma.livedata.msg.LiveDataSubscriptionResponseMsg;
+import com.opengamma.livedata.msg.LiveDataSubscriptionResult;
+import com.opengamma.livedata.msg.SubscriptionType;
+
+/**
+ * Tests the chunked processing of large subscription requests by {@link AbstractLiveDataServer}.
+ */
+@Test(groups = "unit")
+public class BulkSubscriptionTest {
+
+  private static final int NUM_SPECS = 25;
+
+  private ExternalScheme _domain;
+  private MockLiveDataServer _server;
+  private ExecutorService _executor;
+  private AtomicInteger _entitlementCalls;
+
+  @BeforeMethod
+  public void setUp() {
+    _domain = ExternalScheme.of("test");
+    _server = new MockLiveDataServer(_domain);
+    _executor = Executors.newFixedThreadPool(4);
+    _entitlementCalls = new AtomicInteger();
+    _server.setSubscriptionChunkSize(10);
+    _server.setSubscriptionExecutor(_executor);
+    // Denies anything ending in 7
+    _server.setEntitlementChecker(new AbstractEntitlementChecker() {
+      @Override
+      public Map<LiveDataSpecification, Boolean> isEntitled(UserPrincipal user, Collection<LiveDataSpecification> requestedSpecifications) {
+        _entitlementCalls.incrementAndGet();
+        Map<LiveDataSpecification, Boolean> result = new HashMap<LiveDataSpecification, Boolean>();
+        for (LiveDataSpecification spec : requestedSpecifications) {
+          result.put(spec, !spec.getIdentifier(_domain).endsWith("7"));
+        }
+        return result;
+      }
+    });
+    _server.connect();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    _executor.shutdown();
+  }
+
+  private LiveDataSubscriptionRequest request(SubscriptionType type) {
+    List<LiveDataSpecification> specs = new ArrayList<LiveDataSpecification>();
+    for (int i = 0; i < NUM_SPECS; i++) {
+      specs.add(new LiveDataSpecification(_server.getDefaultNormalizationRuleSetId(), ExternalId.of(_domain, "sec" + i)));
+    }
+    return new LiveDataSubscriptionRequest(new UserPrincipal("mark", "1.1.1.1"), type, specs);
+  }
+
+  //-------------------------------------------------------------------------
+  public void chunkedSubscription() {
+    LiveDataSubscriptionResponseMsg response = _server.subscriptionRequestMade(request(SubscriptionType.NON_PERSISTENT));
+
+    assertEquals(NUM_SPECS, response.getResponses().size());
+    int denied = 0;
+    for (LiveDataSubscriptionResponse r : response.getResponses()) {
+      String id = r.getRequestedSpecification().getIdentifier(_domain);
+      if (id.endsWith("7")) {
+        assertEquals(LiveDataSubscriptionResult.NOT_AUTHORIZED, r.getSubscriptionResult());
+        denied++;
+      } else {
+        assertEquals(LiveDataSubscriptionResult.SUCCESS, r.getSubscriptionResult());
+        assertTrue(_server.isSubscribedTo(id));
+      }
+    }
+    assertEquals(2, denied);
+    assertEquals(NUM_SPECS - denied, _server.getNumActiveSubscriptions());
+
+    // one entitlement check per chunk of the request
+    assertEquals(3, _entitlementCalls.get());
+  }
+
+  public void chunkedSubscriptionWithoutExecutor() {
+    _server.setSubscriptionExecutor(null);
+    LiveDataSubscriptionResponseMsg response = _server.subscriptionRequestMade(request(SubscriptionType.PERSISTENT));
+    assertEquals(NUM_SPECS, response.getResponses().size());
+    assertEquals(NUM_SPECS - 2, _server.getNumActiveSubscriptions());
+    assertEquals(3, _entitlementCalls.get());
+  }
+
+  public void initialSnapshotsTakenForWholeRequest() {
+    final List<Integer> snapshotBatches = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> subscribedBeforeSnapshot = Collections.synchronizedList(new ArrayList<Integer>());
+    _server = new MockLiveDataServer(_domain) {
+      @Override
+      protected boolean snapshotOnSubscriptionStartRequired(Subscription subscription) {
+        return true;
+      }
+
+      @Override
+      protected Map<String, FudgeMsg> doSnapshot(Collection<String> uniqueIds) {
+        snapshotBatches.add(uniqueIds.size());
+        subscribedBeforeSnapshot.add(getActualSubscriptions().size());
+        return super.doSnapshot(uniqueIds);
+      }
+    };
+    _server.setSubscriptionChunkSize(10);
+    _server.setSubscriptionExecutor(_executor);
+    _server.connect();
+    LiveDataSubscriptionResponseMsg response = _server.subscriptionRequestMade(request(SubscriptionType.NON_PERSISTENT));
+    assertEquals(NUM_SPECS, response.getResponses().size());
+    assertEquals(NUM_SPECS, _server.getNumActiveSubscriptions());
+    // taken in parallel chunks before any chunk was subscribed, and not again as each chunk was subscribed
+    Collections.sort(snapshotBatches);
+    assertEquals(Arrays.asList(5, 10, 10), snapshotBatches);
+    assertEquals(Arrays.asList(0, 0, 0), subscribedBeforeSnapshot);
+    // nothing new to snapshot
+    snapshotBatches.clear();
+    _server.subscriptionRequestMade(request(SubscriptionType.NON_PERSISTENT));
+    assertTrue(snapshotBatches.isEmpty());
+  }
+
+  public void repeatedSubscription() {
+    _server.subscriptionRequestMade(request(SubscriptionType.NON_PERSISTENT));
+    LiveDataSubscriptionResponseMsg response = _server.subscriptionRequestMade(request(SubscriptionType.NON_PERSISTENT));
+    assertEquals(NUM_SPECS, response.getResponses().size());
+    assertEquals(NUM_SPECS - 2, _server.getNumActiveSubscriptions());
+    assertEquals(NUM_SPECS - 2, _server.getActualSubscriptions().size());
+  }
+
+}
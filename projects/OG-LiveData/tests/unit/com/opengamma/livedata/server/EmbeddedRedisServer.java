@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stand-in for a Redis server, speaking enough of the Redis protocol
+ * for the commands used by {@link RedisLastKnownValueStoreProvider} and {@link RedisLastKnownValueStore}.
+ * <p>
+ * Hashes and sets are held in memory. The server can be told to fail, in which case it drops
+ * each connection that sends it a command.
+ */
+public class EmbeddedRedisServer {
+
+  private static final Logger s_logger = LoggerFactory.getLogger(EmbeddedRedisServer.class);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ServerSocket _serverSocket;
+  private final Map<String, Map<String, String>> _hashes = new HashMap<String, Map<String, String>>();
+  private final Map<String, Set<String>> _sets = new HashMap<String, Set<String>>();
+  private final ConcurrentMap<String, AtomicInteger> _commandCounts = new ConcurrentHashMap<String, AtomicInteger>();
+  private final List<Socket> _connections = new CopyOnWriteArrayList<Socket>();
+  private volatile boolean _failing;
+
+  public EmbeddedRedisServer() throws IOException {
+    _serverSocket = new ServerSocket(0, 50, InetAddress.getLocalHost());
+    final Thread thread = new Thread("EmbeddedRedisServer") {
+      @Override
+      public void run() {
+        accept();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public String getHost() {
+    return _serverSocket.getInetAddress().getHostName();
+  }
+
+  public int getPort() {
+    return _serverSocket.getLocalPort();
+  }
+
+  public void setFailing(final boolean failing) {
+    _failing = failing;
+  }
+
+  /**
+   * Gets the number of times a command has been received.
+   *
+   * @param command  the command, in upper case
+   * @return the number of times received
+   */
+  public int getCommandCount(final String command) {
+    final AtomicInteger count = _commandCounts.get(command);
+    return (count != null) ? count.get() : 0;
+  }
+
+  public synchronized Map<String, String> getHash(final String key) {
+    final Map<String, String> hash = _hashes.get(key);
+    return (hash != null) ? new HashMap<String, String>(hash) : new HashMap<String, String>();
+  }
+
+  public void close() throws IOException {
+    _serverSocket.close();
+    for (Socket connection : _connections) {
+      connection.close();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  private void accept() {
+    while (!_serverSocket.isClosed()) {
+      try {
+        final Socket socket = _serverSocket.accept();
+        _connections.add(socket);
+        final Thread thread = new Thread("EmbeddedRedisServer-" + socket.getPort()) {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        };
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+  }
+
+  private void serve(final Socket socket) {
+    try {
+      final InputStream in = new BufferedInputStream(socket.getInputStream());
+      final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      while (true) {
+        final List<String> command = readCommand(in);
+        if (command == null || _failing) {
+          break;
+        }
+        final String name = command.get(0).toUpperCase();
+        _commandCounts.putIfAbsent(name, new AtomicInteger());
+        _commandCounts.get(name).incrementAndGet();
+        execute(name, command.subList(1, command.size()), out);
+        if (in.available() == 0) {
+          out.flush();
+        }
+        if ("QUIT".equals(name)) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      s_logger.debug("Connection closed: {}", e.getMessage());
+    } finally {
+      _connections.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Ignore
+      }
+    }
+  }
+
+  private synchronized void execute(final String name, final List<String> args, final OutputStream out) throws IOException {
+    if ("PING".equals(name)) {
+      writeStatus(out, "PONG");
+    } else if ("QUIT".equals(name) || "SELECT".equals(name)) {
+      writeStatus(out, "OK");
+    } else if ("HSET".equals(name)) {
+      writeInteger(out, (hash(args.get(0)).put(args.get(1), args.get(2)) == null) ? 1 : 0);
+    } else if ("HMSET".equals(name)) {
+      if ((args.size() < 3) || (args.size() % 2 != 1)) {
+        writeError(out, "wrong number of arguments for 'hmset' command");
+        return;
+      }
+      final Map<String, String> hash = hash(args.get(0));
+      for (int i = 1; i < args.size(); i += 2) {
+        hash.put(args.get(i), args.get(i + 1));
+      }
+      writeStatus(out, "OK");
+    } else if ("HGET".equals(name)) {
+      final Map<String, String> hash = _hashes.get(args.get(0));
+      writeBulk(out, (hash != null) ? hash.get(args.get(1)) : null);
+    } else if ("HGETALL".equals(name)) {
+      final Map<String, String> hash = _hashes.get(args.get(0));
+      final List<String> reply = new ArrayList<String>();
+      if (hash != null) {
+        for (Map.Entry<String, String> field : hash.entrySet()) {
+          reply.add(field.getKey());
+          reply.add(field.getValue());
+        }
+      }
+      writeMultiBulk(out, reply);
+    } else if ("EXISTS".equals(name)) {
+      writeInteger(out, (_hashes.containsKey(args.get(0)) || _sets.containsKey(args.get(0))) ? 1 : 0);
+    } else if ("DEL".equals(name)) {
+      int removed = 0;
+      for (String key : args) {
+        if ((_hashes.remove(key) != null) | (_sets.remove(key) != null)) {
+          removed++;
+        }
+      }
+      writeInteger(out, removed);
+    } else if ("SADD".equals(name)) {
+      Set<String> set = _sets.get(args.get(0));
+      if (set == null) {
+        set = new HashSet<String>();
+        _sets.put(args.get(0), set);
+      }
+      int added = 0;
+      for (String member : args.subList(1, args.size())) {
+        if (set.add(member)) {
+          added++;
+        }
+      }
+      writeInteger(out, added);
+    } else if ("SMEMBERS".equals(name)) {
+      final Set<String> set = _sets.get(args.get(0));
+      writeMultiBulk(out, (set != null) ? set : new HashSet<String>());
+    } else {
+      writeError(out, "unknown command '" + name + "'");
+    }
+  }
+
+  private Map<String, String> hash(final String key) {
+    Map<String, String> hash = _hashes.get(key);
+    if (hash == null) {
+      hash = new HashMap<String, String>();
+      _hashes.put(key, hash);
+    }
+    return hash;
+  }
+
+  //-------------------------------------------------------------------------
+  private static List<String> readCommand(final InputStream in) throws IOException {
+    final int type = in.read();
+    if (type < 0) {
+      return null;
+    }
+    if (type != '*') {
+      throw new IOException("Expected multi-bulk command, got " + (char) type);
+    }
+    final int count = Integer.parseInt(readLine(in));
+    final List<String> command = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      if (in.read() != '$') {
+        throw new IOException("Expected bulk argument");
+      }
+      final byte[] data = new byte[Integer.parseInt(readLine(in))];
+      int read = 0;
+      while (read < data.length) {
+        final int n = in.read(data, read, data.length - read);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+      readLine(in);
+      command.add(new String(data, UTF8));
+    }
+    return command;
+  }
+
+  private static String readLine(final InputStream in) throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\r') {
+      if (b < 0) {
+        throw new EOFException();
+      }
+      line.write(b);
+    }
+    in.read();
+    return new String(line.toByteArray(), UTF8);
+  }
+
+  private static void writeStatus(final OutputStream out, final String status) throws IOException {
+    out.write(("+" + status + "\r\n").getBytes(UTF8));
+  }
+
+  private static void writeError(final OutputStream out, final String error) throws IOException {
+    out.write(("-ERR " + error + "\r\n").getBytes(UTF8));
+  }
+
+  private static void writeInteger(final OutputStream out, final int value) throws IOException {
+    out.write((":" + value + "\r\n").getBytes(UTF8));
+  }
+
+  private static void writeBulk(final OutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.write("$-1\r\n".getBytes(UTF8));
+      return;
+    }
+    final byte[] data = value.getBytes(UTF8);
+    out.write(("$" + data.length + "\r\n").getBytes(UTF8));
+    out.write(data);
+    out.write("\r\n".getBytes(UTF8));
+  }
+
+  private static void writeMultiBulk(final OutputStream out, final Collection<String> values) throws IOException {
+    out.write(("*" + values.size() + "\r\n").getBytes(UTF8));
+    for (String value : values) {
+      writeBulk(out, value);
+    }
+  }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.livedata.LiveDataValueUpdateBean;
+import com.opengamma.livedata.normalization.StandardRules;
+import com.opengamma.livedata.server.distribution.MarketDataDistributor;
+import com.opengamma.livedata.server.distribution.MarketDataSender;
+import com.opengamma.livedata.server.distribution.MarketDataSenderFactory;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Tests {@link MarketDataDistributionPipeline}
+ */
+@Test(groups = "unit")
+public class MarketDataDistributionPipelineTest {
+
+  private static final long TIMEOUT = 5000L;
+
+  private static class RecordingSender implements MarketDataSender {
+
+    private final MarketDataDistributor _distributor;
+    private final List<LiveDataValueUpdateBean> _received = new ArrayList<LiveDataValueUpdateBean>();
+    private volatile CountDownLatch _block;
+
+    public RecordingSender(final MarketDataDistributor distributor) {
+      _distributor = distributor;
+    }
+
+    @Override
+    public void sendMarketData(final LiveDataValueUpdateBean data) {
+      final CountDownLatch block = _block;
+      if (block != null) {
+        try {
+          block.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      synchronized (this) {
+        _received.add(data);
+        notifyAll();
+      }
+    }
+
+    public synchronized List<LiveDataValueUpdateBean> waitFor(final int lastValue) throws InterruptedException {
+      final long end = System.currentTimeMillis() + TIMEOUT;
+      while (_received.isEmpty() || _received.get(_received.size() - 1).getFields().getInt("i") != lastValue) {
+        final long wait = end - System.currentTimeMillis();
+        assertTrue("Timed out", wait > 0);
+        wait(wait);
+      }
+      return new ArrayList<LiveDataValueUpdateBean>(_received);
+    }
+
+    @Override
+    public MarketDataDistributor getDistributor() {
+      return _distributor;
+    }
+
+  }
+
+  private static class RecordingSenderFactory implements MarketDataSenderFactory {
+
+    private final List<RecordingSender> _senders = new ArrayList<RecordingSender>();
+
+    @Override
+    public synchronized Collection<MarketDataSender> create(final MarketDataDistributor distributor) {
+      final RecordingSender sender = new RecordingSender(distributor);
+      _senders.add(sender);
+      return Collections.<MarketDataSender>singleton(sender);
+    }
+
+  }
+
+  private static FudgeMsg tick(final int i, final String field) {
+    final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("i", i);
+    msg.add(field, (double) i);
+    return msg;
+  }
+
+  private static DistributionSpecification spec(final String ticker) {
+    return new DistributionSpecification(ExternalId.of("Test", ticker), StandardRules.getNoNormalization(), "LiveData.Test." + ticker);
+  }
+
+  public void testOrderPreservedPerTopic() throws InterruptedException {
+    final RecordingSenderFactory factory = new RecordingSenderFactory();
+    final MarketDataDistributionPipeline pipeline = new MarketDataDistributionPipeline(4, 100000);
+    final List<Subscription> subscriptions = new ArrayList<Subscription>();
+    for (int i = 0; i < 8; i++) {
+      final Subscription subscription = new Subscription("S" + i, factory, new MapLastKnownValueStoreProvider());
+      subscription.createDistributor(spec("S" + i), false);
+      subscriptions.add(subscription);
+    }
+    pipeline.start();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        for (Subscription subscription : subscriptions) {
+          assertTrue(pipeline.liveDataReceived(subscription, tick(i, "Bid")));
+        }
+      }
+      for (RecordingSender sender : factory._senders) {
+        final List<LiveDataValueUpdateBean> received = sender.waitFor(999);
+        long sequence = -1;
+        int value = -1;
+        for (LiveDataValueUpdateBean update : received) {
+          assertTrue(update.getSequenceNumber() > sequence);
+          assertTrue(update.getFields().getInt("i") > value);
+          sequence = update.getSequenceNumber();
+          value = update.getFields().getInt("i");
+        }
+      }
+      assertEquals(0, pipeline.getTicksConflated());
+      assertEquals(8000, pipeline.getNormalizationLatency().getCount());
+    } finally {
+      pipeline.stop();
+    }
+  }
+
+  public void testFullNormalizationQueueConflated() throws InterruptedException {
+    final RecordingSenderFactory factory = new RecordingSenderFactory();
+    final MarketDataDistributionPipeline pipeline = new MarketDataDistributionPipeline(1, 2);
+    final Subscription subscription = new Subscription("S", factory, new MapLastKnownValueStoreProvider());
+    subscription.createDistributor(spec("S"), false);
+    final RecordingSender sender = factory._senders.get(0);
+    // Nothing is taken from the queues until the pipeline starts
+    assertTrue(pipeline.liveDataReceived(subscription, tick(0, "Bid")));
+    assertTrue(pipeline.liveDataReceived(subscription, tick(1, "Bid")));
+    assertFalse(pipeline.liveDataReceived(subscription, tick(2, "Bid")));
+    assertFalse(pipeline.liveDataReceived(subscription, tick(3, "Ask")));
+    assertFalse(pipeline.liveDataReceived(subscription, tick(4, "Bid")));
+    assertEquals(2, pipeline.getTicksConflated());
+    pipeline.start();
+    try {
+      final List<LiveDataValueUpdateBean> received = sender.waitFor(4);
+      final LiveDataValueUpdateBean last = received.get(received.size() - 1);
+      assertEquals(4.0, last.getFields().getDouble("Bid"), 0);
+      assertEquals(3.0, last.getFields().getDouble("Ask"), 0);
+      assertEquals(3, pipeline.getNormalizationLatency().getCount());
+    } finally {
+      pipeline.stop();
+    }
+  }
+
+  public void testSlowSenderConflated() throws InterruptedException {
+    final RecordingSenderFactory factory = new RecordingSenderFactory();
+    final MarketDataDistributionPipeline pipeline = new MarketDataDistributionPipeline(1, 100);
+    final Subscription subscription = new Subscription("S", factory, new MapLastKnownValueStoreProvider());
+    subscription.createDistributor(spec("S"), false);
+    final RecordingSender sender = factory._senders.get(0);
+    final CountDownLatch block = new CountDownLatch(1);
+    sender._block = block;
+    pipeline.start();
+    try {
+      pipeline.liveDataReceived(subscription, tick(0, "Bid"));
+      // Wait for the first update to be blocked in the sender
+      final long end = System.currentTimeMillis() + TIMEOUT;
+      while ((pipeline.getSendQueueDepth() > 0) || (pipeline.getNormalizationQueueDepth() > 0)) {
+        assertTrue("Timed out", System.currentTimeMillis() < end);
+        Thread.sleep(10);
+      }
+      Thread.sleep(50);
+      pipeline.liveDataReceived(subscription, tick(1, "Bid"));
+      pipeline.liveDataReceived(subscription, tick(2, "Ask"));
+      pipeline.liveDataReceived(subscription, tick(3, "Bid"));
+      while (pipeline.getNormalizationQueueDepth() > 0) {
+        assertTrue("Timed out", System.currentTimeMillis() < end);
+        Thread.sleep(10);
+      }
+      Thread.sleep(50);
+      sender._block = null;
+      block.countDown();
+      final List<LiveDataValueUpdateBean> received = sender.waitFor(3);
+      assertEquals(2, received.size());
+      final LiveDataValueUpdateBean merged = received.get(1);
+      assertEquals(3, merged.getSequenceNumber());
+      assertEquals(3.0, merged.getFields().getDouble("Bid"), 0);
+      assertEquals(2.0, merged.getFields().getDouble("Ask"), 0);
+      assertEquals(2, pipeline.getUpdatesConflated());
+    } finally {
+      pipeline.stop();
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+
+/**
+ * Tests {@link PrimitiveLastKnownValueStore}
+ */
+@Test(groups = "unit")
+public class PrimitiveLastKnownValueStoreTest {
+
+  public void testUpdates() {
+    final PrimitiveLastKnownValueStore store = new PrimitiveLastKnownValueStore();
+    assertTrue(store.isEmpty());
+    MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Bid", 1.0);
+    msg.add("Ask", 2.0);
+    store.updateFields(msg);
+    assertFalse(store.isEmpty());
+    msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Ask", 3.0);
+    msg.add("Last", 2.5);
+    store.updateFields(msg);
+    final FudgeMsg fields = store.getFields();
+    assertEquals(3, fields.getNumFields());
+    assertEquals(1.0, fields.getDouble("Bid"), 0);
+    assertEquals(3.0, fields.getDouble("Ask"), 0);
+    assertEquals(2.5, fields.getDouble("Last"), 0);
+  }
+
+  public void testNonDoubleFields() {
+    final PrimitiveLastKnownValueStore store = new PrimitiveLastKnownValueStore();
+    MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Bid", 1.0);
+    msg.add("Status", "Open");
+    msg.add(null, 1, 4.0);
+    store.updateFields(msg);
+    FudgeMsg fields = store.getFields();
+    assertEquals(3, fields.getNumFields());
+    assertEquals("Open", fields.getString("Status"));
+    assertEquals(4.0, fields.getDouble(1), 0);
+    // A field can change between a double and something else
+    msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Bid", "None");
+    msg.add("Status", 5.0);
+    store.updateFields(msg);
+    fields = store.getFields();
+    assertEquals("None", fields.getString("Bid"));
+    assertEquals(5.0, fields.getDouble("Status"), 0);
+    assertNull(fields.getByName("Ask"));
+  }
+
+  public void testUnnamedFieldsKeptByOrdinal() {
+    final PrimitiveLastKnownValueStore store = new PrimitiveLastKnownValueStore();
+    MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add(null, 1, 1.0);
+    msg.add(null, 2, 2.0);
+    store.updateFields(msg);
+    msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add(null, 2, 3.0);
+    store.updateFields(msg);
+    final FudgeMsg fields = store.getFields();
+    assertEquals(2, fields.getNumFields());
+    assertEquals(1.0, fields.getDouble(1), 0);
+    assertEquals(3.0, fields.getDouble(2), 0);
+  }
+
+  public void testFullDictionary() {
+    final PrimitiveLastKnownValueStore.FieldNames fieldNames = new PrimitiveLastKnownValueStore.FieldNames(1);
+    final PrimitiveLastKnownValueStore store = new PrimitiveLastKnownValueStore(fieldNames);
+    MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Bid", 1.0);
+    msg.add("Ask", 2.0);
+    store.updateFields(msg);
+    assertEquals(1, fieldNames.size());
+    msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Ask", 3.0);
+    msg.add("Last", 2.5);
+    store.updateFields(msg);
+    final FudgeMsg fields = store.getFields();
+    assertEquals(3, fields.getNumFields());
+    assertEquals(1.0, fields.getDouble("Bid"), 0);
+    assertEquals(3.0, fields.getDouble("Ask"), 0);
+    assertEquals(2.5, fields.getDouble("Last"), 0);
+    assertEquals(1, fieldNames.size());
+  }
+
+  public void testProvider() {
+    final PrimitiveLastKnownValueStoreProvider provider = new PrimitiveLastKnownValueStoreProvider();
+    final ExternalId a = ExternalId.of("Test", "A");
+    final ExternalId b = ExternalId.of("Other", "B");
+    final LastKnownValueStore store = provider.newInstance(a, "Raw");
+    provider.newInstance(b, "Raw");
+    assertFalse(provider.isAvailable(a, "Raw"));
+    final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("Bid", 1.0);
+    store.updateFields(msg);
+    assertTrue(provider.isAvailable(a, "Raw"));
+    assertFalse(provider.isAvailable(a, "Normalized"));
+    assertSame(store, provider.newInstance(a, "Raw"));
+    assertEquals(Collections.singleton("A"), provider.getAllIdentifiers("Test"));
+    assertEquals(Collections.singleton("B"), provider.getAllIdentifiers("Other"));
+  }
+
+  public void testConsistentReads() throws InterruptedException {
+    final PrimitiveLastKnownValueStore store = new PrimitiveLastKnownValueStore();
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        while (!done.get()) {
+          final FudgeMsg fields = store.getFields();
+          final Double bid = fields.getDouble("Bid");
+          final Double ask = fields.getDouble("Ask");
+          if ((bid != null) && ((ask == null) || (bid.doubleValue() != ask.doubleValue()))) {
+            failure.set("Torn read " + fields);
+          }
+        }
+      }
+    };
+    reader.start();
+    for (int i = 0; i < 100000; i++) {
+      final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+      msg.add("Bid", (double) i);
+      msg.add("Ask", (double) i);
+      store.updateFields(msg);
+    }
+    done.set(true);
+    reader.join();
+    assertNull(failure.get());
+  }
+
+}
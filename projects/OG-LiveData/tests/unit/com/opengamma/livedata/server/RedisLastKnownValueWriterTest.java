@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.livedata.server;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.opengamma.id.ExternalId;
+import com.opengamma.util.fudgemsg.OpenGammaFudgeContext;
+import com.opengamma.util.test.Timeout;
+
+/**
+ * Tests {@link RedisLastKnownValueWriter} and write-behind {@link RedisLastKnownValueStore}s against
+ * an {@link EmbeddedRedisServer}.
+ */
+@Test(groups = "unit")
+public class RedisLastKnownValueWriterTest {
+
+  private EmbeddedRedisServer _server;
+  private JedisPool _jedisPool;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    _server = new EmbeddedRedisServer();
+    _jedisPool = new JedisPool(new JedisPoolConfig(), _server.getHost(), _server.getPort());
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    _jedisPool.destroy();
+    _server.close();
+  }
+
+  private static FudgeMsg fields(final double bid, final double ask) {
+    final MutableFudgeMsg msg = OpenGammaFudgeContext.getInstance().newMessage();
+    msg.add("bid", bid);
+    msg.add("ask", ask);
+    return msg;
+  }
+
+  //-------------------------------------------------------------------------
+  public void testCoalescedAndPipelined() {
+    final RedisLastKnownValueWriter writer = new RedisLastKnownValueWriter(_jedisPool);
+    writer.setMaxBatchSize(2);
+    final RedisLastKnownValueStore a = new RedisLastKnownValueStore(_jedisPool, "A", true, writer);
+    final RedisLastKnownValueStore b = new RedisLastKnownValueStore(_jedisPool, "B", true, writer);
+    final RedisLastKnownValueStore c = new RedisLastKnownValueStore(_jedisPool, "C", true, writer);
+    for (int i = 1; i <= 100; i++) {
+      a.updateFields(fields(i, i + 1));
+      b.updateFields(fields(i * 2, i * 2 + 1));
+    }
+    c.updateFields(fields(7, 8));
+    // Nothing reaches Redis until flushed, but the store is up to date
+    assertEquals(0, _server.getCommandCount("HMSET"));
+    assertEquals(100d, a.getFields().getDouble("bid"), 0d);
+    assertEquals(3, writer.getBacklog());
+    assertEquals(2 * 99 * 2, writer.getFieldsCoalesced());
+
+    assertTrue(writer.flush());
+    assertEquals(0, writer.getBacklog());
+    assertEquals(3, _server.getCommandCount("HMSET"));
+    assertEquals(6, writer.getFieldsWritten());
+    assertEquals(1, writer.getFlushes());
+    assertEquals("100.0", _server.getHash("A").get("bid"));
+    assertEquals("101.0", _server.getHash("A").get("ask"));
+    assertEquals("200.0", _server.getHash("B").get("bid"));
+    assertEquals("7.0", _server.getHash("C").get("bid"));
+
+    // A new store reads back what was written
+    final RedisLastKnownValueStore reloaded = new RedisLastKnownValueStore(_jedisPool, "A", true, writer);
+    assertEquals(101d, reloaded.getFields().getDouble("ask"), 0d);
+  }
+
+  public void testFailureKeptForRetry() {
+    final RedisLastKnownValueWriter writer = new RedisLastKnownValueWriter(_jedisPool);
+    final RedisLastKnownValueStore store = new RedisLastKnownValueStore(_jedisPool, "A", true, writer);
+    store.updateFields(fields(1, 2));
+    _server.setFailing(true);
+    assertFalse(writer.flush());
+    assertEquals(1, writer.getFlushFailures());
+    assertEquals(1, writer.getBacklog());
+    // Updates carry on while Redis is unavailable, and replace what is waiting to be retried
+    store.updateFields(fields(3, 4));
+    assertEquals(3d, store.getFields().getDouble("bid"), 0d);
+    assertFalse(writer.flush());
+    assertEquals(2, writer.getFlushFailures());
+    _server.setFailing(false);
+    assertTrue(writer.flush());
+    assertEquals(0, writer.getBacklog());
+    assertEquals("3.0", _server.getHash("A").get("bid"));
+    assertEquals("4.0", _server.getHash("A").get("ask"));
+  }
+
+  public void testBoundedBacklog() {
+    final RedisLastKnownValueWriter writer = new RedisLastKnownValueWriter(_jedisPool);
+    writer.setMaxBacklog(2);
+    writer.write("A", Collections.singletonMap("bid", "1.0"));
+    writer.write("B", Collections.singletonMap("bid", "1.0"));
+    writer.write("C", Collections.singletonMap("bid", "1.0"));
+    // Keys already waiting can still be updated
+    writer.write("A", Collections.singletonMap("bid", "2.0"));
+    assertEquals(2, writer.getBacklog());
+    assertEquals(1, writer.getFieldsDropped());
+    assertEquals(1, writer.getFieldsCoalesced());
+    assertTrue(writer.flush());
+    assertEquals("2.0", _server.getHash("A").get("bid"));
+    assertNull(_server.getHash("C").get("bid"));
+  }
+
+  public void testBackgroundFlush() throws InterruptedException {
+    final RedisLastKnownValueStoreProvider provider = new RedisLastKnownValueStoreProvider();
+    provider.setServer(_server.getHost());
+    provider.setPort(_server.getPort());
+    provider.setWriteBehind(true);
+    provider.setMaxStalenessMillis(10);
+    final LastKnownValueStore store = provider.newInstance(ExternalId.of("Test", "testBackgroundFlush"), "no-norm");
+    final RedisLastKnownValueWriter writer = provider.getWriter();
+    assertNotNull(writer);
+    assertTrue(writer.isRunning());
+    try {
+      store.updateFields(fields(1, 2));
+      final long timeout = System.currentTimeMillis() + Timeout.standardTimeoutMillis();
+      while ((writer.getFieldsWritten() < 2) && (System.currentTimeMillis() < timeout)) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, writer.getFieldsWritten());
+      final Map<String, String> written = _server.getHash("Test-testBackgroundFlush[no-norm]");
+      assertEquals("1.0", written.get("bid"));
+      // Stopping writes whatever is still held
+      store.updateFields(fields(5, 6));
+    } finally {
+      provider.stop();
+    }
+    assertFalse(writer.isRunning());
+    assertFalse(provider.isRunning());
+    assertNull(provider.getWriter());
+    assertEquals("5.0", _server.getHash("Test-testBackgroundFlush[no-norm]").get("bid"));
+  }
+
+  public void testStoresFollowRestart() {
+    final RedisLastKnownValueStoreProvider provider = new RedisLastKnownValueStoreProvider();
+    provider.setServer(_server.getHost());
+    provider.setPort(_server.getPort());
+    provider.setWriteBehind(true);
+    final RedisLastKnownValueStore store = (RedisLastKnownValueStore) provider.newInstance(ExternalId.of("Test", "testStoresFollowRestart"), "no-norm");
+    try {
+      assertSame(provider.getWriter(), store.getWriter());
+      provider.stop();
+      assertNull(store.getJedisPool());
+      assertNull(store.getWriter());
+      // Held in memory only while disconnected
+      store.updateFields(fields(1, 2));
+      assertEquals(1d, store.getFields().getDouble("bid"), 0d);
+      assertNull(_server.getHash("Test-testStoresFollowRestart[no-norm]").get("bid"));
+      provider.start();
+      final RedisLastKnownValueWriter writer = provider.getWriter();
+      assertSame(writer, store.getWriter());
+      assertNotNull(store.getJedisPool());
+      store.updateFields(fields(3, 4));
+      assertTrue(writer.flush());
+      assertEquals("3.0", _server.getHash("Test-testStoresFollowRestart[no-norm]").get("bid"));
+    } finally {
+      provider.stop();
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.transport;
+
+/**
+ * A {@link FudgeMessageSender} that can also send messages that have already been encoded.
+ * <p>
+ * This allows a message sent to many connections to be encoded once, and a message that is only of interest until
+ * a newer one is sent to be replaced by the newer one if it has not yet been written.
+ */
+public interface EncodedFudgeMessageSender extends FudgeMessageSender {
+
+  /**
+   * Sends an encoded message.
+   * <p>
+   * If an earlier message sent with the same key has not yet been written, it is replaced by this one, which takes
+   * its place in the order messages are written in.
+   *
+   * @param envelope  the message encoded as a Fudge envelope, not null and not modified after the call
+   * @param conflationKey  the key identifying messages that replace each other, null to always send the message
+   */
+  void sendEncoded(byte[] envelope, Object conflationKey);
+
+}
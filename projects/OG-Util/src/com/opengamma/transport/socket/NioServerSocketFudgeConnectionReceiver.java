@@ -0,0 +1,568 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.transport.socket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.FudgeMsgEnvelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
+
+import com.opengamma.OpenGammaRuntimeException;
+import com.opengamma.transport.EncodedFudgeMessageSender;
+import com.opengamma.transport.FudgeConnection;
+import com.opengamma.transport.FudgeConnectionReceiver;
+import com.opengamma.transport.FudgeConnectionStateListener;
+import com.opengamma.transport.FudgeMessageReceiver;
+import com.opengamma.transport.FudgeMessageSender;
+import com.opengamma.util.ArgumentChecker;
+import com.opengamma.util.NamedThreadPoolFactory;
+import com.opengamma.util.ThreadUtils;
+
+/**
+ * Listens on a server socket and passes FudgeConnections to an underlying FudgeConnectionReceiver, serving all
+ * connections from a single selector thread.
+ * <p>
+ * This is the non-blocking counterpart of {@link ServerSocketFudgeConnectionReceiver} for servers with many
+ * connections. Instead of a reading thread per connection, the selector thread reads each connection as data arrives
+ * and passes complete messages, in order, to the connection's receiver on the dispatch executor. Messages sent to a
+ * connection are queued and written by the selector thread when the socket can accept them, with as many queued
+ * messages as possible written in a single call. The connections' senders are {@link EncodedFudgeMessageSender}s, so
+ * messages can be encoded once for many connections and can be conflated while queued. A connection whose queue
+ * grows beyond {@link #getMaxQueuedBytes()} is closed.
+ */
+public class NioServerSocketFudgeConnectionReceiver implements Lifecycle {
+
+  private static final Logger s_logger = LoggerFactory.getLogger(NioServerSocketFudgeConnectionReceiver.class);
+
+  /**
+   * The default limit on the bytes queued for a connection.
+   */
+  public static final int DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * Size of the Fudge envelope header: directives, schema version, taxonomy and envelope size.
+   */
+  private static final int ENVELOPE_HEADER_SIZE = 8;
+  /**
+   * Offset of the envelope size, which includes the header, within the header.
+   */
+  private static final int ENVELOPE_SIZE_OFFSET = 4;
+  /**
+   * Maximum number of messages passed to a single write.
+   */
+  private static final int MAX_GATHER = 64;
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  private final FudgeContext _fudgeContext;
+  private final FudgeConnectionReceiver _underlying;
+  private final ExecutorService _suppliedExecutorService;
+
+  private int _portNumber;
+  private InetAddress _bindAddress;
+  private int _maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+  private ExecutorService _executorService;
+  private Selector _selector;
+  private ServerSocketChannel _serverChannel;
+  private Thread _eventLoopThread;
+  private volatile boolean _running;
+
+  private final Set<Connection> _connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+  private final Queue<Connection> _writesPending = new ConcurrentLinkedQueue<Connection>();
+  private final AtomicBoolean _wakeupPending = new AtomicBoolean();
+  private final AtomicLong _messagesConflated = new AtomicLong();
+  private final AtomicLong _slowConsumersClosed = new AtomicLong();
+
+  public NioServerSocketFudgeConnectionReceiver(final FudgeContext fudgeContext, final FudgeConnectionReceiver underlying) {
+    ArgumentChecker.notNull(fudgeContext, "fudgeContext");
+    ArgumentChecker.notNull(underlying, "underlying");
+    _fudgeContext = fudgeContext;
+    _underlying = underlying;
+    _suppliedExecutorService = null;
+  }
+
+  public NioServerSocketFudgeConnectionReceiver(final FudgeContext fudgeContext, final FudgeConnectionReceiver underlying,
+      final ExecutorService executorService) {
+    ArgumentChecker.notNull(fudgeContext, "fudgeContext");
+    ArgumentChecker.notNull(underlying, "underlying");
+    ArgumentChecker.notNull(executorService, "executorService");
+    _fudgeContext = fudgeContext;
+    _underlying = underlying;
+    _suppliedExecutorService = executorService;
+  }
+
+  public FudgeContext getFudgeContext() {
+    return _fudgeContext;
+  }
+
+  public FudgeConnectionReceiver getUnderlying() {
+    return _underlying;
+  }
+
+  /**
+   * @return the portNumber
+   */
+  public int getPortNumber() {
+    return _portNumber;
+  }
+
+  /**
+   * @param portNumber the portNumber to set, zero to use any free port
+   */
+  public void setPortNumber(int portNumber) {
+    _portNumber = portNumber;
+  }
+
+  /**
+   * @return the bindAddress
+   */
+  public InetAddress getBindAddress() {
+    return _bindAddress;
+  }
+
+  /**
+   * @param bindAddress the bindAddress to set
+   */
+  public void setBindAddress(InetAddress bindAddress) {
+    _bindAddress = bindAddress;
+  }
+
+  /**
+   * @return the number of bytes that may be queued for a connection before it is closed
+   */
+  public int getMaxQueuedBytes() {
+    return _maxQueuedBytes;
+  }
+
+  /**
+   * @param maxQueuedBytes  the number of bytes that may be queued for a connection before it is closed
+   */
+  public void setMaxQueuedBytes(int maxQueuedBytes) {
+    ArgumentChecker.isTrue(maxQueuedBytes > 0, "maxQueuedBytes");
+    _maxQueuedBytes = maxQueuedBytes;
+  }
+
+  /**
+   * @return the number of open connections
+   */
+  public int getNumConnections() {
+    return _connections.size();
+  }
+
+  /**
+   * @return the number of queued messages replaced by a later message with the same key
+   */
+  public long getNumMessagesConflated() {
+    return _messagesConflated.get();
+  }
+
+  /**
+   * @return the number of connections closed because their queue grew too large
+   */
+  public long getNumSlowConsumersClosed() {
+    return _slowConsumersClosed.get();
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public synchronized boolean isRunning() {
+    return _running;
+  }
+
+  @Override
+  public synchronized void start() {
+    if (_running) {
+      return;
+    }
+    s_logger.info("Binding to {}:{}", getBindAddress(), getPortNumber());
+    try {
+      _selector = Selector.open();
+      _serverChannel = ServerSocketChannel.open();
+      _serverChannel.configureBlocking(false);
+      _serverChannel.socket().bind(new InetSocketAddress(getBindAddress(), getPortNumber()), 50);
+      setPortNumber(_serverChannel.socket().getLocalPort());
+      _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException ioe) {
+      throw new OpenGammaRuntimeException("Unable to bind to " + getBindAddress() + " port " + getPortNumber(), ioe);
+    }
+    _executorService = (_suppliedExecutorService != null) ? _suppliedExecutorService
+        : Executors.newCachedThreadPool(new NamedThreadPoolFactory("Connection dispatch"));
+    _running = true;
+    _eventLoopThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        eventLoop();
+      }
+    }, "Socket Event Loop " + getPortNumber());
+    _eventLoopThread.setDaemon(true);
+    _eventLoopThread.start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (!_running) {
+      return;
+    }
+    _running = false;
+    _selector.wakeup();
+    ThreadUtils.safeJoin(_eventLoopThread, 60 * 1000L);
+    for (Connection connection : _connections) {
+      connection.close(null);
+    }
+    try {
+      _serverChannel.close();
+      _selector.close();
+    } catch (IOException e) {
+      s_logger.warn("Unable to close server socket on lifecycle stop", e);
+    }
+    if (_suppliedExecutorService == null) {
+      _executorService.shutdown();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  private void eventLoop() {
+    while (_running) {
+      try {
+        _selector.select();
+        _wakeupPending.set(false);
+        Connection pending = _writesPending.poll();
+        while (pending != null) {
+          pending.write();
+          pending = _writesPending.poll();
+        }
+        final Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              final Connection connection = (Connection) key.attachment();
+              if (key.isReadable()) {
+                connection.read();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.write();
+              }
+            }
+          } catch (CancelledKeyException e) {
+            // Connection closed by another thread
+            continue;
+          }
+        }
+      } catch (IOException e) {
+        s_logger.warn("Error in socket event loop", e);
+      } catch (RuntimeException e) {
+        s_logger.error("Unexpected error in socket event loop", e);
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    final SocketChannel channel = _serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    final Socket socket = channel.socket();
+    s_logger.info("Opened socket to remote side {}", socket.getRemoteSocketAddress());
+    channel.configureBlocking(false);
+    socket.setTcpNoDelay(true);
+    final Connection connection = new Connection(channel);
+    connection._key = channel.register(_selector, SelectionKey.OP_READ, connection);
+    _connections.add(connection);
+  }
+
+  private void scheduleWrite(final Connection connection) {
+    _writesPending.add(connection);
+    if (_wakeupPending.compareAndSet(false, true)) {
+      _selector.wakeup();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * A message queued for writing.
+   */
+  private static final class Frame {
+
+    private final Object _key;
+    private byte[] _envelope;
+
+    private Frame(final byte[] envelope, final Object key) {
+      _envelope = envelope;
+      _key = key;
+    }
+
+  }
+
+  /**
+   * A connection from a client.
+   */
+  private final class Connection implements FudgeConnection, EncodedFudgeMessageSender, Runnable {
+
+    private final SocketChannel _channel;
+    private final String _remoteAddress;
+    private SelectionKey _key;
+
+    // Read state, only used by the event loop thread
+    private ByteBuffer _readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // Dispatch state
+    private final Queue<FudgeMsgEnvelope> _received = new ConcurrentLinkedQueue<FudgeMsgEnvelope>();
+    private final AtomicBoolean _dispatching = new AtomicBoolean();
+    private volatile FudgeMessageReceiver _receiver;
+    private volatile FudgeConnectionStateListener _listener;
+
+    // Write state, guarded by this
+    private final ArrayDeque<Frame> _queue = new ArrayDeque<Frame>();
+    private final Map<Object, Frame> _conflatable = new HashMap<Object, Frame>();
+    private int _queuedBytes;
+    private boolean _writeScheduled;
+    private boolean _closed;
+
+    // Messages being written, only used by the event loop thread
+    private final ArrayDeque<ByteBuffer> _writing = new ArrayDeque<ByteBuffer>();
+
+    private Connection(final SocketChannel channel) {
+      _channel = channel;
+      _remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    //-------------------------------------------------------------------------
+    private void read() {
+      try {
+        if (_channel.read(_readBuffer) < 0) {
+          s_logger.info("Nothing available on stream - terminating connection");
+          close(null);
+          return;
+        }
+        _readBuffer.flip();
+        while (_readBuffer.remaining() >= ENVELOPE_HEADER_SIZE) {
+          final int size = _readBuffer.getInt(_readBuffer.position() + ENVELOPE_SIZE_OFFSET);
+          if (size < ENVELOPE_HEADER_SIZE) {
+            throw new IOException("Invalid Fudge envelope size " + size);
+          }
+          if (_readBuffer.remaining() < size) {
+            if (size > _readBuffer.capacity()) {
+              final ByteBuffer buffer = ByteBuffer.allocate(Math.max(size, _readBuffer.capacity() * 2));
+              buffer.put(_readBuffer);
+              _readBuffer = buffer;
+              return;
+            }
+            break;
+          }
+          final byte[] envelope = new byte[size];
+          _readBuffer.get(envelope);
+          received(getFudgeContext().deserialize(envelope));
+        }
+        _readBuffer.compact();
+      } catch (IOException e) {
+        s_logger.warn("Unable to read message from underlying stream - terminating connection", e);
+        close(e);
+      } catch (RuntimeException e) {
+        s_logger.warn("Unable to decode message - terminating connection", e);
+        close(e);
+      }
+    }
+
+    private void received(final FudgeMsgEnvelope envelope) {
+      _received.add(envelope);
+      if (_dispatching.compareAndSet(false, true)) {
+        _executorService.execute(this);
+      }
+    }
+
+    /**
+     * Dispatches the messages received so far, in order.
+     */
+    @Override
+    public void run() {
+      while (true) {
+        final FudgeMsgEnvelope envelope = _received.poll();
+        if (envelope == null) {
+          _dispatching.set(false);
+          if (_received.isEmpty() || !_dispatching.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        final FudgeMessageReceiver receiver = _receiver;
+        try {
+          if (receiver != null) {
+            receiver.messageReceived(getFudgeContext(), envelope);
+          } else {
+            getUnderlying().connectionReceived(getFudgeContext(), envelope, this);
+          }
+        } catch (Exception e) {
+          s_logger.warn("Unable to dispatch message to receiver", e);
+        }
+      }
+    }
+
+    //-------------------------------------------------------------------------
+    @Override
+    public void send(final FudgeMsg message) {
+      sendEncoded(getFudgeContext().toByteArray(message), null);
+    }
+
+    @Override
+    public void sendEncoded(final byte[] envelope, final Object conflationKey) {
+      boolean slowConsumer = false;
+      synchronized (this) {
+        if (_closed) {
+          s_logger.debug("Discarding message to closed connection {}", this);
+          return;
+        }
+        final Frame existing = (conflationKey != null) ? _conflatable.get(conflationKey) : null;
+        if (existing != null) {
+          _queuedBytes += envelope.length - existing._envelope.length;
+          existing._envelope = envelope;
+          _messagesConflated.incrementAndGet();
+        } else {
+          final Frame frame = new Frame(envelope, conflationKey);
+          _queue.add(frame);
+          if (conflationKey != null) {
+            _conflatable.put(conflationKey, frame);
+          }
+          _queuedBytes += envelope.length;
+          if (_queuedBytes > getMaxQueuedBytes()) {
+            slowConsumer = true;
+          } else if (!_writeScheduled) {
+            _writeScheduled = true;
+            scheduleWrite(this);
+          }
+        }
+      }
+      if (slowConsumer) {
+        s_logger.warn("Closing connection {} as more than {} bytes are queued", this, getMaxQueuedBytes());
+        _slowConsumersClosed.incrementAndGet();
+        close(new IOException("Slow consumer"));
+      }
+    }
+
+    private void write() {
+      try {
+        while (true) {
+          if (_writing.isEmpty()) {
+            synchronized (this) {
+              if (_closed) {
+                return;
+              }
+              if (_queue.isEmpty()) {
+                _writeScheduled = false;
+                _key.interestOps(SelectionKey.OP_READ);
+                return;
+              }
+              while (!_queue.isEmpty() && (_writing.size() < MAX_GATHER)) {
+                final Frame frame = _queue.poll();
+                if (frame._key != null) {
+                  _conflatable.remove(frame._key);
+                }
+                _queuedBytes -= frame._envelope.length;
+                _writing.add(ByteBuffer.wrap(frame._envelope));
+              }
+            }
+          }
+          _channel.write(_writing.toArray(new ByteBuffer[_writing.size()]));
+          while (!_writing.isEmpty() && !_writing.peek().hasRemaining()) {
+            _writing.poll();
+          }
+          if (!_writing.isEmpty()) {
+            // Socket buffer full; carry on when it can accept more
+            _key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+          }
+        }
+      } catch (IOException e) {
+        s_logger.warn("Unable to write message to underlying stream - terminating connection", e);
+        close(e);
+      } catch (CancelledKeyException e) {
+        close(null);
+      }
+    }
+
+    private void close(final Exception cause) {
+      synchronized (this) {
+        if (_closed) {
+          return;
+        }
+        _closed = true;
+        _queue.clear();
+        _conflatable.clear();
+        _queuedBytes = 0;
+      }
+      _connections.remove(this);
+      if (_key != null) {
+        _key.cancel();
+      }
+      try {
+        _channel.close();
+      } catch (IOException e) {
+        s_logger.warn("Couldn't close socket", e);
+      }
+      final FudgeConnectionStateListener listener = _listener;
+      if (listener != null) {
+        listener.connectionFailed(this, cause);
+      }
+    }
+
+    //-------------------------------------------------------------------------
+    @Override
+    public FudgeContext getFudgeContext() {
+      return NioServerSocketFudgeConnectionReceiver.this.getFudgeContext();
+    }
+
+    @Override
+    public void setFudgeMessageReceiver(final FudgeMessageReceiver receiver) {
+      _receiver = receiver;
+    }
+
+    @Override
+    public FudgeMessageSender getFudgeMessageSender() {
+      return this;
+    }
+
+    @Override
+    public void setConnectionStateListener(final FudgeConnectionStateListener listener) {
+      _listener = listener;
+    }
+
+    @Override
+    public String toString() {
+      return "FudgeConnection from " + _remoteAddress;
+    }
+
+  }
+
+}
@@ -0,0 +1,632 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.map;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * An immutable hash map which shares structure with the map it was derived from.
+ * <p>
+ * The map is a hash array mapped trie. Adding, replacing or removing an entry copies only the path from the root to
+ * that entry, so creating a modified map costs O(log n) and every earlier map remains valid and unchanged. This makes
+ * a reference to the map a consistent, copy-free snapshot, which is useful for values that are updated concurrently
+ * but read as a whole, such as the last known values of market data.
+ * <p>
+ * Because unchanged sub-trees are shared, the keys that differ between two maps derived from one another can be found
+ * by visiting only the changed paths; see {@link #getChangedKeys}.
+ * <p>
+ * Null keys are not supported. This class is immutable and thread-safe.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  @SuppressWarnings({"rawtypes", "unchecked" })
+  private static final PersistentHashMap EMPTY = new PersistentHashMap(new BitmapNode(0, new Object[0]), 0);
+
+  private final BitmapNode _root;
+  private final int _size;
+
+  //-------------------------------------------------------------------------
+  private static final class Entry<K, V> implements Map.Entry<K, V> {
+
+    private final int _hash;
+    private final K _key;
+    private final V _value;
+
+    private Entry(final int hash, final K key, final V value) {
+      _hash = hash;
+      _key = key;
+      _value = value;
+    }
+
+    @Override
+    public K getKey() {
+      return _key;
+    }
+
+    @Override
+    public V getValue() {
+      return _value;
+    }
+
+    @Override
+    public V setValue(final V value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return _key.equals(e.getKey()) && ObjectUtils.equals(_value, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return _key.hashCode() ^ ObjectUtils.hashCode(_value);
+    }
+
+    @Override
+    public String toString() {
+      return _key + "=" + _value;
+    }
+
+  }
+
+  /**
+   * A trie node. Each child slot holds either an {@link Entry} or another node.
+   */
+  private abstract static class Node {
+
+    abstract Object get(int shift, int hash, Object key);
+
+    abstract Node put(int shift, Entry<?, ?> entry);
+
+    abstract Node remove(int shift, int hash, Object key);
+
+    abstract int childCount();
+
+    abstract Object child(int index);
+
+  }
+
+  private static final class BitmapNode extends Node {
+
+    private final int _bitmap;
+    private final Object[] _children;
+
+    private BitmapNode(final int bitmap, final Object[] children) {
+      _bitmap = bitmap;
+      _children = children;
+    }
+
+    private static int bit(final int shift, final int hash) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private int index(final int bit) {
+      return Integer.bitCount(_bitmap & (bit - 1));
+    }
+
+    @Override
+    Object get(final int shift, final int hash, final Object key) {
+      final int bit = bit(shift, hash);
+      if ((_bitmap & bit) == 0) {
+        return null;
+      }
+      final Object child = _children[index(bit)];
+      if (child instanceof Entry) {
+        final Entry<?, ?> entry = (Entry<?, ?>) child;
+        return ((entry._hash == hash) && entry._key.equals(key)) ? entry : null;
+      }
+      return ((Node) child).get(shift + BITS, hash, key);
+    }
+
+    @Override
+    Node put(final int shift, final Entry<?, ?> entry) {
+      final int bit = bit(shift, entry._hash);
+      final int index = index(bit);
+      if ((_bitmap & bit) == 0) {
+        final Object[] children = new Object[_children.length + 1];
+        System.arraycopy(_children, 0, children, 0, index);
+        children[index] = entry;
+        System.arraycopy(_children, index, children, index + 1, _children.length - index);
+        return new BitmapNode(_bitmap | bit, children);
+      }
+      final Object child = _children[index];
+      final Object newChild;
+      if (child instanceof Entry) {
+        final Entry<?, ?> existing = (Entry<?, ?>) child;
+        if ((existing._hash == entry._hash) && existing._key.equals(entry._key)) {
+          if (ObjectUtils.equals(existing._value, entry._value)) {
+            return this;
+          }
+          newChild = entry;
+        } else {
+          newChild = merge(shift + BITS, existing, entry);
+        }
+      } else {
+        newChild = ((Node) child).put(shift + BITS, entry);
+        if (newChild == child) {
+          return this;
+        }
+      }
+      return replace(index, newChild);
+    }
+
+    @Override
+    Node remove(final int shift, final int hash, final Object key) {
+      final int bit = bit(shift, hash);
+      if ((_bitmap & bit) == 0) {
+        return this;
+      }
+      final int index = index(bit);
+      final Object child = _children[index];
+      if (child instanceof Entry) {
+        final Entry<?, ?> existing = (Entry<?, ?>) child;
+        if ((existing._hash != hash) || !existing._key.equals(key)) {
+          return this;
+        }
+        if (_children.length == 1) {
+          return null;
+        }
+        final Object[] children = new Object[_children.length - 1];
+        System.arraycopy(_children, 0, children, 0, index);
+        System.arraycopy(_children, index + 1, children, index, children.length - index);
+        return new BitmapNode(_bitmap & ~bit, children);
+      }
+      final Node newChild = ((Node) child).remove(shift + BITS, hash, key);
+      if (newChild == child) {
+        return this;
+      }
+      if (newChild == null) {
+        // Can't happen; a sub-node always holds at least two entries
+        throw new IllegalStateException();
+      }
+      if ((newChild.childCount() == 1) && (newChild.child(0) instanceof Entry)) {
+        // Pull a lone entry up into this node
+        return replace(index, newChild.child(0));
+      }
+      return replace(index, newChild);
+    }
+
+    private BitmapNode replace(final int index, final Object child) {
+      final Object[] children = _children.clone();
+      children[index] = child;
+      return new BitmapNode(_bitmap, children);
+    }
+
+    @Override
+    int childCount() {
+      return _children.length;
+    }
+
+    @Override
+    Object child(final int index) {
+      return _children[index];
+    }
+
+    private Object childForSlot(final int slot) {
+      final int bit = 1 << slot;
+      if ((_bitmap & bit) == 0) {
+        return null;
+      }
+      return _children[index(bit)];
+    }
+
+  }
+
+  /**
+   * Holds entries whose keys have identical hash codes.
+   */
+  private static final class CollisionNode extends Node {
+
+    private final int _hash;
+    private final Entry<?, ?>[] _entries;
+
+    private CollisionNode(final int hash, final Entry<?, ?>[] entries) {
+      _hash = hash;
+      _entries = entries;
+    }
+
+    private int find(final Object key) {
+      for (int i = 0; i < _entries.length; i++) {
+        if (_entries[i]._key.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object get(final int shift, final int hash, final Object key) {
+      if (hash != _hash) {
+        return null;
+      }
+      final int index = find(key);
+      return (index >= 0) ? _entries[index] : null;
+    }
+
+    @Override
+    Node put(final int shift, final Entry<?, ?> entry) {
+      if (entry._hash != _hash) {
+        // Split: place this node and the new entry beneath a bitmap node at this level
+        return new BitmapNode(BitmapNode.bit(shift, _hash), new Object[] {this }).put(shift, entry);
+      }
+      final int index = find(entry._key);
+      if (index >= 0) {
+        if (ObjectUtils.equals(_entries[index]._value, entry._value)) {
+          return this;
+        }
+        final Entry<?, ?>[] entries = _entries.clone();
+        entries[index] = entry;
+        return new CollisionNode(_hash, entries);
+      }
+      final Entry<?, ?>[] entries = new Entry<?, ?>[_entries.length + 1];
+      System.arraycopy(_entries, 0, entries, 0, _entries.length);
+      entries[_entries.length] = entry;
+      return new CollisionNode(_hash, entries);
+    }
+
+    @Override
+    Node remove(final int shift, final int hash, final Object key) {
+      if (hash != _hash) {
+        return this;
+      }
+      final int index = find(key);
+      if (index < 0) {
+        return this;
+      }
+      final Entry<?, ?>[] entries = new Entry<?, ?>[_entries.length - 1];
+      System.arraycopy(_entries, 0, entries, 0, index);
+      System.arraycopy(_entries, index + 1, entries, index, entries.length - index);
+      return new CollisionNode(_hash, entries);
+    }
+
+    @Override
+    int childCount() {
+      return _entries.length;
+    }
+
+    @Override
+    Object child(final int index) {
+      return _entries[index];
+    }
+
+  }
+
+  private static Object merge(final int shift, final Entry<?, ?> a, final Entry<?, ?> b) {
+    if (a._hash == b._hash) {
+      return new CollisionNode(a._hash, new Entry<?, ?>[] {a, b });
+    }
+    final int bitA = BitmapNode.bit(shift, a._hash);
+    final int bitB = BitmapNode.bit(shift, b._hash);
+    if (bitA == bitB) {
+      return new BitmapNode(bitA, new Object[] {merge(shift + BITS, a, b) });
+    }
+    // Children are ordered by their bit position
+    if ((bitA >>> 1) < (bitB >>> 1)) {
+      return new BitmapNode(bitA | bitB, new Object[] {a, b });
+    } else {
+      return new BitmapNode(bitA | bitB, new Object[] {b, a });
+    }
+  }
+
+  private static int hash(final Object key) {
+    // Spread the bits so that keys with poor hash codes still use the lower levels of the trie
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+  //-------------------------------------------------------------------------
+  private PersistentHashMap(final BitmapNode root, final int size) {
+    _root = root;
+    _size = size;
+  }
+
+  /**
+   * Returns the empty map.
+   *
+   * @param <K> the key type
+   * @param <V> the value type
+   * @return the empty map, not null
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> of() {
+    return EMPTY;
+  }
+
+  /**
+   * Creates a map containing the entries of another.
+   *
+   * @param <K> the key type
+   * @param <V> the value type
+   * @param map the entries to copy, not null
+   * @return the map, not null
+   */
+  public static <K, V> PersistentHashMap<K, V> of(final Map<? extends K, ? extends V> map) {
+    PersistentHashMap<K, V> result = of();
+    for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      result = result.with(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Returns a map with an entry added or replaced. If the map already holds an equal value for the key then this map
+   * is returned.
+   *
+   * @param key the key, not null
+   * @param value the value, may be null
+   * @return the new map, not null
+   */
+  public PersistentHashMap<K, V> with(final K key, final V value) {
+    ArgumentChecker.notNull(key, "key");
+    final int hash = hash(key);
+    final Node root = _root.put(0, new Entry<K, V>(hash, key, value));
+    if (root == _root) {
+      return this;
+    }
+    final int size = (_root.get(0, hash, key) == null) ? _size + 1 : _size;
+    return new PersistentHashMap<K, V>((BitmapNode) root, size);
+  }
+
+  /**
+   * Returns a map with an entry removed. If there is no entry for the key then this map is returned.
+   *
+   * @param key the key, not null
+   * @return the new map, not null
+   */
+  public PersistentHashMap<K, V> without(final Object key) {
+    ArgumentChecker.notNull(key, "key");
+    final Node root = _root.remove(0, hash(key), key);
+    if (root == _root) {
+      return this;
+    }
+    if (root == null) {
+      return of();
+    }
+    return new PersistentHashMap<K, V>((BitmapNode) root, _size - 1);
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return _size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(final Object key) {
+    if (key == null) {
+      return null;
+    }
+    final Entry<K, V> entry = (Entry<K, V>) _root.get(0, hash(key), key);
+    return (entry != null) ? entry._value : null;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    if (key == null) {
+      return false;
+    }
+    return _root.get(0, hash(key), key) != null;
+  }
+
+  @Override
+  public V put(final K key, final V value) {
+    throw new UnsupportedOperationException("PersistentHashMap is immutable; use with()");
+  }
+
+  @Override
+  public V remove(final Object key) {
+    throw new UnsupportedOperationException("PersistentHashMap is immutable; use without()");
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<K, V>(_root);
+      }
+
+      @Override
+      public int size() {
+        return _size;
+      }
+
+    };
+  }
+
+  /**
+   * Iterates over the entries in the trie with an explicit stack of nodes.
+   */
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+    private final Node[] _nodes = new Node[(32 / BITS) + 2];
+    private final int[] _positions = new int[_nodes.length];
+    private int _depth;
+    private Entry<K, V> _next;
+
+    private EntryIterator(final Node root) {
+      _nodes[0] = root;
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      while (_depth >= 0) {
+        final Node node = _nodes[_depth];
+        final int position = _positions[_depth];
+        if (position >= node.childCount()) {
+          _depth--;
+          continue;
+        }
+        _positions[_depth] = position + 1;
+        final Object child = node.child(position);
+        if (child instanceof Entry) {
+          _next = (Entry<K, V>) child;
+          return;
+        }
+        _depth++;
+        _nodes[_depth] = (Node) child;
+        _positions[_depth] = 0;
+      }
+      _next = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return _next != null;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      final Entry<K, V> next = _next;
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      advance();
+      return next;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Finds the keys whose values differ between this map and another. This includes keys present in only one of the
+   * maps. If the two maps were derived from one another then only the parts of the trie that have changed are visited,
+   * so the cost is proportional to the number of changes rather than the size of the maps.
+   *
+   * @param other the map to compare against, not null
+   * @param changedKeys receives the keys that differ, not null
+   */
+  @SuppressWarnings("unchecked")
+  public void getChangedKeys(final PersistentHashMap<K, V> other, final Collection<? super K> changedKeys) {
+    ArgumentChecker.notNull(other, "other");
+    ArgumentChecker.notNull(changedKeys, "changedKeys");
+    diff(_root, other._root, (Collection<Object>) changedKeys);
+  }
+
+  private static void diff(final Object a, final Object b, final Collection<Object> changedKeys) {
+    if (a == b) {
+      return;
+    }
+    if (a == null) {
+      addKeys(b, changedKeys);
+      return;
+    }
+    if (b == null) {
+      addKeys(a, changedKeys);
+      return;
+    }
+    if ((a instanceof BitmapNode) && (b instanceof BitmapNode)) {
+      final BitmapNode nodeA = (BitmapNode) a;
+      final BitmapNode nodeB = (BitmapNode) b;
+      int slots = nodeA._bitmap | nodeB._bitmap;
+      while (slots != 0) {
+        final int slot = Integer.numberOfTrailingZeros(slots);
+        slots &= slots - 1;
+        diff(nodeA.childForSlot(slot), nodeB.childForSlot(slot), changedKeys);
+      }
+      return;
+    }
+    if ((a instanceof Entry) && (b instanceof Entry)) {
+      final Entry<?, ?> entryA = (Entry<?, ?>) a;
+      final Entry<?, ?> entryB = (Entry<?, ?>) b;
+      changedKeys.add(entryA._key);
+      if (!entryA._key.equals(entryB._key)) {
+        changedKeys.add(entryB._key);
+      }
+      return;
+    }
+    // Mixed shapes, which only arise around hash collisions or where a slot has been split; compare the entries
+    final Map<Object, Object> entriesA = new HashMap<Object, Object>();
+    collectEntries(a, entriesA);
+    final Map<Object, Object> entriesB = new HashMap<Object, Object>();
+    collectEntries(b, entriesB);
+    for (Map.Entry<Object, Object> entryA : entriesA.entrySet()) {
+      if (entriesB.get(entryA.getKey()) != entryA.getValue()) {
+        changedKeys.add(entryA.getKey());
+      }
+    }
+    for (Object keyB : entriesB.keySet()) {
+      if (!entriesA.containsKey(keyB)) {
+        changedKeys.add(keyB);
+      }
+    }
+  }
+
+  private static void addKeys(final Object child, final Collection<Object> keys) {
+    if (child instanceof Entry) {
+      keys.add(((Entry<?, ?>) child)._key);
+    } else {
+      final Node node = (Node) child;
+      for (int i = 0; i < node.childCount(); i++) {
+        addKeys(node.child(i), keys);
+      }
+    }
+  }
+
+  private static void collectEntries(final Object child, final Map<Object, Object> entries) {
+    if (child instanceof Entry) {
+      entries.put(((Entry<?, ?>) child)._key, child);
+    } else {
+      final Node node = (Node) child;
+      for (int i = 0; i < node.childCount(); i++) {
+        collectEntries(node.child(i), entries);
+      }
+    }
+  }
+
+  /**
+   * Returns the keys whose values differ between this map and another.
+   *
+   * @param other the map to compare against, not null
+   * @return the keys that differ, not null
+   * @see #getChangedKeys(PersistentHashMap, Collection)
+   */
+  public List<K> getChangedKeys(final PersistentHashMap<K, V> other) {
+    final List<K> changedKeys = new ArrayList<K>();
+    getChangedKeys(other, changedKeys);
+    return changedKeys;
+  }
+
+}
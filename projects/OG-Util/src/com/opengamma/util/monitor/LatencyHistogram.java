@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Histogram of latencies from which approximate percentiles can be read.
+ * <p>
+ * Each power of two is split into four buckets, so a percentile is reported to within 25% of its true value. Recording
+ * a sample is a couple of atomic increments, so the histogram can be updated from the threads being measured.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong _count = new AtomicLong();
+  private final AtomicLong _total = new AtomicLong();
+  private final AtomicLong _max = new AtomicLong();
+
+  private static int bucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBound(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long sub = bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Records a sample.
+   *
+   * @param value  the latency, in any unit, negative values are recorded as zero
+   */
+  public void record(final long value) {
+    final long sample = Math.max(value, 0);
+    _counts.incrementAndGet(bucket(sample));
+    _count.incrementAndGet();
+    _total.addAndGet(sample);
+    long max = _max.get();
+    while ((sample > max) && !_max.compareAndSet(max, sample)) {
+      max = _max.get();
+    }
+  }
+
+  /**
+   * Gets the number of samples recorded.
+   *
+   * @return the sample count
+   */
+  public long getCount() {
+    return _count.get();
+  }
+
+  /**
+   * Gets the mean of the samples recorded.
+   *
+   * @return the mean, zero if there are no samples
+   */
+  public double getMean() {
+    final long count = _count.get();
+    return (count > 0) ? (double) _total.get() / (double) count : 0;
+  }
+
+  /**
+   * Gets the largest sample recorded.
+   *
+   * @return the maximum, zero if there are no samples
+   */
+  public long getMax() {
+    return _max.get();
+  }
+
+  /**
+   * Gets an approximate percentile of the samples recorded.
+   *
+   * @param percentile  the percentile, from 0 to 100
+   * @return the upper bound of the bucket holding the percentile, at most the largest sample, zero if there are no samples
+   */
+  public long getPercentile(final double percentile) {
+    ArgumentChecker.isTrue((percentile >= 0) && (percentile <= 100), "percentile must be between 0 and 100");
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += _counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += _counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Discards all samples.
+   * <p>
+   * Samples recorded concurrently with the reset may be partly kept.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      _counts.set(i, 0);
+    }
+    _count.set(0);
+    _total.set(0);
+    _max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram[count=" + getCount() + ", mean=" + getMean() + ", 50%=" + getPercentile(50) + ", 99%=" + getPercentile(99) + ", max=" + getMax() + "]";
+  }
+
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.Lifecycle;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * Traces a sample of events, such as market data ticks, through the stages of processing them.
+ * <p>
+ * The first stage calls {@link #sample} for every event. One event in every {@link #setSampleInterval sample interval}
+ * is given a trace timestamp, which is carried with the event. Each later stage calls {@link #record} with the
+ * timestamp, adding the time since the event was sampled to a {@link LatencyHistogram} for the stage. Untraced events
+ * carry {@link #NOT_TRACED}, which {@code record} ignores, so the cost to an unsampled event is one increment of a
+ * counter. Each thread counts its own events, so threads sampling at the same time don't contend for the counter, and
+ * one in every sample interval of each thread's events is traced.
+ * <p>
+ * Where an event can't carry its timestamp through an interface, it can be handed between the caller and callee on the
+ * same thread with {@link #setCurrentTrace}.
+ * <p>
+ * Timestamps are wall-clock nanoseconds, so they can be carried between processes. Latencies between stages in the
+ * same process have the resolution of {@link System#nanoTime}, but latencies measured in a different process from the
+ * one the event was sampled in include any difference between the two clocks.
+ * <p>
+ * Started as a {@link Lifecycle}, the tracer writes its histograms to the log periodically.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LatencyTracer implements Lifecycle {
+
+  /** Logger. */
+  private static final Logger s_logger = LoggerFactory.getLogger(LatencyTracer.class);
+
+  /**
+   * The trace timestamp of an event that isn't being traced.
+   */
+  public static final long NOT_TRACED = 0;
+  /**
+   * The default number of events for each one traced.
+   */
+  public static final int DEFAULT_SAMPLE_INTERVAL = 1000;
+  /**
+   * The default time, in milliseconds, between reports written to the log.
+   */
+  public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 60000;
+
+  /** The process-wide tracer. */
+  private static final LatencyTracer s_instance = new LatencyTracer();
+  /** The wall-clock time, in nanoseconds, when {@link System#nanoTime} was zero. */
+  private static final long s_nanoTimeOrigin = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+  /** The trace timestamp being handed over on each thread. */
+  private static final ThreadLocal<long[]> s_currentTrace = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+
+  private final ConcurrentMap<String, LatencyHistogram> _stages = new ConcurrentHashMap<String, LatencyHistogram>();
+  /** The number of events sampled on each thread. */
+  private final ThreadLocal<long[]> _events = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+  private volatile int _sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+  private volatile long _reportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+  private volatile Thread _thread;
+
+  /**
+   * Gets the process-wide tracer, which the live data and engine stages record to.
+   *
+   * @return the tracer, not null
+   */
+  public static LatencyTracer getInstance() {
+    return s_instance;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the wall-clock time to nanosecond resolution.
+   *
+   * @return the nanoseconds since the UTC epoch
+   */
+  public static long currentTimeNanos() {
+    return s_nanoTimeOrigin + System.nanoTime();
+  }
+
+  /**
+   * Gets the trace timestamp handed to the current thread by {@link #setCurrentTrace}.
+   *
+   * @return the trace timestamp, {@link #NOT_TRACED} if none
+   */
+  public static long getCurrentTrace() {
+    return s_currentTrace.get()[0];
+  }
+
+  /**
+   * Hands a trace timestamp to code called later on the current thread. The caller should restore the value returned
+   * once the callee has returned.
+   *
+   * @param trace  the trace timestamp, {@link #NOT_TRACED} to clear it
+   * @return the trace timestamp that was set before
+   */
+  public static long setCurrentTrace(final long trace) {
+    final long[] current = s_currentTrace.get();
+    final long previous = current[0];
+    current[0] = trace;
+    return previous;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Gets the number of events for each one traced.
+   *
+   * @return the sample interval, zero if tracing is off
+   */
+  public int getSampleInterval() {
+    return _sampleInterval;
+  }
+
+  /**
+   * Sets the number of events for each one traced.
+   *
+   * @param sampleInterval  the sample interval, zero to turn tracing off
+   */
+  public void setSampleInterval(final int sampleInterval) {
+    ArgumentChecker.notNegative(sampleInterval, "sampleInterval");
+    _sampleInterval = sampleInterval;
+  }
+
+  /**
+   * Gets the time, in milliseconds, between reports written to the log.
+   *
+   * @return the report interval
+   */
+  public long getReportIntervalMillis() {
+    return _reportIntervalMillis;
+  }
+
+  /**
+   * Sets the time, in milliseconds, between reports written to the log. A change takes effect after the next report.
+   *
+   * @param reportIntervalMillis  the report interval, greater than zero
+   */
+  public void setReportIntervalMillis(final long reportIntervalMillis) {
+    ArgumentChecker.isTrue(reportIntervalMillis > 0, "reportIntervalMillis must be positive");
+    _reportIntervalMillis = reportIntervalMillis;
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Decides whether to trace an event entering the first stage.
+   *
+   * @return the trace timestamp to carry with the event, {@link #NOT_TRACED} if it isn't traced
+   */
+  public long sample() {
+    final int interval = _sampleInterval;
+    if ((interval == 0) || (++_events.get()[0] % interval != 0)) {
+      return NOT_TRACED;
+    }
+    return currentTimeNanos();
+  }
+
+  /**
+   * Records a traced event reaching a stage.
+   *
+   * @param stage  the name of the stage, not null
+   * @param trace  the trace timestamp carried with the event, {@link #NOT_TRACED} to do nothing
+   */
+  public void record(final String stage, final long trace) {
+    if (trace == NOT_TRACED) {
+      return;
+    }
+    getLatency(stage).record(currentTimeNanos() - trace);
+  }
+
+  /**
+   * Gets the histogram of latencies, in nanoseconds, from events being sampled to reaching a stage.
+   *
+   * @param stage  the name of the stage, not null
+   * @return the histogram, not null
+   */
+  public LatencyHistogram getLatency(final String stage) {
+    LatencyHistogram histogram = _stages.get(stage);
+    if (histogram == null) {
+      ArgumentChecker.notNull(stage, "stage");
+      final LatencyHistogram fresh = new LatencyHistogram();
+      histogram = _stages.putIfAbsent(stage, fresh);
+      if (histogram == null) {
+        histogram = fresh;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Gets the histograms of all stages that have been reached. As the latencies are measured from the time events are
+   * sampled, ordering by mean latency puts the stages in the order events pass through them.
+   *
+   * @return the histograms keyed by stage name, ordered by mean latency, not null
+   */
+  public Map<String, LatencyHistogram> getStages() {
+    final List<Map.Entry<String, LatencyHistogram>> stages = new ArrayList<Map.Entry<String, LatencyHistogram>>(_stages.entrySet());
+    Collections.sort(stages, new Comparator<Map.Entry<String, LatencyHistogram>>() {
+      @Override
+      public int compare(final Map.Entry<String, LatencyHistogram> o1, final Map.Entry<String, LatencyHistogram> o2) {
+        return Double.compare(o1.getValue().getMean(), o2.getValue().getMean());
+      }
+    });
+    final Map<String, LatencyHistogram> result = new LinkedHashMap<String, LatencyHistogram>();
+    for (Map.Entry<String, LatencyHistogram> stage : stages) {
+      result.put(stage.getKey(), stage.getValue());
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Discards the latencies recorded for all stages.
+   */
+  public void reset() {
+    for (LatencyHistogram histogram : _stages.values()) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Describes the latencies recorded for each stage, in microseconds.
+   *
+   * @return the report, one line per stage, not null
+   */
+  public String report() {
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, LatencyHistogram> stage : getStages().entrySet()) {
+      final LatencyHistogram histogram = stage.getValue();
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(stage.getKey()).append(": count=").append(histogram.getCount())
+          .append(", mean=").append(TimeUnit.NANOSECONDS.toMicros((long) histogram.getMean()))
+          .append("us, 50%=").append(TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(50)))
+          .append("us, 99%=").append(TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99)))
+          .append("us, max=").append(TimeUnit.NANOSECONDS.toMicros(histogram.getMax())).append("us");
+    }
+    return sb.toString();
+  }
+
+  //-------------------------------------------------------------------------
+  @Override
+  public synchronized void start() {
+    if (_thread != null) {
+      return;
+    }
+    final Thread thread = new Thread("LatencyTracer") {
+      @Override
+      public void run() {
+        while (_thread == this) {
+          try {
+            Thread.sleep(_reportIntervalMillis);
+          } catch (InterruptedException e) {
+            // Stopping
+            continue;
+          }
+          if (!_stages.isEmpty()) {
+            s_logger.info("Latency from sampled events (1 in {}):\n{}", _sampleInterval, report());
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    _thread = thread;
+    thread.start();
+  }
+
+  /**
+   * Stops writing reports to the log. Latencies are still recorded.
+   */
+  @Override
+  public void stop() {
+    final Thread thread;
+    synchronized (this) {
+      thread = _thread;
+      _thread = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return _thread != null;
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.monitor;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.opengamma.util.ArgumentChecker;
+
+/**
+ * JMX Instrumentation for a {@link LatencyTracer}.
+ */
+@ManagedResource(
+    description = "LatencyTracer attributes and operations that can be managed via JMX"
+    )
+public class LatencyTracerMBean {
+  private static final Logger s_logger = LoggerFactory.getLogger(LatencyTracerMBean.class);
+  private final LatencyTracer _tracer;
+
+  public LatencyTracerMBean(LatencyTracer tracer) {
+    ArgumentChecker.notNull(tracer, "tracer");
+    _tracer = tracer;
+  }
+
+  /**
+   * Gets the tracer.
+   * @return the tracer
+   */
+  protected LatencyTracer getTracer() {
+    return _tracer;
+  }
+
+  @ManagedAttribute(description = "The number of events for each one traced, zero if tracing is off.")
+  public int getSampleInterval() {
+    try {
+      return getTracer().getSampleInterval();
+    } catch (RuntimeException e) {
+      s_logger.error("getSampleInterval() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The number of events for each one traced, zero to turn tracing off.")
+  public void setSampleInterval(int sampleInterval) {
+    try {
+      getTracer().setSampleInterval(sampleInterval);
+    } catch (RuntimeException e) {
+      s_logger.error("setSampleInterval(" + sampleInterval + ") failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The stages sampled events have reached, in the order events reach them.")
+  public Set<String> getStages() {
+    try {
+      return new LinkedHashSet<String>(getTracer().getStages().keySet());
+    } catch (RuntimeException e) {
+      s_logger.error("getStages() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedAttribute(description = "The count, mean, median, 99th percentile and maximum latency of each stage, in microseconds.")
+  public String getReport() {
+    try {
+      return getTracer().report();
+    } catch (RuntimeException e) {
+      s_logger.error("getReport() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedOperation(description = "Returns the number of sampled events that have reached a stage.")
+  @ManagedOperationParameters({ @ManagedOperationParameter(name = "stage", description = "The name of the stage.") })
+  public long getCount(String stage) {
+    try {
+      final LatencyHistogram histogram = getTracer().getStages().get(stage);
+      return (histogram != null) ? histogram.getCount() : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getCount(" + stage + ") failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedOperation(description = "Returns a percentile of the latency, in microseconds, from sampled events entering the first stage to reaching a stage.")
+  @ManagedOperationParameters({
+      @ManagedOperationParameter(name = "stage", description = "The name of the stage."),
+      @ManagedOperationParameter(name = "percentile", description = "The percentile, from 0 to 100.") })
+  public long getLatencyMicros(String stage, double percentile) {
+    try {
+      final LatencyHistogram histogram = getTracer().getStages().get(stage);
+      return (histogram != null) ? TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(percentile)) : 0;
+    } catch (RuntimeException e) {
+      s_logger.error("getLatencyMicros(" + stage + ", " + percentile + ") failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  @ManagedOperation(description = "Discards the latencies recorded for all stages.")
+  public void reset() {
+    try {
+      getTracer().reset();
+    } catch (RuntimeException e) {
+      s_logger.error("reset() failed", e);
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.transport.socket;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fudgemsg.FudgeContext;
+import org.fudgemsg.FudgeMsg;
+import org.fudgemsg.FudgeMsgEnvelope;
+import org.fudgemsg.MutableFudgeMsg;
+import org.testng.annotations.Test;
+
+import com.opengamma.transport.CollectingFudgeMessageReceiver;
+import com.opengamma.transport.EncodedFudgeMessageSender;
+import com.opengamma.transport.FudgeConnection;
+import com.opengamma.transport.FudgeConnectionReceiver;
+import com.opengamma.transport.FudgeConnectionStateListener;
+import com.opengamma.util.test.Timeout;
+
+/**
+ * Tests the SocketFudgeConnection and NioServerSocketFudgeConnectionReceiver classes
+ */
+@Test(groups = "unit")
+public class NioServerSocketFudgeConnectionReceiverTest {
+
+  private final AtomicInteger _counter = new AtomicInteger();
+
+  private FudgeMsg createMessage() {
+    final MutableFudgeMsg message = FudgeContext.GLOBAL_DEFAULT.newMessage();
+    message.add("counter", _counter.incrementAndGet());
+    return message;
+  }
+
+  private static byte[] encode(final String key, final int value) {
+    final MutableFudgeMsg message = FudgeContext.GLOBAL_DEFAULT.newMessage();
+    message.add("key", key);
+    message.add("value", value);
+    return FudgeContext.GLOBAL_DEFAULT.toByteArray(message);
+  }
+
+  private static FudgeMsg endMessage() {
+    final MutableFudgeMsg message = FudgeContext.GLOBAL_DEFAULT.newMessage();
+    message.add("end", 1);
+    return message;
+  }
+
+  private static SocketFudgeConnection connect(final NioServerSocketFudgeConnectionReceiver server) throws Exception {
+    final SocketFudgeConnection client = new SocketFudgeConnection(FudgeContext.GLOBAL_DEFAULT);
+    client.setInetAddress(InetAddress.getLocalHost());
+    client.setPortNumber(server.getPortNumber());
+    return client;
+  }
+
+  public void simpleTest() throws Exception {
+    final FudgeMsg testMessage1 = createMessage();
+    final FudgeMsg testMessage2 = createMessage();
+    // receiver will respond to testMessage1 with testMessage2
+    final FudgeConnectionReceiver serverReceiver = new FudgeConnectionReceiver() {
+      @Override
+      public void connectionReceived(FudgeContext fudgeContext, FudgeMsgEnvelope message, FudgeConnection connection) {
+        assertNotNull(fudgeContext);
+        assertNotNull(message);
+        assertNotNull(connection);
+        assertEquals(testMessage1, message.getMessage());
+        connection.getFudgeMessageSender().send(testMessage2);
+      }
+    };
+    final NioServerSocketFudgeConnectionReceiver server = new NioServerSocketFudgeConnectionReceiver(FudgeContext.GLOBAL_DEFAULT, serverReceiver);
+    server.start();
+    final SocketFudgeConnection client = connect(server);
+    final CollectingFudgeMessageReceiver clientReceiver = new CollectingFudgeMessageReceiver();
+    client.setFudgeMessageReceiver(clientReceiver);
+    client.getFudgeMessageSender().send(testMessage1);
+    final FudgeMsgEnvelope envelope = clientReceiver.waitForMessage(Timeout.standardTimeoutMillis());
+    assertNotNull(envelope);
+    assertEquals(testMessage2, envelope.getMessage());
+    assertEquals(1, server.getNumConnections());
+    client.stop();
+    server.stop();
+  }
+
+  public void messageReceiverTest() throws Exception {
+    final FudgeMsg testMessage1 = createMessage();
+    final FudgeMsg testMessage2 = createMessage();
+    final FudgeMsg testMessage3 = createMessage();
+    final CollectingFudgeMessageReceiver message3Receiver = new CollectingFudgeMessageReceiver();
+    // after receiving testMessage2, will set the message receiver on the connection
+    final FudgeConnectionReceiver serverReceiver = new FudgeConnectionReceiver() {
+      private int _count;
+      @Override
+      public void connectionReceived(final FudgeContext fudgeContext, final FudgeMsgEnvelope message, final FudgeConnection connection) {
+        switch (_count++) {
+          case 0:
+            assertEquals(testMessage1, message.getMessage());
+            break;
+          case 1:
+            assertEquals(testMessage2, message.getMessage());
+            connection.setFudgeMessageReceiver(message3Receiver);
+            break;
+          default:
+            fail("Shouldn't have been called a third time");
+            break;
+        }
+      }
+    };
+    final NioServerSocketFudgeConnectionReceiver server = new NioServerSocketFudgeConnectionReceiver(FudgeContext.GLOBAL_DEFAULT, serverReceiver);
+    server.start();
+    final SocketFudgeConnection client = connect(server);
+    client.getFudgeMessageSender().send(testMessage1);
+    client.getFudgeMessageSender().send(testMessage2);
+    client.getFudgeMessageSender().send(testMessage3);
+    final FudgeMsgEnvelope envelope = message3Receiver.waitForMessage(Timeout.standardTimeoutMillis());
+    assertNotNull(envelope);
+    assertEquals(testMessage3, envelope.getMessage());
+    server.stop();
+    client.stop();
+  }
+
+  public void conflationTest() throws Exception {
+    final int count = 10000;
+    // receiver will respond with updates to two keys, and then an end marker
+    final FudgeConnectionReceiver serverReceiver = new FudgeConnectionReceiver() {
+      @Override
+      public void connectionReceived(FudgeContext fudgeContext, FudgeMsgEnvelope message, FudgeConnection connection) {
+        final EncodedFudgeMessageSender sender = (EncodedFudgeMessageSender) connection.getFudgeMessageSender();
+        for (int i = 1; i <= count; i++) {
+          sender.sendEncoded(encode("A", i), "A");
+          sender.sendEncoded(encode("B", i), "B");
+        }
+        sender.send(endMessage());
+      }
+    };
+    final NioServerSocketFudgeConnectionReceiver server = new NioServerSocketFudgeConnectionReceiver(FudgeContext.GLOBAL_DEFAULT, serverReceiver);
+    server.start();
+    final SocketFudgeConnection client = connect(server);
+    final CollectingFudgeMessageReceiver clientReceiver = new CollectingFudgeMessageReceiver();
+    client.setFudgeMessageReceiver(clientReceiver);
+    client.getFudgeMessageSender().send(createMessage());
+    int received = 0;
+    int lastA = 0;
+    int lastB = 0;
+    while (true) {
+      final FudgeMsgEnvelope envelope = clientReceiver.waitForMessage(Timeout.standardTimeoutMillis());
+      assertNotNull(envelope);
+      final FudgeMsg message = envelope.getMessage();
+      if (message.hasField("end")) {
+        break;
+      }
+      final int value = message.getInt("value");
+      // Updates to each key must arrive in order, however many were conflated
+      if ("A".equals(message.getString("key"))) {
+        assertTrue(value > lastA);
+        lastA = value;
+      } else {
+        assertTrue(value > lastB);
+        lastB = value;
+      }
+      received++;
+    }
+    assertEquals(count, lastA);
+    assertEquals(count, lastB);
+    assertTrue(received <= 2 * count);
+    assertEquals(2 * count - received, server.getNumMessagesConflated());
+    client.stop();
+    server.stop();
+  }
+
+  public void slowConsumerTest() throws Exception {
+    final CountDownLatch failed = new CountDownLatch(1);
+    final byte[] payload = new byte[64 * 1024];
+    final FudgeConnectionReceiver serverReceiver = new FudgeConnectionReceiver() {
+      @Override
+      public void connectionReceived(FudgeContext fudgeContext, FudgeMsgEnvelope message, FudgeConnection connection) {
+        connection.setConnectionStateListener(new FudgeConnectionStateListener() {
+          @Override
+          public void connectionReset(final FudgeConnection connection) {
+          }
+
+          @Override
+          public void connectionFailed(final FudgeConnection connection, final Exception cause) {
+            failed.countDown();
+          }
+        });
+        final MutableFudgeMsg msg = FudgeContext.GLOBAL_DEFAULT.newMessage();
+        msg.add("payload", payload);
+        for (int i = 0; (i < 1000) && (failed.getCount() > 0); i++) {
+          connection.getFudgeMessageSender().send(msg);
+        }
+      }
+    };
+    final NioServerSocketFudgeConnectionReceiver server = new NioServerSocketFudgeConnectionReceiver(FudgeContext.GLOBAL_DEFAULT, serverReceiver);
+    server.setMaxQueuedBytes(1024 * 1024);
+    server.start();
+    // A client that sends a message but never reads
+    final Socket socket = new Socket(InetAddress.getLocalHost(), server.getPortNumber());
+    final OutputStream out = socket.getOutputStream();
+    out.write(FudgeContext.GLOBAL_DEFAULT.toByteArray(createMessage()));
+    out.flush();
+    assertTrue(failed.await(Timeout.standardTimeoutMillis(), TimeUnit.MILLISECONDS));
+    assertEquals(1, server.getNumSlowConsumersClosed());
+    assertEquals(0, server.getNumConnections());
+    socket.close();
+    server.stop();
+  }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link PersistentHashMap} implementation.
+ */
+@Test
+public class PersistentHashMapTest {
+
+  /**
+   * Key with a deliberately poor hash code to force collisions.
+   */
+  private static final class CollidingKey {
+
+    private final int _value;
+
+    private CollidingKey(final int value) {
+      _value = value;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return (o instanceof CollidingKey) && (((CollidingKey) o)._value == _value);
+    }
+
+    @Override
+    public int hashCode() {
+      return _value / 4;
+    }
+
+    @Override
+    public String toString() {
+      return "K" + _value;
+    }
+
+  }
+
+  public void testBasicOperations() {
+    final PersistentHashMap<String, String> empty = PersistentHashMap.of();
+    assertTrue(empty.isEmpty());
+    final PersistentHashMap<String, String> a = empty.with("A", "Foo");
+    final PersistentHashMap<String, String> ab = a.with("B", "Bar");
+    assertTrue(empty.isEmpty());
+    assertEquals(a.size(), 1);
+    assertEquals(ab.size(), 2);
+    assertEquals(ab.get("A"), "Foo");
+    assertEquals(ab.get("B"), "Bar");
+    assertNull(a.get("B"));
+    assertTrue(ab.containsKey("B"));
+    assertFalse(ab.containsKey("C"));
+    assertSame(ab.with("A", "Foo"), ab);
+    final PersistentHashMap<String, String> ab2 = ab.with("A", "Baz");
+    assertEquals(ab2.size(), 2);
+    assertEquals(ab2.get("A"), "Baz");
+    assertEquals(ab.get("A"), "Foo");
+    assertSame(ab.without("C"), ab);
+    final PersistentHashMap<String, String> b = ab.without("A");
+    assertEquals(b.size(), 1);
+    assertNull(b.get("A"));
+    assertTrue(b.without("B").isEmpty());
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void testImmutable() {
+    PersistentHashMap.<String, String>of().put("A", "B");
+  }
+
+  private void testRandomOperations(final boolean colliding) {
+    final Random random = new Random(1);
+    final Map<Object, Integer> expected = new HashMap<Object, Integer>();
+    PersistentHashMap<Object, Integer> map = PersistentHashMap.of();
+    for (int i = 0; i < 20000; i++) {
+      final int k = random.nextInt(2000);
+      final Object key = colliding ? new CollidingKey(k) : Integer.valueOf(k);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.without(key);
+      } else {
+        final Integer value = random.nextInt(10);
+        expected.put(key, value);
+        map = map.with(key, value);
+      }
+      assertEquals(map.size(), expected.size());
+    }
+    assertEquals(map, expected);
+    assertEquals(expected, map);
+    assertEquals(map.hashCode(), expected.hashCode());
+    for (Object key : expected.keySet()) {
+      map = map.without(key);
+    }
+    assertTrue(map.isEmpty());
+    assertFalse(map.entrySet().iterator().hasNext());
+  }
+
+  public void testRandomOperations() {
+    testRandomOperations(false);
+  }
+
+  public void testRandomOperationsWithCollisions() {
+    testRandomOperations(true);
+  }
+
+  private void testChangedKeys(final boolean colliding) {
+    final Random random = new Random(2);
+    PersistentHashMap<Object, Integer> previous = PersistentHashMap.of();
+    for (int i = 0; i < 1000; i++) {
+      previous = previous.with(colliding ? new CollidingKey(i) : Integer.valueOf(i), i);
+    }
+    for (int round = 0; round < 50; round++) {
+      PersistentHashMap<Object, Integer> current = previous;
+      final Set<Object> touched = new HashSet<Object>();
+      for (int i = 0; i < 20; i++) {
+        final int k = random.nextInt(1200);
+        final Object key = colliding ? new CollidingKey(k) : Integer.valueOf(k);
+        touched.add(key);
+        if (random.nextInt(4) == 0) {
+          current = current.without(key);
+        } else {
+          current = current.with(key, random.nextInt(3));
+        }
+      }
+      final Set<Object> expected = new HashSet<Object>();
+      final Set<Object> keys = new HashSet<Object>(previous.keySet());
+      keys.addAll(current.keySet());
+      for (Object key : keys) {
+        if ((previous.containsKey(key) != current.containsKey(key)) || !equal(previous.get(key), current.get(key))) {
+          expected.add(key);
+        }
+      }
+      final Set<Object> actual = new HashSet<Object>(current.getChangedKeys(previous));
+      assertTrue(actual.containsAll(expected), "Missed " + expected + " in " + actual);
+      // Keys removed and re-added may be reported, but nothing that was left alone
+      assertTrue(touched.containsAll(actual), "Untouched keys in " + actual);
+      assertEquals(new HashSet<Object>(previous.getChangedKeys(current)), actual);
+      previous = current;
+    }
+    assertTrue(previous.getChangedKeys(previous).isEmpty());
+  }
+
+  private static boolean equal(final Object a, final Object b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+
+  public void testChangedKeys() {
+    testChangedKeys(false);
+  }
+
+  public void testChangedKeysWithCollisions() {
+    testChangedKeys(true);
+  }
+
+}
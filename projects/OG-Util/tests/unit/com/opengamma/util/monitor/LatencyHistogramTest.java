@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.monitor;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link LatencyHistogram}
+ */
+@Test
+public class LatencyHistogramTest {
+
+  public void testEmpty() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0.0, histogram.getMean(), 0);
+  }
+
+  public void testSmallValuesExact() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 8; i++) {
+      histogram.record(i);
+    }
+    assertEquals(8, histogram.getCount());
+    assertEquals(3, histogram.getPercentile(50));
+    assertEquals(7, histogram.getPercentile(100));
+    assertEquals(3.5, histogram.getMean(), 0);
+  }
+
+  public void testPercentilesWithinPrecision() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(10000000L, histogram.getMax());
+    final long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 5000000L && p50 <= 5000000L * 5 / 4);
+    final long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 9900000L && p99 <= 10000000L);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2012 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.util.monitor;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link LatencyTracer}
+ */
+@Test
+public class LatencyTracerTest {
+
+  public void testSampleInterval() {
+    final LatencyTracer tracer = new LatencyTracer();
+    tracer.setSampleInterval(3);
+    int traced = 0;
+    for (int i = 0; i < 30; i++) {
+      if (tracer.sample() != LatencyTracer.NOT_TRACED) {
+        traced++;
+      }
+    }
+    assertEquals(10, traced);
+    tracer.setSampleInterval(0);
+    for (int i = 0; i < 30; i++) {
+      assertEquals(LatencyTracer.NOT_TRACED, tracer.sample());
+    }
+  }
+
+  public void testWallClock() {
+    final long nanos = LatencyTracer.currentTimeNanos();
+    assertTrue(Math.abs(TimeUnit.NANOSECONDS.toMillis(nanos) - System.currentTimeMillis()) < 1000);
+  }
+
+  public void testStagesRecorded() throws InterruptedException {
+    final LatencyTracer tracer = new LatencyTracer();
+    tracer.setSampleInterval(1);
+    final long trace = tracer.sample();
+    tracer.record("first", trace);
+    Thread.sleep(5);
+    tracer.record("second", trace);
+    tracer.record("second", LatencyTracer.NOT_TRACED);
+    assertEquals(Arrays.asList("first", "second"), Arrays.asList(tracer.getStages().keySet().toArray()));
+    assertEquals(1, tracer.getLatency("first").getCount());
+    assertEquals(1, tracer.getLatency("second").getCount());
+    assertTrue(tracer.getLatency("second").getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+    assertTrue(tracer.report().startsWith("first: count=1"));
+    tracer.reset();
+    assertEquals(0, tracer.getLatency("second").getCount());
+  }
+
+  public void testCurrentTrace() {
+    assertEquals(LatencyTracer.NOT_TRACED, LatencyTracer.getCurrentTrace());
+    final long previous = LatencyTracer.setCurrentTrace(42);
+    try {
+      assertEquals(42, LatencyTracer.getCurrentTrace());
+    } finally {
+      LatencyTracer.setCurrentTrace(previous);
+    }
+    assertEquals(LatencyTracer.NOT_TRACED, LatencyTracer.getCurrentTrace());
+  }
+
+  public void testLifecycle() {
+    final LatencyTracer tracer = new LatencyTracer();
+    assertFalse(tracer.isRunning());
+    tracer.start();
+    assertTrue(tracer.isRunning());
+    tracer.stop();
+    assertFalse(tracer.isRunning());
+  }
+
+}
@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.opengamma.engine.value.ComputedValue;
 import com.opengamma.engine.value.ValueSpecification;
+import com.opengamma.engine.view.ColumnarViewComputationResultModel;
 import com.opengamma.engine.view.ViewResultEntry;
 import com.opengamma.engine.view.ViewResultModel;
 import com.opengamma.util.ArgumentChecker;
@@ -57,21 +58,48 @@ import com.opengamma.util.money.CurrencyAmount;
   /* package */ void put(ViewResultModel results) {
     ArgumentChecker.notNull(results, "results");
     _lastUpdateId++;
+    if (results instanceof ColumnarViewComputationResultModel) {
+      putColumns((ColumnarViewComputationResultModel) results);
+      return;
+    }
     List<ViewResultEntry> allResults = results.getAllResults();
     for (ViewResultEntry result : allResults) {
       ComputedValue computedValue = result.getComputedValue();
-      Object value = computedValue.getValue();
-      ResultKey key = new ResultKey(result.getCalculationConfiguration(), computedValue.getSpecification());
-      CacheItem cacheResult = _results.get(key);
-      if (cacheResult == null) {
-        CacheItem newResult = CacheItem.forValue(value, _lastUpdateId);
-        _results.put(key, newResult);
-      } else {
-        cacheResult.setLatestValue(value, _lastUpdateId);
+      put(result.getCalculationConfiguration(), computedValue.getSpecification(), computedValue.getValue());
+    }
+  }
+
+  /**
+   * Puts the values from a column-oriented result in the cache without building the intermediate result entries.
+   * @param results The results, not null
+   */
+  private void putColumns(ColumnarViewComputationResultModel results) {
+    for (int columnId = 0; columnId < results.getColumnCount(); columnId++) {
+      ColumnarViewComputationResultModel.Column column = results.getColumn(columnId);
+      for (int targetId = column.nextTarget(0); targetId >= 0; targetId = column.nextTarget(targetId + 1)) {
+        Object value;
+        if (column.isDouble(targetId)) {
+          value = column.getDouble(targetId);
+        } else {
+          value = results.getComputedValue(column, targetId).getValue();
+        }
+        ValueSpecification valueSpec = new ValueSpecification(column.getValueName(), results.getTarget(targetId), column.getProperties());
+        put(column.getCalculationConfigurationName(), valueSpec, value);
       }
     }
   }
 
+  private void put(String calcConfigName, ValueSpecification valueSpec, Object value) {
+    ResultKey key = new ResultKey(calcConfigName, valueSpec);
+    CacheItem cacheResult = _results.get(key);
+    if (cacheResult == null) {
+      CacheItem newResult = CacheItem.forValue(value, _lastUpdateId);
+      _results.put(key, newResult);
+    } else {
+      cacheResult.setLatestValue(value, _lastUpdateId);
+    }
+  }
+
   /**
    * Returns the history for a value and calculation configuration.
    * @param calcConfigName The calculation configuration name